@@ -31,6 +31,7 @@
 
 import java.awt.*;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  *
@@ -45,6 +46,7 @@ public class Counter3D {
     String title="img";
     int minSize, maxSize, nbObj=0, nbSurfPix=0;
     int[] imgArray, objID, IDcount, surfList;
+    int[] parent;
     boolean[] IDisAtEdge;
     int[][] surfCoord;
     float[][] centreOfMass, centroid;
@@ -213,134 +215,131 @@ public Counter3D(int[] img, String title, int width, int height, int nbSlices) {
     /** Generates the connexity analysis.
      */
     private void findObjects() {
-        //First ID attribution
-        int currID=0;
-        int currPos=0;
-        int minID=0;
-        int surfPix=0;
-        int neigbNb=0;
-        int pos, currPixID;
-        int neigbX, neigbY, neigbZ;
-        
-        long start=System.currentTimeMillis();
         /*
          Finding the structures:
-         *The minID tag is initialized with the current value of tag (currID).If thresholded,
-         *the neighborhood of the current pixel is collected. For each of those 13 pixels,
-         *the value is retrieved and tested against minID: only the minimum of the two is kept.
-         *As anterior pixels have already been tagged, only two possibilities may exists:
-         *1-The minimum is currID: we start a new structure and currID should be incremented
-         *2-The minimum is not currID: we continue an already existing structure
-         *Each time a new pixel is tagged, a counter of pixels in the current tag is incremented.
+         *The stack is cut in blocks of consecutive slices, each block being tagged by its own thread.
+         *Each thresholded pixel is compared to its 13 anterior neighbours (4 in 2D) within the block:
+         *if none of them is thresholded, a new tag is created (the index of the pixel + 1), otherwise
+         *the pixel takes the tag of the neighbours, whose tags are merged in a union-find structure.
+         *The root of each structure is its smallest tag, i.e. the one of its first pixel.
+         *The surface pixels are found during the same pass.
          */
-                
         objID=new int[length];
+        isSurf=new boolean[length];
+        parent=new int[length+1];
         
-        for (int z=1; z<=nbSlices; z++){
-            for (int y=0; y<height; y++){
-                for (int x=0; x<width; x++){
-                    if (minID==currID) currID++;
-                    if (imgArray[currPos]!=0){
-                        minID=currID;
-                        minID=minAntTag(minID, x, y, z);
-                        objID[currPos]=minID;
+        final int nbThreads=Math.max(1, Math.min(Prefs.getThreads(), nbSlices));
+        final int[] firstSlice=new int[nbThreads+1];
+        for (int i=0; i<=nbThreads; i++) firstSlice[i]=1+(int) ((long) nbSlices*i/nbThreads);
+        final int[] surfPixCount=new int[nbThreads];
+        final AtomicInteger progress=new AtomicInteger(0);
+        
+        Thread[] threads=new Thread[nbThreads];
+        for (int t=0; t<nbThreads; t++){
+            final int thread=t;
+            threads[t]=new Thread(){
+                public void run(){
+                    for (int z=firstSlice[thread]; z<firstSlice[thread+1]; z++){
+                        surfPixCount[thread]+=tagSlice(z, firstSlice[thread]);
+                        IJ.showStatus("Step 1/3: Finding structures");
+                        IJ.showProgress(progress.incrementAndGet(), nbSlices);
                     }
-                    currPos++;
                 }
-            }
-            //IJ.showStatus("Finding structures "+z*100/nbSlices+"%");
-            IJ.showStatus("Step 1/3: Finding structures");
-            IJ.showProgress(z, nbSlices);
+            };
         }
-        IJ.showStatus("");
+        startAndJoin(threads);
+        for (int t=0; t<nbThreads; t++) nbSurfPix+=surfPixCount[t];
         
-        IDcount=new int[currID];
-        for (int i=0; i<length; i++) IDcount[objID[i]]++;
-        
-        IDisAtEdge=new boolean[currID];
-        Arrays.fill(IDisAtEdge, false);
         /*
          *Connecting structures:
-         *The first tagging of structure may have led to shearing apart pieces of a same structure
-         *This part will connect them back by attributing the minimal retrieved tag among the 13 neighboring
-         *pixels located prior to the current pixel + the centre pixel and will replace all the values of those pixels
-         *by the minimum value.
+         *The structures touching each other at the borders of the blocks are merged, then each
+         *structure is numbered in the order of its first pixel.
          */
-        isSurf=new boolean[length];
-        currPos=0;
-        minID=1;
-                
-        for (int z=1; z<=nbSlices; z++){
+        IJ.showStatus("Step 2/3: Connecting structures");
+        for (int t=1; t<nbThreads; t++){
+            int z=firstSlice[t];
             for (int y=0; y<height; y++){
                 for (int x=0; x<width; x++){
+                    int currPos=offset(x, y, z);
                     if (imgArray[currPos]!=0){
-                        minID=objID[currPos];
-                        surfPix=0;
-                        neigbNb=0;
-                        //Find the minimum tag in the neighbours pixels
-                        for (neigbZ=z-1; neigbZ<=z+1; neigbZ++){
-                            for (neigbY=y-1; neigbY<=y+1; neigbY++){
-                                for (neigbX=x-1; neigbX<=x+1; neigbX++){
-                                    //Following line is important otherwise objects might be linked from one side of the stack to the other !!!
-                                    if (neigbX>=0 && neigbX<width && neigbY>=0 && neigbY<height && neigbZ>=1 && neigbZ<=nbSlices){
-                                        pos=offset(neigbX, neigbY, neigbZ);
-                                        if (imgArray[pos]!=0){
-                                            if ((nbSlices>1 && ((neigbX==x && neigbY==y && neigbZ==z-1) ||(neigbX==x && neigbY==y && neigbZ==z+1))) ||(neigbX==x && neigbY==y-1 && neigbZ==z) ||(neigbX==x && neigbY==y+1 && neigbZ==z) ||(neigbX==x-1 && neigbY==y && neigbZ==z) ||(neigbX==x+1 && neigbY==y && neigbZ==z)) surfPix++;
-                                            minID=Math.min(minID, objID[pos]);
-                                        }
-                                        neigbNb++;
-                                    }
-                                }
+                        for (int neigbY=Math.max(y-1, 0); neigbY<=Math.min(y+1, height-1); neigbY++){
+                            for (int neigbX=Math.max(x-1, 0); neigbX<=Math.min(x+1, width-1); neigbX++){
+                                int pos=offset(neigbX, neigbY, z-1);
+                                if (imgArray[pos]!=0) union(objID[currPos], objID[pos]);
                             }
                         }
-                        if ((surfPix!=6 && nbSlices>1) || (surfPix!=4 && nbSlices==1)){
-                            isSurf[currPos]=true;
-                            nbSurfPix++;
-                        }else{
-                            isSurf[currPos]=false;
-                        }
-                        //Replacing tag by the minimum tag found
-                        for (neigbZ=z-1; neigbZ<=z+1; neigbZ++){
-                            for (neigbY=y-1; neigbY<=y+1; neigbY++){
-                                for (neigbX=x-1; neigbX<=x+1; neigbX++){
-                                    //Following line is important otherwise objects might be linked from one side of the stack to the other !!!
-                                    if (neigbX>=0 && neigbX<width && neigbY>=0 && neigbY<height && neigbZ>=1 && neigbZ<=nbSlices){
-                                        pos=offset(neigbX, neigbY, neigbZ);
-                                        if (imgArray[pos]!=0){
-                                            currPixID=objID[pos];
-                                            if (currPixID>minID) replaceID(currPixID, minID);
-                                        }
-                                    }
-                                }
-                            }
-                        }
-                        
-                        //Check if the current particle is touching an edge
-                        if(x==0 || y==0 || x==width-1 || y==height-1 || (nbSlices!=1 && (z==1 || z==nbSlices))) IDisAtEdge[minID]=true;
                     }
-                    currPos++;
                 }
             }
-            IJ.showStatus("Step 2/3: Connecting structures");
-            IJ.showProgress(z, nbSlices);
+            IJ.showProgress(t, nbThreads);
+        }
+        
+        //Each tag now points to a smaller tag or is a root: replace roots by consecutive IDs, then tags by the ID of their root
+        int[] count=new int[1024];
+        int currID=0;
+        for (int i=1; i<=length; i++){
+            int p=parent[i];
+            if (p<0){
+                currID++;
+                if (currID==count.length) count=Arrays.copyOf(count, 2*count.length);
+                count[currID]=-p;
+                parent[i]=currID;
+            }else if (p>0){
+                parent[i]=parent[p];
+            }
         }
         IJ.showStatus("");
         
-        int newCurrID=0;
+        //Check which structures are touching an edge
+        boolean[] isAtEdge=new boolean[currID+1];
+        for (int z=1; z<=nbSlices; z++){
+            boolean zEdge=nbSlices!=1 && (z==1 || z==nbSlices);
+            for (int y=0; y<height; y++){
+                boolean yEdge=zEdge || y==0 || y==height-1;
+                for (int x=0; x<width; x++){
+                    if (yEdge || x==0 || x==width-1){
+                        int currPos=offset(x, y, z);
+                        if (imgArray[currPos]!=0) isAtEdge[parent[objID[currPos]]]=true;
+                    }else{
+                        //Jump to the last pixel of the line
+                        x=width-2;
+                    }
+                }
+            }
+        }
         
-        //Renumbering of all the found objects and update of their respective number of pixels while filtering based on the number of pixels
-        for (int i=1; i<IDcount.length; i++){
-            if ((IDcount[i]!=0 && IDcount[i]>=minSize && IDcount[i]<=maxSize)&& (!exclude || !(exclude && IDisAtEdge[i]))){
+        //Renumbering of all the found objects while filtering based on the number of pixels
+        final int[] newID=new int[currID+1];
+        IDcount=new int[currID+1];
+        IDisAtEdge=new boolean[currID+1];
+        int newCurrID=0;
+        for (int i=1; i<=currID; i++){
+            if ((count[i]>=minSize && count[i]<=maxSize) && (!exclude || !isAtEdge[i])){
                 newCurrID++;
-                int nbPix=IDcount[i];
-                replaceID(i, newCurrID);
-                IDcount[newCurrID]=nbPix;
-            }else{
-                replaceID(i,0);
+                newID[i]=newCurrID;
+                IDcount[newCurrID]=count[i];
+                IDisAtEdge[newCurrID]=isAtEdge[i];
             }
-            IJ.showStatus("Step 3/3: Renumbering structures");
-            IJ.showProgress(i, currID);
         }
+        
+        progress.set(0);
+        for (int t=0; t<nbThreads; t++){
+            final int thread=t;
+            threads[t]=new Thread(){
+                public void run(){
+                    for (int z=firstSlice[thread]; z<firstSlice[thread+1]; z++){
+                        int end=offset(width-1, height-1, z);
+                        for (int currPos=offset(0, 0, z); currPos<=end; currPos++){
+                            if (imgArray[currPos]!=0) objID[currPos]=newID[parent[objID[currPos]]];
+                        }
+                        IJ.showStatus("Step 3/3: Renumbering structures");
+                        IJ.showProgress(progress.incrementAndGet(), nbSlices);
+                    }
+                }
+            };
+        }
+        startAndJoin(threads);
+        parent=null;
         IJ.showStatus("");
         
         if (redirect) prepareImgArrayForRedirect();
@@ -350,47 +349,124 @@ private void findObjects() {
         foundObjects=true;
     }
     
+    /** Tags the thresholded pixels of a slice, merging the tags of touching pixels, and finds the surface pixels.
+     * @param z slice to tag.
+     * @param firstZ first slice of the block the slice belongs to: the anterior slice is only looked at if it belongs to the same block.
+     * @return the number of surface pixels found in the slice.
+     */
+    private int tagSlice(int z, int firstZ){
+        int surfPixNb=0;
+        int currPos=offset(0, 0, z);
+        for (int y=0; y<height; y++){
+            for (int x=0; x<width; x++){
+                if (imgArray[currPos]!=0){
+                    //Merge the tags of the anterior neighbours
+                    int root=0;
+                    for (int neigbZ=z-1; neigbZ<=z; neigbZ++){
+                        if (neigbZ<firstZ) continue;
+                        int maxY=neigbZ==z?y-1:y+1;
+                        for (int neigbY=Math.max(y-1, 0); neigbY<=Math.min(maxY, height-1); neigbY++){
+                            for (int neigbX=Math.max(x-1, 0); neigbX<=Math.min(x+1, width-1); neigbX++){
+                                int pos=offset(neigbX, neigbY, neigbZ);
+                                if (imgArray[pos]!=0) root=root==0?find(objID[pos]):union(root, objID[pos]);
+                            }
+                        }
+                    }
+                    if (x>0 && imgArray[currPos-1]!=0) root=root==0?find(objID[currPos-1]):union(root, objID[currPos-1]);
+                    
+                    if (root==0){
+                        //New structure
+                        root=currPos+1;
+                        parent[root]=0;
+                    }
+                    objID[currPos]=root;
+                    parent[root]--;
+                    
+                    //Count the thresholded pixels among the 6 (4 in 2D) face neighbours
+                    int surfPix=0;
+                    if (x>0 && imgArray[currPos-1]!=0) surfPix++;
+                    if (x<width-1 && imgArray[currPos+1]!=0) surfPix++;
+                    if (y>0 && imgArray[currPos-width]!=0) surfPix++;
+                    if (y<height-1 && imgArray[currPos+width]!=0) surfPix++;
+                    if (z>1 && imgArray[currPos-width*height]!=0) surfPix++;
+                    if (z<nbSlices && imgArray[currPos+width*height]!=0) surfPix++;
+                    if ((surfPix!=6 && nbSlices>1) || (surfPix!=4 && nbSlices==1)){
+                        isSurf[currPos]=true;
+                        surfPixNb++;
+                    }
+                }
+                currPos++;
+            }
+        }
+        return surfPixNb;
+    }
+    
     /** Generates the objects list.
      */
     public void getObjects(){
         if (!foundObjects) findObjects();
         
         if (!getObjects){
-            obj=new Vector<Object3D>();
-
-            for (int i=0; i<nbObj; i++) obj.add(new Object3D(IDcount[i+1], cal));
+            final Object3D[] objects=new Object3D[nbObj];
+            for (int i=0; i<nbObj; i++) objects[i]=new Object3D(IDcount[i+1], cal);
+            
+            //Sort the pixels by object, keeping their order within each object
+            final int[] start=new int[nbObj+2];
+            for (int i=1; i<=nbObj; i++) start[i+1]=start[i]+IDcount[i];
             IDcount=null;
+            final int[] pixels=new int[start[nbObj+1]];
+            int[] next=Arrays.copyOf(start, nbObj+1);
+            for (int currPos=0; currPos<length; currPos++){
+                int currID=objID[currPos];
+                if (currID!=0) pixels[next[currID]++]=currPos;
+            }
+            next=null;
             
-            int currPos=0;
-            for (int z=1; z<=nbSlices; z++){
-                for (int y=0; y<height; y++){
-                    for (int x=0; x<width; x++){
-                        int currID=objID[currPos];
-                        if (currID!=0){
-                            float surf=0;
-                            if (nbSlices==1) surf=(float) (cal.pixelWidth*cal.pixelHeight);
-                            if (isSurf[currPos] && nbSlices>1){
-                                surf=(float) (2*(cal.pixelHeight*cal.pixelDepth+cal.pixelWidth*cal.pixelDepth+cal.pixelWidth*cal.pixelHeight));
-                                //Look at the 6 exposed surfaces
-                                if (x>0 && objID[offset (x-1, y, z)]==currID) surf-=cal.pixelHeight*cal.pixelDepth;
-                                if (x<width-1 && objID[offset (x+1, y, z)]==currID) surf-=cal.pixelHeight*cal.pixelDepth;
-                                if (y>0 && objID[offset (x, y-1, z)]==currID) surf-=cal.pixelWidth*cal.pixelDepth;
-                                if (y<height-1 && objID[offset (x, y+1, z)]==currID) surf-=cal.pixelWidth*cal.pixelDepth;
-                                if (z>1 && objID[offset (x, y, z-1)]==currID) surf-=cal.pixelWidth*cal.pixelHeight;
-                                if (z<=nbSlices-1 && objID[offset (x, y, z+1)]==currID) surf-=cal.pixelWidth*cal.pixelHeight;
-                            }
-                            ((Object3D) (obj.get(currID-1))).addVoxel(x, y, z, imgArray[currPos], isSurf[currPos], surf);
+            //Fill the objects in parallel, their statistics being computed when they are full
+            final AtomicInteger ai=new AtomicInteger(0);
+            Thread[] threads=new Thread[Math.max(1, Math.min(Prefs.getThreads(), nbObj))];
+            for (int t=0; t<threads.length; t++){
+                threads[t]=new Thread(){
+                    public void run(){
+                        for (int i=ai.getAndIncrement(); i<nbObj; i=ai.getAndIncrement()){
+                            for (int j=start[i+1]; j<start[i+2]; j++) addVoxel(objects[i], pixels[j]);
                         }
-                        currPos++;
                     }
-                }
+                };
             }
+            startAndJoin(threads);
+            
+            obj=new Vector<Object3D>(Arrays.asList(objects));
             imgArray=null;
             System.gc();
         }
         getObjects=true;
     }
     
+    /** Adds a pixel to its object, computing its contribution to the object's calibrated surface.
+     * @param currObj object the pixel belongs to.
+     * @param currPos index of the pixel.
+     */
+    private void addVoxel(Object3D currObj, int currPos){
+        int x=currPos%width;
+        int y=(currPos/width)%height;
+        int z=currPos/(width*height)+1;
+        int currID=objID[currPos];
+        float surf=0;
+        if (nbSlices==1) surf=(float) (cal.pixelWidth*cal.pixelHeight);
+        if (isSurf[currPos] && nbSlices>1){
+            surf=(float) (2*(cal.pixelHeight*cal.pixelDepth+cal.pixelWidth*cal.pixelDepth+cal.pixelWidth*cal.pixelHeight));
+            //Look at the 6 exposed surfaces
+            if (x>0 && objID[offset (x-1, y, z)]==currID) surf-=cal.pixelHeight*cal.pixelDepth;
+            if (x<width-1 && objID[offset (x+1, y, z)]==currID) surf-=cal.pixelHeight*cal.pixelDepth;
+            if (y>0 && objID[offset (x, y-1, z)]==currID) surf-=cal.pixelWidth*cal.pixelDepth;
+            if (y<height-1 && objID[offset (x, y+1, z)]==currID) surf-=cal.pixelWidth*cal.pixelDepth;
+            if (z>1 && objID[offset (x, y, z-1)]==currID) surf-=cal.pixelWidth*cal.pixelHeight;
+            if (z<=nbSlices-1 && objID[offset (x, y, z+1)]==currID) surf-=cal.pixelWidth*cal.pixelHeight;
+        }
+        currObj.addVoxel(x, y, z, imgArray[currPos], isSurf[currPos], surf);
+    }
+    
     /**
      * Returns the object at the provided index, as an Object3D
      * @param index the index of the object to return
@@ -827,62 +903,49 @@ private int offset(int m,int n,int o){
         }
     }
     
-    /** Returns the minimum anterior tag among the 13 previous pixels (4 pixels in 2D).
-     * @param initialValue: value to which the 13 (or 4) retrieved values should be compared to
-     * @param x coordinate of the current pixel.
-     * @param y coordinate of the current pixel.
-     * @param z coordinate of the current pixel.
-     * @return the minimum found anterior tag as an integer.
+    /** Returns the root of a tag, halving the path to it on the way.
+     * @param tag tag whose root is to be found.
+     * @return the root tag, i.e. the smallest tag of the structure.
      */
-    private int minAntTag(int initialValue, int x, int y, int z){
-        int min=initialValue;
-        int currPos;
-
-        for (int neigbY=y-1; neigbY<=y+1; neigbY++){
-            for (int neigbX=x-1; neigbX<=x+1; neigbX++){
-                //Following line is important otherwise objects might be linked from one side of the stack to the other !!!
-                if (neigbX>=0 && neigbX<width && neigbY>=0 && neigbY<height && z-1>=1 && z-1<=nbSlices){
-                    currPos=offset(neigbX, neigbY, z-1);
-                    if (imgArray[currPos]!=0) min=Math.min(min, objID[currPos]);
-                }
-            }
+    private int find(int tag){
+        while (parent[tag]>0){
+            int p=parent[tag];
+            if (parent[p]>0) parent[tag]=parent[p];
+            tag=p;
         }
-
-        for (int neigbX=x-1; neigbX<=x+1; neigbX++){
-            //Following line is important otherwise objects might be linked from one side of the stack to the other !!!
-            if (neigbX>=0 && neigbX<width && y-1>=0 && y-1<height && z>=1 && z<=nbSlices){
-                currPos=offset(neigbX, y-1, z);
-                if (imgArray[currPos]!=0) min=Math.min(min, objID[currPos]);
-            }
-        }
-
-        //Following line is important otherwise objects might be linked from one side of the stack to the other !!!
-        if (x-1>=0 && x-1<width && y>=0 && y<height && z>=1 && z<=nbSlices ){
-            currPos=offset(x-1, y, z);
-            if (imgArray[currPos]!=0 && x>=1 && y>=0 && z>=1) min=Math.min(min, objID[currPos]);
+        return tag;
+    }
+    
+    /** Merges the structures two tags belong to. The smallest root becomes the root of the merged structure.
+     * @param tag1 first tag.
+     * @param tag2 second tag.
+     * @return the root of the merged structure.
+     */
+    private int union(int tag1, int tag2){
+        int root1=find(tag1);
+        int root2=find(tag2);
+        if (root1==root2) return root1;
+        if (root1>root2){
+            int tmp=root1;
+            root1=root2;
+            root2=tmp;
         }
-
-        return min;
+        //Roots store minus the number of pixels of their structure
+        parent[root1]+=parent[root2];
+        parent[root2]=root1;
+        return root1;
     }
     
-    /** Replaces one object ID by another within the objID array.
-     * @param old value to be replaced.
-     * @param new value to be replaced by. </P>
-     * NB: the arrays carrying the number of pixels/surface pixels carrying those IDs will also be updated.
+    /** Starts the threads and waits for them to finish.
+     * @param threads threads to run.
      */
-    private void replaceID(int oldVal, int newVal){
-        if (oldVal!=newVal){
-            int nbFoundPix=0;
-            for (int i=0; i<objID.length; i++){
-                if (objID[i]==oldVal){
-                    objID[i]=newVal;
-                    nbFoundPix++;
-                }
-                if (nbFoundPix==IDcount[oldVal]) i=objID.length;
-            }
-            IDcount[oldVal]=0;
-            IDcount[newVal]+=nbFoundPix;
-         }
+    private static void startAndJoin(Thread[] threads){
+        for (int i=0; i<threads.length; i++) threads[i].start();
+        try{
+            for (int i=0; i<threads.length; i++) threads[i].join();
+        }catch (InterruptedException e){
+            throw new RuntimeException(e);
+        }
     }
     
     /** Generates the ImagePlus based on Counter3D object width, height and number of slices, the input array and title.
@@ -19,6 +19,7 @@
 import javax.vecmath.Point3f;
 import javax.vecmath.Vector3f;
 
+import marchingcubes.IndexedMesh;
 import vib.InterpolatedImage;
 
 public class CustomIndexedTriangleMesh extends CustomMesh {
@@ -30,7 +31,15 @@ public class CustomIndexedTriangleMesh extends CustomMesh {
 	protected int nVertices;
 
 	public CustomIndexedTriangleMesh(List<Point3f> mesh) {
-		// TODO
+		this(IndexedMesh.fromTriangles(mesh), DEFAULT_COLOR, 0);
+	}
+
+	public CustomIndexedTriangleMesh(IndexedMesh mesh) {
+		this(mesh, DEFAULT_COLOR, 0);
+	}
+
+	public CustomIndexedTriangleMesh(IndexedMesh mesh, Color3f color, float transp) {
+		this(mesh.getVertexPoints(), mesh.faces, color, transp);
 	}
 
 	public CustomIndexedTriangleMesh(Point3f[] vertices, int[] faces) {
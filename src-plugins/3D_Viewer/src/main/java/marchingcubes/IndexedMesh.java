@@ -0,0 +1,99 @@
+package marchingcubes;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import javax.vecmath.Point3f;
+
+/**
+ * A triangle mesh with shared vertices, as produced by
+ * {@link MCCube#getIndexedTriangles(ij3d.Volume, int)}.
+ *
+ * The vertex coordinates are stored as consecutive x, y, z triples
+ * and each triangle as three consecutive indices into the vertices,
+ * so a closed surface needs about one sixth of the memory of a list
+ * of three Point3f per triangle.
+ */
+public class IndexedMesh {
+
+	/** x, y, z of each vertex */
+	public final float[] vertices;
+
+	/** vertex indices, three per triangle */
+	public final int[] faces;
+
+	public IndexedMesh(float[] vertices, int[] faces) {
+		if(vertices.length % 3 != 0 || faces.length % 3 != 0)
+			throw new IllegalArgumentException(
+				"Number must be a multiple of 3");
+		this.vertices = vertices;
+		this.faces = faces;
+	}
+
+	public int getVertexCount() {
+		return vertices.length / 3;
+	}
+
+	public int getTriangleCount() {
+		return faces.length / 3;
+	}
+
+	/**
+	 * Returns a new Point3f for each vertex, e.g. for
+	 * customnode.CustomIndexedTriangleMesh.
+	 */
+	public Point3f[] getVertexPoints() {
+		Point3f[] p = new Point3f[getVertexCount()];
+		for(int i = 0; i < p.length; i++)
+			p[i] = new Point3f(vertices[3 * i],
+				vertices[3 * i + 1], vertices[3 * i + 2]);
+		return p;
+	}
+
+	/**
+	 * Expands the mesh into a list of points where three subsequent
+	 * points specify one triangle, as expected by
+	 * customnode.CustomTriangleMesh. Every entry is a new Point3f,
+	 * since meshes may be edited point by point.
+	 */
+	public List<Point3f> toTriangleList() {
+		List<Point3f> tri = new ArrayList<Point3f>(faces.length);
+		for(int i = 0; i < faces.length; i++) {
+			int v = 3 * faces[i];
+			tri.add(new Point3f(vertices[v],
+				vertices[v + 1], vertices[v + 2]));
+		}
+		return tri;
+	}
+
+	/**
+	 * Creates an indexed mesh from a list of points where three
+	 * subsequent points specify one triangle. Equal points are
+	 * merged into one vertex.
+	 */
+	public static IndexedMesh fromTriangles(List<Point3f> tri) {
+		if(tri.size() % 3 != 0)
+			throw new IllegalArgumentException(
+				"Number must be a multiple of 3");
+		HashMap<Point3f, Integer> index = new HashMap<Point3f, Integer>();
+		float[] vertices = new float[3 * tri.size()];
+		int[] faces = new int[tri.size()];
+		int nVertices = 0;
+		for(int i = 0; i < faces.length; i++) {
+			Point3f p = tri.get(i);
+			Integer v = index.get(p);
+			if(v == null) {
+				v = nVertices++;
+				index.put(p, v);
+				vertices[3 * v] = p.x;
+				vertices[3 * v + 1] = p.y;
+				vertices[3 * v + 2] = p.z;
+			}
+			faces[i] = v;
+		}
+		float[] tmp = new float[3 * nVertices];
+		System.arraycopy(vertices, 0, tmp, 0, tmp.length);
+		return new IndexedMesh(tmp, faces);
+	}
+}
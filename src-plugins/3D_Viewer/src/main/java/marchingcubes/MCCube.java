@@ -2,6 +2,7 @@
 
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
 import javax.vecmath.Point3f;
 import ij.IJ;
 import ij3d.Volume;
@@ -12,6 +13,7 @@
 import java.awt.geom.Area;
 import java.awt.geom.PathIterator;
 import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import mpicbg.imglib.container.shapelist.ShapeList;
 import ij3d.ImgLibVolume;
 
@@ -193,20 +195,10 @@ public static final List<Point3f> getTriangles(Volume volume, int thresh){
 		car.threshold = thresh + 0.5f;
 		car.volume = volume;
 
-		if (volume instanceof ImgLibVolume && ((ImgLibVolume)volume).getImage().getContainer() instanceof ShapeList) {
+		if (isShapeList(volume)) {
 			getShapeListImageTriangles((ImgLibVolume)volume, car, tri);
 		} else {
-			MCCube cube = new MCCube();
-			for(int z = -1; z < car.d+1; z+=1){
-				for(int x = -1; x < car.w+1; x+=1){
-					for(int y = -1; y < car.h+1; y+=1){
-						cube.init(x, y, z);
-						cube.computeEdges(car);
-						cube.getTriangles(tri, car);
-					}
-				}
-				IJ.showProgress(z, car.d-2);
-			}
+			return getIndexedTriangles(volume, thresh).toTriangleList();
 		}
 
 		// convert pixel coordinates
@@ -219,6 +211,327 @@ public static final List<Point3f> getTriangles(Volume volume, int thresh){
 		return tri;
 	}
 
+	private static final boolean isShapeList(final Volume volume) {
+		return volume instanceof ImgLibVolume
+			&& ((ImgLibVolume)volume).getImage().getContainer() instanceof ShapeList;
+	}
+
+	/**
+	 * Create an indexed mesh from the specified image data and the given
+	 * isovalue. The triangles and the vertex coordinates are the same as
+	 * those of getTriangles(), in the same order, but vertices shared by
+	 * adjacent triangles are stored only once.
+	 *
+	 * The volume is processed in parallel, in slabs of consecutive slices.
+	 * Each slab welds the vertices on its cube edges by edge position, and
+	 * the vertices on the planes between slabs are merged afterwards.
+	 * @param volume
+	 * @param thresh
+	 * @return
+	 */
+	public static final IndexedMesh getIndexedTriangles(
+			final Volume volume, final int thresh) {
+		if (isShapeList(volume))
+			return IndexedMesh.fromTriangles(
+				getTriangles(volume, thresh));
+
+		// cube layers -1 .. d-1; the cubes at z = d are empty
+		final int nLayers = volume.zDim + 1;
+		final int nSlabs = Math.max(1, Math.min(nLayers,
+			Runtime.getRuntime().availableProcessors()));
+		final Slab[] slabs = new Slab[nSlabs];
+		final AtomicInteger done = new AtomicInteger(0);
+		final Thread[] threads = new Thread[nSlabs];
+		for (int i = 0; i < nSlabs; i++) {
+			final Slab slab = slabs[i] = new Slab(volume, thresh + 0.5f,
+				-1 + (int)((long)nLayers * i / nSlabs),
+				-1 + (int)((long)nLayers * (i + 1) / nSlabs), done);
+			threads[i] = new Thread() {
+				{ setPriority(Thread.NORM_PRIORITY); }
+				@Override
+				public void run() {
+					slab.run();
+				}
+			};
+			threads[i].start();
+		}
+		try {
+			for (int i = 0; i < nSlabs; i++)
+				threads[i].join();
+		} catch (InterruptedException e) {
+			for (int i = 0; i < nSlabs; i++)
+				threads[i].interrupt();
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Marching cubes interrupted", e);
+		}
+		for (int i = 0; i < nSlabs; i++)
+			if (slabs[i].error != null)
+				throw new RuntimeException(slabs[i].error);
+
+		// Merge the slabs: a vertex on the first plane of a slab is
+		// the one on the last plane of the previous slab.
+		int nVertices = 0, nIndices = 0;
+		final int[][] globalIndex = new int[nSlabs][];
+		for (int i = 0; i < nSlabs; i++) {
+			final Slab slab = slabs[i];
+			final int[] gi = globalIndex[i] = new int[slab.nVertices];
+			Arrays.fill(gi, -1);
+			if (i > 0) {
+				final Slab prev = slabs[i - 1];
+				final int[] pgi = globalIndex[i - 1];
+				for (int g = 0; g < slab.firstX.length; g++) {
+					if (slab.firstX[g] >= 0 && prev.lastX[g] >= 0)
+						gi[slab.firstX[g]] = pgi[prev.lastX[g]];
+					if (slab.firstY[g] >= 0 && prev.lastY[g] >= 0)
+						gi[slab.firstY[g]] = pgi[prev.lastY[g]];
+				}
+			}
+			for (int v = 0; v < slab.nVertices; v++)
+				if (gi[v] < 0)
+					gi[v] = nVertices++;
+			nIndices += slab.nIndices;
+		}
+		final float[] vertices = new float[3 * nVertices];
+		final int[] indices = new int[nIndices];
+		nIndices = 0;
+		for (int i = 0; i < nSlabs; i++) {
+			final Slab slab = slabs[i];
+			final int[] gi = globalIndex[i];
+			for (int v = 0; v < slab.nVertices; v++)
+				System.arraycopy(slab.vertices, 3 * v,
+					vertices, 3 * gi[v], 3);
+			for (int f = 0; f < slab.nIndices; f++)
+				indices[nIndices++] = gi[slab.indices[f]];
+			slabs[i] = null;
+			globalIndex[i] = null;
+		}
+		return new IndexedMesh(vertices, indices);
+	}
+
+	/**
+	 * Marching cubes over the cube layers zStart .. zEnd-1. The
+	 * intensities are read one plane at a time, and the vertices of
+	 * each cube edge are computed once, indexed by the edge position
+	 * in the current planes. The vertex indices on the first and the
+	 * last plane are kept for merging with the neighbouring slabs.
+	 */
+	private static final class Slab implements Runnable {
+		final Volume volume;
+		final float threshold;
+		final int zStart, zEnd, w, h, d;
+		// grid points -1 .. w (x) and -1 .. h (y)
+		final int gw, gh;
+		final AtomicInteger done;
+
+		float[] vertices = new float[3 * 1024];
+		int nVertices = 0;
+		int[] indices = new int[3 * 1024];
+		int nIndices = 0;
+
+		// vertex indices of the x and y edges on the first and
+		// on the last plane of the slab
+		int[] firstX, firstY, lastX, lastY;
+		Throwable error;
+
+		Slab(final Volume volume, final float threshold,
+				final int zStart, final int zEnd,
+				final AtomicInteger done) {
+			this.volume = volume;
+			this.threshold = threshold;
+			this.zStart = zStart;
+			this.zEnd = zEnd;
+			this.w = volume.xDim;
+			this.h = volume.yDim;
+			this.d = volume.zDim;
+			this.gw = w + 2;
+			this.gh = h + 2;
+			this.done = done;
+		}
+
+		public void run() {
+			try {
+				march();
+			} catch (Throwable t) {
+				error = t;
+			}
+		}
+
+		/** Intensities of plane z, zero outside of the volume */
+		private void loadPlane(final int z, final int[] plane) {
+			Arrays.fill(plane, 0);
+			if (z < 0 || z >= d)
+				return;
+			// The cursor of an ImgLibVolume is shared by all threads
+			if (volume instanceof ImgLibVolume) {
+				synchronized (volume) {
+					loadPlaneUnchecked(z, plane);
+				}
+			} else {
+				loadPlaneUnchecked(z, plane);
+			}
+		}
+
+		private void loadPlaneUnchecked(final int z, final int[] plane) {
+			for (int y = 0; y < h; y++)
+				for (int x = 0, g = 1 + gw * (y + 1); x < w; x++, g++)
+					plane[g] = volume.load(x, y, z);
+		}
+
+		private void march() {
+			final int n = gw * gh;
+			int[] lower = new int[n], upper = new int[n];
+			int[] xLo = new int[n], yLo = new int[n];
+			int[] xHi = new int[n], yHi = new int[n];
+			final int[] zEdge = new int[n];
+			Arrays.fill(xLo, -1);
+			Arrays.fill(yLo, -1);
+			loadPlane(zStart, lower);
+			firstX = xLo;
+			firstY = yLo;
+			final int[] iv = new int[8];
+			final int[] ev = new int[12];
+			for (int z = zStart; z < zEnd; z++) {
+				if (Thread.currentThread().isInterrupted())
+					return;
+				loadPlane(z + 1, upper);
+				Arrays.fill(xHi, -1);
+				Arrays.fill(yHi, -1);
+				Arrays.fill(zEdge, -1);
+				for (int x = -1; x < w; x++) {
+					for (int y = -1; y < h; y++) {
+						final int g0 = (x + 1) + gw * (y + 1);
+						final int g1 = g0 + 1;
+						final int g2 = g0 + 1 + gw;
+						final int g3 = g0 + gw;
+						iv[0] = lower[g0];
+						iv[1] = lower[g1];
+						iv[2] = lower[g2];
+						iv[3] = lower[g3];
+						iv[4] = upper[g0];
+						iv[5] = upper[g1];
+						iv[6] = upper[g2];
+						iv[7] = upper[g3];
+						int cn = 0;
+						for (int i = 0; i < 8; i++)
+							if (iv[i] - threshold > 0)
+								cn += 1 << i;
+						int offset = cn * 15;
+						if (faces[offset] == -1)
+							continue;
+						// only the edges that are used
+						Arrays.fill(ev, -1);
+						for (int index = 0; index < 5; index++) {
+							if (faces[offset] == -1)
+								break;
+							for (int k = 0; k < 3; k++) {
+								final int e = faces[offset + k];
+								if (ev[e] < 0)
+									ev[e] = edgeVertex(e, x, y, z,
+										g0, g1, g2, g3, iv,
+										xLo, yLo, xHi, yHi, zEdge);
+								addFace(ev[e]);
+							}
+							offset += 3;
+						}
+					}
+				}
+				if (z == zStart) {
+					// keep the first plane for merging
+					xLo = new int[n];
+					yLo = new int[n];
+				}
+				int[] tmp = lower; lower = upper; upper = tmp;
+				tmp = xLo; xLo = xHi; xHi = tmp;
+				tmp = yLo; yLo = yHi; yHi = tmp;
+				IJ.showProgress(done.incrementAndGet(), d + 1);
+			}
+			lastX = xLo;
+			lastY = yLo;
+
+			// convert pixel coordinates
+			for (int i = 0; i < 3 * nVertices; i += 3) {
+				vertices[i] = (float)(vertices[i] * volume.pw + volume.minCoord.x);
+				vertices[i + 1] = (float)(vertices[i + 1] * volume.ph + volume.minCoord.y);
+				vertices[i + 2] = (float)(vertices[i + 2] * volume.pd + volume.minCoord.z);
+			}
+		}
+
+		/**
+		 * Index of the vertex on edge e of the cube at x, y, z, which is
+		 * created if it was not computed for a neighbouring cube yet.
+		 */
+		private int edgeVertex(final int e, final int x, final int y,
+				final int z, final int g0, final int g1, final int g2,
+				final int g3, final int[] iv,
+				final int[] xLo, final int[] yLo,
+				final int[] xHi, final int[] yHi, final int[] zEdge) {
+			final int[] edges;
+			final int g;
+			switch (e) {
+				case 0: edges = xLo; g = g0; break;
+				case 1: edges = yLo; g = g1; break;
+				case 2: edges = xLo; g = g3; break;
+				case 3: edges = yLo; g = g0; break;
+				case 4: edges = xHi; g = g0; break;
+				case 5: edges = yHi; g = g1; break;
+				case 6: edges = xHi; g = g3; break;
+				case 7: edges = yHi; g = g0; break;
+				case 8: edges = zEdge; g = g0; break;
+				case 9: edges = zEdge; g = g1; break;
+				case 10: edges = zEdge; g = g3; break;
+				default: edges = zEdge; g = g2; break;
+			}
+			if (edges[g] < 0) {
+				final int a = EDGE_VERTICES[2 * e];
+				final int b = EDGE_VERTICES[2 * e + 1];
+				edges[g] = addVertex(
+					x + CORNERS[3 * a], y + CORNERS[3 * a + 1], z + CORNERS[3 * a + 2], iv[a],
+					x + CORNERS[3 * b], y + CORNERS[3 * b + 1], z + CORNERS[3 * b + 2], iv[b]);
+			}
+			return edges[g];
+		}
+
+		/** Same interpolation as computeEdge() */
+		private int addVertex(final int x1, final int y1, final int z1, final int i1,
+				final int x2, final int y2, final int z2, final int i2) {
+			if (i2 < i1)
+				return addVertex(x2, y2, z2, i2, x1, y1, z1, i1);
+			final float t = (threshold - i1) / (float) (i2 - i1);
+			if (3 * nVertices == vertices.length) {
+				final float[] tmp = new float[2 * vertices.length];
+				System.arraycopy(vertices, 0, tmp, 0, vertices.length);
+				vertices = tmp;
+			}
+			final int i = 3 * nVertices;
+			vertices[i] = ((float)x2 - x1) * t + x1;
+			vertices[i + 1] = ((float)y2 - y1) * t + y1;
+			vertices[i + 2] = ((float)z2 - z1) * t + z1;
+			return nVertices++;
+		}
+
+		private void addFace(final int v) {
+			if (nIndices == indices.length) {
+				final int[] tmp = new int[2 * indices.length];
+				System.arraycopy(indices, 0, tmp, 0, indices.length);
+				indices = tmp;
+			}
+			indices[nIndices++] = v;
+		}
+	}
+
+	// offsets of the cube vertices v0 .. v7 (see init())
+	private static final int[] CORNERS = {
+		0, 0, 0,  1, 0, 0,  1, 1, 0,  0, 1, 0,
+		0, 0, 1,  1, 0, 1,  1, 1, 1,  0, 1, 1
+	};
+
+	// cube vertices of the edges e0 .. e11 (see computeEdges())
+	private static final int[] EDGE_VERTICES = {
+		0, 1,  1, 2,  2, 3,  3, 0,
+		4, 5,  5, 6,  6, 7,  7, 4,
+		0, 4,  1, 5,  3, 7,  2, 6
+	};
+
 	/** Identical to getTriangles, but iterates only the minimal necessary bounding box, by asking the shapes objects. */
 	private static final void getShapeListImageTriangles(final ImgLibVolume volume, final Carrier car, final List<Point3f> tri) {
 		final ShapeList sli = (ShapeList) volume.getImage().getContainer();
@@ -40,6 +40,20 @@ public List getTriangles(ImagePlus image, int threshold,
 		return l;
 	}
 
+	/**
+	 * Like getTriangles(), but returns the surface as a mesh with shared
+	 * vertices, e.g. for customnode.CustomIndexedTriangleMesh.
+	 */
+	public IndexedMesh getIndexedTriangles(ImagePlus image, int threshold,
+					boolean[] channels, int resamplingF) {
+
+		if(resamplingF != 1)
+			image = NaiveResampler.resample(image, resamplingF);
+		Volume volume = new Volume(image, channels);
+		volume.setAverage(true);
+		return MCCube.getIndexedTriangles(volume, threshold);
+	}
+
 	/**
 	 * @param img The Image<? extends RealType> instance to use.
 	 * @param threshold The cut-off (inclusive) of pixel values considered inside.
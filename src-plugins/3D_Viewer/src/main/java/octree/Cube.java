@@ -1,7 +1,5 @@
 package octree;
 
-import java.io.File;
-
 import java.util.Arrays;
 import java.util.List;
 import javax.media.j3d.Canvas3D;
@@ -23,6 +21,7 @@ public class Cube implements AxisConstants, Comparable<Cube> {
 	final String dir;
 
 	private Cube[] children;
+	private Cube parent;
 	private final Point3d midp;
 	private final Point3d[] corners;
 	private Point2d[] cornersInCanvas;
@@ -42,7 +41,7 @@ public Cube(VolumeOctree oct, String dir, int x, int y, int z, int l) {
 		this.z = z;
 		this.level = l;
 		this.name = x + "_" + y + "_" + z + "_" + l;
-		if(new File(this.dir + name + ".info").exists()) {
+		if(oct.hasCube(this.dir, name)) {
 			this.cdata = new CubeData(this);
 
 			corners = new Point3d[8];
@@ -78,7 +77,7 @@ public Cube(VolumeOctree oct, String dir, int x, int y, int z, int l) {
 	public Cube createCube(VolumeOctree oct,
 			String dir, int x, int y, int z, int l) {
 		String name = x + "_" + y + "_" + z + "_" + l;
-		if(new File(dir, name + ".info").exists())
+		if(oct.hasCube(dir + "/", name))
 			return new Cube(oct, dir, x, y, z, l);
 		return null;
 	}
@@ -87,6 +86,30 @@ public Cube[] getChildren() {
 		return children;
 	}
 
+	public Cube getParent() {
+		return parent;
+	}
+
+	/**
+	 * Collect the cubes which are currently displayed.
+	 */
+	public void collectVisibleCubes(List<Cube> cubes) {
+		if(visible)
+			cubes.add(this);
+		if(!subtreeVisible || children == null)
+			return;
+		for(Cube c : children)
+			if(c != null)
+				c.collectVisibleCubes(cubes);
+	}
+
+	/**
+	 * Position of the cube center, in local coordinates.
+	 */
+	Point3d getCenter() {
+		return midp;
+	}
+
 	public void prepareForAxis(int axis, Point3d eyePosInLocal) {
 		cdata.prepareForAxis(axis);
 		if(children == null)
@@ -199,9 +222,12 @@ public void createChildren() {
 		children[6] = createCube(octree, dir, x,     y+l*s, z+l*s, l);
 		children[7] = createCube(octree, dir, x+l*s, y+l*s, z+l*s, l);
 		// children should create their children too
-		for(Cube cube : children)
-			if(cube != null)
+		for(Cube cube : children) {
+			if(cube != null) {
+				cube.parent = this;
 				cube.createChildren();
+			}
+		}
 	}
 
 	Point3d ptmp = new Point3d();
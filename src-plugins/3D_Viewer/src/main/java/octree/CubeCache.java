@@ -0,0 +1,188 @@
+package octree;
+
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import ij3d.AxisConstants;
+
+/**
+ * Bounded LRU cache for the data of the cubes of a VolumeOctree.
+ *
+ * Cubes are loaded either from a CubeStore or, for data prepared in
+ * the old layout, from the per-cube files. Besides loading on demand,
+ * background threads load the cubes that are likely to be shown next,
+ * so that they are available when the view changes.
+ */
+class CubeCache implements AxisConstants {
+
+	private final CubeStore store;
+	private final int cubeBytes;
+	private final int capacity;
+
+	private final LinkedHashMap<String, byte[]> cache;
+
+	/* Cubes to prefetch, for the axis prefetchAxis */
+	private final LinkedList<Cube> queue = new LinkedList<Cube>();
+	private int prefetchAxis = Z_AXIS;
+	private boolean closed = false;
+	private final Thread[] workers;
+
+	/**
+	 * @param store the store to read from, or null for the
+	 *        per-cube files
+	 * @param capacity maximum number of cubes in the cache
+	 * @param nThreads number of prefetching threads
+	 */
+	CubeCache(CubeStore store, final int capacity, int nThreads) {
+		this.store = store;
+		this.cubeBytes = VolumeOctree.SIZE * VolumeOctree.SIZE * VolumeOctree.SIZE;
+		this.capacity = capacity;
+		this.cache = new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+				return size() > capacity;
+			}
+		};
+		workers = new Thread[nThreads];
+		for(int i = 0; i < nThreads; i++) {
+			workers[i] = new Thread("Octree prefetcher " + i) {
+				@Override
+				public void run() {
+					prefetchLoop();
+				}
+			};
+			workers[i].setPriority(Thread.MIN_PRIORITY);
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+	}
+
+	int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Returns the data of a cube, sorted for the given axis. The data
+	 * is shared and must not be modified.
+	 */
+	byte[] get(Cube c, int axis) throws IOException {
+		String key = key(c, axis);
+		synchronized(cache) {
+			byte[] data = cache.get(key);
+			if(data != null)
+				return data;
+		}
+		byte[] data = load(c, axis);
+		synchronized(cache) {
+			cache.put(key, data);
+		}
+		return data;
+	}
+
+	/**
+	 * Replace the cubes waiting to be prefetched. The cubes are loaded
+	 * in the given order.
+	 */
+	void prefetch(List<Cube> cubes, int axis) {
+		synchronized(queue) {
+			queue.clear();
+			queue.addAll(cubes);
+			prefetchAxis = axis;
+			queue.notifyAll();
+		}
+	}
+
+	/**
+	 * Stop prefetching and empty the cache. Waits for the prefetching
+	 * threads to finish the cube they are loading, so that the store
+	 * can be closed afterwards.
+	 */
+	void close() {
+		synchronized(queue) {
+			closed = true;
+			queue.clear();
+			queue.notifyAll();
+		}
+		boolean interrupted = false;
+		for(Thread worker : workers) {
+			while(worker.isAlive()) {
+				try {
+					worker.join();
+				} catch(InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		if(interrupted)
+			Thread.currentThread().interrupt();
+		synchronized(cache) {
+			cache.clear();
+		}
+	}
+
+	private void prefetchLoop() {
+		while(true) {
+			Cube c;
+			int axis;
+			synchronized(queue) {
+				while(!closed && queue.isEmpty()) {
+					try {
+						queue.wait();
+					} catch(InterruptedException e) {
+						return;
+					}
+				}
+				if(closed)
+					return;
+				c = queue.removeFirst();
+				axis = prefetchAxis;
+			}
+			String key = key(c, axis);
+			synchronized(cache) {
+				if(cache.containsKey(key))
+					continue;
+			}
+			try {
+				byte[] data = load(c, axis);
+				synchronized(cache) {
+					if(!cache.containsKey(key))
+						cache.put(key, data);
+				}
+			} catch(IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private byte[] load(Cube c, int axis) throws IOException {
+		byte[] data = new byte[cubeBytes];
+		if(store != null) {
+			store.read(c.name, axis, data);
+			return data;
+		}
+		String dir = null;
+		switch(axis) {
+			case X_AXIS: dir = "/x/"; break;
+			case Y_AXIS: dir = "/y/"; break;
+			case Z_AXIS: dir = "/z/"; break;
+		}
+		DataInputStream is = new DataInputStream(
+			new FileInputStream(c.dir + dir + c.name));
+		try {
+			is.readFully(data);
+		} finally {
+			is.close();
+		}
+		return data;
+	}
+
+	private static final String key(Cube c, int axis) {
+		return c.name + "_" + axis;
+	}
+}
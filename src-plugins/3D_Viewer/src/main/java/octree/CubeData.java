@@ -7,8 +7,6 @@
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.DataInputStream;
-import java.io.DataOutputStream;
-import java.io.FileOutputStream;
 import javax.media.j3d.NioImageBuffer;
 import javax.media.j3d.TexCoordGeneration;
 import javax.vecmath.Vector4f;
@@ -35,7 +33,7 @@ public class CubeData implements AxisConstants {
 
 	public CubeData(Cube c) {
 		this.cube = c;
-		readCalibration(c.dir + c.name + ".info", cal);
+		c.octree.readCalibration(c, cal);
 
 		min[0] = (float)(c.x * c.octree.pw);
 		min[1] = (float)(c.y * c.octree.ph);
@@ -96,10 +94,12 @@ public void hide() {
 	}
 
 	private void createData() throws IOException {
-		switch(axis) {
-			case X_AXIS: createImages(cube.dir + "/x/" + cube.name); break;
-			case Y_AXIS: createImages(cube.dir + "/y/" + cube.name); break;
-			case Z_AXIS: createImages(cube.dir + "/z/" + cube.name); break;
+		byte[] data = cube.octree.getCache().get(cube, axis);
+		int s2 = SIZE * SIZE;
+		for(int i = 0; i < SIZE; i++) {
+			images[i] = new BufferedImage(SIZE, SIZE, B_IMG_TYPE);
+			byte[] pixels = ((DataBufferByte) images[i].getRaster().getDataBuffer()).getData();
+			System.arraycopy(data, i * s2, pixels, 0, s2);
 		}
 	}
 
@@ -128,15 +128,4 @@ public static final float[] readCalibration(String path, float[] ret) {
 		}
 		return ret;
 	}
-
-	private void createImages(String path) throws IOException {
-		DataInputStream is = new DataInputStream(new FileInputStream(path));
-		for(int i = 0; i < SIZE; i++) {
-			images[i] = new BufferedImage(SIZE, SIZE, B_IMG_TYPE);
-			byte[] pixels = ((DataBufferByte) images[i].getRaster().getDataBuffer()).getData();
-			is.readFully(pixels);
-		}
-		is.close();
-	}
 }
-
@@ -0,0 +1,199 @@
+package octree;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Single container file for the cubes of a VolumeOctree.
+ *
+ * Instead of one calibration file and three data files per cube, all
+ * cubes are stored in fixed-size slots of one file: the calibration
+ * (3 floats), followed by the cube data sorted for the x, y and z
+ * axis. An index from cube name to slot is written at the end of the
+ * file, its position is stored in the header.
+ *
+ * Slots are written and read with positional channel operations, so
+ * several threads can use the same store concurrently.
+ */
+public class CubeStore {
+
+	public static final String FILE_NAME = "cubes.dat";
+
+	private static final int MAGIC = 0x4f435431; // "OCT1"
+	private static final int HEADER_SIZE = 32;
+
+	private final int size;
+	private final long cubeBytes;
+	private final long slotBytes;
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final boolean writable;
+
+	private final HashMap<String, Integer> index =
+		new HashMap<String, Integer>();
+	private final AtomicInteger nextSlot = new AtomicInteger(0);
+
+	private CubeStore(File f, int size, boolean writable) throws IOException {
+		this.size = size;
+		this.cubeBytes = (long)size * size * size;
+		this.slotBytes = 12 + 3 * cubeBytes;
+		this.writable = writable;
+		this.file = new RandomAccessFile(f, writable ? "rw" : "r");
+		this.channel = file.getChannel();
+	}
+
+	/**
+	 * Create a new, empty store for cubes of the given edge length.
+	 * The store must be closed to write the index.
+	 */
+	public static CubeStore create(File f, int size) throws IOException {
+		CubeStore store = new CubeStore(f, size, true);
+		store.file.setLength(0);
+		store.writeHeader(0, 0);
+		return store;
+	}
+
+	/**
+	 * Open an existing store for reading.
+	 */
+	public static CubeStore open(File f) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(f, "r");
+		int size, count;
+		long indexOffset;
+		try {
+			if(raf.readInt() != MAGIC)
+				throw new IOException(f + " is not a cube store");
+			size = raf.readInt();
+			count = raf.readInt();
+			indexOffset = raf.readLong();
+		} finally {
+			raf.close();
+		}
+		CubeStore store = new CubeStore(f, size, false);
+		byte[] buf = new byte[(int)(store.file.length() - indexOffset)];
+		store.readFully(ByteBuffer.wrap(buf), indexOffset);
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(buf));
+		for(int i = 0; i < count; i++) {
+			String name = in.readUTF();
+			store.index.put(name, in.readInt());
+		}
+		store.nextSlot.set(count);
+		return store;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public boolean contains(String name) {
+		synchronized(index) {
+			return index.containsKey(name);
+		}
+	}
+
+	/**
+	 * Store the calibration and the data of one cube, for the x, y and
+	 * z axis.
+	 */
+	public void write(String name, float[] cal, byte[] x, byte[] y, byte[] z) throws IOException {
+		if(!writable)
+			throw new IOException("Cube store is read-only");
+		int slot = nextSlot.getAndIncrement();
+		long pos = HEADER_SIZE + slot * slotBytes;
+		ByteBuffer calb = ByteBuffer.allocate(12);
+		calb.putFloat(cal[0]).putFloat(cal[1]).putFloat(cal[2]);
+		calb.flip();
+		writeFully(calb, pos);
+		writeFully(ByteBuffer.wrap(x), pos + 12);
+		writeFully(ByteBuffer.wrap(y), pos + 12 + cubeBytes);
+		writeFully(ByteBuffer.wrap(z), pos + 12 + 2 * cubeBytes);
+		synchronized(index) {
+			index.put(name, slot);
+		}
+	}
+
+	public float[] readCalibration(String name, float[] ret) throws IOException {
+		if(ret == null)
+			ret = new float[3];
+		ByteBuffer calb = ByteBuffer.allocate(12);
+		readFully(calb, slotPosition(name));
+		calb.flip();
+		ret[0] = calb.getFloat();
+		ret[1] = calb.getFloat();
+		ret[2] = calb.getFloat();
+		return ret;
+	}
+
+	/**
+	 * Read the data of a cube, sorted for the given axis
+	 * (X_AXIS, Y_AXIS or Z_AXIS).
+	 */
+	public void read(String name, int axis, byte[] ret) throws IOException {
+		readFully(ByteBuffer.wrap(ret, 0, (int)cubeBytes),
+			slotPosition(name) + 12 + axis * cubeBytes);
+	}
+
+	/**
+	 * Write the index (if the store was created) and close the file.
+	 */
+	public void close() throws IOException {
+		if(writable) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			int count = nextSlot.get();
+			synchronized(index) {
+				for(String name : index.keySet()) {
+					out.writeUTF(name);
+					out.writeInt(index.get(name));
+				}
+			}
+			out.close();
+			long indexOffset = HEADER_SIZE + count * slotBytes;
+			writeFully(ByteBuffer.wrap(bytes.toByteArray()), indexOffset);
+			writeHeader(count, indexOffset);
+		}
+		channel.close();
+		file.close();
+	}
+
+	private long slotPosition(String name) throws IOException {
+		Integer slot;
+		synchronized(index) {
+			slot = index.get(name);
+		}
+		if(slot == null)
+			throw new IOException("No cube " + name);
+		return HEADER_SIZE + slot * slotBytes;
+	}
+
+	private void writeHeader(int count, long indexOffset) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC).putInt(size).putInt(count).putLong(indexOffset);
+		header.rewind();
+		writeFully(header, 0);
+	}
+
+	private void writeFully(ByteBuffer buf, long pos) throws IOException {
+		while(buf.hasRemaining())
+			pos += channel.write(buf, pos);
+	}
+
+	private void readFully(ByteBuffer buf, long pos) throws IOException {
+		while(buf.hasRemaining()) {
+			int n = channel.read(buf, pos);
+			if(n < 0)
+				throw new EOFException();
+			pos += n;
+		}
+	}
+}
@@ -4,16 +4,17 @@
 import java.io.IOException;
 import java.io.File;
 import java.io.FileOutputStream;
-import java.io.DataOutputStream;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 import java.util.Arrays;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
 import vib.NaiveResampler;
 
 public class FilePreparer {
 
-	private static final NaiveResampler.Averager accu = new NaiveResampler.Averager();
-
 	private static final class Volume {
 		private int w, h, d;
 		private double pw, ph, pd;
@@ -23,10 +24,10 @@ private static final class Volume {
 		Volume(File file, int w, int h, int d,
 			double pw, double ph, double pd) throws IOException {
 
-			ra = new RandomAccessFile(file, "rw");
+			ra = new RandomAccessFile(file, "r");
 			this.w = w; this.h = h; this.d = d;
 			this.pw = pw; this.ph = ph; this.pd = pd;
-			this.wh = w * h;
+			this.wh = (long)w * h;
 		}
 
 		final void close() throws IOException {
@@ -41,39 +42,23 @@ final int get(int x, int y, int z) throws IOException {
 			return (int)(0xff & ra.readByte());
 		}
 
-		final void createBlock(int x, int y, int z, String dir, String file, int size) throws IOException {
-			byte[] blob = new byte[size * size * size];
-			int i = 0;
+		final void createBlock(int x, int y, int z, CubeStore store, String name, int size) throws IOException {
+			int s2 = size * size;
+			byte[] blob = new byte[size * s2];
+			int n = Math.min(size, w - x);
 			for(int iz = 0; iz < size && z + iz < d; iz++) {
-				for(int iy = 0; iy < size && y + iy < h; iy++, i += size) {
-					int n = Math.min(size, w - x);
+				for(int iy = 0; iy < size && y + iy < h; iy++) {
 					long pos = (z + iz) * wh + (y + iy) * w + x;
 					ra.seek(pos);
-					ra.readFully(blob, i, n);
+					ra.readFully(blob, iz * s2 + iy * size, n);
 				}
 			}
 
-			DataOutputStream fos = new DataOutputStream(
-				new FileOutputStream(dir + "/" + file + ".info"));
-			fos.writeFloat((float)pw);
-			fos.writeFloat((float)ph);
-			fos.writeFloat((float)pd);
-			fos.close();
-
-			writeBlob(blob, dir + "/z/" + file);
-
-			byte[] b = createYBlobFromZ(blob, size);
-			writeBlob(b, dir + "/y/" + file);
-
-			b = createXBlobFromZ(blob, size);
-			writeBlob(b, dir + "/x/" + file);
-		}
-
-		final void writeBlob(byte[] blob, String file) throws IOException {
-			DataOutputStream fos = new DataOutputStream(
-				new FileOutputStream(file));
-			fos.write(blob, 0, blob.length);
-			fos.close();
+			float[] cal = new float[] {(float)pw, (float)ph, (float)pd};
+			store.write(name, cal,
+				createXBlobFromZ(blob, size),
+				createYBlobFromZ(blob, size),
+				blob);
 		}
 
 		static final byte[] createYBlobFromZ(byte[] blob, int size) {
@@ -104,60 +89,55 @@ static final byte[] createXBlobFromZ(byte[] blob, int size) {
 			return ret;
 		}
 
-		final void downsample(String file, int fx, int fy, int fz) throws IOException {
-			FileOutputStream out = new FileOutputStream(file);
+		/**
+		 * Downsample output slices zo = first, first + step, ... into
+		 * the file out, by averaging blocks of fx * fy * fz voxels.
+		 * The volume is padded with zeros to the next power of 2.
+		 */
+		final void downsample(FileChannel out, int fx, int fy, int fz,
+				int first, int step) throws IOException {
 
 			int ws = nextPow2(w), hs = nextPow2(h), ds = nextPow2(d);
 			int wn = ws / fx, hn = hs / fy, dn = ds / fz;
+			NaiveResampler.Averager accu = new NaiveResampler.Averager();
 			byte[] bytes = new byte[wn];
-			byte[][] cache = new byte[fz * fy][ws];
-			for(int tmp = 0; tmp < fz*fy; tmp++)
-				Arrays.fill(cache[tmp], (byte)0);
-			int z = 0, y = 0;
-			for(z = 0; z < ds; z += fz) {
-				// update cache
-				System.arraycopy(cache, fy, cache, 0, (fz - 1) * fy);
-				for(int ytmp = 0; ytmp < fy; ytmp++) {
-					Arrays.fill(cache[(fz - 1) * fy], (byte)0);
-					if(y + ytmp < h) {
-						long pos = z * wh + (y + ytmp) * w;
-						ra.seek(pos);
-						ra.readFully(cache[(fz - 1) * fy]);
-					}
-				}
-
-				for(y = 0; y < hs; y += fy) {
-					// update cache
-					for(int ztmp = 0; ztmp < fz; ztmp++) {
-						System.arraycopy(cache, ztmp * fy + 1, cache, ztmp * fy, fy - 1);
-						Arrays.fill(cache[ztmp + fy - 1], (byte)0);
-						if(z + ztmp < d) {
-							long pos = (z+ztmp) * wh + (y+fy-1) * w;
-							ra.seek(pos);
-							ra.readFully(cache[ztmp + fy - 1]);
+			byte[][] rows = new byte[fz * fy][ws];
+			for(int zo = first; zo < dn; zo += step) {
+				for(int yo = 0; yo < hn; yo++) {
+					for(int k = 0; k < fz; k++) {
+						int z = zo * fz + k;
+						for(int j = 0; j < fy; j++) {
+							int y = yo * fy + j;
+							byte[] row = rows[k * fy + j];
+							Arrays.fill(row, (byte)0);
+							if(z < d && y < h) {
+								ra.seek(z * wh + y * w);
+								ra.readFully(row, 0, w);
+							}
 						}
 					}
-
-					for(int x = 0; x < ws; x += fx) {
+					for(int xo = 0; xo < wn; xo++) {
 						accu.reset();
-						for(int k = 0; k < fz; k++) {
-							int iz = z + k;
-							for(int j = 0; j < fy; j++) {
-								int iy = y + j;
-								for(int i = 0; i < fx; i++) {
-									int ix = x + i;
-									accu.add((int)(0xff & cache[k * fy + j][ix]));
-								}
-							}
-						}
-						bytes[x / fx] = (byte)accu.get();
+						for(int r = 0; r < fz * fy; r++)
+							for(int i = 0; i < fx; i++)
+								accu.add((int)(0xff & rows[r][xo * fx + i]));
+						bytes[xo] = (byte)accu.get();
 					}
-					out.write(bytes, 0, wn);
+					ByteBuffer buf = ByteBuffer.wrap(bytes);
+					long pos = ((long)zo * hn + yo) * wn;
+					while(buf.hasRemaining())
+						pos += out.write(buf, pos);
 				}
 			}
 		}
 	}
 
+	/**
+	 * Create the cubes of all resolution levels from the raw 8-bit image
+	 * at path and store them in a CubeStore in dir. The cubes of one
+	 * level and the downsampling to the next level are computed in
+	 * parallel.
+	 */
 	public static final void createFiles(String path, int size, String dir,
 			int w, int h, int d,
 			double pw, double ph, double pd) throws IOException {
@@ -166,44 +146,139 @@ public static final void createFiles(String path, int size, String dir,
 		double pwOrg = pw, phOrg = ph, pdOrg = pd;
 		int level = 1;
 
-		new File(dir, "x").mkdir();
-		new File(dir, "y").mkdir();
-		new File(dir, "z").mkdir();
+		int nThreads = Runtime.getRuntime().availableProcessors();
+		CubeStore store = CubeStore.create(
+			new File(dir, CubeStore.FILE_NAME), size);
+		try {
+			while(true) {
+				File file = new File(path);
+				createBlocks(file, size, store, level, nThreads,
+					w, h, d, pw, ph, pd);
+
+				int fx = w > size ? 2 : 1;
+				int fy = h > size ? 2 : 1;
+				int fz = d > size ? 2 : 1;
+
+				if(fx == 1 && fy == 1 && fz == 1)
+					break;
+
+				File downs = new File(dir, file.getName() + ".l" + level);
+				downsample(file, downs, nThreads, w, h, d, fx, fy, fz);
+				pw *= fx;
+				ph *= fy;
+				pd *= fz;
+				w = nextPow2(w) / fx;
+				h = nextPow2(h) / fy;
+				d = nextPow2(d) / fz;
+
+				if(level > 1)
+					file.delete();
+				path = downs.getPath();
+				level <<= 1;
+			}
+			if(level > 1)
+				new File(path).delete();
+		} finally {
+			store.close();
+		}
+		writeProperties(wOrg, hOrg, dOrg, pwOrg, phOrg, pdOrg, level, dir + "/props.txt");
+	}
 
-		while(true) {
-			File file = new File(path);
-			Volume v = new Volume(file, w, h, d, pw, ph, pd);
-			for(int z = 0; z < d; z += size) {
-				for(int y = 0; y < h; y += size) {
-					for(int x = 0; x < w; x += size) {
+	private static final void createBlocks(final File file, final int size,
+			final CubeStore store, final int level, int nThreads,
+			final int w, final int h, final int d,
+			final double pw, final double ph, final double pd) throws IOException {
+
+		final int nx = (w + size - 1) / size;
+		final int ny = (h + size - 1) / size;
+		final int nz = (d + size - 1) / size;
+		final int nBlocks = nx * ny * nz;
+		final AtomicInteger next = new AtomicInteger(0);
+		runParallel(Math.min(nThreads, nBlocks), new Task() {
+			public void run(int thread) throws IOException {
+				Volume v = new Volume(file, w, h, d, pw, ph, pd);
+				try {
+					for(int b = next.getAndIncrement(); b < nBlocks; b = next.getAndIncrement()) {
+						int x = (b % nx) * size;
+						int y = ((b / nx) % ny) * size;
+						int z = (b / (nx * ny)) * size;
 						String n = (x*level) + "_" + (y*level) + "_" + (z*level) + "_" + level;
-						v.createBlock(x, y, z, dir, n, size);
+						v.createBlock(x, y, z, store, n, size);
 					}
+				} finally {
+					v.close();
 				}
 			}
-			int fx = w > size ? 2 : 1;
-			int fy = h > size ? 2 : 1;
-			int fz = d > size ? 2 : 1;
-
-			if(fx == 1 && fy == 1 && fz == 1)
-				break;
-
-			File downs = new File(dir, file.getName() + ".l" + level);
-			v.downsample(downs.getPath(), fx, fy, fz);
-			v.close();
-			pw *= fx;
-			ph *= fy;
-			pd *= fz;
-			w = nextPow2(w) / fx;
-			h = nextPow2(h) / fy;
-			d = nextPow2(d) / fz;
+		});
+	}
 
-			if(level > 1)
-				file.delete();
-			path = downs.getPath();
-			level <<= 1;
+	private static final void downsample(final File file, File downs, final int nThreads,
+			final int w, final int h, final int d,
+			final int fx, final int fy, final int fz) throws IOException {
+
+		final RandomAccessFile out = new RandomAccessFile(downs, "rw");
+		out.setLength(0);
+		final FileChannel channel = out.getChannel();
+		try {
+			runParallel(nThreads, new Task() {
+				public void run(int thread) throws IOException {
+					Volume v = new Volume(file, w, h, d, 1, 1, 1);
+					try {
+						v.downsample(channel, fx, fy, fz, thread, nThreads);
+					} finally {
+						v.close();
+					}
+				}
+			});
+		} finally {
+			out.close();
 		}
-		writeProperties(wOrg, hOrg, dOrg, pwOrg, phOrg, pdOrg, level, dir + "/props.txt");
+	}
+
+	private interface Task {
+		void run(int thread) throws IOException;
+	}
+
+	private static final void runParallel(int nThreads, final Task task) throws IOException {
+		final Throwable[] error = new Throwable[1];
+		Thread[] threads = new Thread[nThreads];
+		for(int i = 0; i < nThreads; i++) {
+			final int thread = i;
+			threads[i] = new Thread() {
+				public void run() {
+					try {
+						task.run(thread);
+					} catch(Throwable t) {
+						synchronized(error) {
+							if(error[0] == null)
+								error[0] = t;
+						}
+					}
+				}
+			};
+			threads[i].start();
+		}
+		try {
+			for(int i = 0; i < nThreads; i++)
+				threads[i].join();
+		} catch(InterruptedException e) {
+			throw new IOException("Interrupted while creating the cubes");
+		}
+		Throwable t;
+		synchronized(error) {
+			t = error[0];
+		}
+		if(t == null)
+			return;
+		if(t instanceof IOException)
+			throw (IOException)t;
+		if(t instanceof RuntimeException)
+			throw (RuntimeException)t;
+		if(t instanceof Error)
+			throw (Error)t;
+		IOException e = new IOException("Could not create the cubes: " + t);
+		e.initCause(t);
+		throw e;
 	}
 
 	private static final void writeProperties(int w, int h, int d,
@@ -5,8 +5,13 @@
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Arrays;
 import java.util.BitSet;
@@ -53,6 +58,16 @@ public class VolumeOctree implements UniverseListener, AxisConstants {
 	final float pw, ph, pd;
 	private final Point3d refPt;
 
+	/* The container of the cube data, or null for the old layout
+	 * with separate files for each cube. */
+	private CubeStore store;
+	private CubeCache cache;
+	private final HashMap<String, Cube> cubesByName = new HashMap<String, Cube>();
+
+	/* Eye position of the previous update, to predict the next one */
+	private final Point3d lastEyePos = new Point3d();
+	private boolean hasLastEyePos = false;
+
 
 	/* This flag is set here and the cubes check it repeatedly
 	 * when they are updating, to be able to cancel.
@@ -96,8 +111,16 @@ public VolumeOctree(String imageDir, Canvas3D canvas) throws RuntimeException {
 			ph = Float.parseFloat(props.getProperty("pixelHeight"));
 			pd = Float.parseFloat(props.getProperty("pixelDepth"));
 
+			File storeFile = new File(imageDir, CubeStore.FILE_NAME);
+			if(storeFile.exists())
+				store = CubeStore.open(storeFile);
+			int cubeBytes = SIZE * SIZE * SIZE;
+			int capacity = (int)Math.max(16, Runtime.getRuntime().maxMemory() / 4 / cubeBytes);
+			cache = new CubeCache(store, capacity, 2);
+
 			rootCube = new Cube(this, imageDir, 0, 0, 0, maxLevel);
 			rootCube.createChildren();
+			indexCubes(rootCube);
 
 			refPt = new Point3d(xdim*pw / 2, ydim*ph / 2, zdim*pd / 2);
 		} catch(Exception e) {
@@ -125,6 +148,94 @@ public Cube getRootCube() {
 		return rootCube;
 	}
 
+	final CubeCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * Check whether data for the given cube was prepared.
+	 */
+	final boolean hasCube(String dir, String name) {
+		if(store != null)
+			return store.contains(name);
+		return new File(dir + name + ".info").exists();
+	}
+
+	final float[] readCalibration(Cube c, float[] ret) {
+		if(store == null)
+			return CubeData.readCalibration(c.dir + c.name + ".info", ret);
+		try {
+			return store.readCalibration(c.name, ret);
+		} catch(IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	private final void indexCubes(Cube c) {
+		cubesByName.put(c.name, c);
+		if(c.getChildren() == null)
+			return;
+		for(Cube child : c.getChildren())
+			if(child != null)
+				indexCubes(child);
+	}
+
+	/**
+	 * Load the cubes which are likely to be displayed next into the
+	 * cache, in the background: the next coarser cubes of the displayed
+	 * ones, for zooming out, and their neighbours at the same level,
+	 * for panning, the ones closest to the predicted eye position first.
+	 */
+	final void prefetchCubes(Point3d eyePosInLocal) {
+		final Point3d predicted = new Point3d(eyePosInLocal);
+		if(hasLastEyePos) {
+			predicted.scale(2);
+			predicted.sub(lastEyePos);
+		}
+		lastEyePos.set(eyePosInLocal);
+		hasLastEyePos = true;
+
+		List<Cube> visible = new ArrayList<Cube>();
+		rootCube.collectVisibleCubes(visible);
+
+		LinkedHashSet<Cube> parents = new LinkedHashSet<Cube>();
+		LinkedHashSet<Cube> neighbours = new LinkedHashSet<Cube>();
+		for(Cube c : visible) {
+			if(c.getParent() != null)
+				parents.add(c.getParent());
+			int step = c.level * SIZE;
+			for(int dz = -1; dz <= 1; dz++) {
+				for(int dy = -1; dy <= 1; dy++) {
+					for(int dx = -1; dx <= 1; dx++) {
+						Cube n = cubesByName.get((c.x + dx * step) + "_" +
+							(c.y + dy * step) + "_" +
+							(c.z + dz * step) + "_" + c.level);
+						if(n != null)
+							neighbours.add(n);
+					}
+				}
+			}
+		}
+		neighbours.removeAll(visible);
+		List<Cube> sorted = new ArrayList<Cube>(neighbours);
+		Collections.sort(sorted, new Comparator<Cube>() {
+			public int compare(Cube c1, Cube c2) {
+				double d1 = predicted.distanceSquared(c1.getCenter());
+				double d2 = predicted.distanceSquared(c2.getCenter());
+				return d1 < d2 ? -1 : (d1 > d2 ? 1 : 0);
+			}
+		});
+
+		List<Cube> prefetch = new ArrayList<Cube>(parents);
+		prefetch.addAll(sorted);
+		// do not evict the displayed cubes
+		int max = Math.max(0, cache.getCapacity() - visible.size());
+		if(prefetch.size() > max)
+			prefetch = prefetch.subList(0, max);
+		cache.prefetch(prefetch, curAxis);
+	}
+
 	public float realWorldXDim() {
 		return xdim * pw;
 	}
@@ -330,7 +441,16 @@ public void contentRemoved(Content c){}
 	public void contentChanged(Content c){}
 	public void contentSelected(Content c){}
 	public void canvasResized(){}
-	public void universeClosed(){}
+	public void universeClosed(){
+		cache.close();
+		if(store != null) {
+			try {
+				store.close();
+			} catch(IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
 
 	private static Transform3D parentInv = new Transform3D();
 	private static Point3d viewPosition = new Point3d();
@@ -422,6 +542,8 @@ public void run() {
 						stopUpdating = false;
 						rootCube.update(canvas, runningT);
 						setWhichChild(DETAIL_AXIS);
+						if(!stopUpdating)
+							prefetchCubes(runningEyePosInLocal);
 						System.out.println("updateCubes finished");
 					}
 				}
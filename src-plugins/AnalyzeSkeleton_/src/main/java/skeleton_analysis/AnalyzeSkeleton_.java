@@ -1,14 +1,18 @@
 package skeleton_analysis;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.ListIterator;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import ij.IJ;
 import ij.ImagePlus;
 import ij.ImageStack;
+import ij.Prefs;
 import ij.WindowManager;
 import ij.gui.GenericDialog;
 import ij.measure.Calibration;
@@ -160,13 +164,20 @@ public class AnalyzeSkeleton_ implements PlugInFilter
 	/** calculate largest shortest path option */
 	public static boolean calculateShortestPath = false;
 	
+	/** keep the slab voxels of every branch in the graph edges */
+	private boolean keepSlabs = false;
+	/** slab voxels are kept in the edges of the graphs being built */
+	private boolean storeSlabs = false;
+	
 	/** array of graphs (one per tree) */
 	private Graph[] graph = null;
 	
-	/** auxiliary list of slabs */
-	private ArrayList<Point> slabList = null;
-	/** auxiliary final vertex */
-	private Vertex auxFinalVertex = null;
+	/** x- voxel size, cached for the distance calculations */
+	private double pixelWidth = 1;
+	/** y- voxel size, cached for the distance calculations */
+	private double pixelHeight = 1;
+	/** z- voxel size, cached for the distance calculations */
+	private double pixelDepth = 1;
 		
 	/** prune cycle options */
 	public static final String[] pruneCyclesModes = {"none", 
@@ -403,17 +414,7 @@ public SkeletonResult run(
 			
 			// Visit skeleton and measure distances.
 			// and apply warshall algorithm
-			spStartPosition = new double[this.numOfTrees][3];
-			for(int i = 0; i < this.numOfTrees; i++)
-			{							
-				shortestPathPoints[ i ] = new ArrayList<Point>();
-				// Warshall algorithm including tag positions
-				this.shortestPath = warshallAlgorithm(this.graph[i], shortestPathPoints[ i ]);
-				shortestPathList.add(this.shortestPath);
-				spStartPosition[i][0] = spx * this.imRef.getCalibration().pixelWidth;
-				spStartPosition[i][1] = spy * this.imRef.getCalibration().pixelHeight;
-				spStartPosition[i][2] = spz * this.imRef.getCalibration().pixelDepth;				
-			}
+			calculateShortestPaths();
 			
 			if (!silent) {
 				// Display short paths in a new stack
@@ -530,17 +531,7 @@ public SkeletonResult run(
 			
 			// Visit skeleton and measure distances.
 			// and apply warshall algorithm
-			spStartPosition = new double[this.numOfTrees][3];
-			for(int i = 0; i < this.numOfTrees; i++)
-			{							
-				shortestPathPoints[ i ] = new ArrayList<Point>();
-				// Warshall algorithm including tag positions
-				this.shortestPath = warshallAlgorithm(this.graph[i], shortestPathPoints[ i ]);
-				shortestPathList.add(this.shortestPath);
-				spStartPosition[i][0] = spx * this.imRef.getCalibration().pixelWidth;
-				spStartPosition[i][1] = spy * this.imRef.getCalibration().pixelHeight;
-				spStartPosition[i][2] = spz * this.imRef.getCalibration().pixelDepth;				
-			}
+			calculateShortestPaths();
 			
 			if (!silent) {
 				// Display short paths in a new stack
@@ -574,6 +565,20 @@ public Graph[] getGraphs()
 		return graph;
 	}
 	
+	/**
+	 * Set whether the edges of the graphs keep the list of their slab voxels
+	 * ({@link Edge#getSlabs()}). They are not kept by default, to save
+	 * memory on large skeletons, unless pruning or the longest shortest path
+	 * calculation need them; the lists of the other edges are then empty.
+	 * Call this before running the analysis if the slab voxels of the
+	 * graphs are used afterwards.
+	 * @param keepSlabs true to keep the slab voxels of every edge
+	 */
+	public void setKeepSlabs(boolean keepSlabs)
+	{
+		this.keepSlabs = keepSlabs;
+	}
+	
 	/**
 	 * Get the list of points (including junctions and end points) of the 
 	 * largest shortest paths in the skeleton image (one per tree).
@@ -878,6 +883,13 @@ public void processSkeleton(ImageStack inputImage2)
 		this.totalNumberOfJunctionVoxels = 0;
 		this.totalNumberOfSlabs = 0;
 		
+		// Voxel size, read once for all the threads
+		this.pixelWidth = this.imRef.getCalibration().pixelWidth;
+		this.pixelHeight = this.imRef.getCalibration().pixelHeight;
+		this.pixelDepth = this.imRef.getCalibration().pixelDepth;
+		
+		// Pruning and the shortest path drawing need the branch voxels
+		this.storeSlabs = keepSlabs || pruneEnds || bPruneCycles || calculateShortestPath;
 		
 		// Prepare data: classify voxels and tag them.
 		this.taggedImage = tagImage(inputImage2);		
@@ -917,12 +929,130 @@ public void processSkeleton(ImageStack inputImage2)
 		// Mark all unvisited
 		resetVisited();
 		
-		// Visit skeleton and measure distances.
-		for(int i = 0; i < this.numOfTrees; i++)
-			visitSkeleton(taggedImage, treeIS, i+1);
+		// Visit skeleton and measure distances. Trees do not share any
+		// voxel, so they are visited in parallel.
+		final ImageStack treeImage = treeIS;
+		forEachTree(new TreeTask()
+		{
+			public void process(int iTree)
+			{
+				visitSkeleton(taggedImage, treeImage, iTree+1);
+			}
+		});
 		
 	} // end method processSkeleton
 
+	// -----------------------------------------------------------------------
+	/**
+	 * Calculate the longest shortest path of every tree (in parallel), and
+	 * store the paths, their lengths and their starting positions.
+	 */
+	private void calculateShortestPaths()
+	{
+		spStartPosition = new double[this.numOfTrees][3];
+		final double[] lengths = new double[this.numOfTrees];
+		for(int i = 0; i < this.numOfTrees; i++)
+			shortestPathPoints[ i ] = new ArrayList<Point>();
+
+		forEachTree(new TreeTask()
+		{
+			public void process(int iTree)
+			{
+				// Warshall algorithm including tag positions
+				lengths[iTree] = warshallAlgorithm(graph[iTree], shortestPathPoints[ iTree ]);
+			}
+		});
+
+		for(int i = 0; i < this.numOfTrees; i++)
+		{
+			this.shortestPath = lengths[i];
+			shortestPathList.add(this.shortestPath);
+			// the starting position is kept from the previous tree when the path is empty
+			if (shortestPathPoints[ i ].size() != 0)
+			{
+				this.spx = shortestPathPoints[ i ].get(0).x;
+				this.spy = shortestPathPoints[ i ].get(0).y;
+				this.spz = shortestPathPoints[ i ].get(0).z;
+			}
+			spStartPosition[i][0] = spx * this.imRef.getCalibration().pixelWidth;
+			spStartPosition[i][1] = spy * this.imRef.getCalibration().pixelHeight;
+			spStartPosition[i][2] = spz * this.imRef.getCalibration().pixelDepth;
+		}
+	} // end method calculateShortestPaths
+
+	// -----------------------------------------------------------------------
+	/**
+	 * Task run on a single tree.
+	 */
+	private interface TreeTask
+	{
+		/**
+		 * Process a tree.
+		 * @param iTree tree index
+		 */
+		void process(int iTree);
+	}
+
+	// -----------------------------------------------------------------------
+	/**
+	 * Run a task on every tree, distributing the trees among threads. The
+	 * task must only modify data of the tree it is given.
+	 * 
+	 * @param task task to run on each tree
+	 */
+	private void forEachTree(final TreeTask task)
+	{
+		final int numOfThreads = Math.max(1, Math.min(Prefs.getThreads(), this.numOfTrees));
+		final AtomicInteger ai = new AtomicInteger(0);
+		final RuntimeException[] error = new RuntimeException[1];
+		final Thread[] threads = new Thread[numOfThreads];
+		for(int ithread = 0; ithread < numOfThreads; ithread++)
+		{
+			threads[ithread] = new Thread()
+			{
+				public void run()
+				{
+					try
+					{
+						for(int i = ai.getAndIncrement(); i < numOfTrees; i = ai.getAndIncrement())
+							task.process(i);
+					}
+					catch(RuntimeException e)
+					{
+						synchronized(error)
+						{
+							error[0] = e;
+						}
+					}
+				}
+			};
+		}
+		startAndJoin(threads);
+		if(error[0] != null)
+			throw error[0];
+	} // end method forEachTree
+
+	// -----------------------------------------------------------------------
+	/**
+	 * Start threads and wait for them to finish.
+	 * 
+	 * @param threads threads to run
+	 */
+	private static void startAndJoin(Thread[] threads)
+	{
+		for(int ithread = 0; ithread < threads.length; ithread++)
+			threads[ithread].start();
+		try
+		{
+			for(int ithread = 0; ithread < threads.length; ithread++)
+				threads[ithread].join();
+		}
+		catch(InterruptedException ie)
+		{
+			throw new RuntimeException(ie);
+		}
+	} // end method startAndJoin
+
 	// -----------------------------------------------------------------------
 	/**
 	 * Prune cycles from tagged image and update it.
@@ -1506,6 +1636,8 @@ private void visitSkeleton(ImageStack taggedImage, ImageStack treeImage, int cur
 	{
 		// tree index
 		final int iTree = currentTree - 1;
+		// branch being visited
+		final BranchState state = new BranchState();
 		
 		if(debug)
 		{
@@ -1557,10 +1689,10 @@ private void visitSkeleton(ImageStack taggedImage, ImageStack treeImage, int cur
 				this.graph[iTree].setRoot(v1);
 			
 			// slab list for the edge
-			this.slabList = new ArrayList<Point>();
+			state.slabList = new ArrayList<Point>();
 					 
 			// Otherwise, visit branch until next junction or end point.
-			double length = visitBranch(endPointCoord, iTree);
+			double length = visitBranch(endPointCoord, iTree, state);
 						
 			// If length is 0, it means the tree is formed by only one voxel.
 			if(length == 0)
@@ -1570,17 +1702,17 @@ private void visitSkeleton(ImageStack taggedImage, ImageStack treeImage, int cur
 				final Point aux = getVisitedJunctionNeighbor(endPointCoord, v1);				
 				if(null != aux)
 				{
-					this.auxFinalVertex = findPointVertex(this.junctionVertex[iTree], aux);
+					state.auxFinalVertex = findPointVertex(this.junctionVertex[iTree], aux);
 					length += calculateDistance(endPointCoord, aux);
 					
 					// Add the length to the first point of the vertex (to prevent later from having
 					// euclidean distances larger than the actual distance)
-					length += calculateDistance(auxFinalVertex.getPoints().get(0), endPointCoord);
+					length += calculateDistance(state.auxFinalVertex.getPoints().get(0), endPointCoord);
 					// Add branch to graph			
 					if(debug)
-						IJ.log( "adding branch from " + v1.getPoints().get(0) + " to " + this.auxFinalVertex.getPoints().get(0) );
-					this.graph[iTree].addVertex(this.auxFinalVertex);
-					this.graph[iTree].addEdge(new Edge(v1, this.auxFinalVertex, this.slabList, length));
+						IJ.log( "adding branch from " + v1.getPoints().get(0) + " to " + state.auxFinalVertex.getPoints().get(0) );
+					this.graph[iTree].addVertex(state.auxFinalVertex);
+					this.graph[iTree].addEdge(new Edge(v1, state.auxFinalVertex, state.slabList, length));
 					// increase number of branches
 					this.numberOfBranches[iTree]++;
 					
@@ -1598,31 +1730,31 @@ private void visitSkeleton(ImageStack taggedImage, ImageStack treeImage, int cur
 			// If the final point is a slab, then we add the path to the
 			// neighbor junction voxel not belonging to the initial vertex
 			// (unless it is a self loop)
-			if(isSlab(this.auxPoint))
+			if(isSlab(state.auxPoint))
 			{
-				final Point aux = this.auxPoint;
-				//IJ.log("Looking for " + this.auxPoint + " in the list of vertices...");
-				this.auxPoint = getVisitedJunctionNeighbor(this.auxPoint, v1);
-				this.auxFinalVertex = findPointVertex(this.junctionVertex[iTree], this.auxPoint);
-				if(this.auxPoint == null)
+				final Point aux = state.auxPoint;
+				//IJ.log("Looking for " + state.auxPoint + " in the list of vertices...");
+				state.auxPoint = getVisitedJunctionNeighbor(state.auxPoint, v1);
+				state.auxFinalVertex = findPointVertex(this.junctionVertex[iTree], state.auxPoint);
+				if(state.auxPoint == null)
 				{
 					//IJ.log("Point "+ aux + " has not neighbor end junction! (inner loop)");
 					// Inner loop
-					this.auxFinalVertex = v1;
-					this.auxPoint = aux;
+					state.auxFinalVertex = v1;
+					state.auxPoint = aux;
 				}
-				length += calculateDistance(this.auxPoint, aux);
+				length += calculateDistance(state.auxPoint, aux);
 								
 				// Add the length to the first point of the vertex (to prevent later from having
 				// euclidean distances larger than the actual distance)
-				length += calculateDistance(auxFinalVertex.getPoints().get(0), auxPoint);
+				length += calculateDistance(state.auxFinalVertex.getPoints().get(0), state.auxPoint);
 			}
 			
 			// Add branch to graph			
 			if(debug)
-				IJ.log("adding branch from " + v1.getPoints().get(0) + " to " + this.auxFinalVertex.getPoints().get(0) +  ", aux point = " + this.auxPoint);
-			this.graph[iTree].addVertex(this.auxFinalVertex);
-			this.graph[iTree].addEdge(new Edge(v1, this.auxFinalVertex, this.slabList, length));
+				IJ.log("adding branch from " + v1.getPoints().get(0) + " to " + state.auxFinalVertex.getPoints().get(0) +  ", aux point = " + state.auxPoint);
+			this.graph[iTree].addVertex(state.auxFinalVertex);
+			this.graph[iTree].addEdge(new Edge(v1, state.auxFinalVertex, state.slabList, length));
 			
 			// increase number of branches
 			this.numberOfBranches[iTree]++;
@@ -1672,15 +1804,16 @@ private void visitSkeleton(ImageStack taggedImage, ImageStack treeImage, int cur
 							IJ.log("visiting " + nextPoint);
 						
 						// Create graph edge
-						this.slabList = new ArrayList<Point>();
-						this.slabList.add(nextPoint);
+						state.slabList = new ArrayList<Point>();
+						if(this.storeSlabs)
+							state.slabList.add(nextPoint);
 
 						// Calculate distance from junction to that point
 						double length = calculateDistance(junctionCoord, nextPoint);	
 
 						// Visit branch
-						this.auxPoint = null;
-						length += visitBranch(nextPoint, iTree);
+						state.auxPoint = null;
+						length += visitBranch(nextPoint, iTree, state);
 
 						// Increase total length of branches
 						branchLength += length;
@@ -1688,8 +1821,8 @@ private void visitSkeleton(ImageStack taggedImage, ImageStack treeImage, int cur
 						// Increase number of branches
 						if(length != 0)
 						{				
-							if(this.auxPoint == null)
-								this.auxPoint = nextPoint;
+							if(state.auxPoint == null)
+								state.auxPoint = nextPoint;
 							
 							this.numberOfBranches[iTree]++;
 						
@@ -1706,24 +1839,24 @@ private void visitSkeleton(ImageStack taggedImage, ImageStack treeImage, int cur
 							// If the final point is a slab, then we add the path to the
 							// neighbor junction voxel not belonging to the initial vertex
 							// (unless it is a self loop)
-							if(isSlab(this.auxPoint))
+							if(isSlab(state.auxPoint))
 							{
-								final Point aux = this.auxPoint;
-								//IJ.log("Looking for " + this.auxPoint + " in the list of vertices...");
-								this.auxPoint = getVisitedJunctionNeighbor(this.auxPoint, initialVertex);
-								this.auxFinalVertex = findPointVertex(this.junctionVertex[iTree], this.auxPoint);
-								if(this.auxPoint == null)
+								final Point aux = state.auxPoint;
+								//IJ.log("Looking for " + state.auxPoint + " in the list of vertices...");
+								state.auxPoint = getVisitedJunctionNeighbor(state.auxPoint, initialVertex);
+								state.auxFinalVertex = findPointVertex(this.junctionVertex[iTree], state.auxPoint);
+								if(state.auxPoint == null)
 								{
 									//IJ.log("Point "+ aux + " has not neighbor end junction! (inner loop)");
 									// Inner loop
-									this.auxFinalVertex = initialVertex;
-									this.auxPoint = aux;
+									state.auxFinalVertex = initialVertex;
+									state.auxPoint = aux;
 								}
-								length += calculateDistance(this.auxPoint, aux);
+								length += calculateDistance(state.auxPoint, aux);
 							}
 							
 							if(debug)
-								IJ.log("increased number of branches, length = " + length + " (last point = " + this.auxPoint + ")");
+								IJ.log("increased number of branches, length = " + length + " (last point = " + state.auxPoint + ")");
 							// update maximum branch length
 							if(length > this.maximumBranchLength[iTree])
 							{
@@ -1738,8 +1871,8 @@ private void visitSkeleton(ImageStack taggedImage, ImageStack treeImage, int cur
 							// Create graph branch							
 							// Add branch to graph
 							if(debug)
-								IJ.log("adding branch from " + initialVertex.getPoints().get(0) + " to " + this.auxFinalVertex.getPoints().get(0));							
-							this.graph[iTree].addEdge(new Edge(initialVertex, this.auxFinalVertex, this.slabList, length));												
+								IJ.log("adding branch from " + initialVertex.getPoints().get(0) + " to " + state.auxFinalVertex.getPoints().get(0));							
+							this.graph[iTree].addEdge(new Edge(initialVertex, state.auxFinalVertex, state.slabList, length));												
 						}
 					}
 					else
@@ -1767,13 +1900,14 @@ private void visitSkeleton(ImageStack taggedImage, ImageStack treeImage, int cur
 			this.graph[iTree].addVertex(v1);
 			
 			
-			this.slabList = new ArrayList<Point>();
-			this.slabList.add(startCoord);
+			state.slabList = new ArrayList<Point>();
+			if(this.storeSlabs)
+				state.slabList.add(startCoord);
 			
 			this.numberOfSlabs[iTree]++;
 			
 			// visit branch until finding visited voxel.
-			final double length = visitBranch(startCoord, iTree);
+			final double length = visitBranch(startCoord, iTree, state);
 						
 			if(length != 0)
 			{				
@@ -1789,7 +1923,7 @@ private void visitSkeleton(ImageStack taggedImage, ImageStack treeImage, int cur
 			}
 			
 			// Create circular edge
-			this.graph[iTree].addEdge(new Edge(v1, v1, this.slabList, length));
+			this.graph[iTree].addEdge(new Edge(v1, v1, state.slabList, length));
 		}						
 
 		if(debug)
@@ -2105,9 +2239,10 @@ private double visitBranch(Point startingPoint)
 	 * 
 	 * @param startingPoint starting coordinates
 	 * @param iTree tree index
+	 * @param state state of the visited branch (slab list and final point and vertex)
 	 * @return branch length
 	 */
-	private double visitBranch(Point startingPoint, int iTree) 
+	private double visitBranch(Point startingPoint, int iTree, BranchState state) 
 	{
 		//IJ.log("startingPoint = (" + startingPoint.x + ", " + startingPoint.y + ", " + startingPoint.z + ")");
 		double length = 0;
@@ -2129,7 +2264,8 @@ private double visitBranch(Point startingPoint, int iTree)
 			this.numberOfSlabs[iTree]++;
 		
 			// Add slab voxel to the edge
-			this.slabList.add(nextPoint);
+			if(this.storeSlabs)
+				state.slabList.add(nextPoint);
 			
 			// Add length
 			length += calculateDistance(previousPoint, nextPoint);
@@ -2159,24 +2295,24 @@ private double visitBranch(Point startingPoint, int iTree)
 			{
 				if(debug)
 					IJ.log("found unvisited end point: " + nextPoint);
-				this.auxFinalVertex = new Vertex();
-				this.auxFinalVertex.addPoint(nextPoint);
+				state.auxFinalVertex = new Vertex();
+				state.auxFinalVertex.addPoint(nextPoint);
 			}
 			else if(isJunction(nextPoint))
 			{
 				if(debug)
 					IJ.log("found unvisited junction point: " + nextPoint);
-				this.auxFinalVertex = findPointVertex(this.junctionVertex[iTree], nextPoint);
+				state.auxFinalVertex = findPointVertex(this.junctionVertex[iTree], nextPoint);
 				// Add the length to the first point of the vertex (to prevent later from having
 				// euclidean distances larger than the actual distance)
-				length += calculateDistance(auxFinalVertex.getPoints().get(0), nextPoint);
+				length += calculateDistance(state.auxFinalVertex.getPoints().get(0), nextPoint);
 				/*
 				int j = 0;
 				for(j = 0; j < this.junctionVertex[iTree].length; j++)
 					if(this.junctionVertex[iTree][j].isVertexPoint(nextPoint))
 					{
-						this.auxFinalVertex = this.junctionVertex[iTree][j];
-						IJ.log(" " + nextPoint + " belongs to junction " + this.auxFinalVertex.getPoints().get(0));
+						state.auxFinalVertex = this.junctionVertex[iTree][j];
+						IJ.log(" " + nextPoint + " belongs to junction " + state.auxFinalVertex.getPoints().get(0));
 						break;
 					}
 				if(j == this.junctionVertex[iTree].length)
@@ -2184,10 +2320,10 @@ else if(isJunction(nextPoint))
 					*/
 			}
 			
-			this.auxPoint = nextPoint;
+			state.auxPoint = nextPoint;
 		}
 		else
-			this.auxPoint = previousPoint;
+			state.auxPoint = previousPoint;
 		
 		//IJ.log("finalPoint = (" + nextPoint.x + ", " + nextPoint.y + ", " + nextPoint.z + ")");
 		return length;
@@ -2226,9 +2362,9 @@ public Vertex findPointVertex(Vertex[] vertex, Point p)
 	 */
 	private double calculateDistance(Point point1, Point point2) 
 	{		
-		return Math.sqrt(  Math.pow( (point1.x - point2.x) * this.imRef.getCalibration().pixelWidth, 2) 
-				          + Math.pow( (point1.y - point2.y) * this.imRef.getCalibration().pixelHeight, 2)
-				          + Math.pow( (point1.z - point2.z) * this.imRef.getCalibration().pixelDepth, 2));
+		return Math.sqrt(  Math.pow( (point1.x - point2.x) * this.pixelWidth, 2) 
+				          + Math.pow( (point1.y - point2.y) * this.pixelHeight, 2)
+				          + Math.pow( (point1.z - point2.z) * this.pixelDepth, 2));
 	}
 
 	// -----------------------------------------------------------------------
@@ -2654,46 +2790,107 @@ private void setVisited(Point point, boolean b)
 	private ImageStack tagImage(ImageStack inputImage2) 
 	{
 		// Create output image
-		ImageStack outputImage = new ImageStack(this.width, this.height, inputImage2.getColorModel());
-			
-		// Tag voxels
+		final ImageStack outputImage = new ImageStack(this.width, this.height, inputImage2.getColorModel());
+		for (int z = 0; z < depth; z++)
+			outputImage.addSlice(inputImage2.getSliceLabel(z+1), new ByteProcessor(this.width, this.height));
+		
+		// Direct access to the slices
+		final byte[][] input = new byte[depth][];
+		final byte[][] output = new byte[depth][];
 		for (int z = 0; z < depth; z++)
 		{
-			outputImage.addSlice(inputImage2.getSliceLabel(z+1), new ByteProcessor(this.width, this.height));			
-			for (int x = 0; x < width; x++) 
-				for (int y = 0; y < height; y++)
+			input[z] = (byte[]) inputImage2.getPixels(z+1);
+			output[z] = (byte[]) outputImage.getPixels(z+1);
+		}
+		
+		// Tag voxels, each thread in a block of consecutive slices
+		final int numOfThreads = Math.max(1, Math.min(Prefs.getThreads(), depth));
+		final ArrayList<Point>[][] lists = new ArrayList[numOfThreads][3];
+		final Thread[] threads = new Thread[numOfThreads];
+		for (int ithread = 0; ithread < numOfThreads; ithread++)
+		{
+			final int zStart = (int) ((long) depth * ithread / numOfThreads);
+			final int zEnd = (int) ((long) depth * (ithread + 1) / numOfThreads);
+			final ArrayList<Point> endPoints = new ArrayList<Point>();
+			final ArrayList<Point> junctions = new ArrayList<Point>();
+			final ArrayList<Point> slabs = new ArrayList<Point>();
+			lists[ithread][0] = endPoints;
+			lists[ithread][1] = junctions;
+			lists[ithread][2] = slabs;
+			
+			threads[ithread] = new Thread()
+			{
+				public void run()
 				{
-					if(getPixel(inputImage2, x, y, z) != 0)
-					{
-						int numOfNeighbors = getNumberOfNeighbors(inputImage2, x, y, z);
-						if(numOfNeighbors < 2)
-						{
-							setPixel(outputImage, x, y, z, AnalyzeSkeleton_.END_POINT);
-							this.totalNumberOfEndPoints++;
-							Point endPoint = new Point(x, y, z);
-							this.listOfEndPoints.add(endPoint);							
-						}
-						else if(numOfNeighbors > 2)
-						{
-							setPixel(outputImage, x, y, z, AnalyzeSkeleton_.JUNCTION);
-							Point junction = new Point(x, y, z);
-							this.listOfJunctionVoxels.add(junction);	
-							this.totalNumberOfJunctionVoxels++;
-						}
-						else
-						{
-							setPixel(outputImage, x, y, z, AnalyzeSkeleton_.SLAB);
-							Point slab = new Point(x, y, z);
-							this.listOfSlabVoxels.add(slab);
-							this.totalNumberOfSlabs++;
-						}
-					}					
+					for (int z = zStart; z < zEnd; z++)
+						for (int x = 0; x < width; x++) 
+							for (int y = 0; y < height; y++)
+							{
+								if(input[z][x + y * width] != 0)
+								{
+									int numOfNeighbors = getNumberOfNeighbors(input, x, y, z);
+									if(numOfNeighbors < 2)
+									{
+										output[z][x + y * width] = AnalyzeSkeleton_.END_POINT;
+										endPoints.add(new Point(x, y, z));							
+									}
+									else if(numOfNeighbors > 2)
+									{
+										output[z][x + y * width] = AnalyzeSkeleton_.JUNCTION;
+										junctions.add(new Point(x, y, z));	
+									}
+									else
+									{
+										output[z][x + y * width] = AnalyzeSkeleton_.SLAB;
+										slabs.add(new Point(x, y, z));
+									}
+								}					
+							}
 				}
+			};
+		}
+		startAndJoin(threads);
+		
+		// Gather the voxel lists in slice order
+		for (int ithread = 0; ithread < numOfThreads; ithread++)
+		{
+			this.listOfEndPoints.addAll(lists[ithread][0]);
+			this.totalNumberOfEndPoints += lists[ithread][0].size();
+			this.listOfJunctionVoxels.addAll(lists[ithread][1]);
+			this.totalNumberOfJunctionVoxels += lists[ithread][1].size();
+			this.listOfSlabVoxels.addAll(lists[ithread][2]);
+			this.totalNumberOfSlabs += lists[ithread][2].size();
 		}
 		
 		return outputImage;
 	}// end method tagImage 
 
+	/* -----------------------------------------------------------------------*/
+	/**
+	 * Get number of neighbors of a voxel in a 3D image (0 border conditions),
+	 * reading the slice arrays directly.
+	 * 
+	 * @param slices pixel arrays of the 3D image slices
+	 * @param x x- coordinate
+	 * @param y y- coordinate
+	 * @param z z- coordinate (starting at 0)
+	 * @return number of non-zero voxels in the 26-neighborhood
+	 */
+	private int getNumberOfNeighbors(byte[][] slices, int x, int y, int z)
+	{
+		int n = 0;
+		for (int k = Math.max(z - 1, 0); k <= Math.min(z + 1, this.depth - 1); k++)
+		{
+			final byte[] slice = slices[k];
+			for (int j = Math.max(y - 1, 0); j <= Math.min(y + 1, this.height - 1); j++)
+				for (int i = Math.max(x - 1, 0); i <= Math.min(x + 1, this.width - 1); i++)
+					if(slice[i + j * this.width] != 0)
+						n++;
+		}
+		// We return n-1 because the count includes the actual voxel.
+		return (n-1);
+	}// end method getNumberOfNeighbors 
+
 	/* -----------------------------------------------------------------------*/
 	/**
 	 * Get number of neighbors of a voxel in a 3D image (0 border conditions).
@@ -3015,13 +3212,16 @@ private double warshallAlgorithm(Graph graph, ArrayList <Point> shortestPathPoin
 
 		ArrayList< Edge > edgeList = graph.getEdges();
 		ArrayList< Vertex > vertexList = graph.getVertices();
+		// vertex indices of the edges and adjacency lists
+		final CompactGraph compact = graph.getCompactGraph();
+		final int numOfVertices = compact.getNumOfVertices();
 
 		//create empty adjacency and predecessor matrix
 
 		/** the matrix that contains the length of the shortest path from vertex a to vertex b */
-		double[][] adjacencyMatrix = new double[vertexList.size()][vertexList.size()];
+		double[][] adjacencyMatrix = new double[numOfVertices][numOfVertices];
 		/** the matrix that contains the predecessor vertex of vertex b in the shortest path from vertex a to b */
-		int[][] predecessorMatrix = new int[vertexList.size()][vertexList.size()];
+		int[][] predecessorMatrix = new int[numOfVertices][numOfVertices];
 
 		// initial conditions for both matrices
 		/*
@@ -3042,31 +3242,28 @@ private double warshallAlgorithm(Graph graph, ArrayList <Point> shortestPathPoin
 		 */
 
 		// applying initial conditions
-		for(int i = 0 ; i < vertexList.size(); i++)
+		for(int i = 0 ; i < numOfVertices; i++)
 		{
-			for(int j = 0 ; j < vertexList.size(); j++)
-			{
-				adjacencyMatrix[i][j]= Double.POSITIVE_INFINITY;
-				predecessorMatrix[i][j]= -1;
-			}
+			Arrays.fill(adjacencyMatrix[i], Double.POSITIVE_INFINITY);
+			Arrays.fill(predecessorMatrix[i], -1);
 		}
 
 
-		for (Edge edge : edgeList)
+		for (int e = 0; e < compact.getNumOfEdges(); e++)
 		{
-			v1 = edge.getV1();
-			v2 = edge.getV2();
 			// use the index of the vertices as the index in the matrix
-			row = vertexList.indexOf(v1);
+			row = compact.getV1(e);
 			if(row == -1)
 			{
+				v1 = edgeList.get(e).getV1();
 				IJ.log("Vertex " + v1.getPoints().get(0) + " not found in the list of vertices!");
 				continue;
 			}
 			
-			column = vertexList.indexOf(v2);
+			column = compact.getV2(e);
 			if(column == -1)
 			{
+				v2 = edgeList.get(e).getV2();
 				IJ.log("Vertex " + v2.getPoints().get(0) + " not found in the list of vertices!");
 				continue;
 			}
@@ -3082,8 +3279,8 @@ private double warshallAlgorithm(Graph graph, ArrayList <Point> shortestPathPoin
 			 */
 			adjacencyMatrix[row][row] = 0;
 			adjacencyMatrix[column][column] = 0;
-			adjacencyMatrix[row][column] = edge.getLength();
-			adjacencyMatrix[column][row] = edge.getLength();
+			adjacencyMatrix[row][column] = compact.getLength(e);
+			adjacencyMatrix[column][row] = compact.getLength(e);
 
 			/* 
 			 * the diagonal remains -1.
@@ -3105,17 +3302,25 @@ private double warshallAlgorithm(Graph graph, ArrayList <Point> shortestPathPoin
 
 		// the warshall algorithm with k as candidate vertex and i and j walk through the adjacencyMatrix
 		// the predecessor matrix is updated at the same time. 
+		// (rows without a path to k cannot be improved through k)
 
-		for(int k = 0 ; k < vertexList.size(); k++)
+		for(int k = 0 ; k < numOfVertices; k++)
 		{				
-			for(int i = 0 ; i < vertexList.size(); i++)
+			final double[] distK = adjacencyMatrix[k];
+			final int[] predK = predecessorMatrix[k];
+			for(int i = 0 ; i < numOfVertices; i++)
 			{								
-				for(int j = 0 ; j < vertexList.size(); j++)
+				final double[] distI = adjacencyMatrix[i];
+				final double distIK = distI[k];
+				if(distIK == Double.POSITIVE_INFINITY)
+					continue;
+				final int[] predI = predecessorMatrix[i];
+				for(int j = 0 ; j < numOfVertices; j++)
 				{
-					if(adjacencyMatrix[i][k] + adjacencyMatrix[k][j] < adjacencyMatrix[i][j])
+					if(distIK + distK[j] < distI[j])
 					{
-						adjacencyMatrix[i][j] = adjacencyMatrix[i][k] + adjacencyMatrix[k][j];
-						predecessorMatrix[i][j] = predecessorMatrix[k][j];
+						distI[j] = distIK + distK[j];
+						predI[j] = predK[j];
 
 					}					
 				}
@@ -3123,9 +3328,9 @@ private double warshallAlgorithm(Graph graph, ArrayList <Point> shortestPathPoin
 		}
 
 		// find the maximum of all shortest paths
-		for(int i = 0; i < vertexList.size(); i++)
+		for(int i = 0; i < numOfVertices; i++)
 		{
-			for(int j = 0; j < vertexList.size(); j++)
+			for(int j = 0; j < numOfVertices; j++)
 			{
 				// sometimes infinities still remain				
 				if (adjacencyMatrix[i][j] > maxPath && adjacencyMatrix[i][j] != Double.POSITIVE_INFINITY)
@@ -3139,7 +3344,7 @@ private double warshallAlgorithm(Graph graph, ArrayList <Point> shortestPathPoin
 		}
 
 		// trace back the longest shortest path
-		reconstructPath(predecessorMatrix, a, b, edgeList, vertexList, shortestPathPoints);
+		reconstructPath(predecessorMatrix, a, b, edgeList, compact, shortestPathPoints);
 
 		// !important return maxPath;
 		return maxPath;
@@ -3154,7 +3359,7 @@ private double warshallAlgorithm(Graph graph, ArrayList <Point> shortestPathPoin
 	 * @param startIndex the index of the row which contains the longest shortest path
 	 * @param endIndex the index of the column which contains the longest shortest path
 	 * @param edgeList the list of edges 
-	 * @param vertexList the list of vertices
+	 * @param compact compact representation of the graph (vertex indices and adjacency lists)
 	 * @param shortestPathPoints contains points of the longest shortest path for each graph
 	 * @author Huub Hovens
 	 */
@@ -3163,7 +3368,7 @@ private void reconstructPath(
 			int startIndex, 
 			int endIndex, 
 			ArrayList<Edge> edgeList, 
-			ArrayList<Vertex> vertexList,
+			CompactGraph compact,
 			ArrayList<Point> shortestPathPoints)
 	{
 		// We know the first and last vertex of the longest shortest path, namely a and b
@@ -3172,50 +3377,44 @@ private void reconstructPath(
 
 		int b = endIndex;
 		int a = startIndex;
+		// points already in the path, to check membership in constant time
+		final HashSet<Point> pathPoints = new HashSet<Point>(shortestPathPoints);
 
 		while (b != a)
 		{
-			Vertex predecessor = vertexList.get(predecessorMatrix[a][b]);
-			Vertex endvertex = vertexList.get(b);
-			ArrayList< Edge > sp_edgeslist = new ArrayList< Edge >();
-			Double lengthtest = Double.POSITIVE_INFINITY;
+			final int predecessor = predecessorMatrix[a][b];
+			double lengthtest = Double.POSITIVE_INFINITY;
 			Edge shortestedge = null;
 
-			// search all edges for a combination of the two vertices
-			for (Edge edge : edgeList)
+			// search the edges of the end vertex for the ones joining it
+			// with the predecessor (sometimes there are multiple edges 
+			// between two vertices) and keep the shortest one
+			for (int k = compact.getEdgesStart(b); k < compact.getEdgesEnd(b); k++)
 			{
-
-				if ((edge.getV1()==predecessor && edge.getV2()==endvertex) || (edge.getV1()==endvertex && edge.getV2()==predecessor))
+				final int e = compact.getEdge(k);
+				if ((compact.getV1(e) == predecessor && compact.getV2(e) == b) 
+						|| (compact.getV1(e) == b && compact.getV2(e) == predecessor))
 				{
-					// sometimes there are multiple edges between two vertices so add them to a list
-					// for a second test
-					sp_edgeslist.add(edge);					
+					if (compact.getLength(e) < lengthtest)
+					{
+						shortestedge = edgeList.get(e);
+						lengthtest = compact.getLength(e);
+					}
 				}			
-
-			}
-			// the second test
-			// this test looks which edge has the shortest length in sp_edgeslist
-			for (Edge edge : sp_edgeslist)
-			{
-				if (edge.getLength() < lengthtest)
-				{
-					shortestedge = edge;
-					lengthtest = edge.getLength();
-				}
-
 			}
 			
 			// add slab points of the shortest edge to the list of points
 			for (Point p : shortestedge.getSlabs())
 			{
 				shortestPathPoints.add(p);
+				pathPoints.add(p);
 				setPixel(this.shortPathImage, p.x, p.y, p.z, SHORTEST_PATH);
 			}
 
 			// add vertex points too
 			for (Point p : shortestedge.getV1().getPoints())
 			{
-				if( ! shortestPathPoints.contains( p ))
+				if( pathPoints.add( p ))
 				{
 					shortestPathPoints.add(p);
 					//setPixel(this.shortPathImage, p.x, p.y, p.z, SHORTEST_PATH);
@@ -3224,7 +3423,7 @@ private void reconstructPath(
 			
 			for (Point p : shortestedge.getV2().getPoints())
 			{
-				if( ! shortestPathPoints.contains( p ))
+				if( pathPoints.add( p ))
 				{
 					shortestPathPoints.add(p);
 					//setPixel(this.shortPathImage, p.x, p.y, p.z, SHORTEST_PATH);
@@ -3235,15 +3434,24 @@ private void reconstructPath(
 			// a to predecessor and repeat cycle
 			b = predecessorMatrix[a][b];
 		}
-		if (shortestPathPoints.size() != 0)
-		{
-			this.spx = shortestPathPoints.get(0).x;
-			this.spy = shortestPathPoints.get(0).y;
-			this.spz = shortestPathPoints.get(0).z;
-		}		
 
 	}
 	// end method reconstructPath
 	
+	/* -----------------------------------------------------------------------*/
+	/**
+	 * State of the branch being visited in a tree: each tree is visited
+	 * with its own state, so trees can be visited in parallel.
+	 */
+	private static class BranchState
+	{
+		/** last point of the branch */
+		Point auxPoint = null;
+		/** list of slabs of the branch */
+		ArrayList<Point> slabList = null;
+		/** final vertex of the branch */
+		Vertex auxFinalVertex = null;
+	} // end class BranchState
+
 
 }// end class AnalyzeSkeleton_
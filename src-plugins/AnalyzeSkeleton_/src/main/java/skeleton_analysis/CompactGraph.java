@@ -0,0 +1,167 @@
+package skeleton_analysis;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+/**
+ * This class represents a {@link Graph} with primitive arrays: vertices and
+ * edges are identified by their index in the vertex and edge lists of the
+ * graph, and the edges of each vertex are stored in compressed sparse row
+ * (CSR) form. The edges of vertex <code>v</code> are
+ * <code>getEdge(k)</code> for <code>k</code> from
+ * <code>getEdgesStart(v)</code> to <code>getEdgesEnd(v) - 1</code>, in
+ * increasing edge index, which is also the order of
+ * {@link Vertex#getBranches()}.
+ * <p>
+ * The compact graph is a snapshot: it is not updated when the graph is
+ * modified.
+ */
+public class CompactGraph
+{
+	/** number of vertices */
+	private final int numOfVertices;
+	/** index of the first vertex of each edge (-1 if not in the vertex list) */
+	private final int[] edgeV1;
+	/** index of the second vertex of each edge (-1 if not in the vertex list) */
+	private final int[] edgeV2;
+	/** length of each edge */
+	private final double[] edgeLength;
+	/** position of the first edge of each vertex in adjacentEdges, plus the total number of entries */
+	private final int[] edgesStart;
+	/** edge indices, grouped by vertex */
+	private final int[] adjacentEdges;
+
+	// --------------------------------------------------------------------------
+	/**
+	 * Build the compact representation of a graph.
+	 * @param graph input graph
+	 */
+	public CompactGraph(Graph graph)
+	{
+		final ArrayList<Vertex> vertices = graph.getVertices();
+		final ArrayList<Edge> edges = graph.getEdges();
+		this.numOfVertices = vertices.size();
+
+		// Vertex indices (vertices are compared by identity in the graph)
+		final IdentityHashMap<Vertex, Integer> index = new IdentityHashMap<Vertex, Integer>();
+		for(int i = 0; i < this.numOfVertices; i++)
+			if(! index.containsKey(vertices.get(i)))
+				index.put(vertices.get(i), i);
+
+		final int numOfEdges = edges.size();
+		this.edgeV1 = new int[numOfEdges];
+		this.edgeV2 = new int[numOfEdges];
+		this.edgeLength = new double[numOfEdges];
+
+		// Count the edges of each vertex (self loops only once)
+		final int[] count = new int[this.numOfVertices];
+		for(int e = 0; e < numOfEdges; e++)
+		{
+			final Edge edge = edges.get(e);
+			final Integer i1 = index.get(edge.getV1());
+			final Integer i2 = index.get(edge.getV2());
+			this.edgeV1[e] = i1 == null ? -1 : i1.intValue();
+			this.edgeV2[e] = i2 == null ? -1 : i2.intValue();
+			this.edgeLength[e] = edge.getLength();
+			if(this.edgeV1[e] >= 0)
+				count[this.edgeV1[e]]++;
+			if(this.edgeV2[e] >= 0 && this.edgeV2[e] != this.edgeV1[e])
+				count[this.edgeV2[e]]++;
+		}
+
+		// Fill the adjacency lists in increasing edge order
+		this.edgesStart = new int[this.numOfVertices + 1];
+		for(int v = 0; v < this.numOfVertices; v++)
+			this.edgesStart[v + 1] = this.edgesStart[v] + count[v];
+		this.adjacentEdges = new int[this.edgesStart[this.numOfVertices]];
+		final int[] next = new int[this.numOfVertices];
+		System.arraycopy(this.edgesStart, 0, next, 0, this.numOfVertices);
+		for(int e = 0; e < numOfEdges; e++)
+		{
+			if(this.edgeV1[e] >= 0)
+				this.adjacentEdges[next[this.edgeV1[e]]++] = e;
+			if(this.edgeV2[e] >= 0 && this.edgeV2[e] != this.edgeV1[e])
+				this.adjacentEdges[next[this.edgeV2[e]]++] = e;
+		}
+	}
+
+	// --------------------------------------------------------------------------
+	/**
+	 * Get number of vertices.
+	 * @return number of vertices in the graph
+	 */
+	public int getNumOfVertices()
+	{
+		return this.numOfVertices;
+	}
+	// --------------------------------------------------------------------------
+	/**
+	 * Get number of edges.
+	 * @return number of edges in the graph
+	 */
+	public int getNumOfEdges()
+	{
+		return this.edgeV1.length;
+	}
+	// --------------------------------------------------------------------------
+	/**
+	 * Get first vertex of an edge.
+	 * @param e edge index
+	 * @return index of the first vertex of the edge, or -1 if it is not in the graph
+	 */
+	public int getV1(int e)
+	{
+		return this.edgeV1[e];
+	}
+	// --------------------------------------------------------------------------
+	/**
+	 * Get second vertex of an edge.
+	 * @param e edge index
+	 * @return index of the second vertex of the edge, or -1 if it is not in the graph
+	 */
+	public int getV2(int e)
+	{
+		return this.edgeV2[e];
+	}
+	// --------------------------------------------------------------------------
+	/**
+	 * Get length of an edge.
+	 * @param e edge index
+	 * @return calibrated edge length
+	 */
+	public double getLength(int e)
+	{
+		return this.edgeLength[e];
+	}
+	// --------------------------------------------------------------------------
+	/**
+	 * Get start of the edges of a vertex in the adjacency array.
+	 * @param v vertex index
+	 * @return position of the first edge of the vertex
+	 */
+	public int getEdgesStart(int v)
+	{
+		return this.edgesStart[v];
+	}
+	// --------------------------------------------------------------------------
+	/**
+	 * Get end of the edges of a vertex in the adjacency array.
+	 * @param v vertex index
+	 * @return position after the last edge of the vertex
+	 */
+	public int getEdgesEnd(int v)
+	{
+		return this.edgesStart[v + 1];
+	}
+	// --------------------------------------------------------------------------
+	/**
+	 * Get edge stored at a position of the adjacency array.
+	 * @param k position in the adjacency array
+	 * @return edge index
+	 */
+	public int getEdge(int k)
+	{
+		return this.adjacentEdges[k];
+	}
+
+}// end class CompactGraph
@@ -1,6 +1,7 @@
 package skeleton_analysis;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Stack;
 
 /**
@@ -32,6 +33,10 @@ public class Graph
 	private ArrayList < Edge > edges = null;
 	/** list of vertices */
 	private ArrayList < Vertex > vertices = null;
+	/** set of edges, to check membership in constant time */
+	private HashSet < Edge > edgeSet = null;
+	/** set of vertices, to check membership in constant time */
+	private HashSet < Vertex > vertexSet = null;
 	
 	/** root vertex */
 	private Vertex root = null;
@@ -44,6 +49,8 @@ public Graph()
 	{
 		this.edges = new ArrayList < Edge >();
 		this.vertices = new ArrayList<Vertex>();
+		this.edgeSet = new HashSet < Edge >();
+		this.vertexSet = new HashSet < Vertex >();
 	}
 	
 	// --------------------------------------------------------------------------
@@ -54,7 +61,7 @@ public Graph()
 	 */
 	public boolean addEdge(Edge e)
 	{
-		if(this.edges.contains(e))
+		if(this.edgeSet.contains(e))
 			return false;
 		else
 		{
@@ -64,6 +71,7 @@ public boolean addEdge(Edge e)
 				e.getV2().setBranch(e);
 			// Add edge to the list of edges in the graph
 			this.edges.add(e);
+			this.edgeSet.add(e);
 			return true;
 		}
 	}// end method addEdge
@@ -76,11 +84,12 @@ public boolean addEdge(Edge e)
 	 */
 	public boolean addVertex(Vertex v)
 	{
-		if(this.vertices.contains(v))
+		if(this.vertexSet.contains(v))
 			return false;
 		else
 		{
 			this.vertices.add(v);
+			this.vertexSet.add(v);
 			return true;
 		}
 	}// end method addVertex
@@ -103,6 +112,18 @@ public ArrayList<Edge> getEdges()
 		return this.edges;
 	}
 	
+	// --------------------------------------------------------------------------
+	/**
+	 * Build the compact representation of the graph: vertex indices of the
+	 * edges and adjacency lists in primitive arrays. It is not kept by the
+	 * graph, so that it only takes memory while it is used.
+	 * @return compact representation of the graph
+	 */
+	public CompactGraph getCompactGraph()
+	{
+		return new CompactGraph(this);
+	}
+
 	// --------------------------------------------------------------------------
 	/**
 	 * Set root vertex.
@@ -69,5 +69,15 @@ public boolean equals(Object o)
 		return p.x == this.x && p.y == this.y && p.z == this.z;
 	}	
 	
+	/**
+	 * Override hashCode method to be consistent with equals, so points
+	 * can be used in hash sets and maps.
+	 * @return hash code of the point coordinates
+	 */
+	public int hashCode()
+	{
+		return 31 * (31 * this.x + this.y) + this.z;
+	}
+	
 
 }// end class point
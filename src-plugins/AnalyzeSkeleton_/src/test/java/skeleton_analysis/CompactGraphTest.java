@@ -0,0 +1,126 @@
+package skeleton_analysis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import ij.ImagePlus;
+import ij.process.ByteProcessor;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+/**
+ * Compares the {@link CompactGraph} with the {@link Graph} it is built from,
+ * on the graphs of a small skeleton.
+ */
+public class CompactGraphTest
+{
+	@Test
+	public void testCompactGraph()
+	{
+		final Graph[] graphs = analyze(false);
+		assertEquals(2, graphs.length);
+
+		int numOfEdges = 0;
+		boolean loop = false;
+		for(final Graph graph : graphs)
+		{
+			compare(graph, graph.getCompactGraph());
+			numOfEdges += graph.getEdges().size();
+			for(final Edge edge : graph.getEdges())
+				loop |= edge.getV1() == edge.getV2();
+		}
+		// the four arms of the cross, and the ring
+		assertEquals(5, numOfEdges);
+		assertTrue(loop);
+	}
+
+	@Test
+	public void testKeepSlabs()
+	{
+		final Graph[] withoutSlabs = analyze(false);
+		final Graph[] withSlabs = analyze(true);
+		assertEquals(withSlabs.length, withoutSlabs.length);
+
+		int numOfSlabs = 0;
+		for(int i = 0; i < withSlabs.length; i++)
+		{
+			final ArrayList<Edge> edges = withSlabs[i].getEdges();
+			final ArrayList<Edge> edgesWithoutSlabs = withoutSlabs[i].getEdges();
+			assertEquals(edges.size(), edgesWithoutSlabs.size());
+			for(int e = 0; e < edges.size(); e++)
+			{
+				numOfSlabs += edges.get(e).getSlabs().size();
+				assertEquals(0, edgesWithoutSlabs.get(e).getSlabs().size());
+				assertEquals(edges.get(e).getLength(), edgesWithoutSlabs.get(e).getLength(), 0);
+			}
+		}
+		assertTrue(numOfSlabs > 0);
+	}
+
+	/**
+	 * Check the vertex indices, lengths and adjacency lists of the compact
+	 * graph against the vertex and edge lists of the graph.
+	 */
+	private static void compare(final Graph graph, final CompactGraph compact)
+	{
+		final ArrayList<Vertex> vertices = graph.getVertices();
+		final ArrayList<Edge> edges = graph.getEdges();
+		assertEquals(vertices.size(), compact.getNumOfVertices());
+		assertEquals(edges.size(), compact.getNumOfEdges());
+
+		for(int e = 0; e < edges.size(); e++)
+		{
+			final Edge edge = edges.get(e);
+			assertSame(edge.getV1(), vertices.get(compact.getV1(e)));
+			assertSame(edge.getV2(), vertices.get(compact.getV2(e)));
+			assertEquals(edge.getLength(), compact.getLength(e), 0);
+		}
+
+		for(int v = 0; v < vertices.size(); v++)
+		{
+			final ArrayList<Edge> branches = vertices.get(v).getBranches();
+			assertEquals(branches.size(), compact.getEdgesEnd(v) - compact.getEdgesStart(v));
+			double length = 0;
+			for(int k = compact.getEdgesStart(v); k < compact.getEdgesEnd(v); k++)
+			{
+				assertSame(branches.get(k - compact.getEdgesStart(v)), edges.get(compact.getEdge(k)));
+				length += compact.getLength(compact.getEdge(k));
+			}
+			double expected = 0;
+			for(final Edge branch : branches)
+				expected += branch.getLength();
+			assertEquals(expected, length, 1e-9);
+		}
+	}
+
+	/**
+	 * Analyze a skeleton made of a cross, whose arms meet in a junction, and
+	 * of a separate diamond-shaped ring.
+	 */
+	private static Graph[] analyze(final boolean keepSlabs)
+	{
+		final ByteProcessor ip = new ByteProcessor(24, 24);
+		for(int i = 4; i <= 20; i++)
+		{
+			ip.set(i, 14, 255);
+			ip.set(12, i, 255);
+		}
+		for(int i = 0; i < 3; i++)
+		{
+			ip.set(5 - i, 2 + i, 255);
+			ip.set(2 + i, 5 + i, 255);
+			ip.set(5 + i, 8 - i, 255);
+			ip.set(8 - i, 5 - i, 255);
+		}
+
+		final ImagePlus imp = new ImagePlus("skeleton", ip);
+		final AnalyzeSkeleton_ analyzer = new AnalyzeSkeleton_();
+		analyzer.setup("", imp);
+		analyzer.setKeepSlabs(keepSlabs);
+		analyzer.run(AnalyzeSkeleton_.NONE, false, false, imp, true, false);
+		return analyzer.getGraphs();
+	}
+}
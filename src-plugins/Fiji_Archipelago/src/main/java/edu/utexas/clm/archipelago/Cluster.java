@@ -42,6 +42,7 @@
 import ij.Prefs;
 
 import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InvalidClassException;
@@ -53,6 +54,7 @@
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.ConcurrentModificationException;
 import java.util.HashMap;
 import java.util.Hashtable;
@@ -69,6 +71,7 @@
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
@@ -97,6 +100,12 @@ public class Cluster implements NodeStateListener, NodeShellListener
      * equally as any other. There is code here that will attempt to recover in the case that
      * a ProcessManager is rejected, but if this becomes a common occurrence, then this
      * scheduler should be replaced with something more sophisticated.
+     *
+     * When locality-aware scheduling is enabled, jobs are placed differently: the ClusterNode
+     * with the most idle cores picks first, and it picks the queued job with the most input
+     * files already resident on it (see FileDependent and FileBottle). A job whose files are
+     * resident on a node that is currently busy waits for that node, but only for the steal
+     * delay. After that, any idle node may steal it.
      * @author Larry Lindsey
      */
     public class ProcessScheduler extends Thread
@@ -108,6 +117,9 @@ public class ProcessScheduler extends Thread
         private final Vector<ProcessManager<?>> remainingJobList;
         private final LinkedList<ProcessManager> internalQueue;
         private final ReentrantLock lock;
+        private final AtomicBoolean localityAware;
+        private final AtomicLong stealDelay;
+        private final Hashtable<Long, Long> queuedSince;
 
         private ProcessScheduler(int t)
         {
@@ -119,6 +131,9 @@ private ProcessScheduler(int t)
             remainingJobList = new Vector<ProcessManager<?>>();
             internalQueue = new LinkedList<ProcessManager>();
             lock = new ReentrantLock();
+            localityAware = new AtomicBoolean(false);
+            stealDelay = new AtomicLong(5000);
+            queuedSince = new Hashtable<Long, Long>();
         }
         
 
@@ -127,6 +142,31 @@ public void setPollTimeMillis(int t)
             pollTime.set(t);
         }
 
+        /**
+         * Enables or disables locality-aware scheduling.
+         * @param enable true to place jobs on the nodes that have their input files, and to let
+         *               idle nodes steal jobs that have waited longer than the steal delay.
+         */
+        public void setLocalityAware(boolean enable)
+        {
+            localityAware.set(enable);
+        }
+
+        public boolean isLocalityAware()
+        {
+            return localityAware.get();
+        }
+
+        /**
+         * Sets how long a job may wait for a busy node that has its input files, before any
+         * idle node may steal it. Only used with locality-aware scheduling.
+         * @param t the steal delay, in milliseconds
+         */
+        public void setStealDelayMillis(long t)
+        {
+            stealDelay.set(t);
+        }
+
         public synchronized <T> boolean queueJob(Callable<T> c, long id, float np, boolean f)
         {
             return queueJob(c, id, false, np, f);
@@ -136,6 +176,10 @@ public synchronized <T> boolean queueJob(Callable<T> c, long id,
                                                  boolean priority, float np, boolean f)
         {
             ProcessManager<T> pm = new ProcessManager<T>(c, id, np, f);
+            if (localityAware.get() && !(c instanceof FileDependent))
+            {
+                pm.setInputFiles(findInputFiles(c));
+            }
             return queueJob(pm, priority);
         }
         
@@ -147,6 +191,7 @@ public synchronized boolean queueJob(ProcessManager pm, boolean priority)
             // This is done in the event that the ProcessManager in question is being
             // re-queued.
             pm.setRunningOn(null);
+            queuedSince.put(pm.getID(), System.currentTimeMillis());
 
             try
             {
@@ -220,20 +265,6 @@ private boolean trySubmit(final ProcessManager<?> pm,
             }
             else
             {
-                ProcessListener listener = new ProcessListener() {
-                    /**
-                     * processFinished is called when the given ClusterNode recieves a message
-                     * from its remote counterpart indicating that the job has finished.
-                     * @param process a ProcessManager that just returned from the cluster
-                     * @return true if the Future was finished successfully, false otherwise.
-                     */
-                    public boolean processFinished(ProcessManager<?> process)
-                    {
-                        runningProcesses.remove(process.getID());
-                        return finishFuture(process);
-                    }
-                };
-                
                 /*
                  Run through the available ClusterNodes, attempting to submit the job to each one.
                  When a node rejects the PM, rotate the list. Assuming that our job list is rather
@@ -243,11 +274,8 @@ public boolean processFinished(ProcessManager<?> process)
                 {
                     final ClusterNode node = nodeList.getFirst();
 
-                    if (node.numAvailableThreads() >= pm.requestedCores(node) &&
-                            node.submit(pm, listener))
+                    if (trySubmit(pm, node))
                     {
-                        runningProcesses.put(pm.getID(), pm);
-                        incrementJobCount();
                         if (node.numAvailableThreads() <= 0)
                         {
                             nodeList.remove(node);
@@ -260,6 +288,177 @@ public boolean processFinished(ProcessManager<?> process)
                 return false;
             }
         }
+
+        /**
+         * Attempts to submit the ProcessManager pm on the given node. This function runs on the
+         * same thread as run().
+         * @param pm a queued ProcessManager that is to be run to the Cluster
+         * @param node a ClusterNode with available Threads
+         * @return true if pm was scheduled, false otherwise.
+         */
+        private boolean trySubmit(final ProcessManager<?> pm, final ClusterNode node)
+        {
+            ProcessListener listener = new ProcessListener() {
+                /**
+                 * processFinished is called when the given ClusterNode recieves a message
+                 * from its remote counterpart indicating that the job has finished.
+                 * @param process a ProcessManager that just returned from the cluster
+                 * @return true if the Future was finished successfully, false otherwise.
+                 */
+                public boolean processFinished(ProcessManager<?> process)
+                {
+                    runningProcesses.remove(process.getID());
+                    return finishFuture(process);
+                }
+            };
+
+            if (node.numAvailableThreads() >= pm.requestedCores(node) &&
+                    node.submit(pm, listener))
+            {
+                runningProcesses.put(pm.getID(), pm);
+                queuedSince.remove(pm.getID());
+                incrementJobCount();
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Places queued jobs on the nodes in nodeList according to data locality. Until no more
+         * jobs can be placed, the node with the most idle cores picks the job that it should run,
+         * as given by pickJob(). This function runs on the same thread as run().
+         * @param nodeList a List of ClusterNodes with available Threads
+         */
+        private void scheduleByLocality(final LinkedList<ClusterNode> nodeList)
+        {
+            final long now = System.currentTimeMillis();
+            final ArrayList<ClusterNode> candidates = new ArrayList<ClusterNode>(nodeList);
+            final Hashtable<Long, Integer> bestLocality = new Hashtable<Long, Integer>();
+            final Comparator<ClusterNode> idleComparator = new Comparator<ClusterNode>()
+            {
+                public int compare(ClusterNode n1, ClusterNode n2)
+                {
+                    final int a1 = n1.numAvailableThreads(), a2 = n2.numAvailableThreads();
+                    return a1 == a2 ? 0 : a1 > a2 ? 1 : -1;
+                }
+            };
+
+            /*
+             For each job, find the largest number of its input files resident on any active node,
+             so that we know whether some node other than the one picking is a better place for it.
+             */
+            for (ProcessManager<?> pm : internalQueue)
+            {
+                final Collection<File> files = pm.getInputFiles();
+                int best = 0;
+                if (!files.isEmpty())
+                {
+                    for (ClusterNode node : nodes)
+                    {
+                        if (node.getState() == ClusterNodeState.ACTIVE)
+                        {
+                            best = Math.max(best, node.countResidentFiles(files));
+                        }
+                    }
+                }
+                bestLocality.put(pm.getID(), best);
+            }
+
+            while (!candidates.isEmpty() && !internalQueue.isEmpty())
+            {
+                final ClusterNode node = Collections.max(candidates, idleComparator);
+                final ProcessManager<?> pm = pickJob(node, bestLocality, now);
+
+                if (pm != null && trySubmit(pm, node))
+                {
+                    FijiArchipelago.debug("Scheduler: Job " + pm.getID() +
+                            " scheduled by locality on host " + node.getHost());
+                    internalQueue.remove(pm);
+                    final Collection<File> placed = pm.getInputFiles();
+                    if (!placed.isEmpty())
+                    {
+                        node.addResidentFiles(placed);
+                        updateBestLocality(node, bestLocality);
+                    }
+                    if (node.numAvailableThreads() <= 0)
+                    {
+                        candidates.remove(node);
+                    }
+                }
+                else
+                {
+                    // Nothing this node should run right now.
+                    candidates.remove(node);
+                }
+            }
+        }
+
+        /**
+         * Updates the best locality of the queued jobs after some files became resident on
+         * node. Residency only grows, so only node needs to be checked.
+         * @param node the ClusterNode that just received a job
+         * @param bestLocality the largest number of input files of each job, by id, that are
+         *                     resident on any active node
+         */
+        private void updateBestLocality(final ClusterNode node,
+                                        final Hashtable<Long, Integer> bestLocality)
+        {
+            for (ProcessManager<?> pm : internalQueue)
+            {
+                final Collection<File> files = pm.getInputFiles();
+                if (!files.isEmpty())
+                {
+                    final int locality = node.countResidentFiles(files);
+                    final Integer best = bestLocality.get(pm.getID());
+                    if (best == null || locality > best)
+                    {
+                        bestLocality.put(pm.getID(), locality);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Picks the queued job that the given node should run. A job may run on the node if
+         * none of the active nodes has more of its input files, or if it has waited longer
+         * than the steal delay. Of those jobs, the one with the most input files resident on
+         * node is chosen, or the first in the queue in case of a tie.
+         * @param node a ClusterNode with available Threads
+         * @param bestLocality the largest number of input files of each job, by id, that are
+         *                     resident on any active node
+         * @param now the current time in milliseconds
+         * @return the job that node should run, or null if there is none.
+         */
+        private ProcessManager<?> pickJob(final ClusterNode node,
+                                          final Hashtable<Long, Integer> bestLocality,
+                                          final long now)
+        {
+            final int available = node.numAvailableThreads();
+            final long delay = stealDelay.get();
+            ProcessManager<?> picked = null;
+            int pickedLocality = -1;
+
+            for (ProcessManager<?> pm : internalQueue)
+            {
+                if (pm.requestedCores(node) > available)
+                {
+                    continue;
+                }
+
+                final Collection<File> files = pm.getInputFiles();
+                final int locality = files.isEmpty() ? 0 : node.countResidentFiles(files);
+                final Integer best = bestLocality.get(pm.getID());
+                final Long since = queuedSince.get(pm.getID());
+                final boolean stealable = since == null || now - since >= delay;
+
+                if ((best == null || locality >= best || stealable) && locality > pickedLocality)
+                {
+                    picked = pm;
+                    pickedLocality = locality;
+                }
+            }
+            return picked;
+        }
         
         public void run()
         {
@@ -320,7 +519,11 @@ public void run()
                 //FijiArchipelago.debug("Scheduler: " + internalQueue.size() + " jobs in queue");
 
                 //If we have both jobs and nodes to run them on...
-                if (!internalQueue.isEmpty() && !nodeList.isEmpty())
+                if (localityAware.get() && !internalQueue.isEmpty() && !nodeList.isEmpty())
+                {
+                    scheduleByLocality(nodeList);
+                }
+                else if (!internalQueue.isEmpty() && !nodeList.isEmpty())
                 {
                     // Temporary queue so we can remove jobs from the internalQueue
                     // without suffering ConcurrentModificationExceptions
@@ -376,6 +579,10 @@ private boolean removeFromQueue(Collection<ProcessManager> pms, long id)
                 }
             }
 
+            if (rmpm != null)
+            {
+                queuedSince.remove(id);
+            }
             return rmpm != null && pms.remove(rmpm);
         }
         
@@ -495,6 +702,7 @@ public synchronized void close()
             priorityJobQueue.clear();
             jobQueue.clear();
             internalQueue.clear();
+            queuedSince.clear();
         }
         
         public int queuedJobCount()
@@ -1052,6 +1260,7 @@ A call to shutdownNow() will halt all processing on all cluster nodes, and retur
     private final Vector<Thread> waitThreads;
     private final Vector<ArchipelagoUI> registeredUIs;
     private final List<Bottler> bottlers;
+    private final List<FileDependencyFinder> fileDependencyFinders;
     private final ProcessScheduler scheduler;
     
     private final Hashtable<Long, ArchipelagoFuture<?>> futures;
@@ -1081,6 +1290,7 @@ private Cluster()
         waitThreads = new Vector<Thread>();
         registeredUIs = new Vector<ArchipelagoUI>();
         bottlers = Collections.synchronizedList(new Vector<Bottler>());
+        fileDependencyFinders = new Vector<FileDependencyFinder>();
         
         jobCount = new AtomicInteger(0);
         runningNodes = new AtomicInteger(0);
@@ -1695,6 +1905,37 @@ public void addBottler(final Bottler bottler)
         nodeLock.unlock();
     }
 
+    /**
+     * Adds a FileDependencyFinder, used by the locality-aware scheduler to find the input files
+     * of queued Callables that do not implement FileDependent.
+     * @param finder the FileDependencyFinder to add
+     */
+    public void addFileDependencyFinder(final FileDependencyFinder finder)
+    {
+        fileDependencyFinders.add(finder);
+    }
+
+    /**
+     * Asks the registered FileDependencyFinders for the input files of a Callable.
+     * @param callable a Callable that is about to be queued
+     * @return the input Files given by the first finder that knows about callable, or null.
+     */
+    private Collection<File> findInputFiles(final Callable<?> callable)
+    {
+        synchronized (fileDependencyFinders)
+        {
+            for (final FileDependencyFinder finder : fileDependencyFinders)
+            {
+                final Collection<File> files = finder.findInputFiles(callable);
+                if (files != null)
+                {
+                    return files;
+                }
+            }
+        }
+        return null;
+    }
+
     /**
      * Starts the Cluster if it has not yet been started
      */
@@ -1851,6 +2092,44 @@ When the count reaches zero, haltFinished() is called, closing all of the nodes
         //ThreadPool.setProvider(new DefaultExecutorProvider());
     }
 
+    /**
+     * Enables or disables locality-aware, work-stealing scheduling. When enabled, jobs are
+     * preferentially run on the ClusterNodes that already have their input files, and idle nodes
+     * steal jobs that have waited too long for a busy node.
+     * @param enable true to enable locality-aware scheduling, false to use the default scheduler.
+     */
+    public void setLocalityAwareScheduling(final boolean enable)
+    {
+        scheduler.setLocalityAware(enable);
+    }
+
+    public boolean isLocalityAwareScheduling()
+    {
+        return scheduler.isLocalityAware();
+    }
+
+    /**
+     * Sets how long a job may wait for a busy node that has its input files, before an idle node
+     * may steal it, when locality-aware scheduling is enabled.
+     * @param millis the steal delay, in milliseconds
+     */
+    public void setStealDelayMillis(final long millis)
+    {
+        scheduler.setStealDelayMillis(millis);
+    }
+
+    /**
+     * Selects the protocol used to talk to ClusterNodes that connect after this call. The framed
+     * protocol batches small messages and sends large primitive arrays, such as pixel data,
+     * in bulk and compressed, but every client must be recent enough to support it.
+     * @param framed true to use the framed binary protocol, false for Java serialization.
+     */
+    public void setFramedProtocol(final boolean framed)
+    {
+        MessageXC.setRootWireFormat(framed ? MessageXC.WireFormat.FRAMED :
+                MessageXC.WireFormat.SERIAL);
+    }
+
     public int getMaxThreads()
     {
         int maxThreads = -1;
@@ -0,0 +1,36 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ */
+
+package edu.utexas.clm.archipelago.compute;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.concurrent.Callable;
+
+/**
+ * Finds the files read by Callables that do not implement FileDependent themselves, for
+ * instance because they are created by a third-party library. FileDependencyFinders are
+ * registered with the Cluster, much like Bottlers, and are asked about each queued job.
+ */
+public interface FileDependencyFinder
+{
+    /**
+     * @param callable a Callable that is about to be queued
+     * @return the Files that callable reads, as seen from the root node, or null if this
+     * finder does not know about that callable.
+     */
+    public Collection<File> findInputFiles(Callable<?> callable);
+}
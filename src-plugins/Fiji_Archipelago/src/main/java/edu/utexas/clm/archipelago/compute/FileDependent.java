@@ -0,0 +1,33 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ */
+
+package edu.utexas.clm.archipelago.compute;
+
+import java.io.File;
+import java.util.Collection;
+
+/**
+ * Callables that implement FileDependent tell the locality-aware scheduler which files they
+ * read. The scheduler then prefers to send them to ClusterNodes that already have those files,
+ * for instance because an earlier job on that node used them.
+ */
+public interface FileDependent
+{
+    /**
+     * @return the Files that this job reads, as seen from the root node.
+     */
+    public Collection<File> getInputFiles();
+}
@@ -20,7 +20,10 @@
 
 import edu.utexas.clm.archipelago.network.node.ClusterNode;
 
+import java.io.File;
 import java.io.Serializable;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.concurrent.Callable;
 
 /**
@@ -38,6 +41,8 @@
     private long runningOn;
     private final float numCores;
     private final boolean isFractional;
+    /* Input files found for the callable on the root node. Only the scheduler needs them. */
+    private transient Collection<File> inputFiles;
      
     
     //public <S extends Callable<T> & Serializable> ProcessManager(final S c, final ProcessListener pl, long idArg)
@@ -95,6 +100,40 @@ public long getID()
     {
         return id;
     }
+
+    /**
+     * Sets the files read by the Callable, as found by a FileDependencyFinder.
+     * @param files the input Files of this job
+     */
+    public void setInputFiles(final Collection<File> files)
+    {
+        inputFiles = files;
+    }
+
+    /**
+     * Returns the files read by the Callable, as set by setInputFiles, or as given by the
+     * Callable itself if it implements FileDependent.
+     * @return the input Files of this job, or an empty Collection if they are not known.
+     */
+    public Collection<File> getInputFiles()
+    {
+        final Collection<File> found = inputFiles;
+        if (found != null)
+        {
+            return found;
+        }
+
+        final Callable<T> c = callable;
+        if (c instanceof FileDependent)
+        {
+            final Collection<File> files = ((FileDependent)c).getInputFiles();
+            if (files != null)
+            {
+                return files;
+            }
+        }
+        return Collections.emptyList();
+    }
     
     public Throwable getRemoteException()
     {
@@ -0,0 +1,718 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ */
+
+package edu.utexas.clm.archipelago.network;
+
+import edu.utexas.clm.archipelago.data.ClusterMessage;
+import edu.utexas.clm.archipelago.listen.MessageType;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Encodes batches of ClusterMessages as binary frames, for MessageXC. A frame looks like this:
+ *
+ * <pre>
+ * int   number of arrays
+ * int   number of messages
+ * array section: for each array
+ *     byte  array type (ARRAY_FLOAT, ...)
+ *     int   number of elements
+ *     byte  1 if the array is sent in chunks, 0 if its bytes follow directly
+ *     ...   the array elements, big-endian. In chunked form, each chunk of CHUNK_BYTES
+ *           (or fewer, for the last chunk) is preceded by an int holding the number of bytes
+ *           stored. The chunk is deflated if that number is smaller than the chunk.
+ * message section: for each message
+ *     byte  MessageType ordinal
+ *     long  source
+ *     byte  object kind (KIND_NULL, ...)
+ *     ...   the object, depending on its kind
+ * </pre>
+ *
+ * Simple objects (Longs, Integers, Strings) are written directly. Everything else is written with
+ * Java serialization, with bottling as in the plain serialized protocol. Large primitive arrays
+ * are taken out of the serialized object graph and written in bulk to the array section, so that
+ * pixel data in DataChunks and FloatProcessorChunks avoids the per-element cost of
+ * serialization, and may be compressed.
+ *
+ * Arrays are streamed rather than copied into the frame. Only the message section, which holds
+ * no large arrays, is buffered before it is sent, so the frame as a whole has no size limit.
+ * This is not strictly zero-copy: a float, short or int array can't be handed to an OutputStream
+ * as it is, so its elements pass through a small reusable buffer on the way to and from bytes.
+ * Uncompressed byte arrays are written and read in place.
+ */
+public class FramedCodec
+{
+    /**
+     * Written at the beginning of a framed stream, in place of the Java serialization stream
+     * header, which starts with 0xACED.
+     */
+    public static final int MAGIC = 0x41524631; // "ARF1"
+
+    /**
+     * Primitive arrays with fewer elements than this are left in the serialized object graph.
+     */
+    public static final int MIN_ARRAY_LENGTH = 1024;
+
+    /**
+     * Arrays are converted, compressed and sent in chunks of at most this many bytes.
+     */
+    public static final int CHUNK_BYTES = 1 << 16;
+
+    private static final byte ARRAY_FLOAT = 0;
+    private static final byte ARRAY_SHORT = 1;
+    private static final byte ARRAY_INT = 2;
+    private static final byte ARRAY_BYTE = 3;
+
+    private static final byte KIND_NULL = 0;
+    private static final byte KIND_LONG = 1;
+    private static final byte KIND_INTEGER = 2;
+    private static final byte KIND_STRING = 3;
+    private static final byte KIND_ARRAY = 4;
+    private static final byte KIND_OBJECT = 5;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Stands in for a primitive array in a serialized object graph. The array itself is in the
+     * array section of the frame.
+     */
+    public static class ArrayReference implements Serializable
+    {
+        private static final long serialVersionUID = -2851739061542683624L;
+
+        private final int index;
+
+        public ArrayReference(final int index)
+        {
+            this.index = index;
+        }
+    }
+
+    /**
+     * Holds the message section while a frame is put together. Lets us drop a message that
+     * failed halfway, and fill in object lengths after the object has been written.
+     */
+    private static class MessageBuffer extends ByteArrayOutputStream
+    {
+        public void truncate(final int size)
+        {
+            count = size;
+        }
+
+        public void setInt(final int position, final int value)
+        {
+            buf[position] = (byte)(value >>> 24);
+            buf[position + 1] = (byte)(value >>> 16);
+            buf[position + 2] = (byte)(value >>> 8);
+            buf[position + 3] = (byte)value;
+        }
+    }
+
+    private class ArrayOutputStream extends ObjectOutputStream
+    {
+        private final List<Object> arrays;
+
+        public ArrayOutputStream(final OutputStream os, final List<Object> arrays)
+                throws IOException
+        {
+            super(os);
+            this.arrays = arrays;
+            enableReplaceObject(true);
+        }
+
+        protected final Object replaceObject(final Object object) throws IOException
+        {
+            if (isLargeArray(object))
+            {
+                arrays.add(object);
+                return new ArrayReference(arrays.size() - 1);
+            }
+            else
+            {
+                return xc.bottle(object);
+            }
+        }
+    }
+
+    private class ArrayInputStream extends ObjectInputStream
+    {
+        private final Object[] arrays;
+
+        public ArrayInputStream(final InputStream is, final Object[] arrays) throws IOException
+        {
+            super(is);
+            this.arrays = arrays;
+            enableResolveObject(true);
+        }
+
+        protected final Object resolveObject(final Object object) throws IOException
+        {
+            if (object instanceof ArrayReference)
+            {
+                return arrays[((ArrayReference)object).index];
+            }
+            else
+            {
+                return xc.unBottle(object);
+            }
+        }
+    }
+
+    private final MessageXC xc;
+    private final MessageType[] types = MessageType.values();
+    // The TX and RX threads use the codec at the same time, so each gets its own buffers.
+    private final byte[] txChunk = new byte[CHUNK_BYTES];
+    private final byte[] txDeflated = new byte[CHUNK_BYTES];
+    private final byte[] rxChunk = new byte[CHUNK_BYTES];
+    private final byte[] rxDeflated = new byte[CHUNK_BYTES];
+    // Toggled by setCompress from other threads while the TX thread writes
+    private volatile boolean compress;
+
+    public FramedCodec(final MessageXC xc, final boolean compress)
+    {
+        this.xc = xc;
+        this.compress = compress;
+    }
+
+    public void setCompress(final boolean compress)
+    {
+        this.compress = compress;
+    }
+
+    /**
+     * Writes a batch of messages as one frame. Messages that cannot be encoded are not written,
+     * and are returned along with the reason, so that the caller may report them.
+     * @param out the stream to write to. It is flushed after the frame.
+     * @param messages the messages to write
+     * @param failed receives the messages that could not be encoded
+     * @param errors receives the Throwables corresponding to the messages in failed
+     * @throws IOException if there is a problem writing to out
+     */
+    public void writeFrame(final DataOutputStream out,
+                           final List<ClusterMessage> messages,
+                           final List<ClusterMessage> failed,
+                           final List<Throwable> errors) throws IOException
+    {
+        final ArrayList<Object> arrays = new ArrayList<Object>();
+        final MessageBuffer messageBytes = new MessageBuffer();
+        final DataOutputStream messageOut = new DataOutputStream(messageBytes);
+        int count = 0;
+
+        for (final ClusterMessage message : messages)
+        {
+            final int arrayCount = arrays.size();
+            final int messageStart = messageBytes.size();
+            try
+            {
+                writeMessage(messageOut, messageBytes, message, arrays);
+                ++count;
+            }
+            catch (Throwable t)
+            {
+                // Forget whatever was written for the message that failed
+                messageBytes.truncate(messageStart);
+                while (arrays.size() > arrayCount)
+                {
+                    arrays.remove(arrays.size() - 1);
+                }
+                failed.add(message);
+                errors.add(t);
+            }
+        }
+
+        if (count == 0)
+        {
+            return;
+        }
+
+        out.writeInt(arrays.size());
+        out.writeInt(count);
+        for (final Object array : arrays)
+        {
+            writeArray(out, array);
+        }
+        messageBytes.writeTo(out);
+        out.flush();
+    }
+
+    /**
+     * Reads one frame. Messages whose objects cannot be read, for instance because their class
+     * is not available on this side or cannot be unbottled, are skipped, and the Throwables are
+     * added to errors. Their payload is length-prefixed, so the rest of the frame can still be
+     * read.
+     * @param in the stream to read from
+     * @param errors receives the Throwables raised while reading single messages
+     * @return the messages in the frame
+     * @throws IOException if there is a problem reading from in, or if the frame is corrupt.
+     */
+    public List<ClusterMessage> readFrame(final DataInputStream in,
+                                          final List<Throwable> errors) throws IOException
+    {
+        final int arrayCount = in.readInt();
+        final int count = in.readInt();
+        if (arrayCount < 0 || count <= 0)
+        {
+            throw new StreamCorruptedException("Bad frame header " + arrayCount + ", " + count);
+        }
+
+        final Object[] arrays = new Object[arrayCount];
+        final ArrayList<ClusterMessage> messages = new ArrayList<ClusterMessage>(count);
+
+        for (int i = 0; i < arrays.length; ++i)
+        {
+            arrays[i] = readArray(in);
+        }
+
+        for (int i = 0; i < count; ++i)
+        {
+            final int typeOrdinal = in.readByte();
+            if (typeOrdinal < 0 || typeOrdinal >= types.length)
+            {
+                throw new StreamCorruptedException("Unknown message type " + typeOrdinal);
+            }
+            final ClusterMessage message = new ClusterMessage(types[typeOrdinal]);
+            message.source = in.readLong();
+
+            final byte kind = in.readByte();
+            if (kind != KIND_OBJECT)
+            {
+                message.o = readValue(in, kind, arrays);
+                messages.add(message);
+                continue;
+            }
+
+            final int length = in.readInt();
+            if (length < 0)
+            {
+                throw new StreamCorruptedException("Bad object length " + length);
+            }
+            final byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            try
+            {
+                message.o = readObject(bytes, arrays);
+                messages.add(message);
+            }
+            catch (Exception e)
+            {
+                // The payload has been consumed, so only this message is lost.
+                errors.add(e);
+            }
+            catch (LinkageError le)
+            {
+                errors.add(le);
+            }
+        }
+
+        return messages;
+    }
+
+    private void writeMessage(final DataOutputStream out,
+                              final MessageBuffer buffer,
+                              final ClusterMessage message,
+                              final List<Object> arrays) throws IOException
+    {
+        final Serializable o = message.o;
+
+        out.writeByte(message.type.ordinal());
+        out.writeLong(message.source);
+
+        if (o == null)
+        {
+            out.writeByte(KIND_NULL);
+        }
+        else if (o instanceof Long)
+        {
+            out.writeByte(KIND_LONG);
+            out.writeLong((Long)o);
+        }
+        else if (o instanceof Integer)
+        {
+            out.writeByte(KIND_INTEGER);
+            out.writeInt((Integer)o);
+        }
+        else if (o instanceof String)
+        {
+            // Not writeUTF, which can't handle strings over 64k
+            final byte[] utf8 = ((String)o).getBytes(UTF8);
+            out.writeByte(KIND_STRING);
+            out.writeInt(utf8.length);
+            out.write(utf8);
+        }
+        else if (isLargeArray(o))
+        {
+            out.writeByte(KIND_ARRAY);
+            arrays.add(o);
+            out.writeInt(arrays.size() - 1);
+        }
+        else
+        {
+            out.writeByte(KIND_OBJECT);
+            // Write the object in place, then go back and fill in its length
+            final int lengthPosition = buffer.size();
+            out.writeInt(0);
+            final ArrayOutputStream oos = new ArrayOutputStream(buffer, arrays);
+            oos.writeObject(o);
+            oos.flush();
+            buffer.setInt(lengthPosition, buffer.size() - lengthPosition - 4);
+        }
+    }
+
+    private Serializable readValue(final DataInputStream in, final byte kind,
+                                   final Object[] arrays) throws IOException
+    {
+        switch (kind)
+        {
+            case KIND_NULL:
+                return null;
+            case KIND_LONG:
+                return in.readLong();
+            case KIND_INTEGER:
+                return in.readInt();
+            case KIND_STRING:
+                final int length = in.readInt();
+                if (length < 0)
+                {
+                    throw new StreamCorruptedException("Bad string length " + length);
+                }
+                final byte[] utf8 = new byte[length];
+                in.readFully(utf8);
+                return new String(utf8, UTF8);
+            case KIND_ARRAY:
+                final int index = in.readInt();
+                if (index < 0 || index >= arrays.length)
+                {
+                    throw new StreamCorruptedException("Bad array index " + index);
+                }
+                return (Serializable)arrays[index];
+            default:
+                throw new StreamCorruptedException("Unknown object kind " + kind);
+        }
+    }
+
+    private Serializable readObject(final byte[] bytes, final Object[] arrays)
+            throws IOException, ClassNotFoundException
+    {
+        final ArrayInputStream ois = new ArrayInputStream(new ByteArrayInputStream(bytes), arrays);
+        try
+        {
+            return (Serializable)ois.readObject();
+        }
+        finally
+        {
+            ois.close();
+        }
+    }
+
+    private static boolean isLargeArray(final Object o)
+    {
+        if (o instanceof float[])
+        {
+            return ((float[])o).length >= MIN_ARRAY_LENGTH;
+        }
+        else if (o instanceof short[])
+        {
+            return ((short[])o).length >= MIN_ARRAY_LENGTH;
+        }
+        else if (o instanceof int[])
+        {
+            return ((int[])o).length >= MIN_ARRAY_LENGTH;
+        }
+        else if (o instanceof byte[])
+        {
+            return ((byte[])o).length >= MIN_ARRAY_LENGTH;
+        }
+        return false;
+    }
+
+    private static byte arrayType(final Object array)
+    {
+        if (array instanceof float[])
+        {
+            return ARRAY_FLOAT;
+        }
+        else if (array instanceof short[])
+        {
+            return ARRAY_SHORT;
+        }
+        else if (array instanceof int[])
+        {
+            return ARRAY_INT;
+        }
+        else
+        {
+            return ARRAY_BYTE;
+        }
+    }
+
+    private static int elementSize(final byte type)
+    {
+        return type == ARRAY_FLOAT || type == ARRAY_INT ? 4 : type == ARRAY_SHORT ? 2 : 1;
+    }
+
+    private static Object newArray(final byte type, final int length) throws IOException
+    {
+        switch (type)
+        {
+            case ARRAY_FLOAT:
+                return new float[length];
+            case ARRAY_SHORT:
+                return new short[length];
+            case ARRAY_INT:
+                return new int[length];
+            case ARRAY_BYTE:
+                return new byte[length];
+            default:
+                throw new StreamCorruptedException("Unknown array type " + type);
+        }
+    }
+
+    /**
+     * Converts n elements of array, starting at offset, to big-endian bytes in chunk.
+     */
+    private static void toBytes(final Object array, final byte type, final int offset,
+                                final int n, final byte[] chunk)
+    {
+        // Bulk conversion through NIO buffers, rather than element by element.
+        final ByteBuffer buffer = ByteBuffer.wrap(chunk, 0, n * elementSize(type));
+        switch (type)
+        {
+            case ARRAY_FLOAT:
+                buffer.asFloatBuffer().put((float[])array, offset, n);
+                break;
+            case ARRAY_SHORT:
+                buffer.asShortBuffer().put((short[])array, offset, n);
+                break;
+            default:
+                buffer.asIntBuffer().put((int[])array, offset, n);
+        }
+    }
+
+    /**
+     * Converts n elements' worth of big-endian bytes in chunk into array, starting at offset.
+     */
+    private static void fromBytes(final byte[] chunk, final byte type, final Object array,
+                                  final int offset, final int n)
+    {
+        final ByteBuffer buffer = ByteBuffer.wrap(chunk, 0, n * elementSize(type));
+        switch (type)
+        {
+            case ARRAY_FLOAT:
+                buffer.asFloatBuffer().get((float[])array, offset, n);
+                break;
+            case ARRAY_SHORT:
+                buffer.asShortBuffer().get((short[])array, offset, n);
+                break;
+            default:
+                buffer.asIntBuffer().get((int[])array, offset, n);
+        }
+    }
+
+    private void writeArray(final DataOutputStream out, final Object array) throws IOException
+    {
+        final byte type = arrayType(array);
+        final int elementSize = elementSize(type);
+        final int length = type == ARRAY_BYTE ? ((byte[])array).length :
+                type == ARRAY_SHORT ? ((short[])array).length :
+                type == ARRAY_INT ? ((int[])array).length : ((float[])array).length;
+
+        out.writeByte(type);
+        out.writeInt(length);
+        out.writeByte(compress ? 1 : 0);
+
+        if (!compress && type == ARRAY_BYTE)
+        {
+            out.write((byte[])array);
+            return;
+        }
+
+        final int chunkElements = CHUNK_BYTES / elementSize;
+        final Deflater deflater = compress ? new Deflater(Deflater.BEST_SPEED) : null;
+
+        try
+        {
+            for (int offset = 0; offset < length; offset += chunkElements)
+            {
+                final int n = Math.min(chunkElements, length - offset);
+                final int rawLength = n * elementSize;
+                final byte[] raw;
+                final int rawOffset;
+
+                if (type == ARRAY_BYTE)
+                {
+                    raw = (byte[])array;
+                    rawOffset = offset;
+                }
+                else
+                {
+                    toBytes(array, type, offset, n, txChunk);
+                    raw = txChunk;
+                    rawOffset = 0;
+                }
+
+                if (deflater == null)
+                {
+                    out.write(raw, rawOffset, rawLength);
+                    continue;
+                }
+
+                deflater.reset();
+                deflater.setInput(raw, rawOffset, rawLength);
+                deflater.finish();
+                final int stored = deflater.deflate(txDeflated, 0, rawLength - 1);
+                // Only keep the compressed data if it all fit in a smaller buffer
+                if (deflater.finished() && stored > 0)
+                {
+                    out.writeInt(stored);
+                    out.write(txDeflated, 0, stored);
+                }
+                else
+                {
+                    out.writeInt(rawLength);
+                    out.write(raw, rawOffset, rawLength);
+                }
+            }
+        }
+        finally
+        {
+            if (deflater != null)
+            {
+                deflater.end();
+            }
+        }
+    }
+
+    private Object readArray(final DataInputStream in) throws IOException
+    {
+        final byte type = in.readByte();
+        final int length = in.readInt();
+        final boolean chunked = in.readByte() != 0;
+
+        if (length < 0)
+        {
+            throw new StreamCorruptedException("Bad array length " + length);
+        }
+
+        final Object array = newArray(type, length);
+
+        if (!chunked && type == ARRAY_BYTE)
+        {
+            in.readFully((byte[])array);
+            return array;
+        }
+
+        final int elementSize = elementSize(type);
+        final int chunkElements = CHUNK_BYTES / elementSize;
+        final Inflater inflater = chunked ? new Inflater() : null;
+
+        try
+        {
+            for (int offset = 0; offset < length; offset += chunkElements)
+            {
+                final int n = Math.min(chunkElements, length - offset);
+                final int rawLength = n * elementSize;
+                final byte[] raw;
+                final int rawOffset;
+
+                if (type == ARRAY_BYTE)
+                {
+                    raw = (byte[])array;
+                    rawOffset = offset;
+                }
+                else
+                {
+                    raw = rxChunk;
+                    rawOffset = 0;
+                }
+
+                final int stored = chunked ? in.readInt() : rawLength;
+                if (stored == rawLength)
+                {
+                    in.readFully(raw, rawOffset, rawLength);
+                }
+                else if (stored > 0 && stored < rawLength)
+                {
+                    in.readFully(rxDeflated, 0, stored);
+                    inflate(inflater, stored, raw, rawOffset, rawLength);
+                }
+                else
+                {
+                    throw new StreamCorruptedException("Bad array chunk length " + stored);
+                }
+
+                if (type != ARRAY_BYTE)
+                {
+                    fromBytes(raw, type, array, offset, n);
+                }
+            }
+        }
+        finally
+        {
+            if (inflater != null)
+            {
+                inflater.end();
+            }
+        }
+
+        return array;
+    }
+
+    private void inflate(final Inflater inflater, final int stored,
+                         final byte[] raw, final int rawOffset, final int rawLength)
+            throws IOException
+    {
+        int done = 0;
+        inflater.reset();
+        inflater.setInput(rxDeflated, 0, stored);
+        try
+        {
+            while (done < rawLength && !inflater.finished())
+            {
+                final int n = inflater.inflate(raw, rawOffset + done, rawLength - done);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                {
+                    break;
+                }
+                done += n;
+            }
+        }
+        catch (DataFormatException dfe)
+        {
+            throw new StreamCorruptedException("Corrupt compressed array: " + dfe);
+        }
+        if (done != rawLength)
+        {
+            throw new StreamCorruptedException("Truncated compressed array");
+        }
+    }
+}
@@ -32,7 +32,9 @@
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.ConcurrentModificationException;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.Vector;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.TimeUnit;
@@ -41,9 +43,23 @@
 
 /**
  * Message transceiver class
+ *
+ * Messages are sent either with plain Java serialization, or with the binary framed protocol
+ * implemented by FramedCodec. A framed stream starts with FramedCodec.MAGIC, so a transceiver
+ * created with WireFormat.AUTO can tell which protocol its peer uses, and reply in kind.
  */
 public class MessageXC
 {
+    public static enum WireFormat
+    {
+        /** Java serialization, one message at a time. */
+        SERIAL,
+        /** Binary frames, with batching and bulk primitive arrays. */
+        FRAMED,
+        /** Use the same format as the remote side, which must be SERIAL or FRAMED. */
+        AUTO
+    }
+
     private class NullFileTranslator implements FileTranslator
     {
 
@@ -69,15 +85,7 @@ public BottlingInputStream(final InputStream is) throws IOException
 
         protected final Object resolveObject(final Object object) throws IOException
         {
-            if (object instanceof Bottle)
-            {
-                Bottle bottle = (Bottle)object;
-                return bottle.unBottle(xc);
-            }
-            else
-            {
-                return object;
-            }
+            return unBottle(object);
         }
     }
 
@@ -92,20 +100,7 @@ public BottlingOutputStream(final OutputStream os) throws IOException
 
         protected final Object replaceObject(final Object object) throws IOException
         {
-            /*
-            This seems like it could get costly as the number of bottles increases.
-            If this is the case, explore lower cost options, like look up tables or hashmaps on
-            the class name.
-             */
-            List<Bottler> bottlerList = new ArrayList<Bottler>(bottlers);
-            for (final Bottler bottler : bottlerList)
-            {
-                if (bottler.accepts(object))
-                {
-                    return bottler.bottle(object, xc);
-                }
-            }
-            return object;
+            return bottle(object);
         }
     }
 
@@ -113,6 +108,12 @@ private class RXThread extends Thread
     {
         public void run()
         {
+            if (framedRX)
+            {
+                runFramed();
+                return;
+            }
+
             while (active.get())
             {
                 try
@@ -160,12 +161,64 @@ public void run()
                 }
             }
         }
+
+        private void runFramed()
+        {
+            final ArrayList<Throwable> errors = new ArrayList<Throwable>();
+            while (active.get())
+            {
+                List<ClusterMessage> messages;
+                try
+                {
+                    messages = codec.readFrame(dataInputStream, errors);
+                }
+                catch (Throwable e)
+                {
+                    /*
+                     Unlike the serialized protocol, we can't resynchronize with the stream
+                     after a broken frame.
+                     */
+                    xcExceptionListener.handleRXThrowable(e, xc, null);
+                    close();
+                    return;
+                }
+
+                for (final Throwable e : errors)
+                {
+                    xcExceptionListener.handleRXThrowable(e, xc, null);
+                }
+                errors.clear();
+
+                for (final ClusterMessage message : messages)
+                {
+                    if (message.type != MessageType.BEAT)
+                    {
+                        FijiArchipelago.debug("RX: " + id + " got message " +
+                                ClusterMessage.messageToString(message));
+                    }
+                    try
+                    {
+                        xcListener.handleMessage(message);
+                    }
+                    catch (Throwable e)
+                    {
+                        xcExceptionListener.handleRXThrowable(e, xc, message);
+                    }
+                }
+            }
+        }
     }
     
     private class TXThread extends Thread
     {
         public void run()
         {
+            if (framedTX)
+            {
+                runFramed();
+                return;
+            }
+
             while (active.get())
             {
                 ClusterMessage nextMessage = null;
@@ -229,15 +282,74 @@ public void run()
                 }
             }
         }
+
+        private void runFramed()
+        {
+            final ArrayList<ClusterMessage> batch = new ArrayList<ClusterMessage>();
+            final ArrayList<ClusterMessage> failed = new ArrayList<ClusterMessage>();
+            final ArrayList<Throwable> errors = new ArrayList<Throwable>();
+
+            while (active.get())
+            {
+                try
+                {
+                    final ClusterMessage first = messageQ.poll(waitTime, tUnit);
+                    if (first == null)
+                    {
+                        continue;
+                    }
+                    // Send whatever else is waiting in the same frame.
+                    batch.add(first);
+                    messageQ.drainTo(batch);
+                }
+                catch (InterruptedException ie)
+                {
+                    active.set(false);
+                    break;
+                }
+
+                try
+                {
+                    codec.writeFrame(dataOutputStream, batch, failed, errors);
+                }
+                catch (Throwable e)
+                {
+                    // The frame did not get through, so neither did any message in it.
+                    for (final ClusterMessage message : batch)
+                    {
+                        if (!failed.contains(message))
+                        {
+                            xcExceptionListener.handleTXThrowable(e, xc, message);
+                        }
+                    }
+                }
+
+                for (int i = 0; i < failed.size(); ++i)
+                {
+                    xcExceptionListener.handleTXThrowable(errors.get(i), xc, failed.get(i));
+                }
+
+                batch.clear();
+                failed.clear();
+                errors.clear();
+            }
+        }
     }
     
     public static final long DEFAULT_WAIT = 10000;
     public static final TimeUnit DEFAULT_UNIT = TimeUnit.MILLISECONDS;
 
+    private static WireFormat rootWireFormat = WireFormat.SERIAL;
+
     private final List<Bottler> bottlers;
+    private final Set<String> residentPaths;
     private final ArrayBlockingQueue<ClusterMessage> messageQ;
     private BottlingOutputStream objectOutputStream;
     private BottlingInputStream objectInputStream;
+    private DataOutputStream dataOutputStream;
+    private DataInputStream dataInputStream;
+    private final FramedCodec codec;
+    private final boolean framedTX, framedRX;
     private FileTranslator fileTranslator;
     private final Thread txThread, rxThread;
     private final AtomicBoolean active;
@@ -266,14 +378,89 @@ public MessageXC(InputStream inStream,
                      final TransceiverExceptionListener listenerE,
                      final long wait,
                      TimeUnit unit) throws IOException
+    {
+        this(inStream, outStream, listener, listenerE, wait, unit, WireFormat.SERIAL);
+    }
+
+    public MessageXC(final InputStream inStream,
+                     final OutputStream outStream,
+                     final TransceiverListener listener,
+                     final TransceiverExceptionListener listenerE,
+                     final WireFormat format) throws IOException
+    {
+        this(inStream, outStream, listener, listenerE, DEFAULT_WAIT, DEFAULT_UNIT, format);
+    }
+
+    /**
+     * Creates a MessageXC.
+     * @param inStream InputStream to receive data from the remote machine
+     * @param outStream OutputStream to send data to the remote machine
+     * @param listener listener that will handle the received messages
+     * @param listenerE listener that will handle exceptions
+     * @param wait time to wait for queued messages before checking whether we're still active
+     * @param unit unit of wait
+     * @param format the WireFormat to use. If it is FRAMED, the remote side must use FRAMED or
+     *               AUTO. If it is AUTO, this constructor blocks until the remote side has sent
+     *               its stream header, and the remote side must not use AUTO.
+     * @throws IOException if there is a problem opening the streams, or if the remote side does
+     * not speak the framed protocol when format is FRAMED.
+     */
+    public MessageXC(InputStream inStream,
+                     OutputStream outStream,
+                     final TransceiverListener listener,
+                     final TransceiverExceptionListener listenerE,
+                     final long wait,
+                     TimeUnit unit,
+                     final WireFormat format) throws IOException
     {
         FijiArchipelago.debug("Creating Message Transciever");
         fileTranslator = new NullFileTranslator();
         bottlers = Collections.synchronizedList(new Vector<Bottler>());
+        residentPaths = Collections.synchronizedSet(new HashSet<String>());
         messageQ = new ArrayBlockingQueue<ClusterMessage>(16, true);
-        objectOutputStream = new BottlingOutputStream(outStream);
-        objectInputStream =  new BottlingInputStream(inStream);
-        FijiArchipelago.debug("XC: streams are set");
+        codec = new FramedCodec(this, true);
+
+        switch (format)
+        {
+            case FRAMED:
+                dataOutputStream = new DataOutputStream(new BufferedOutputStream(outStream));
+                dataOutputStream.writeInt(FramedCodec.MAGIC);
+                dataOutputStream.flush();
+                inStream = new PushbackInputStream(inStream, 4);
+                if (!remoteIsFramed((PushbackInputStream)inStream))
+                {
+                    throw new IOException("The remote node does not support the framed" +
+                            " protocol. Please update it, or use the serialized protocol");
+                }
+                dataInputStream = new DataInputStream(new BufferedInputStream(inStream));
+                framedTX = framedRX = true;
+                break;
+
+            case AUTO:
+                inStream = new PushbackInputStream(inStream, 4);
+                if (remoteIsFramed((PushbackInputStream)inStream))
+                {
+                    dataInputStream = new DataInputStream(new BufferedInputStream(inStream));
+                    dataOutputStream = new DataOutputStream(new BufferedOutputStream(outStream));
+                    dataOutputStream.writeInt(FramedCodec.MAGIC);
+                    dataOutputStream.flush();
+                    framedTX = framedRX = true;
+                }
+                else
+                {
+                    objectInputStream =  new BottlingInputStream(inStream);
+                    objectOutputStream = new BottlingOutputStream(outStream);
+                    framedTX = framedRX = false;
+                }
+                break;
+
+            default:
+                objectOutputStream = new BottlingOutputStream(outStream);
+                objectInputStream =  new BottlingInputStream(inStream);
+                framedTX = framedRX = false;
+        }
+
+        FijiArchipelago.debug("XC: streams are set, " + (framedTX ? "framed" : "serialized"));
         this.inStream = inStream;
         this.outStream = outStream;
         active = new AtomicBoolean(true);
@@ -292,6 +479,100 @@ public MessageXC(InputStream inStream,
         txThread.start();
     }
 
+    /**
+     * Reads the first four bytes of the remote stream. If they are not the framed protocol's
+     * magic number, they are pushed back, so that they may be read as a serialization header.
+     * @param is the remote stream
+     * @return true if the remote side uses the framed protocol.
+     * @throws IOException if there is a problem reading from is
+     */
+    private static boolean remoteIsFramed(final PushbackInputStream is) throws IOException
+    {
+        final byte[] header = new byte[4];
+        new DataInputStream(is).readFully(header);
+        if (new DataInputStream(new ByteArrayInputStream(header)).readInt() == FramedCodec.MAGIC)
+        {
+            return true;
+        }
+        else
+        {
+            is.unread(header);
+            return false;
+        }
+    }
+
+    /**
+     * Sets the WireFormat used by the root node when connecting to clients. Clients use
+     * WireFormat.AUTO, and follow the root node.
+     * @param format WireFormat.SERIAL or WireFormat.FRAMED
+     */
+    public static synchronized void setRootWireFormat(final WireFormat format)
+    {
+        rootWireFormat = format == WireFormat.AUTO ? WireFormat.SERIAL : format;
+    }
+
+    public static synchronized WireFormat getRootWireFormat()
+    {
+        return rootWireFormat;
+    }
+
+    /**
+     * Enables or disables compression of large primitive arrays in the framed protocol. It is
+     * enabled by default, and has no effect on the serialized protocol.
+     * @param compress true to deflate primitive arrays, false otherwise
+     */
+    public void setCompression(final boolean compress)
+    {
+        codec.setCompress(compress);
+    }
+
+    public boolean isFramed()
+    {
+        return framedTX;
+    }
+
+    /**
+     * Replaces object with a Bottle if one of our Bottlers accepts it.
+     * @param object an object being serialized
+     * @return the Bottle, or object itself if no Bottler accepts it
+     */
+    Object bottle(final Object object)
+    {
+        /*
+        This seems like it could get costly as the number of bottles increases.
+        If this is the case, explore lower cost options, like look up tables or hashmaps on
+        the class name.
+         */
+        List<Bottler> bottlerList = new ArrayList<Bottler>(bottlers);
+        for (final Bottler bottler : bottlerList)
+        {
+            if (bottler.accepts(object))
+            {
+                return bottler.bottle(object, xc);
+            }
+        }
+        return object;
+    }
+
+    /**
+     * Replaces a Bottle with its contents.
+     * @param object an object being deserialized
+     * @return the contents of the Bottle, or object itself if it is not a Bottle
+     * @throws IOException if the Bottle could not be opened
+     */
+    Object unBottle(final Object object) throws IOException
+    {
+        if (object instanceof Bottle)
+        {
+            Bottle bottle = (Bottle)object;
+            return bottle.unBottle(xc);
+        }
+        else
+        {
+            return object;
+        }
+    }
+
     public long getLastProcessID()
     {
         return lastSentID.get();
@@ -415,6 +696,25 @@ public void addBottler(final Bottler bottler)
         bottlers.add(bottler);
     }
 
+    /**
+     * Records that a File has passed through this transceiver, so that it is likely to be
+     * resident on the other side of it, ie, in the remote node's disk cache or already loaded.
+     * @param file a File, as seen from this side of the transceiver
+     */
+    public void addResidentFile(final File file)
+    {
+        residentPaths.add(file.getAbsolutePath());
+    }
+
+    /**
+     * @param file a File, as seen from this side of the transceiver
+     * @return true if file has passed through this transceiver before.
+     */
+    public boolean isResidentFile(final File file)
+    {
+        return residentPaths.contains(file.getAbsolutePath());
+    }
+
     public List<Bottler> getBottlers()
     {
         return bottlers;
@@ -199,7 +199,9 @@ public ArchipelagoClient(long id, InputStream inStream, OutputStream outStream,
             xcEListener = tel;
 
             clientId = id;
-            xc = new MessageXC(inStream, outStream, this, xcEListener);
+            // Use whichever protocol the root node uses
+            xc = new MessageXC(inStream, outStream, this, xcEListener,
+                    MessageXC.WireFormat.AUTO);
             xc.setId(id);
             beatThread = new HeartBeatThread(1000, Runtime.getRuntime());
 
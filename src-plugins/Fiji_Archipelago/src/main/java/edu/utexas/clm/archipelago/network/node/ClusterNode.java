@@ -28,10 +28,12 @@
 import edu.utexas.clm.archipelago.network.translation.Bottler;
 import edu.utexas.clm.archipelago.network.translation.PathSubstitutingFileTranslator;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.Vector;
@@ -170,7 +172,7 @@ public synchronized void setIOStreams(final InputStream is, final OutputStream o
 
         FijiArchipelago.debug("Setting IO Streams for a new Cluster Node");
         
-        xc = new MessageXC(is, os, this, xcEListener);
+        xc = new MessageXC(is, os, this, xcEListener, MessageXC.getRootWireFormat());
         xc.queueMessage(MessageType.GETID);
         
         idSet.set(false);
@@ -268,6 +270,46 @@ public int getThreadLimit()
         return nodeParam.getThreadLimit();
     }
     
+    /**
+     * Records that the given Files are resident on this node, for instance because they were
+     * the input of a job that was sent to it.
+     * @param files the Files, as seen from the root node
+     */
+    public void addResidentFiles(final Collection<File> files)
+    {
+        final MessageXC mxc = xc;
+        if (mxc != null)
+        {
+            for (final File file : files)
+            {
+                mxc.addResidentFile(file);
+            }
+        }
+    }
+
+    /**
+     * Counts how many of the given Files are resident on this node, ie, have been sent to it
+     * or received from it before.
+     * @param files the Files, as seen from the root node
+     * @return the number of Files in files that are resident on this node
+     */
+    public int countResidentFiles(final Collection<File> files)
+    {
+        final MessageXC mxc = xc;
+        int count = 0;
+        if (mxc != null)
+        {
+            for (final File file : files)
+            {
+                if (mxc.isResidentFile(file))
+                {
+                    ++count;
+                }
+            }
+        }
+        return count;
+    }
+
     public void setActive(boolean active)
     {        
         setState(active ? ClusterNodeState.ACTIVE : ClusterNodeState.INACTIVE);
@@ -18,11 +18,13 @@ public FileBottle(final File file, final MessageXC xc)
     {
         path = xc.getRemotePath(file.getAbsolutePath());
         exists = file.exists();
+        xc.addResidentFile(file);
     }
 
     public File unBottle(final MessageXC xc) throws IOException
     {
         final File file = xc.getLocalFile(new File(path));
+        xc.addResidentFile(file);
         if (exists && !file.exists())
         {
             xc.queueMessage(MessageType.ERROR, new IOException("File " + file +
@@ -0,0 +1,327 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ */
+
+package edu.utexas.clm.archipelago.network;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import edu.utexas.clm.archipelago.data.ClusterMessage;
+import edu.utexas.clm.archipelago.listen.MessageType;
+import edu.utexas.clm.archipelago.listen.TransceiverExceptionListener;
+import edu.utexas.clm.archipelago.listen.TransceiverListener;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Round trips of ClusterMessages through the FramedCodec, with and without compression, and
+ * the handling of broken messages and frames.
+ */
+public class FramedCodecTest
+{
+    private static class Payload implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        private float[] pixels;
+        private float[] samePixels;
+        private short[] small;
+        private String name;
+    }
+
+    private static class Unreadable implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        private void readObject(final ObjectInputStream in) throws IOException
+        {
+            throw new InvalidObjectException("unreadable on purpose");
+        }
+    }
+
+    private static class Unwritable implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final Object notSerializable = new Object();
+    }
+
+    private MessageXC xc;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        // A transceiver that reaches the end of its input right away, just for (un)bottling
+        final ByteArrayOutputStream header = new ByteArrayOutputStream();
+        new ObjectOutputStream(header).close();
+        xc = new MessageXC(new ByteArrayInputStream(header.toByteArray()),
+                new ByteArrayOutputStream(),
+                new TransceiverListener()
+                {
+                    public void streamClosed() {}
+
+                    public void handleMessage(final ClusterMessage cm) {}
+                },
+                new TransceiverExceptionListener()
+                {
+                    public void handleRXThrowable(final Throwable t, final MessageXC mxc,
+                                                  final ClusterMessage message) {}
+
+                    public void handleTXThrowable(final Throwable t, final MessageXC mxc,
+                                                  final ClusterMessage message) {}
+                },
+                10, TimeUnit.MILLISECONDS);
+    }
+
+    @After
+    public void tearDown()
+    {
+        xc.close();
+    }
+
+    @Test
+    public void testPlainRoundTrip() throws IOException
+    {
+        roundTrip(false);
+    }
+
+    @Test
+    public void testCompressedRoundTrip() throws IOException
+    {
+        roundTrip(true);
+    }
+
+    @Test
+    public void testUnwritableMessage() throws IOException
+    {
+        final FramedCodec codec = new FramedCodec(xc, true);
+        final List<ClusterMessage> messages = new ArrayList<ClusterMessage>();
+        messages.add(message(MessageType.USER, 1L));
+        messages.add(message(MessageType.USER, new Unwritable()));
+        messages.add(message(MessageType.USER, new float[5000]));
+
+        final List<ClusterMessage> failed = new ArrayList<ClusterMessage>();
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        codec.writeFrame(new DataOutputStream(bytes), messages, failed, errors);
+
+        assertEquals(1, failed.size());
+        assertSame(messages.get(1), failed.get(0));
+        assertTrue(errors.get(0) instanceof NotSerializableException);
+
+        final List<ClusterMessage> read = read(codec, bytes.toByteArray(), errors);
+        assertEquals(2, read.size());
+        assertEquals(1L, read.get(0).o);
+        assertEquals(5000, ((float[])read.get(1).o).length);
+    }
+
+    @Test
+    public void testUnreadableMessage() throws IOException
+    {
+        final FramedCodec codec = new FramedCodec(xc, false);
+        final List<ClusterMessage> messages = new ArrayList<ClusterMessage>();
+        messages.add(message(MessageType.USER, "before"));
+        messages.add(message(MessageType.USER, new Unreadable()));
+        messages.add(message(MessageType.USER, "after"));
+
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        final List<ClusterMessage> read = read(codec, write(codec, messages), errors);
+
+        // Only the broken message is lost, the rest of the frame is still read
+        assertEquals(2, read.size());
+        assertEquals("before", read.get(0).o);
+        assertEquals("after", read.get(1).o);
+        assertEquals(1, errors.size());
+        assertTrue(errors.get(0) instanceof InvalidObjectException);
+    }
+
+    @Test
+    public void testCorruptFrameHeader() throws IOException
+    {
+        final FramedCodec codec = new FramedCodec(xc, false);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(-1);
+        out.writeInt(0);
+        try
+        {
+            read(codec, bytes.toByteArray(), new ArrayList<Throwable>());
+            fail("Expected a StreamCorruptedException");
+        }
+        catch (StreamCorruptedException sce)
+        {
+            // expected
+        }
+    }
+
+    @Test
+    public void testTruncatedFrame() throws IOException
+    {
+        final FramedCodec codec = new FramedCodec(xc, false);
+        final byte[] frame = write(codec, Arrays.asList(message(MessageType.USER, new int[4096])));
+        final byte[] truncated = new byte[frame.length / 2];
+        System.arraycopy(frame, 0, truncated, 0, truncated.length);
+        try
+        {
+            read(codec, truncated, new ArrayList<Throwable>());
+            fail("Expected an EOFException");
+        }
+        catch (EOFException eofe)
+        {
+            // expected
+        }
+    }
+
+    @Test
+    public void testCorruptCompressedArray() throws IOException
+    {
+        final FramedCodec codec = new FramedCodec(xc, true);
+        final byte[] frame = write(codec, Arrays.asList(message(MessageType.USER, new byte[4096])));
+        /*
+         frame header (8), array type (1), length (4), chunked flag (1), stored chunk length (4),
+         then the deflated zeros. Overwrite those with garbage.
+         */
+        final int start = 18;
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(frame, 14, 4));
+        final int stored = in.readInt();
+        assertTrue(stored < 4096);
+        Arrays.fill(frame, start, start + stored, (byte)0xff);
+        try
+        {
+            read(codec, frame, new ArrayList<Throwable>());
+            fail("Expected a StreamCorruptedException");
+        }
+        catch (StreamCorruptedException sce)
+        {
+            // expected
+        }
+    }
+
+    private void roundTrip(final boolean compress) throws IOException
+    {
+        final FramedCodec codec = new FramedCodec(xc, compress);
+        final Random random = new Random(42);
+
+        final float[] noise = new float[100000];
+        for (int i = 0; i < noise.length; ++i)
+        {
+            noise[i] = random.nextFloat();
+        }
+        final short[] ramp = new short[70000];
+        for (int i = 0; i < ramp.length; ++i)
+        {
+            ramp[i] = (short)i;
+        }
+        final int[] zeros = new int[50000];
+        final byte[] bytes = new byte[200000];
+        random.nextBytes(bytes);
+        final char[] longString = new char[100000];
+        Arrays.fill(longString, 'é');
+
+        final Payload payload = new Payload();
+        payload.pixels = new float[3000];
+        payload.pixels[2999] = 1.5f;
+        payload.samePixels = payload.pixels;
+        payload.small = new short[] {1, 2, 3};
+        payload.name = "payload";
+
+        final List<ClusterMessage> messages = new ArrayList<ClusterMessage>();
+        messages.add(message(MessageType.BEAT, null));
+        messages.add(message(MessageType.NUMTHREADS, 8));
+        messages.add(message(MessageType.GETID, 1234567890123L));
+        messages.add(message(MessageType.LOG, new String(longString)));
+        messages.add(message(MessageType.USER, noise));
+        messages.add(message(MessageType.USER, ramp));
+        messages.add(message(MessageType.USER, zeros));
+        messages.add(message(MessageType.USER, bytes));
+        messages.add(message(MessageType.USER, payload));
+        messages.get(3).source = 17;
+
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        final List<ClusterMessage> read = read(codec, write(codec, messages), errors);
+
+        assertTrue(errors.isEmpty());
+        assertEquals(messages.size(), read.size());
+        for (int i = 0; i < messages.size(); ++i)
+        {
+            assertEquals(messages.get(i).type, read.get(i).type);
+            assertEquals(messages.get(i).source, read.get(i).source);
+        }
+        assertNull(read.get(0).o);
+        assertEquals(8, read.get(1).o);
+        assertEquals(1234567890123L, read.get(2).o);
+        assertEquals(new String(longString), read.get(3).o);
+        assertArrayEquals(noise, (float[])read.get(4).o, 0f);
+        assertArrayEquals(ramp, (short[])read.get(5).o);
+        assertArrayEquals(zeros, (int[])read.get(6).o);
+        assertArrayEquals(bytes, (byte[])read.get(7).o);
+
+        final Payload readPayload = (Payload)read.get(8).o;
+        assertArrayEquals(payload.pixels, readPayload.pixels, 0f);
+        assertSame(readPayload.pixels, readPayload.samePixels);
+        assertArrayEquals(payload.small, readPayload.small);
+        assertEquals("payload", readPayload.name);
+    }
+
+    private static ClusterMessage message(final MessageType type, final Serializable o)
+    {
+        final ClusterMessage message = new ClusterMessage(type);
+        message.o = o;
+        return message;
+    }
+
+    private static byte[] write(final FramedCodec codec, final List<ClusterMessage> messages)
+            throws IOException
+    {
+        final List<ClusterMessage> failed = new ArrayList<ClusterMessage>();
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        codec.writeFrame(new DataOutputStream(bytes), messages, failed, errors);
+        assertTrue(failed.isEmpty());
+        return bytes.toByteArray();
+    }
+
+    private static List<ClusterMessage> read(final FramedCodec codec, final byte[] frame,
+                                             final List<Throwable> errors) throws IOException
+    {
+        errors.clear();
+        return codec.readFrame(new DataInputStream(new ByteArrayInputStream(frame)), errors);
+    }
+}
@@ -3,6 +3,7 @@
 import ij.process.*;
 import ij.gui.*;
 import java.awt.*;
+import java.io.*;
 
 /* Bob Dougherty 8/10/2007
 Perform all of the steps for the local thickness calculaton
@@ -42,6 +43,8 @@ public class Local_Thickness_Driver implements  PlugInFilter {
 	private ImagePlus imp;
 	public int thresh;
 	public boolean inverse;
+	public boolean outOfCore;
+	public String tempDir;
 
 	public int setup(String arg, ImagePlus imp) {
  		this.imp = imp;
@@ -51,6 +54,10 @@ public void run(ImageProcessor ip) {
 		String title = stripExtension(imp.getTitle());
 		imp.unlock();
 		if(!getScale())return;
+		if(outOfCore){
+			runOutOfCore(title);
+			return;
+		}
 		if(inverse){
 			IJ.run("Geometry to Distance Map", "threshold="+thresh+" inverse");
 		}else{
@@ -72,6 +79,20 @@ public void run(ImageProcessor ip) {
 		IJ.showProgress(1.0);
 		IJ.showStatus("Done");
 	}
+	//Keep the intermediate volumes and the result on disk, for stacks larger than memory
+	void runOutOfCore(String title) {
+		StreamingLocalThickness slt = new StreamingLocalThickness(imp.getStack(),thresh,inverse,new File(tempDir));
+		try{
+			ImagePlus impLTC = slt.run(title+"_LocThk");
+			impLTC.show();
+			IJ.run("Fire");
+		}catch(IOException e){
+			IJ.error("Local Thickness", "Out-of-core processing failed:\n"+e.getMessage());
+			return;
+		}
+		IJ.showProgress(1.0);
+		IJ.showStatus("Done");
+	}
 	//Modified from ImageJ code by Wayne Rasband
     String stripExtension(String name) {
         if (name!=null) {
@@ -84,15 +105,23 @@ String stripExtension(String name) {
 	boolean getScale() {
 		thresh = (int)Prefs.get("edtS1.thresh", 128);
 		inverse = Prefs.get("edtS1.inverse", false);
+		outOfCore = Prefs.get("locThk.outOfCore", false);
+		tempDir = Prefs.get("locThk.tempDir", System.getProperty("java.io.tmpdir"));
 		GenericDialog gd = new GenericDialog("EDT...", IJ.getInstance());
 		gd.addNumericField("Threshold (1 to 255; value < thresh is background)", thresh, 0);
        	gd.addCheckbox("Inverse case (background when value >= thresh)",inverse);
+		gd.addCheckbox("Out-of-core processing (for stacks larger than memory)",outOfCore);
+		gd.addStringField("Directory for intermediate volumes", tempDir, 30);
 		gd.showDialog();
 		if (gd.wasCanceled())return false;
 		thresh = (int)gd.getNextNumber();
       	inverse = gd.getNextBoolean();
+		outOfCore = gd.getNextBoolean();
+		tempDir = gd.getNextString();
 		Prefs.set("edtS1.thresh", thresh);
 		Prefs.set("edtS1.inverse", inverse);
+		Prefs.set("locThk.outOfCore", outOfCore);
+		Prefs.set("locThk.tempDir", tempDir);
 		return true;
 	}
 }
\ No newline at end of file
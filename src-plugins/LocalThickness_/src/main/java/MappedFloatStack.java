@@ -0,0 +1,94 @@
+import ij.io.FileInfo;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+
+/* Disk-backed 32-bit stack for the out-of-core local thickness calculation.
+
+The voxels are stored in a raw big-endian file, slice after slice, and each
+slice is memory-mapped.  Only the slices being worked on need to be resident:
+the operating system pages the others out, so the volume may be larger than
+the available memory.  The accessors copy whole slices or rows in and out of
+ordinary float arrays, and can be used concurrently by several threads as long
+as they do not write to the same slice.
+*/
+public class MappedFloatStack {
+	public int w,h,d;
+	File file;
+	RandomAccessFile raf;
+	FileChannel channel;
+	MappedByteBuffer[] buffers;
+	FloatBuffer[] slices;
+
+	public MappedFloatStack(int w, int h, int d, File file) throws IOException{
+		this.w = w;
+		this.h = h;
+		this.d = d;
+		this.file = file;
+		long sliceBytes = 4L*w*h;
+		raf = new RandomAccessFile(file,"rw");
+		raf.setLength(sliceBytes*d);
+		channel = raf.getChannel();
+		buffers = new MappedByteBuffer[d];
+		slices = new FloatBuffer[d];
+		for(int k = 0; k < d; k++){
+			buffers[k] = channel.map(FileChannel.MapMode.READ_WRITE, k*sliceBytes, sliceBytes);
+			slices[k] = buffers[k].asFloatBuffer();
+		}
+	}
+	//A stack in a temporary file, deleted on close (or at the latest on exit)
+	public static MappedFloatStack createTemp(int w, int h, int d, File dir) throws IOException{
+		File file = File.createTempFile("LocThk",".raw",dir);
+		file.deleteOnExit();
+		return new MappedFloatStack(w,h,d,file);
+	}
+	public void getSlice(int k, float[] pixels){
+		FloatBuffer sk = slices[k].duplicate();
+		sk.get(pixels,0,w*h);
+	}
+	public void setSlice(int k, float[] pixels){
+		FloatBuffer sk = slices[k].duplicate();
+		sk.put(pixels,0,w*h);
+	}
+	public void getRow(int k, int j, float[] row){
+		FloatBuffer sk = slices[k].duplicate();
+		sk.position(w*j);
+		sk.get(row,0,w);
+	}
+	public void setRow(int k, int j, float[] row){
+		FloatBuffer sk = slices[k].duplicate();
+		sk.position(w*j);
+		sk.put(row,0,w);
+	}
+	public File getFile(){
+		return file;
+	}
+	//Describe the file so that it can be opened as a (virtual) stack
+	public FileInfo getFileInfo(){
+		FileInfo fi = new FileInfo();
+		fi.fileFormat = FileInfo.RAW;
+		fi.fileType = FileInfo.GRAY32_FLOAT;
+		fi.fileName = file.getName();
+		fi.directory = file.getParent()+File.separator;
+		fi.width = w;
+		fi.height = h;
+		fi.nImages = d;
+		fi.offset = 0;
+		fi.gapBetweenImages = 0;
+		fi.intelByteOrder = false;
+		return fi;
+	}
+	//Write the modified slices to the file and release the mappings.
+	//The file is removed if delete is true.
+	public void close(boolean delete) throws IOException{
+		if(buffers == null)return;
+		if(!delete){
+			for(int k = 0; k < d; k++)buffers[k].force();
+		}
+		buffers = null;
+		slices = null;
+		channel.close();
+		raf.close();
+		if(delete)file.delete();
+	}
+}
@@ -0,0 +1,621 @@
+import ij.*;
+import ij.plugin.FileInfoVirtualStack;
+import java.io.*;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/* Out-of-core version of the complete local thickness calculation
+(EDT_S1D, Distance_Ridge, Local_Thickness_Parallel and Clean_Up_Local_Thickness).
+
+The intermediate volumes are kept in a memory-mapped file (MappedFloatStack)
+and processed slice by slice, or row by row for the z pass of the distance
+transformation, so only a few slices per thread have to be in memory:
+ - EDT, xy pass: transformations 1 and 2 of EDT_S1D, one slice at a time.
+ - EDT, z pass: transformation 3 on blocks of rows (all slices of one row),
+   followed by the square root.  The distance ridge is extracted right after,
+   reading three slices at a time, and stored as lists of points per slice,
+   so the ridge volume is never written.
+ - Local thickness: each output slice is computed from the ridge points whose
+   sphere reaches it, which needs no locking between threads.  The file of
+   the distance map is reused for the local thickness.
+ - Clean up: the flags of Clean_Up_Local_Thickness are computed on the fly
+   for a sliding window of slices, and the result is written to a new file
+   that is opened as a virtual stack.
+The result is the same as with the in-memory plugins.
+
+The distance transformation, ridge and thickness computations are adapted
+from those plugins by Bob Dougherty, and remain under their license:
+	Copyright (c) 2006-2007, OptiNav, Inc.
+	All rights reserved.
+
+	Redistribution and use in source and binary forms, with or without
+	modification, are permitted provided that the following conditions
+	are met:
+
+		Redistributions of source code must retain the above copyright
+	notice, this list of conditions and the following disclaimer.
+		Redistributions in binary form must reproduce the above copyright
+	notice, this list of conditions and the following disclaimer in the
+	documentation and/or other materials provided with the distribution.
+		Neither the name of OptiNav, Inc. nor the names of its contributors
+	may be used to endorse or promote products derived from this software
+	without specific prior written permission.
+
+	THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+	"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+	LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+	A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+	CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+	EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+	PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+	PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+	LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+	NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+	SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+public class StreamingLocalThickness {
+	//Neighbor offsets (di,dj,dk), in the order used by Clean_Up_Local_Thickness
+	static final int[][] NEIGHBORS = {
+		//change 1
+		{0,0,-1},{0,0,1},{0,-1,0},{0,1,0},{-1,0,0},{1,0,0},
+		//change 1 before plus
+		{0,1,-1},{0,1,1},{1,-1,0},{1,1,0},{-1,0,1},{1,0,1},
+		//change 1 before minus
+		{0,-1,-1},{0,-1,1},{-1,-1,0},{-1,1,0},{-1,0,-1},{1,0,-1},
+		//change 3, k+1
+		{1,1,1},{1,-1,1},{-1,1,1},{-1,-1,1},
+		//change 3, k-1
+		{1,1,-1},{1,-1,-1},{-1,1,-1},{-1,-1,-1}};
+	public int w,h,d;
+	public int thresh;
+	public boolean inverse;
+	ImageStack stack;
+	File dir;
+	int nThreads;
+	int noResult;
+	MappedFloatStack s;
+	//Distance ridge points of each slice
+	int[][] iRidge, jRidge;
+	float[][] rRidge;
+	float distMax, sMax, thkMax;
+
+	public StreamingLocalThickness(ImageStack stack, int thresh, boolean inverse, File dir){
+		this.stack = stack;
+		this.thresh = thresh;
+		this.inverse = inverse;
+		this.dir = dir;
+		w = stack.getWidth();
+		h = stack.getHeight();
+		d = stack.getSize();
+		nThreads = Runtime.getRuntime().availableProcessors();
+		int n = w;
+		if(h > n) n = h;
+		if(d > n) n = d;
+		noResult = 3*(n+1)*(n+1);
+	}
+	//Computes the cleaned-up local thickness.  The result is a virtual stack
+	//backed by a raw file in the directory given to the constructor.
+	public ImagePlus run(String title) throws IOException{
+		s = MappedFloatStack.createTemp(w,h,d,dir);
+		MappedFloatStack out = null;
+		try{
+			IJ.showStatus("EDT transformation 1/2");
+			XYThread[] xyt = new XYThread[nThreads];
+			for(int thread = 0; thread < nThreads; thread++)xyt[thread] = new XYThread(thread);
+			startAndJoin(xyt);
+
+			IJ.showStatus("EDT transformation 2/2");
+			ZThread[] zt = new ZThread[nThreads];
+			for(int thread = 0; thread < nThreads; thread++)zt[thread] = new ZThread(thread);
+			startAndJoin(zt);
+			BitSet occurs = new BitSet();
+			distMax = 0;
+			for(int thread = 0; thread < nThreads; thread++){
+				occurs.or(zt[thread].occurs);
+				if(zt[thread].distMax > distMax)distMax = zt[thread].distMax;
+			}
+
+			IJ.showStatus("Distance Ridge");
+			findRidge(occurs);
+
+			IJ.showStatus("Local Thickness");
+			LTThread[] ltt = new LTThread[nThreads];
+			for(int thread = 0; thread < nThreads; thread++)ltt[thread] = new LTThread(thread);
+			startAndJoin(ltt);
+			iRidge = null;
+			jRidge = null;
+			rRidge = null;
+
+			IJ.showStatus("Clean Up Local Thickness");
+			//The title may contain characters that are not allowed in file names
+			String prefix = title.replaceAll("[^\\w.-]","_")+"_";
+			while(prefix.length() < 3)prefix += "_";
+			File outFile = File.createTempFile(prefix,".raw",dir);
+			out = new MappedFloatStack(w,h,d,outFile);
+			CleanUpThread[] cut = new CleanUpThread[nThreads];
+			for(int thread = 0; thread < nThreads; thread++)cut[thread] = new CleanUpThread(thread,out);
+			startAndJoin(cut);
+			thkMax = 0;
+			for(int thread = 0; thread < nThreads; thread++){
+				if(cut[thread].max > thkMax)thkMax = cut[thread].max;
+			}
+			out.close(false);
+		}catch(IOException e){
+			if(out != null)out.close(true);
+			throw e;
+		}finally{
+			s.close(true);
+			s = null;
+		}
+		IJ.log("Local thickness written to "+out.getFile().getPath());
+		FileInfoVirtualStack vs = new FileInfoVirtualStack(out.getFileInfo(),false);
+		ImagePlus impOut = new ImagePlus(title,vs);
+		impOut.setDisplayRange(0,thkMax);
+		return impOut;
+	}
+	//Runs the threads and waits for all of them.  The first exception thrown
+	//by a thread is rethrown once they are done, so that a failed pass does
+	//not go unnoticed.
+	void startAndJoin(Thread[] threads) throws IOException{
+		final Throwable[] error = new Throwable[1];
+		Thread.UncaughtExceptionHandler handler = new Thread.UncaughtExceptionHandler(){
+			public void uncaughtException(Thread t, Throwable e){
+				synchronized(error){
+					if(error[0] == null)error[0] = e;
+				}
+			}
+		};
+		for(int thread = 0; thread < threads.length; thread++){
+			threads[thread].setUncaughtExceptionHandler(handler);
+			threads[thread].start();
+		}
+		try{
+			for(int thread = 0; thread < threads.length; thread++)threads[thread].join();
+		}catch(InterruptedException ie){
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while computing the local thickness");
+		}
+		Throwable t;
+		synchronized(error){
+			t = error[0];
+		}
+		if(t == null)return;
+		if(t instanceof IOException)throw (IOException)t;
+		if(t instanceof RuntimeException)throw (RuntimeException)t;
+		if(t instanceof Error)throw (Error)t;
+		IOException e = new IOException("Local thickness failed: "+t);
+		e.initCause(t);
+		throw e;
+	}
+	byte[] getInputSlice(int k){
+		//Virtual stacks may not support concurrent reads
+		synchronized(stack){
+			return (byte[])stack.getPixels(k+1);
+		}
+	}
+	//Extract the distance ridge points, as Distance_Ridge does, into lists per slice.
+	void findRidge(BitSet occurs) throws IOException{
+		int rSqMax = (int)(distMax*distMax + 0.5f)+1;
+		int numRadii = occurs.cardinality();
+		//Make an index of the distance-squared values
+		int[] distSqIndex = new int[rSqMax];
+		int[] distSqValues = new int[numRadii];
+		int indDS = 0;
+		for (int i = occurs.nextSetBit(0); i >= 0; i = occurs.nextSetBit(i+1)){
+			distSqIndex[i] = indDS;
+			distSqValues[indDS++] = i;
+		}
+		int[][] rSqTemplate = new Distance_Ridge().createTemplate(distSqValues);
+		iRidge = new int[d][];
+		jRidge = new int[d][];
+		rRidge = new float[d][];
+		RidgeThread[] rt = new RidgeThread[nThreads];
+		for(int thread = 0; thread < nThreads; thread++){
+			rt[thread] = new RidgeThread(thread,distSqIndex,rSqTemplate);
+		}
+		startAndJoin(rt);
+		sMax = 0;
+		for(int thread = 0; thread < nThreads; thread++){
+			if(rt[thread].sMax > sMax)sMax = rt[thread].sMax;
+		}
+	}
+	//Transformations 1 and 2 of EDT_S1D, one slice at a time
+	class XYThread extends Thread{
+		int thread;
+		public XYThread(int thread){
+			this.thread = thread;
+		}
+		public void run(){
+			float[] sk = new float[w*h];
+			int n = Math.max(w,h);
+			boolean[] background = new boolean[n];
+			int[] tempInt = new int[n];
+			int[] tempS = new int[n];
+			boolean nonempty;
+			int test, min, delta;
+			for(int k = thread; k < d; k+=nThreads){
+				IJ.showProgress(k/(1.*d));
+				byte[] dk = getInputSlice(k);
+				//Transformation 1
+				for(int j = 0; j < h; j++){
+					for (int i = 0; i < w; i++){
+						background[i] = ((dk[i+w*j]&255) < thresh)^inverse;
+					}
+					for (int i = 0; i < w; i++){
+						min = noResult;
+						for (int x = i; x < w; x++){
+							if(background[x]){
+								test = i - x;
+								test *= test;
+								min = test;
+								break;
+							}
+						}
+						for (int x = i-1; x >=0 ; x--){
+							if(background[x]){
+								test = i - x;
+								test *= test;
+								if(test < min)min = test;
+								break;
+							}
+						}
+						sk[i+w*j] = min;
+					}
+				}
+				//Transformation 2
+				for (int i = 0; i < w; i++){
+					nonempty = false;
+					for (int j = 0; j < h; j++){
+						tempS[j] = (int)sk[i+w*j];
+						if(tempS[j] >0)nonempty = true;
+					}
+					if(nonempty){
+						for (int j = 0; j < h; j++){
+							min = noResult;
+							delta = j;
+							for(int y = 0; y < h; y++){
+								test = tempS[y] + delta*delta--;
+								if(test < min)min = test;
+							}
+							tempInt[j] = min;
+						}
+						for (int j = 0; j < h; j++){
+							sk[i+w*j] = tempInt[j];
+						}
+					}
+				}
+				s.setSlice(k,sk);
+			}
+		}//run
+	}//XYThread
+	//Transformation 3 of EDT_S1D and square root, one row of all the slices at a time.
+	//Background points are the ones with a zero value after transformation 2.
+	class ZThread extends Thread{
+		int thread;
+		float distMax = 0;
+		BitSet occurs = new BitSet();
+		public ZThread(int thread){
+			this.thread = thread;
+		}
+		public void run(){
+			int zStart,zStop,zBegin,zEnd;
+			float[][] rows = new float[d][w];
+			int[] tempInt = new int[d];
+			int[] tempS = new int[d];
+			boolean nonempty;
+			int test, min, delta;
+			float dist;
+			for(int j = thread; j < h; j+=nThreads){
+				IJ.showProgress(j/(1.*h));
+				for(int k = 0; k < d; k++)s.getRow(k,j,rows[k]);
+				for(int i = 0; i < w; i++){
+					nonempty = false;
+					for(int k = 0; k < d; k++){
+						tempS[k] = (int)rows[k][i];
+						if(tempS[k] >0)nonempty = true;
+					}
+					if(nonempty){
+						zStart = 0;
+						while((zStart < (d-1))&&(tempS[zStart] == 0))zStart++;
+						if(zStart > 0)zStart--;
+						zStop = d-1;
+						while((zStop > 0)&&(tempS[zStop] == 0))zStop--;
+						if(zStop < (d-1))zStop++;
+
+						for(int k = 0; k < d; k++){
+							//Limit to the non-background to save time,
+							if(tempS[k] > 0){
+								min = noResult;
+								zBegin = zStart;
+								zEnd = zStop;
+								if(zBegin > k)zBegin = k;
+								if(zEnd < k)zEnd = k;
+								delta = k - zBegin;
+								for (int z = zBegin; z <= zEnd; z++){
+									test = tempS[z] + delta*delta--;
+									if(test < min)min = test;
+								}
+								tempInt[k] = min;
+							}else{
+								tempInt[k] = 0;
+							}
+						}
+						for(int k = 0; k < d; k++){
+							rows[k][i] = tempInt[k];
+						}
+					}
+					//Distances, and the values they take for the distance ridge
+					for(int k = 0; k < d; k++){
+						dist = (float)Math.sqrt(rows[k][i]);
+						rows[k][i] = dist;
+						if(dist > distMax)distMax = dist;
+						occurs.set((int)(dist*dist + 0.5f));
+					}
+				}
+				for(int k = 0; k < d; k++)s.setRow(k,j,rows[k]);
+			}
+		}//run
+	}//ZThread
+	//Distance ridge points of a slice, found as in Distance_Ridge
+	class RidgeThread extends Thread{
+		int thread;
+		int[] distSqIndex;
+		int[][] rSqTemplate;
+		float sMax = 0;
+		public RidgeThread(int thread, int[] distSqIndex, int[][] rSqTemplate){
+			this.thread = thread;
+			this.distSqIndex = distSqIndex;
+			this.rSqTemplate = rSqTemplate;
+		}
+		public void run(){
+			float[][] slices = new float[3][w*h];
+			int[] iR = new int[w*h];
+			int[] jR = new int[w*h];
+			float[] rR = new float[w*h];
+			int k1,j1,i1,dz,dy,dx;
+			boolean notRidgePoint;
+			float[] sk, sk1;
+			int sk0Sq,sk0SqInd,sk1Sq;
+			int numCompZ,numCompY,numCompX,numComp;
+			for(int k = thread; k < d; k+=nThreads){
+				IJ.showProgress(k/(1.*d));
+				for(int dk = -1; dk <= 1; dk++){
+					if((k+dk >= 0)&&(k+dk < d))s.getSlice(k+dk,slices[dk+1]);
+				}
+				sk = slices[1];
+				int nr = 0;
+				for (int j = 0; j < h; j++){
+					for (int i = 0; i < w; i++){
+						int ind = i + w*j;
+						if(sk[ind] > 0){
+							notRidgePoint = false;
+							sk0Sq = (int)(sk[ind]*sk[ind] + 0.5f);
+							sk0SqInd = distSqIndex[sk0Sq];
+							for (dz = -1; dz <= 1; dz++){
+								k1 = k + dz;
+								if((k1 >= 0)&&(k1 < d)){
+									sk1 = slices[dz+1];
+									if(dz == 0){
+										numCompZ = 0;
+									}else{
+										numCompZ = 1;
+									}
+									for (dy = -1; dy <= 1; dy++){
+										j1 = j + dy;
+										if((j1 >= 0)&&(j1 < h)){
+											if(dy == 0){
+												numCompY = 0;
+											}else{
+												numCompY = 1;
+											}
+											for (dx = -1; dx <= 1; dx++){
+												i1 = i + dx;
+												if((i1 >= 0)&&(i1 < w)){
+													if(dx == 0){
+														numCompX = 0;
+													}else{
+														numCompX = 1;
+													}
+													numComp = numCompX + numCompY + numCompZ;
+													if(numComp > 0){
+														sk1Sq = (int)(sk1[i1+w*j1]*sk1[i1+w*j1] + 0.5f);
+														if(sk1Sq >= rSqTemplate[numComp-1][sk0SqInd])
+															notRidgePoint = true;
+													}
+												}//if in grid for i1
+												if(notRidgePoint)break;
+											}//dx
+										}//if in grid for j1
+										if(notRidgePoint)break;
+									}//dy
+								}//if in grid for k1
+								if(notRidgePoint)break;
+							}//dz
+							if(!notRidgePoint){
+								iR[nr] = i;
+								jR[nr] = j;
+								rR[nr++] = sk[ind];
+								if(sk[ind] > sMax)sMax = sk[ind];
+							}
+						}//if not in background
+					}//i
+				}//j
+				iRidge[k] = Arrays.copyOf(iR,nr);
+				jRidge[k] = Arrays.copyOf(jR,nr);
+				rRidge[k] = Arrays.copyOf(rR,nr);
+			}//k
+		}//run
+	}//RidgeThread
+	//Local thickness of a slice: largest sphere centered on a ridge point that
+	//contains the point, as in Local_Thickness_Parallel.  Each thread writes
+	//its own slices, so no synchronization is needed.
+	class LTThread extends Thread{
+		int thread;
+		public LTThread(int thread){
+			this.thread = thread;
+		}
+		public void run(){
+			//Largest sphere radius, in slices
+			int rMax = (int)sMax;
+			if(rMax < sMax)rMax++;
+			float[] sk1 = new float[w*h];
+			int i,j;
+			float r;
+			int rInt,ind1;
+			int iStart,iStop,jStart,jStop;
+			float r1SquaredK,r1SquaredJK, r1Squared,s1;
+			int rSquared;
+			int[] iRidgeK,jRidgeK;
+			float[] rRidgeK;
+			for(int k1 = thread; k1 < d; k1+=nThreads){
+				IJ.showProgress(k1/(1.*d));
+				Arrays.fill(sk1,0);
+				int kStart = Math.max(0,k1-rMax);
+				int kStop = Math.min(d-1,k1+rMax);
+				for(int k = kStart; k <= kStop; k++){
+					int nR = iRidge[k].length;
+					iRidgeK = iRidge[k];
+					jRidgeK = jRidge[k];
+					rRidgeK = rRidge[k];
+					r1SquaredK = (k1 - k)*(k1 - k);
+					for (int iR = 0; iR < nR; iR++){
+						r = rRidgeK[iR];
+						rInt = (int)r;
+						if(rInt < r)rInt++;
+						if(Math.abs(k1 - k) > rInt)continue;
+						i = iRidgeK[iR];
+						j = jRidgeK[iR];
+						rSquared = (int)(r*r + 0.5f);
+						iStart = i - rInt;
+						if(iStart < 0)iStart = 0;
+						iStop = i + rInt;
+						if(iStop >= w) iStop = w-1;
+						jStart = j - rInt;
+						if(jStart < 0)jStart = 0;
+						jStop = j + rInt;
+						if(jStop >= h) jStop = h-1;
+						for(int j1 = jStart; j1 <= jStop; j1++){
+							r1SquaredJK = r1SquaredK + (j1 - j)*(j1 - j);
+							if(r1SquaredJK <= rSquared){
+								for(int i1 = iStart; i1 <= iStop; i1++){
+									r1Squared = r1SquaredJK + (i1 - i)*(i1 - i);
+									if(r1Squared <= rSquared){
+										ind1 = i1 + w*j1;
+										s1 = sk1[ind1];
+										if(rSquared > s1)sk1[ind1] = rSquared;
+									}//if within shere of DR point
+								}//i1
+							}//if k and j components within sphere of DR point
+						}//j1
+					}//iR
+				}//k
+				//Fix the square values and apply factor of 2
+				for(int ind = 0; ind < w*h; ind++){
+					sk1[ind] = (float)(2*Math.sqrt(sk1[ind]));
+				}
+				s.setSlice(k1,sk1);
+			}//k1
+		}//run
+	}//LTThread
+	//Clean up of a block of consecutive slices, as in Clean_Up_Local_Thickness.
+	//The local thickness and the flags are kept for a sliding window of slices.
+	class CleanUpThread extends Thread{
+		int thread;
+		MappedFloatStack out;
+		float max = 0;
+		float[][] lt = new float[5][];
+		int[] ltIndex = {-1,-1,-1,-1,-1};
+		float[][] flags = new float[3][];
+		int[] flagsIndex = {-1,-1,-1};
+		public CleanUpThread(int thread, MappedFloatStack out){
+			this.thread = thread;
+			this.out = out;
+		}
+		public void run(){
+			int kFirst = (int)((long)d*thread/nThreads);
+			int kLast = (int)((long)d*(thread+1)/nThreads);
+			float[] skNew = new float[w*h];
+			for(int k = kFirst; k < kLast; k++){
+				IJ.showProgress((k-kFirst)/(1.*(kLast-kFirst)));
+				float[] sk = getLT(k);
+				float[] fk = getFlags(k);
+				for (int j = 0; j < h; j++){
+					for (int i = 0; i < w; i++){
+						int ind = i + w*j;
+						float value = fk[ind];
+						//Surface points get the average of the neighboring interior points
+						if(value == -1)value = -averageInteriorNeighbors(i,j,k,sk[ind]);
+						value = (float)Math.abs(value);
+						skNew[ind] = value;
+						if(value > max)max = value;
+					}//i
+				}//j
+				out.setSlice(k,skNew);
+			}//k
+		}//run
+		float[] getLT(int k){
+			if((k < 0)||(k >= d))return null;
+			int slot = k%5;
+			if(ltIndex[slot] != k){
+				if(lt[slot] == null)lt[slot] = new float[w*h];
+				s.getSlice(k,lt[slot]);
+				ltIndex[slot] = k;
+			}
+			return lt[slot];
+		}
+		//Flags of Clean_Up_Local_Thickness:
+		// 0 for a background point
+		// -1 for a non-background point that borders a background point
+		// s (input data) for an interior non-background point
+		float[] getFlags(int k){
+			if((k < 0)||(k >= d))return null;
+			int slot = k%3;
+			if(flagsIndex[slot] != k){
+				if(flags[slot] == null)flags[slot] = new float[w*h];
+				float[] fk = flags[slot];
+				float[][] sk = {getLT(k-1),getLT(k),getLT(k+1)};
+				for (int j = 0; j < h; j++){
+					for (int i = 0; i < w; i++){
+						int ind = i + w*j;
+						float value = sk[1][ind];
+						if(value != 0){
+							for(int n = 0; n < NEIGHBORS.length; n++){
+								int i1 = i + NEIGHBORS[n][0];
+								int j1 = j + NEIGHBORS[n][1];
+								float[] sk1 = sk[1 + NEIGHBORS[n][2]];
+								if((i1 < 0)||(i1 >= w)||(j1 < 0)||(j1 >= h)||(sk1 == null))continue;
+								if(sk1[i1 + w*j1] == 0){
+									value = -1;
+									break;
+								}
+							}
+						}
+						fk[ind] = value;
+					}
+				}
+				flagsIndex[slot] = k;
+			}
+			return flags[slot];
+		}
+		float averageInteriorNeighbors(int i, int j, int k, float value){
+			int n = 0;
+			float sum = 0;
+			float[][] fk = {getFlags(k-1),getFlags(k),getFlags(k+1)};
+			for(int m = 0; m < NEIGHBORS.length; m++){
+				int i1 = i + NEIGHBORS[m][0];
+				int j1 = j + NEIGHBORS[m][1];
+				float[] fk1 = fk[1 + NEIGHBORS[m][2]];
+				if((i1 < 0)||(i1 >= w)||(j1 < 0)||(j1 >= h)||(fk1 == null))continue;
+				//A positive result means this is an interior, non-background, point.
+				float value1 = fk1[i1 + w*j1];
+				if(value1 > 0){
+					n++;
+					sum += value1;
+				}
+			}
+			if(n > 0)return sum/n;
+			return value;
+		}
+	}//CleanUpThread
+}
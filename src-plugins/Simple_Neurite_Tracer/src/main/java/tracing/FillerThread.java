@@ -52,6 +52,13 @@ public float getDistanceAtPoint( double xd, double yd, double zd ) {
 		int y = (int)Math.round( yd );
 		int z = (int)Math.round( zd );
 
+		if( arrayBacked ) {
+			long voxel = array_from_start.voxel( x, y, z );
+			if( array_from_start.getStatus( voxel ) == 0 )
+				return -1.0f;
+			return array_from_start.getG( voxel );
+		}
+
                 SearchNode [] slice = nodes_as_image_from_start[z];
                 if( slice == null )
 			return -1.0f;
@@ -67,6 +74,9 @@ public float getDistanceAtPoint( double xd, double yd, double zd ) {
 
         Fill getFill( ) {
 
+		if( arrayBacked )
+			return getArrayBackedFill();
+
                 Hashtable< SearchNode, Integer > h =
                         new Hashtable< SearchNode, Integer >();
 
@@ -100,18 +110,7 @@ Fill getFill( ) {
 			/* } */
                 }
 
-                Fill fill = new Fill();
-
-                fill.setThreshold( threshold );
-                if( reciprocal )
-                        fill.setMetric( "reciprocal-intensity-scaled" );
-                else
-                        fill.setMetric( "256-minus-intensity-scaled" );
-
-                fill.setSpacing( x_spacing,
-                                 y_spacing,
-                                 z_spacing,
-                                 spacing_units );
+                Fill fill = createEmptyFill();
 
 		if (verbose) System.out.println("... out of a.size() "+a.size()+" entries");
 
@@ -135,6 +134,81 @@ Fill getFill( ) {
                 return fill;
         }
 
+        Fill createEmptyFill( ) {
+
+                Fill fill = new Fill();
+
+                fill.setThreshold( threshold );
+                if( reciprocal )
+                        fill.setMetric( "reciprocal-intensity-scaled" );
+                else
+                        fill.setMetric( "256-minus-intensity-scaled" );
+
+                fill.setSpacing( x_spacing,
+                                 y_spacing,
+                                 z_spacing,
+                                 spacing_units );
+
+                return fill;
+        }
+
+	/* The equivalent of getFill() for an array backed search: the
+	   closed voxels are numbered first, then the open ones, and
+	   the predecessor of each is looked up in an array of those
+	   indices rather than in a Hashtable. */
+
+        Fill getArrayBackedFill( ) {
+
+		VoxelSearchNodes nodes = array_from_start;
+
+		int [][] indices = new int[depth][];
+		int i = 0;
+		for( int pass = 0; pass < 2; ++pass ) {
+			byte wanted = (pass == 0) ? CLOSED_FROM_START : OPEN_FROM_START;
+			for( int z = 0; z < depth; ++z ) {
+				if( ! nodes.planeAllocated( z ) )
+					continue;
+				if( indices[z] == null )
+					indices[z] = new int[width*height];
+				byte [] status = nodes.status[z];
+				for( int j = 0; j < status.length; ++j )
+					if( status[j] == wanted )
+						indices[z][j] = i++;
+			}
+		}
+
+		Fill fill = createEmptyFill();
+
+		for( int pass = 0; pass < 2; ++pass ) {
+			byte wanted = (pass == 0) ? CLOSED_FROM_START : OPEN_FROM_START;
+			for( int z = 0; z < depth; ++z ) {
+				if( ! nodes.planeAllocated( z ) )
+					continue;
+				byte [] status = nodes.status[z];
+				for( int j = 0; j < status.length; ++j ) {
+					if( status[j] != wanted )
+						continue;
+					long voxel = z * nodes.planeSize + j;
+					int previousIndex = -1;
+					long previous = nodes.getPredecessor( voxel );
+					if( previous >= 0 ) {
+						int pz = (int)( previous / nodes.planeSize );
+						int pj = (int)( previous % nodes.planeSize );
+						if( nodes.status[pz][pj] != 0 )
+							previousIndex = indices[pz][pj];
+					}
+					fill.add( j % width, j / width, z, nodes.g[z][j], previousIndex, pass == 1 );
+				}
+			}
+		}
+
+                if( sourcePaths != null ) {
+                        fill.setSourcePaths( sourcePaths );
+                }
+
+                return fill;
+        }
+
         Set< Path > sourcePaths;
 
 	public static FillerThread fromFill( ImagePlus imagePlus,
@@ -142,6 +216,15 @@ public static FillerThread fromFill( ImagePlus imagePlus,
 					     float stackMax,
 					     boolean startPaused,
 					     Fill fill ) {
+		return fromFill( imagePlus, stackMin, stackMax, startPaused, fill, false );
+	}
+
+	public static FillerThread fromFill( ImagePlus imagePlus,
+					     float stackMin,
+					     float stackMax,
+					     boolean startPaused,
+					     Fill fill,
+					     boolean arrayBacked ) {
 
 		boolean reciprocal;
 		String metric = fill.getMetric();
@@ -163,7 +246,8 @@ public static FillerThread fromFill( ImagePlus imagePlus,
 							startPaused,
 							reciprocal,
 							fill.getThreshold(),
-							5000 );
+							5000,
+							arrayBacked );
 
 		ArrayList< SearchNode > tempNodes = new ArrayList< SearchNode >();
 
@@ -216,6 +300,18 @@ public FillerThread( ImagePlus imagePlus,
                              boolean reciprocal,
                              double initialThreshold,
 			     long reportEveryMilliseconds ) {
+		this( imagePlus, stackMin, stackMax, startPaused, reciprocal,
+		      initialThreshold, reportEveryMilliseconds, false );
+	}
+
+        public FillerThread( ImagePlus imagePlus,
+			     float stackMin,
+			     float stackMax,
+			     boolean startPaused,
+                             boolean reciprocal,
+                             double initialThreshold,
+			     long reportEveryMilliseconds,
+			     boolean arrayBacked ) {
 
 		super( imagePlus,
 		       stackMin,
@@ -224,7 +320,8 @@ public FillerThread( ImagePlus imagePlus,
 		       false, // definedGoal
 		       startPaused,
 		       0,
-		       reportEveryMilliseconds );
+		       reportEveryMilliseconds,
+		       arrayBacked );
 
                 this.reciprocal = reciprocal;
                 setThreshold( initialThreshold );
@@ -275,29 +372,51 @@ public ImagePlus fillAsImagePlus( boolean realData ) {
                 ImageStack stack = new ImageStack(width,height);
 
                 for( int z = 0; z < depth; ++z ) {
-			SearchNode [] nodes_this_slice=nodes_as_image_from_start[z];
-			if( nodes_this_slice != null )
-				for( int y = 0; y < height; ++y ) {
-					for( int x = 0; x < width; ++x ) {
-						SearchNode s = nodes_as_image_from_start[z][y*width+x];
-						if( (s != null) && (s.g <= threshold) ) {
-							switch( imageType ) {
-							case ImagePlus.GRAY8:
-							case ImagePlus.COLOR_256:
-								new_slice_data_b[z][y*width+x] = realData ? slices_data_b[z][y*width+x] : (byte)255;
-								break;
-							case ImagePlus.GRAY16:
-								new_slice_data_s[z][y*width+x] = realData ? slices_data_s[z][y*width+x] : 255;
-								break;
-							case ImagePlus.GRAY32:
-								new_slice_data_f[z][y*width+x] = realData ? slices_data_f[z][y*width+x] : 255;
-								break;
-							default:
-								break;
+			if( arrayBacked ) {
+				if( array_from_start.planeAllocated( z ) )
+					for( int i = 0; i < width*height; ++i ) {
+						if( array_from_start.status[z][i] == 0 || array_from_start.g[z][i] > threshold )
+							continue;
+						switch( imageType ) {
+						case ImagePlus.GRAY8:
+						case ImagePlus.COLOR_256:
+							new_slice_data_b[z][i] = realData ? slices_data_b[z][i] : (byte)255;
+							break;
+						case ImagePlus.GRAY16:
+							new_slice_data_s[z][i] = realData ? slices_data_s[z][i] : 255;
+							break;
+						case ImagePlus.GRAY32:
+							new_slice_data_f[z][i] = realData ? slices_data_f[z][i] : 255;
+							break;
+						default:
+							break;
+						}
+					}
+			} else {
+				SearchNode [] nodes_this_slice=nodes_as_image_from_start[z];
+				if( nodes_this_slice != null )
+					for( int y = 0; y < height; ++y ) {
+						for( int x = 0; x < width; ++x ) {
+							SearchNode s = nodes_as_image_from_start[z][y*width+x];
+							if( (s != null) && (s.g <= threshold) ) {
+								switch( imageType ) {
+								case ImagePlus.GRAY8:
+								case ImagePlus.COLOR_256:
+									new_slice_data_b[z][y*width+x] = realData ? slices_data_b[z][y*width+x] : (byte)255;
+									break;
+								case ImagePlus.GRAY16:
+									new_slice_data_s[z][y*width+x] = realData ? slices_data_s[z][y*width+x] : 255;
+									break;
+								case ImagePlus.GRAY32:
+									new_slice_data_f[z][y*width+x] = realData ? slices_data_f[z][y*width+x] : 255;
+									break;
+								default:
+									break;
+								}
 							}
 						}
 					}
-				}
+			}
 
 			switch( imageType ) {
 			case ImagePlus.GRAY8:
@@ -335,11 +454,18 @@ protected void reportPointsInSearch() {
 		super.reportPointsInSearch();
 
 		// Find the minimum distance in the open list.
-		SearchNode p = open_from_start.peek();
-		if( p == null )
-			return;
-
-		float minimumDistanceInOpen = p.g;
+		float minimumDistanceInOpen;
+		if( arrayBacked ) {
+			long voxel = array_from_start.peekOpen();
+			if( voxel < 0 )
+				return;
+			minimumDistanceInOpen = array_from_start.getG( voxel );
+		} else {
+			SearchNode p = open_from_start.peek();
+			if( p == null )
+				return;
+			minimumDistanceInOpen = p.g;
+		}
 
 		for( SearchProgressCallback progress : progressListeners ) {
 			if( progress instanceof FillerProgressCallback ) {
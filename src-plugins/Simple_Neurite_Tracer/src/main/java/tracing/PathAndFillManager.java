@@ -781,7 +781,8 @@ public void reloadFill( int index ) {
 								 plugin.stackMin,
 								 plugin.stackMax,
 								 true,
-								 toReload ) );
+								 toReload,
+								 true ) );
 
 	}
 
@@ -96,14 +96,28 @@ protected double costMovingTo( int new_x, int new_y, int new_z ) {
 
 	protected void reportPointsInSearch( ) {
 		for( SearchProgressCallback progress : progressListeners )
-			progress.pointsInSearch(this, open_from_start.size() + (bidirectional ? open_from_goal.size() : 0), closed_from_start.size() + (bidirectional ? closed_from_goal.size() : 0));
+			progress.pointsInSearch(this, openSize(true) + (bidirectional ? openSize(false) : 0), closedSize(true) + (bidirectional ? closedSize(false) : 0));
 	}
 
 	public int pointsConsideredInSearch( ) {
-		return open_from_start.size() +
-			(bidirectional ? open_from_goal.size() : 0) +
-			closed_from_start.size() +
-			(bidirectional ? closed_from_goal.size() : 0);
+		return openSize(true) +
+			(bidirectional ? openSize(false) : 0) +
+			closedSize(true) +
+			(bidirectional ? closedSize(false) : 0);
+	}
+
+	int openSize( boolean fromStart ) {
+		if( arrayBacked )
+			return (fromStart ? array_from_start : array_from_goal).openSize();
+		else
+			return (fromStart ? open_from_start : open_from_goal).size();
+	}
+
+	int closedSize( boolean fromStart ) {
+		if( arrayBacked )
+			return (fromStart ? array_from_start : array_from_goal).closedSize();
+		else
+			return (fromStart ? closed_from_start : closed_from_goal).size();
 	}
 
 	/* This is a factory method for creating specialized search
@@ -115,6 +129,9 @@ protected SearchNode createNewNode( int x, int y, int z, float g, float h,
 		return new SearchNode( x, y, z, g, h, predecessor, searchStatus );
 	}
 
+	/* Note that addingNode() is never called if the search is array
+	   backed, since no SearchNode objects are created then. */
+
 	/* This is called if the goal has been found in the search.
 	   If your search has no defined goal, then this will never be
 	   called, so don't bother to override it. */
@@ -179,6 +196,15 @@ protected double minimumCostPerUnitDistance( ) {
 
 	boolean startPaused;
 
+	/* If arrayBacked is true then the search keeps its state in
+	   VoxelSearchNodes (primitive arrays and an indexed heap)
+	   rather than in SearchNode objects and PriorityQueues.  This
+	   uses much less memory and time on large stacks, but
+	   subclasses that look at nodes_as_image_from_start, etc.
+	   directly can't use it. */
+
+	boolean arrayBacked;
+
 	int timeoutSeconds;
 	long reportEveryMilliseconds;
 	long lastReportMilliseconds;
@@ -282,8 +308,29 @@ public SearchThread( ImagePlus imagePlus,
 			     boolean startPaused,
 			     int timeoutSeconds,
 			     long reportEveryMilliseconds ) {
+		this( imagePlus,
+		      stackMin,
+		      stackMax,
+		      bidirectional,
+		      definedGoal,
+		      startPaused,
+		      timeoutSeconds,
+		      reportEveryMilliseconds,
+		      false );
+	}
+
+	public SearchThread( ImagePlus imagePlus,
+			     float stackMin,
+			     float stackMax,
+			     boolean bidirectional,
+			     boolean definedGoal,
+			     boolean startPaused,
+			     int timeoutSeconds,
+			     long reportEveryMilliseconds,
+			     boolean arrayBacked ) {
 
 		this.imagePlus = imagePlus;
+		this.arrayBacked = arrayBacked;
 
 		this.stackMin = stackMin;
 		this.stackMax = stackMax;
@@ -351,6 +398,12 @@ public SearchThread( ImagePlus imagePlus,
 		if( bidirectional )
 			nodes_as_image_from_goal = new SearchNode[depth][];
 
+		if( arrayBacked ) {
+			array_from_start = new VoxelSearchNodes( width, height, depth, true );
+			if( bidirectional )
+				array_from_goal = new VoxelSearchNodes( width, height, depth, false );
+		}
+
 		minimum_cost_per_unit_distance = minimumCostPerUnitDistance();
 
 		progressListeners = new ArrayList< SearchProgressCallback >();
@@ -366,12 +419,17 @@ public SearchThread( ImagePlus imagePlus,
 	SearchNode [][] nodes_as_image_from_start;
 	SearchNode [][] nodes_as_image_from_goal;
 
+	// These are only used if the search is array backed (the
+	// second is null if the search is not bidirectional)
+	VoxelSearchNodes array_from_start;
+	VoxelSearchNodes array_from_goal;
+
 	public void printStatus() {
-		System.out.println("... with " + open_from_start.size() + " open nodes at the start" );
-		System.out.println(" ... and " + closed_from_start.size() + " closed nodes at the start" );
+		System.out.println("... with " + openSize(true) + " open nodes at the start" );
+		System.out.println(" ... and " + closedSize(true) + " closed nodes at the start" );
 		if( bidirectional ) {
-			System.out.println("... with " + open_from_goal.size() + " open nodes at the goal" );
-			System.out.println(" ... and " + closed_from_goal.size() + " closed nodes at the goal" );
+			System.out.println("... with " + openSize(false) + " open nodes at the goal" );
+			System.out.println(" ... and " + closedSize(false) + " closed nodes at the goal" );
 		} else
 			System.out.println(" ... unidirectional search");
 	}
@@ -406,8 +464,8 @@ public void run( ) {
 			  same way as voxels in the image.
 			*/
 
-			while( (open_from_start.size() > 0) ||
-			       (bidirectional && (open_from_goal.size() > 0)) ) {
+			while( (openSize(true) > 0) ||
+			       (bidirectional && (openSize(false) > 0)) ) {
 
 				if( threadStatus == STOPPING ) {
 					reportThreadStatus();
@@ -456,7 +514,14 @@ public void run( ) {
 
 				boolean fromStart = true;
 				if( bidirectional )
-					fromStart = open_from_goal.size() > open_from_start.size();
+					fromStart = openSize(false) > openSize(true);
+
+				if( arrayBacked ) {
+					if( expandArrayBacked( fromStart ) )
+						return;
+					++ loops;
+					continue;
+				}
 
 				PriorityQueue<SearchNode> open_queue = fromStart ? open_from_start : open_from_goal;
 				PriorityQueue<SearchNode> closed_queue = fromStart ? closed_from_start : closed_from_goal;
@@ -642,6 +707,104 @@ public void run( ) {
 
 	}
 
+	/* This does one step of the search when it is array backed:
+	   the lowest-cost voxel is taken from the open list of one
+	   direction and its 26 neighbours are examined.  It returns
+	   true if the search has finished (having found the goal or
+	   having met the search from the other direction.) */
+
+	boolean expandArrayBacked( boolean fromStart ) {
+
+		VoxelSearchNodes thisSearch = fromStart ? array_from_start : array_from_goal;
+		VoxelSearchNodes otherSearch = fromStart ? array_from_goal : array_from_start;
+
+		if( thisSearch.openSize() == 0 )
+			return false;
+
+		long p = thisSearch.pollAndClose();
+
+		int p_z = (int)( p / thisSearch.planeSize );
+		int p_i = (int)( p % thisSearch.planeSize );
+		int p_x = p_i % width;
+		int p_y = p_i / width;
+		float p_g = thisSearch.getG( p );
+
+		if( definedGoal && atGoal( p_x, p_y, p_z, fromStart ) ) {
+			if (verbose) System.out.println( "Found the goal!" );
+			if( fromStart )
+				foundGoal( thisSearch.asPath( p, x_spacing, y_spacing, z_spacing, spacing_units ) );
+			else
+				foundGoal( thisSearch.asPathReversed( p, x_spacing, y_spacing, z_spacing, spacing_units ) );
+			setExitReason(SUCCESS);
+			reportFinished( true );
+			return true;
+		}
+
+		for( int zdiff = -1; zdiff <= 1; zdiff++ ) {
+
+			int new_z = p_z + zdiff;
+			if( new_z < 0 || new_z >= depth )
+				continue;
+
+			for( int xdiff = -1; xdiff <= 1; xdiff++ )
+				for( int ydiff = -1; ydiff <= 1; ydiff++ ) {
+
+					if( (xdiff == 0) && (ydiff == 0) && (zdiff == 0) )
+						continue;
+
+					int new_x = p_x + xdiff;
+					int new_y = p_y + ydiff;
+
+					if( new_x < 0 || new_x >= width )
+						continue;
+
+					if( new_y < 0 || new_y >= height )
+						continue;
+
+					double xdiffsq = (xdiff * x_spacing) * (xdiff * x_spacing);
+					double ydiffsq = (ydiff * y_spacing) * (ydiff * y_spacing);
+					double zdiffsq = (zdiff * z_spacing) * (zdiff * z_spacing);
+
+					double cost_moving_to_new_point = costMovingTo( new_x, new_y, new_z );
+					if( cost_moving_to_new_point < minimum_cost_per_unit_distance ) {
+						cost_moving_to_new_point = minimum_cost_per_unit_distance;
+					}
+
+					float g_for_new_point = (float) ( p_g + Math.sqrt( xdiffsq + ydiffsq + zdiffsq ) * cost_moving_to_new_point );
+
+					long n = thisSearch.voxel( new_x, new_y, new_z );
+
+					// The heuristic only depends on the position, so
+					// a better g means a better f, and the open or
+					// closed node is replaced as in run():
+
+					if( thisSearch.getStatus( n ) == 0 ) {
+						float h_for_new_point = estimateCostToGoal( new_x, new_y, new_z, fromStart );
+						thisSearch.setOpen( n, g_for_new_point, h_for_new_point, VoxelSearchNodes.step( xdiff, ydiff, zdiff ) );
+					} else if( thisSearch.getG( n ) > g_for_new_point ) {
+						thisSearch.setOpen( n, g_for_new_point, thisSearch.getH( n ), VoxelSearchNodes.step( xdiff, ydiff, zdiff ) );
+					}
+
+					if( bidirectional && otherSearch.isClosed( n ) ) {
+						Path result;
+						if( fromStart ) {
+							result = thisSearch.asPath( p, x_spacing, y_spacing, z_spacing, spacing_units );
+							result.add( otherSearch.asPathReversed( n, x_spacing, y_spacing, z_spacing, spacing_units ) );
+						} else {
+							result = otherSearch.asPath( n, x_spacing, y_spacing, z_spacing, spacing_units );
+							result.add( thisSearch.asPathReversed( p, x_spacing, y_spacing, z_spacing, spacing_units ) );
+						}
+						if (verbose) System.out.println("Searches met!");
+						foundGoal( result );
+						setExitReason(SUCCESS);
+						reportFinished( true );
+						return true;
+					}
+				}
+		}
+		return false;
+	}
+
 	/* This is the heuristic value for the A* search.  There's no
 	 * defined goal in this default superclass implementation, so
 	 * always return 0 so we end up with Dijkstra's algorithm. */
@@ -695,6 +858,26 @@ SearchNode anyNodeUnderThreshold( int x, int y, int z, double threshold ) {
 		return n;
 	}
 
+	/* Returns the status of the voxel in either search, or 0 if
+	   neither search has reached it (or its g is above a
+	   non-negative threshold.) */
+
+	byte statusUnderThreshold( int x, int y, int z, double threshold ) {
+		if( ! arrayBacked ) {
+			SearchNode n = anyNodeUnderThreshold(x,y,z,threshold);
+			return n == null ? 0 : n.searchStatus;
+		}
+		VoxelSearchNodes nodes = array_from_start;
+		for( int i = 0; i < 2 && nodes != null; ++i ) {
+			long voxel = nodes.voxel(x,y,z);
+			byte status = nodes.getStatus( voxel );
+			if( status != 0 && (threshold < 0 || nodes.getG( voxel ) <= threshold) )
+				return status;
+			nodes = array_from_goal;
+		}
+		return 0;
+	}
+
 	/* This draws over the Graphics object the current progress of
 	   the search at this slice.  If openColor or closedColor are
 	   null then that means "don't bother to draw that list". */
@@ -726,10 +909,9 @@ public void drawProgressOnSlice( int plane,
 				int z = currentSliceInPlane;
 				for( int y = 0; y < height; ++y )
 					for( int x = 0; x < width; ++x ) {
-						SearchNode n = anyNodeUnderThreshold(x,y,z,drawingThreshold);
-						if (n == null)
+						byte status = statusUnderThreshold(x,y,z,drawingThreshold);
+						if (status == 0)
 							continue;
-						byte status = n.searchStatus;
 						if( status == start_status || status == goal_status )
 							g.fillRect( canvas.myScreenX(x) - pixel_size / 2, canvas.myScreenY(y) - pixel_size / 2, pixel_size, pixel_size );
 					}
@@ -737,10 +919,9 @@ public void drawProgressOnSlice( int plane,
 				int y = currentSliceInPlane;
 				for( int z = 0; z < depth; ++ z )
 					for( int x = 0; x < width; ++x ) {
-						SearchNode n = anyNodeUnderThreshold(x,y,z,drawingThreshold);
-						if (n == null)
+						byte status = statusUnderThreshold(x,y,z,drawingThreshold);
+						if (status == 0)
 							continue;
-						byte status = n.searchStatus;
 						if( status == start_status || status == goal_status )
 							g.fillRect( canvas.myScreenX(x) - pixel_size / 2, canvas.myScreenY(z) - pixel_size / 2, pixel_size, pixel_size );
 					}
@@ -748,10 +929,9 @@ public void drawProgressOnSlice( int plane,
 				int x = currentSliceInPlane;
 				for( int y = 0; y < height; ++y )
 					for( int z = 0; z < depth; ++z ) {
-						SearchNode n = anyNodeUnderThreshold(x,y,z,drawingThreshold);
-						if (n == null)
+						byte status = statusUnderThreshold(x,y,z,drawingThreshold);
+						if (status == 0)
 							continue;
-						byte status = n.searchStatus;
 						if( status == start_status || status == goal_status )
 							g.fillRect( canvas.myScreenX(z) - pixel_size / 2, canvas.myScreenY(y) - pixel_size / 2, pixel_size, pixel_size );
 					}
@@ -763,6 +943,11 @@ public void drawProgressOnSlice( int plane,
 
 	public void addNode( SearchNode n, boolean fromStart ) {
 
+		if( arrayBacked ) {
+			addArrayBackedNode( n, fromStart );
+			return;
+		}
+
 		SearchNode [][] nodes_as_image = fromStart ? nodes_as_image_from_start : nodes_as_image_from_goal;
 
 		if( nodes_as_image[n.z] == null ) {
@@ -800,4 +985,26 @@ public void addNode( SearchNode n, boolean fromStart ) {
 
 	}
 
+	void addArrayBackedNode( SearchNode n, boolean fromStart ) {
+
+		VoxelSearchNodes nodes = fromStart ? array_from_start : array_from_goal;
+
+		long voxel = nodes.voxel( n.x, n.y, n.z );
+		if( nodes.getStatus( voxel ) != 0 )
+			return;
+
+		byte step = VoxelSearchNodes.NO_PREDECESSOR;
+		SearchNode p = n.getPredecessor();
+		if( p != null )
+			step = VoxelSearchNodes.step( p.x, p.y, p.z, n.x, n.y, n.z );
+
+		if( n.searchStatus == OPEN_FROM_START || n.searchStatus == OPEN_FROM_GOAL ) {
+			assert fromStart == (n.searchStatus == OPEN_FROM_START);
+			nodes.setOpen( voxel, n.g, n.h, step );
+		} else if( n.searchStatus == CLOSED_FROM_START || n.searchStatus == CLOSED_FROM_GOAL ) {
+			assert fromStart == (n.searchStatus == CLOSED_FROM_START);
+			nodes.setClosed( voxel, n.g, n.h, step );
+		}
+	}
+
 }
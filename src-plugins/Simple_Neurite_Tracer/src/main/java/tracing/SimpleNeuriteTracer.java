@@ -823,7 +823,8 @@ synchronized void testPathTo( double world_x, double world_y, double world_z, Po
 				(hessianEnabled ? hessian : null),
 				resultsDialog.getMultiplier(),
 				tubeness,
-				hessianEnabled );
+				hessianEnabled,
+				true ); // arrayBacked
 
 			addThreadToDraw( currentSearchThread );
 
@@ -1245,7 +1246,8 @@ synchronized public void startFillingPaths( Set<Path> fromPaths ) {
 					   false, // startPaused
 					   true, // reciprocal
 					   0.03f, // Initial threshold to display
-					   5000 ); // reportEveryMilliseconds
+					   5000, // reportEveryMilliseconds
+					   true ); // arrayBacked
 
 		addThreadToDraw(filler);
 
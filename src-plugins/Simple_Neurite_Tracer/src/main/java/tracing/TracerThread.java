@@ -103,6 +103,34 @@ public TracerThread( ImagePlus imagePlus,
 			     double multiplier,
 			     float [][] tubeness,
 			     boolean useHessian ) {
+		this( imagePlus, stackMin, stackMax, timeoutSeconds, reportEveryMilliseconds,
+		      start_x, start_y, start_z, goal_x, goal_y, goal_z,
+		      reciprocal, singleSlice, hessian, multiplier, tubeness, useHessian,
+		      false );
+	}
+
+	/* If arrayBacked is true, the search keeps its state in
+	   primitive arrays rather than SearchNode objects, which is
+	   much faster and smaller for long traces in large stacks. */
+
+        public TracerThread( ImagePlus imagePlus,
+			     float stackMin,
+			     float stackMax,
+			     int timeoutSeconds,
+			     long reportEveryMilliseconds,
+			     int start_x,
+			     int start_y,
+			     int start_z,
+			     int goal_x,
+			     int goal_y,
+			     int goal_z,
+			     boolean reciprocal,
+			     boolean singleSlice,
+			     ComputeCurvatures hessian,
+			     double multiplier,
+			     float [][] tubeness,
+			     boolean useHessian,
+			     boolean arrayBacked ) {
 
 		super( imagePlus,
 		       stackMin,
@@ -111,7 +139,8 @@ public TracerThread( ImagePlus imagePlus,
 		       true, // definedGoal
 		       false, // startPaused,
 		       timeoutSeconds,
-		       reportEveryMilliseconds );
+		       reportEveryMilliseconds,
+		       arrayBacked );
 
                 this.reciprocal = reciprocal;
 		this.singleSlice = singleSlice;
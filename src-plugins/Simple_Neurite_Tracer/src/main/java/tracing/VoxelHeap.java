@@ -0,0 +1,188 @@
+/* -*- mode: java; c-basic-offset: 8; indent-tabs-mode: t; tab-width: 8 -*- */
+
+/*
+  This file is part of the ImageJ plugin "Simple Neurite Tracer".
+
+  The ImageJ plugin "Simple Neurite Tracer" is free software; you
+  can redistribute it and/or modify it under the terms of the GNU
+  General Public License as published by the Free Software
+  Foundation; either version 3 of the License, or (at your option)
+  any later version.
+
+  The ImageJ plugin "Simple Neurite Tracer" is distributed in the
+  hope that it will be useful, but WITHOUT ANY WARRANTY; without
+  even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+  PARTICULAR PURPOSE.  See the GNU General Public License for more
+  details.
+
+  In addition, as a special exception, the copyright holders give
+  you permission to combine this program with free software programs or
+  libraries that are released under the Apache Public License.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package tracing;
+
+/* A binary min-heap of voxel indices, keyed by float priorities,
+   that supports changing the key of a voxel that is already in the
+   heap.  The position of each voxel in the heap is kept in arrays
+   indexed like the image, which are only allocated for the z planes
+   that the search actually reaches, so that decreasing a key costs
+   O(log n) rather than the linear PriorityQueue.remove(). */
+
+public class VoxelHeap {
+
+	int width;
+	int height;
+	int depth;
+	long planeSize;
+
+	/* The heap itself, as parallel arrays of voxel indices
+	   (z * width * height + y * width + x) and their keys: */
+
+	long [] voxels;
+	float [] keys;
+	int size;
+
+	/* positions[z][y*width+x] is one more than the position of
+	   that voxel in the heap, or 0 if it isn't in the heap. */
+
+	int [][] positions;
+
+	public VoxelHeap( int width, int height, int depth ) {
+		this.width = width;
+		this.height = height;
+		this.depth = depth;
+		this.planeSize = (long)width * height;
+		voxels = new long[1024];
+		keys = new float[1024];
+		positions = new int[depth][];
+	}
+
+	public int size( ) {
+		return size;
+	}
+
+	public boolean isEmpty( ) {
+		return size == 0;
+	}
+
+	public boolean contains( long voxel ) {
+		int [] plane = positions[(int)(voxel / planeSize)];
+		return plane != null && plane[(int)(voxel % planeSize)] != 0;
+	}
+
+	/* Add the voxel with the given key, or change its key if it is
+	   already in the heap. */
+
+	public void put( long voxel, float key ) {
+		int z = (int)(voxel / planeSize);
+		int [] plane = positions[z];
+		if( plane == null ) {
+			plane = new int[(int)planeSize];
+			positions[z] = plane;
+		}
+		int i = (int)(voxel % planeSize);
+		int position = plane[i] - 1;
+		if( position < 0 ) {
+			if( size == voxels.length )
+				grow();
+			position = size++;
+			voxels[position] = voxel;
+			keys[position] = key;
+			plane[i] = position + 1;
+			siftUp( position );
+		} else {
+			float oldKey = keys[position];
+			keys[position] = key;
+			if( key < oldKey )
+				siftUp( position );
+			else if( key > oldKey )
+				siftDown( position );
+		}
+	}
+
+	/* Returns the voxel with the smallest key, without removing
+	   it, or -1 if the heap is empty. */
+
+	public long peek( ) {
+		return size == 0 ? -1 : voxels[0];
+	}
+
+	public float peekKey( ) {
+		return keys[0];
+	}
+
+	/* Removes and returns the voxel with the smallest key, or -1 if
+	   the heap is empty. */
+
+	public long poll( ) {
+		if( size == 0 )
+			return -1;
+		long result = voxels[0];
+		setPosition( result, 0 );
+		-- size;
+		if( size > 0 ) {
+			voxels[0] = voxels[size];
+			keys[0] = keys[size];
+			setPosition( voxels[0], 1 );
+			siftDown( 0 );
+		}
+		return result;
+	}
+
+	void setPosition( long voxel, int positionPlusOne ) {
+		positions[(int)(voxel / planeSize)][(int)(voxel % planeSize)] = positionPlusOne;
+	}
+
+	void siftUp( int position ) {
+		long voxel = voxels[position];
+		float key = keys[position];
+		while( position > 0 ) {
+			int parent = (position - 1) >>> 1;
+			if( keys[parent] <= key )
+				break;
+			voxels[position] = voxels[parent];
+			keys[position] = keys[parent];
+			setPosition( voxels[position], position + 1 );
+			position = parent;
+		}
+		voxels[position] = voxel;
+		keys[position] = key;
+		setPosition( voxel, position + 1 );
+	}
+
+	void siftDown( int position ) {
+		long voxel = voxels[position];
+		float key = keys[position];
+		int half = size >>> 1;
+		while( position < half ) {
+			int child = 2 * position + 1;
+			int right = child + 1;
+			if( right < size && keys[right] < keys[child] )
+				child = right;
+			if( key <= keys[child] )
+				break;
+			voxels[position] = voxels[child];
+			keys[position] = keys[child];
+			setPosition( voxels[position], position + 1 );
+			position = child;
+		}
+		voxels[position] = voxel;
+		keys[position] = key;
+		setPosition( voxel, position + 1 );
+	}
+
+	void grow( ) {
+		int newLength = voxels.length * 2;
+		long [] newVoxels = new long[newLength];
+		float [] newKeys = new float[newLength];
+		System.arraycopy( voxels, 0, newVoxels, 0, size );
+		System.arraycopy( keys, 0, newKeys, 0, size );
+		voxels = newVoxels;
+		keys = newKeys;
+	}
+}
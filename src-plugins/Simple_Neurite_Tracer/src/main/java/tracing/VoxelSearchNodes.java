@@ -0,0 +1,239 @@
+/* -*- mode: java; c-basic-offset: 8; indent-tabs-mode: t; tab-width: 8 -*- */
+
+/*
+  This file is part of the ImageJ plugin "Simple Neurite Tracer".
+
+  The ImageJ plugin "Simple Neurite Tracer" is free software; you
+  can redistribute it and/or modify it under the terms of the GNU
+  General Public License as published by the Free Software
+  Foundation; either version 3 of the License, or (at your option)
+  any later version.
+
+  The ImageJ plugin "Simple Neurite Tracer" is distributed in the
+  hope that it will be useful, but WITHOUT ANY WARRANTY; without
+  even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+  PARTICULAR PURPOSE.  See the GNU General Public License for more
+  details.
+
+  In addition, as a special exception, the copyright holders give
+  you permission to combine this program with free software programs or
+  libraries that are released under the Apache Public License.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package tracing;
+
+/* The state of one direction of a search (from the start or from the
+   goal) kept in primitive arrays indexed like the image, instead of
+   one SearchNode object per voxel.  The arrays for each z plane are
+   only allocated when the search first reaches that plane.  Instead
+   of a reference to the predecessor, each voxel stores the
+   direction of the step that reached it, encoded as
+   (zdiff+1)*9 + (ydiff+1)*3 + (xdiff+1); NO_PREDECESSOR marks the
+   voxels that the search was seeded with. */
+
+public class VoxelSearchNodes {
+
+	public static final byte NO_PREDECESSOR = 13;
+
+	int width;
+	int height;
+	int depth;
+	long planeSize;
+
+	/* The status is one of the SearchThread constants
+	   (OPEN_FROM_START, etc.) or 0 if the voxel hasn't been
+	   reached yet. */
+
+	byte [][] status;
+	byte [][] predecessor;
+	float [][] g;
+	float [][] h;
+
+	VoxelHeap open;
+
+	int openCount;
+	int closedCount;
+
+	byte openStatus;
+	byte closedStatus;
+
+	public VoxelSearchNodes( int width, int height, int depth, boolean fromStart ) {
+		this.width = width;
+		this.height = height;
+		this.depth = depth;
+		this.planeSize = (long)width * height;
+		status = new byte[depth][];
+		predecessor = new byte[depth][];
+		g = new float[depth][];
+		h = new float[depth][];
+		open = new VoxelHeap( width, height, depth );
+		openStatus = fromStart ? SearchThread.OPEN_FROM_START : SearchThread.OPEN_FROM_GOAL;
+		closedStatus = fromStart ? SearchThread.CLOSED_FROM_START : SearchThread.CLOSED_FROM_GOAL;
+	}
+
+	public long voxel( int x, int y, int z ) {
+		return z * planeSize + y * width + x;
+	}
+
+	void allocatePlane( int z ) {
+		if( status[z] == null ) {
+			int n = (int)planeSize;
+			predecessor[z] = new byte[n];
+			g[z] = new float[n];
+			h[z] = new float[n];
+			status[z] = new byte[n];
+		}
+	}
+
+	public boolean planeAllocated( int z ) {
+		return status[z] != null;
+	}
+
+	/* Returns 0 if the voxel hasn't been reached, otherwise its
+	   status: */
+
+	public byte getStatus( int x, int y, int z ) {
+		byte [] plane = status[z];
+		return plane == null ? 0 : plane[y*width+x];
+	}
+
+	public byte getStatus( long voxel ) {
+		byte [] plane = status[(int)(voxel / planeSize)];
+		return plane == null ? 0 : plane[(int)(voxel % planeSize)];
+	}
+
+	public float getG( long voxel ) {
+		return g[(int)(voxel / planeSize)][(int)(voxel % planeSize)];
+	}
+
+	public float getH( long voxel ) {
+		return h[(int)(voxel / planeSize)][(int)(voxel % planeSize)];
+	}
+
+	public boolean isOpen( long voxel ) {
+		return getStatus( voxel ) == openStatus;
+	}
+
+	public boolean isClosed( long voxel ) {
+		return getStatus( voxel ) == closedStatus;
+	}
+
+	/* Add a voxel to the open list, or if it is already in one of
+	   the lists, move it to the open list with the new costs and
+	   predecessor.  The caller should check that the new cost is
+	   actually better. */
+
+	public void setOpen( long voxel, float newG, float newH, byte step ) {
+		int z = (int)(voxel / planeSize);
+		int i = (int)(voxel % planeSize);
+		allocatePlane( z );
+		byte oldStatus = status[z][i];
+		if( oldStatus == closedStatus )
+			-- closedCount;
+		if( oldStatus != openStatus )
+			++ openCount;
+		status[z][i] = openStatus;
+		g[z][i] = newG;
+		h[z][i] = newH;
+		predecessor[z][i] = step;
+		open.put( voxel, newG + newH );
+	}
+
+	/* Add a voxel directly to the closed list: */
+
+	public void setClosed( long voxel, float newG, float newH, byte step ) {
+		int z = (int)(voxel / planeSize);
+		int i = (int)(voxel % planeSize);
+		allocatePlane( z );
+		if( status[z][i] == openStatus )
+			throw new IllegalArgumentException( "BUG: trying to close an open voxel without polling it" );
+		if( status[z][i] != closedStatus )
+			++ closedCount;
+		status[z][i] = closedStatus;
+		g[z][i] = newG;
+		h[z][i] = newH;
+		predecessor[z][i] = step;
+	}
+
+	/* Remove the voxel with the lowest f = g + h from the open list
+	   and mark it as closed.  Returns -1 if the open list is empty. */
+
+	public long pollAndClose( ) {
+		long voxel = open.poll();
+		if( voxel < 0 )
+			return voxel;
+		status[(int)(voxel / planeSize)][(int)(voxel % planeSize)] = closedStatus;
+		-- openCount;
+		++ closedCount;
+		return voxel;
+	}
+
+	/* Returns the voxel with the lowest f in the open list, or -1: */
+
+	public long peekOpen( ) {
+		return open.peek();
+	}
+
+	public int openSize( ) {
+		return openCount;
+	}
+
+	public int closedSize( ) {
+		return closedCount;
+	}
+
+	/* Returns the voxel that the one passed in was reached from, or
+	   -1 if it has no predecessor. */
+
+	public long getPredecessor( long voxel ) {
+		int z = (int)(voxel / planeSize);
+		int i = (int)(voxel % planeSize);
+		int step = predecessor[z][i];
+		if( step == NO_PREDECESSOR )
+			return -1;
+		int xdiff = step % 3 - 1;
+		int ydiff = (step / 3) % 3 - 1;
+		int zdiff = step / 9 - 1;
+		int x = i % width - xdiff;
+		int y = i / width - ydiff;
+		return voxel( x, y, z - zdiff );
+	}
+
+	public static byte step( int xdiff, int ydiff, int zdiff ) {
+		return (byte)( (zdiff + 1) * 9 + (ydiff + 1) * 3 + (xdiff + 1) );
+	}
+
+	/* Returns the step from (from_x, from_y, from_z) to (x, y, z) if
+	   they are neighbours, or NO_PREDECESSOR otherwise. */
+
+	public static byte step( int from_x, int from_y, int from_z, int x, int y, int z ) {
+		int xdiff = x - from_x;
+		int ydiff = y - from_y;
+		int zdiff = z - from_z;
+		if( Math.abs(xdiff) > 1 || Math.abs(ydiff) > 1 || Math.abs(zdiff) > 1 )
+			return NO_PREDECESSOR;
+		return step( xdiff, ydiff, zdiff );
+	}
+
+	/* These are the equivalents of SearchNode.asPathReversed() and
+	   SearchNode.asPath(): */
+
+	public Path asPathReversed( long voxel, double x_spacing, double y_spacing, double z_spacing, String spacing_units ) {
+		Path result = new Path(x_spacing, y_spacing, z_spacing, spacing_units);
+		while( voxel >= 0 ) {
+			int z = (int)(voxel / planeSize);
+			int i = (int)(voxel % planeSize);
+			result.addPointDouble( (i % width) * x_spacing, (i / width) * y_spacing, z * z_spacing );
+			voxel = getPredecessor( voxel );
+		}
+		return result;
+	}
+
+	public Path asPath( long voxel, double x_spacing, double y_spacing, double z_spacing, String spacing_units ) {
+		return asPathReversed( voxel, x_spacing, y_spacing, z_spacing, spacing_units ).reversed();
+	}
+}
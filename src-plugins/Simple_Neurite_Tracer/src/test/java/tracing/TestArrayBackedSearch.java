@@ -0,0 +1,115 @@
+/* -*- mode: java; c-basic-offset: 8; indent-tabs-mode: t; tab-width: 8 -*- */
+
+/* Check that the array backed search finds the same paths as the
+   SearchNode based one, on a small synthetic image */
+
+package tracing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestArrayBackedSearch {
+
+	/* A noisy stack with a bright diagonal line through it: */
+
+	ImagePlus createImage( int width, int height, int depth ) {
+		Random random = new Random( 1 );
+		ImageStack stack = new ImageStack( width, height );
+		for( int z = 0; z < depth; ++z ) {
+			byte [] pixels = new byte[width*height];
+			for( int i = 0; i < pixels.length; ++i )
+				pixels[i] = (byte)( 10 + random.nextInt( 30 ) );
+			for( int x = 0; x < width; ++x ) {
+				int y = (x * (height - 1)) / (width - 1);
+				pixels[y*width+x] = (byte)200;
+			}
+			stack.addSlice( null, new ByteProcessor( width, height, pixels, null ) );
+		}
+		return new ImagePlus( "line", stack );
+	}
+
+	Path trace( ImagePlus image, int goal_z, boolean arrayBacked ) {
+		TracerThread tracer = new TracerThread( image,
+							0,
+							255,
+							-1, // timeoutSeconds
+							100, // reportEveryMilliseconds
+							0, 0, 0,
+							image.getWidth() - 1, image.getHeight() - 1, goal_z,
+							true, // reciprocal
+							image.getStackSize() == 1, // singleSlice
+							null,
+							1, // multiplier
+							null,
+							false,
+							arrayBacked );
+		tracer.run();
+		return tracer.getResult();
+	}
+
+	@Test
+	public void testSamePathAsSearchNodes() {
+		for( int depth = 1; depth <= 5; depth += 4 ) {
+			ImagePlus image = createImage( 60, 40, depth );
+			Path expected = trace( image, depth - 1, false );
+			Path result = trace( image, depth - 1, true );
+			assertNotNull( "No path found with SearchNodes", expected );
+			assertNotNull( "No path found with arrays", result );
+			// Ties may be broken differently, so allow a little slack:
+			assertEquals( expected.getRealLength(), result.getRealLength(),
+				      0.02 * expected.getRealLength() );
+		}
+	}
+
+	@Test
+	public void testFillDistances() {
+		ImagePlus image = createImage( 30, 20, 3 );
+		FillerThread [] fillers = new FillerThread[2];
+		for( int i = 0; i < 2; ++i ) {
+			fillers[i] = new FillerThread( image, 0, 255, false, true, 0.03, 5000, i == 1 );
+			fillers[i].addNode( new SearchNode( 5, 5, 1, 0, 0, null, SearchThread.OPEN_FROM_START ), true );
+			fillers[i].run();
+		}
+		for( int z = 0; z < 3; ++z )
+			for( int y = 0; y < 20; ++y )
+				for( int x = 0; x < 30; ++x )
+					assertEquals( fillers[0].getDistanceAtPoint( x, y, z ),
+						      fillers[1].getDistanceAtPoint( x, y, z ), 1e-4 );
+		Fill fill = fillers[1].getFill();
+		assertEquals( 30 * 20 * 3, fill.nodeList.size() );
+	}
+
+	@Test
+	public void testVoxelHeap() {
+		Random random = new Random( 2 );
+		VoxelHeap heap = new VoxelHeap( 10, 10, 10 );
+		float [] keys = new float[1000];
+		for( int i = 0; i < keys.length; ++i ) {
+			keys[i] = random.nextFloat();
+			heap.put( i, keys[i] );
+		}
+		// Decrease some of the keys:
+		for( int i = 0; i < keys.length; i += 3 ) {
+			keys[i] /= 2;
+			heap.put( i, keys[i] );
+		}
+		float last = -1;
+		int polled = 0;
+		while( ! heap.isEmpty() ) {
+			long voxel = heap.poll();
+			assertTrue( keys[(int)voxel] >= last );
+			assertTrue( ! heap.contains( voxel ) );
+			last = keys[(int)voxel];
+			++ polled;
+		}
+		assertEquals( keys.length, polled );
+	}
+}
@@ -19,11 +19,12 @@
  * 
  */
 
-import java.util.ArrayList;
+import java.util.Arrays;
 
 import ij.IJ;
 import ij.ImagePlus;
 import ij.ImageStack;
+import ij.Prefs;
 import ij.plugin.filter.PlugInFilter;
 import ij.process.ImageProcessor;
 
@@ -59,6 +60,43 @@ public class Skeletonize3D_ implements PlugInFilter
 	private int depth = 0;
 	/** working image stack*/
 	private ImageStack inputImage = null;
+	/** working image slice size (width * height) */
+	private int sliceSize = 0;
+	/** number of threads used to check the border points */
+	private int numThreads = Prefs.getThreads();
+	/** Euler LUT [Lee94] */
+	private final int[] eulerLUT = new int[ 256 ];
+
+	/**
+	 * Neighbor indices (in the order of getNeighborhood) of each octant,
+	 * giving the bits 128, 64, ..., 2 of the octant index. Octants are
+	 * SWU, SEU, NWU, NEU, SWB, SEB, NWB and NEB.
+	 */
+	private static final int[][] OCTANTS = new int[][] {
+		{ 24, 25, 15, 16, 21, 22, 12 },
+		{ 26, 23, 17, 14, 25, 22, 16 },
+		{ 18, 21,  9, 12, 19, 22, 10 },
+		{ 20, 23, 19, 22, 11, 14, 10 },
+		{  6, 15,  7, 16,  3, 12,  4 },
+		{  8,  7, 17, 16,  5,  4, 14 },
+		{  0,  9,  3, 12,  1, 10,  4 },
+		{  2,  1, 11, 10,  5,  4, 14 } };
+
+	/**
+	 * For each neighbor, the bit mask of its 26-neighbors in the 3x3x3
+	 * neighborhood, the center point excepted.
+	 */
+	private static final int[] ADJACENCY = new int[ 27 ];
+	static
+	{
+		for( int i = 0; i < 27; i++ )
+			for( int j = 0; j < 27; j++ )
+				if( i != j && j != 13
+						&& Math.abs( i % 3 - j % 3 ) <= 1
+						&& Math.abs( ( i / 3 ) % 3 - ( j / 3 ) % 3 ) <= 1
+						&& Math.abs( i / 9 - j / 9 ) <= 1 )
+					ADJACENCY[ i ] |= 1 << j;
+	}
 	
 	/* -----------------------------------------------------------------------*/
 	/**
@@ -140,251 +178,417 @@ public void prepareData(ImageStack outputImage)
 	/* -----------------------------------------------------------------------*/
 	/**
 	 * Post processing for computing thinning.
-	 * 
+	 * <p>
+	 * Only the border points of the object (foreground points with at least
+	 * one background 6-neighbor) can ever be deleted, so instead of scanning
+	 * the whole stack for each border direction, a sorted list of these
+	 * points (the frontier) is kept between iterations and updated around
+	 * the deleted points. The candidates of each direction are checked in
+	 * parallel, on consecutive slabs of the frontier, using bit masks of the
+	 * 3x3x3 neighborhoods. As the image is not modified while the candidates
+	 * are collected, and as the slabs are concatenated in scan order, the
+	 * sequential re-checking step sees the same list of simple border points
+	 * as a plain scan of the stack, and the result is identical.
+	 *
 	 * @param outputImage output image stack
 	 */
-	public void computeThinImage(ImageStack outputImage) 
+	public void computeThinImage(ImageStack outputImage)
 	{
 		//IJ.write("Compute Thin Image Start");
 		IJ.showStatus("Computing thin image ...");
-						
+
+		this.sliceSize = this.width * this.height;
+
 		// Prepare Euler LUT [Lee94]
-		int eulerLUT[] = new int[256]; 
-		fillEulerLUT( eulerLUT );
-		
-		// Prepare number of points LUT
-		int pointsLUT[] = new int[ 256 ];
-		fillnumOfPointsLUT(pointsLUT);
-		
-		// Following Lee[94], save versions (Q) of input image S, while 
-		// deleting each type of border points (R)
-		//ImagePlus Q[] = new ImagePlus[6];
-		ArrayList <int[]> simpleBorderPoints = new ArrayList<int[]>();				
-		
+		fillEulerLUT( this.eulerLUT );
+
+		final byte[][] pixels = new byte[ depth ][];
+		for( int z = 0; z < depth; z++ )
+			pixels[ z ] = (byte[]) outputImage.getPixels( z + 1 );
+
+		// Following Lee[94], collect the simple border points of each
+		// type, then delete them after a sequential re-check
+		long[] frontier = collectFrontier( pixels );
+
 		int iter = 1;
-		//boolean debug = false;			
 		// Loop through the image several times until there is no change.
 		int unchangedBorders = 0;
 		while( unchangedBorders < 6 )  // loop until no change for all the six border types
-		{						
+		{
 			unchangedBorders = 0;
 			for( int currentBorder = 1; currentBorder <= 6; currentBorder++)
 			{
-				//Q[ currentBorder-1 ] = new ImagePlus("Q-" + currentBorder, outputImage).duplicate();
-				
-				IJ.showStatus("Thinning iteration " + iter + " (" + currentBorder +"/6 borders) ...");
-				
-				//if( debug ) IJ.log( " *** current border = " + currentBorder + " ***");	
-				
-				boolean noChange = true;				
-				
-				// Loop through the image.				 
-				for (int z = 0; z < depth; z++)
-				{
-					for (int y = 0; y < height; y++)
-					{
-						for (int x = 0; x < width; x++)						
-						{
+				IJ.showStatus("Thinning iteration " + iter + " (" + currentBorder +"/6 borders, " + frontier.length + " border points) ...");
 
-							// check if point is foreground
-							if ( getPixelNoCheck(outputImage, x, y, z) != 1 )
-							{
-								//IJ.log("  background");
-								continue;         // current point is already background 
-							}
-																				
-							// check 6-neighbors if point is a border point of type currentBorder
-							boolean isBorderPoint = false;
-							// North
-							if( currentBorder == 1 && N(outputImage, x, y, z) <= 0 )
-								isBorderPoint = true;
-							// South
-							if( currentBorder == 2 && S(outputImage, x, y, z) <= 0 )
-								isBorderPoint = true;
-							// East
-							if( currentBorder == 3 && E(outputImage, x, y, z) <= 0 )
-								isBorderPoint = true;
-							// West
-							if( currentBorder == 4 && W(outputImage, x, y, z) <= 0 )
-								isBorderPoint = true;
-							if(outputImage.getSize() > 1)
-							{
-								// Up							
-								if( currentBorder == 5 && U(outputImage, x, y, z) <= 0 )
-									isBorderPoint = true;
-								// Bottom
-								if( currentBorder == 6 && B(outputImage, x, y, z) <= 0 )
-									isBorderPoint = true;
-							}
-							if( !isBorderPoint )
-							{
-								//if (debug) IJ.log("  not border");
-								continue;         // current point is not deletable
-							}
-							
-							//else // remove border point from Q
-							//	setPixelNoCheck( Q[ currentBorder -1 ].getImageStack(), x, y, z, (byte)0);
+				final long[] simpleBorderPoints = collectSimpleBorderPoints( pixels, frontier, currentBorder );
 
+				// sequential re-checking to preserve connectivity when
+				// deleting in a parallel way
+				final LongList deleted = new LongList();
+				for( int i = 0; i < simpleBorderPoints.length; i++ )
+				{
+					final long index = simpleBorderPoints[ i ];
+					final int z = (int) ( index / sliceSize );
+					final int xy = (int) ( index % sliceSize );
+					final int x = xy % width;
+					final int y = xy / width;
 
-							if( isEndPoint( outputImage, x, y, z))
-							{
-								//if (debug) IJ.log("checking point (" + x + ", " + y + ", " + z + ")");
-								//if (debug) IJ.log("  end point");
-								continue;
-							}
+					// Check if border points is simple
+					if( isSimpleNeighborhood( getNeighborhoodMask( pixels, x, y, z ) ) )
+					{
+						// we can delete the current point
+						pixels[ z ][ xy ] = 0;
+						deleted.add( index );
+					}
+					if( ( i & 0xFFFF ) == 0 )
+						IJ.showProgress( i, simpleBorderPoints.length );
+				}
 
-							final byte[] neighborhood = getNeighborhood(outputImage, x, y, z);
-							
-							// Check if point is Euler invariant (condition 1 in Lee[94])
-							if( !isEulerInvariant( neighborhood, eulerLUT ) )
-							{
-								//if (debug) IJ.log("checking point (" + x + ", " + y + ", " + z + ")");
-								//if (debug) IJ.log("  not Euler invariant");								
-								continue;         // current point is not deletable
-							}
+				if( deleted.size() == 0 )
+					unchangedBorders++;
+				else
+					frontier = updateFrontier( pixels, frontier, deleted );
 
-							/*
-							// check if point is the end of an arc
-							if ( isSurfacePoint(  neighborhood, pointsLUT) )
-							{
-								if (debug) IJ.log("  surface point");								
-								// Calculate intersection of Q and N(v)
-								byte[] qPix = getNeighborhood(Q[ currentBorder - 1 ].getImageStack(), x, y, z);
-								byte[] nPix = neighborhood;
+			} // end currentBorder for loop
 
-								int nPoints = 0;
-								for(int n=0; n<qPix.length; n++)
-									if( qPix[ n ] == 1 && nPix[ n ] == 1)
-										nPoints ++;
+			// Progress bar iterations
+			iter++;
+		}
 
-								// Condition 4 in Lee[94]
-								if( nPoints-1 < 2 )			
-								{
-									if (debug) IJ.log("  nPoints < 2");									
-									continue; // current point is not deletable
-								}
-							}
-							 */
+		IJ.showProgress( 1.0 );
+		//IJ.write("Compute Thin Image End");
+		IJ.showStatus("Computed thin image.");
+	} /* end computeThinImage */
 
-							
-							// Check if point is simple (deletion does not change connectivity in the 3x3x3 neighborhood)
-							// (conditions 2 and 3 in Lee[94])
-							if( !isSimplePoint( neighborhood ) )
+	/* -----------------------------------------------------------------------*/
+	/**
+	 * Collect the border points of the image: foreground points with at
+	 * least one background 6-neighbor (4-neighbor in 2D). Slices are
+	 * scanned in parallel.
+	 *
+	 * @param pixels image slices
+	 * @return the sorted linear indices (z * width * height + y * width + x) of the border points
+	 */
+	private long[] collectFrontier( final byte[][] pixels )
+	{
+		final int nThreads = Math.max( 1, Math.min( numThreads, depth ) );
+		final LongList[] lists = new LongList[ nThreads ];
+		final Thread[] threads = new Thread[ nThreads ];
+		for( int t = 0; t < nThreads; t++ )
+		{
+			final LongList list = new LongList();
+			lists[ t ] = list;
+			final int zStart = (int) ( (long) depth * t / nThreads );
+			final int zEnd = (int) ( (long) depth * ( t + 1 ) / nThreads );
+			threads[ t ] = new Thread()
+			{
+				public void run()
+				{
+					for( int z = zStart; z < zEnd; z++ )
+					{
+						final byte[] slice = pixels[ z ];
+						for( int y = 0; y < height; y++ )
+							for( int x = 0; x < width; x++ )
 							{
-								//if (debug) IJ.log("checking point (" + x + ", " + y + ", " + z + ")");
-								//if (debug) IJ.log("  not simple point");								
-								continue;         // current point is not deletable
+								final int xy = x + y * width;
+								if( slice[ xy ] == 1 && isBorderPoint( pixels, x, y, z, 0 ) )
+									list.add( (long) z * sliceSize + xy );
 							}
+					}
+				}
+			};
+		}
+		startAndJoin( threads );
+		return concatenate( lists );
+	} /* end collectFrontier */
 
+	/* -----------------------------------------------------------------------*/
+	/**
+	 * Collect, among the frontier points, the simple border points of the
+	 * given type that are not end points and are Euler invariant (conditions
+	 * 1 to 3 in Lee[94]). The image is not modified, so consecutive slabs of
+	 * the frontier are checked in parallel.
+	 *
+	 * @param pixels image slices
+	 * @param frontier sorted linear indices of the border points
+	 * @param currentBorder border type (1 to 6)
+	 * @return the sorted linear indices of the simple border points
+	 */
+	private long[] collectSimpleBorderPoints( final byte[][] pixels, final long[] frontier, final int currentBorder )
+	{
+		final int nThreads = Math.max( 1, Math.min( numThreads, frontier.length / 1024 ) );
+		final LongList[] lists = new LongList[ nThreads ];
+		final Thread[] threads = new Thread[ nThreads ];
+		for( int t = 0; t < nThreads; t++ )
+		{
+			final LongList list = new LongList();
+			lists[ t ] = list;
+			final int start = (int) ( (long) frontier.length * t / nThreads );
+			final int end = (int) ( (long) frontier.length * ( t + 1 ) / nThreads );
+			threads[ t ] = new Thread()
+			{
+				public void run()
+				{
+					for( int i = start; i < end; i++ )
+					{
+						final long index = frontier[ i ];
+						final int z = (int) ( index / sliceSize );
+						final int xy = (int) ( index % sliceSize );
+						final int x = xy % width;
+						final int y = xy / width;
 
+						// check 6-neighbors if point is a border point of type currentBorder
+						if( !isBorderPoint( pixels, x, y, z, currentBorder ) )
+							continue;
 
-							// add all simple border points to a list for sequential re-checking
-							int[] index = new int[3];
-							index[0] = x;
-							index[1] = y;
-							index[2] = z;
-							simpleBorderPoints.add(index);							
-							/*
-							// delete point
-							if (debug) IJ.log("  delete point!");							
-							setPixel( outputImage, x, y, z, (byte) 0);
-							noChange = false;
-							 */
-
-						}
-					}					
-					IJ.showProgress(z, this.depth);				
-				}							
-
-
-				// sequential re-checking to preserve connectivity when
-				// deleting in a parallel way
-				//				boolean noChange = true;
-				int[] index = null;
-				
-				
-				for(int i = 0; 	i < simpleBorderPoints.size() ; i++)
-				{					
-					index = simpleBorderPoints.get(i);
+						final int neighborhood = getNeighborhoodMask( pixels, x, y, z );
 
-					// 1. Set simple border point to 0
-					//setPixel( outputImage, index[0], index[1], index[2], (byte) 0);
-					/*
-					if( !isEulerInvariant( getNeighborhood(outputImage,  index[0], index[1], index[2]), eulerLUT ) )
-					{
-						if (debug) IJ.log("checking point (" + index[0] + ", " + index[1] + ", " + index[2] + ")");
-						if (debug) IJ.log("  not Euler invariant");								
-						continue;         // current point is not deletable
-					}
-					
-					// 2. Check if neighborhood is still connected
-					if( isSimplePoint( getNeighborhood(outputImage, index[0], index[1], index[2])) )
-					{
-						if (debug) IJ.log("checking point (" + index[0] + ", " + index[1] + ", " + index[2] + ")");
-						if (debug) IJ.log("  simple point");				
-						if(	 !isSurfacePoint( getNeighborhood(outputImage, index[0], index[1], index[2]), pointsLUT) ) 
-						{
-							if (debug) IJ.log("  not surface point");
-							// Calculate intersection of Q and N(v)
-							byte[] qPix = getNeighborhood(Q[ currentBorder - 1 ].getImageStack(),  index[0], index[1], index[2]);
-							byte[] nPix = getNeighborhood(outputImage, index[0], index[1], index[2]);
+						// end point (the center point is in the mask as well)
+						if( Integer.bitCount( neighborhood ) == 2 )
+							continue;
 
-							int nPoints = 0;
-							for(int n=0; n<qPix.length; n++)
-								if( qPix[ n ] == 1 && nPix[ n ] == 1)
-									nPoints ++;
+						// Check if point is Euler invariant (condition 1 in Lee[94])
+						if( !isEulerInvariant( neighborhood ) )
+							continue;
 
-							// Condition 4 in Lee[94]
-							if( nPoints < 2 )			
-							{
-								if (debug) IJ.log("  nPoints < 2");									
-								continue; // current point is not deletable
-							}
+						// Check if point is simple (conditions 2 and 3 in Lee[94])
+						if( !isSimpleNeighborhood( neighborhood ) )
+							continue;
 
-							setPixel( outputImage, index[0], index[1], index[2], (byte) 0);
-							if (debug) IJ.log("  nPoints >= 2");
-							if (debug) IJ.log("  delete point!");				
-							noChange = false;
-						}
+						list.add( index );
 					}
-					*/
+				}
+			};
+		}
+		startAndJoin( threads );
+		return concatenate( lists );
+	} /* end collectSimpleBorderPoints */
 
+	/* -----------------------------------------------------------------------*/
+	/**
+	 * Update the frontier after deleting points: deleted points leave it,
+	 * and their foreground 6-neighbors become border points.
+	 *
+	 * @param pixels image slices
+	 * @param frontier sorted linear indices of the border points before deletion
+	 * @param deleted linear indices of the deleted points
+	 * @return the sorted linear indices of the new border points
+	 */
+	private long[] updateFrontier( final byte[][] pixels, final long[] frontier, final LongList deleted )
+	{
+		final LongList list = new LongList( frontier.length + 6 * deleted.size() );
+		for( int i = 0; i < frontier.length; i++ )
+		{
+			final long index = frontier[ i ];
+			if( pixels[ (int) ( index / sliceSize ) ][ (int) ( index % sliceSize ) ] == 1 )
+				list.add( index );
+		}
+		for( int i = 0; i < deleted.size(); i++ )
+		{
+			final long index = deleted.get( i );
+			final int z = (int) ( index / sliceSize );
+			final int xy = (int) ( index % sliceSize );
+			final int x = xy % width;
+			final int y = xy / width;
+			if( y > 0 && pixels[ z ][ xy - width ] == 1 )
+				list.add( index - width );
+			if( y < height - 1 && pixels[ z ][ xy + width ] == 1 )
+				list.add( index + width );
+			if( x < width - 1 && pixels[ z ][ xy + 1 ] == 1 )
+				list.add( index + 1 );
+			if( x > 0 && pixels[ z ][ xy - 1 ] == 1 )
+				list.add( index - 1 );
+			if( z < depth - 1 && pixels[ z + 1 ][ xy ] == 1 )
+				list.add( index + sliceSize );
+			if( z > 0 && pixels[ z - 1 ][ xy ] == 1 )
+				list.add( index - sliceSize );
+		}
 
-					// Check if border points is simple			        
-					if( isSimplePoint( getNeighborhood(outputImage, index[0], index[1], index[2]) )	 )
-					{
-						// we can delete the current point
-						setPixel( outputImage, index[0], index[1], index[2], (byte) 0);
-						noChange = false;
-					}
+		// sort and remove duplicates
+		final long[] sorted = list.toArray();
+		Arrays.sort( sorted );
+		int n = 0;
+		for( int i = 0; i < sorted.length; i++ )
+			if( n == 0 || sorted[ i ] != sorted[ n - 1 ] )
+				sorted[ n++ ] = sorted[ i ];
+		return Arrays.copyOf( sorted, n );
+	} /* end updateFrontier */
 
+	/* -----------------------------------------------------------------------*/
+	/**
+	 * Check if a foreground point is a border point of the given type, that
+	 * is, if its 6-neighbor in the corresponding direction is background
+	 * (0 border conditions). The up and bottom directions are only
+	 * considered for 3D images.
+	 *
+	 * @param pixels image slices
+	 * @param x x- coordinate
+	 * @param y y- coordinate
+	 * @param z z- coordinate (0-based)
+	 * @param border border type (1 to 6), or 0 for any type
+	 * @return true if the point is a border point of the given type
+	 */
+	private boolean isBorderPoint( final byte[][] pixels, final int x, final int y, final int z, final int border )
+	{
+		final byte[] slice = pixels[ z ];
+		final int xy = x + y * width;
+		// North
+		if( ( border == 0 || border == 1 ) && ( y == 0 || slice[ xy - width ] <= 0 ) )
+			return true;
+		// South
+		if( ( border == 0 || border == 2 ) && ( y == height - 1 || slice[ xy + width ] <= 0 ) )
+			return true;
+		// East
+		if( ( border == 0 || border == 3 ) && ( x == width - 1 || slice[ xy + 1 ] <= 0 ) )
+			return true;
+		// West
+		if( ( border == 0 || border == 4 ) && ( x == 0 || slice[ xy - 1 ] <= 0 ) )
+			return true;
+		if( depth > 1 )
+		{
+			// Up
+			if( ( border == 0 || border == 5 ) && ( z == depth - 1 || pixels[ z + 1 ][ xy ] <= 0 ) )
+				return true;
+			// Bottom
+			if( ( border == 0 || border == 6 ) && ( z == 0 || pixels[ z - 1 ][ xy ] <= 0 ) )
+				return true;
+		}
+		return false;
+	} /* end isBorderPoint */
 
+	/* -----------------------------------------------------------------------*/
+	/**
+	 * Get neighborhood of a pixel in a 3D image (0 border conditions) as a
+	 * bit mask: bit i is set if the i-th neighbor, in the order of
+	 * {@link #getNeighborhood(ImageStack, int, int, int)}, is foreground.
+	 *
+	 * @param pixels image slices
+	 * @param x x- coordinate
+	 * @param y y- coordinate
+	 * @param z z- coordinate (0-based)
+	 * @return corresponding 27-bit neighborhood mask
+	 */
+	private int getNeighborhoodMask( final byte[][] pixels, final int x, final int y, final int z )
+	{
+		int mask = 0;
+		int bit = 0;
+		for( int zz = z - 1; zz <= z + 1; zz++ )
+		{
+			if( zz < 0 || zz >= depth )
+			{
+				bit += 9;
+				continue;
+			}
+			final byte[] slice = pixels[ zz ];
+			for( int yy = y - 1; yy <= y + 1; yy++ )
+			{
+				if( yy < 0 || yy >= height )
+				{
+					bit += 3;
+					continue;
 				}
+				final int offset = yy * width;
+				for( int xx = x - 1; xx <= x + 1; xx++, bit++ )
+					if( xx >= 0 && xx < width && slice[ offset + xx ] == 1 )
+						mask |= 1 << bit;
+			}
+		}
+		return mask;
+	} /* end getNeighborhoodMask */
 
-				if( noChange )
-					unchangedBorders++;
-
-				//IJ.write("# simple border points = " + simpleBorderPoints.size());
-				/*
-				if(index != null)
-					IJ.write("# last point = [" + index[0] + ", " + index[1] + "," +  index[2]+ "]");
-				else 
-					IJ.write("# last point = [0, 0, 0]");
-				 */
-
-				simpleBorderPoints.clear();
-
-				//IJ.write("# simple border points = " + simpleBorderPoints.size() + "\n");
+	/* -----------------------------------------------------------------------*/
+	/**
+	 * Check if a point is Euler invariant, from its neighborhood mask.
+	 *
+	 * @param neighborhood 27-bit neighborhood mask of the point
+	 * @return true or false if the point is Euler invariant or not
+	 * @see #isEulerInvariant(byte[], int[])
+	 */
+	private boolean isEulerInvariant( final int neighborhood )
+	{
+		int eulerChar = 0;
+		for( int o = 0; o < 8; o++ )
+		{
+			final int[] octant = OCTANTS[ o ];
+			int n = 1;
+			for( int b = 0; b < 7; b++ )
+				if( ( neighborhood & ( 1 << octant[ b ] ) ) != 0 )
+					n |= 128 >> b;
+			eulerChar += eulerLUT[ n ];
+		}
+		return eulerChar == 0;
+	} /* end isEulerInvariant */
 
-			} // end currentBorder for loop
+	/* -----------------------------------------------------------------------*/
+	/**
+	 * Check if a point is simple, from its neighborhood mask: the foreground
+	 * points of the neighborhood, the center point excepted, must form a
+	 * single 26-connected component. This is equivalent to the octree
+	 * labeling of {@link #isSimplePoint(byte[])}.
+	 *
+	 * @param neighborhood 27-bit neighborhood mask of the point
+	 * @return true or false if the point is simple or not
+	 */
+	private static boolean isSimpleNeighborhood( final int neighborhood )
+	{
+		final int foreground = neighborhood & ~( 1 << 13 );
+		if( foreground == 0 )
+			return true;
+		int component = foreground & -foreground;
+		int toVisit = component;
+		while( toVisit != 0 )
+		{
+			final int b = Integer.numberOfTrailingZeros( toVisit );
+			toVisit &= toVisit - 1;
+			final int grown = ADJACENCY[ b ] & foreground & ~component;
+			component |= grown;
+			toVisit |= grown;
+		}
+		return component == foreground;
+	} /* end isSimpleNeighborhood */
 
-			// Progress bar iterations
-			iter++;
+	/* -----------------------------------------------------------------------*/
+	/**
+	 * Start the given threads and wait for them to finish.
+	 *
+	 * @param threads threads to run
+	 */
+	private static void startAndJoin( final Thread[] threads )
+	{
+		for( int t = 0; t < threads.length; t++ )
+			threads[ t ].start();
+		try
+		{
+			for( int t = 0; t < threads.length; t++ )
+				threads[ t ].join();
 		}
+		catch( InterruptedException ie )
+		{
+			throw new RuntimeException( ie );
+		}
+	} /* end startAndJoin */
 
-		//IJ.write("Compute Thin Image End");
-		IJ.showStatus("Computed thin image.");
-	} /* end computeThinImage */	
+	/* -----------------------------------------------------------------------*/
+	/**
+	 * Concatenate lists of indices, in order.
+	 *
+	 * @param lists lists to concatenate
+	 * @return the concatenated indices
+	 */
+	private static long[] concatenate( final LongList[] lists )
+	{
+		int size = 0;
+		for( int t = 0; t < lists.length; t++ )
+			size += lists[ t ].size();
+		final long[] result = new long[ size ];
+		int offset = 0;
+		for( int t = 0; t < lists.length; t++ )
+		{
+			lists[ t ].copyTo( result, offset );
+			offset += lists[ t ].size();
+		}
+		return result;
+	} /* end concatenate */
 	
 	
 	/**
@@ -1469,6 +1673,52 @@ void showAbout()
 						"About Skeletonize3D...",
 						"This plug-in filter produces 3D thinning (skeletonization) of binary 3D images.\n");
 	} /* end showAbout */
+
 	/* -----------------------------------------------------------------------*/
+	/**
+	 * Growable list of primitive long indices.
+	 */
+	private static final class LongList
+	{
+		private long[] data;
+		private int size = 0;
+
+		LongList()
+		{
+			this( 1024 );
+		}
+
+		LongList( final int capacity )
+		{
+			data = new long[ Math.max( 16, capacity ) ];
+		}
+
+		void add( final long value )
+		{
+			if( size == data.length )
+				data = Arrays.copyOf( data, 2 * size );
+			data[ size++ ] = value;
+		}
+
+		long get( final int i )
+		{
+			return data[ i ];
+		}
+
+		int size()
+		{
+			return size;
+		}
+
+		long[] toArray()
+		{
+			return Arrays.copyOf( data, size );
+		}
+
+		void copyTo( final long[] dest, final int offset )
+		{
+			System.arraycopy( data, 0, dest, offset, size );
+		}
+	} /* end LongList */
 
 } /* end Skeletonize3D_ */
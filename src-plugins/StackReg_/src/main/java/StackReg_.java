@@ -45,6 +45,8 @@
 // ImageJ
 import ij.IJ;
 import ij.ImagePlus;
+import ij.ImageStack;
+import ij.Prefs;
 import ij.WindowManager;
 import ij.gui.GUI;
 import ij.gui.GenericDialog;
@@ -55,6 +57,7 @@
 import ij.process.ColorProcessor;
 import ij.process.FloatProcessor;
 import ij.process.ImageConverter;
+import ij.process.ImageProcessor;
 import ij.process.ShortProcessor;
 
 // Java 1.1
@@ -69,9 +72,11 @@
 import java.awt.TextArea;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.image.ColorModel;
 import java.awt.image.IndexColorModel;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /*====================================================================
 |	StackReg_
@@ -89,6 +94,25 @@
 ....................................................................*/
 private static final double TINY = (double)Float.intBitsToFloat((int)0x33FFFFFF);
 
+/*....................................................................
+	Names of the TurboReg_ transformation codes, in the order of the
+	transformations of the dialog
+....................................................................*/
+private static final String[] TURBOREG_TRANSFORMATION = {
+	"TRANSLATION",
+	"RIGID_BODY",
+	"SCALED_ROTATION",
+	"AFFINE"
+};
+
+/*....................................................................
+	Number of consecutive slice pairs registered by one thread, so that
+	TurboReg_ can reuse the preprocessing of the shared slices
+....................................................................*/
+private static final int PAIRS_PER_CHUNK = 16;
+
+private volatile Throwable failure;
+
 /*....................................................................
 	Public methods
 ....................................................................*/
@@ -115,12 +139,14 @@ public void run (
 		"Affine"
 	};
 	gd.addChoice("Transformation:", transformationItem, "Rigid Body");
+	gd.addCheckbox("Parallel registration", true);
 	gd.addCheckbox("Credits", false);
 	gd.showDialog();
 	if (gd.wasCanceled()) {
 		return;
 	}
 	final int transformation = gd.getNextChoiceIndex();
+	final boolean parallel = gd.getNextBoolean();
 	if (gd.getNextBoolean()) {
 		final stackRegCredits dialog = new stackRegCredits(IJ.getInstance());
 		GUI.center(dialog);
@@ -185,6 +211,20 @@ public void run (
 			return;
 		}
 	}
+	final Class<?> turboRegClass = getInMemoryTurboReg();
+	if (turboRegClass != null) {
+		double[] colorWeights = null;
+		if ((imp.getType() == ImagePlus.COLOR_256)
+			|| (imp.getType() == ImagePlus.COLOR_RGB)) {
+			colorWeights = getColorWeightsFromPrincipalComponents(imp);
+		}
+		registerStack(imp, turboRegClass, width, height, transformation,
+			anchorPoints, colorWeights, targetSlice,
+			(parallel) ? (Prefs.getThreads()) : (1));
+		imp.setSlice(targetSlice);
+		imp.updateAndDraw();
+		return;
+	}
 	ImagePlus source = null;
 	ImagePlus target = null;
 	double[] colorWeights = null;
@@ -636,16 +676,27 @@ private ImagePlus getGray32 (
 	final ImagePlus imp,
 	final double[] colorWeights
 ) {
-	final int length = imp.getWidth() * imp.getHeight();
 	final ImagePlus gray32 = new ImagePlus(title,
 		new FloatProcessor(imp.getWidth(), imp.getHeight()));
-	final float[] gray = (float[])gray32.getProcessor().getPixels();
+	getGray32(imp.getProcessor().getPixels(), imp.getProcessor().getColorModel(),
+		colorWeights, (float[])gray32.getProcessor().getPixels());
+	return(gray32);
+} /* getGray32 */
+
+/*------------------------------------------------------------------*/
+private void getGray32 (
+	final Object pixelArray,
+	final ColorModel cm,
+	final double[] colorWeights,
+	final float[] gray
+) {
+	final int length = gray.length;
 	double r;
 	double g;
 	double b;
-	if (imp.getProcessor().getPixels() instanceof byte[]) {
-		final byte[] pixels = (byte[])imp.getProcessor().getPixels();
-		final IndexColorModel icm = (IndexColorModel)imp.getProcessor().getColorModel();
+	if (pixelArray instanceof byte[]) {
+		final byte[] pixels = (byte[])pixelArray;
+		final IndexColorModel icm = (IndexColorModel)cm;
 		final int mapSize = icm.getMapSize();
 		final byte[] reds = new byte[mapSize];
 		final byte[] greens = new byte[mapSize];
@@ -662,8 +713,8 @@ private ImagePlus getGray32 (
 			gray[k] = (float)(colorWeights[0] * r + colorWeights[1] * g + colorWeights[2] * b);
 		}
 	}
-	else if (imp.getProcessor().getPixels() instanceof int[]) {
-		final int[] pixels = (int[])imp.getProcessor().getPixels();
+	else if (pixelArray instanceof int[]) {
+		final int[] pixels = (int[])pixelArray;
 		for (int k = 0; (k < length); k++) {
 			r = (double)((pixels[k] & 0x00FF0000) >>> 16);
 			g = (double)((pixels[k] & 0x0000FF00) >>> 8);
@@ -671,9 +722,67 @@ else if (imp.getProcessor().getPixels() instanceof int[]) {
 			gray[k] = (float)(colorWeights[0] * r + colorWeights[1] * g + colorWeights[2] * b);
 		}
 	}
-	return(gray32);
 } /* getGray32 */
 
+/*------------------------------------------------------------------*/
+private float[] getGray32 (
+	final ImageStack stack,
+	final int s,
+	final int type,
+	final ColorModel cm,
+	final double[] colorWeights
+) {
+	final Object pixels = stack.getPixels(s);
+	switch (type) {
+		case ImagePlus.COLOR_256:
+		case ImagePlus.COLOR_RGB: {
+			final float[] gray = new float[stack.getWidth() * stack.getHeight()];
+			getGray32(pixels, cm, colorWeights, gray);
+			return(gray);
+		}
+		case ImagePlus.GRAY8: {
+			final byte[] bytes = (byte[])pixels;
+			final float[] gray = new float[bytes.length];
+			for (int k = 0; (k < bytes.length); k++) {
+				gray[k] = (float)(bytes[k] & 0xFF);
+			}
+			return(gray);
+		}
+		case ImagePlus.GRAY16: {
+			final short[] shorts = (short[])pixels;
+			final float[] gray = new float[shorts.length];
+			for (int k = 0; (k < shorts.length); k++) {
+				gray[k] = (float)(shorts[k] & 0xFFFF);
+			}
+			return(gray);
+		}
+		case ImagePlus.GRAY32: {
+			return((float[])pixels);
+		}
+		default: {
+			return(null);
+		}
+	}
+} /* getGray32 */
+
+/*------------------------------------------------------------------*/
+private Class<?> getInMemoryTurboReg (
+) {
+	try {
+		final Class<?> turboRegClass = IJ.getClassLoader().loadClass("TurboReg_");
+		turboRegClass.getMethod("alignImages", float[].class, float[].class,
+			int.class, int.class, int.class, double[][].class, double[][].class);
+		turboRegClass.getMethod("transformImage", float[].class, int.class,
+			int.class, int.class, int.class, int.class, double[][].class,
+			double[][].class);
+		return(turboRegClass);
+	} catch (ClassNotFoundException e) {
+		return(null);
+	} catch (NoSuchMethodException e) {
+		return(null);
+	}
+} /* getInMemoryTurboReg */
+
 /*------------------------------------------------------------------*/
 private double getLargestAbsoluteEigenvalue (
 	final double[] eigenvalue
@@ -920,6 +1029,37 @@ private double[] linearLeastSquares (
 	return(x);
 } /* end linearLeastSquares */
 
+/*------------------------------------------------------------------*/
+private double[][] matrixMultiply (
+	final double[][] a,
+	final double[][] b
+) {
+	final double[][] product = new double[3][3];
+	for (int i = 0; (i < 3); i++) {
+		for (int j = 0; (j < 3); j++) {
+			product[i][j] = 0.0;
+			for (int k = 0; (k < 3); k++) {
+				product[i][j] += a[i][k] * b[k][j];
+			}
+		}
+	}
+	return(product);
+} /* end matrixMultiply */
+
+/*------------------------------------------------------------------*/
+private Object newTurboReg (
+	final Class<?> turboRegClass
+) {
+	try {
+		return(turboRegClass.newInstance());
+	} catch (InstantiationException e) {
+		setFailure(e);
+	} catch (IllegalAccessException e) {
+		setFailure(e);
+	}
+	return(null);
+} /* end newTurboReg */
+
 /*------------------------------------------------------------------*/
 private void QRdecomposition (
 	final double[][] Q,
@@ -1803,6 +1943,268 @@ private ImagePlus registerSlice (
 	return(source);
 } /* end registerSlice */
 
+/*------------------------------------------------------------------*/
+private boolean registerStack (
+	final ImagePlus imp,
+	final Class<?> turboRegClass,
+	final int width,
+	final int height,
+	final int transformation,
+	final double[][] anchorPoints,
+	final double[] colorWeights,
+	final int targetSlice,
+	final int nThreads
+) {
+	final ImageStack stack = imp.getStack();
+	final int stackSize = stack.getSize();
+	final int type = imp.getType();
+	final ColorModel cm = imp.getProcessor().getColorModel();
+	final Method align;
+	final Method transform;
+	final int turboRegTransformation;
+	try {
+		align = turboRegClass.getMethod("alignImages", float[].class,
+			float[].class, int.class, int.class, int.class, double[][].class,
+			double[][].class);
+		transform = turboRegClass.getMethod("transformImage", float[].class,
+			int.class, int.class, int.class, int.class, int.class,
+			double[][].class, double[][].class);
+		turboRegTransformation = turboRegClass.getField(
+			TURBOREG_TRANSFORMATION[transformation]).getInt(null);
+	} catch (NoSuchMethodException e) {
+		IJ.error("Unexpected NoSuchMethodException " + e);
+		return(false);
+	} catch (NoSuchFieldException e) {
+		IJ.error("Unexpected NoSuchFieldException " + e);
+		return(false);
+	} catch (IllegalAccessException e) {
+		IJ.error("Unexpected IllegalAccessException " + e);
+		return(false);
+	}
+	final int pairs = stackSize - 1;
+	final int[] sources = new int[pairs];
+	final int[] targets = new int[pairs];
+	int n = 0;
+	for (int s = targetSlice - 1; (0 < s); s--) {
+		sources[n] = s;
+		targets[n++] = s + 1;
+	}
+	for (int s = targetSlice + 1; (s <= stackSize); s++) {
+		sources[n] = s;
+		targets[n++] = s - 1;
+	}
+	final double[][][] localTransform = new double[stackSize + 1][][];
+	final AtomicInteger nextChunk = new AtomicInteger(0);
+	failure = null;
+	runThreads(nThreads, new Runnable() {
+		public void run () {
+			final Object turboReg = newTurboReg(turboRegClass);
+			for (int c = nextChunk.getAndIncrement();
+				((turboReg != null) && (failure == null) && (c * PAIRS_PER_CHUNK < pairs));
+				c = nextChunk.getAndIncrement()) {
+				float[] previous = null;
+				int previousSlice = -1;
+				final int end = Math.min(pairs, (c + 1) * PAIRS_PER_CHUNK);
+				for (int i = c * PAIRS_PER_CHUNK; (i < end); i++) {
+					final float[] target = (targets[i] == previousSlice) ? (previous)
+						: (getGray32(stack, targets[i], type, cm, colorWeights));
+					final float[] source = getGray32(stack, sources[i], type, cm,
+						colorWeights);
+					try {
+						final double[][] sourcePoints = (double[][])align.invoke(
+							turboReg, source, target, width, height,
+							turboRegTransformation, anchorPoints, anchorPoints);
+						localTransform[sources[i]] = getTransformationMatrix(
+							anchorPoints, sourcePoints, transformation);
+					} catch (IllegalAccessException e) {
+						setFailure(e);
+						return;
+					} catch (InvocationTargetException e) {
+						setFailure(e.getCause());
+						return;
+					}
+					previous = source;
+					previousSlice = sources[i];
+				}
+				IJ.showStatus("StackReg: " + Math.min(end, pairs) + "/" + pairs);
+			}
+		}
+	});
+	if (failure != null) {
+		IJ.error("Unexpected exception " + failure);
+		return(false);
+	}
+	final double[][][] globalTransform = new double[stackSize + 1][][];
+	globalTransform[targetSlice] = new double[][] {
+		{1.0, 0.0, 0.0},
+		{0.0, 1.0, 0.0},
+		{0.0, 0.0, 1.0}
+	};
+	for (int s = targetSlice - 1; (0 < s); s--) {
+		globalTransform[s] = matrixMultiply(localTransform[s],
+			globalTransform[s + 1]);
+	}
+	for (int s = targetSlice + 1; (s <= stackSize); s++) {
+		globalTransform[s] = matrixMultiply(localTransform[s],
+			globalTransform[s - 1]);
+	}
+	final AtomicInteger nextSlice = new AtomicInteger(1);
+	runThreads(nThreads, new Runnable() {
+		public void run () {
+			final Object turboReg = newTurboReg(turboRegClass);
+			for (int s = nextSlice.getAndIncrement();
+				((turboReg != null) && (failure == null) && (s <= stackSize));
+				s = nextSlice.getAndIncrement()) {
+				if (s == targetSlice) {
+					continue;
+				}
+				final double[][] sourcePoints = new double[anchorPoints.length][3];
+				for (int k = 0; (k < anchorPoints.length); k++) {
+					for (int i = 0; (i < 3); i++) {
+						sourcePoints[k][i] = 0.0;
+						for (int j = 0; (j < 3); j++) {
+							sourcePoints[k][i] += globalTransform[s][i][j]
+								* anchorPoints[k][j];
+						}
+					}
+				}
+				try {
+					transformSlice(turboReg, transform, stack, s, type, cm, width,
+						height, turboRegTransformation, sourcePoints, anchorPoints);
+				} catch (IllegalAccessException e) {
+					setFailure(e);
+					return;
+				} catch (InvocationTargetException e) {
+					setFailure(e.getCause());
+					return;
+				}
+			}
+		}
+	});
+	if (failure != null) {
+		IJ.error("Unexpected exception " + failure);
+		return(false);
+	}
+	return(true);
+} /* end registerStack */
+
+/*------------------------------------------------------------------*/
+private void runThreads (
+	final int nThreads,
+	final Runnable runnable
+) {
+	final Thread[] threads = new Thread[Math.max(1, nThreads)];
+	for (int k = 0; (k < threads.length); k++) {
+		threads[k] = new Thread(runnable, "StackReg " + k);
+		threads[k].start();
+	}
+	try {
+		for (int k = 0; (k < threads.length); k++) {
+			threads[k].join();
+		}
+	} catch (InterruptedException e) {
+		for (int k = 0; (k < threads.length); k++) {
+			threads[k].interrupt();
+		}
+		setFailure(e);
+	}
+} /* end runThreads */
+
+/*------------------------------------------------------------------*/
+private synchronized void setFailure (
+	final Throwable e
+) {
+	if (failure == null) {
+		failure = e;
+	}
+} /* end setFailure */
+
+/*------------------------------------------------------------------*/
+private void transformSlice (
+	final Object turboReg,
+	final Method transform,
+	final ImageStack stack,
+	final int s,
+	final int type,
+	final ColorModel cm,
+	final int width,
+	final int height,
+	final int turboRegTransformation,
+	final double[][] sourcePoints,
+	final double[][] targetPoints
+) throws IllegalAccessException, InvocationTargetException {
+	switch (type) {
+		case ImagePlus.COLOR_256:
+		case ImagePlus.COLOR_RGB: {
+			final ColorProcessor cp;
+			if (type == ImagePlus.COLOR_256) {
+				final ImageProcessor ip = new ByteProcessor(width, height,
+					(byte[])stack.getPixels(s), cm);
+				cp = (ColorProcessor)ip.convertToRGB();
+			}
+			else {
+				cp = new ColorProcessor(width, height, (int[])stack.getPixels(s));
+			}
+			final byte[][] rgb = new byte[3][width * height];
+			cp.getRGB(rgb[0], rgb[1], rgb[2]);
+			for (int c = 0; (c < 3); c++) {
+				final float[] channel = new float[width * height];
+				for (int k = 0; (k < channel.length); k++) {
+					channel[k] = (float)(rgb[c][k] & 0xFF);
+				}
+				final FloatProcessor fp = new FloatProcessor(width, height,
+					(float[])transform.invoke(turboReg, channel, width, height,
+					width, height, turboRegTransformation, sourcePoints,
+					targetPoints), null);
+				fp.setMinAndMax(0.0, 255.0);
+				rgb[c] = (byte[])fp.convertToByte(true).getPixels();
+			}
+			if (type == ImagePlus.COLOR_256) {
+				final IndexColorModel icm = (IndexColorModel)cm;
+				final byte[] pixels = (byte[])stack.getPixels(s);
+				final int[] color = new int[4];
+				color[3] = 255;
+				for (int k = 0; (k < pixels.length); k++) {
+					color[0] = (int)(rgb[0][k] & 0xFF);
+					color[1] = (int)(rgb[1][k] & 0xFF);
+					color[2] = (int)(rgb[2][k] & 0xFF);
+					pixels[k] = (byte)icm.getDataElement(color, 0);
+				}
+			}
+			else {
+				cp.setRGB(rgb[0], rgb[1], rgb[2]);
+			}
+			break;
+		}
+		case ImagePlus.GRAY8:
+		case ImagePlus.GRAY16:
+		case ImagePlus.GRAY32: {
+			final float[] transformed = (float[])transform.invoke(turboReg,
+				getGray32(stack, s, type, cm, null), width, height, width, height,
+				turboRegTransformation, sourcePoints, targetPoints);
+			final FloatProcessor fp = new FloatProcessor(width, height,
+				transformed, null);
+			switch (type) {
+				case ImagePlus.GRAY8: {
+					fp.setMinAndMax(0.0, 255.0);
+					stack.setPixels(fp.convertToByte(true).getPixels(), s);
+					break;
+				}
+				case ImagePlus.GRAY16: {
+					fp.setMinAndMax(0.0, 65535.0);
+					stack.setPixels(fp.convertToShort(true).getPixels(), s);
+					break;
+				}
+				case ImagePlus.GRAY32: {
+					stack.setPixels(transformed, s);
+					break;
+				}
+			}
+			break;
+		}
+	}
+} /* end transformSlice */
+
 } /* end class StackReg_ */
 
 /*====================================================================
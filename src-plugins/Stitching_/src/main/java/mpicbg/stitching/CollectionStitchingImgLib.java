@@ -1,11 +1,13 @@
 package mpicbg.stitching;
 
 import ij.IJ;
+import ij.ImagePlus;
 import ij.gui.Roi;
 
 import java.awt.Rectangle;
 import java.util.ArrayList;
 import java.util.Vector;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import mpicbg.imglib.multithreading.SimpleMultiThreading;
@@ -43,6 +45,10 @@ public static ArrayList< ImagePlusTimePoint > stitchCollection( final ArrayList<
 			else
 				numThreads = Runtime.getRuntime().availableProcessors();
 			
+			// limit the memory used by the pairwise stitchings that run at the same time (in MB)
+			final int memoryBudget = getMemoryBudget();
+			final Semaphore memory = new Semaphore( memoryBudget );
+			
 	        final Thread[] threads = SimpleMultiThreading.newThreads( numThreads );
 	    	
 	        for ( int ithread = 0; ithread < threads.length; ++ithread )
@@ -50,37 +56,46 @@ public static ArrayList< ImagePlusTimePoint > stitchCollection( final ArrayList<
 	            {
 	                public void run()
 	                {		
-	                   	final int myNumber = ai.getAndIncrement();
-	                    
-	                    for ( int i = 0; i < pairs.size(); i++ )
+	                	// each thread takes the next pair that has not been computed yet
+	                    for ( int i = ai.getAndIncrement(); i < pairs.size(); i = ai.getAndIncrement() )
 	                    {
-	                    	if ( i % numThreads == myNumber )
-	                    	{
-	                    		final ComparePair pair = pairs.get( i );
-	                    		
-	                    		long start = System.currentTimeMillis();			
-	                			
-	                    		// where do we approximately overlap?
-	                			final Roi roi1 = getROI( pair.getTile1().getElement(), pair.getTile2().getElement() );
-	                			final Roi roi2 = getROI( pair.getTile2().getElement(), pair.getTile1().getElement() );
-	                			
-	            				final PairWiseStitchingResult result = PairWiseStitchingImgLib.stitchPairwise( pair.getImagePlus1(), pair.getImagePlus2(), roi1, roi2, pair.getTimePoint1(), pair.getTimePoint2(), params );			
-	            				if ( result == null )
-	            				{
-	            					IJ.log( "Collection stitching failed" );
-	            					return;
-	            				}
-	
-	            				if ( params.dimensionality == 2 )
-	            					pair.setRelativeShift( new float[]{ result.getOffset( 0 ), result.getOffset( 1 ) } );
-	            				else
-	            					pair.setRelativeShift( new float[]{ result.getOffset( 0 ), result.getOffset( 1 ), result.getOffset( 2 ) } );
-	            				
-	            				pair.setCrossCorrelation( result.getCrossCorrelation() );
-	
-	            				IJ.log( pair.getImagePlus1().getTitle() + "[" + pair.getTimePoint1() + "]" + " <- " + pair.getImagePlus2().getTitle() + "[" + pair.getTimePoint2() + "]" + ": " + 
-	            						Util.printCoordinates( result.getOffset() ) + " correlation (R)=" + result.getCrossCorrelation() + " (" + (System.currentTimeMillis() - start) + " ms)");
-	                    	}
+                    		final ComparePair pair = pairs.get( i );
+                    		
+                    		long start = System.currentTimeMillis();			
+                			
+                    		// where do we approximately overlap?
+                			final Roi roi1 = getROI( pair.getTile1().getElement(), pair.getTile2().getElement() );
+                			final Roi roi2 = getROI( pair.getTile2().getElement(), pair.getTile1().getElement() );
+                			
+                			final int requiredMemory = Math.min( memoryBudget, estimateMemory( pair, roi1, roi2, params.dimensionality ) );
+                			memory.acquireUninterruptibly( requiredMemory );
+                			
+                			final PairWiseStitchingResult result;
+                			
+                			try
+                			{
+                				result = PairWiseStitchingImgLib.stitchPairwise( pair.getImagePlus1(), pair.getImagePlus2(), roi1, roi2, pair.getTimePoint1(), pair.getTimePoint2(), params );
+                			}
+                			finally
+                			{
+                				memory.release( requiredMemory );
+                			}
+                			
+            				if ( result == null )
+            				{
+            					IJ.log( "Collection stitching failed" );
+            					return;
+            				}
+
+            				if ( params.dimensionality == 2 )
+            					pair.setRelativeShift( new float[]{ result.getOffset( 0 ), result.getOffset( 1 ) } );
+            				else
+            					pair.setRelativeShift( new float[]{ result.getOffset( 0 ), result.getOffset( 1 ), result.getOffset( 2 ) } );
+            				
+            				pair.setCrossCorrelation( result.getCrossCorrelation() );
+
+            				IJ.log( pair.getImagePlus1().getTitle() + "[" + pair.getTimePoint1() + "]" + " <- " + pair.getImagePlus2().getTitle() + "[" + pair.getTimePoint2() + "]" + ": " + 
+            						Util.printCoordinates( result.getOffset() ) + " correlation (R)=" + result.getCrossCorrelation() + " (" + (System.currentTimeMillis() - start) + " ms)");
 	                    }
 	                }
 	            });
@@ -187,8 +202,11 @@ protected static Vector< ComparePair > findOverlappingTiles( final ArrayList< Im
 		}
 		// end of addition
 
+		// only test the tiles that are close according to the spatial index
+		final TileIndex index = new TileIndex( elements, params.dimensionality );
+		
 		for ( int i = 0; i < elements.size() - 1; i++ )
-			for ( int j = i + 1; j < elements.size(); j++ )
+			for ( final int j : index.getCandidates( i ) )
 			{
 				final ImageCollectionElement e1 = elements.get( i );
 				final ImageCollectionElement e2 = elements.get( j );
@@ -214,4 +232,53 @@ protected static Vector< ComparePair > findOverlappingTiles( final ArrayList< Im
 		
 		return overlappingTiles;
 	}
+
+	/**
+	 * The memory (in MB) that the pairwise stitchings running in parallel may use, 3/4 of what is currently available
+	 */
+	protected static int getMemoryBudget()
+	{
+		final Runtime runtime = Runtime.getRuntime();
+		final long available = runtime.maxMemory() - ( runtime.totalMemory() - runtime.freeMemory() );
+		
+		return (int)Math.max( 1, Math.min( Integer.MAX_VALUE, ( available / 4 * 3 ) / ( 1024 * 1024 ) ) );
+	}
+
+	/**
+	 * Estimates the memory (in MB) needed for the phase correlation of one pair: both images are copied to
+	 * float, extended to a size suitable for the FFT (up to twice as large) and transformed into complex images,
+	 * plus the phase correlation matrix.
+	 */
+	protected static int estimateMemory( final ComparePair pair, final Roi roi1, final Roi roi2, final int dimensionality )
+	{
+		final ImagePlus imp1 = pair.getImagePlus1();
+		final ImagePlus imp2 = pair.getImagePlus2();
+		
+		long numPixels = 1;
+		
+		for ( int d = 0; d < dimensionality; ++d )
+		{
+			final int size1 = getSize( imp1, roi1, d );
+			final int size2 = getSize( imp2, roi2, d );
+			
+			numPixels *= 2 * Math.max( size1, size2 );
+		}
+		
+		// 2 float copies, 2 complex images and the float phase correlation matrix
+		final long bytes = numPixels * ( 4 + 4 + 8 + 8 + 4 );
+		
+		return (int)Math.min( Integer.MAX_VALUE, Math.max( 1, bytes / ( 1024 * 1024 ) ) );
+	}
+	
+	private static int getSize( final ImagePlus imp, final Roi roi, final int d )
+	{
+		if ( d == 2 )
+			return imp.getNSlices();
+		
+		// getROI() returns a negative size if the images do not overlap in this dimension
+		if ( roi != null && roi.getBounds().width > 0 && roi.getBounds().height > 0 )
+			return d == 0 ? roi.getBounds().width : roi.getBounds().height;
+		
+		return d == 0 ? imp.getWidth() : imp.getHeight();
+	}
 }
@@ -34,7 +34,7 @@ public class StitchingParameters
 	public int timeSelect;
 	
 	public int cpuMemChoice = 0;
-	// 0 == fuse&display, 1 == writeToDisk
+	// 0 == fuse&display, 1 == writeToDisk, 2 == writeToDisk block-wise
 	public int outputVariant = 0;
 	public String outputDirectory = null;
 	
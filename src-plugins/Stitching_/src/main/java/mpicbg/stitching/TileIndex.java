@@ -0,0 +1,173 @@
+package mpicbg.stitching;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A uniform grid over the bounding boxes of {@link ImageCollectionElement}s. Each cell has
+ * the size of an average tile, so looking up the tiles that might overlap a given tile only
+ * touches a few cells instead of all other tiles. The offsets and sizes of the elements
+ * must be set (i.e. the elements have been opened) before the index is built.
+ */
+public class TileIndex
+{
+	final List< ImageCollectionElement > elements;
+	final int numDimensions;
+
+	// the size of one cell in each dimension
+	final float[] cellSize;
+
+	// the indices of all elements whose bounding box touches a cell
+	final HashMap< Long, ArrayList< Integer > > cells = new HashMap< Long, ArrayList< Integer > >();
+
+	// the range of cells covered by each element
+	final int[][] minCell, maxCell;
+
+	// the lookup in which each element was last tested, so that an element found in several
+	// cells is only tested once without clearing an array over all elements for each lookup
+	final int[] testedIn;
+	int lookup = 0;
+
+	public TileIndex( final List< ImageCollectionElement > elements, final int numDimensions )
+	{
+		this.elements = elements;
+		this.numDimensions = numDimensions;
+		this.cellSize = new float[ numDimensions ];
+
+		final int numElements = elements.size();
+
+		// the average tile size defines the cell size
+		for ( final ImageCollectionElement e : elements )
+			for ( int d = 0; d < numDimensions; ++d )
+				cellSize[ d ] += e.size[ d ];
+
+		for ( int d = 0; d < numDimensions; ++d )
+			cellSize[ d ] = Math.max( 1, cellSize[ d ] / Math.max( 1, numElements ) );
+
+		this.minCell = new int[ numElements ][ numDimensions ];
+		this.maxCell = new int[ numElements ][ numDimensions ];
+		this.testedIn = new int[ numElements ];
+
+		for ( int i = 0; i < numElements; ++i )
+		{
+			final ImageCollectionElement e = elements.get( i );
+
+			for ( int d = 0; d < numDimensions; ++d )
+			{
+				minCell[ i ][ d ] = (int)Math.floor( e.offset[ d ] / cellSize[ d ] );
+				maxCell[ i ][ d ] = (int)Math.floor( ( e.offset[ d ] + e.size[ d ] ) / cellSize[ d ] );
+			}
+
+			final int[] cell = minCell[ i ].clone();
+
+			do
+			{
+				final Long key = key( cell );
+				ArrayList< Integer > list = cells.get( key );
+
+				if ( list == null )
+				{
+					list = new ArrayList< Integer >();
+					cells.put( key, list );
+				}
+
+				list.add( i );
+			}
+			while ( next( cell, minCell[ i ], maxCell[ i ] ) );
+		}
+	}
+
+	/**
+	 * Returns all elements with a larger index than the given one whose bounding box
+	 * intersects the bounding box of the given element (borders included).
+	 *
+	 * @param i - the index of the element in the list
+	 * @return - the indices of the candidates, sorted ascending
+	 */
+	public synchronized int[] getCandidates( final int i )
+	{
+		final ImageCollectionElement e1 = elements.get( i );
+		final ArrayList< Integer > candidates = new ArrayList< Integer >();
+		final int[] cell = minCell[ i ].clone();
+
+		if ( ++lookup == 0 )
+		{
+			// the counter wrapped around, start over
+			Arrays.fill( testedIn, 0 );
+			lookup = 1;
+		}
+
+		do
+		{
+			final ArrayList< Integer > list = cells.get( key( cell ) );
+
+			if ( list != null )
+			{
+				for ( final int j : list )
+				{
+					if ( j <= i || testedIn[ j ] == lookup )
+						continue;
+
+					testedIn[ j ] = lookup;
+
+					if ( intersects( e1, elements.get( j ) ) )
+						candidates.add( j );
+				}
+			}
+		}
+		while ( next( cell, minCell[ i ], maxCell[ i ] ) );
+
+		final int[] result = new int[ candidates.size() ];
+		for ( int k = 0; k < result.length; ++k )
+			result[ k ] = candidates.get( k );
+
+		Arrays.sort( result );
+
+		return result;
+	}
+
+	protected boolean intersects( final ImageCollectionElement e1, final ImageCollectionElement e2 )
+	{
+		for ( int d = 0; d < numDimensions; ++d )
+			if ( e2.offset[ d ] > e1.offset[ d ] + e1.size[ d ] || e1.offset[ d ] > e2.offset[ d ] + e2.size[ d ] )
+				return false;
+
+		return true;
+	}
+
+	/**
+	 * Moves to the next cell within [min, max], x is the fastest dimension
+	 *
+	 * @return - false if all cells have been visited
+	 */
+	protected static boolean next( final int[] cell, final int[] min, final int[] max )
+	{
+		for ( int d = 0; d < cell.length; ++d )
+		{
+			if ( cell[ d ] < max[ d ] )
+			{
+				++cell[ d ];
+				return true;
+			}
+
+			cell[ d ] = min[ d ];
+		}
+
+		return false;
+	}
+
+	/**
+	 * Packs the cell coordinates into one key (21 bits per dimension)
+	 */
+	protected static Long key( final int[] cell )
+	{
+		long key = 0;
+
+		for ( int d = 0; d < cell.length; ++d )
+			key = ( key << 21 ) | ( cell[ d ] & 0x1FFFFF );
+
+		return key;
+	}
+}
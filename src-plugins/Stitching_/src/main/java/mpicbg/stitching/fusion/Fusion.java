@@ -9,9 +9,15 @@
 import ij.io.FileSaver;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import mpicbg.imglib.container.array.ArrayContainerFactory;
@@ -46,6 +52,11 @@
  */
 public class Fusion 
 {
+	/**
+	 * The size of the blocks used by {@link #fuseBlockwise(RealType, ArrayList, ArrayList, int, boolean, int, String, boolean)} (x, y, z)
+	 */
+	public static int[] blockSize = new int[] { 512, 512, 64 };
+	
 	/**
 	 * 
 	 * @param targetType
@@ -100,35 +111,6 @@ public static < T extends RealType< T > > ImagePlus fuse( final T targetType, fi
 				// init the fusion
 				PixelFusion fusion = null;
 				
-				if ( fusionType == 1 )
-				{
-					if ( ignoreZeroValues )
-						fusion = new AveragePixelFusionIgnoreZero();
-					else
-						fusion = new AveragePixelFusion();
-				}
-				else if ( fusionType == 2 )
-				{
-					if ( ignoreZeroValues )
-						fusion = new MedianPixelFusionIgnoreZero();
-					else
-						fusion = new MedianPixelFusion();
-				}
-				else if ( fusionType == 3 )
-				{
-					if ( ignoreZeroValues )
-						fusion = new MaxPixelFusionIgnoreZero();
-					else
-						fusion = new MaxPixelFusion();
-				}
-				else if ( fusionType == 4 )
-				{
-					if ( ignoreZeroValues )
-						fusion = new MinPixelFusionIgnoreZero();
-					else
-						fusion = new MinPixelFusion();	
-				}
-				
 				// extract the complete blockdata
 				if ( subpixelResolution )
 				{
@@ -140,14 +122,8 @@ else if ( fusionType == 4 )
 					for ( final ImagePlus imp : images )
 						blockData.add( new ImageInterpolation<FloatType>( ImageJFunctions.convertFloat( Hyperstack_rearranger.getImageChunk( imp, c, t ) ), interpolatorFactory ) );
 					
-					// init blending with the images
-					if ( fusionType == 0 )
-					{
-						if ( ignoreZeroValues )
-							fusion = new BlendingPixelFusionIgnoreZero( blockData );
-						else
-							fusion = new BlendingPixelFusion( blockData );
-					}
+					// init the fusion (blending needs the images)
+					fusion = createPixelFusion( fusionType, ignoreZeroValues, blockData );
 					
 					if ( outputDirectory == null )
 					{
@@ -185,14 +161,8 @@ else if ( imp.getType() == ImagePlus.GRAY16 )
 							blockData.add( new ImageInterpolation<UnsignedByteType>( ImageJFunctions.wrapByte( Hyperstack_rearranger.getImageChunk( imp, c, t ) ), interpolatorFactoryByte ) );
 					}
 					
-					// init blending with the images
-					if ( fusionType == 0 )
-					{
-						if ( ignoreZeroValues )
-							fusion = new BlendingPixelFusionIgnoreZero( blockData );
-						else
-							fusion = new BlendingPixelFusion( blockData );					
-					}
+					// init the fusion (blending needs the images)
+					fusion = createPixelFusion( fusionType, ignoreZeroValues, blockData );
 					
 					if ( outputDirectory == null )
 					{
@@ -262,6 +232,462 @@ else if ( imp.getType() == ImagePlus.GRAY16 )
 		}
 	}
 	
+	/**
+	 * Fuses the images block by block and streams the result into a raw file, so that the fused image is never
+	 * held in memory. For every block only the tiles whose transformed bounds intersect it are opened, and a tile
+	 * is released as soon as the last block that needs it has been written.
+	 * 
+	 * The raw file is big-endian, planes are stored in XYCZT order (the ImageJ hyperstack default), it can
+	 * be opened with File &gt; Import &gt; Raw... using the dimensions written to the log window.
+	 * 
+	 * @param targetType - the type of the output (UnsignedByteType, UnsignedShortType or FloatType)
+	 * @param images - all input images
+	 * @param models - the models of all images (for more than one timepoint see {@link #estimateBounds(float[], int[], int[][], ArrayList, int)})
+	 * @param dimensionality - which dimensionality (2 or 3)
+	 * @param subpixelResolution - if there is no subpixel resolution, we do not need to convert to float as no interpolation is necessary
+	 * @param fusionType - as in {@link #fuse(RealType, ArrayList, ArrayList, int, boolean, int, String, boolean, boolean)}
+	 * @param outputDirectory - where to write the raw file
+	 * @param ignoreZeroValues - do not take zero values into account for the fusion
+	 * @return - the raw file that was written, or null if the fusion failed
+	 */
+	public static < T extends RealType< T > > File fuseBlockwise( final T targetType, final ArrayList< ImagePlus > images, final ArrayList< InvertibleBoundable > models, 
+			final int dimensionality, final boolean subpixelResolution, final int fusionType, final String outputDirectory, final boolean ignoreZeroValues )
+	{
+		final float[] offset = new float[ dimensionality ];
+		final int[] size = new int[ dimensionality ];
+		final int numImages = images.size();
+		final int numTimePoints = images.get( 0 ).getNFrames();
+		final int numChannels = images.get( 0 ).getNChannels();
+		
+		estimateBounds( offset, size, images, models, dimensionality );
+		
+		if ( subpixelResolution )
+			for ( int d = 0; d < size.length; ++d )
+				++size[ d ];
+		
+		// always work in 3d, a 2d image is just one slice
+		final int[] outSize = new int[] { size[ 0 ], size[ 1 ], dimensionality == 3 ? size[ 2 ] : 1 };
+		final int[] block = new int[ 3 ];
+		final int[] numBlocks = new int[ 3 ];
+		
+		for ( int d = 0; d < 3; ++d )
+		{
+			block[ d ] = Math.max( 1, Math.min( blockSize[ d ], outSize[ d ] ) );
+			numBlocks[ d ] = ( outSize[ d ] + block[ d ] - 1 ) / block[ d ];
+		}
+		
+		final int totalBlocks = numBlocks[ 0 ] * numBlocks[ 1 ] * numBlocks[ 2 ];
+		
+		final int bytesPerPixel;
+		final String typeName;
+		
+		if ( targetType instanceof UnsignedByteType )
+		{
+			bytesPerPixel = 1;
+			typeName = "8-bit";
+		}
+		else if ( targetType instanceof UnsignedShortType )
+		{
+			bytesPerPixel = 2;
+			typeName = "16-bit Unsigned";
+		}
+		else
+		{
+			bytesPerPixel = 4;
+			typeName = "32-bit Real";
+		}
+		
+		final File file = new File( outputDirectory, "Fused.raw" );
+		RandomAccessFile raf = null;
+		
+		try
+		{
+			raf = new RandomAccessFile( file, "rw" );
+			raf.setLength( 0 );
+			final FileChannel channel = raf.getChannel();
+			
+			// one block of the output, reused for all blocks
+			final float[] blockPixels = new float[ block[ 0 ] * block[ 1 ] * block[ 2 ] ];
+			final ByteBuffer row = ByteBuffer.allocate( block[ 0 ] * bytesPerPixel );
+			
+			for ( int t = 1; t <= numTimePoints; ++t )
+			{
+				// the models of this timepoint
+				final ArrayList< InvertibleBoundable > tpModels = new ArrayList< InvertibleBoundable >();
+				for ( int i = 0; i < numImages; ++i )
+					tpModels.add( models.get( models.size() >= numImages * t ? ( t - 1 ) * numImages + i : i ) );
+				
+				// which tiles are needed by which block, and which block needs a tile for the last time
+				final int[][] tilesPerBlock = new int[ totalBlocks ][];
+				final int[] lastUse = computeTilesPerBlock( images, tpModels, dimensionality, offset, outSize, block, numBlocks, tilesPerBlock );
+				
+				for ( int c = 1; c <= numChannels; ++c )
+				{
+					// the tiles that are currently open
+					final ArrayList< ImageInterpolation< ? extends RealType< ? > > > open = new ArrayList< ImageInterpolation< ? extends RealType< ? > > >();
+					for ( int i = 0; i < numImages; ++i )
+						open.add( null );
+					
+					int b = 0;
+					
+					for ( int bz = 0; bz < numBlocks[ 2 ]; ++bz )
+						for ( int by = 0; by < numBlocks[ 1 ]; ++by )
+							for ( int bx = 0; bx < numBlocks[ 0 ]; ++bx, ++b )
+							{
+								IJ.showStatus( "Fusing time point: " + t + " of " + numTimePoints + ", " +
+										"channel: " + c + " of " + numChannels + ", block: " + ( b + 1 ) + " of " + totalBlocks + "..." );
+								IJ.showProgress( b, totalBlocks );
+								
+								final int[] min = new int[] { bx * block[ 0 ], by * block[ 1 ], bz * block[ 2 ] };
+								final int[] dim = new int[ 3 ];
+								for ( int d = 0; d < 3; ++d )
+									dim[ d ] = Math.min( block[ d ], outSize[ d ] - min[ d ] );
+								
+								// open the tiles of this block and fuse it
+								final ArrayList< ImageInterpolation< ? extends RealType< ? > > > blockData = new ArrayList< ImageInterpolation< ? extends RealType< ? > > >();
+								final ArrayList< InvertibleBoundable > blockModels = new ArrayList< InvertibleBoundable >();
+								
+								for ( final int i : tilesPerBlock[ b ] )
+								{
+									if ( open.get( i ) == null )
+										open.set( i, openTile( images.get( i ), c, t, subpixelResolution ) );
+									
+									blockData.add( open.get( i ) );
+									blockModels.add( tpModels.get( i ) );
+								}
+								
+								if ( blockData.size() == 0 )
+									Arrays.fill( blockPixels, 0, dim[ 0 ] * dim[ 1 ] * dim[ 2 ], 0 );
+								else if ( !fuseBlock( blockPixels, min, dim, dimensionality, blockData, offset, blockModels, createPixelFusion( fusionType, ignoreZeroValues, blockData ) ) )
+									return null;
+								
+								// write the block row by row
+								for ( int z = 0; z < dim[ 2 ]; ++z )
+								{
+									final long plane = ( (long)( t - 1 ) * outSize[ 2 ] + min[ 2 ] + z ) * numChannels + ( c - 1 );
+									
+									for ( int y = 0; y < dim[ 1 ]; ++y )
+									{
+										row.clear();
+										final int index = ( z * dim[ 1 ] + y ) * dim[ 0 ];
+										
+										for ( int x = 0; x < dim[ 0 ]; ++x )
+											putValue( row, blockPixels[ index + x ], bytesPerPixel );
+										
+										row.flip();
+										long position = ( ( plane * outSize[ 1 ] + min[ 1 ] + y ) * outSize[ 0 ] + min[ 0 ] ) * bytesPerPixel;
+										while ( row.hasRemaining() )
+											position += channel.write( row, position );
+									}
+								}
+								
+								// release the tiles that are not needed anymore (the wrapped ImagePlus might be the input, so we do not close it)
+								for ( final int i : tilesPerBlock[ b ] )
+									if ( lastUse[ i ] == b )
+										open.set( i, null );
+							}
+				}
+			}
+		}
+		catch ( IOException e )
+		{
+			IJ.log( "Cannot write fused image to '" + file.getAbsolutePath() + "': " + e );
+			return null;
+		}
+		finally
+		{
+			try
+			{
+				if ( raf != null )
+					raf.close();
+			}
+			catch ( IOException e ) {}
+		}
+		
+		IJ.showProgress( 1.0 );
+		IJ.showStatus( "Fusion complete." );
+		IJ.log( "Fused image written to '" + file.getAbsolutePath() + "' (" + typeName + ", big-endian, width=" + outSize[ 0 ] + ", height=" + outSize[ 1 ] + 
+				", images=" + ( outSize[ 2 ] * numChannels * numTimePoints ) + ", channels=" + numChannels + ", slices=" + outSize[ 2 ] + ", frames=" + numTimePoints + ", order=xyczt)" );
+		
+		return file;
+	}
+	
+	/**
+	 * Computes which tiles intersect which output block, based on the transformed bounds of every tile.
+	 * 
+	 * @param images - all input images
+	 * @param models - the models of the current timepoint
+	 * @param dimensionality - which dimensionality (2 or 3)
+	 * @param offset - the offset of the output image
+	 * @param outSize - the size of the output image (always 3d)
+	 * @param block - the size of a block (always 3d)
+	 * @param numBlocks - the number of blocks in each dimension
+	 * @param tilesPerBlock - will be filled with the indices of the tiles that intersect each block
+	 * @return - for each tile the index of the last block that needs it (-1 if no block needs it)
+	 */
+	protected static int[] computeTilesPerBlock( final List< ImagePlus > images, final ArrayList< InvertibleBoundable > models, final int dimensionality, 
+			final float[] offset, final int[] outSize, final int[] block, final int[] numBlocks, final int[][] tilesPerBlock )
+	{
+		final int numImages = images.size();
+		final int[] lastUse = new int[ numImages ];
+		Arrays.fill( lastUse, -1 );
+		
+		// the range of blocks covered by each tile
+		final int[][] minBlock = new int[ numImages ][ 3 ];
+		final int[][] maxBlock = new int[ numImages ][ 3 ];
+		
+		for ( int i = 0; i < numImages; ++i )
+		{
+			final ImagePlus imp = images.get( i );
+			final float[] min = new float[ dimensionality ];
+			final float[] max = dimensionality == 3 ? 
+					new float[] { imp.getWidth(), imp.getHeight(), imp.getNSlices() } : new float[] { imp.getWidth(), imp.getHeight() };
+			
+			models.get( i ).estimateBounds( min, max );
+			
+			for ( int d = 0; d < 3; ++d )
+			{
+				if ( d < dimensionality )
+				{
+					// the image might be rotated so that min is actually max, add one pixel for the interpolation
+					final float lo = Math.min( min[ d ], max[ d ] ) - offset[ d ] - 1;
+					final float hi = Math.max( min[ d ], max[ d ] ) - offset[ d ] + 1;
+					
+					minBlock[ i ][ d ] = Math.max( 0, (int)Math.floor( lo ) / block[ d ] );
+					maxBlock[ i ][ d ] = Math.min( numBlocks[ d ] - 1, (int)Math.ceil( hi ) / block[ d ] );
+				}
+				else
+				{
+					minBlock[ i ][ d ] = 0;
+					maxBlock[ i ][ d ] = numBlocks[ d ] - 1;
+				}
+			}
+		}
+		
+		int b = 0;
+		final ArrayList< Integer > tiles = new ArrayList< Integer >();
+		
+		for ( int bz = 0; bz < numBlocks[ 2 ]; ++bz )
+			for ( int by = 0; by < numBlocks[ 1 ]; ++by )
+				for ( int bx = 0; bx < numBlocks[ 0 ]; ++bx, ++b )
+				{
+					tiles.clear();
+					
+					for ( int i = 0; i < numImages; ++i )
+						if ( bx >= minBlock[ i ][ 0 ] && bx <= maxBlock[ i ][ 0 ] && 
+							 by >= minBlock[ i ][ 1 ] && by <= maxBlock[ i ][ 1 ] &&
+							 bz >= minBlock[ i ][ 2 ] && bz <= maxBlock[ i ][ 2 ] )
+						{
+							tiles.add( i );
+							lastUse[ i ] = b;
+						}
+					
+					tilesPerBlock[ b ] = new int[ tiles.size() ];
+					for ( int j = 0; j < tiles.size(); ++j )
+						tilesPerBlock[ b ][ j ] = tiles.get( j );
+				}
+		
+		return lastUse;
+	}
+	
+	/**
+	 * Fuse one block of the output into a float array (multithreaded)
+	 * 
+	 * @param blockPixels - the output, x is the fastest index
+	 * @param min - the position of the block in the output image (always 3d)
+	 * @param dim - the size of the block (always 3d)
+	 * @param dimensionality - which dimensionality (2 or 3)
+	 * @param input - the tiles that intersect this block
+	 * @param offset - the offset of the output image
+	 * @param transform - the transformations of the tiles
+	 * @param fusion - the pixel fusion (the image ids are the indices in input)
+	 * @return - false if a model could not be inverted
+	 */
+	protected static boolean fuseBlock( final float[] blockPixels, final int[] min, final int[] dim, final int dimensionality, 
+			final ArrayList< ? extends ImageInterpolation< ? extends RealType< ? > > > input, final float[] offset, 
+			final ArrayList< InvertibleBoundable > transform, final PixelFusion fusion )
+	{
+		final int numImages = input.size();
+		final long numPixels = (long)dim[ 0 ] * dim[ 1 ] * dim[ 2 ];
+		
+		final int[][] max = new int[ numImages ][ dimensionality ];
+		for ( int i = 0; i < numImages; ++i )
+			for ( int d = 0; d < dimensionality; ++d )
+				max[ i ][ d ] = input.get( i ).getImage().getDimension( d ) - 1; 
+		
+		final AtomicBoolean success = new AtomicBoolean( true );
+		
+		// run multithreaded
+		final AtomicInteger ai = new AtomicInteger(0);					
+        final Thread[] threads = SimpleMultiThreading.newThreads();
+
+        final Vector<Chunk> threadChunks = SimpleMultiThreading.divideIntoChunks( numPixels, threads.length );
+        
+        for (int ithread = 0; ithread < threads.length; ++ithread)
+            threads[ithread] = new Thread(new Runnable()
+            {
+                public void run()
+                {
+                	// get chunk of pixels to process
+                	final Chunk myChunk = threadChunks.get( ai.getAndIncrement() );
+                	final int startPos = (int)myChunk.getStartPosition();
+                	final int loopSize = (int)myChunk.getLoopSize();
+                	
+            		final ArrayList<Interpolator<? extends RealType<?>>> in = new ArrayList<Interpolator<? extends RealType<?>>>();
+            		
+            		for ( int i = 0; i < numImages; ++i )
+            			in.add( input.get( i ).createInterpolator() );
+            		
+            		final float[][] tmp = new float[ numImages ][ dimensionality ];
+            		final float[] position = new float[ 3 ];
+            		final PixelFusion myFusion = fusion.copy();
+            		
+            		try 
+            		{
+                        for ( int j = startPos; j < startPos + loopSize; ++j )
+                        {
+                        	// the position of this pixel in the output image
+                        	position[ 0 ] = min[ 0 ] + j % dim[ 0 ] + offset[ 0 ];
+                        	position[ 1 ] = min[ 1 ] + ( j / dim[ 0 ] ) % dim[ 1 ] + offset[ 1 ];
+                        	if ( dimensionality == 3 )
+                        		position[ 2 ] = min[ 2 ] + j / ( dim[ 0 ] * dim[ 1 ] ) + offset[ 2 ];
+                        	
+            				for ( int i = 0; i < numImages; ++i )
+            					for ( int d = 0; d < dimensionality; ++d )
+            						tmp[ i ][ d ] = position[ d ];
+            				
+            				// transform and compute output value
+            				myFusion.clear();
+            				
+            				// loop over all images for this output location
+A:        					for ( int i = 0; i < numImages; ++i )
+        					{
+        						transform.get( i ).applyInverseInPlace( tmp[ i ] );
+            	
+        						// test if inside
+        						for ( int d = 0; d < dimensionality; ++d )
+        							if ( tmp[ i ][ d ] < 0 || tmp[ i ][ d ] > max[ i ][ d ] )
+        								continue A;
+        						
+        						in.get( i ).setPosition( tmp[ i ] );			
+        						myFusion.addValue( in.get( i ).getType().getRealFloat(), i, tmp[ i ] );
+        					}
+            				
+            				blockPixels[ j ] = myFusion.getValue();
+                        }
+            		} 
+            		catch ( NoninvertibleModelException e ) 
+            		{
+            			IJ.log( "Cannot invert model, qutting." );
+            			success.set( false );
+            		}
+
+                }
+            });
+        
+        SimpleMultiThreading.startAndJoin( threads );
+        
+        return success.get();
+	}
+	
+	/**
+	 * Opens one channel/timepoint of a tile for the fusion
+	 * 
+	 * @param imp - the tile
+	 * @param c - the channel (starting at 1)
+	 * @param t - the timepoint (starting at 1)
+	 * @param subpixelResolution - if true the tile is converted to float and linearly interpolated, otherwise it is wrapped
+	 * @return - the tile with its interpolator factory
+	 */
+	protected static ImageInterpolation< ? extends RealType< ? > > openTile( final ImagePlus imp, final int c, final int t, final boolean subpixelResolution )
+	{
+		final ImagePlus chunk = Hyperstack_rearranger.getImageChunk( imp, c, t );
+		
+		if ( subpixelResolution )
+		{
+			// for linear interpolation we want to mirror, otherwise we get black areas at the first and last pixel of each image
+			return new ImageInterpolation<FloatType>( ImageJFunctions.convertFloat( chunk ), 
+					new LinearInterpolatorFactory<FloatType>( new OutOfBoundsStrategyMirrorFactory<FloatType>() ) );
+		}
+		else if ( imp.getType() == ImagePlus.GRAY32 )
+		{
+			return new ImageInterpolation<FloatType>( ImageJFunctions.wrapFloat( chunk ), 
+					new NearestNeighborInterpolatorFactory< FloatType >( new OutOfBoundsStrategyValueFactory<FloatType>() ) );
+		}
+		else if ( imp.getType() == ImagePlus.GRAY16 )
+		{
+			return new ImageInterpolation<UnsignedShortType>( ImageJFunctions.wrapShort( chunk ), 
+					new NearestNeighborInterpolatorFactory< UnsignedShortType >( new OutOfBoundsStrategyValueFactory<UnsignedShortType>() ) );
+		}
+		else
+		{
+			return new ImageInterpolation<UnsignedByteType>( ImageJFunctions.wrapByte( chunk ), 
+					new NearestNeighborInterpolatorFactory< UnsignedByteType >( new OutOfBoundsStrategyValueFactory<UnsignedByteType>() ) );
+		}
+	}
+	
+	/**
+	 * Writes one fused value in the output type (big-endian)
+	 */
+	private static void putValue( final ByteBuffer buffer, final float value, final int bytesPerPixel )
+	{
+		if ( bytesPerPixel == 4 )
+			buffer.putFloat( value );
+		else if ( bytesPerPixel == 2 )
+			buffer.putShort( (short)Math.max( 0, Math.min( 65535, Math.round( value ) ) ) );
+		else
+			buffer.put( (byte)Math.max( 0, Math.min( 255, Math.round( value ) ) ) );
+	}
+	
+	/**
+	 * Instantiates the {@link PixelFusion} for a fusion type
+	 * 
+	 * @param fusionType - 0 == blending, 1 == average, 2 == median, 3 == max, 4 == min
+	 * @param ignoreZeroValues - do not take zero values into account
+	 * @param images - the images (needed for blending, the ids have to match the position in the list)
+	 * @return - the {@link PixelFusion} or null if the type is unknown
+	 */
+	protected static PixelFusion createPixelFusion( final int fusionType, final boolean ignoreZeroValues, final ArrayList< ? extends ImageInterpolation< ? > > images )
+	{
+		if ( fusionType == 0 )
+		{
+			if ( ignoreZeroValues )
+				return new BlendingPixelFusionIgnoreZero( images );
+			else
+				return new BlendingPixelFusion( images );
+		}
+		else if ( fusionType == 1 )
+		{
+			if ( ignoreZeroValues )
+				return new AveragePixelFusionIgnoreZero();
+			else
+				return new AveragePixelFusion();
+		}
+		else if ( fusionType == 2 )
+		{
+			if ( ignoreZeroValues )
+				return new MedianPixelFusionIgnoreZero();
+			else
+				return new MedianPixelFusion();
+		}
+		else if ( fusionType == 3 )
+		{
+			if ( ignoreZeroValues )
+				return new MaxPixelFusionIgnoreZero();
+			else
+				return new MaxPixelFusion();
+		}
+		else if ( fusionType == 4 )
+		{
+			if ( ignoreZeroValues )
+				return new MinPixelFusionIgnoreZero();
+			else
+				return new MinPixelFusion();	
+		}
+		
+		return null;
+	}
+	
 	/**
 	 * Fuse one slice/volume (one channel)
 	 * 
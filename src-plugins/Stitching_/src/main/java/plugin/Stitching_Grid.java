@@ -101,7 +101,7 @@ public class Stitching_Grid implements PlugIn
 	
 	public static boolean defaultQuickFusion = true;
 	
-	public static String[] resultChoices = { "Fuse and display", "Write to disk" };
+	public static String[] resultChoices = { "Fuse and display", "Write to disk", "Write to disk block-wise (raw file, low memory)" };
 	public static int defaultResult = 0;
 	public static String defaultOutputDirectory = "";
 	
@@ -329,7 +329,7 @@ else if ( gridType == 6 && gridOrder == 1 )
 			}
 		}
 		
-		if ( params.fusionMethod != CommonFunctions.fusionMethodListGrid.length - 1 && params.outputVariant == 1 )
+		if ( params.fusionMethod != CommonFunctions.fusionMethodListGrid.length - 1 && params.outputVariant >= 1 )
 		{
 			if ( defaultOutputDirectory == null || defaultOutputDirectory.length() == 0 )
 				defaultOutputDirectory = defaultDirectory;
@@ -524,6 +524,8 @@ else if ( gridType == 6 )
 			
 			if ( params.outputDirectory == null )
 				IJ.log( "Fuse & Display ..." );
+			else if ( params.outputVariant == 2 )
+				IJ.log( "Fuse block-wise & Write to disk (into directory '" + new File( params.outputDirectory, "" ).getAbsolutePath() + "') ..." );
 			else
 				IJ.log( "Fuse & Write to disk (into directory '" + new File( params.outputDirectory, "" ).getAbsolutePath() + "') ..." );
 			IJ.showStatus("Fusing stitched image...");
@@ -559,7 +561,7 @@ else if ( imp.getType() == ImagePlus.GRAY8 )
 			// test if there is no overlap between any of the tiles
 			// if so fusion can be much faster
 			boolean noOverlap = false;
-			if ( overlapX == 0 && overlapY == 0 && params.computeOverlap == false && params.subpixelAccuracy == false && grid.getType() < 4 )
+			if ( overlapX == 0 && overlapY == 0 && params.computeOverlap == false && params.subpixelAccuracy == false && grid.getType() < 4 && params.outputVariant != 2 )
 			{
 				final GenericDialogPlus gd3 = new GenericDialogPlus( "Use fast fusion algorithm" );
 				gd3.addMessage( "There seems to be no overlap between any of the tiles." );
@@ -576,7 +578,26 @@ else if ( imp.getType() == ImagePlus.GRAY8 )
 					IJ.log( "There is no overlap between any of the tiles, using faster fusion algorithm." );
 			}
 			
-			if ( is32bit )
+			// false if the fused raw file could not be written
+			boolean fused = true;
+			
+			if ( params.outputVariant == 2 )
+			{
+				// the fused image is never held in memory, it is streamed to a raw file
+				File fusedFile = null;
+				
+				if ( is32bit )
+					fusedFile = Fusion.fuseBlockwise( new FloatType(), images, models, params.dimensionality, params.subpixelAccuracy, params.fusionMethod, params.outputDirectory, false );
+				else if ( is16bit )
+					fusedFile = Fusion.fuseBlockwise( new UnsignedShortType(), images, models, params.dimensionality, params.subpixelAccuracy, params.fusionMethod, params.outputDirectory, false );
+				else if ( is8bit )
+					fusedFile = Fusion.fuseBlockwise( new UnsignedByteType(), images, models, params.dimensionality, params.subpixelAccuracy, params.fusionMethod, params.outputDirectory, false );
+				else
+					IJ.log( "Unknown image type for fusion." );
+				
+				fused = fusedFile != null;
+			}
+			else if ( is32bit )
 				imp = Fusion.fuse( new FloatType(), images, models, params.dimensionality, params.subpixelAccuracy, params.fusionMethod, params.outputDirectory, noOverlap, false );
 			else if ( is16bit )
 				imp = Fusion.fuse( new UnsignedShortType(), images, models, params.dimensionality, params.subpixelAccuracy, params.fusionMethod, params.outputDirectory, noOverlap, false );
@@ -585,7 +606,10 @@ else if ( is8bit )
 			else
 				IJ.log( "Unknown image type for fusion." );
 			
-			IJ.log( "Finished fusion (" + (System.currentTimeMillis() - time) + " ms)");
+			if ( fused )
+				IJ.log( "Finished fusion (" + (System.currentTimeMillis() - time) + " ms)");
+			else
+				IJ.log( "Fusion failed (" + (System.currentTimeMillis() - time) + " ms), no fused image was written." );
 			IJ.log( "Finished ... (" + (System.currentTimeMillis() - startTime) + " ms)");
 			
 			if ( imp != null )
@@ -738,6 +738,10 @@ private void flushUpdate() {
 			}
 
 		} finally {
+			if (!spotsUpdated.isEmpty() || !spotsMoved.isEmpty()) {
+				// Feature values changed: the feature columns are stale
+				spots.invalidateFeatureStore();
+			}
 			spotsAdded.clear();
 			spotsRemoved.clear();
 			spotsMoved.clear();
@@ -32,6 +32,11 @@ public class Spot extends AbstractEuclideanSpace implements RealLocalizable {
 	private String name;
 	/** This spot ID */
 	private final int ID;
+	/**
+	 * Changes each time a feature other than {@link SpotCollection#VISIBLITY}
+	 * is put, so that {@link SpotFeatureStore} can tell stale values.
+	 */
+	private final AtomicInteger featureVersion = new AtomicInteger();
 
 	/*
 	 * CONSTRUCTORS
@@ -185,6 +190,19 @@ public final Double getFeature(final String feature) {
 	 */
 	public final void putFeature(final String feature, final Double value) {
 		features.put(feature, value);
+		// Visibility is not kept in the feature store, and changes at each filtering
+		if (!SpotCollection.VISIBLITY.equals(feature)) {
+			featureVersion.incrementAndGet();
+		}
+	}
+
+	/**
+	 * @return a number that changes each time a feature value other than
+	 * {@link SpotCollection#VISIBLITY} is put with
+	 * {@link #putFeature(String, Double)}.
+	 */
+	final int getFeatureVersion() {
+		return featureVersion.get();
 	}
 
 	/**
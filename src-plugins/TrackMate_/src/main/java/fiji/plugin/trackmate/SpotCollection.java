@@ -1,7 +1,9 @@
 package fiji.plugin.trackmate;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -29,6 +31,10 @@
  * This class is {@link MultiThreaded}. There are a few processes that can
  * benefit from multithreaded computation ({@link #filter(Collection)},
  * {@link #filter(FeatureFilter)}
+ * <p>
+ * Filtering and value collection can rely on a columnar
+ * {@link SpotFeatureStore}, that keeps one primitive array per feature. See
+ * {@link #setUseFeatureStore(boolean)}.
  * 
  * @author Jean-Yves Tinevez <jeanyves.tinevez@gmail.com> - Feb 2011 - 2013
  * 
@@ -54,6 +60,10 @@ public class SpotCollection implements MultiThreaded {
 	/** The frame by frame list of spot this object wrap. */
 	private ConcurrentSkipListMap<Integer, Set<Spot>> content = new ConcurrentSkipListMap<Integer, Set<Spot>>();
 	private int numThreads;
+	/** If <code>true</code>, filtering and value collection use a columnar {@link SpotFeatureStore}. */
+	private boolean useFeatureStore = false;
+	/** The columnar feature store, built lazily. <code>null</code> if it must be rebuilt. */
+	private volatile SpotFeatureStore featureStore;
 
 	/*
 	 * CONSTRUCTORS
@@ -118,6 +128,7 @@ public void add(final Spot spot, final Integer frame) {
 		spots.add(spot);
 		spot.putFeature(Spot.FRAME, Double.valueOf(frame));
 		spot.putFeature(VISIBLITY, ONE);
+		invalidateFeatureStore();
 	}
 
 	/**
@@ -132,7 +143,9 @@ public boolean remove(final Spot spot, final Integer frame) {
 		if (null == spots) {
 			return false;
 		}
-		return spots.remove(spot);
+		final boolean removed = spots.remove(spot);
+		invalidateFeatureStore();
+		return removed;
 	}
 
 	/**
@@ -173,7 +186,17 @@ public void run() {
 		}
 	}
 
+	/**
+	 * Marks as visible the spots that pass the specified filter, and as
+	 * invisible the others.
+	 * 
+	 * @param featurefilter
+	 *            the filter to use.
+	 */
 	public final void filter(final FeatureFilter featurefilter) {
+		if (useFeatureStore && filterColumns(Collections.singleton(featurefilter))) {
+			return;
+		}
 
 		final Collection<Integer> frames = content.keySet();
 		final ExecutorService executors = Executors.newFixedThreadPool(numThreads);
@@ -227,7 +250,17 @@ public void run() {
 		}
 	}
 
+	/**
+	 * Marks as visible the spots that pass all the specified filters, and as
+	 * invisible the others.
+	 * 
+	 * @param filters
+	 *            the filters to use.
+	 */
 	public final void filter(final Collection<FeatureFilter> filters) {
+		if (useFeatureStore && filterColumns(filters)) {
+			return;
+		}
 
 		final Collection<Integer> frames = content.keySet();
 		final ExecutorService executors = Executors.newFixedThreadPool(numThreads);
@@ -279,6 +312,67 @@ public void run() {
 		}
 	}
 
+	/**
+	 * Filters the spots using the columns of the feature store, frame by frame.
+	 * The {@link #VISIBLITY} feature of a spot is only written if it changes.
+	 * It is not versioned by the spot, so writing it does not make the store
+	 * read the columns again at the next filtering.
+	 * 
+	 * @return <code>false</code> if some spots do not have a filtered feature,
+	 *         or if a filter is on {@link #VISIBLITY}.
+	 *         Nothing is done then, and the caller filters spot by spot, so
+	 *         that these spots are handled as without the store.
+	 */
+	private boolean filterColumns(final Collection<FeatureFilter> filters) {
+		final SpotFeatureStore store = getFeatureStore();
+		final FeatureFilter[] filterArray = filters.toArray(new FeatureFilter[filters.size()]);
+		final double[][] columns = new double[filterArray.length][];
+		for (int k = 0; k < filterArray.length; k++) {
+			if (VISIBLITY.equals(filterArray[k].feature) || store.hasMissingValues(filterArray[k].feature)) {
+				return false;
+			}
+			columns[k] = store.getColumn(filterArray[k].feature);
+		}
+
+		final ExecutorService executors = Executors.newFixedThreadPool(numThreads);
+		for (int f = 0; f < store.getNFrames(); f++) {
+			final int start = store.getFrameStart(f);
+			final int end = store.getFrameEnd(f);
+
+			final Runnable command = new Runnable() {
+				@Override
+				public void run() {
+					for (int i = start; i < end; i++) {
+
+						boolean visible = true;
+						for (int k = 0; k < filterArray.length; k++) {
+							if (!filterArray[k].accept(columns[k][i])) {
+								visible = false;
+								break;
+							}
+						}
+
+						if (visible != store.isVisible(i)) {
+							store.getSpot(i).putFeature(VISIBLITY, visible ? ONE : ZERO);
+						}
+					}
+				}
+			};
+			executors.execute(command);
+		}
+
+		executors.shutdown();
+		try {
+			final boolean ok = executors.awaitTermination(TIME_OUT_DELAY, TIME_OUT_UNITS);
+			if (!ok) {
+				System.err.println("[SpotCollection.filter()] Timeout of " + TIME_OUT_DELAY + " " + TIME_OUT_UNITS + " reached while filtering.");
+			}
+		} catch (final InterruptedException e) {
+			e.printStackTrace();
+		}
+		return true;
+	}
+
 	/**
 	 * Returns the closest {@link Spot} to the given location (encoded as a
 	 * Spot), contained in the frame <code>frame</code>. If the frame has no
@@ -513,6 +607,25 @@ public void run() {
 	 * @return a new <code>double</code> array.
 	 */
 	public final double[] collectValues(final String feature, final boolean visibleOnly) {
+		if (useFeatureStore && !VISIBLITY.equals(feature)) {
+			final SpotFeatureStore store = getFeatureStore();
+			// Spots without the feature are handled as without the store
+			if (!store.hasMissingValues(feature)) {
+				final double[] column = store.getColumn(feature);
+				if (!visibleOnly) {
+					return column.clone();
+				}
+				final double[] values = new double[column.length];
+				int index = 0;
+				for (int i = 0; i < column.length; i++) {
+					if (store.isVisible(i)) {
+						values[index++] = column[i];
+					}
+				}
+				return Arrays.copyOf(values, index);
+			}
+		}
+
 		final double[] values = new double[getNSpots(visibleOnly)];
 		int index = 0;
 		for (final Spot spot : iterable(visibleOnly)) {
@@ -522,6 +635,62 @@ public final double[] collectValues(final String feature, final boolean visibleO
 		return values;
 	}
 
+	/**
+	 * Returns the columnar feature store of this collection, building it if
+	 * needed. The store is discarded and rebuilt when spots are added to or
+	 * removed from this collection.
+	 * 
+	 * @return the feature store of this collection.
+	 * @see #invalidateFeatureStore()
+	 */
+	public SpotFeatureStore getFeatureStore() {
+		SpotFeatureStore store = featureStore;
+		if (null == store) {
+			synchronized (this) {
+				store = featureStore;
+				if (null == store) {
+					store = new SpotFeatureStore(content);
+					featureStore = store;
+				}
+			}
+		}
+		return store;
+	}
+
+	/**
+	 * Discards the columnar feature store of this collection. It must be called
+	 * after spot feature values have been changed through the map returned by
+	 * {@link Spot#getFeatures()}, so that filtering does not use stale values.
+	 * Values set with {@link Spot#putFeature(String, Double)} are tracked by
+	 * the store itself.
+	 */
+	public void invalidateFeatureStore() {
+		featureStore = null;
+	}
+
+	/**
+	 * Sets whether this collection uses a columnar {@link SpotFeatureStore}
+	 * for filtering and value collection. It is not the case by default, and
+	 * feature values are read from the spots each time. The store speeds up
+	 * repeated filtering of large collections, but keeps a copy of the
+	 * feature values it reads, in addition to the spots' own: it costs memory
+	 * rather than saving it. Disabling it releases the copy.
+	 */
+	public void setUseFeatureStore(final boolean useFeatureStore) {
+		this.useFeatureStore = useFeatureStore;
+		if (!useFeatureStore) {
+			invalidateFeatureStore();
+		}
+	}
+
+	/**
+	 * Returns <code>true</code> if this collection uses a columnar
+	 * {@link SpotFeatureStore} for filtering and value collection.
+	 */
+	public boolean isUsingFeatureStore() {
+		return useFeatureStore;
+	}
+
 	/*
 	 * ITERABLE & co
 	 */
@@ -623,6 +792,7 @@ public void put(final int frame, final Collection<Spot> spots) {
 			spot.putFeature(VISIBLITY, ZERO);
 		}
 		content.put(frame, value);
+		invalidateFeatureStore();
 	}
 
 	/**
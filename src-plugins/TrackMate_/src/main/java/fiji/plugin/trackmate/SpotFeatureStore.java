@@ -0,0 +1,283 @@
+package fiji.plugin.trackmate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A columnar view of the spot features of a {@link SpotCollection}.
+ * <p>
+ * The spots of the collection are given a dense index, grouped by frame in
+ * ascending frame order, and the values of each feature are stored in one
+ * <code>double</code> array indexed by this dense index. Columns are built
+ * lazily, the first time a feature is requested, and then shared. Filtering
+ * and collecting values then iterate over primitive arrays instead of looking
+ * up boxed values in the feature map of each spot.
+ * <p>
+ * The columns are a copy of the values held by the spots, which keep their own
+ * feature map. The store therefore adds to the memory used by the spots rather
+ * than reducing it, and is only used when
+ * {@link SpotCollection#setUseFeatureStore(boolean)} enables it, as the GUI
+ * does while the spot filters are being adjusted.
+ * <p>
+ * The store is rebuilt by the {@link SpotCollection} that owns it when spots
+ * are added or removed. Values set with {@link Spot#putFeature(String, Double)}
+ * afterwards, through the {@link Model} or not, are picked up the next time a
+ * column is requested. Code that changes the map returned by
+ * {@link Spot#getFeatures()} directly must call
+ * {@link SpotCollection#invalidateFeatureStore()} afterwards.
+ * <p>
+ * The {@link SpotCollection#VISIBLITY} feature is not stored here: it is
+ * always read from and written to the spots. Writing it does not change the
+ * feature version of a spot, so that filtering does not make the columns
+ * stale. Its column must not be requested.
+ */
+public class SpotFeatureStore {
+
+	/** The spots, by dense index. */
+	private final Spot[] spots;
+	/** The frames of the collection, in ascending order. */
+	private final int[] frames;
+	/** The dense index of the first spot of each frame, plus the total number of spots. */
+	private final int[] frameOffsets;
+	/** The spot IDs, sorted, to retrieve the dense index of a spot. */
+	private final int[] sortedIDs;
+	/** The dense index of the spots in {@link #sortedIDs} order. */
+	private final int[] sortedIndices;
+	/** The feature version of each spot when its column values were last read. */
+	private final int[] versions;
+	/** The feature columns built so far. */
+	private final ConcurrentHashMap<String, Column> columns = new ConcurrentHashMap<String, Column>();
+
+	/**
+	 * The values of one feature, and the spots that do not have it.
+	 */
+	private static final class Column {
+		final double[] values;
+		/** Spots that do not have the feature, <code>null</code> if none. */
+		BitSet missing;
+
+		Column(final int size) {
+			values = new double[size];
+		}
+	}
+
+	/*
+	 * CONSTRUCTOR
+	 */
+
+	/**
+	 * Builds the dense index of the specified frame content. Feature columns
+	 * are not built yet.
+	 */
+	SpotFeatureStore(final NavigableMap<Integer, Set<Spot>> content) {
+		final ArrayList<Spot> list = new ArrayList<Spot>();
+		frames = new int[content.size()];
+		frameOffsets = new int[content.size() + 1];
+		int f = 0;
+		for (final Map.Entry<Integer, Set<Spot>> entry : content.entrySet()) {
+			frames[f] = entry.getKey();
+			frameOffsets[f] = list.size();
+			list.addAll(entry.getValue());
+			f++;
+		}
+		frameOffsets[f] = list.size();
+		spots = list.toArray(new Spot[list.size()]);
+		versions = new int[spots.length];
+		for (int i = 0; i < spots.length; i++) {
+			versions[i] = spots[i].getFeatureVersion();
+		}
+
+		// Sort IDs together with their index
+		final long[] keys = new long[spots.length];
+		for (int i = 0; i < spots.length; i++) {
+			keys[i] = ((long) spots[i].ID() << 32) | i;
+		}
+		Arrays.sort(keys);
+		sortedIDs = new int[spots.length];
+		sortedIndices = new int[spots.length];
+		for (int i = 0; i < keys.length; i++) {
+			sortedIDs[i] = (int) (keys[i] >> 32);
+			sortedIndices[i] = (int) keys[i];
+		}
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	/**
+	 * Returns the number of spots in this store.
+	 */
+	public int size() {
+		return spots.length;
+	}
+
+	/**
+	 * Returns the spot with the specified dense index.
+	 */
+	public Spot getSpot(final int index) {
+		return spots[index];
+	}
+
+	/**
+	 * Returns the dense index of the specified spot, or -1 if it does not
+	 * belong to this store.
+	 */
+	public int indexOf(final Spot spot) {
+		final int k = Arrays.binarySearch(sortedIDs, spot.ID());
+		if (k < 0) {
+			return -1;
+		}
+		return sortedIndices[k];
+	}
+
+	/**
+	 * Returns the number of frames in this store.
+	 */
+	public int getNFrames() {
+		return frames.length;
+	}
+
+	/**
+	 * Returns the frame at the specified position, frames being sorted in
+	 * ascending order.
+	 */
+	public int getFrame(final int frameIndex) {
+		return frames[frameIndex];
+	}
+
+	/**
+	 * Returns the dense index of the first spot of the frame at the specified
+	 * position.
+	 */
+	public int getFrameStart(final int frameIndex) {
+		return frameOffsets[frameIndex];
+	}
+
+	/**
+	 * Returns the dense index after the last spot of the frame at the specified
+	 * position.
+	 */
+	public int getFrameEnd(final int frameIndex) {
+		return frameOffsets[frameIndex + 1];
+	}
+
+	/**
+	 * Returns the values of the specified feature for all the spots, by dense
+	 * index. Spots that do not have this feature get {@link Double#NaN}, see
+	 * {@link #hasMissingValues(String)}. The column is built the first time it
+	 * is requested, and brought up to date with the spots each time.
+	 * <p>
+	 * The returned array is shared and <b>must not</b> be modified.
+	 *
+	 * @param feature  the feature to retrieve.
+	 * @return the feature column.
+	 */
+	public double[] getColumn(final String feature) {
+		return column(feature).values;
+	}
+
+	/**
+	 * Returns <code>true</code> if some spots do not have the specified
+	 * feature.
+	 */
+	public boolean hasMissingValues(final String feature) {
+		return null != column(feature).missing;
+	}
+
+	/**
+	 * Returns <code>true</code> if the spot with the specified dense index
+	 * does not have the specified feature. Unlike {@link #getColumn(String)},
+	 * this does not check the spots for changes, and answers for the column as
+	 * it was last returned, so that it can be called for each spot.
+	 */
+	public boolean isMissing(final String feature, final int index) {
+		Column column = columns.get(feature);
+		if (null == column) {
+			column = column(feature);
+		}
+		final BitSet missing = column.missing;
+		return null != missing && missing.get(index);
+	}
+
+	/**
+	 * Discards the column of the specified feature, if it was built. It will
+	 * be rebuilt from the spot values the next time it is requested.
+	 */
+	public void invalidate(final String feature) {
+		columns.remove(feature);
+	}
+
+	private Column column(final String feature) {
+		Column column = columns.get(feature);
+		if (null != column) {
+			update();
+			return column;
+		}
+		synchronized (this) {
+			// Bring the other columns up to date before versions move on
+			update();
+			column = new Column(spots.length);
+			for (int i = 0; i < spots.length; i++) {
+				read(column, feature, i);
+			}
+			final Column previous = columns.putIfAbsent(feature, column);
+			return null == previous ? column : previous;
+		}
+	}
+
+	/**
+	 * Reads again the values of the spots whose features changed since they
+	 * were last read.
+	 */
+	private synchronized void update() {
+		for (int i = 0; i < spots.length; i++) {
+			final int version = spots[i].getFeatureVersion();
+			if (version == versions[i]) {
+				continue;
+			}
+			for (final Map.Entry<String, Column> entry : columns.entrySet()) {
+				read(entry.getValue(), entry.getKey(), i);
+			}
+			versions[i] = version;
+		}
+	}
+
+	private void read(final Column column, final String feature, final int index) {
+		final Double val = spots[index].getFeature(feature);
+		if (null == val) {
+			column.values[index] = Double.NaN;
+			if (null == column.missing) {
+				column.missing = new BitSet(spots.length);
+			}
+			column.missing.set(index);
+		} else {
+			column.values[index] = val.doubleValue();
+			if (null != column.missing) {
+				column.missing.clear(index);
+				if (column.missing.isEmpty()) {
+					column.missing = null;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns <code>true</code> if the spot with the specified dense index is
+	 * marked as visible.
+	 */
+	public boolean isVisible(final int index) {
+		final Double val = spots[index].getFeature(SpotCollection.VISIBLITY);
+		return null != val && val.compareTo(SpotCollection.ZERO) > 0;
+	}
+
+	@Override
+	public String toString() {
+		return super.toString() + ": " + spots.length + " spots in " + frames.length + " frames, " + columns.size() + " feature columns built.";
+	}
+}
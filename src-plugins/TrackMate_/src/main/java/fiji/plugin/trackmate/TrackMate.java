@@ -2,6 +2,9 @@
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -13,6 +16,9 @@
 
 import org.jgrapht.graph.SimpleWeightedGraph;
 
+import fiji.plugin.trackmate.detection.DogDetectorFactory;
+import fiji.plugin.trackmate.detection.LogDetector;
+import fiji.plugin.trackmate.detection.ManualDetectorFactory;
 import fiji.plugin.trackmate.detection.SpotDetector;
 import fiji.plugin.trackmate.detection.SpotDetectorFactory;
 import fiji.plugin.trackmate.features.EdgeFeatureCalculator;
@@ -37,6 +43,20 @@ public class TrackMate implements Benchmark, MultiThreaded, Algorithm {
 
 	public static final String PLUGIN_NAME_STR = "TrackMate";
 	public static final String PLUGIN_NAME_VERSION = "2.1.1";
+	/**
+	 * Estimated number of bytes the LoG detectors need per pixel of a frame: a
+	 * float copy of the frame, its padded complex Fourier transform, the
+	 * transforms of the convolution kernels and the filtered images.
+	 */
+	private static final int LOG_DETECTION_BYTES_PER_PIXEL = 48;
+	/**
+	 * Estimated number of bytes the DoG detector needs per pixel of a frame:
+	 * the two Gaussian-filtered float copies, their difference and the
+	 * median-filtered copy.
+	 */
+	private static final int DOG_DETECTION_BYTES_PER_PIXEL = 16;
+	/** How long, in ms, the detection threads wait on each other before checking for failures. */
+	private static final long POLL_DELAY = 100;
 
 	/**
 	 * The model this trackmate will shape.
@@ -107,6 +127,57 @@ protected List<Spot> translateAndPruneSpots(final List<Spot> spotsThisFrame, fin
 		return prunedSpots;
 	}
 
+	/**
+	 * Returns the memory, in MB, needed to run a detector on one frame of the
+	 * specified image. The detection pipeline limits the number of frames
+	 * processed at the same time with this estimate.
+	 *
+	 * @param img  the image the detector factory operates on, possibly with
+	 * several channels and frames.
+	 * @param factory  the factory of the detectors to run.
+	 * @return the estimated memory in MB, at least 1.
+	 */
+	protected int estimateDetectionMemory(final ImgPlus<?> img, final SpotDetectorFactory<?> factory) {
+		final int cindex = TMUtils.findCAxisIndex(img);
+		final int tindex = TMUtils.findTAxisIndex(img);
+		long nPixels = 1;
+		for (int d = 0; d < img.numDimensions(); d++) {
+			if (d == cindex || d == tindex) {
+				continue;
+			}
+			nPixels *= img.dimension(d);
+		}
+		final long mb = nPixels * getDetectionBytesPerPixel(factory) / (1024 * 1024);
+		return (int) Math.max(1, Math.min(Integer.MAX_VALUE, mb));
+	}
+
+	/**
+	 * Returns the estimated number of bytes a detector of the specified factory
+	 * needs per pixel of the frame it processes. The downsampling LoG detector
+	 * is counted as the plain LoG detector, which bounds it from above. Unknown
+	 * detectors are assumed to need as much as the LoG detector.
+	 */
+	protected int getDetectionBytesPerPixel(final SpotDetectorFactory<?> factory) {
+		if (factory instanceof ManualDetectorFactory) {
+			return 0;
+		}
+		if (factory instanceof DogDetectorFactory) {
+			return DOG_DETECTION_BYTES_PER_PIXEL;
+		}
+		return LOG_DETECTION_BYTES_PER_PIXEL;
+	}
+
+	/**
+	 * Returns the memory, in MB, the detection pipeline may use for the frames
+	 * it processes at the same time: 3/4 of the heap memory still available.
+	 */
+	protected int getDetectionMemoryBudget() {
+		final Runtime runtime = Runtime.getRuntime();
+		final long available = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+		final long mb = available / 4 * 3 / (1024 * 1024);
+		return (int) Math.max(1, Math.min(Integer.MAX_VALUE, mb));
+	}
+
 	/*
 	 * METHODS
 	 */
@@ -315,76 +386,141 @@ public boolean execDetection() {
 		final double dy = settings.ystart * calibration[1];
 		final double dz = settings.zstart * calibration[2];
 
-		final Thread[] threads = SimpleMultiThreading.newThreads(numThreads);
+		/*
+		 * Detection pipeline: a producer thread prepares the detectors in frame
+		 * order and hands them over to the workers through a bounded queue.
+		 * Each worker keeps the buffers of the frame it processes and reuses
+		 * them for the next one, so it holds about one frame of memory for its
+		 * whole life. The number of workers is capped so that they all fit in
+		 * the memory budget, and large 3D frames do not exhaust the heap when
+		 * many cores are used.
+		 */
+		final int frameMemory = estimateDetectionMemory(img, factory);
+		final int numWorkers = Math.max(1, Math.min(numThreads, getDetectionMemoryBudget() / frameMemory));
+		if (numWorkers < numThreads) {
+			logger.log("Memory limits detection to " + numWorkers + " threads.\n");
+		}
+		final BlockingQueue<DetectionTask> queue = new ArrayBlockingQueue<DetectionTask>(2 * numWorkers);
 		final AtomicBoolean ok = new AtomicBoolean(true);
-
-		// Prepare the thread array
-		final AtomicInteger ai = new AtomicInteger(settings.tstart);
-		for (int ithread = 0; ithread < threads.length; ithread++) {
-
-			threads[ithread] = new Thread("TrackMate spot detection thread "+(1+ithread)+"/"+threads.length) {
-				private boolean wasInterrupted() {
+		final Thread[] threads = new Thread[numWorkers + 1];
+
+		threads[0] = new Thread("TrackMate spot detection producer thread") {
+			@Override
+			public void run() {
+				int frame = settings.tstart;
+				try {
+					for (; frame <= settings.tend; frame++) {
+						// Yield detector for target frame
+						final DetectionTask task = new DetectionTask(frame, factory.getDetector(frame));
+						while (!queue.offer(task, POLL_DELAY, TimeUnit.MILLISECONDS)) {
+							if (!ok.get()) return;
+						}
+					}
+				} catch (final InterruptedException e) {
+					ok.set(false);
+				} catch (final RuntimeException e) {
+					// Stop the workers instead of leaving them waiting for frames.
+					ok.set(false);
+					errorMessage = "Could not create the detector for frame " + frame + ": " + e.getMessage();
+					throw e;
+				} finally {
+					if (!ok.get()) {
+						// Make room for the end markers: the pending frames will not be processed.
+						queue.clear();
+					}
 					try {
-						if (isInterrupted()) return true;
-						sleep(0);
-						return false;
+						for (int i = 0; i < numWorkers; i++) {
+							while (!queue.offer(DetectionTask.END, POLL_DELAY, TimeUnit.MILLISECONDS)) {
+								// The workers also stop on the flag
+								if (!ok.get()) return;
+							}
+						}
 					} catch (final InterruptedException e) {
-						return true;
+						ok.set(false);
 					}
 				}
+			}
+		};
+
+		for (int ithread = 1; ithread < threads.length; ithread++) {
+
+			threads[ithread] = new Thread("TrackMate spot detection thread "+ithread+"/"+numWorkers) {
 
 				@Override
 				public void run() {
 
-					for (int frame = ai.getAndIncrement(); frame <= settings.tend; frame = ai.getAndIncrement()) try {
+					// Fourier convolutions of the LoG detectors, reused from frame to frame
+					final LogDetector.Convolvers convolvers = new LogDetector.Convolvers();
 
-						// Yield detector for target frame
-						final SpotDetector<?> detector = factory.getDetector(frame);
-
-						if (wasInterrupted()) return;
-
-						// Execute detection
-						if (ok.get() && detector.checkInput() && detector.process()) {
-							// On success,
-							// Get results,
-							final List<Spot> spotsThisFrame = detector.getResult();
-							// Translate individual spots back to top-left corner of the image, if
-							// the raw image was cropped.
-							TMUtils.translateSpots(spotsThisFrame, dx, dy, dz);
-							// Prune if outside of ROI
-							List<Spot> prunedSpots;
-							if (null != settings.polygon) {
-								prunedSpots = new ArrayList<Spot>();
-								for (final Spot spot : spotsThisFrame) {
-									if (settings.polygon.contains(spot.getFeature(Spot.POSITION_X)/calibration[0], spot.getFeature(Spot.POSITION_Y)/calibration[1]))
-										prunedSpots.add(spot);
+					while (ok.get()) {
+						final DetectionTask task;
+						try {
+							task = queue.poll(POLL_DELAY, TimeUnit.MILLISECONDS);
+						} catch (final InterruptedException e) {
+							return;
+						}
+						if (null == task) {
+							continue;
+						}
+						if (task == DetectionTask.END) {
+							return;
+						}
+
+						try {
+							final int frame = task.frame;
+							final SpotDetector<?> detector = task.detector;
+							if (detector instanceof LogDetector) {
+								((LogDetector) detector).setConvolvers(convolvers);
+							}
+
+							// Execute detection
+							if (detector.checkInput() && detector.process()) {
+								// On success,
+								// Get results,
+								final List<Spot> spotsThisFrame = detector.getResult();
+								// Translate individual spots back to top-left corner of the image, if
+								// the raw image was cropped.
+								TMUtils.translateSpots(spotsThisFrame, dx, dy, dz);
+								// Prune if outside of ROI
+								List<Spot> prunedSpots;
+								if (null != settings.polygon) {
+									prunedSpots = new ArrayList<Spot>();
+									for (final Spot spot : spotsThisFrame) {
+										if (settings.polygon.contains(spot.getFeature(Spot.POSITION_X)/calibration[0], spot.getFeature(Spot.POSITION_Y)/calibration[1]))
+											prunedSpots.add(spot);
+									}
+								} else {
+									prunedSpots = spotsThisFrame;
+								}
+								// Add detection feature other than position
+								for (final Spot spot : prunedSpots) {
+									spot.putFeature(Spot.POSITION_T, frame * settings.dt); // FRAME will be set upon adding to SpotCollection
 								}
+								// Store final results for this frame
+								spots.put(frame, prunedSpots);
+								// Report
+								spotFound.addAndGet(prunedSpots.size());
+								logger.setProgress(progress.incrementAndGet() / (double)numFrames );
+
 							} else {
-								prunedSpots = spotsThisFrame;
+								// Fail: stop the pipeline and report error.
+								ok.set(false);
+								errorMessage = detector.getErrorMessage();
+								return;
 							}
-							// Add detection feature other than position
-							for (final Spot spot : prunedSpots) {
-								spot.putFeature(Spot.POSITION_T, frame * settings.dt); // FRAME will be set upon adding to SpotCollection
-							}
-							// Store final results for this frame
-							spots.put(frame, prunedSpots);
-							// Report
-							spotFound.addAndGet(prunedSpots.size());
-							logger.setProgress(progress.incrementAndGet() / (double)numFrames );
-
-						} else {
-							// Fail: exit and report error.
+
+						} catch (final RuntimeException e) {
+							// Stop the other threads instead of leaving them waiting for this one.
 							ok.set(false);
-							errorMessage = detector.getErrorMessage();
-							return;
+							final Throwable cause = e.getCause();
+							if (cause != null && cause instanceof InterruptedException) {
+								return;
+							}
+							throw e;
 						}
-
-					} catch (final RuntimeException e) {
-						final Throwable cause = e.getCause();
-						if (cause != null && cause instanceof InterruptedException) {
+						if (isInterrupted()) {
 							return;
 						}
-						throw e;
 					}
 				}
 			};
@@ -594,6 +730,26 @@ public long getProcessingTime() {
 		return processingTime;
 	};
 
+	/*
+	 * INNER CLASS
+	 */
+
+	/**
+	 * A frame waiting in the detection queue, with its detector.
+	 */
+	private static final class DetectionTask {
+
+		/** Marks the end of the queue for one worker thread. */
+		private static final DetectionTask END = new DetectionTask(-1, null);
+
+		private final int frame;
+		private final SpotDetector<?> detector;
+
+		private DetectionTask(final int frame, final SpotDetector<?> detector) {
+			this.frame = frame;
+			this.detector = detector;
+		}
+	}
 }
 
 
@@ -1,6 +1,7 @@
 package fiji.plugin.trackmate.detection;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import net.imglib2.RandomAccess;
@@ -41,6 +42,8 @@ public class LogDetector <T extends RealType<T>  & NativeType<T>> implements Spo
 	protected List<Spot> spots = new ArrayList<Spot>(); // because this implementation is fast to add elements at the end of the list
 	/** The processing time in ms. */
 	protected long processingTime;
+	/** The Fourier convolutions reused from the previous frame, or <code>null</code> to build them for every frame. */
+	protected Convolvers<T> convolvers;
 	private int numThreads;
 
 	/*
@@ -97,14 +100,24 @@ public boolean process() {
 			sigmas[i] = sigma / calibration[i];
 		}
 		
-		ImgFactory<FloatType> factory = new ArrayImgFactory<FloatType>();
-		Img<FloatType> gaussianKernel = FourierConvolution.createGaussianKernel(factory, sigmas);
 		FourierConvolution<T, FloatType> fConvGauss;
-		try {
-			fConvGauss = new FourierConvolution<T, FloatType>(intermediateImage, gaussianKernel);
-		} catch (IncompatibleTypeException e) {
-			errorMessage = baseErrorMessage + "Fourier convolution failed: "+e.getMessage();
-			return false;
+		if (null != convolvers && Arrays.equals(sigmas, convolvers.sigmas) && convolvers.gauss.replaceImage(intermediateImage)) {
+			// Same frame size and sigma as before: the kernel, its transform and the buffers are reused
+			fConvGauss = convolvers.gauss;
+		} else {
+			ImgFactory<FloatType> factory = new ArrayImgFactory<FloatType>();
+			Img<FloatType> gaussianKernel = FourierConvolution.createGaussianKernel(factory, sigmas);
+			try {
+				fConvGauss = new FourierConvolution<T, FloatType>(intermediateImage, gaussianKernel);
+			} catch (IncompatibleTypeException e) {
+				errorMessage = baseErrorMessage + "Fourier convolution failed: "+e.getMessage();
+				return false;
+			}
+			if (null != convolvers) {
+				convolvers.gauss = fConvGauss;
+				convolvers.sigmas = sigmas;
+				convolvers.laplacian = null;
+			}
 		}
 
 		fConvGauss.setNumThreads(numThreads);
@@ -114,13 +127,21 @@ public boolean process() {
 		}
 		intermediateImage = fConvGauss.getResult();
 
-		Img<FloatType> laplacianKernel = createLaplacianKernel();
 		FourierConvolution<T, FloatType> fConvLaplacian;
-		try {
-			fConvLaplacian = new FourierConvolution<T, FloatType>(intermediateImage, laplacianKernel);
-		} catch (IncompatibleTypeException e) {
-			errorMessage = baseErrorMessage + "Fourier convolution failed: "+e.getMessage();
-			return false;
+		if (null != convolvers && null != convolvers.laplacian && convolvers.laplacian.replaceImage(intermediateImage)) {
+			// The Laplacian kernel only depends on the dimensionality
+			fConvLaplacian = convolvers.laplacian;
+		} else {
+			Img<FloatType> laplacianKernel = createLaplacianKernel();
+			try {
+				fConvLaplacian = new FourierConvolution<T, FloatType>(intermediateImage, laplacianKernel);
+			} catch (IncompatibleTypeException e) {
+				errorMessage = baseErrorMessage + "Fourier convolution failed: "+e.getMessage();
+				return false;
+			}
+			if (null != convolvers) {
+				convolvers.laplacian = fConvLaplacian;
+			}
 		}
 		
 		fConvLaplacian.setNumThreads(numThreads);
@@ -200,6 +221,23 @@ public boolean process() {
 		return true;
 	}
 
+	/**
+	 * Sets the Fourier convolutions this detector reuses. When one thread
+	 * processes several frames of the same size with the same radius, the
+	 * convolution kernels, their Fourier transforms and the transform buffers
+	 * are then computed and allocated only once.
+	 * <p>
+	 * The convolutions keep the buffers of the last frame processed, so the
+	 * caller must account for one frame of memory for as long as it keeps
+	 * them. They must not be shared by detectors running concurrently.
+	 *
+	 * @param convolvers  the convolutions to reuse, or <code>null</code> to
+	 * build them for every frame.
+	 */
+	public void setConvolvers(final Convolvers<T> convolvers) {
+		this.convolvers = convolvers;
+	}
+
 
 	/*
 	 * PRIVATE METHODS
@@ -298,5 +336,18 @@ public int getNumThreads() {
 		return numThreads;
 	}
 
+	/*
+	 * INNER CLASS
+	 */
+
+	/**
+	 * The Fourier convolutions of a detection thread, kept from one frame to
+	 * the next.
+	 */
+	public static class Convolvers<T extends RealType<T> & NativeType<T>> {
+		private double[] sigmas;
+		private FourierConvolution<T, FloatType> gauss;
+		private FourierConvolution<T, FloatType> laplacian;
+	}
 
 }
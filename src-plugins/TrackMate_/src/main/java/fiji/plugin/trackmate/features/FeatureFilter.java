@@ -17,6 +17,18 @@ public FeatureFilter(String feature, Double value, boolean isAbove) {
 		this.isAbove = isAbove;
 	}
 	
+	/**
+	 * Returns <code>true</code> if the specified feature value passes this filter.
+	 * Values equal to the threshold pass, whether the filter is above or below.
+	 */
+	public boolean accept(final double val) {
+		final int c = Double.compare(val, value.doubleValue());
+		if (isAbove)
+			return c >= 0;
+		else
+			return c <= 0;
+	}
+	
 	@Override
 	public String toString() {
 		String str = feature.toString();
@@ -156,6 +156,10 @@ public void run() {
 
 		SimpleMultiThreading.startAndJoin(threads);
 
+		// Feature values changed: the feature columns are stale
+		toCompute.invalidateFeatureStore();
+		model.getSpots().invalidateFeatureStore();
+
 		logger.setProgress(1);
 		logger.setStatus("");
 	}
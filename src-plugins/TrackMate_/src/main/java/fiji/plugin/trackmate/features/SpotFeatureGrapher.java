@@ -21,6 +21,8 @@
 
 import fiji.plugin.trackmate.Dimension;
 import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.SpotFeatureStore;
 import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.util.ExportableChartPanel;
 import fiji.plugin.trackmate.util.TMUtils;
@@ -127,6 +129,26 @@ public void render() {
 	 */
 	private XYSeriesCollection buildSpotDataSet(final Iterable<String> targetYFeatures, final Iterable<Spot> spots) {
 		XYSeriesCollection dataset = new XYSeriesCollection();
+		
+		SpotFeatureStore store = getFeatureStore();
+		if (null != store) {
+			// Read values from the feature columns
+			int[] indices = indicesOf(store, spots);
+			double[] xs = store.getColumn(xFeature);
+			for(String feature : targetYFeatures) {
+				XYSeries series = new XYSeries(featureNames.get(feature));
+				double[] ys = store.getColumn(feature);
+				for (int index : indices) {
+					if (store.isMissing(xFeature, index) || store.isMissing(feature, index)) {
+						continue;
+					}
+					series.add(xs[index], ys[index]);
+				}
+				dataset.addSeries(series);
+			}
+			return dataset;
+		}
+		
 		for(String feature : targetYFeatures) {
 			XYSeries series = new XYSeries(featureNames.get(feature));
 			for(Spot spot : spots) {
@@ -153,6 +175,33 @@ private XYEdgeSeriesCollection buildEdgeDataSet(final Iterable<String> targetYFe
 		
 		// Build dataset
 		XYEdgeSeriesCollection edgeDataset = new XYEdgeSeriesCollection();
+		
+		SpotFeatureStore store = getFeatureStore();
+		if (null != store) {
+			// Read values from the feature columns
+			int[] sources = new int[edges.size()];
+			int[] targets = new int[edges.size()];
+			for (int i = 0; i < sources.length; i++) {
+				sources[i] = store.indexOf(model.getTrackModel().getEdgeSource(edges.get(i)));
+				targets[i] = store.indexOf(model.getTrackModel().getEdgeTarget(edges.get(i)));
+			}
+			double[] xs = store.getColumn(xFeature);
+			for(String yFeature : targetYFeatures) {
+				XYEdgeSeries edgeSeries = new XYEdgeSeries(featureNames.get(yFeature));
+				double[] ys = store.getColumn(yFeature);
+				for (int i = 0; i < sources.length; i++) {
+					int s = sources[i];
+					int t = targets[i];
+					if (s < 0 || t < 0 || store.isMissing(xFeature, s) || store.isMissing(yFeature, s) || store.isMissing(xFeature, t) || store.isMissing(yFeature, t)) {
+						continue;
+					}
+					edgeSeries.addEdge(xs[s], ys[s], xs[t], ys[t]);
+				}
+				edgeDataset.addSeries(edgeSeries);
+			}
+			return edgeDataset;
+		}
+		
 		Double x0, x1, y0, y1;
 		XYEdgeSeries edgeSeries;
 		Spot source, target;
@@ -174,4 +223,37 @@ private XYEdgeSeriesCollection buildEdgeDataSet(final Iterable<String> targetYFe
 		}
 		return edgeDataset;
 	}
+	
+	/**
+	 * @return the feature store of the model spots, or <code>null</code> if the model
+	 * does not use one, or if some of the spots to plot do not belong to the model.
+	 */
+	private SpotFeatureStore getFeatureStore() {
+		SpotCollection modelSpots = model.getSpots();
+		if (!modelSpots.isUsingFeatureStore()) {
+			return null;
+		}
+		SpotFeatureStore store = modelSpots.getFeatureStore();
+		for (Spot spot : spots) {
+			if (store.indexOf(spot) < 0) {
+				return null;
+			}
+		}
+		return store;
+	}
+	
+	/**
+	 * @return the dense indices of the given spots in the given store.
+	 */
+	private static int[] indicesOf(final SpotFeatureStore store, final Iterable<Spot> spots) {
+		ArrayList<Integer> list = new ArrayList<Integer>();
+		for (Spot spot : spots) {
+			list.add(store.indexOf(spot));
+		}
+		int[] indices = new int[list.size()];
+		for (int i = 0; i < indices.length; i++) {
+			indices[i] = list.get(i);
+		}
+		return indices;
+	}
 }
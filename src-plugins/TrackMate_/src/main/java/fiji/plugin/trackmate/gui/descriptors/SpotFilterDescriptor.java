@@ -45,6 +45,8 @@ public FilterGuiPanel getComponent() {
 
 	@Override
 	public void aboutToDisplayPanel() {
+		// Spots are filtered again each time a threshold is moved
+		trackmate.getModel().getSpots().setUseFeatureStore(true);
 		component = new FilterGuiPanel(trackmate.getModel(), Arrays.asList(new Category[] { Category.SPOTS, Category.DEFAULT }));
 		component.refreshDisplayedFeatureValues();
 		final Settings settings = trackmate.getSettings();
@@ -83,6 +85,8 @@ public void aboutToHidePanel() {
 		final List<FeatureFilter> featureFilters = component.getFeatureFilters();
 		trackmate.getSettings().setSpotFilters(featureFilters);
 		trackmate.execSpotFiltering(false);
+		// Release the feature columns
+		model.getSpots().setUseFeatureStore(false);
 
 		final int ntotal = model.getSpots().getNSpots(false);
 		if (featureFilters == null || featureFilters.isEmpty()) {
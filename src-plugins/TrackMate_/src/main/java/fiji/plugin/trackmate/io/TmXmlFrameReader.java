@@ -0,0 +1,296 @@
+package fiji.plugin.trackmate.io;
+
+import static fiji.plugin.trackmate.io.TmXmlKeys.FRAME_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_COLLECTION_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_COLLECTION_NSPOTS_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_FRAME_COLLECTION_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_ID_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_NAME_ATTRIBUTE_NAME;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import fiji.plugin.trackmate.Logger.StringBuilderLogger;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+
+/**
+ * A lazy reader for the spots of a TrackMate XML file. Contrary to
+ * {@link TmXmlReader}, the file is not parsed into a document: it is streamed,
+ * and the spots are read one frame at a time with {@link #nextFrame()}, so that
+ * the memory needed is proportional to the content of one frame. Everything
+ * outside the spot collection (settings, tracks, features declarations) is
+ * skipped.
+ * <p>
+ * A subset of the spot features can be specified at construction. The other
+ * features are not loaded, which saves most of the memory for files with many
+ * spot features.
+ * <p>
+ * Typical use:
+ * <pre>
+ * TmXmlFrameReader reader = new TmXmlFrameReader(file, features);
+ * Set&lt;Spot&gt; spots;
+ * while (null != (spots = reader.nextFrame())) {
+ * 	int frame = reader.getCurrentFrame();
+ * 	// process spots
+ * }
+ * reader.close();
+ * </pre>
+ */
+public class TmXmlFrameReader {
+
+	/*
+	 * FIELDS
+	 */
+
+	protected final File file;
+	protected StringBuilderLogger logger = new StringBuilderLogger();
+	/** If <code>false</code>, an error occured during reading.
+	 * @see #getErrorMessage(). */
+	protected boolean ok = true;
+
+	/** The features to load, <code>null</code> to load all of them. */
+	private final Set<String> features;
+	private InputStream is;
+	private XMLStreamReader xml;
+	/** The total number of spots, as declared in the file, or -1 if it is not declared. */
+	private int nspots = -1;
+	private int currentFrame = -1;
+	/** <code>true</code> when the end of the spot collection has been reached. */
+	private boolean done = false;
+
+	/*
+	 * CONSTRUCTORS
+	 */
+
+	/**
+	 * Initializes this reader to read all the spot features of the file given in argument.
+	 */
+	public TmXmlFrameReader(final File file) {
+		this(file, null);
+	}
+
+	/**
+	 * Initializes this reader to read the file given in argument.
+	 *
+	 * @param file  the file to read.
+	 * @param features  the spot features to load. If <code>null</code>, all
+	 * the features are loaded. The {@link SpotCollection#VISIBLITY} feature is
+	 * always loaded.
+	 */
+	public TmXmlFrameReader(final File file, final Collection<String> features) {
+		this.file = file;
+		if (null == features) {
+			this.features = null;
+		} else {
+			this.features = new HashSet<String>(features);
+			this.features.add(SpotCollection.VISIBLITY);
+		}
+
+		try {
+			is = new BufferedInputStream(new FileInputStream(file), 1 << 16);
+			xml = XMLInputFactory.newInstance().createXMLStreamReader(is);
+
+			// Move to the spot collection
+			if (!moveToStartElement(SPOT_COLLECTION_ELEMENT_KEY, null)) {
+				logger.error("Could not find the spot collection in file " + file.getName() + ".\n");
+				ok = false;
+				close();
+				return;
+			}
+			final String str = xml.getAttributeValue(null, SPOT_COLLECTION_NSPOTS_ATTRIBUTE_NAME);
+			if (null != str) {
+				nspots = Integer.parseInt(str);
+			}
+
+		} catch (final XMLStreamException e) {
+			logger.error("Problem parsing " + file.getName() + ", it is not a valid TrackMate XML file.\nError message is:\n"
+					+ e.getLocalizedMessage() + '\n');
+			ok = false;
+			close();
+		} catch (final IOException e) {
+			logger.error("Problem reading " + file.getName() + ".\nError message is:\n" + e.getLocalizedMessage() + '\n');
+			ok = false;
+			close();
+		} catch (final NumberFormatException e) {
+			logger.error("Could not read the number of spots in file " + file.getName() + ".\n");
+		}
+	}
+
+	/*
+	 * PUBLIC METHODS
+	 */
+
+	/**
+	 * Reads the spots of the next frame in the file.
+	 *
+	 * @return the spots of the next frame, or <code>null</code> if all the
+	 * frames have been read or if an error occured.
+	 * @see #getCurrentFrame()
+	 */
+	public Set<Spot> nextFrame() {
+		if (done || null == xml) {
+			return null;
+		}
+
+		try {
+			if (!moveToStartElement(SPOT_FRAME_COLLECTION_ELEMENT_KEY, SPOT_COLLECTION_ELEMENT_KEY)) {
+				done = true;
+				return null;
+			}
+			currentFrame = Integer.parseInt(xml.getAttributeValue(null, FRAME_ATTRIBUTE_NAME));
+
+			final Set<Spot> spots = new HashSet<Spot>();
+			while (moveToStartElement(SPOT_ELEMENT_KEY, SPOT_FRAME_COLLECTION_ELEMENT_KEY)) {
+				spots.add(createSpot());
+			}
+			return spots;
+
+		} catch (final XMLStreamException e) {
+			logger.error("Problem parsing " + file.getName() + " after frame " + currentFrame + ".\nError message is:\n"
+					+ e.getLocalizedMessage() + '\n');
+		} catch (final NumberFormatException e) {
+			logger.error("Bad number format in " + file.getName() + " after frame " + currentFrame + ": "
+					+ e.getLocalizedMessage() + '\n');
+		}
+		ok = false;
+		done = true;
+		close();
+		return null;
+	}
+
+	/**
+	 * Reads all the remaining frames and returns them as a new
+	 * {@link SpotCollection}. The reader is closed afterwards.
+	 * @return  a new {@link SpotCollection}.
+	 */
+	public SpotCollection readSpotCollection() {
+		final SpotCollection spots = new SpotCollection();
+		Set<Spot> frameSpots;
+		while (null != (frameSpots = nextFrame())) {
+			spots.put(currentFrame, frameSpots);
+		}
+		close();
+		return spots;
+	}
+
+	/**
+	 * Returns the frame of the spots returned by the last call to {@link #nextFrame()}.
+	 */
+	public int getCurrentFrame() {
+		return currentFrame;
+	}
+
+	/**
+	 * Returns the total number of spots declared in the file, or -1 if it is not declared.
+	 */
+	public int getNSpots() {
+		return nspots;
+	}
+
+	/**
+	 * Closes the file. Further calls to {@link #nextFrame()} return <code>null</code>.
+	 */
+	public void close() {
+		try {
+			if (null != xml) {
+				xml.close();
+			}
+		} catch (final XMLStreamException e) {
+			// nothing to do
+		}
+		try {
+			if (null != is) {
+				is.close();
+			}
+		} catch (final IOException e) {
+			// nothing to do
+		}
+		xml = null;
+		is = null;
+	}
+
+	/**
+	 * Returns an explanation of the error that occurred during reading.
+	 * @see #isReadingOk()
+	 */
+	public String getErrorMessage() {
+		return logger.toString();
+	}
+
+	/**
+	 * Returns <code>true</code> if reading happened without any error,
+	 * <code>false</code> otherwise.
+	 * @see #getErrorMessage()
+	 */
+	public boolean isReadingOk() {
+		return ok;
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	/**
+	 * Creates a spot from the attributes of the current element.
+	 */
+	private Spot createSpot() {
+		final int ID = Integer.parseInt(xml.getAttributeValue(null, SPOT_ID_ATTRIBUTE_NAME));
+		final Spot spot = new Spot(ID);
+		String name = null;
+
+		final int nattributes = xml.getAttributeCount();
+		for (int i = 0; i < nattributes; i++) {
+			final String attribute = xml.getAttributeLocalName(i);
+			if (attribute.equals(SPOT_ID_ATTRIBUTE_NAME)) {
+				continue;
+			}
+			if (attribute.equals(SPOT_NAME_ATTRIBUTE_NAME)) {
+				name = xml.getAttributeValue(i);
+				continue;
+			}
+			if (null == features || features.contains(attribute)) {
+				spot.putFeature(attribute, Double.valueOf(xml.getAttributeValue(i)));
+			}
+		}
+
+		if (null == name || name.equals("")) {
+			name = "ID" + ID;
+		}
+		spot.setName(name);
+		return spot;
+	}
+
+	/**
+	 * Moves the stream to the next start element with the specified name.
+	 *
+	 * @param name  the name of the element to find.
+	 * @param parent  if not <code>null</code>, stops when the end of the
+	 * element with this name is reached.
+	 * @return <code>true</code> if the element was found.
+	 */
+	private boolean moveToStartElement(final String name, final String parent) throws XMLStreamException {
+		while (xml.hasNext()) {
+			final int event = xml.next();
+			if (event == XMLStreamConstants.START_ELEMENT && xml.getLocalName().equals(name)) {
+				return true;
+			}
+			if (event == XMLStreamConstants.END_ELEMENT && null != parent && xml.getLocalName().equals(parent)) {
+				return false;
+			}
+		}
+		return false;
+	}
+}
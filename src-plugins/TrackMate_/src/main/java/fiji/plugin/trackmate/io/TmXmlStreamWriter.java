@@ -0,0 +1,316 @@
+package fiji.plugin.trackmate.io;
+
+import static fiji.plugin.trackmate.io.TmXmlKeys.FRAME_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.MODEL_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPATIAL_UNITS_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_COLLECTION_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_COLLECTION_NSPOTS_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_FRAME_COLLECTION_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_ID_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_NAME_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TIME_UNITS_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_COLLECTION_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_EDGE_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_NAME_ATTRIBUTE_NAME;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.jdom2.Attribute;
+import org.jdom2.Content;
+import org.jdom2.Element;
+import org.jdom2.Text;
+import org.jgrapht.graph.DefaultWeightedEdge;
+
+import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.features.edges.EdgeTargetAnalyzer;
+import fiji.plugin.trackmate.features.track.TrackIndexAnalyzer;
+
+/**
+ * A {@link TmXmlWriter} that streams the model content to the file instead of
+ * building a JDOM document of every spot, edge and feature first. The files
+ * it generates have the same layout than the ones of {@link TmXmlWriter}, and
+ * can be read with {@link TmXmlReader} or {@link TmXmlFrameReader}.
+ * <p>
+ * The settings, the log and the GUI state are small, and are still marshalled
+ * as JDOM elements. The {@link Model} is only referenced when appended, and
+ * its spots and tracks are written one by one when {@link #writeToFile()} is
+ * called, so the memory needed does not depend on the size of the model.
+ * The model must therefore not be modified between {@link #appendModel(Model)}
+ * and {@link #writeToFile()}.
+ */
+public class TmXmlStreamWriter extends TmXmlWriter {
+
+	private static final String INDENT = "  ";
+
+	/*
+	 * FIELD
+	 */
+
+	/** The models to stream, keyed by the empty element that stands for them in the root. */
+	private final Map<Element, Model> models = new IdentityHashMap<Element, Model>();
+
+	/*
+	 * CONSTRUCTORS
+	 */
+
+	/**
+	 * Creates a new streaming XML file writer for TrackMate.
+	 *
+	 * @param file the xml file to write to, will be overwritten.
+	 */
+	public TmXmlStreamWriter(File file) {
+		super(file);
+	}
+
+	/*
+	 * PUBLIC METHODS
+	 */
+
+	/**
+	 * Appends a {@link Model} to the file generated by this writer. Its content
+	 * is not marshalled now, but streamed when the file is written.
+	 * @param model the {@link Model} to write.
+	 */
+	@Override
+	public void appendModel(Model model) {
+		Element placeholder = new Element(MODEL_ELEMENT_KEY);
+		models.put(placeholder, model);
+		root.addContent(placeholder);
+	}
+
+	@Override
+	public void writeToFile() throws FileNotFoundException, IOException {
+		logger.log("  Writing to file.\n");
+		OutputStream os = new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+		try {
+			write(os);
+		} finally {
+			os.close();
+		}
+	}
+
+	/**
+	 * Writes the document to the specified stream, in UTF-8. Content must be
+	 * appended first. The stream is not closed.
+	 * @param os the stream to write to.
+	 */
+	public void write(OutputStream os) throws IOException {
+		try {
+			XMLStreamWriter xml = XMLOutputFactory.newInstance().createXMLStreamWriter(os, "UTF-8");
+			xml.writeStartDocument("UTF-8", "1.0");
+			writeElement(xml, root, 0);
+			xml.writeCharacters("\n");
+			xml.writeEndDocument();
+			xml.flush();
+			xml.close();
+		} catch (XMLStreamException e) {
+			throw new IOException("Problem writing " + file.getName() + ": " + e.getMessage());
+		}
+	}
+
+	@Override
+	public String toString() {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		try {
+			write(os);
+			return os.toString("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			e.printStackTrace();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return "";
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	/**
+	 * Writes a JDOM element and its content, or streams the model it stands for.
+	 */
+	private void writeElement(XMLStreamWriter xml, Element element, int depth) throws XMLStreamException {
+		Model model = models.get(element);
+		if (null != model) {
+			writeModel(xml, model, depth);
+			return;
+		}
+
+		indent(xml, depth);
+		List<Content> content = element.getContent();
+		if (content.isEmpty()) {
+			xml.writeEmptyElement(element.getName());
+			writeAttributes(xml, element);
+			return;
+		}
+
+		xml.writeStartElement(element.getName());
+		writeAttributes(xml, element);
+		boolean hasChildren = false;
+		for (Content child : content) {
+			if (child instanceof Element) {
+				writeElement(xml, (Element) child, depth + 1);
+				hasChildren = true;
+			} else if (child instanceof Text) {
+				xml.writeCharacters(((Text) child).getText());
+			}
+		}
+		if (hasChildren) {
+			indent(xml, depth);
+		}
+		xml.writeEndElement();
+	}
+
+	private void writeModel(XMLStreamWriter xml, Model model, int depth) throws XMLStreamException {
+		indent(xml, depth);
+		xml.writeStartElement(MODEL_ELEMENT_KEY);
+		xml.writeAttribute(SPATIAL_UNITS_ATTRIBUTE_NAME, model.getSpaceUnits());
+		xml.writeAttribute(TIME_UNITS_ATTRIBUTE_NAME, model.getTimeUnits());
+
+		writeElement(xml, echoFeaturesDeclaration(model), depth + 1);
+		writeSpots(xml, model, depth + 1);
+		writeTracks(xml, model, depth + 1);
+		writeElement(xml, echoFilteredTracks(model), depth + 1);
+
+		indent(xml, depth);
+		xml.writeEndElement();
+	}
+
+	private void writeSpots(XMLStreamWriter xml, Model model, int depth) throws XMLStreamException {
+		SpotCollection spots = model.getSpots();
+		int nspots = spots.getNSpots(false);
+
+		indent(xml, depth);
+		xml.writeStartElement(SPOT_COLLECTION_ELEMENT_KEY);
+		xml.writeAttribute(SPOT_COLLECTION_NSPOTS_ATTRIBUTE_NAME, "" + nspots);
+
+		for (int frame : spots.keySet()) {
+			indent(xml, depth + 1);
+			xml.writeStartElement(SPOT_FRAME_COLLECTION_ELEMENT_KEY);
+			xml.writeAttribute(FRAME_ATTRIBUTE_NAME, "" + frame);
+
+			for (Iterator<Spot> it = spots.iterator(frame, false); it.hasNext();) {
+				Spot spot = it.next();
+				indent(xml, depth + 2);
+				xml.writeEmptyElement(SPOT_ELEMENT_KEY);
+				xml.writeAttribute(SPOT_ID_ATTRIBUTE_NAME, "" + spot.ID());
+				xml.writeAttribute(SPOT_NAME_ATTRIBUTE_NAME, spot.getName());
+				for (Map.Entry<String, Double> entry : spot.getFeatures().entrySet()) {
+					if (null == entry.getValue())
+						continue;
+					xml.writeAttribute(entry.getKey(), entry.getValue().toString());
+				}
+			}
+
+			indent(xml, depth + 1);
+			xml.writeEndElement();
+		}
+
+		indent(xml, depth);
+		xml.writeEndElement();
+		logger.log("  Added " + nspots + " spots.\n");
+	}
+
+	private void writeTracks(XMLStreamWriter xml, Model model, int depth) throws XMLStreamException {
+		FeatureModel fm = model.getFeatureModel();
+
+		// Prepare track features for writing: we separate ints from doubles
+		List<String> trackIntFeatures = new ArrayList<String>();
+		trackIntFeatures.add(TrackIndexAnalyzer.TRACK_ID);
+		trackIntFeatures.add(TrackIndexAnalyzer.TRACK_INDEX);
+		List<String> trackDoubleFeatures = new ArrayList<String>(fm.getTrackFeatures());
+		trackDoubleFeatures.removeAll(trackIntFeatures);
+
+		// Same thing for edge features
+		List<String> edgeIntFeatures = new ArrayList<String>();
+		edgeIntFeatures.add(EdgeTargetAnalyzer.SPOT_SOURCE_ID);
+		edgeIntFeatures.add(EdgeTargetAnalyzer.SPOT_TARGET_ID);
+		List<String> edgeDoubleFeatures = new ArrayList<String>(fm.getEdgeFeatures());
+		edgeDoubleFeatures.removeAll(edgeIntFeatures);
+
+		indent(xml, depth);
+		xml.writeStartElement(TRACK_COLLECTION_ELEMENT_KEY);
+
+		Set<Integer> trackIDs = model.getTrackModel().trackIDs(false);
+		for (int trackID : trackIDs) {
+			Set<DefaultWeightedEdge> track = model.getTrackModel().trackEdges(trackID);
+			if (track.size() == 0) {
+				// Same as TmXmlWriter: tracks without edges are not written.
+				continue;
+			}
+
+			indent(xml, depth + 1);
+			xml.writeStartElement(TRACK_ELEMENT_KEY);
+			xml.writeAttribute(TRACK_NAME_ATTRIBUTE_NAME, model.getTrackModel().name(trackID));
+			for (String feature : trackDoubleFeatures) {
+				Double val = fm.getTrackFeature(trackID, feature);
+				xml.writeAttribute(feature, val.toString());
+			}
+			for (String feature : trackIntFeatures) {
+				int val = fm.getTrackFeature(trackID, feature).intValue();
+				xml.writeAttribute(feature, "" + val);
+			}
+
+			for (DefaultWeightedEdge edge : track) {
+				indent(xml, depth + 2);
+				xml.writeEmptyElement(TRACK_EDGE_ELEMENT_KEY);
+				for (String feature : edgeDoubleFeatures) {
+					Double val = fm.getEdgeFeature(edge, feature);
+					xml.writeAttribute(feature, val.toString());
+				}
+				for (String feature : edgeIntFeatures) {
+					int val = fm.getEdgeFeature(edge, feature).intValue();
+					xml.writeAttribute(feature, "" + val);
+				}
+			}
+
+			indent(xml, depth + 1);
+			xml.writeEndElement();
+		}
+
+		indent(xml, depth);
+		xml.writeEndElement();
+		logger.log("  Added tracks.\n");
+	}
+
+	/*
+	 * STATIC METHODS
+	 */
+
+	private static void writeAttributes(XMLStreamWriter xml, Element element) throws XMLStreamException {
+		for (Attribute attribute : element.getAttributes()) {
+			xml.writeAttribute(attribute.getName(), attribute.getValue());
+		}
+	}
+
+	private static void indent(XMLStreamWriter xml, int depth) throws XMLStreamException {
+		StringBuilder str = new StringBuilder(1 + depth * INDENT.length());
+		str.append('\n');
+		for (int i = 0; i < depth; i++) {
+			str.append(INDENT);
+		}
+		xml.writeCharacters(str.toString());
+	}
+}
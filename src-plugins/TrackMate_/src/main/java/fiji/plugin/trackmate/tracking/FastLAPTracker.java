@@ -2,6 +2,7 @@
 
 import fiji.plugin.trackmate.Logger;
 import fiji.plugin.trackmate.tracking.hungarian.AssignmentAlgorithm;
+import fiji.plugin.trackmate.tracking.hungarian.JonkerVolgenantAlgorithm;
 import fiji.plugin.trackmate.tracking.hungarian.MunkresKuhnAlgorithm;
 
 public class FastLAPTracker extends LAPTracker {
@@ -23,8 +24,10 @@ public class FastLAPTracker extends LAPTracker {
 			"Penalties can be set to favor linking between spots that have similar  <br> " +
 			"features. " +
 			"<p>" +
-			"Solving the LAP relies on the Munkres-Kuhn solver, <br> " +
-			"that solves an assignment problem in O(n^3) instead of O(n^4)." +
+			"Frame to frame linking only considers the spots within the max linking <br>" +
+			"distance, and is solved with the sparse Jonker-Volgenant solver. The <br>" +
+			"second step relies on the Munkres-Kuhn solver, that solves an assignment <br>" +
+			"problem in O(n^3) instead of O(n^4)." +
 			" </html>";
 
 	public FastLAPTracker(final Logger logger) {
@@ -40,6 +43,11 @@ protected AssignmentAlgorithm createAssignmentProblemSolver() {
 		return new MunkresKuhnAlgorithm();
 	}
 
+	@Override
+	protected JonkerVolgenantAlgorithm createSparseAssignmentProblemSolver() {
+		return new JonkerVolgenantAlgorithm();
+	}
+
 	@Override
 	public String toString() {
 		return NAME;
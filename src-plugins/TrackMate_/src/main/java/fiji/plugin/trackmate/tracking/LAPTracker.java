@@ -12,6 +12,7 @@
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import net.imglib2.algorithm.MultiThreadedBenchmarkAlgorithm;
@@ -25,10 +26,13 @@
 import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.SpotCollection;
 import fiji.plugin.trackmate.tracking.costmatrix.LinkingCostMatrixCreator;
+import fiji.plugin.trackmate.tracking.costmatrix.SparseLinkingCostMatrixCreator;
 import fiji.plugin.trackmate.tracking.costmatrix.TrackSegmentCostMatrixCreator;
 import fiji.plugin.trackmate.tracking.hungarian.AssignmentAlgorithm;
 import fiji.plugin.trackmate.tracking.hungarian.AssignmentProblem;
 import fiji.plugin.trackmate.tracking.hungarian.HungarianAlgorithm;
+import fiji.plugin.trackmate.tracking.hungarian.JonkerVolgenantAlgorithm;
+import fiji.plugin.trackmate.tracking.hungarian.SparseCostMatrix;
 
 /**
  *
@@ -198,6 +202,21 @@ protected AssignmentAlgorithm createAssignmentProblemSolver() {
 		return new HungarianAlgorithm();
 	}
 
+	/**
+	 * Hook for subclassers. Generate the solver used for the frame to frame
+	 * linking step with a {@link SparseCostMatrix}, that only stores the
+	 * links shorter than the maximal linking distance. This keeps memory and
+	 * time bounded when frames contain many spots.
+	 * <p>
+	 * Here, by default, it returns <code>null</code>, and the frame to frame
+	 * linking uses the dense cost matrix built by
+	 * {@link #createFrameToFrameLinkingCostMatrix(List, List, Map)} and the
+	 * solver returned by {@link #createAssignmentProblemSolver()}.
+	 */
+	protected JonkerVolgenantAlgorithm createSparseAssignmentProblemSolver() {
+		return null;
+	}
+
 	/*
 	 * METHODS
 	 */
@@ -464,6 +483,7 @@ public boolean solveLAPForTrackSegments() {
 		// Prepare the thread array
 		final AtomicInteger ai = new AtomicInteger(0);
 		final AtomicInteger progress = new AtomicInteger(0);
+		final AtomicBoolean ok = new AtomicBoolean(true);
 		for (int ithread = 0; ithread < threads.length; ithread++) {
 
 			threads[ithread] = new Thread("LAPTracker track segment linking thread "+(1+ithread)+"/"+threads.length) {
@@ -471,7 +491,7 @@ public boolean solveLAPForTrackSegments() {
 				@Override
 				public void run() {
 
-					for (int i = ai.getAndIncrement(); i < framePairs.size(); i = ai.getAndIncrement()) {
+					for (int i = ai.getAndIncrement(); ok.get() && i < framePairs.size(); i = ai.getAndIncrement()) {
 
 						// Get frame pairs
 						final int frame0 = framePairs.get(i)[0];
@@ -488,6 +508,17 @@ public void run() {
 							t1.add(iterator.next());
 						}
 
+						// Sparse path: only candidate links are stored and solved
+						final JonkerVolgenantAlgorithm sparseSolver = createSparseAssignmentProblemSolver();
+						if (null != sparseSolver) {
+							if (!linkFramePairSparse(t0, t1, sparseSolver)) {
+								ok.set(false);
+								return;
+							}
+							logger.setProgress(0.5f * progress.incrementAndGet() / framePairs.size());
+							continue;
+						}
+
 						// Create cost matrix
 						final double[][] costMatrix = createFrameToFrameLinkingCostMatrix(t0, t1, settings);
 
@@ -544,10 +575,50 @@ public void run() {
 		SimpleMultiThreading.startAndJoin(threads);
 		logger.setProgress(0.5f);
 		logger.setStatus("");
-		return true;
+		return ok.get();
 	}
 
 
+	/**
+	 * Links the spots of two frames using a sparse cost matrix, and adds the
+	 * links found to the graph.
+	 *
+	 * @return <code>false</code> if the cost matrix could not be created. The
+	 * {@link #errorMessage} then says why.
+	 * @see SparseLinkingCostMatrixCreator
+	 */
+	protected boolean linkFramePairSparse(final List<Spot> t0, final List<Spot> t1, final JonkerVolgenantAlgorithm solver) {
+		final SparseLinkingCostMatrixCreator objCosts = new SparseLinkingCostMatrixCreator(t0, t1, settings);
+		if (!objCosts.checkInput() || !objCosts.process()) {
+			synchronized (this) {
+				errorMessage = BASE_ERROR_MESSAGE + objCosts.getErrorMessage();
+			}
+			return false;
+		}
+		if (objCosts.getNLinks() == 0) {
+			// No candidate link between these two frames
+			return true;
+		}
+		final SparseCostMatrix costMatrix = objCosts.getResult();
+		final int[][] solutions = solver.computeAssignments(costMatrix);
+
+		for (final int[] solution : solutions) {
+			final int i0 = solution[0];
+			final int i1 = solution[1];
+			if (i0 < t0.size() && i1 < t1.size()) {
+				// Solution belong to the upper-left quadrant: we can connect the spots
+				final Spot s0 = t0.get(i0);
+				final Spot s1 = t1.get(i1);
+				final double weight = costMatrix.get(i0, i1, Double.NaN);
+				synchronized (graph) {
+					final DefaultWeightedEdge edge = graph.addEdge(s0, s1);
+					graph.setEdgeWeight(edge, weight);
+				}
+			}
+		}
+		return true;
+	}
+
 	/**
 	 * Hook for subclassers.
 	 * <p>
@@ -0,0 +1,233 @@
+package fiji.plugin.trackmate.tracking.costmatrix;
+
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_ALTERNATIVE_LINKING_COST_FACTOR;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_BLOCKING_VALUE;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_LINKING_FEATURE_PENALTIES;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_LINKING_MAX_DISTANCE;
+import static fiji.plugin.trackmate.util.TMUtils.checkParameter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import net.imglib2.algorithm.MultiThreadedBenchmarkAlgorithm;
+import net.imglib2.algorithm.OutputAlgorithm;
+import net.imglib2.collection.KDTree;
+import net.imglib2.neighborsearch.RadiusNeighborSearchOnKDTree;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.tracking.LAPUtils;
+import fiji.plugin.trackmate.tracking.hungarian.SparseCostMatrix;
+
+/**
+ * Creates the same frame to frame linking cost matrix as
+ * {@link LinkingCostMatrixCreator}, but as a {@link SparseCostMatrix}.
+ * <p>
+ * With a maximal linking distance, almost all the entries of the top-left
+ * quadrant are blocked, and so are all the off-diagonal entries of the
+ * alternative quadrants. Here, the candidate links are found by a radius search
+ * in a KD-tree built over the spots of the second frame, and only the allowed
+ * entries are stored:
+ * <ul>
+ * 	<li>top-left: the linking cost of each candidate link;
+ * 	<li>top-right and bottom-left: the alternative cost on the diagonal;
+ * 	<li>bottom-right: the alternative cost at the transposed position of each
+ * candidate link.
+ * </ul>
+ * The memory and time needed are therefore proportional to the number of
+ * candidate links instead of the square of the number of spots.
+ */
+public class SparseLinkingCostMatrixCreator extends MultiThreadedBenchmarkAlgorithm implements OutputAlgorithm<SparseCostMatrix> {
+
+	/** The Spots belonging to time frame t. */
+	protected final List<Spot> t0;
+	/** The Spots belonging to time frame t+1. */
+	protected final List<Spot> t1;
+	/** The settings to comply to create a cost matrix. */
+	protected final Map<String, Object> settings;
+	/** The cost matrix created by the class. */
+	protected SparseCostMatrix costs;
+	/** The number of candidate links, stored in the top-left quadrant. */
+	protected int nLinks;
+
+	/*
+	 * CONSTRUCTOR
+	 */
+
+	public SparseLinkingCostMatrixCreator(final List<Spot> t0, final List<Spot> t1, final Map<String, Object> settings) {
+		this.t0 = t0;
+		this.t1 = t1;
+		this.settings = settings;
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	@Override
+	public boolean checkInput() {
+		boolean ok = true;
+		final StringBuilder errorHolder = new StringBuilder();
+		ok = ok & checkParameter(settings, KEY_LINKING_MAX_DISTANCE, Double.class, errorHolder);
+		ok = ok & checkParameter(settings, KEY_LINKING_FEATURE_PENALTIES, Map.class, errorHolder);
+		ok = ok & checkParameter(settings, KEY_BLOCKING_VALUE, Double.class, errorHolder);
+		ok = ok & checkParameter(settings, KEY_ALTERNATIVE_LINKING_COST_FACTOR, Double.class, errorHolder);
+		if (!ok) {
+			errorMessage = errorHolder.toString();
+		}
+		return ok;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public boolean process() {
+		final long start = System.currentTimeMillis();
+
+		final double maxDist = (Double) settings.get(KEY_LINKING_MAX_DISTANCE);
+		final double blockingValue = (Double) settings.get(KEY_BLOCKING_VALUE);
+		final double alternativeObjectLinkingCostFactor = (Double) settings.get(KEY_ALTERNATIVE_LINKING_COST_FACTOR);
+		final Map<String, Double> featurePenalties = (Map<String, Double>) settings.get(KEY_LINKING_FEATURE_PENALTIES);
+
+		final int n0 = t0.size();
+		final int n1 = t1.size();
+
+		/*
+		 * 1. Candidate links, by radius search. For each source spot, the
+		 * targets are sorted by index.
+		 */
+
+		final int[][] targets = new int[n0][];
+		final double[][] linkCosts = new double[n0][];
+		nLinks = 0;
+		double maxCost = Double.NEGATIVE_INFINITY;
+
+		if (n0 > 0 && n1 > 0) {
+			final List<Integer> indices = new ArrayList<Integer>(n1);
+			for (int j = 0; j < n1; j++) {
+				indices.add(Integer.valueOf(j));
+			}
+			final KDTree<Integer> tree = new KDTree<Integer>(indices, t1);
+			final RadiusNeighborSearchOnKDTree<Integer> search = new RadiusNeighborSearchOnKDTree<Integer>(tree);
+
+			for (int i = 0; i < n0; i++) {
+				final Spot s0 = t0.get(i);
+				search.search(s0, maxDist, false);
+				final int nNeighbors = search.numNeighbors();
+
+				final int[] candidates = new int[nNeighbors];
+				for (int n = 0; n < nNeighbors; n++) {
+					candidates[n] = search.getSampler(n).get().intValue();
+				}
+				Arrays.sort(candidates);
+
+				int nAllowed = 0;
+				final double[] c = new double[nNeighbors];
+				for (int n = 0; n < nNeighbors; n++) {
+					final double cost = LAPUtils.computeLinkingCostFor(s0, t1.get(candidates[n]), maxDist, blockingValue, featurePenalties);
+					if (cost >= blockingValue) {
+						continue;
+					}
+					candidates[nAllowed] = candidates[n];
+					c[nAllowed] = cost;
+					nAllowed++;
+					if (cost > maxCost) {
+						maxCost = cost;
+					}
+				}
+				targets[i] = Arrays.copyOf(candidates, nAllowed);
+				linkCosts[i] = Arrays.copyOf(c, nAllowed);
+				nLinks += nAllowed;
+			}
+		} else {
+			for (int i = 0; i < n0; i++) {
+				targets[i] = new int[0];
+				linkCosts[i] = new double[0];
+			}
+		}
+
+		/*
+		 * 2. Assemble the (n0+n1) x (n1+n0) matrix, row by row. Columns are
+		 * sorted within each row.
+		 */
+
+		final double cutoff = nLinks > 0 ? alternativeObjectLinkingCostFactor * maxCost : 0;
+
+		// Sources of each target, for the bottom-right quadrant
+		final int[] nSources = new int[n1];
+		for (int i = 0; i < n0; i++) {
+			for (final int j : targets[i]) {
+				nSources[j]++;
+			}
+		}
+		final int[][] sources = new int[n1][];
+		for (int j = 0; j < n1; j++) {
+			sources[j] = new int[nSources[j]];
+			nSources[j] = 0;
+		}
+		for (int i = 0; i < n0; i++) { // ascending i, so sources are sorted
+			for (final int j : targets[i]) {
+				sources[j][nSources[j]++] = i;
+			}
+		}
+
+		final int nEntries = 2 * nLinks + n0 + n1;
+		final double[] cc = new double[nEntries];
+		final int[] kk = new int[nEntries];
+		final int[] number = new int[n0 + n1];
+		int index = 0;
+
+		// Top rows: links, then the alternative cost on the diagonal of the top-right quadrant
+		for (int i = 0; i < n0; i++) {
+			for (int n = 0; n < targets[i].length; n++) {
+				kk[index] = targets[i][n];
+				cc[index] = linkCosts[i][n];
+				index++;
+			}
+			kk[index] = n1 + i;
+			cc[index] = cutoff;
+			index++;
+			number[i] = targets[i].length + 1;
+		}
+
+		// Bottom rows: the alternative cost on the diagonal of the bottom-left quadrant, then the transposed links
+		for (int j = 0; j < n1; j++) {
+			kk[index] = j;
+			cc[index] = cutoff;
+			index++;
+			for (final int i : sources[j]) {
+				kk[index] = n1 + i;
+				cc[index] = cutoff;
+				index++;
+			}
+			number[n0 + j] = sources[j].length + 1;
+		}
+
+		costs = new SparseCostMatrix(cc, kk, number, n1 + n0);
+
+		final long end = System.currentTimeMillis();
+		processingTime = end - start;
+		return true;
+	}
+
+	/**
+	 * Returns the sparse cost matrix created by this class.
+	 */
+	@Override
+	public SparseCostMatrix getResult() {
+		return costs;
+	}
+
+	/**
+	 * Returns the number of candidate links found, that is, the number of
+	 * entries in the top-left quadrant of the cost matrix. If it is 0, there
+	 * is no link to make between the two frames.
+	 */
+	public int getNLinks() {
+		return nLinks;
+	}
+
+	@Override
+	public String getErrorMessage() {
+		return errorMessage;
+	}
+}
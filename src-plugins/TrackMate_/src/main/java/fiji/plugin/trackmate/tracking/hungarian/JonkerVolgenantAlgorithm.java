@@ -0,0 +1,351 @@
+package fiji.plugin.trackmate.tracking.hungarian;
+
+import java.util.Arrays;
+
+/**
+ * Solves the linear assignment problem on a {@link SparseCostMatrix}, using the
+ * shortest augmenting path method of Jonker and Volgenant:
+ * <p>
+ * R. Jonker and A. Volgenant, "A Shortest Augmenting Path Algorithm for Dense
+ * and Sparse Linear Assignment Problems", Computing 38, 325-340 (1987).
+ * <p>
+ * The algorithm maintains dual variables (potentials) <code>u</code> for rows
+ * and <code>v</code> for columns, such that the reduced cost
+ * <code>c(i,j) - u(i) - v(j)</code> is non-negative for all stored entries and
+ * zero for assigned entries. It starts with a column reduction followed by a
+ * greedy assignment of the rows over entries with a zero reduced cost, which
+ * in tracking problems already assigns most of the rows. Every remaining row is
+ * then assigned by finding the shortest augmenting path in the reduced costs
+ * with Dijkstra's algorithm. Only the stored entries are visited, and the
+ * priority queue makes each search proportional to the number of entries
+ * reachable from the row rather than to the square of the matrix size.
+ * <p>
+ * Missing entries are forbidden assignments. If a row cannot be assigned at
+ * all, it is left out of the solution.
+ * <p>
+ * Instances are stateless and can be shared across threads.
+ */
+public class JonkerVolgenantAlgorithm implements AssignmentAlgorithm {
+
+	/** Dense cost matrix entries larger than or equal to this value are forbidden. */
+	private final double blockingValue;
+
+	/*
+	 * CONSTRUCTORS
+	 */
+
+	/**
+	 * Creates a new solver. When solving dense matrices, entries larger than or
+	 * equal to the specified blocking value are considered as forbidden
+	 * assignments.
+	 */
+	public JonkerVolgenantAlgorithm(final double blockingValue) {
+		this.blockingValue = blockingValue;
+	}
+
+	/**
+	 * Creates a new solver. When solving dense matrices, entries equal to
+	 * {@link Double#MAX_VALUE}, or infinite, are considered as forbidden
+	 * assignments.
+	 */
+	public JonkerVolgenantAlgorithm() {
+		this(Double.MAX_VALUE);
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	/**
+	 * Solves the assignment problem for the specified dense matrix. The matrix
+	 * is first converted to a {@link SparseCostMatrix}, dropping the blocked
+	 * entries.
+	 */
+	@Override
+	public int[][] computeAssignments(final double[][] costMatrix) {
+		return computeAssignments(SparseCostMatrix.fromFullMatrix(costMatrix, blockingValue));
+	}
+
+	/**
+	 * Solves the assignment problem for the specified sparse matrix.
+	 *
+	 * @param cm  the sparse cost matrix. It is not modified.
+	 * @return an array of solutions, as arrays of 2 ints: the row index and
+	 * the column index of each assignment.
+	 * @see AssignmentAlgorithm#computeAssignments(double[][])
+	 */
+	public int[][] computeAssignments(final SparseCostMatrix cm) {
+		final int nRows = cm.nRows;
+		final int nCols = cm.nCols;
+		final double[] cc = cm.cc;
+		final int[] kk = cm.kk;
+		final int[] number = cm.number;
+		final int[] start = cm.start;
+
+		/*
+		 * Column assigned to each row, and row assigned to each column.
+		 */
+		final int[] x = new int[nRows];
+		final int[] y = new int[nCols];
+		Arrays.fill(x, -1);
+		Arrays.fill(y, -1);
+		final double[] u = new double[nRows];
+		final double[] v = new double[nCols];
+
+		/*
+		 * 1. Column reduction.
+		 */
+
+		Arrays.fill(v, Double.POSITIVE_INFINITY);
+		for (int k = 0; k < cc.length; k++) {
+			if (cc[k] < v[kk[k]]) {
+				v[kk[k]] = cc[k];
+			}
+		}
+		for (int j = 0; j < nCols; j++) {
+			if (Double.isInfinite(v[j])) {
+				// Empty column
+				v[j] = 0;
+			}
+		}
+
+		/*
+		 * 2. Row reduction, and greedy assignment over tight entries.
+		 */
+
+		for (int i = 0; i < nRows; i++) {
+			final int end = start[i] + number[i];
+			double min = Double.POSITIVE_INFINITY;
+			for (int k = start[i]; k < end; k++) {
+				final double r = cc[k] - v[kk[k]];
+				if (r < min) {
+					min = r;
+				}
+			}
+			if (number[i] == 0) {
+				continue;
+			}
+			u[i] = min;
+			for (int k = start[i]; k < end; k++) {
+				final int j = kk[k];
+				if (y[j] < 0 && cc[k] - v[j] == min) {
+					x[i] = j;
+					y[j] = i;
+					break;
+				}
+			}
+		}
+
+		/*
+		 * 3. Shortest augmenting paths for the rows left unassigned.
+		 */
+
+		final double[] d = new double[nCols];
+		Arrays.fill(d, Double.POSITIVE_INFINITY);
+		final int[] pred = new int[nCols];
+		final boolean[] scanned = new boolean[nCols];
+		// Columns whose distance was set, to reset them quickly after each search
+		final int[] touched = new int[nCols];
+		// Columns whose distance is final, in the order they were scanned
+		final int[] scannedCols = new int[nCols];
+		final Heap heap = new Heap(16);
+
+		for (int r = 0; r < nRows; r++) {
+			if (x[r] >= 0 || number[r] == 0) {
+				continue;
+			}
+
+			heap.clear();
+			int nTouched = 0;
+			int nScanned = 0;
+			int sink = -1;
+			double dSink = 0;
+
+			int i = r;
+			double di = 0;
+			while (true) {
+
+				// Relax the entries of row i
+				final int end = start[i] + number[i];
+				for (int k = start[i]; k < end; k++) {
+					final int j = kk[k];
+					if (scanned[j]) {
+						continue;
+					}
+					final double dj = di + cc[k] - u[i] - v[j];
+					if (dj < d[j]) {
+						if (d[j] == Double.POSITIVE_INFINITY) {
+							touched[nTouched++] = j;
+						}
+						d[j] = dj;
+						pred[j] = i;
+						heap.push(dj, j);
+					}
+				}
+
+				// Find the closest unscanned column
+				int j = -1;
+				double dj = 0;
+				while (!heap.isEmpty()) {
+					dj = heap.peekKey();
+					final int candidate = heap.pop();
+					if (!scanned[candidate] && dj <= d[candidate]) {
+						j = candidate;
+						break;
+					}
+				}
+				if (j < 0) {
+					// Row r cannot be assigned
+					break;
+				}
+
+				if (y[j] < 0) {
+					// Free column: we found an augmenting path
+					sink = j;
+					dSink = dj;
+					break;
+				}
+
+				scanned[j] = true;
+				scannedCols[nScanned++] = j;
+				i = y[j];
+				di = dj;
+			}
+
+			if (sink >= 0) {
+
+				// Update potentials
+				u[r] += dSink;
+				for (int t = 0; t < nScanned; t++) {
+					final int j = scannedCols[t];
+					final double delta = dSink - d[j];
+					v[j] -= delta;
+					u[y[j]] += delta;
+				}
+
+				// Augment along the path
+				int j = sink;
+				while (true) {
+					final int pi = pred[j];
+					final int next = x[pi];
+					y[j] = pi;
+					x[pi] = j;
+					if (pi == r) {
+						break;
+					}
+					j = next;
+				}
+			}
+
+			// Reset
+			for (int t = 0; t < nTouched; t++) {
+				d[touched[t]] = Double.POSITIVE_INFINITY;
+				scanned[touched[t]] = false;
+			}
+		}
+
+		/*
+		 * Collect solutions
+		 */
+
+		int nAssigned = 0;
+		for (int i = 0; i < nRows; i++) {
+			if (x[i] >= 0) {
+				nAssigned++;
+			}
+		}
+		final int[][] solutions = new int[nAssigned][];
+		int index = 0;
+		for (int i = 0; i < nRows; i++) {
+			if (x[i] >= 0) {
+				solutions[index++] = new int[] { i, x[i] };
+			}
+		}
+		return solutions;
+	}
+
+	@Override
+	public String toString() {
+		return "Jonker-Volgenant sparse LAP solver";
+	}
+
+	/*
+	 * INNER CLASS
+	 */
+
+	/**
+	 * A minimal binary min-heap of column indices sorted by distance. Distances
+	 * are never decreased in place: a column is pushed again instead, and stale
+	 * copies are skipped when popped.
+	 */
+	private static final class Heap {
+
+		private double[] keys;
+		private int[] values;
+		private int size = 0;
+
+		Heap(final int capacity) {
+			keys = new double[capacity];
+			values = new int[capacity];
+		}
+
+		void clear() {
+			size = 0;
+		}
+
+		boolean isEmpty() {
+			return size == 0;
+		}
+
+		double peekKey() {
+			return keys[0];
+		}
+
+		void push(final double key, final int value) {
+			if (size == keys.length) {
+				keys = Arrays.copyOf(keys, 2 * size);
+				values = Arrays.copyOf(values, 2 * size);
+			}
+			int k = size++;
+			while (k > 0) {
+				final int parent = (k - 1) >>> 1;
+				if (keys[parent] <= key) {
+					break;
+				}
+				keys[k] = keys[parent];
+				values[k] = values[parent];
+				k = parent;
+			}
+			keys[k] = key;
+			values[k] = value;
+		}
+
+		int pop() {
+			final int top = values[0];
+			size--;
+			if (size > 0) {
+				final double key = keys[size];
+				final int value = values[size];
+				int k = 0;
+				while (true) {
+					int child = 2 * k + 1;
+					if (child >= size) {
+						break;
+					}
+					if (child + 1 < size && keys[child + 1] < keys[child]) {
+						child++;
+					}
+					if (key <= keys[child]) {
+						break;
+					}
+					keys[k] = keys[child];
+					values[k] = values[child];
+					k = child;
+				}
+				keys[k] = key;
+				values[k] = value;
+			}
+			return top;
+		}
+	}
+}
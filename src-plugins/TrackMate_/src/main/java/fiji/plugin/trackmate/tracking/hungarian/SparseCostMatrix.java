@@ -0,0 +1,186 @@
+package fiji.plugin.trackmate.tracking.hungarian;
+
+import java.util.Arrays;
+
+/**
+ * A sparse cost matrix, stored in the compressed sparse row (CSR) format.
+ * <p>
+ * Only the entries that correspond to allowed assignments are stored. Missing
+ * entries are forbidden assignments, which is what the blocking value encodes
+ * in the dense cost matrices. For a row <code>i</code>, the column indices of
+ * the stored entries are <code>kk[start[i]]</code> to
+ * <code>kk[start[i] + number[i] - 1]</code>, and the costs are stored at the
+ * same indices in <code>cc</code>.
+ * <p>
+ * The memory needed is proportional to the number of allowed assignments,
+ * instead of the square of the number of rows.
+ */
+public class SparseCostMatrix {
+
+	/** The costs of the stored entries, row by row. */
+	protected final double[] cc;
+	/** The column index of the stored entries, row by row. */
+	protected final int[] kk;
+	/** The number of stored entries in each row. */
+	protected final int[] number;
+	/** The index in {@link #cc} and {@link #kk} of the first entry of each row. */
+	protected final int[] start;
+	protected final int nRows;
+	protected final int nCols;
+
+	/*
+	 * CONSTRUCTORS
+	 */
+
+	/**
+	 * Creates a new sparse cost matrix.
+	 *
+	 * @param cc  the costs of the stored entries, row by row.
+	 * @param kk  the column index of the stored entries, row by row. Must have
+	 * the same length than <code>cc</code>.
+	 * @param number  the number of stored entries in each row. Its length sets
+	 * the number of rows, and its elements must sum to the length of <code>cc</code>.
+	 * @param nCols  the number of columns.
+	 * @throws IllegalArgumentException  if the arrays are not consistent.
+	 */
+	public SparseCostMatrix(final double[] cc, final int[] kk, final int[] number, final int nCols) {
+		if (cc.length != kk.length) {
+			throw new IllegalArgumentException("Cost and column index arrays must have the same length. Got " + cc.length + " and " + kk.length + ".");
+		}
+		this.cc = cc;
+		this.kk = kk;
+		this.number = number;
+		this.nRows = number.length;
+		this.nCols = nCols;
+
+		this.start = new int[nRows];
+		int index = 0;
+		for (int i = 0; i < nRows; i++) {
+			start[i] = index;
+			index += number[i];
+		}
+		if (index != cc.length) {
+			throw new IllegalArgumentException("Row entry numbers sum to " + index + ", but there are " + cc.length + " entries.");
+		}
+		for (final int k : kk) {
+			if (k < 0 || k >= nCols) {
+				throw new IllegalArgumentException("Column index " + k + " is out of bounds [0, " + nCols + "[.");
+			}
+		}
+	}
+
+	/**
+	 * Creates a sparse cost matrix from a dense one. Entries larger than or
+	 * equal to the specified blocking value, and infinite or NaN entries, are
+	 * not stored.
+	 *
+	 * @param costMatrix  the dense cost matrix, as an array of rows.
+	 * @param blockingValue  the cost of forbidden assignments.
+	 */
+	public static SparseCostMatrix fromFullMatrix(final double[][] costMatrix, final double blockingValue) {
+		final int nRows = costMatrix.length;
+		final int nCols = nRows == 0 ? 0 : costMatrix[0].length;
+
+		final int[] number = new int[nRows];
+		int nEntries = 0;
+		for (int i = 0; i < nRows; i++) {
+			for (int j = 0; j < nCols; j++) {
+				if (isAllowed(costMatrix[i][j], blockingValue)) {
+					number[i]++;
+				}
+			}
+			nEntries += number[i];
+		}
+
+		final double[] cc = new double[nEntries];
+		final int[] kk = new int[nEntries];
+		int index = 0;
+		for (int i = 0; i < nRows; i++) {
+			for (int j = 0; j < nCols; j++) {
+				if (isAllowed(costMatrix[i][j], blockingValue)) {
+					cc[index] = costMatrix[i][j];
+					kk[index] = j;
+					index++;
+				}
+			}
+		}
+		return new SparseCostMatrix(cc, kk, number, nCols);
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	/**
+	 * Returns the cost of the specified entry, or the specified missing value
+	 * if it is not stored in this matrix.
+	 */
+	public double get(final int i, final int j, final double missingValue) {
+		final int end = start[i] + number[i];
+		for (int k = start[i]; k < end; k++) {
+			if (kk[k] == j) {
+				return cc[k];
+			}
+		}
+		return missingValue;
+	}
+
+	/**
+	 * Returns a dense copy of this matrix, where missing entries are set
+	 * to the specified value. For debugging purposes: the point of this
+	 * class is to avoid allocating it.
+	 */
+	public double[][] toFullMatrix(final double missingValue) {
+		final double[][] m = new double[nRows][nCols];
+		for (int i = 0; i < nRows; i++) {
+			Arrays.fill(m[i], missingValue);
+			final int end = start[i] + number[i];
+			for (int k = start[i]; k < end; k++) {
+				m[i][kk[k]] = cc[k];
+			}
+		}
+		return m;
+	}
+
+	/**
+	 * Returns the total cost of the specified assignments, given as an
+	 * array of <code>{row, column}</code> pairs. Returns
+	 * {@link Double#POSITIVE_INFINITY} if one of them is not stored in this
+	 * matrix.
+	 */
+	public double totalAssignmentCost(final int[][] assignments) {
+		double sum = 0;
+		for (final int[] assignment : assignments) {
+			if (assignment.length < 2) {
+				continue;
+			}
+			sum += get(assignment[0], assignment[1], Double.POSITIVE_INFINITY);
+		}
+		return sum;
+	}
+
+	public int getNRows() {
+		return nRows;
+	}
+
+	public int getNCols() {
+		return nCols;
+	}
+
+	/**
+	 * Returns the number of entries stored in this matrix.
+	 */
+	public int getNEntries() {
+		return cc.length;
+	}
+
+	@Override
+	public String toString() {
+		return super.toString() + " " + nRows + " x " + nCols + " with " + cc.length + " entries (" +
+				String.format("%.1f", 100d * cc.length / Math.max(1d, (double) nRows * nCols)) + "% filled)";
+	}
+
+	private static final boolean isAllowed(final double cost, final double blockingValue) {
+		return cost < blockingValue && !Double.isInfinite(cost) && !Double.isNaN(cost);
+	}
+}
@@ -433,6 +433,145 @@ public void testLastKey() {
 		assertEquals(targetFrame, sc.lastKey().longValue());
 	}
 
+	@Test
+	public void testFilterWithoutFeatureStore() {
+		FeatureFilter filter1 = new FeatureFilter(Spot.QUALITY, 2d, false);
+		FeatureFilter filter2 = new FeatureFilter(Spot.FRAME, 91d, true);
+		List<FeatureFilter> filters = Arrays.asList(new FeatureFilter[] { filter1, filter2 } );
+
+		sc.setUseFeatureStore(true);
+		sc.filter(filters);
+		HashSet<Spot> expected = new HashSet<Spot>();
+		for (Spot spot : sc.iterable(true)) {
+			expected.add(spot);
+		}
+
+		sc.setVisible(false);
+		sc.setUseFeatureStore(false);
+		sc.filter(filters);
+		HashSet<Spot> actual = new HashSet<Spot>();
+		for (Spot spot : sc.iterable(true)) {
+			actual.add(spot);
+		}
+		assertEquals(expected, actual);
+	}
+
+	@Test
+	public void testCollectValues() {
+		FeatureFilter filter = new FeatureFilter(Spot.QUALITY, 2d, false);
+		sc.setUseFeatureStore(true);
+		sc.filter(filter);
+
+		double[] all = sc.collectValues(Spot.QUALITY, false);
+		double[] visible = sc.collectValues(Spot.QUALITY, true);
+		assertEquals(N_SPOTS * N_FRAMES, all.length);
+		assertEquals(3 * N_FRAMES, visible.length);
+		for (double val : visible) {
+			assertTrue(val <= 2d);
+		}
+
+		sc.setUseFeatureStore(false);
+		double[] expected = sc.collectValues(Spot.QUALITY, false);
+		Arrays.sort(expected);
+		Arrays.sort(all);
+		assertArrayEquals(expected, all, 0d);
+	}
+
+	@Test
+	public void testFeatureStoreInvalidation() {
+		SpotFeatureStore store = sc.getFeatureStore();
+		assertEquals(N_SPOTS * N_FRAMES, store.size());
+		assertEquals(N_FRAMES, store.getNFrames());
+		for (int f = 0; f < store.getNFrames(); f++) {
+			for (int i = store.getFrameStart(f); i < store.getFrameEnd(f); i++) {
+				assertEquals(store.getFrame(f), store.getSpot(i).getFeature(Spot.FRAME).intValue());
+				assertEquals(i, store.indexOf(store.getSpot(i)));
+			}
+		}
+
+		// Adding a spot must rebuild the store
+		Spot spot = new Spot(new double[] { 0, 0, 0 });
+		spot.putFeature(Spot.QUALITY, Double.valueOf(-1));
+		assertEquals(-1, store.indexOf(spot));
+		sc.add(spot, 1);
+		SpotFeatureStore store2 = sc.getFeatureStore();
+		assertTrue(store != store2);
+		assertEquals(N_SPOTS * N_FRAMES + 1, store2.size());
+		assertEquals(-1d, store2.getColumn(Spot.QUALITY)[store2.indexOf(spot)], 0d);
+
+		// Missing features are NaN
+		assertTrue(Double.isNaN(store2.getColumn(Spot.RADIUS)[store2.indexOf(spot)]));
+
+		// Removing it must rebuild the store without it
+		assertTrue(sc.remove(spot, 1));
+		SpotFeatureStore store3 = sc.getFeatureStore();
+		assertTrue(store2 != store3);
+		assertEquals(N_SPOTS * N_FRAMES, store3.size());
+		assertEquals(-1, store3.indexOf(spot));
+	}
+
+	@Test
+	public void testFilteringKeepsFeatureVersions() {
+		sc.setUseFeatureStore(true);
+		Spot spot = sc.iterator(1, false).next();
+		int version = spot.getFeatureVersion();
+
+		// Visibility is not versioned, so filtering leaves the columns valid
+		sc.filter(new FeatureFilter(Spot.QUALITY, 50d, true));
+		sc.filter(new FeatureFilter(Spot.QUALITY, 50d, false));
+		assertEquals(version, spot.getFeatureVersion());
+
+		spot.putFeature(Spot.QUALITY, Double.valueOf(3));
+		assertTrue(version != spot.getFeatureVersion());
+	}
+
+	@Test
+	public void testFeatureUpdatedOutsideModel() {
+		sc.setUseFeatureStore(true);
+		FeatureFilter filter = new FeatureFilter(Spot.QUALITY, 50d, true);
+		sc.filter(filter);
+		assertEquals(N_SPOTS / 2, sc.getNSpots(1, true));
+
+		// Change a feature straight on the spot, bypassing the model
+		Spot spot = sc.iterator(1, false).next();
+		double oldQuality = spot.getFeature(Spot.QUALITY).doubleValue();
+		double newQuality = oldQuality < 50d ? 100d : -1d;
+		spot.putFeature(Spot.QUALITY, Double.valueOf(newQuality));
+
+		// The store must pick up the new value
+		sc.filter(filter);
+		assertEquals(newQuality > 50d, isVisible(spot));
+		assertEquals(N_SPOTS / 2, sc.getNSpots(1, true));
+		double[] all = sc.collectValues(Spot.QUALITY, false);
+		Arrays.sort(all);
+		assertTrue(Arrays.binarySearch(all, newQuality) >= 0);
+	}
+
+	@Test
+	public void testFilterMissingFeatureWithFeatureStore() {
+		Spot spot = new Spot(new double[] { 0, 0, 0 });
+		spot.putFeature(Spot.QUALITY, Double.valueOf(100));
+		sc.add(spot, 1);
+
+		sc.setUseFeatureStore(false);
+		sc.setVisible(false);
+		sc.filter(new FeatureFilter(Spot.RADIUS, 1d, true));
+		HashSet<Spot> expected = new HashSet<Spot>();
+		for (Spot s : sc.iterable(true)) {
+			expected.add(s);
+		}
+
+		sc.setUseFeatureStore(true);
+		sc.setVisible(false);
+		sc.filter(new FeatureFilter(Spot.RADIUS, 1d, true));
+		HashSet<Spot> actual = new HashSet<Spot>();
+		for (Spot s : sc.iterable(true)) {
+			actual.add(s);
+		}
+		assertEquals(expected, actual);
+		assertFalse(actual.contains(spot));
+	}
+
 	@Test
 	public void testKeySet() {
 		assertArrayEquals(frames.toArray(new Integer[] {}), sc.keySet().toArray(new Integer[] {}));
@@ -0,0 +1,203 @@
+package fiji.plugin.trackmate.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jdom2.Attribute;
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.input.SAXBuilder;
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.features.edges.EdgeTargetAnalyzer;
+import fiji.plugin.trackmate.features.track.TrackIndexAnalyzer;
+
+public class TmXmlStreamWriterTest {
+
+	private static final int N_FRAMES = 20;
+	private static final int N_TRACKS = 15;
+
+	private Model model;
+	private File domFile;
+	private File streamFile;
+
+	@Before
+	public void setUp() throws Exception {
+		domFile = File.createTempFile("TrackMate", ".xml");
+		streamFile = File.createTempFile("TrackMateStream", ".xml");
+
+		// Tracks running over all frames, with a few features per spot
+		model = new Model();
+		model.setPhysicalUnits("um", "s");
+		model.beginUpdate();
+		try {
+			for (int i = 0; i < N_TRACKS; i++) {
+				Spot previous = null;
+				for (int t = 0; t < N_FRAMES; t++) {
+					final Spot spot = new Spot(new double[] { i, t, 0 });
+					spot.putFeature(Spot.QUALITY, Double.valueOf(i * t));
+					spot.putFeature(Spot.RADIUS, Double.valueOf(1.5));
+					spot.putFeature(Spot.POSITION_T, Double.valueOf(t));
+					model.addSpotTo(spot, t);
+					if (null != previous) {
+						model.addEdge(previous, spot, 1d);
+					}
+					previous = spot;
+				}
+			}
+		} finally {
+			model.endUpdate();
+		}
+
+		// Features required to marshall tracks
+		final FeatureModel fm = model.getFeatureModel();
+		for (final Integer trackID : model.getTrackModel().trackIDs(false)) {
+			fm.putTrackFeature(trackID, TrackIndexAnalyzer.TRACK_ID, Double.valueOf(trackID));
+			fm.putTrackFeature(trackID, TrackIndexAnalyzer.TRACK_INDEX, Double.valueOf(trackID));
+			for (final DefaultWeightedEdge edge : model.getTrackModel().trackEdges(trackID)) {
+				fm.putEdgeFeature(edge, EdgeTargetAnalyzer.SPOT_SOURCE_ID, Double.valueOf(model.getTrackModel().getEdgeSource(edge).ID()));
+				fm.putEdgeFeature(edge, EdgeTargetAnalyzer.SPOT_TARGET_ID, Double.valueOf(model.getTrackModel().getEdgeTarget(edge).ID()));
+			}
+		}
+	}
+
+	@After
+	public void tearDown() {
+		domFile.delete();
+		streamFile.delete();
+	}
+
+	/**
+	 * The streamed file must have the same content as the one built with JDOM.
+	 */
+	@Test
+	public void testSameContentAsTmXmlWriter() throws Exception {
+		final TmXmlWriter domWriter = new TmXmlWriter(domFile);
+		domWriter.appendLog("Some log\nwith <special> & characters");
+		domWriter.appendModel(model);
+		domWriter.writeToFile();
+
+		final TmXmlStreamWriter streamWriter = new TmXmlStreamWriter(streamFile);
+		streamWriter.appendLog("Some log\nwith <special> & characters");
+		streamWriter.appendModel(model);
+		streamWriter.writeToFile();
+
+		final SAXBuilder sb = new SAXBuilder();
+		final Document expected = sb.build(domFile);
+		final Document actual = sb.build(streamFile);
+		assertSameElement(expected.getRootElement(), actual.getRootElement());
+	}
+
+	@Test
+	public void testReadStreamedFile() throws Exception {
+		final TmXmlStreamWriter writer = new TmXmlStreamWriter(streamFile);
+		writer.appendModel(model);
+		writer.writeToFile();
+
+		final TmXmlReader reader = new TmXmlReader(streamFile);
+		final Model loaded = reader.getModel();
+		assertTrue(reader.getErrorMessage(), reader.isReadingOk());
+		assertEquals(N_FRAMES * N_TRACKS, loaded.getSpots().getNSpots(false));
+		assertEquals(N_TRACKS, loaded.getTrackModel().trackIDs(false).size());
+		for (final Integer trackID : loaded.getTrackModel().trackIDs(false)) {
+			assertEquals(N_FRAMES - 1, loaded.getTrackModel().trackEdges(trackID).size());
+		}
+	}
+
+	@Test
+	public void testFrameByFrameReading() throws Exception {
+		final TmXmlStreamWriter writer = new TmXmlStreamWriter(streamFile);
+		writer.appendModel(model);
+		writer.writeToFile();
+
+		final TmXmlFrameReader reader = new TmXmlFrameReader(streamFile, Collections.singleton(Spot.QUALITY));
+		assertTrue(reader.getErrorMessage(), reader.isReadingOk());
+		assertEquals(N_FRAMES * N_TRACKS, reader.getNSpots());
+
+		final Set<Integer> frames = new HashSet<Integer>();
+		Set<Spot> spots;
+		while (null != (spots = reader.nextFrame())) {
+			final int frame = reader.getCurrentFrame();
+			frames.add(frame);
+			assertEquals(N_TRACKS, spots.size());
+			for (final Spot spot : spots) {
+				final Spot original = model.getSpots().search(spot.ID());
+				assertNotNull(original);
+				assertEquals(original.getName(), spot.getName());
+				assertEquals(original.getFeature(Spot.QUALITY), spot.getFeature(Spot.QUALITY));
+				// Features not requested must not be loaded
+				assertNull(spot.getFeature(Spot.POSITION_X));
+				assertNull(spot.getFeature(Spot.RADIUS));
+			}
+		}
+		reader.close();
+
+		assertTrue(reader.isReadingOk());
+		assertEquals(N_FRAMES, frames.size());
+		assertNull(reader.nextFrame());
+	}
+
+	@Test
+	public void testReadSpotCollection() throws Exception {
+		final TmXmlStreamWriter writer = new TmXmlStreamWriter(streamFile);
+		writer.appendModel(model);
+		writer.writeToFile();
+
+		final SpotCollection spots = new TmXmlFrameReader(streamFile).readSpotCollection();
+		assertEquals(N_FRAMES * N_TRACKS, spots.getNSpots(false));
+		for (final Spot spot : spots.iterable(false)) {
+			final Spot original = model.getSpots().search(spot.ID());
+			assertEquals(original.getFeatures(), spot.getFeatures());
+		}
+	}
+
+	@Test
+	public void testMissingSpotCollection() throws Exception {
+		final TmXmlStreamWriter writer = new TmXmlStreamWriter(streamFile);
+		writer.appendLog("No model");
+		writer.writeToFile();
+
+		final TmXmlFrameReader reader = new TmXmlFrameReader(streamFile);
+		assertFalse(reader.isReadingOk());
+		assertNull(reader.nextFrame());
+	}
+
+	private static void assertSameElement(final Element expected, final Element actual) {
+		assertEquals(expected.getName(), actual.getName());
+		assertEquals(expected.getName(), attributes(expected), attributes(actual));
+		assertEquals(expected.getName(), expected.getTextTrim(), actual.getTextTrim());
+
+		final List<Element> expectedChildren = expected.getChildren();
+		final List<Element> actualChildren = actual.getChildren();
+		assertEquals(expected.getName(), expectedChildren.size(), actualChildren.size());
+		for (int i = 0; i < expectedChildren.size(); i++) {
+			assertSameElement(expectedChildren.get(i), actualChildren.get(i));
+		}
+	}
+
+	private static Map<String, String> attributes(final Element element) {
+		final Map<String, String> map = new HashMap<String, String>();
+		for (final Attribute attribute : element.getAttributes()) {
+			map.put(attribute.getName(), attribute.getValue());
+		}
+		return map;
+	}
+}
@@ -0,0 +1,143 @@
+package fiji.plugin.trackmate.tracking.hungarian;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class JonkerVolgenantAlgorithmTest {
+
+	private static final double BLOCKED = Double.MAX_VALUE;
+
+	/**
+	 * On dense matrices, the assignment must be as good as the one found by the
+	 * Munkres-Kuhn algorithm.
+	 */
+	@Test
+	public void testDenseAgainstMunkresKuhn() {
+		final Random ran = new Random(1l);
+		for (int test = 0; test < 20; test++) {
+			final int n = 2 + ran.nextInt(60);
+			final double[][] costs = new double[n][n];
+			for (int i = 0; i < n; i++) {
+				for (int j = 0; j < n; j++) {
+					costs[i][j] = ran.nextDouble() * 100;
+				}
+			}
+
+			final int[][] expected = new AssignmentProblem(costs).solve(new MunkresKuhnAlgorithm());
+			final int[][] actual = new AssignmentProblem(costs).solve(new JonkerVolgenantAlgorithm());
+
+			assertEquals(n, actual.length);
+			assertValidAssignment(actual, n, n);
+			assertEquals(totalCost(costs, expected), totalCost(costs, actual), 1e-9);
+		}
+	}
+
+	/**
+	 * Sparse matrices with the structure of the frame to frame linking
+	 * matrix: the alternative costs on the diagonals ensure that a complete
+	 * assignment exists. The result must match the dense solution.
+	 */
+	@Test
+	public void testSparseAgainstMunkresKuhn() {
+		final Random ran = new Random(2l);
+		for (int test = 0; test < 20; test++) {
+			final int n0 = 1 + ran.nextInt(40);
+			final int n1 = 1 + ran.nextInt(40);
+			final int n = n0 + n1;
+			final double cutoff = 50;
+
+			final double[][] costs = new double[n][n];
+			for (int i = 0; i < n; i++) {
+				for (int j = 0; j < n; j++) {
+					costs[i][j] = BLOCKED;
+				}
+			}
+			for (int i = 0; i < n0; i++) {
+				for (int j = 0; j < n1; j++) {
+					if (ran.nextDouble() < 0.1) {
+						costs[i][j] = ran.nextDouble() * 40;
+						costs[n0 + j][n1 + i] = cutoff;
+					}
+				}
+				costs[i][n1 + i] = cutoff;
+			}
+			for (int j = 0; j < n1; j++) {
+				costs[n0 + j][j] = cutoff;
+			}
+
+			final SparseCostMatrix cm = SparseCostMatrix.fromFullMatrix(costs, BLOCKED);
+			assertTrue(cm.getNEntries() < n * n);
+
+			final int[][] expected = new AssignmentProblem(costs).solve(new MunkresKuhnAlgorithm());
+			final int[][] actual = new JonkerVolgenantAlgorithm().computeAssignments(cm);
+
+			assertEquals(n, actual.length);
+			assertValidAssignment(actual, n, n);
+			assertEquals(totalCost(costs, expected), cm.totalAssignmentCost(actual), 1e-9);
+		}
+	}
+
+	/**
+	 * Rows without any allowed entry must be left out of the solution.
+	 */
+	@Test
+	public void testUnassignableRow() {
+		final double[][] costs = new double[][] {
+				{ 1, BLOCKED, 3 },
+				{ BLOCKED, BLOCKED, BLOCKED },
+				{ 2, 1, BLOCKED } };
+		final int[][] solutions = new JonkerVolgenantAlgorithm().computeAssignments(costs);
+		assertEquals(2, solutions.length);
+		assertValidAssignment(solutions, 3, 3);
+		assertEquals(2d, totalCost(costs, solutions), 1e-9);
+	}
+
+	@Test
+	public void testSparseMatrixConversion() {
+		final double[][] costs = new double[][] {
+				{ 1, BLOCKED, 3, BLOCKED },
+				{ BLOCKED, BLOCKED, BLOCKED, BLOCKED },
+				{ 2, 1, BLOCKED, Double.POSITIVE_INFINITY } };
+		final SparseCostMatrix cm = SparseCostMatrix.fromFullMatrix(costs, BLOCKED);
+		assertEquals(3, cm.getNRows());
+		assertEquals(4, cm.getNCols());
+		assertEquals(4, cm.getNEntries());
+		assertEquals(3d, cm.get(0, 2, BLOCKED), 0);
+		assertEquals(BLOCKED, cm.get(2, 3, BLOCKED), 0);
+
+		final double[][] full = cm.toFullMatrix(BLOCKED);
+		for (int i = 0; i < costs.length; i++) {
+			for (int j = 0; j < costs[i].length; j++) {
+				final double expected = Double.isInfinite(costs[i][j]) ? BLOCKED : costs[i][j];
+				assertEquals(expected, full[i][j], 0);
+			}
+		}
+	}
+
+	private static void assertValidAssignment(final int[][] solutions, final int nRows, final int nCols) {
+		final boolean[] rows = new boolean[nRows];
+		final boolean[] cols = new boolean[nCols];
+		for (final int[] solution : solutions) {
+			assertFalse(rows[solution[0]]);
+			assertFalse(cols[solution[1]]);
+			rows[solution[0]] = true;
+			cols[solution[1]] = true;
+		}
+	}
+
+	private static double totalCost(final double[][] costs, final int[][] solutions) {
+		double sum = 0;
+		for (final int[] solution : solutions) {
+			if (solution.length < 2) {
+				continue;
+			}
+			sum += costs[solution[0]][solution[1]];
+		}
+		return sum;
+	}
+}
@@ -332,6 +332,32 @@ public double[] distributionForInstance(Instance instance)
 		return sums;
 	}
 
+	/**
+	 * Calculates the class membership probabilities of a single pixel
+	 * reading its features directly from a feature matrix (one array
+	 * per attribute, class attribute excluded).
+	 *
+	 * @param features feature matrix, features[ attribute ][ pixel ]
+	 * @param pixel index of the pixel in the feature arrays
+	 * @param sums array to store the distribution (overwritten)
+	 */
+	public void distributionForPixel(final float[][] features, final int pixel, final double[] sums) 
+	{
+		for (int j = 0; j < sums.length; j++)
+			sums[j] = 0;
+		
+		for (int i=0; i < numTrees; i++)
+		{
+			final double[] newProbs = tree[i].evaluate(features, pixel);
+			for (int j = 0; j < newProbs.length; j++)
+				sums[j] += newProbs[j];
+		}
+
+		// Divide by the number of trees
+		for (int j = 0; j < sums.length; j++)
+			sums[j] /= (double) numTrees;
+	}
+
 
 	/**
 	 * Gets the current settings of the forest.
@@ -82,6 +82,20 @@ public double[] evaluate(Instance instance)
 		return rootNode.eval(instance);
 	}
 
+	/**
+	 * Evaluate a single pixel of a feature matrix
+	 * 
+	 * @param features feature matrix, features[ attribute ][ pixel ]
+	 * @param pixel index of the pixel in the feature arrays
+	 * @return array of class probabilities (not to be modified)
+	 */
+	public double[] evaluate(final float[][] features, final int pixel)
+	{
+		if (null == rootNode)
+			return null;
+		return rootNode.eval(features, pixel);
+	}
+
 
 	/**
 	 * Basic node of the tree
@@ -98,6 +112,13 @@ abstract class BaseNode implements Serializable
 		 * @return class probabilities
 		 */
 		public abstract double[] eval( Instance instance );
+		/**
+		 * Evaluate a pixel of a feature matrix
+		 * @param features feature matrix, features[ attribute ][ pixel ]
+		 * @param pixel index of the pixel in the feature arrays
+		 * @return class probabilities
+		 */
+		public abstract double[] eval( float[][] features, int pixel );
 		/**
 		 * Get the node depth
 		 * 
@@ -125,6 +146,12 @@ public double[] eval(Instance instance)
 		{		
 			return probability;
 		}
+
+		@Override
+		public double[] eval(float[][] features, int pixel) 
+		{		
+			return probability;
+		}
 		/**
 		 * Create a leaf node
 		 * 
@@ -260,6 +287,24 @@ public double[] eval(Instance instance)
 				return left.eval(instance);				
 		}
 
+		/**
+		 * Evaluate pixel of a feature matrix at this node
+		 */
+		public double[] eval(float[][] features, int pixel) 
+		{
+			BaseNode node = this;
+			// descend iteratively until reaching a leaf
+			while( node instanceof InteriorNode )
+			{
+				final InteriorNode interior = (InteriorNode) node;
+				if( null != interior.right && false == interior.splitFn.evaluate( features, pixel ) )
+					node = interior.right;
+				else // leaves are always left nodes
+					node = interior.left;
+			}
+			return node.eval(features, pixel);
+		}
+
 
 		/**
 		 * Get node depth
@@ -183,6 +183,22 @@ public boolean evaluate(Instance instance)
 			return instance.value(this.index) < this.threshold;
 	}
 
+	/**
+	 * Evaluate a single pixel of a feature matrix based on the 
+	 * current state of the split function
+	 * 
+	 * @param features feature matrix, features[ attribute ][ pixel ]
+	 * @param pixel index of the pixel in the feature arrays
+	 * @return false if the pixel is on the right of the splitting point, true if it's on the left 
+	 */
+	public boolean evaluate(final float[][] features, final int pixel) 
+	{
+		if(allSame)
+			return true;
+		else
+			return features[ this.index ][ pixel ] < this.threshold;
+	}
+
 	@Override
 	public SplitFunction newInstance() 
 	{		
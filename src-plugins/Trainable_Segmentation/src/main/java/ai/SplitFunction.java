@@ -17,5 +17,13 @@ public abstract class SplitFunction implements Serializable
 	boolean allSame;
 	public abstract void init(final Instances data, final ArrayList<Integer> indices);
 	public abstract boolean evaluate(final Instance instance);
+	/**
+	 * Evaluate a single pixel of a feature matrix
+	 * 
+	 * @param features feature matrix, features[ attribute ][ pixel ]
+	 * @param pixel index of the pixel in the feature arrays
+	 * @return false if the pixel is on the right of the splitting point, true if it's on the left
+	 */
+	public abstract boolean evaluate(final float[][] features, final int pixel);
 	public abstract SplitFunction newInstance();
 }
@@ -601,6 +601,29 @@ public double[] distributionForInstance(Instance instance) throws Exception {
     
   }
 
+  /**
+   * Calculates the class probability distribution of a single pixel. The
+   * features are read directly from a feature matrix (one array per
+   * attribute, in the same order as the training attributes, class
+   * attribute excluded), so no Weka instance is created per pixel.
+   *
+   * @param features feature matrix, features[ attribute ][ pixel ]
+   * @param pixel index of the pixel in the feature arrays
+   * @param distribution array to store the distribution (overwritten)
+   * @throws Exception if the forest has not been built from features
+   */
+  public void distributionForPixel(float[][] features, int pixel,
+          double[] distribution) throws Exception {
+
+    if (m_ZeroR != null || m_bagger == null) {
+      throw new Exception("No forest built on the features "
+              + "(default model or untrained classifier)!");
+    }
+
+    m_bagger.distributionForPixel(features, pixel, distribution);
+
+  }
+
   /**
    * Outputs a description of this classifier.
    *
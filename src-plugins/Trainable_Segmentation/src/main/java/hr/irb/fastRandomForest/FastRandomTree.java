@@ -268,6 +268,51 @@ public double[] distributionForInstance(Instance instance) throws Exception {
   }
 
 
+
+  /**
+   * Adds the class distribution of a single pixel to an array of sums. The
+   * feature values are read directly from a feature matrix, so no Weka
+   * instance needs to be created. The tree is descended iteratively, only
+   * missing (NaN) values fall back to recursion.<p>
+   *
+   * The distribution added is the same as the one returned by
+   * distributionForInstance.
+   *
+   * @param features feature matrix, features[ attribute ][ pixel ]
+   * @param pixel index of the pixel in the feature arrays
+   * @param sums array to add the class distribution to
+   * @param weight weight of the added distribution
+   */
+  protected void addDistributionForPixel(float[][] features, int pixel,
+          double[] sums, double weight) {
+
+    FastRandomTree node = this;
+
+    while (node.m_Attribute > -1) {  // ===================== node is not a leaf
+
+      final float value = features[node.m_Attribute][pixel];
+
+      if (Float.isNaN(value)) {  // --------------------------- missing value
+        for (int i = 0; i < node.m_Successors.length; i++)
+          node.m_Successors[i].addDistributionForPixel(features, pixel, sums,
+                  weight * node.m_Prop[i]);
+        return;
+      } else if (node.m_MotherForest.m_Info
+              .attribute(node.m_Attribute).isNominal()) { // ------ nominal
+        node = node.m_Successors[(int) value];
+      } else { // ---------------------------------------- numeric attributes
+        node = node.m_Successors[value < node.m_SplitPoint ? 0 : 1];
+      }
+    }
+
+    // ======================================================= node is a leaf
+    final double sum = Utils.sum(node.m_ClassProbs);
+    if (sum == 0)
+      return;
+    for (int j = 0; j < sums.length; j++)
+      sums[j] += weight * node.m_ClassProbs[j] / sum;
+  }
+
   
   /**
    * Recursively generates a tree. A derivative of the buildTree function from
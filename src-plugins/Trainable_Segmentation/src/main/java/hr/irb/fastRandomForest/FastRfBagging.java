@@ -524,6 +524,28 @@ public double[] distributionForInstance(Instance instance) throws Exception {
     
   }
 
+  /**
+   * Calculates the class membership probabilities of a single pixel reading
+   * its features directly from a feature matrix (only for nominal classes).
+   *
+   * @param features feature matrix, features[ attribute ][ pixel ]
+   * @param pixel index of the pixel in the feature arrays
+   * @param sums array to store the distribution (overwritten)
+   */
+  public void distributionForPixel(float[][] features, int pixel,
+          double[] sums) {
+
+    for (int j = 0; j < sums.length; j++)
+      sums[j] = 0;
+
+    for (int i = 0; i < m_NumIterations; i++)
+      ((FastRandomTree) m_Classifiers[i]).addDistributionForPixel(features,
+              pixel, sums, 1.0);
+
+    if (!Utils.eq(Utils.sum(sums), 0))
+      Utils.normalize(sums);
+  }
+
   /**
    * Returns description of the bagged classifier.
    *
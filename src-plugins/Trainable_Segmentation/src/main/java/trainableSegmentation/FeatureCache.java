@@ -0,0 +1,314 @@
+package trainableSegmentation;
+
+/**
+ *
+ * License: GPL
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License 2
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+import ij.IJ;
+import ij.ImageStack;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Persistent on-disk cache of feature images. Each entry stores the
+ * feature images produced by one filter call (for example all the Hessian
+ * images of a given sigma) and is identified by the hash of the input image
+ * content plus a key describing the filter and its parameters, so repeated
+ * trainings and batch runs over the same images skip the filtering stage.
+ * Entries are read into new float images, one slice at a time.
+ * <p>
+ * Only float feature images are cached, filters producing other image
+ * types (color features) are always recomputed.
+ */
+public class FeatureCache
+{
+	/** magic number written at the beginning of each cache file */
+	private static final int MAGIC = 0x57464331; // "WFC1"
+	/** extension of the cache files */
+	public static final String EXTENSION = ".wfc";
+
+	/** folder where the cache files are stored */
+	private final File directory;
+
+	/**
+	 * Create a feature cache in a specific folder (it is created if it
+	 * does not exist)
+	 *
+	 * @param directory folder to store the cache files
+	 */
+	public FeatureCache( final String directory )
+	{
+		this.directory = new File( directory );
+		if( false == this.directory.exists() )
+			this.directory.mkdirs();
+	}
+
+	/**
+	 * Get the folder where the cache files are stored
+	 *
+	 * @return cache folder
+	 */
+	public File getDirectory()
+	{
+		return directory;
+	}
+
+	/**
+	 * Calculate the hash of an image content (dimensions, type and pixel values)
+	 *
+	 * @param ip input image
+	 * @return hexadecimal MD5 hash of the image
+	 */
+	public static String getImageHash( final ImageProcessor ip )
+	{
+		final MessageDigest md = getDigest();
+		final int width = ip.getWidth();
+		final int height = ip.getHeight();
+		final ByteBuffer header = ByteBuffer.allocate( 12 );
+		header.putInt( width ).putInt( height ).putInt( ip.getBitDepth() );
+		md.update( header.array() );
+
+		final Object pixels = ip.getPixels();
+		final ByteBuffer buffer = ByteBuffer.allocate( width * 4 );
+		for(int y=0; y<height; y++)
+		{
+			buffer.clear();
+			final int offset = y * width;
+			if( pixels instanceof byte[] )
+				buffer.put( (byte[]) pixels, offset, width );
+			else if( pixels instanceof short[] )
+				buffer.asShortBuffer().put( (short[]) pixels, offset, width );
+			else if( pixels instanceof float[] )
+				buffer.asFloatBuffer().put( (float[]) pixels, offset, width );
+			else if( pixels instanceof int[] )
+				buffer.asIntBuffer().put( (int[]) pixels, offset, width );
+			final int bytes = ip.getBitDepth() == 24 ? 4 : Math.max( 1, ip.getBitDepth() / 8 );
+			md.update( buffer.array(), 0, width * bytes );
+		}
+		return toHex( md.digest() );
+	}
+
+	/**
+	 * Load the feature images stored under a specific image hash and key
+	 *
+	 * @param imageHash hash of the input image (see {@link #getImageHash(ImageProcessor)})
+	 * @param key description of the filter and its parameters
+	 * @return stack of feature images (with their labels) or null if they are not in the cache
+	 */
+	public ImageStack load( final String imageHash, final String key )
+	{
+		final File file = getFile( imageHash, key );
+		if( false == file.exists() )
+			return null;
+
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) );
+
+			if( in.readInt() != MAGIC )
+				return null;
+			final byte[] headerBytes = new byte[ in.readInt() ];
+			in.readFully( headerBytes );
+
+			final DataInputStream header = new DataInputStream( new ByteArrayInputStream( headerBytes ) );
+			// check the key to skip (unlikely) hash collisions
+			if( false == key.equals( header.readUTF() ) )
+				return null;
+			final int width = header.readInt();
+			final int height = header.readInt();
+			final int numSlices = header.readInt();
+
+			final ImageStack stack = new ImageStack( width, height );
+			// big-endian bytes of one slice, converted in bulk
+			final byte[] bytes = new byte[ 4 * width * height ];
+			for(int i=0; i<numSlices; i++)
+			{
+				in.readFully( bytes );
+				final float[] pixels = new float[ width * height ];
+				ByteBuffer.wrap( bytes ).asFloatBuffer().get( pixels );
+				stack.addSlice( header.readUTF(), new FloatProcessor( width, height, pixels, null ) );
+			}
+			return stack;
+		} catch ( Exception e ) {
+			IJ.log( "Error when reading feature cache file " + file.getName() + ": " + e );
+			return null;
+		} finally {
+			close( in );
+		}
+	}
+
+	/**
+	 * Store feature images in the cache under a specific image hash and key.
+	 * The file is written under a temporary name and then renamed, so
+	 * concurrent readers never see incomplete entries.
+	 *
+	 * @param imageHash hash of the input image (see {@link #getImageHash(ImageProcessor)})
+	 * @param key description of the filter and its parameters
+	 * @param stack feature images to store (with their labels)
+	 * @return false if the images could not be stored (or are not float images)
+	 */
+	public boolean store( final String imageHash, final String key, final ImageStack stack )
+	{
+		final int numSlices = stack.getSize();
+		for(int i=1; i<=numSlices; i++)
+			if( false == stack.getProcessor( i ) instanceof FloatProcessor )
+				return false;
+
+		final File file = getFile( imageHash, key );
+		final File tmpFile = new File( directory, file.getName() + "." + Thread.currentThread().getId() + ".tmp" );
+
+		FileOutputStream fos = null;
+		try {
+			final ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+			final DataOutputStream header = new DataOutputStream( headerBytes );
+			header.writeUTF( key );
+			header.writeInt( stack.getWidth() );
+			header.writeInt( stack.getHeight() );
+			header.writeInt( numSlices );
+			for(int i=1; i<=numSlices; i++)
+				header.writeUTF( stack.getSliceLabel( i ) == null ? "" : stack.getSliceLabel( i ) );
+			header.close();
+
+			fos = new FileOutputStream( tmpFile );
+			final DataOutputStream out = new DataOutputStream( new BufferedOutputStream( fos ) );
+			out.writeInt( MAGIC );
+			out.writeInt( headerBytes.size() );
+			headerBytes.writeTo( out );
+			// big-endian bytes of one slice, converted in bulk
+			final ByteBuffer bytes = ByteBuffer.allocate( 4 * stack.getWidth() * stack.getHeight() );
+			for(int i=1; i<=numSlices; i++)
+			{
+				bytes.clear();
+				bytes.asFloatBuffer().put( (float[]) stack.getPixels( i ) );
+				out.write( bytes.array() );
+			}
+			out.flush();
+			fos.getFD().sync();
+			out.close();
+			fos = null;
+
+			// another thread or process may have stored the same entry
+			if( file.exists() )
+			{
+				tmpFile.delete();
+				return true;
+			}
+			if( false == tmpFile.renameTo( file ) )
+			{
+				tmpFile.delete();
+				return false;
+			}
+			return true;
+		} catch ( IOException e ) {
+			IJ.log( "Error when writing feature cache file " + file.getName() + ": " + e.getMessage() );
+			close( fos );
+			tmpFile.delete();
+			return false;
+		}
+	}
+
+	/**
+	 * Remove all the files of the cache
+	 */
+	public void clear()
+	{
+		final File[] files = directory.listFiles();
+		if( null == files )
+			return;
+		for( final File f : files )
+			if( f.getName().endsWith( EXTENSION ) )
+				f.delete();
+	}
+
+	/**
+	 * Get the cache file of a specific image hash and key
+	 *
+	 * @param imageHash hash of the input image
+	 * @param key description of the filter and its parameters
+	 * @return cache file
+	 */
+	private File getFile( final String imageHash, final String key )
+	{
+		final MessageDigest md = getDigest();
+		try {
+			md.update( key.getBytes( "UTF-8" ) );
+		} catch ( java.io.UnsupportedEncodingException e ) {
+			md.update( key.getBytes() );
+		}
+		return new File( directory, imageHash + "-" + toHex( md.digest() ) + EXTENSION );
+	}
+
+	/**
+	 * Get a new MD5 message digest
+	 *
+	 * @return MD5 message digest
+	 */
+	private static MessageDigest getDigest()
+	{
+		try {
+			return MessageDigest.getInstance( "MD5" );
+		} catch ( NoSuchAlgorithmException e ) {
+			// MD5 is required in every Java platform
+			throw new RuntimeException( e );
+		}
+	}
+
+	/**
+	 * Convert a byte array into an hexadecimal string
+	 *
+	 * @param bytes input array
+	 * @return hexadecimal representation
+	 */
+	private static String toHex( final byte[] bytes )
+	{
+		final StringBuilder sb = new StringBuilder();
+		for( final byte b : bytes )
+			sb.append( String.format( "%02x", b & 0xff ) );
+		return sb.toString();
+	}
+
+	/**
+	 * Close a file stream quietly
+	 *
+	 * @param stream stream to close (can be null)
+	 */
+	private static void close( final Closeable stream )
+	{
+		if( null == stream )
+			return;
+		try {
+			stream.close();
+		} catch ( IOException e ) {
+			// nothing to do
+		}
+	}
+}
@@ -208,6 +208,11 @@
 	/** executor service to produce concurrent threads */
 	ExecutorService exe = Executors.newFixedThreadPool( Prefs.getThreads() );
 	
+	/** on-disk cache of feature images (null if not used) */
+	private FeatureCache featureCache = null;
+	/** hash of the original image content (used as cache key) */
+	private String imageHash = null;
+	
 	/**
 	 * Construct object to store stack of image features
 	 * @param image original image
@@ -2474,6 +2479,64 @@ public Instances createInstances(ArrayList<String> classes)
 		return data;
 	}
 	
+	/**
+	 * Get the features of the whole stack as a matrix of primitive arrays,
+	 * one array per attribute (in the same order as in createInstances, 
+	 * class attribute excluded) indexed by pixel (x + y * width). Float 
+	 * feature images are not copied, so this does not create any per-pixel
+	 * object and can be used to classify the pixels without Weka instances.
+	 * 
+	 * @return feature matrix, features[ attribute ][ pixel ]
+	 */
+	public float[][] getFeatureMatrix()
+	{
+		final int extra = useNeighbors ? 8 : 0;
+		final int size = getSize();
+		final float[][] features = new float[ size + extra ][];
+		
+		for (int z=1; z<=size; z++)
+		{
+			final ImageProcessor ip = getProcessor( z );
+			if( ip instanceof FloatProcessor )
+				features[ z-1 ] = (float[]) ip.getPixels();
+			else
+			{
+				// same values as in createInstance
+				final float[] values = new float[ width * height ];
+				if( colorFeatures == false || oldColorFormat == true )
+				{
+					for(int i=0; i<values.length; i++)
+						values[ i ] = ip.getf( i );
+				}
+				else
+				{
+					for(int y=0, i=0; y<height; y++)
+						for(int x=0; x<width; x++, i++)
+							values[ i ] = ip.getPixelValue( x, y );
+				}
+				features[ z-1 ] = values;
+			}
+		}
+		
+		// Test: add neighbors of original image
+		if( useNeighbors )
+		{
+			int n = size;
+			for(int i=-1;  i < 2; i++)
+				for(int j = -1; j < 2; j++)
+				{
+					if(i==0 && j==0)
+						continue;
+					final float[] values = new float[ width * height ];
+					for(int y=0, k=0; y<height; y++)
+						for(int x=0; x<width; x++, k++)
+							values[ k ] = (float) getPixelMirrorConditions(getProcessor(1), x+i, y+j);
+					features[ n++ ] = values;
+				}
+		}
+		return features;
+	}
+	
 	/**
 	 * Add the default features to the feature stack
 	 */
@@ -2794,7 +2857,11 @@ public boolean updateFeaturesST()
 					if (Thread.currentThread().isInterrupted()) 
 						return false;
 
-					addAnisotropicDiffusion(originalImage, 20, 20,(int) i, j, 0.9f, (float) membraneSize)  ;
+					final int nbSmoothings = (int) i;
+					final float a1 = j;
+					addCached( featureKey( ANISOTROPIC_DIFFUSION, 20, 20, nbSmoothings, a1, 0.9f, (float) membraneSize ), new FeatureCall(){
+						void add(){ addAnisotropicDiffusion(originalImage, 20, 20, nbSmoothings, a1, 0.9f, (float) membraneSize); }
+					});
 				}
 		}				
 
@@ -2807,7 +2874,11 @@ public boolean updateFeaturesST()
 					if (Thread.currentThread().isInterrupted()) 
 						return false;
 					//IJ.log( n++ +": Calculating bilateral filter (" + i + ", " + j + ")");
-					addBilateralFilter(originalImage, i, j);
+					final double spatialRadius = i;
+					final double rangeRadius = j;
+					addCached( featureKey( BILATERAL, spatialRadius, rangeRadius ), new FeatureCall(){
+						void add(){ addBilateralFilter(originalImage, spatialRadius, rangeRadius); }
+					});
 				}
 		}
 
@@ -2819,7 +2890,10 @@ public boolean updateFeaturesST()
 				if (Thread.currentThread().isInterrupted()) 
 					return false;
 				//IJ.log( n++ +": Calculating Lipschitz filter (true, true, " + i + ")");
-				addLipschitzFilter(originalImage, true, true, i);
+				final double slope = i;
+				addCached( featureKey( LIPSCHITZ, true, true, slope ), new FeatureCall(){
+					void add(){ addLipschitzFilter(originalImage, true, true, slope); }
+				});
 			}
 		}
 
@@ -2831,7 +2905,10 @@ public boolean updateFeaturesST()
 				if (Thread.currentThread().isInterrupted()) 
 					return false;
 				//IJ.log( n++ +": Calculating Kuwahara filter (" + membranePatchSize + ", " + nAngles + ", " + i + ")");
-				addKuwaharaFeatures(originalImage, membranePatchSize, nAngles, i);
+				final int criterion = i;
+				addCached( featureKey( KUWAHARA, membranePatchSize, nAngles, criterion ), new FeatureCall(){
+					void add(){ addKuwaharaFeatures(originalImage, membranePatchSize, nAngles, criterion); }
+				});
 			}
 		}
 
@@ -2847,7 +2924,11 @@ public boolean updateFeaturesST()
 							return false;
 						final double psi = Math.PI / 2 * i;
 						//IJ.log( n++ +": Calculating Gabor filter (1.0, " + gamma + ", " + psi + ", " + frequency + ", " + nAngles + ")");
-						addGabor( originalImage, 1.0, gamma, psi, frequency, nAngles ) ;
+						final double g = gamma;
+						final int f = frequency;
+						addCached( featureKey( GABOR, 1.0, g, psi, f, nAngles ), new FeatureCall(){
+							void add(){ addGabor( originalImage, 1.0, g, psi, f, nAngles ); }
+						});
 					}
 			// elongated filters in x- axis (sigma = [2.0 - 4.0], gamma = [1.0 - 2.0])
 			for(int i=0; i < 2; i++)
@@ -2859,7 +2940,12 @@ public boolean updateFeaturesST()
 								return false;
 							final double psi = Math.PI / 2 * i;
 							//IJ.log( n++ +": Calculating Gabor filter (" + sigma + " , " + gamma + ", " + psi + ", " + frequency + ", " + nAngles + ")");
-							addGabor( originalImage, sigma, gamma, psi, frequency, nAngles ) ;
+							final double s = sigma;
+							final double g = gamma;
+							final int f = frequency;
+							addCached( featureKey( GABOR, s, g, psi, f, nAngles ), new FeatureCall(){
+								void add(){ addGabor( originalImage, s, g, psi, f, nAngles ); }
+							});
 						}								
 		}
 
@@ -2869,7 +2955,9 @@ public boolean updateFeaturesST()
 			if ( Thread.currentThread().isInterrupted() ) 
 				return false;
 			//IJ.log(n++ + ": Calculating Sobel filter (0.0)");
-			addGradient(0);
+			addCached( featureKey( SOBEL, 0 ), new FeatureCall(){
+				void add(){ addGradient(0); }
+			});
 		}
 		// Hessian (no blur)
 		if(enableFeatures[HESSIAN] && minimumSigma < 2)
@@ -2877,7 +2965,9 @@ public boolean updateFeaturesST()
 			if (Thread.currentThread().isInterrupted()) 
 				return false;
 			//IJ.log( n++ +": Calculating Hessian filter (0.0)");
-			addHessian(0);
+			addCached( featureKey( HESSIAN, 0 ), new FeatureCall(){
+				void add(){ addHessian(0); }
+			});
 		}
 
 
@@ -2885,91 +2975,128 @@ public boolean updateFeaturesST()
 		{		
 			if (Thread.currentThread().isInterrupted()) 
 				return false;
+			final float sigma = i;
 			// Gaussian blur
 			if(enableFeatures[GAUSSIAN])
 			{
 				//IJ.log( n++ +": Calculating Gaussian filter ("+ i + ")");
-				addGaussianBlur(i);
+				addCached( featureKey( GAUSSIAN, sigma ), new FeatureCall(){
+					void add(){ addGaussianBlur(sigma); }
+				});
 			}
 			// Sobel
 			if(enableFeatures[SOBEL])
 			{
 				//IJ.log( n++ +": Calculating Sobel filter ("+ i + ")");
-				addGradient(i);
+				addCached( featureKey( SOBEL, sigma ), new FeatureCall(){
+					void add(){ addGradient(sigma); }
+				});
 			}
 			// Hessian
 			if(enableFeatures[HESSIAN])
 			{
 				//IJ.log("Calculating Hessian filter ("+ i + ")");
-				addHessian(i);
+				addCached( featureKey( HESSIAN, sigma ), new FeatureCall(){
+					void add(){ addHessian(sigma); }
+				});
 			}
 			// Difference of gaussians
 			if(enableFeatures[DOG])
 			{
 				for (float j=minimumSigma; j<i; j*=2)
 				{
+					final float sigma2 = j;
 					//IJ.log( n++ +": Calculating DoG filter ("+ i + ", " + j + ")");
-					addDoG(i, j);
+					addCached( featureKey( DOG, sigma, sigma2 ), new FeatureCall(){
+						void add(){ addDoG(sigma, sigma2); }
+					});
 				}
 			}
 			// Variance
 			if(enableFeatures[VARIANCE])
 			{
 				//IJ.log( n++ +": Calculating Variance filter ("+ i + ")");
-				addVariance(i);
+				addCached( featureKey( VARIANCE, sigma ), new FeatureCall(){
+					void add(){ addVariance(sigma); }
+				});
 			}
 			// Mean
 			if(enableFeatures[MEAN])
 			{
 				//IJ.log( n++ +": Calculating Mean filter ("+ i + ")");
-				addMean(i);
+				addCached( featureKey( MEAN, sigma ), new FeatureCall(){
+					void add(){ addMean(sigma); }
+				});
 			}
 
 			// Min
 			if(enableFeatures[MINIMUM])
 			{
 				//IJ.log( n++ +": Calculating Minimum filter ("+ i + ")");
-				addMin(i);
+				addCached( featureKey( MINIMUM, sigma ), new FeatureCall(){
+					void add(){ addMin(sigma); }
+				});
 			}
 			// Max
 			if(enableFeatures[MAXIMUM])
 			{
 				//IJ.log( n++ +": Calculating Maximum filter ("+ i + ")");
-				addMax(i);
+				addCached( featureKey( MAXIMUM, sigma ), new FeatureCall(){
+					void add(){ addMax(sigma); }
+				});
 			}
 			
 			// Median
 			if(enableFeatures[MEDIAN])
 			{
 				//IJ.log( n++ +": Calculating Median filter ("+ i + ")");
-				addMedian(i);
+				addCached( featureKey( MEDIAN, sigma ), new FeatureCall(){
+					void add(){ addMedian(sigma); }
+				});
 			}
 			
 			// Derivatives
 			if(enableFeatures[DERIVATIVES])
 			{					
 				for(int order = minDerivativeOrder; order<=maxDerivativeOrder; order++)
-					addDerivatives( i, order, order );
+				{
+					final int o = order;
+					addCached( featureKey( DERIVATIVES, sigma, o, o ), new FeatureCall(){
+						void add(){ addDerivatives( sigma, o, o ); }
+					});
+				}
 			}
 			
 			// Laplacian
 			if(enableFeatures[LAPLACIAN])
 			{
-				addLaplacian(i);
+				addCached( featureKey( LAPLACIAN, sigma ), new FeatureCall(){
+					void add(){ addLaplacian(sigma); }
+				});
 			}
 			
 			// Structure tensor
 			if(enableFeatures[ STRUCTURE ])
 			{					
 				for(int integrationScale = 1; integrationScale <= 3; integrationScale+=2)
-					addStructure(i, integrationScale );
+				{
+					final int scale = integrationScale;
+					addCached( featureKey( STRUCTURE, sigma, scale ), new FeatureCall(){
+						void add(){ addStructure(sigma, scale ); }
+					});
+				}
 			}
 			
 			// Entropy
 			if(enableFeatures[ ENTROPY ])
 			{
 				for(int nBins = 32; nBins <= 256; nBins *=2)
-					addEntropy((int)i, nBins);
+				{
+					final int bins = nBins;
+					addCached( featureKey( ENTROPY, (int)sigma, bins ), new FeatureCall(){
+						void add(){ addEntropy((int)sigma, bins); }
+					});
+				}
 			}
 
 		}
@@ -2979,13 +3106,16 @@ public boolean updateFeaturesST()
 			if (Thread.currentThread().isInterrupted()) 
 				return false;
 			//IJ.log( n++ +": Calculating Membranes projections ("+ membranePatchSize + ", " + membraneSize + ")");
-			addMembraneFeatures(membranePatchSize, membraneSize);
+			addCached( featureKey( MEMBRANE, membranePatchSize, membraneSize ), new FeatureCall(){
+				void add(){ addMembraneFeatures(membranePatchSize, membraneSize); }
+			});
 		}
 		
 		// Neighbors
 		if( enableFeatures[ NEIGHBORS ])
-			addNeighbors( (int)minimumSigma, (int)maximumSigma );
-		
+			addCached( featureKey( NEIGHBORS, (int)minimumSigma, (int)maximumSigma ), new FeatureCall(){
+				void add(){ addNeighbors( (int)minimumSigma, (int)maximumSigma ); }
+			});
 		IJ.showProgress(1.0);
 		IJ.showStatus("Features stack is updated now!");
 		return true;
@@ -3072,7 +3202,7 @@ public boolean updateFeaturesMT()
 						//IJ.log( n++ +": Calculating anisotropic diffusion (20, 20, " + i + ", " + j + ", 0.9f" + ", " + membraneSize + ")");
 					//for(float j = 0.10f; j <= 0.5f; j+= 0.2f)
 						//for(float k = 0.5f; k < 6f; k+= 1f)
-							futures.add(exe.submit( getAnisotropicDiffusion(originalImage, 20, 20,(int) i, j, 0.9f, (float) membraneSize) ) );
+							futures.add( submitFeature( featureKey( ANISOTROPIC_DIFFUSION, 20, 20,(int) i, j, 0.9f, (float) membraneSize ), getAnisotropicDiffusion(originalImage, 20, 20,(int) i, j, 0.9f, (float) membraneSize) ) );
 							//futures.add(exe.submit( getAnisotropicDiffusion(originalImage, 20, 20, (int) i, j, 0.9f, k) ) );
 					}				
 			}
@@ -3090,7 +3220,7 @@ public boolean updateFeaturesMT()
 						if (Thread.currentThread().isInterrupted()) 
 							return false;
 						//IJ.log( n++ +": Calculating bilateral filter (" + i + ", " + j + ")");
-						futures.add(exe.submit( getBilateralFilter(originalImage, i, j) ) );
+						futures.add( submitFeature( featureKey( BILATERAL, i, j ), getBilateralFilter(originalImage, i, j) ) );
 					}
 			}
 			
@@ -3102,7 +3232,7 @@ public boolean updateFeaturesMT()
 					if (Thread.currentThread().isInterrupted()) 
 						return false;
 					//IJ.log( n++ +": Calculating Lipschitz filter (true, true, " + i + ")");
-					futures.add(exe.submit( getLipschitzFilter(originalImage, true, true, i) ) );
+					futures.add( submitFeature( featureKey( LIPSCHITZ, true, true, i ), getLipschitzFilter(originalImage, true, true, i) ) );
 				}
 			}
 			
@@ -3114,7 +3244,7 @@ public boolean updateFeaturesMT()
 					if (Thread.currentThread().isInterrupted()) 
 						return false;
 					//IJ.log( n++ +": Calculating Kuwahara filter (" + membranePatchSize + ", " + nAngles + ", " + i + ")");
-					futures.add(exe.submit( getKuwaharaFeatures(originalImage, membranePatchSize, nAngles, i) ) );
+					futures.add( submitFeature( featureKey( KUWAHARA, membranePatchSize, nAngles, i ), getKuwaharaFeatures(originalImage, membranePatchSize, nAngles, i) ) );
 				}
 			}
 			
@@ -3130,7 +3260,7 @@ public boolean updateFeaturesMT()
 								return false;
 							final double psi = Math.PI / 2 * i;
 							//System.out.println( " Calculating Gabor filter (1.0, " + gamma + ", " + psi + ", " + frequency + ", " + nAngles + ")");
-							futures.add(exe.submit( getGabor(originalImage, 1.0, gamma, psi, frequency, nAngles) ) );
+							futures.add( submitFeature( featureKey( GABOR, 1.0, gamma, psi, frequency, nAngles ), getGabor(originalImage, 1.0, gamma, psi, frequency, nAngles) ) );
 						}
 				// elongated filters in x- axis (sigma = [2.0 - 4.0], gamma = [1.0 - 2.0])
 				for(int i=0; i < 2; i++)
@@ -3142,7 +3272,7 @@ public boolean updateFeaturesMT()
 									return false;
 								final double psi = Math.PI / 2 * i;
 								//System.out.println( " Calculating Gabor filter (" + sigma + " , " + gamma + ", " + psi + ", " + frequency + ", " + nAngles + ")");
-								futures.add(exe.submit( getGabor(originalImage, sigma, gamma, psi, frequency, nAngles) ) );
+								futures.add( submitFeature( featureKey( GABOR, sigma, gamma, psi, frequency, nAngles ), getGabor(originalImage, sigma, gamma, psi, frequency, nAngles) ) );
 							}								
 			}
 			
@@ -3152,7 +3282,7 @@ public boolean updateFeaturesMT()
 				if ( Thread.currentThread().isInterrupted() ) 
 					return false;
 				//IJ.log(n++ + ": Calculating Sobel filter (0.0)");
-				futures.add(exe.submit( getGradient(originalImage, 0)) );
+				futures.add( submitFeature( featureKey( SOBEL, 0 ), getGradient(originalImage, 0) ) );
 			}
 			// Hessian (no blur)
 			if(enableFeatures[HESSIAN] && minimumSigma < 2)
@@ -3160,7 +3290,7 @@ public boolean updateFeaturesMT()
 				if (Thread.currentThread().isInterrupted()) 
 					return false;
 				//IJ.log( n++ +": Calculating Hessian filter (0.0)");
-				futures.add(exe.submit( getHessian(originalImage, 0)) );
+				futures.add( submitFeature( featureKey( HESSIAN, 0 ), getHessian(originalImage, 0) ) );
 			}
 			
 			
@@ -3172,19 +3302,19 @@ public boolean updateFeaturesMT()
 				if(enableFeatures[GAUSSIAN])
 				{
 					//IJ.log( n++ +": Calculating Gaussian filter ("+ i + ")");
-					futures.add(exe.submit( getGaussianBlur(originalImage, i)) );
+					futures.add( submitFeature( featureKey( GAUSSIAN, i ), getGaussianBlur(originalImage, i) ) );
 				}
 				// Sobel
 				if(enableFeatures[SOBEL])
 				{
 					//IJ.log( n++ +": Calculating Sobel filter ("+ i + ")");
-					futures.add(exe.submit( getGradient(originalImage, i)) );
+					futures.add( submitFeature( featureKey( SOBEL, i ), getGradient(originalImage, i) ) );
 				}
 				// Hessian
 				if(enableFeatures[HESSIAN])
 				{
 					//IJ.log("Calculating Hessian filter ("+ i + ")");
-					futures.add(exe.submit( getHessian(originalImage, i)) );
+					futures.add( submitFeature( featureKey( HESSIAN, i ), getHessian(originalImage, i) ) );
 				}
 				// Difference of gaussians
 				if(enableFeatures[DOG])
@@ -3192,67 +3322,67 @@ public boolean updateFeaturesMT()
 					for (float j=minimumSigma; j<i; j*=2)
 					{
 						//IJ.log( n++ +": Calculating DoG filter ("+ i + ", " + j + ")");
-						futures.add(exe.submit( getDoG(originalImage, i, j)) );
+						futures.add( submitFeature( featureKey( DOG, i, j ), getDoG(originalImage, i, j) ) );
 					}
 				}
 				// Variance
 				if(enableFeatures[VARIANCE])
 				{
 					//IJ.log( n++ +": Calculating Variance filter ("+ i + ")");
-					futures.add(exe.submit( getVariance(originalImage, i)) );
+					futures.add( submitFeature( featureKey( VARIANCE, i ), getVariance(originalImage, i) ) );
 				}
 				// Mean
 				if(enableFeatures[MEAN])
 				{
 					//IJ.log( n++ +": Calculating Mean filter ("+ i + ")");
-					futures.add(exe.submit( getMean(originalImage, i)) );
+					futures.add( submitFeature( featureKey( MEAN, i ), getMean(originalImage, i) ) );
 				}
 
 				// Min
 				if(enableFeatures[MINIMUM])
 				{
 					//IJ.log( n++ +": Calculating Minimum filter ("+ i + ")");
-					futures.add(exe.submit( getMin(originalImage, i)) );
+					futures.add( submitFeature( featureKey( MINIMUM, i ), getMin(originalImage, i) ) );
 				}
 				// Max
 				if(enableFeatures[MAXIMUM])
 				{
 					//IJ.log( n++ +": Calculating Maximum filter ("+ i + ")");
-					futures.add(exe.submit( getMax(originalImage, i)) );
+					futures.add( submitFeature( featureKey( MAXIMUM, i ), getMax(originalImage, i) ) );
 				}
 			
 				// Median
 				if(enableFeatures[MEDIAN])
 				{
 					//IJ.log( n++ +": Calculating Median filter ("+ i + ")");
-					futures.add(exe.submit( getMedian(originalImage, i)) );
+					futures.add( submitFeature( featureKey( MEDIAN, i ), getMedian(originalImage, i) ) );
 				}
 				
 				// Derivatives
 				if(enableFeatures[DERIVATIVES])
 				{					
 					for(int order = minDerivativeOrder; order<=maxDerivativeOrder; order++)
-						futures.add(exe.submit( getDerivatives(originalImage, i, order, order)) );
+						futures.add( submitFeature( featureKey( DERIVATIVES, i, order, order ), getDerivatives(originalImage, i, order, order) ) );
 				}
 				
 				// Laplacian
 				if(enableFeatures[LAPLACIAN])
 				{
-					futures.add(exe.submit( getLaplacian(originalImage, i)) );
+					futures.add( submitFeature( featureKey( LAPLACIAN, i ), getLaplacian(originalImage, i) ) );
 				}
 				
 				// Structure tensor
 				if(enableFeatures[ STRUCTURE ])
 				{					
 					for(int integrationScale = 1; integrationScale <= 3; integrationScale+=2)
-						futures.add(exe.submit( getStructure(originalImage, i, integrationScale )) );
+						futures.add( submitFeature( featureKey( STRUCTURE, i, integrationScale ), getStructure(originalImage, i, integrationScale ) ) );
 				}
 				
 				// Entropy
 				if(enableFeatures[ENTROPY])
 				{
 					for(int nBins = 32; nBins <= 256; nBins *=2)
-						futures.add(exe.submit( getEntropy(originalImage, (int) i, nBins)) );
+						futures.add( submitFeature( featureKey( ENTROPY, (int) i, nBins ), getEntropy(originalImage, (int) i, nBins) ) );
 				}
 
 			}
@@ -3262,13 +3392,12 @@ public boolean updateFeaturesMT()
 				if (Thread.currentThread().isInterrupted()) 
 					return false;
 				//IJ.log( n++ +": Calculating Membranes projections ("+ membranePatchSize + ", " + membraneSize + ")");
-				futures.add(exe.submit( getMembraneFeatures(originalImage, membranePatchSize, membraneSize) ));
+				futures.add( submitFeature( featureKey( MEMBRANE, membranePatchSize, membraneSize ), getMembraneFeatures(originalImage, membranePatchSize, membraneSize) ) );
 			}
 
 			// Neighbors
 			if( enableFeatures[ NEIGHBORS ])
-				futures.add(exe.submit( getNeighbors( originalImage, (int)minimumSigma, (int)maximumSigma ) ) );
-			
+				futures.add( submitFeature( featureKey( NEIGHBORS, (int)minimumSigma, (int)maximumSigma ), getNeighbors( originalImage, (int)minimumSigma, (int)maximumSigma ) ) );
 			// Wait for the jobs to be done
 			for(Future<ImagePlus> f : futures)
 			{
@@ -3309,6 +3438,156 @@ public boolean updateFeaturesMT()
 		return true;
 	}
 	
+	/**
+	 * Set the on-disk cache to look up the feature images before 
+	 * computing them in updateFeaturesST and updateFeaturesMT
+	 * 
+	 * @param featureCache feature cache (null to disable it)
+	 */
+	public void setFeatureCache( FeatureCache featureCache )
+	{
+		this.featureCache = featureCache;
+	}
+	
+	/**
+	 * Get the on-disk feature cache
+	 * 
+	 * @return feature cache or null if not used
+	 */
+	public FeatureCache getFeatureCache()
+	{
+		return featureCache;
+	}
+	
+	/**
+	 * Get the hash of the original image content (calculated only once)
+	 * 
+	 * @return hexadecimal hash of the original image
+	 */
+	private synchronized String getImageHash()
+	{
+		if( null == imageHash )
+			imageHash = FeatureCache.getImageHash( originalImage.getProcessor() );
+		return imageHash;
+	}
+	
+	/**
+	 * Create the cache key of a filter call
+	 * 
+	 * @param feature feature flag index (GAUSSIAN, HESSIAN...)
+	 * @param params filter parameters
+	 * @return cache key
+	 */
+	private static String featureKey( int feature, Object... params )
+	{
+		final StringBuilder sb = new StringBuilder( availableFeatures[ feature ] );
+		for( final Object param : params )
+			sb.append( "_" ).append( param );
+		return sb.toString();
+	}
+	
+	/**
+	 * Add the feature images of a filter call from the cache to the stack
+	 * 
+	 * @param key filter cache key
+	 * @return true if the feature images were found in the cache and added
+	 */
+	private boolean addCachedFeature( String key )
+	{
+		if( null == featureCache || null == originalImage )
+			return false;
+		final ImageStack cached = featureCache.load( getImageHash(), key );
+		if( null == cached || cached.getWidth() != width || cached.getHeight() != height )
+			return false;
+		for(int i = 1; i <= cached.getSize(); i++)
+			wholeStack.addSlice( cached.getSliceLabel( i ), cached.getProcessor( i ) );
+		return true;
+	}
+	
+	/**
+	 * Store the last feature images of the stack in the cache
+	 * 
+	 * @param key filter cache key
+	 * @param first index of the first slice produced by the filter call (>=1)
+	 */
+	private void storeCachedFeature( String key, int first )
+	{
+		if( null == featureCache || null == originalImage )
+			return;
+		final ImageStack features = new ImageStack( width, height );
+		for(int i = first; i <= getSize(); i++)
+			features.addSlice( getSliceLabel( i ), getProcessor( i ) );
+		if( features.getSize() > 0 )
+			featureCache.store( getImageHash(), key, features );
+	}
+	
+	/**
+	 * Filter call of the single-thread feature update, which adds
+	 * its feature images to the stack
+	 */
+	private abstract class FeatureCall
+	{
+		abstract void add();
+	}
+	
+	/**
+	 * Add the feature images of a filter call to the stack, taking 
+	 * them from the feature cache if possible and storing them in it
+	 * otherwise
+	 * 
+	 * @param key filter cache key
+	 * @param call filter call
+	 */
+	private void addCached( String key, FeatureCall call )
+	{
+		if( addCachedFeature( key ) )
+			return;
+		final int first = getSize() + 1;
+		call.add();
+		storeCachedFeature( key, first );
+	}
+	
+	/**
+	 * Submit a filter call to the executor service, looking up the
+	 * result in the feature cache first and storing it afterwards
+	 * 
+	 * @param key filter cache key
+	 * @param filter filter call
+	 * @return future result of the filter call
+	 */
+	private Future<ImagePlus> submitFeature( final String key, final Callable<ImagePlus> filter )
+	{
+		if( null == featureCache || null == originalImage )
+			return exe.submit( filter );
+		
+		final String hash = getImageHash();
+		return exe.submit( new Callable<ImagePlus>(){
+			public ImagePlus call() throws Exception
+			{
+				final ImageStack cached = featureCache.load( hash, key );
+				if( null != cached && cached.getWidth() == width && cached.getHeight() == height )
+				{
+					if( cached.getSize() == 1 )
+						return new ImagePlus( cached.getSliceLabel( 1 ), cached.getProcessor( 1 ) );
+					return new ImagePlus( key, cached );
+				}
+				
+				final ImagePlus result = filter.call();
+				// single images are labeled by their title
+				final ImageStack features;
+				if( result.getImageStackSize() == 1 )
+				{
+					features = new ImageStack( width, height );
+					features.addSlice( result.getTitle(), result.getProcessor() );
+				}
+				else
+					features = result.getImageStack();
+				featureCache.store( hash, key, features );
+				return result;
+			}
+		});
+	}
+	
 	/**
 	 * Set list of boolean flags for enabled features
 	 * @param enableFeatures list of boolean flags to enable features
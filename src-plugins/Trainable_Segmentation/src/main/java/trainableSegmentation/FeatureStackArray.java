@@ -64,6 +64,9 @@ public class FeatureStackArray
 	/** flag to specify the use of the old color format (using directly the RGB values as float) */
 	private boolean oldColorFormat = false;  
 	
+	/** on-disk cache of feature images (null if not used) */
+	private FeatureCache featureCache = null;
+	
 	/**
 	 * Initialize a feature stack list of a specific size
 	 * 
@@ -178,6 +181,7 @@ public boolean updateFeaturesMT(boolean[] update)
 						featureStackArray[i].setMaximumSigma(maximumSigma);
 						featureStackArray[i].setMinimumSigma(minimumSigma);
 						featureStackArray[i].setUseNeighbors(useNeighbors);
+						featureStackArray[i].setFeatureCache(featureCache);
 						if ( featureStackArray.length == 1 )
 						{
 							if(false == featureStackArray[i].updateFeaturesMT() )							
@@ -244,6 +248,7 @@ public boolean updateFeaturesMT()
 					featureStackArray[i].setMaximumSigma(maximumSigma);
 					featureStackArray[i].setMinimumSigma(minimumSigma);
 					featureStackArray[i].setUseNeighbors(useNeighbors);
+					featureStackArray[i].setFeatureCache(featureCache);
 					if ( featureStackArray.length == 1 )
 					{
 						if(false == featureStackArray[i].updateFeaturesMT() )						
@@ -464,6 +469,30 @@ public boolean isOldColorFormat()
 		return this.oldColorFormat;
 	}
 	
+	/**
+	 * Set the on-disk cache that the feature stacks look up before
+	 * computing their features
+	 * 
+	 * @param featureCache feature cache (null to disable it)
+	 */
+	public void setFeatureCache( FeatureCache featureCache )
+	{
+		this.featureCache = featureCache;
+		for(int i=0; i<featureStackArray.length; i++)
+			if(null != featureStackArray[i])
+				featureStackArray[i].setFeatureCache( featureCache );
+	}
+	
+	/**
+	 * Get the on-disk feature cache
+	 * 
+	 * @return feature cache or null if not used
+	 */
+	public FeatureCache getFeatureCache()
+	{
+		return featureCache;
+	}
+	
 }
 
 	
\ No newline at end of file
@@ -40,6 +40,8 @@
 
 import javax.vecmath.Point3f;
 
+import ai.BalancedRandomForest;
+
 import hr.irb.fastRandomForest.FastRandomForest;
 
 import ij.IJ;
@@ -208,6 +210,9 @@ public class WekaSegmentation {
 	/** executor service to launch threads for the library operations */
 	private ExecutorService exe = Executors.newFixedThreadPool(  Prefs.getThreads() );
 	
+	/** on-disk cache of feature images (null if not used) */
+	private FeatureCache featureCache = null;
+	
 	/**
 	 * Default constructor.
 	 *
@@ -240,6 +245,7 @@ public WekaSegmentation(ImagePlus trainingImage)
 		featureStackArray = new FeatureStackArray(trainingImage.getImageStackSize(),
 				minimumSigma, maximumSigma, useNeighbors, membraneThickness, membranePatchSize,
 				enabledFeatures);
+		featureStackArray.setFeatureCache(featureCache);
 		
 		featureStackToUpdateTrain = new boolean[trainingImage.getImageStackSize()];
 		featureStackToUpdateTest = new boolean[trainingImage.getImageStackSize()];
@@ -303,6 +309,7 @@ public void setTrainingImage(ImagePlus imp)
 		featureStackArray = new FeatureStackArray(trainingImage.getImageStackSize(),
 				minimumSigma, maximumSigma, useNeighbors, membraneThickness, membranePatchSize,
 				enabledFeatures);
+		featureStackArray.setFeatureCache(featureCache);
 		
 		featureStackToUpdateTrain = new boolean[trainingImage.getImageStackSize()];
 		featureStackToUpdateTest = new boolean[trainingImage.getImageStackSize()];
@@ -1919,6 +1926,7 @@ else if (null == data)
 		featureStackArray = new FeatureStackArray(trainingImage.getImageStackSize(),
 				minimumSigma, maximumSigma, useNeighbors, membraneThickness, membranePatchSize,
 				enabledFeatures);
+		featureStackArray.setFeatureCache(featureCache);
 		
 		// Remove traces from the lists and ROI overlays and initialize each feature stack
 		IJ.log("Removing previous markings...");
@@ -2613,6 +2621,31 @@ public void useAllFeatures()
 		this.featureStackArray.setEnabledFeatures(enableFeatures);
 	}
 
+	/**
+	 * Set the folder of the on-disk feature cache. When set, the feature 
+	 * images are stored there (keyed by image content, filter and
+	 * parameters) and reused instead of recomputed in later trainings or
+	 * classifications of the same images.
+	 * 
+	 * @param directory cache folder (null to disable the cache)
+	 */
+	public void setFeatureCacheDirectory(final String directory)
+	{
+		this.featureCache = null == directory ? null : new FeatureCache( directory );
+		if( null != featureStackArray )
+			featureStackArray.setFeatureCache( featureCache );
+	}
+	
+	/**
+	 * Get the on-disk feature cache
+	 * 
+	 * @return feature cache or null if not used
+	 */
+	public FeatureCache getFeatureCache()
+	{
+		return featureCache;
+	}
+	
 	/**
 	 * Set the project folder
 	 * @param projectFolder complete path name for project folder
@@ -4044,14 +4077,25 @@ public void run()
                     sliceFeatures.setMinimumSigma(minimumSigma);
                     sliceFeatures.setMembranePatchSize(membranePatchSize);
                     sliceFeatures.setMembraneSize(membraneThickness);
+                    sliceFeatures.setFeatureCache(featureCache);
                     sliceFeatures.updateFeaturesST();
                     filterFeatureStackByList(featureNames, sliceFeatures);
  
-                    final Instances sliceData = sliceFeatures.createInstances(classNames);
-                    sliceData.setClassIndex(sliceData.numAttributes() - 1); 
+					final ImagePlus classImage;
+					if( canClassifyFeatureMatrix( classifier ) )
+					{
+						// read the features directly from the stack (no Weka instances)
+						IJ.log("Classifying slice " + i + " in " + numFurtherThreads + " thread(s)...");
+						classImage = applyClassifier(sliceFeatures, classNames.size(), numFurtherThreads, probabilityMaps);
+					}
+					else
+					{
+						final Instances sliceData = sliceFeatures.createInstances(classNames);
+						sliceData.setClassIndex(sliceData.numAttributes() - 1); 
 
-					IJ.log("Classifying slice " + i + " in " + numFurtherThreads + " thread(s)...");
-					final ImagePlus classImage = applyClassifier(sliceData, slice.getWidth(), slice.getHeight(), numFurtherThreads, probabilityMaps);
+						IJ.log("Classifying slice " + i + " in " + numFurtherThreads + " thread(s)...");
+						classImage = applyClassifier(sliceData, slice.getWidth(), slice.getHeight(), numFurtherThreads, probabilityMaps);
+					}
 					
 					if( null == classImage )
 					{
@@ -4401,6 +4445,317 @@ public void run() {
 		return result;
 	}
 	
+	/**
+	 * Apply current classifier to a given image tile by tile. Each slice is
+	 * divided into square tiles that are processed independently: the 
+	 * features are calculated only on the tile plus a border (halo) large 
+	 * enough for the filters of the largest sigma, the tile pixels are 
+	 * classified and copied into the result, and the tile features are 
+	 * discarded. This way the memory used by the features is bounded by the 
+	 * tile size and the number of threads, not by the image size.
+	 * <p>
+	 * Filters with a non-local support (anisotropic diffusion, Lipschitz,
+	 * Kuwahara) may produce slightly different values close to the tile
+	 * borders than when applied to the whole slice.
+	 *
+	 * @param imp image (2D single image or stack)
+	 * @param tileSize width and height of the tiles (in pixels, halo not included)
+	 * @param numThreads The number of threads to use. Set to zero for
+	 * auto-detection.
+	 * @param probabilityMaps create probability maps for each class instead of
+	 * a classification
+	 * @return result image
+	 */
+	public ImagePlus applyClassifierTiled(
+			final ImagePlus imp,
+			final int tileSize,
+			int numThreads,
+			final boolean probabilityMaps)
+	{
+		if (numThreads == 0)
+			numThreads = Prefs.getThreads();
+
+		if( tileSize < 1 )
+		{
+			IJ.log("Error: the tile size must be larger than 0.");
+			return null;
+		}
+
+		final int width = imp.getWidth();
+		final int height = imp.getHeight();
+		final int numSlices = imp.getImageStackSize();
+		final int numClasses = numOfClasses;
+		final int numChannels = (probabilityMaps ? numClasses : 1);
+		final int halo = getTileHalo();
+
+		final int tilesX = (width + tileSize - 1) / tileSize;
+		final int tilesY = (height + tileSize - 1) / tileSize;
+		final int tilesPerSlice = tilesX * tilesY;
+		final int numTiles = tilesPerSlice * numSlices;
+
+		numThreads = Math.min( numThreads, numTiles );
+
+		IJ.log("Classifying " + imp.getTitle() + " in " + numTiles + " tile(s) of " 
+				+ tileSize + "x" + tileSize + " pixels (halo = " + halo + ") using " 
+				+ numThreads + " thread(s)...");
+
+		final Instances dataInfo = createDataInfo( getApplyClassNames() );
+		final int numAttributes = dataInfo.numAttributes();
+
+		final long start = System.currentTimeMillis();
+
+		// create result image, each tile writes its own region
+		final ImageStack classified = new ImageStack( width, height );
+		for(int i=0; i < numSlices; i++)
+		{
+			if( probabilityMaps )
+			{
+				for (int c = 0; c < numChannels; c++)
+					classified.addSlice("", new FloatProcessor(width, height));
+			}
+			else
+				classified.addSlice("", new ByteProcessor(width, height));
+		}
+
+		// next tile to process and counter to display the progress
+		final AtomicInteger nextTile = new AtomicInteger( 0 );
+		final AtomicInteger counter = new AtomicInteger( 0 );
+
+		class ApplyClassifierTileThread extends Thread
+		{
+			final AbstractClassifier classifier;
+
+			public ApplyClassifierTileThread( AbstractClassifier classifier )
+			{
+				this.classifier = classifier;
+			}
+
+			public void run()
+			{
+				final DenseInstance ins = new DenseInstance( numAttributes );
+				ins.setDataset( dataInfo );
+				final boolean useFeatureMatrix = canClassifyFeatureMatrix( classifier );
+				final double[] dist = new double[ dataInfo.numClasses() ];
+
+				for (int t = nextTile.getAndIncrement(); t < numTiles; t = nextTile.getAndIncrement())
+				{
+					if (Thread.currentThread().isInterrupted())
+						return;
+
+					final int slice = t / tilesPerSlice;
+					final int tx = (t % tilesPerSlice) % tilesX;
+					final int ty = (t % tilesPerSlice) / tilesX;
+
+					// tile area and padded area (clipped to the image)
+					final int x0 = tx * tileSize;
+					final int y0 = ty * tileSize;
+					final int tileWidth = Math.min( tileSize, width - x0 );
+					final int tileHeight = Math.min( tileSize, height - y0 );
+					final int px0 = Math.max( 0, x0 - halo );
+					final int py0 = Math.max( 0, y0 - halo );
+					final int px1 = Math.min( width, x0 + tileWidth + halo );
+					final int py1 = Math.min( height, y0 + tileHeight + halo );
+
+					// getProcessor() returns a new processor, so each thread crops its own
+					final ImageProcessor sliceImage = imp.getImageStack().getProcessor( slice + 1 );
+					sliceImage.setRoi( new Rectangle( px0, py0, px1 - px0, py1 - py0 ) );
+					final ImageProcessor paddedTile = sliceImage.crop();
+
+					// Create feature stack for padded tile
+					final FeatureStack tileFeatures = new FeatureStack( paddedTile );
+					// Use the same features as the current classifier
+					tileFeatures.setEnabledFeatures( featureStackArray.getEnabledFeatures() );
+					tileFeatures.setMaximumSigma( maximumSigma );
+					tileFeatures.setMinimumSigma( minimumSigma );
+					tileFeatures.setMembranePatchSize( membranePatchSize );
+					tileFeatures.setMembraneSize( membraneThickness );
+					tileFeatures.setUseNeighbors( featureStackArray.useNeighborhood() );
+					if( false == tileFeatures.updateFeaturesST() )
+					{
+						IJ.log("Classifier execution was interrupted.");
+						return;
+					}
+					filterFeatureStackByList( featureNames, tileFeatures );
+
+					// offset of the tile inside the padded tile
+					final int offX = x0 - px0;
+					final int offY = y0 - py0;
+
+					// result pixels of the current slice
+					final Object[] pixels = new Object[ numChannels ];
+					for(int c = 0; c < numChannels; c++)
+						pixels[ c ] = classified.getPixels( slice * numChannels + c + 1 );
+
+					// read the features directly from the stack if possible
+					final float[][] features = useFeatureMatrix ? tileFeatures.getFeatureMatrix() : null;
+					final int paddedWidth = px1 - px0;
+
+					try{
+						for(int y = 0; y < tileHeight; y++)
+						{
+							final int offset = (y0 + y) * width + x0;
+							for(int x = 0; x < tileWidth; x++)
+							{
+								final double[] prob;
+								if( useFeatureMatrix )
+								{
+									distributionForPixel( classifier, features, (y + offY) * paddedWidth + x + offX, dist );
+									prob = dist;
+								}
+								else
+								{
+									tileFeatures.createInstanceInPlace( x + offX, y + offY, 0, ins );
+									prob = classifier.distributionForInstance( ins );
+								}
+
+								if( probabilityMaps )
+								{
+									for(int k = 0; k < prob.length && k < numChannels; k++)
+										((float[]) pixels[ k ])[ offset + x ] = (float) prob[ k ];
+								}
+								else
+									((byte[]) pixels[ 0 ])[ offset + x ] = (byte) Utils.maxIndex( prob );
+							}
+						}
+					}catch(Exception e){
+						IJ.showMessage("Could not apply Classifier!");
+						e.printStackTrace();
+						return;
+					}
+
+					tileFeatures.shutDownNow();
+					counter.addAndGet( tileWidth * tileHeight );
+				}
+			}
+		}
+
+		// Create a copy of the classifier for each thread
+		final ApplyClassifierTileThread[] threads = new ApplyClassifierTileThread[ numThreads ];
+		for(int i = 0; i < numThreads; i++)
+		{
+			AbstractClassifier classifierCopy = classifier;
+			// The Weka random forest classifiers do not need to be duplicated on each thread
+			// (that saves much memory)
+			if( !( classifier instanceof FastRandomForest || classifier instanceof RandomForest ) )
+			{
+				try {
+					classifierCopy = (AbstractClassifier) (AbstractClassifier.makeCopy( classifier ));
+				} catch (Exception e) {
+					IJ.log("Error: classifier could not be copied to classify in a multi-thread way.");
+					e.printStackTrace();
+					return null;
+				}
+			}
+			threads[ i ] = new ApplyClassifierTileThread( classifierCopy );
+			threads[ i ].start();
+		}
+
+		final int numInstances = width * height * numSlices;
+
+		ScheduledExecutorService monitor = Executors.newScheduledThreadPool(1);
+		ScheduledFuture task = monitor.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				IJ.showProgress(counter.get(), numInstances);
+			}
+		}, 0, 1, TimeUnit.SECONDS);
+
+		// join threads
+		try {
+			for(Thread thread : threads)
+				thread.join();
+		} catch (InterruptedException e) {
+			for(Thread thread : threads)
+				thread.interrupt();
+			e.printStackTrace();
+			return null;
+		} finally {
+			task.cancel(true);
+			monitor.shutdownNow();
+			IJ.showProgress(1);
+		}
+
+		if( counter.get() < numInstances )
+		{
+			IJ.log("Error while applying classifier!");
+			return null;
+		}
+
+		ImagePlus result = new ImagePlus("Classification result", classified);
+
+		if (probabilityMaps)
+		{
+			result.setDimensions(numOfClasses, imp.getNSlices(), imp.getNFrames());
+			if (imp.getNSlices()*imp.getNFrames() > 1)
+				result.setOpenAsHyperStack(true);
+		}
+
+		final long end = System.currentTimeMillis();
+		IJ.log("Tiled image classification took " + (end-start) + " ms.");
+		return result;
+	}
+
+	/**
+	 * Get the size of the border that needs to be added to each side of a 
+	 * tile so the features calculated on the tile are not affected by 
+	 * the tile boundaries. It depends on the maximum sigma (Gaussian kernels
+	 * are truncated at about 4 sigma) and on the membrane patch size.
+	 *
+	 * @return halo size (in pixels)
+	 */
+	public int getTileHalo()
+	{
+		final int sigmaHalo = (int) Math.ceil( 4 * maximumSigma );
+		final int membraneHalo = membranePatchSize / 2 + 1;
+		// one extra pixel for the neighbors and derivative features
+		return Math.max( sigmaHalo, membraneHalo ) + 1;
+	}
+
+	/**
+	 * Get the names of the classes to use when applying the classifier
+	 * (classes with no traces are skipped unless the class names were 
+	 * loaded from a file).
+	 *
+	 * @return list of class names
+	 */
+	private ArrayList<String> getApplyClassNames()
+	{
+		if( null != loadedClassNames )
+			return loadedClassNames;
+
+		final ArrayList<String> classNames = new ArrayList<String>();
+		for(int i = 0; i < numOfClasses; i++)
+			for(int j=0; j<trainingImage.getImageStackSize(); j++)
+				if(examples[j].get(i).size() > 0)
+				{
+					classNames.add(getClassLabels()[i]);
+					break;
+				}
+		return classNames;
+	}
+
+	/**
+	 * Create an empty set of instances with the structure (attributes and 
+	 * classes) of the current feature stack array.
+	 *
+	 * @param classNames names of the classes
+	 * @return empty set of instances with the class index set
+	 */
+	private Instances createDataInfo( ArrayList<String> classNames )
+	{
+		ArrayList<Attribute> attributes = new ArrayList<Attribute>();
+		for (int i=1; i<=featureStackArray.getNumOfFeatures(); i++)
+			attributes.add(new Attribute(featureStackArray.getLabel(i)));
+
+		if(featureStackArray.useNeighborhood())
+			for (int i=0; i<8; i++)
+				attributes.add(new Attribute(new String("original_neighbor_" + (i+1))));
+
+		attributes.add(new Attribute("class", classNames));
+		Instances dataInfo = new Instances("segment", attributes, 1);
+		dataInfo.setClassIndex(dataInfo.numAttributes()-1);
+		return dataInfo;
+	}
+	
 
 	/**
 	 * Classify a slice in a concurrent way
@@ -4434,6 +4789,7 @@ public ImagePlus call()
 				sliceFeatures.setMinimumSigma(minimumSigma);
 				sliceFeatures.setMembranePatchSize(membranePatchSize);
 				sliceFeatures.setMembraneSize(membraneThickness);
+				sliceFeatures.setFeatureCache(featureCache);
 				if(false == sliceFeatures.updateFeaturesST())
 				{
 					IJ.log("Classifier execution was interrupted.");
@@ -4543,6 +4899,7 @@ public ArrayList < ImagePlus > call()
 					sliceFeatures.setMinimumSigma(minimumSigma);
 					sliceFeatures.setMembranePatchSize(membranePatchSize);
 					sliceFeatures.setMembraneSize(membraneThickness);
+					sliceFeatures.setFeatureCache(featureCache);
 					if(false == sliceFeatures.updateFeaturesST())
 					{
 						IJ.log("Classifier execution was interrupted.");
@@ -5217,6 +5574,157 @@ public void run() {
 		return classImg;
 	}
 	
+	/**
+	 * Check if a classifier is able to classify the pixels directly from
+	 * a feature matrix (primitive float arrays), without creating any
+	 * Weka instance.
+	 *
+	 * @param classifier classifier to check
+	 * @return true if the classifier is a fast random forest or a balanced random forest
+	 */
+	public static boolean canClassifyFeatureMatrix( final AbstractClassifier classifier )
+	{
+		return classifier instanceof FastRandomForest || classifier instanceof BalancedRandomForest;
+	}
+
+	/**
+	 * Calculate the class distribution of a pixel reading its features
+	 * directly from a feature matrix.
+	 *
+	 * @param classifier classifier to use (see {@link #canClassifyFeatureMatrix(AbstractClassifier)})
+	 * @param features feature matrix, features[ attribute ][ pixel ]
+	 * @param pixel index of the pixel in the feature arrays
+	 * @param distribution array to store the class distribution (overwritten)
+	 * @throws Exception if the classifier cannot classify feature matrices
+	 */
+	private static void distributionForPixel(
+			final AbstractClassifier classifier,
+			final float[][] features,
+			final int pixel,
+			final double[] distribution) throws Exception
+	{
+		if( classifier instanceof FastRandomForest )
+			((FastRandomForest) classifier).distributionForPixel( features, pixel, distribution );
+		else if( classifier instanceof BalancedRandomForest )
+			((BalancedRandomForest) classifier).distributionForPixel( features, pixel, distribution );
+		else
+			throw new Exception( "Classifier " + classifier.getClass().getName() + " cannot classify feature matrices" );
+	}
+
+	/**
+	 * Apply current classifier to the features of a single slice. The 
+	 * features are read directly from the feature stack float arrays,
+	 * so no Weka instance is created. Only fast random forest and balanced 
+	 * random forest classifiers are supported (see 
+	 * {@link #canClassifyFeatureMatrix(AbstractClassifier)}).
+	 *
+	 * @param featureStack feature stack of the slice to classify
+	 * @param numClasses number of classes of the training data
+	 * @param numThreads The number of threads to use. Set to zero for auto-detection.
+	 * @param probabilityMaps create probability maps for each class instead of a classification
+	 * @return result image (float class indices or one probability slice per class)
+	 */
+	public ImagePlus applyClassifier(
+			final FeatureStack featureStack,
+			final int numClasses,
+			int numThreads,
+			final boolean probabilityMaps)
+	{
+		if (numThreads == 0)
+			numThreads = Prefs.getThreads();
+
+		if( false == canClassifyFeatureMatrix( classifier ) )
+		{
+			IJ.log("Error: the current classifier cannot classify feature matrices.");
+			return null;
+		}
+
+		final int w = featureStack.getWidth();
+		final int h = featureStack.getHeight();
+		final int numInstances = w * h;
+		final int numChannels  = (probabilityMaps ? numClasses : 1);
+
+		IJ.showStatus("Classifying image...");
+
+		final long start = System.currentTimeMillis();
+
+		final float[][] features = featureStack.getFeatureMatrix();
+		final float[][] results = new float[ numChannels ][ numInstances ];
+
+		ExecutorService exe = Executors.newFixedThreadPool(numThreads);
+		final int partialSize = numInstances / numThreads;
+		Future<Boolean> fu[] = new Future[numThreads];
+
+		final AtomicInteger counter = new AtomicInteger();
+
+		for(int i = 0; i < numThreads; i++)
+		{
+			final int first = i * partialSize;
+			final int last = (i == numThreads - 1) ? numInstances : first + partialSize;
+
+			fu[i] = exe.submit( new Callable<Boolean>(){
+				public Boolean call() throws Exception
+				{
+					final double[] dist = new double[ numClasses ];
+					for (int p = first; p < last; p++)
+					{
+						if (0 == p % 4000)
+						{
+							if (Thread.currentThread().isInterrupted()) 
+								return false;
+							counter.addAndGet(4000);
+						}
+
+						distributionForPixel( classifier, features, p, dist );
+
+						if ( probabilityMaps )
+						{
+							for(int k = 0 ; k < numClasses; k++)
+								results[k][p] = (float) dist[k];
+						}
+						else
+							results[0][p] = Utils.maxIndex( dist );
+					}
+					return true;
+				}
+			});
+		}
+
+		ScheduledExecutorService monitor = Executors.newScheduledThreadPool(1);
+		ScheduledFuture task = monitor.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				IJ.showProgress(counter.get(), numInstances);
+			}
+		}, 0, 1, TimeUnit.SECONDS);
+
+		// Join threads
+		try {
+			for(int i = 0; i < numThreads; i++)
+				if( false == fu[i].get() )
+					return null;
+		} catch (InterruptedException e) {
+			return null;
+		} catch (ExecutionException e) {
+			IJ.showMessage("Could not apply Classifier!");
+			e.printStackTrace();
+			return null;
+		} finally {
+			exe.shutdownNow();
+			task.cancel(true);
+			monitor.shutdownNow();
+			IJ.showProgress(1);
+		}
+
+		final long end = System.currentTimeMillis();
+		IJ.log("Classifying feature matrix took: " + (end-start) + "ms");
+
+		final ImageStack classStack = new ImageStack(w, h);
+		for (int c = 0; c < numChannels; c++)
+			classStack.addSlice(probabilityMaps ? getClassLabels()[c] : "", new FloatProcessor(w, h, results[c], null));
+
+		return new ImagePlus("Classification result", classStack);
+	}
+
 	/**
 	 * Classify instances concurrently
 	 * 
@@ -0,0 +1,166 @@
+package trainableSegmentation.benchmarks;
+
+/**
+ *
+ * License: GPL
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License 2
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+import ij.ImagePlus;
+import ij.Prefs;
+import ij.process.FloatProcessor;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import trainableSegmentation.FeatureStack;
+
+/**
+ * JMH benchmarks of the FeatureStack filters on a synthetic image (random 
+ * noise with a fixed seed, so every run filters the same pixels).
+ * <p>
+ * Each single filter benchmark calls the filter in the benchmark thread. Only
+ * the whole feature stack update is run with different numbers of ImageJ
+ * threads (see {@link Threads}).
+ * <p>
+ * Run for example with
+ * <pre>
+ * java -jar target/benchmarks.jar FeatureFilterBenchmark -p size=512
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FeatureFilterBenchmark
+{
+	/** width and height of the input image (in pixels) */
+	@Param({"256", "512", "1024"})
+	public int size;
+
+	/** sigma of the Gaussian based filters */
+	@Param({"4"})
+	public float sigma;
+
+	/** input image */
+	private ImagePlus image;
+	/** feature stack of the input image */
+	private FeatureStack featureStack;
+
+	/**
+	 * Number of ImageJ threads, only used by the benchmarks that take this
+	 * state, so that the single filter benchmarks are not repeated for each
+	 * value.
+	 */
+	@State(Scope.Thread)
+	public static class Threads
+	{
+		/** number of threads used when updating the whole feature stack */
+		@Param({"1", "4"})
+		public int numThreads;
+
+		/** previous number of ImageJ threads */
+		private int previousThreads;
+
+		@Setup(Level.Trial)
+		public void setUp()
+		{
+			previousThreads = Prefs.getThreads();
+			Prefs.setThreads( numThreads );
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown()
+		{
+			Prefs.setThreads( previousThreads );
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setUp()
+	{
+		final Random random = new Random( 42 );
+		final float[] pixels = new float[ size * size ];
+		for(int i = 0; i < pixels.length; i++)
+			pixels[ i ] = (float) ( 128 + 32 * random.nextGaussian() );
+		image = new ImagePlus( "benchmark", new FloatProcessor( size, size, pixels, null ) );
+		featureStack = new FeatureStack( image );
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown()
+	{
+		featureStack.shutDownNow();
+	}
+
+	@Benchmark
+	public ImagePlus gaussianBlur() throws Exception
+	{
+		return featureStack.getGaussianBlur( image, sigma ).call();
+	}
+
+	@Benchmark
+	public ImagePlus hessian() throws Exception
+	{
+		return featureStack.getHessian( image, sigma ).call();
+	}
+
+	@Benchmark
+	public ImagePlus membraneFeatures() throws Exception
+	{
+		return featureStack.getMembraneFeatures( image, 19, 1 ).call();
+	}
+
+	@Benchmark
+	public ImagePlus entropy() throws Exception
+	{
+		return featureStack.getEntropy( image, (int) sigma, 64 ).call();
+	}
+
+	@Benchmark
+	public ImagePlus neighbors() throws Exception
+	{
+		return featureStack.getNeighbors( image, 1, (int) sigma ).call();
+	}
+
+	/**
+	 * Update the whole feature stack with the default features
+	 * (multi-thread version)
+	 *
+	 * @param threads number of ImageJ threads to use
+	 */
+	@Benchmark
+	public int updateFeaturesMT( final Threads threads )
+	{
+		featureStack.updateFeaturesMT();
+		return featureStack.getSize();
+	}
+}
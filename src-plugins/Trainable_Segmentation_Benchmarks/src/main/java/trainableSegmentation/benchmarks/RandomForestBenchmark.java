@@ -0,0 +1,183 @@
+package trainableSegmentation.benchmarks;
+
+/**
+ *
+ * License: GPL
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License 2
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+import hr.irb.fastRandomForest.FastRandomForest;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+
+/**
+ * JMH benchmarks of the FastRandomForest training and classification on
+ * synthetic data that mimics a feature stack: every "pixel" has a number
+ * of float features and belongs to one of two classes whose feature 
+ * values are drawn from shifted Gaussian distributions (fixed seed).
+ * <p>
+ * The classification benchmarks classify all the pixels of an image of
+ * the given size, through Weka instances (distributionForInstance) and 
+ * directly from the feature matrix (distributionForPixel).
+ * <p>
+ * Run for example with
+ * <pre>
+ * java -jar target/benchmarks.jar RandomForestBenchmark -p numThreads=1,8
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RandomForestBenchmark
+{
+	/** width and height of the classified image (in pixels) */
+	@Param({"128", "256", "512"})
+	public int size;
+
+	/** number of training samples */
+	@Param({"2000"})
+	public int numSamples;
+
+	/** number of features per sample */
+	@Param({"40"})
+	public int numFeatures;
+
+	/** number of threads used to build the forest */
+	@Param({"1", "4"})
+	public int numThreads;
+
+	/** number of trees of the forest */
+	@Param({"200"})
+	public int numTrees;
+
+	/** training data */
+	private Instances trainingData;
+	/** data to classify (one instance per pixel) */
+	private Instances testData;
+	/** data to classify as a feature matrix, features[ attribute ][ pixel ] */
+	private float[][] features;
+	/** forest trained on the training data */
+	private FastRandomForest trainedForest;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception
+	{
+		final Random random = new Random( 42 );
+
+		final ArrayList<Attribute> attributes = new ArrayList<Attribute>();
+		for(int i = 0; i < numFeatures; i++)
+			attributes.add( new Attribute( "feature_" + i ) );
+		final ArrayList<String> classes = new ArrayList<String>();
+		classes.add( "class 1" );
+		classes.add( "class 2" );
+		attributes.add( new Attribute( "class", classes ) );
+
+		trainingData = new Instances( "training", attributes, numSamples );
+		trainingData.setClassIndex( numFeatures );
+		for(int n = 0; n < numSamples; n++)
+		{
+			final int classValue = n % 2;
+			final double[] values = new double[ numFeatures + 1 ];
+			for(int i = 0; i < numFeatures; i++)
+				values[ i ] = random.nextGaussian() + classValue * ( i % 4 );
+			values[ numFeatures ] = classValue;
+			trainingData.add( new DenseInstance( 1.0, values ) );
+		}
+
+		final int numPixels = size * size;
+		features = new float[ numFeatures ][ numPixels ];
+		testData = new Instances( "test", attributes, numPixels );
+		testData.setClassIndex( numFeatures );
+		for(int p = 0; p < numPixels; p++)
+		{
+			final int classValue = random.nextInt( 2 );
+			final double[] values = new double[ numFeatures + 1 ];
+			for(int i = 0; i < numFeatures; i++)
+			{
+				features[ i ][ p ] = (float) ( random.nextGaussian() + classValue * ( i % 4 ) );
+				values[ i ] = features[ i ][ p ];
+			}
+			testData.add( new DenseInstance( 1.0, values ) );
+		}
+
+		trainedForest = createForest();
+		trainedForest.buildClassifier( trainingData );
+	}
+
+	/**
+	 * Create a forest with the same parameters as the default 
+	 * Weka Segmentation classifier
+	 *
+	 * @return untrained forest
+	 */
+	private FastRandomForest createForest()
+	{
+		final FastRandomForest rf = new FastRandomForest();
+		rf.setNumTrees( numTrees );
+		rf.setNumFeatures( 2 );
+		rf.setSeed( 42 );
+		rf.setNumThreads( numThreads );
+		return rf;
+	}
+
+	@Benchmark
+	public FastRandomForest buildClassifier() throws Exception
+	{
+		final FastRandomForest rf = createForest();
+		rf.buildClassifier( trainingData );
+		return rf;
+	}
+
+	@Benchmark
+	public void distributionForInstance( final Blackhole bh ) throws Exception
+	{
+		for(int p = 0; p < testData.numInstances(); p++)
+			bh.consume( trainedForest.distributionForInstance( testData.get( p ) ) );
+	}
+
+	@Benchmark
+	public void distributionForPixel( final Blackhole bh ) throws Exception
+	{
+		final double[] distribution = new double[ 2 ];
+		for(int p = 0; p < features[ 0 ].length; p++)
+		{
+			trainedForest.distributionForPixel( features, p, distribution );
+			bh.consume( distribution[ 0 ] );
+		}
+	}
+}
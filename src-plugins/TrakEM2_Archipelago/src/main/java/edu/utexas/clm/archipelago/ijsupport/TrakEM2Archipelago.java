@@ -136,6 +136,10 @@ public boolean setup(Object... params)
         cluster.addBottler(new LayerBottler());
         cluster.addBottler(new PatchBottler());
 
+        // Send TrakEM2 jobs to the nodes that already have their project open.
+        cluster.addFileDependencyFinder(new TrakEM2FileDependencyFinder());
+        cluster.setLocalityAwareScheduling(true);
+
         cluster.addStateListener(new ProviderListener());
         ExecutorProvider.setProvider(new ClusterProvider(cluster));
 
@@ -0,0 +1,117 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ */
+
+package edu.utexas.clm.archipelago.ijsupport;
+
+import edu.utexas.clm.archipelago.compute.FileDependencyFinder;
+import ini.trakem2.Project;
+import ini.trakem2.persistence.DBObject;
+import ini.trakem2.persistence.FSLoader;
+
+import java.io.File;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+/**
+ * Finds the TrakEM2 project files that the jobs submitted by TrakEM2 depend on. TrakEM2 jobs are
+ * typically anonymous Callables or Runnables that hold the Layers or Patches they work on in
+ * their fields. When those are sent to a node, LayerBottle and PatchBottle make the node open
+ * the whole project, so the project file is the input file of the job.
+ */
+public class TrakEM2FileDependencyFinder implements FileDependencyFinder
+{
+    /* How deep to look into wrapped Runnables and Callables, such as QuickCallable */
+    private static final int MAX_DEPTH = 2;
+
+    public Collection<File> findInputFiles(final Callable<?> callable)
+    {
+        final Set<File> files = new HashSet<File>();
+        addProjectFiles(callable, files, 0);
+        return files.isEmpty() ? null : files;
+    }
+
+    private static void addProjectFiles(final Object job, final Set<File> files, final int depth)
+    {
+        for (Class<?> c = job.getClass(); c != null && c != Object.class; c = c.getSuperclass())
+        {
+            for (final Field field : c.getDeclaredFields())
+            {
+                if (Modifier.isStatic(field.getModifiers()) || field.getType().isPrimitive())
+                {
+                    continue;
+                }
+
+                final Object value;
+                try
+                {
+                    field.setAccessible(true);
+                    value = field.get(job);
+                }
+                catch (SecurityException se)
+                {
+                    continue;
+                }
+                catch (IllegalAccessException iae)
+                {
+                    continue;
+                }
+
+                addProjectFile(first(value), files);
+
+                if (depth < MAX_DEPTH && (value instanceof Runnable || value instanceof Callable))
+                {
+                    addProjectFiles(value, files, depth + 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the first element of a Collection or an array, the object itself otherwise.
+     * The objects of a single job all belong to one project, so the first one is enough.
+     */
+    private static Object first(final Object value)
+    {
+        if (value instanceof Collection)
+        {
+            final Collection<?> collection = (Collection<?>)value;
+            return collection.isEmpty() ? null : collection.iterator().next();
+        }
+        else if (value != null && value.getClass().isArray() &&
+                !value.getClass().getComponentType().isPrimitive())
+        {
+            return Array.getLength(value) == 0 ? null : Array.get(value, 0);
+        }
+        return value;
+    }
+
+    private static void addProjectFile(final Object value, final Set<File> files)
+    {
+        if (value instanceof DBObject)
+        {
+            final Project project = ((DBObject)value).getProject();
+            if (project != null && project.getLoader() instanceof FSLoader)
+            {
+                files.add(TrakEM2Archipelago.getFile(project));
+            }
+        }
+    }
+}
@@ -24,6 +24,11 @@ public LayerBottle(final Layer l)
 
     }
 
+    public File getProjectFile()
+    {
+        return file;
+    }
+
     public Layer unBottle(final MessageXC xc)
     {
         final Project p = TrakEM2Archipelago.getProject(file);
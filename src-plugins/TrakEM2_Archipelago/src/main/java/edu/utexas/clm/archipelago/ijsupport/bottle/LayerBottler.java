@@ -17,7 +17,10 @@ public boolean accepts(final Object o)
 
     public Bottle<Layer> bottle(final Object o, final MessageXC xc)
     {
-        return new LayerBottle((Layer)o);
+        final LayerBottle bottle = new LayerBottle((Layer)o);
+        // The remote node will load the project, so it will be resident there.
+        xc.addResidentFile(bottle.getProjectFile());
+        return bottle;
     }
 
     public boolean transfer()
@@ -22,6 +22,11 @@ public PatchBottle(final Patch patch)
         id = patch.getId();
     }
 
+    public File getProjectFile()
+    {
+        return projectFile;
+    }
+
     public Patch unBottle(final MessageXC xc)
     {
         final Project p = TrakEM2Archipelago.getProject(projectFile);
@@ -17,7 +17,10 @@ public boolean accepts(final Object o)
 
     public Bottle<Patch> bottle(final Object o, final MessageXC xc)
     {
-        return new PatchBottle((Patch)o);
+        final PatchBottle bottle = new PatchBottle((Patch)o);
+        // The remote node will load the project, so it will be resident there.
+        xc.addResidentFile(bottle.getProjectFile());
+        return bottle;
     }
 
     public boolean transfer()
@@ -121,6 +121,36 @@
 
 { /* begin class TurboReg_ */
 
+/*....................................................................
+	Public variables
+....................................................................*/
+
+/*********************************************************************
+ Transformation code of <code>alignImages</code> and
+ <code>transformImage</code>, equivalent to <code>-translation</code>.
+ ********************************************************************/
+public static final int TRANSLATION = turboRegDialog.TRANSLATION;
+
+/*********************************************************************
+ Transformation code equivalent to <code>-rigidBody</code>.
+ ********************************************************************/
+public static final int RIGID_BODY = turboRegDialog.RIGID_BODY;
+
+/*********************************************************************
+ Transformation code equivalent to <code>-scaledRotation</code>.
+ ********************************************************************/
+public static final int SCALED_ROTATION = turboRegDialog.SCALED_ROTATION;
+
+/*********************************************************************
+ Transformation code equivalent to <code>-affine</code>.
+ ********************************************************************/
+public static final int AFFINE = turboRegDialog.AFFINE;
+
+/*********************************************************************
+ Transformation code equivalent to <code>-bilinear</code>.
+ ********************************************************************/
+public static final int BILINEAR = turboRegDialog.BILINEAR;
+
 /*....................................................................
 	Private variables
 ....................................................................*/
@@ -131,10 +161,91 @@
 	new double[turboRegPointHandler.NUM_POINTS][2];
 private ImagePlus transformedImage = null;
 
+/*********************************************************************
+ Preprocessed data kept between calls to the in-memory methods, keyed
+ by the identity of the pixel arrays: the B-spline coefficients of the
+ last source image, the pyramids of the last target image, and the
+ mask in which every pixel is set.
+ ********************************************************************/
+private float[] coefficientImage = null;
+private float[] coefficient = null;
+private turboRegImage targetImg = null;
+private turboRegMask mask = null;
+
 /*....................................................................
 	Public methods
 ....................................................................*/
 
+/*********************************************************************
+ Refines the landmarks of <code>source</code> so that it matches
+ <code>target</code>, without going through image files or windows.
+ Both images are given as <code>float</code> arrays of the same size
+ and are not modified. The arguments have the same meaning as those of
+ the <code>-align</code> command, without cropping. In contrast to
+ <code>-align</code>, no transformed image is computed.
+ <br>
+ <br>
+ One <code>TurboReg_</code> object keeps the image pyramids of the last
+ pair of images. When a series of images is registered by calling this
+ method with the same target array, or with the target array being the
+ source array of the previous call, the preprocessing of that array is
+ not repeated; the arrays must therefore not be modified between calls.
+ A <code>TurboReg_</code> object must not be used by several threads at
+ once; use one object per thread instead.
+ @param source Source image samples.
+ @param target Target image samples.
+ @param width Width of both images.
+ @param height Height of both images.
+ @param transformation One of <code>TRANSLATION</code>,
+ <code>RIGID_BODY</code>, <code>SCALED_ROTATION</code>,
+ <code>AFFINE</code>, or <code>BILINEAR</code>.
+ @param sourcePoints Initial source landmarks, as for <code>-align</code>.
+ @param targetPoints Target landmarks, as for <code>-align</code>.
+ @return The refined source landmarks, also available from
+ <code>getSourcePoints</code>.
+ @see TurboReg_#run
+ ********************************************************************/
+public double[][] alignImages (
+	final float[] source,
+	final float[] target,
+	final int width,
+	final int height,
+	final int transformation,
+	final double[][] sourcePoints,
+	final double[][] targetPoints
+) {
+	final int pyramidDepth = getPyramidDepth(width, height, width, height);
+	final turboRegImage sourceImg = new turboRegImage(source,
+		(source == coefficientImage) ? (coefficient) : (null),
+		width, height, transformation, false);
+	sourceImg.setPyramidDepth(pyramidDepth);
+	sourceImg.run();
+	if ((targetImg == null) || (targetImg.getImage() != target)
+		|| (targetImg.getTransformation() != transformation)
+		|| (targetImg.getWidth() != width) || (targetImg.getHeight() != height)) {
+		targetImg = new turboRegImage(target,
+			(target == coefficientImage) ? (coefficient) : (null),
+			width, height, transformation, true);
+		targetImg.setPyramidDepth(pyramidDepth);
+		targetImg.run();
+	}
+	coefficientImage = source;
+	coefficient = sourceImg.getCoefficient();
+	final turboRegMask targetMsk = getMask(width, height, pyramidDepth);
+	this.sourcePoints = copyPoints(sourcePoints);
+	this.targetPoints = copyPoints(targetPoints);
+	final turboRegPointHandler sourcePh = new turboRegPointHandler(
+		this.sourcePoints, transformation);
+	final turboRegPointHandler targetPh = new turboRegPointHandler(
+		this.targetPoints, transformation);
+	final turboRegTransform tt = new turboRegTransform(sourceImg, null, sourcePh,
+		targetImg, targetMsk, targetPh, transformation, false, false);
+	tt.doRegistration();
+	this.sourcePoints = sourcePh.getPoints();
+	this.targetPoints = targetPh.getPoints();
+	return(this.sourcePoints);
+} /* end alignImages */
+
 /*********************************************************************
  Accessor method for the <code>(double[][])sourcePoints</code> variable.
  This variable is valid only after a call to <code>run</code> with the
@@ -855,6 +966,57 @@ else if (token[1].equals("-window")) {
 	}
 } /* end run */
 
+/*********************************************************************
+ Applies the transformation given by the landmarks to
+ <code>source</code>, without going through image files or windows.
+ The arguments have the same meaning as those of the
+ <code>-transform</code> command. If <code>source</code> is the source
+ array of the last call to <code>alignImages</code>, its B-spline
+ coefficients are not computed again.
+ @param source Source image samples; not modified.
+ @param width Width of the source image.
+ @param height Height of the source image.
+ @param outputWidth Width of the transformed image.
+ @param outputHeight Height of the transformed image.
+ @param transformation One of <code>TRANSLATION</code>,
+ <code>RIGID_BODY</code>, <code>SCALED_ROTATION</code>,
+ <code>AFFINE</code>, or <code>BILINEAR</code>.
+ @param sourcePoints Source landmarks, as for <code>-transform</code>.
+ @param targetPoints Target landmarks, as for <code>-transform</code>.
+ @return The samples of the transformed image.
+ @see TurboReg_#alignImages(float[], float[], int, int, int, double[][], double[][])
+ ********************************************************************/
+public float[] transformImage (
+	final float[] source,
+	final int width,
+	final int height,
+	final int outputWidth,
+	final int outputHeight,
+	final int transformation,
+	final double[][] sourcePoints,
+	final double[][] targetPoints
+) {
+	final turboRegImage sourceImg = new turboRegImage(source,
+		(source == coefficientImage) ? (coefficient) : (null),
+		width, height, turboRegDialog.GENERIC_TRANSFORMATION, false);
+	sourceImg.run();
+	coefficientImage = source;
+	coefficient = sourceImg.getCoefficient();
+	final turboRegPointHandler sourcePh = new turboRegPointHandler(
+		copyPoints(sourcePoints), transformation);
+	final turboRegPointHandler targetPh = new turboRegPointHandler(
+		copyPoints(targetPoints), transformation);
+	final turboRegMask sourceMsk = ((mask != null)
+		&& (mask.getWidth() == width) && (mask.getHeight() == height))
+		? (mask) : (getMask(width, height, 1));
+	final turboRegTransform regTransform = new turboRegTransform(
+		sourceImg, sourceMsk, sourcePh,
+		null, null, targetPh, transformation, false, false);
+	final ImagePlus transformedImage = regTransform.doFinalTransform(
+		outputWidth, outputHeight);
+	return((float[])transformedImage.getStack().getPixels(1));
+} /* end transformImage */
+
 /*....................................................................
 	Private methods
 ....................................................................*/
@@ -1059,6 +1221,18 @@ private ImagePlus alignImages (
 		transformation, interactive));
 } /* end alignImages */
 
+/*------------------------------------------------------------------*/
+private double[][] copyPoints (
+	final double[][] points
+) {
+	final double[][] copy = new double[turboRegPointHandler.NUM_POINTS][2];
+	for (int k = 0; ((k < points.length) && (k < copy.length)); k++) {
+		copy[k][0] = points[k][0];
+		copy[k][1] = points[k][1];
+	}
+	return(copy);
+} /* end copyPoints */
+
 /*------------------------------------------------------------------*/
 private ImagePlus[] createAdmissibleImageList (
 ) {
@@ -1153,6 +1327,22 @@ else if (token.equals("-showOutput")) {
 	}
 } /* end getInteractive */
 
+/*------------------------------------------------------------------*/
+private turboRegMask getMask (
+	final int width,
+	final int height,
+	final int pyramidDepth
+) {
+	if ((mask == null) || (mask.getWidth() != width)
+		|| (mask.getHeight() != height)
+		|| (mask.getPyramidDepth() != pyramidDepth)) {
+		mask = new turboRegMask(width, height);
+		mask.setPyramidDepth(pyramidDepth);
+		mask.run();
+	}
+	return(mask);
+} /* end getMask */
+
 /*------------------------------------------------------------------*/
 private int getPyramidDepth (
 	int sw,
@@ -3374,6 +3564,14 @@ public Thread getThread (
 	return(t);
 } /* end getThread */
 
+/*********************************************************************
+ Return the transformation code.
+ ********************************************************************/
+public int getTransformation (
+) {
+	return(transformation);
+} /* end getTransformation */
+
 /*********************************************************************
  Return the full-size image width.
  ********************************************************************/
@@ -3407,7 +3605,9 @@ public float[] getYGradient (
  ********************************************************************/
 public void run (
 ) {
-	coefficient = getBasicFromCardinal2D();
+	if (coefficient == null) {
+		coefficient = getBasicFromCardinal2D();
+	}
 	switch (transformation) {
 		case turboRegDialog.GENERIC_TRANSFORMATION: {
 			break;
@@ -3507,6 +3707,34 @@ else if (imp.getType() == ImagePlus.GRAY32) {
 	turboRegProgressBar.workloadDone(height);
 } /* end turboRegImage */
 
+/*********************************************************************
+ Uses a <code>float</code> array as image, without copying it.
+ @param image Image samples, not modified.
+ @param coefficient B-spline coefficients of the image if they are
+ already known, or <code>null</code> to compute them.
+ @param width Image width.
+ @param height Image height.
+ @param transformation Transformation code.
+ @param isTarget Tags the current object as a target or source image.
+ ********************************************************************/
+public turboRegImage (
+	final float[] image,
+	final float[] coefficient,
+	final int width,
+	final int height,
+	final int transformation,
+	final boolean isTarget
+) {
+	t = new Thread(this);
+	t.setDaemon(true);
+	this.image = image;
+	this.coefficient = coefficient;
+	this.width = width;
+	this.height = height;
+	this.transformation = transformation;
+	this.isTarget = isTarget;
+} /* end turboRegImage */
+
 /*....................................................................
 	Private methods
 ....................................................................*/
@@ -4187,6 +4415,14 @@ public void clearMask (
 	turboRegProgressBar.workloadDone(height);
 } /* end clearMask */
 
+/*********************************************************************
+ Return the full-size mask height.
+ ********************************************************************/
+public int getHeight (
+) {
+	return(height);
+} /* end getHeight */
+
 /*********************************************************************
  Return the full-size mask array.
  ********************************************************************/
@@ -4217,6 +4453,14 @@ public Stack<float[]> getPyramid (
 	return(pyramid);
 } /* end getPyramid */
 
+/*********************************************************************
+ Return the depth of the mask pyramid.
+ ********************************************************************/
+public int getPyramidDepth (
+) {
+	return(pyramidDepth);
+} /* end getPyramidDepth */
+
 /*********************************************************************
  Return the thread associated with this <code>turboRegMask</code>
  object.
@@ -4226,6 +4470,14 @@ public Thread getThread (
 	return(t);
 } /* end getThread */
 
+/*********************************************************************
+ Return the full-size mask width.
+ ********************************************************************/
+public int getWidth (
+) {
+	return(width);
+} /* end getWidth */
+
 /*********************************************************************
  Start the mask precomputations, which are interruptible.
  ********************************************************************/
@@ -4289,6 +4541,23 @@ else if (imp.getType() == ImagePlus.GRAY32) {
 	turboRegProgressBar.workloadDone(height);
 } /* end turboRegMask */
 
+/*********************************************************************
+ Creates a mask of the given size in which every pixel is set.
+ @param width Mask width.
+ @param height Mask height.
+ ********************************************************************/
+public turboRegMask (
+	final int width,
+	final int height
+) {
+	t = new Thread(this);
+	t.setDaemon(true);
+	this.width = width;
+	this.height = height;
+	mask = new float[width * height];
+	clearMask();
+} /* end turboRegMask */
+
 /*....................................................................
 	Private methods
 ....................................................................*/
@@ -5298,6 +5567,10 @@ public turboRegPointHandler (
 	super(0, 0, 0, 0, null);
 	this.transformation = transformation;
 	this.precisionPoint = precisionPoint;
+	for (int k = 0; (k < NUM_POINTS); k++) {
+		point[k] = new Point((int)Math.round(precisionPoint[k][0]),
+			(int)Math.round(precisionPoint[k][1]));
+	}
 	interactive = false;
 } /* end turboRegPointHandler */
 
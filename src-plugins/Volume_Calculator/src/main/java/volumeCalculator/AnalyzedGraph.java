@@ -148,6 +148,8 @@ void init(ImagePlus imagePlus) {
 
         analyzeSkeleton = new AnalyzeSkeleton_();
         analyzeSkeleton.setup("none", imagePlus);
+        // The scene is drawn through the slab voxels of each edge.
+        analyzeSkeleton.setKeepSlabs(true);
         // There are two run()'s in analyze skeleton; We use the non-UI one.
         skeletonResult =
                 analyzeSkeleton.run(
@@ -0,0 +1,338 @@
+package fiji;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cheap counters and timers for production runs.
+ *
+ * <p>
+ * Plugins register named counters and timers once, and then update them with
+ * a single atomic operation each, so they can stay enabled in long-running
+ * (e.g. headless batch) jobs. Together with the {@link SamplingProfiler} this
+ * complements the {@link PerformanceProfiler}, whose instrumentation is too
+ * expensive for that purpose.
+ * </p>
+ *
+ * <p>
+ * Example:
+ * </p>
+ *
+ * <pre>
+ * private static final PerformanceCounters.Timer filterTimer = PerformanceCounters.timer("filter");
+ * ...
+ * final long start = filterTimer.start();
+ * try {
+ *     ...
+ * } finally {
+ *     filterTimer.stop(start);
+ * }
+ * </pre>
+ *
+ * <p>
+ * With {@link #startExport(File, long)}, snapshots of all counters and timers
+ * are appended periodically to a file, as CSV or, if the file name ends in
+ * <i>.json</i>, as one JSON object per line. The export can also be started
+ * by setting the environment variable PERFORMANCE_COUNTERS_OUTPUT to the file
+ * name (and optionally PERFORMANCE_COUNTERS_INTERVAL to the interval in
+ * milliseconds) before the first counter or timer is registered.
+ * </p>
+ */
+public class PerformanceCounters {
+	private static final Map<String, Counter> counters = new TreeMap<String, Counter>();
+	private static final Map<String, Timer> timers = new TreeMap<String, Timer>();
+	private static Thread exporter;
+	private static boolean shutdownHookInstalled;
+
+	static {
+		final String output = System.getenv("PERFORMANCE_COUNTERS_OUTPUT");
+		if (output != null && !output.equals("")) {
+			final String interval = System.getenv("PERFORMANCE_COUNTERS_INTERVAL");
+			startExport(new File(output), interval == null ? 60000 : Long.parseLong(interval));
+		}
+	}
+
+	/**
+	 * A counter, e.g. for the number of processed images.
+	 */
+	public static class Counter {
+		private final String name;
+		private final AtomicLong value = new AtomicLong();
+
+		private Counter(final String name) {
+			this.name = name;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public void increment() {
+			value.incrementAndGet();
+		}
+
+		public void add(final long delta) {
+			value.addAndGet(delta);
+		}
+
+		public long get() {
+			return value.get();
+		}
+	}
+
+	/**
+	 * A timer, recording the number of calls and the total and maximal
+	 * duration.
+	 */
+	public static class Timer {
+		private final String name;
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong total = new AtomicLong();
+		private final AtomicLong max = new AtomicLong();
+
+		private Timer(final String name) {
+			this.name = name;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Starts a measurement.
+		 *
+		 * @return the value to pass to {@link #stop(long)}
+		 */
+		public long start() {
+			return System.nanoTime();
+		}
+
+		/**
+		 * Ends a measurement.
+		 *
+		 * @param start the value returned by {@link #start()}
+		 */
+		public void stop(final long start) {
+			record(System.nanoTime() - start);
+		}
+
+		/**
+		 * Records a duration measured by the caller.
+		 *
+		 * @param nanos the duration
+		 */
+		public void record(final long nanos) {
+			count.incrementAndGet();
+			total.addAndGet(nanos);
+			for (;;) {
+				final long current = max.get();
+				if (nanos <= current || max.compareAndSet(current, nanos)) break;
+			}
+		}
+
+		public long getCount() {
+			return count.get();
+		}
+
+		public long getTotalNanos() {
+			return total.get();
+		}
+
+		public long getMaxNanos() {
+			return max.get();
+		}
+	}
+
+	// public methods
+
+	/**
+	 * Gets the counter of the given name, registering it if necessary.
+	 *
+	 * @param name the name
+	 * @return the counter
+	 */
+	public static Counter counter(final String name) {
+		synchronized (counters) {
+			Counter counter = counters.get(name);
+			if (counter == null) {
+				counter = new Counter(name);
+				counters.put(name, counter);
+			}
+			return counter;
+		}
+	}
+
+	/**
+	 * Gets the timer of the given name, registering it if necessary.
+	 *
+	 * @param name the name
+	 * @return the timer
+	 */
+	public static Timer timer(final String name) {
+		synchronized (timers) {
+			Timer timer = timers.get(name);
+			if (timer == null) {
+				timer = new Timer(name);
+				timers.put(name, timer);
+			}
+			return timer;
+		}
+	}
+
+	/**
+	 * Starts appending snapshots to a file in a daemon thread.
+	 *
+	 * A previously started export is stopped first. A last snapshot is written
+	 * when the export is stopped, or when the JVM shuts down.
+	 *
+	 * @param file the file to append to (JSON if the name ends in .json, CSV otherwise)
+	 * @param intervalMillis the time between two snapshots
+	 */
+	public static synchronized void startExport(final File file, final long intervalMillis) {
+		stopExport();
+		final boolean json = file.getName().toLowerCase().endsWith(".json");
+		exporter = new Thread("Performance counters export") {
+			@Override
+			public void run() {
+				try {
+					for (;;) {
+						Thread.sleep(Math.max(1, intervalMillis));
+						export(file, json);
+					}
+				} catch (InterruptedException e) {
+					export(file, json);
+				}
+			}
+		};
+		exporter.setDaemon(true);
+		exporter.start();
+		if (!shutdownHookInstalled) {
+			shutdownHookInstalled = true;
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				@Override
+				public void run() {
+					stopExport();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Stops the periodic export, writing a last snapshot.
+	 */
+	public static synchronized void stopExport() {
+		if (exporter == null) return;
+		exporter.interrupt();
+		try {
+			exporter.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		exporter = null;
+	}
+
+	/**
+	 * Writes a snapshot of all counters and timers as CSV.
+	 *
+	 * @param writer where to write to
+	 * @param header whether to write the column names first
+	 */
+	public static void reportCSV(final PrintStream writer, final boolean header) {
+		final long timestamp = System.currentTimeMillis();
+		if (header) writer.println("timestamp,type,name,count,total_ns,max_ns");
+		for (final Counter counter : getCounters()) {
+			writer.println(timestamp + ",counter," + quoteCSV(counter.name) + "," + counter.get() + ",,");
+		}
+		for (final Timer timer : getTimers()) {
+			writer.println(timestamp + ",timer," + quoteCSV(timer.name) + "," + timer.getCount()
+					+ "," + timer.getTotalNanos() + "," + timer.getMaxNanos());
+		}
+		writer.flush();
+	}
+
+	/**
+	 * Writes a snapshot of all counters and timers as one line of JSON.
+	 *
+	 * @param writer where to write to
+	 */
+	public static void reportJSON(final PrintStream writer) {
+		final StringBuilder builder = new StringBuilder();
+		builder.append("{\"timestamp\":").append(System.currentTimeMillis());
+		builder.append(",\"counters\":{");
+		String separator = "";
+		for (final Counter counter : getCounters()) {
+			builder.append(separator).append(quoteJSON(counter.name)).append(':').append(counter.get());
+			separator = ",";
+		}
+		builder.append("},\"timers\":{");
+		separator = "";
+		for (final Timer timer : getTimers()) {
+			builder.append(separator).append(quoteJSON(timer.name))
+				.append(":{\"count\":").append(timer.getCount())
+				.append(",\"total_ns\":").append(timer.getTotalNanos())
+				.append(",\"max_ns\":").append(timer.getMaxNanos()).append('}');
+			separator = ",";
+		}
+		builder.append("}}");
+		writer.println(builder);
+		writer.flush();
+	}
+
+	// private methods
+
+	private static List<Counter> getCounters() {
+		synchronized (counters) {
+			return new ArrayList<Counter>(counters.values());
+		}
+	}
+
+	private static List<Timer> getTimers() {
+		synchronized (timers) {
+			return new ArrayList<Timer>(timers.values());
+		}
+	}
+
+	private static void export(final File file, final boolean json) {
+		try {
+			final boolean header = !file.exists() || file.length() == 0;
+			final PrintStream stream = new PrintStream(new FileOutputStream(file, true));
+			try {
+				if (json) reportJSON(stream);
+				else reportCSV(stream, header);
+			} finally {
+				stream.close();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private static String quoteCSV(final String value) {
+		if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) return value;
+		return "\"" + value.replace("\"", "\"\"") + "\"";
+	}
+
+	private static String quoteJSON(final String value) {
+		final StringBuilder builder = new StringBuilder("\"");
+		for (final char c : value.toCharArray()) {
+			switch (c) {
+			case '"': builder.append("\\\""); break;
+			case '\\': builder.append("\\\\"); break;
+			case '\n': builder.append("\\n"); break;
+			case '\r': builder.append("\\r"); break;
+			case '\t': builder.append("\\t"); break;
+			default:
+				if (c < 0x20) builder.append(String.format("\\u%04x", (int)c));
+				else builder.append(c);
+			}
+		}
+		return builder.append('"').toString();
+	}
+}
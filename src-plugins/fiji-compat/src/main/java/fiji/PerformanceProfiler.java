@@ -98,6 +98,12 @@
  * </ul>
  * 
  * <p>
+ * The instrumentation adds considerable overhead to every method call. To
+ * profile production runs, use the {@link SamplingProfiler} and the
+ * {@link PerformanceCounters} instead.
+ * </p>
+ * 
+ * <p>
  * The idea behind the profiler is that a Javassist-specific class
  * {@link Loader} with a {@link Translator} is used to load the main class and
  * all its dependent classes. The translator instruments every method such that
@@ -0,0 +1,316 @@
+package fiji;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A sampling profiler.
+ *
+ * <p>
+ * In contrast to the {@link PerformanceProfiler}, this class does not
+ * instrument any code: a background thread periodically takes the stack
+ * traces of all threads and counts how often each distinct stack was seen.
+ * The overhead therefore only depends on the sampling interval and the
+ * number of threads, not on the code being profiled, which makes it suitable
+ * for long-running (e.g. headless batch) jobs.
+ * </p>
+ *
+ * Use it in one of the following ways:
+ * <ul>
+ * <li>
+ * <p>
+ * call {@link #start()} and {@link #stop()} around the code to profile, and
+ * write the result with {@link #report(PrintStream)} or
+ * {@link #report(File)}.
+ * </p>
+ * <li>Call SamplingProfiler as main class, passing as parameter the name of
+ * the main class to profile and optionally any parameters you want to pass to
+ * that main class. The result is written to the file specified by the
+ * environment variable SAMPLING_PROFILE_OUTPUT, or to stderr. The sampling
+ * interval in milliseconds can be set with SAMPLING_PROFILE_INTERVAL.
+ * </ul>
+ *
+ * <p>
+ * The report is in the "collapsed stack" format: one line per distinct stack,
+ * the frames from the outermost to the innermost separated by semicolons,
+ * followed by a space and the number of samples. This is the input format of
+ * the common flame graph tools.
+ * </p>
+ */
+public class SamplingProfiler {
+	private final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+	private final Map<String, long[]> stacks = new HashMap<String, long[]>();
+	private final long intervalMillis;
+	private final int maxDepth;
+	private boolean onlyRunnable = true;
+	private boolean includeThreadNames = false;
+	private long samples;
+	private long sampledNanos;
+	private Thread thread;
+	private volatile boolean active;
+
+	/**
+	 * The constructor.
+	 *
+	 * @param intervalMillis the time between two samples
+	 * @param maxDepth the maximal number of frames per stack trace
+	 */
+	public SamplingProfiler(final long intervalMillis, final int maxDepth) {
+		this.intervalMillis = Math.max(1, intervalMillis);
+		this.maxDepth = maxDepth;
+	}
+
+	/**
+	 * Creates a profiler sampling every 20 milliseconds, with up to 128 frames
+	 * per stack.
+	 */
+	public SamplingProfiler() {
+		this(20, 128);
+	}
+
+	// public methods
+
+	/**
+	 * Whether to count only threads that are running (the default), or also
+	 * waiting and blocked ones.
+	 *
+	 * @param onlyRunnable true to ignore threads that are not runnable
+	 */
+	public void setOnlyRunnable(final boolean onlyRunnable) {
+		this.onlyRunnable = onlyRunnable;
+	}
+
+	/**
+	 * Whether to add the thread name as outermost frame of each stack.
+	 *
+	 * @param includeThreadNames true to separate the stacks by thread
+	 */
+	public void setIncludeThreadNames(final boolean includeThreadNames) {
+		this.includeThreadNames = includeThreadNames;
+	}
+
+	/**
+	 * Starts sampling in a daemon thread.
+	 */
+	public synchronized void start() {
+		if (active) return;
+		active = true;
+		thread = new Thread("Sampling profiler") {
+			@Override
+			public void run() {
+				final long id = Thread.currentThread().getId();
+				while (active) {
+					sample(id);
+					try {
+						Thread.sleep(intervalMillis);
+					} catch (InterruptedException e) {
+						break;
+					}
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.setPriority(Thread.NORM_PRIORITY);
+		thread.start();
+	}
+
+	/**
+	 * Stops sampling, waiting for the sampling thread to finish.
+	 */
+	public void stop() {
+		final Thread thread;
+		synchronized (this) {
+			if (!active) return;
+			active = false;
+			thread = this.thread;
+			this.thread = null;
+		}
+		thread.interrupt();
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Reports whether sampling is in progress
+	 *
+	 * @return whether we're profilin'
+	 */
+	public boolean isActive() {
+		return active;
+	}
+
+	/**
+	 * Gets the number of samples taken so far.
+	 *
+	 * @return the number of samples
+	 */
+	public synchronized long getSampleCount() {
+		return samples;
+	}
+
+	/**
+	 * Gets the time spent taking samples, to estimate the overhead.
+	 *
+	 * @return nanoseconds
+	 */
+	public synchronized long getSamplingNanos() {
+		return sampledNanos;
+	}
+
+	/**
+	 * Forgets all samples taken so far.
+	 */
+	public synchronized void reset() {
+		stacks.clear();
+		samples = 0;
+		sampledNanos = 0;
+	}
+
+	// reporting
+
+	/**
+	 * Writes the collapsed stacks to a file.
+	 *
+	 * @param file where to write to
+	 * @throws FileNotFoundException
+	 */
+	public void report(final File file) throws FileNotFoundException {
+		final PrintStream stream = new PrintStream(new FileOutputStream(file));
+		report(stream);
+		stream.close();
+	}
+
+	/**
+	 * Writes the collapsed stacks, most frequent first.
+	 *
+	 * @param writer where to write to
+	 */
+	public void report(final PrintStream writer) {
+		// the sampler keeps incrementing the counts: sort a copy taken under the lock
+		final List<Map.Entry<String, Long>> entries = new ArrayList<Map.Entry<String, Long>>(getCounts().entrySet());
+		Collections.sort(entries, new Comparator<Map.Entry<String, Long>>() {
+			@Override
+			public int compare(Map.Entry<String, Long> a, Map.Entry<String, Long> b) {
+				final long ca = a.getValue(), cb = b.getValue();
+				return ca > cb ? -1 : (ca < cb ? 1 : a.getKey().compareTo(b.getKey()));
+			}
+		});
+		for (final Map.Entry<String, Long> entry : entries) {
+			writer.println(entry.getKey() + " " + entry.getValue());
+		}
+		writer.flush();
+	}
+
+	/**
+	 * Gets the number of samples per collapsed stack.
+	 *
+	 * @return a copy of the counts
+	 */
+	public synchronized Map<String, Long> getCounts() {
+		final Map<String, Long> result = new HashMap<String, Long>();
+		for (final Map.Entry<String, long[]> entry : stacks.entrySet()) {
+			result.put(entry.getKey(), entry.getValue()[0]);
+		}
+		return result;
+	}
+
+	/**
+	 * The main method.
+	 *
+	 * Use the class as a main class to start profiling any other main class
+	 * contained in the class path.
+	 *
+	 * @param args the main class to profile, followed by the arguments to pass to the main method
+	 * @throws Throwable
+	 */
+	public static void main(final String... args) throws Throwable {
+		if (args.length == 0) {
+			System.err.println("Usage: java " + SamplingProfiler.class + " <main-class> [<argument>...]");
+			System.exit(1);
+		}
+
+		String mainClass = args[0];
+		String[] mainArgs = new String[args.length - 1];
+		System.arraycopy(args, 1, mainArgs, 0, mainArgs.length);
+
+		final String interval = System.getenv("SAMPLING_PROFILE_INTERVAL");
+		final SamplingProfiler profiler = interval == null ?
+			new SamplingProfiler() : new SamplingProfiler(Long.parseLong(interval), 128);
+		final String output = System.getenv("SAMPLING_PROFILE_OUTPUT");
+
+		final Method main = Thread.currentThread().getContextClassLoader()
+				.loadClass(mainClass).getMethod("main", String[].class);
+		profiler.start();
+		try {
+			main.invoke(null, (Object)mainArgs);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		} finally {
+			profiler.stop();
+			if (output == null) {
+				profiler.report(System.err);
+			} else {
+				profiler.report(new File(output));
+			}
+			System.err.println("Sampling profiler: " + profiler.getSampleCount()
+					+ " samples, " + (profiler.getSamplingNanos() / 1000000) + "ms spent sampling");
+		}
+	}
+
+	// private methods
+
+	/**
+	 * Takes one sample of all threads but the sampling thread.
+	 *
+	 * @param self the ID of the sampling thread
+	 */
+	private void sample(final long self) {
+		final long start = System.nanoTime();
+		final ThreadInfo[] infos = bean.getThreadInfo(bean.getAllThreadIds(), maxDepth);
+		final StringBuilder builder = new StringBuilder();
+		final List<String> keys = new ArrayList<String>(infos.length);
+		for (final ThreadInfo info : infos) {
+			if (info == null || info.getThreadId() == self) continue;
+			if (onlyRunnable && info.getThreadState() != Thread.State.RUNNABLE) continue;
+			final StackTraceElement[] trace = info.getStackTrace();
+			if (trace.length == 0) continue;
+			builder.setLength(0);
+			if (includeThreadNames) {
+				builder.append(info.getThreadName().replace(';', '_').replace(' ', '_'));
+			}
+			for (int i = trace.length - 1; i >= 0; i--) {
+				if (builder.length() > 0) builder.append(';');
+				builder.append(trace[i].getClassName()).append('.').append(trace[i].getMethodName());
+			}
+			keys.add(builder.toString());
+		}
+		synchronized (this) {
+			for (final String key : keys) {
+				final long[] count = stacks.get(key);
+				if (count == null) {
+					stacks.put(key, new long[] { 1 });
+				} else {
+					count[0]++;
+				}
+			}
+			samples++;
+			sampledNanos += System.nanoTime() - start;
+		}
+	}
+}
@@ -0,0 +1,169 @@
+package fiji;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests the aggregation and the export of the {@link PerformanceCounters}.
+ * <p>
+ * The counters and timers are global, so every test uses its own names.
+ * </p>
+ */
+public class PerformanceCountersTest {
+
+	@Test
+	public void testCounter() throws InterruptedException {
+		final PerformanceCounters.Counter counter = PerformanceCounters.counter("test.counter");
+		assertSame(counter, PerformanceCounters.counter("test.counter"));
+		assertEquals("test.counter", counter.getName());
+
+		final Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					for (int j = 0; j < 1000; j++) {
+						counter.increment();
+					}
+					counter.add(10);
+				}
+			};
+			threads[i].start();
+		}
+		for (final Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(threads.length * 1010, counter.get());
+	}
+
+	@Test
+	public void testTimer() {
+		final PerformanceCounters.Timer timer = PerformanceCounters.timer("test.timer");
+		assertSame(timer, PerformanceCounters.timer("test.timer"));
+
+		timer.record(5);
+		timer.record(20);
+		timer.record(10);
+		assertEquals(3, timer.getCount());
+		assertEquals(35, timer.getTotalNanos());
+		assertEquals(20, timer.getMaxNanos());
+
+		final long start = timer.start();
+		timer.stop(start);
+		assertEquals(4, timer.getCount());
+		assertTrue(timer.getTotalNanos() >= 35);
+	}
+
+	@Test
+	public void testCSV() {
+		PerformanceCounters.counter("test.csv").add(7);
+		final PerformanceCounters.Timer timer = PerformanceCounters.timer("test,\"csv\" timer");
+		timer.record(3);
+		timer.record(4);
+
+		final List<String> lines = lines(csv(true));
+		assertEquals("timestamp,type,name,count,total_ns,max_ns", lines.get(0));
+		assertTrue(contains(lines, ",counter,test.csv,7,,"));
+		assertTrue(contains(lines, ",timer,\"test,\"\"csv\"\" timer\",2,7,4"));
+
+		assertTrue(!csv(false).startsWith("timestamp,"));
+	}
+
+	@Test
+	public void testJSON() {
+		PerformanceCounters.counter("test.json").add(9);
+		final PerformanceCounters.Timer timer = PerformanceCounters.timer("test \"json\"\ttimer");
+		timer.record(2);
+
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		PerformanceCounters.reportJSON(new PrintStream(out));
+		final List<String> lines = lines(out.toString());
+		assertEquals(1, lines.size());
+		final String json = lines.get(0);
+		assertTrue(json.startsWith("{\"timestamp\":"));
+		assertTrue(json.endsWith("}}"));
+		assertTrue(json.contains("\"test.json\":9"));
+		assertTrue(json.contains("\"test \\\"json\\\"\\ttimer\":{\"count\":1,\"total_ns\":2,\"max_ns\":2}"));
+	}
+
+	@Test
+	public void testExport() throws IOException {
+		PerformanceCounters.counter("test.export").add(3);
+
+		final File csv = File.createTempFile("counters", ".csv");
+		final File json = File.createTempFile("counters", ".json");
+		try {
+			// a long interval: the only snapshot is the one written when stopping
+			PerformanceCounters.startExport(csv, 3600000);
+			PerformanceCounters.stopExport();
+			PerformanceCounters.startExport(csv, 3600000);
+			PerformanceCounters.startExport(json, 3600000);
+			PerformanceCounters.stopExport();
+
+			final List<String> csvLines = read(csv);
+			assertEquals("timestamp,type,name,count,total_ns,max_ns", csvLines.get(0));
+			int headers = 0, exports = 0;
+			for (final String line : csvLines) {
+				if (line.startsWith("timestamp,")) headers++;
+				if (line.endsWith(",counter,test.export,3,,")) exports++;
+			}
+			assertEquals(1, headers);
+			assertEquals(2, exports);
+
+			final List<String> jsonLines = read(json);
+			assertEquals(1, jsonLines.size());
+			assertTrue(jsonLines.get(0).contains("\"test.export\":3"));
+		} finally {
+			csv.delete();
+			json.delete();
+		}
+	}
+
+	private static String csv(final boolean header) {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		PerformanceCounters.reportCSV(new PrintStream(out), header);
+		return out.toString();
+	}
+
+	private static List<String> lines(final String text) {
+		final List<String> result = new ArrayList<String>();
+		for (final String line : text.split("\r?\n")) {
+			if (!line.equals("")) result.add(line);
+		}
+		return result;
+	}
+
+	private static boolean contains(final List<String> lines, final String suffix) {
+		for (final String line : lines) {
+			if (line.endsWith(suffix)) return true;
+		}
+		return false;
+	}
+
+	private static List<String> read(final File file) throws IOException {
+		final List<String> result = new ArrayList<String>();
+		final BufferedReader reader = new BufferedReader(new FileReader(file));
+		try {
+			for (;;) {
+				final String line = reader.readLine();
+				if (line == null) break;
+				result.add(line);
+			}
+		} finally {
+			reader.close();
+		}
+		return result;
+	}
+}
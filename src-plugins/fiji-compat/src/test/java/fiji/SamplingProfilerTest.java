@@ -0,0 +1,88 @@
+package fiji;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests the collapsed stacks of the {@link SamplingProfiler}.
+ */
+public class SamplingProfilerTest {
+	private static volatile boolean spinning;
+	private static volatile long sink;
+
+	@Test
+	public void testCollapsedStacks() throws InterruptedException {
+		final SamplingProfiler profiler = new SamplingProfiler(1, 128);
+		profiler.setIncludeThreadNames(true);
+
+		final Thread busy = new Thread("busy spinner") {
+			@Override
+			public void run() {
+				spin();
+			}
+		};
+		spinning = true;
+		busy.start();
+		profiler.start();
+		assertTrue(profiler.isActive());
+		try {
+			final long end = System.currentTimeMillis() + 10000;
+			while (profiler.getSampleCount() < 20 && System.currentTimeMillis() < end) {
+				Thread.sleep(10);
+			}
+		} finally {
+			profiler.stop();
+			spinning = false;
+			busy.join();
+		}
+		assertFalse(profiler.isActive());
+		assertTrue(profiler.getSampleCount() >= 20);
+
+		// the busy thread, from the thread name to the innermost frame
+		final String spinner = "busy_spinner;" + SamplingProfilerTest.class.getName() + "$1.run;"
+			+ SamplingProfilerTest.class.getName() + ".spin";
+		long spinnerSamples = 0;
+		long total = 0;
+		final Map<String, Long> counts = profiler.getCounts();
+		for (final Map.Entry<String, Long> entry : counts.entrySet()) {
+			if (entry.getKey().equals(spinner)) spinnerSamples = entry.getValue();
+			assertFalse(entry.getKey().contains(" "));
+			total += entry.getValue();
+		}
+		assertTrue(spinnerSamples > 0);
+		assertTrue(total >= spinnerSamples);
+
+		// one "<stack> <count>" line per stack, most frequent first
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		profiler.report(new PrintStream(out));
+		final String[] lines = out.toString().split("\r?\n");
+		assertEquals(counts.size(), lines.length);
+		long previous = Long.MAX_VALUE;
+		for (final String line : lines) {
+			final int space = line.lastIndexOf(' ');
+			final long count = Long.parseLong(line.substring(space + 1));
+			assertEquals(counts.get(line.substring(0, space)).longValue(), count);
+			assertTrue(count <= previous);
+			previous = count;
+		}
+
+		profiler.reset();
+		assertEquals(0, profiler.getSampleCount());
+		assertTrue(profiler.getCounts().isEmpty());
+	}
+
+	private static void spin() {
+		long value = 0;
+		while (spinning) {
+			value++;
+		}
+		sink = value;
+	}
+}
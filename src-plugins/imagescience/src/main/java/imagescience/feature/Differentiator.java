@@ -9,6 +9,7 @@
 import imagescience.utility.FMath;
 import imagescience.utility.ImageScience;
 import imagescience.utility.Messenger;
+import imagescience.utility.Parallelizer;
 import imagescience.utility.Progressor;
 import imagescience.utility.Timer;
 
@@ -62,7 +63,7 @@ public Image run(final Image image, final double scale, final int xorder, final
 		progressor.steps(
 			(dims.x > 1 ? dims.c*dims.t*dims.z*dims.y : 0) +
 			(dims.y > 1 ? dims.c*dims.t*dims.z*dims.x : 0) +
-			(dims.z > 1 ? dims.c*dims.t*dims.z*dims.y : 0)
+			(dims.z > 1 ? dims.c*dims.t*dims.y*dims.x : 0)
 		);
 		progressor.start();
 		
@@ -78,21 +79,7 @@ public Image run(final Image image, final double scale, final int xorder, final
 			final double xscale = scale/asps.x;
 			messenger.log("Operating at scale "+scale+"/"+asps.x+" = "+xscale+" pixels");
 			logstatus(info(xorder)+" in x-dimension...");
-			final double[] kernel = kernel(xscale,xorder,dims.x);
-			final int klenm1 = kernel.length - 1;
-			final double[] ain = new double[dims.x + 2*klenm1];
-			final double[] aout = new double[dims.x];
-			final Coordinates coords = new Coordinates();
-			deriv.axes(Axes.X);
-			for (coords.c=0; coords.c<dims.c; ++coords.c)
-				for (coords.t=0; coords.t<dims.t; ++coords.t)
-					for (coords.z=0; coords.z<dims.z; ++coords.z)
-						for (coords.y=0; coords.y<dims.y; ++coords.y) {
-							coords.x = -klenm1; deriv.get(coords,ain);
-							convolve(ain,aout,kernel);
-							coords.x = 0; deriv.set(coords,aout);
-							progressor.step();
-						}
+			filter(deriv,Axes.X,kernel(xscale,xorder,dims.x),true);
 		}
 		
 		// Differentiation in y-dimension:
@@ -107,21 +94,7 @@ public Image run(final Image image, final double scale, final int xorder, final
 			final double yscale = scale/asps.y;
 			messenger.log("Operating at scale "+scale+"/"+asps.y+" = "+yscale+" pixels");
 			logstatus(info(yorder)+" in y-dimension...");
-			final double[] kernel = kernel(yscale,yorder,dims.y);
-			final int klenm1 = kernel.length - 1;
-			final double[] ain = new double[dims.y + 2*klenm1];
-			final double[] aout = new double[dims.y];
-			final Coordinates coords = new Coordinates();
-			deriv.axes(Axes.Y);
-			for (coords.c=0; coords.c<dims.c; ++coords.c)
-				for (coords.t=0; coords.t<dims.t; ++coords.t)
-					for (coords.z=0; coords.z<dims.z; ++coords.z)
-						for (coords.x=0; coords.x<dims.x; ++coords.x) {
-							coords.y = -klenm1; deriv.get(coords,ain);
-							convolve(ain,aout,kernel);
-							coords.y = 0; deriv.set(coords,aout);
-							progressor.step();
-						}
+			filter(deriv,Axes.Y,kernel(yscale,yorder,dims.y),true);
 		}
 		
 		// Differentiation in z-dimension:
@@ -136,22 +109,7 @@ public Image run(final Image image, final double scale, final int xorder, final
 			final double zscale = scale/asps.z;
 			messenger.log("Operating at scale "+scale+"/"+asps.z+" = "+zscale+" slices");
 			logstatus(info(zorder)+" in z-dimension...");
-			final double[] kernel = kernel(zscale,zorder,dims.z);
-			final int klenm1 = kernel.length - 1;
-			final double[] ain = new double[dims.z + 2*klenm1];
-			final double[] aout = new double[dims.z];
-			final Coordinates coords = new Coordinates();
-			deriv.axes(Axes.Z);
-			for (coords.c=0; coords.c<dims.c; ++coords.c)
-				for (coords.t=0; coords.t<dims.t; ++coords.t)
-					for (coords.y=0; coords.y<dims.y; ++coords.y) {
-						for (coords.x=0; coords.x<dims.x; ++coords.x) {
-							coords.z = -klenm1; deriv.get(coords,ain);
-							convolve(ain,aout,kernel);
-							coords.z = 0; deriv.set(coords,aout);
-						}
-						progressor.step(dims.z);
-					}
+			filter(deriv,Axes.Z,kernel(zscale,zorder,dims.z),true);
 		}
 		
 		messenger.status("");
@@ -163,7 +121,52 @@ public Image run(final Image image, final double scale, final int xorder, final
 		return deriv;
 	}
 	
-	private double[] kernel(final double s, final int d, final int m) {
+	/** Convolves all lines of the image in the given dimension with the given kernel. The lines are distributed over the threads of {@link #parallelizer}. If {@code progress} is {@code true}, the {@link #progressor} is advanced by one step per line. */
+	void filter(final Image image, final int axis, final double[] kernel, final boolean progress) {
+		
+		final Dimensions dims = image.dimensions();
+		final int len = size(dims,axis);
+		final int lines = image.elements()/len;
+		final int klenm1 = kernel.length - 1;
+		image.axes(axis);
+		parallelizer.run(lines,new Parallelizer.Block() {
+			public void run(final int first, final int last) {
+				final double[] ain = new double[len + 2*klenm1];
+				final double[] aout = new double[len];
+				final Coordinates coords = new Coordinates();
+				for (int i=first; i<last; ++i) {
+					coordinates(i,dims,axis,-klenm1,coords); image.get(coords,ain);
+					convolve(ain,aout,kernel);
+					coordinates(i,dims,axis,0,coords); image.set(coords,aout);
+				}
+				if (progress) synchronized (progressor) { progressor.step(last - first); }
+			}
+		});
+	}
+	
+	/** Sets the coordinates of the given line in the given dimension, with the coordinate in that dimension set to {@code start} and the other coordinates running x fastest. */
+	static void coordinates(int line, final Dimensions dims, final int axis, final int start, final Coordinates c) {
+		
+		if (axis == Axes.X) c.x = start; else { c.x = line % dims.x; line /= dims.x; }
+		if (axis == Axes.Y) c.y = start; else { c.y = line % dims.y; line /= dims.y; }
+		if (axis == Axes.Z) c.z = start; else { c.z = line % dims.z; line /= dims.z; }
+		if (axis == Axes.T) c.t = start; else { c.t = line % dims.t; line /= dims.t; }
+		if (axis == Axes.C) c.c = start; else { c.c = line; }
+	}
+	
+	private static int size(final Dimensions dims, final int axis) {
+		
+		switch (axis) {
+			case Axes.X: return dims.x;
+			case Axes.Y: return dims.y;
+			case Axes.Z: return dims.z;
+			case Axes.T: return dims.t;
+			default: return dims.c;
+		}
+	}
+	
+	/** Returns the one-sided Gaussian (derivative) kernel of order {@code d} at scale {@code s}, limited to the line length {@code m}. Element {@code 0} is the center of the kernel. */
+	double[] kernel(final double s, final int d, final int m) {
 		
 		// Initialize:
 		double r = 5;
@@ -288,7 +291,8 @@ private double[] kernel(final double s, final int d, final int m) {
 		return kernel;
 	}
 	
-	private void convolve(final double[] ain, final double[] aout, final double[] kernel) {
+	/** Convolves the line in the center of {@code ain} with the kernel, after mirroring the line into the borders of {@code ain}, which are {@code kernel.length-1} elements wide. Odd kernels (with a zero center element) are antisymmetric, even kernels symmetric. */
+	static void convolve(final double[] ain, final double[] aout, final double[] kernel) {
 		
 		// Mirror borders in input array:
 		final int khlenm1 = kernel.length - 1;
@@ -350,4 +354,7 @@ private void logstatus(final String s) {
 	/** The object used for progress displaying. */
 	public final Progressor progressor = new Progressor();
 	
+	/** The object used for distributing the convolution of the lines in each dimension over multiple threads. */
+	public final Parallelizer parallelizer = new Parallelizer();
+	
 }
@@ -8,11 +8,12 @@
 import imagescience.image.Image;
 import imagescience.utility.ImageScience;
 import imagescience.utility.Messenger;
+import imagescience.utility.Parallelizer;
 import imagescience.utility.Progressor;
 import imagescience.utility.Timer;
 import java.util.Vector;
 
-/** Computes Hessian eigenimages. */
+/** Computes Hessian eigenimages. The Hessian components are computed for one x-y image (2D) or one slab of x-y images (3D) at a time, so that apart from the eigenimages only little extra memory is needed, and the computations are distributed over multiple threads. */
 public class Hessian {
 	
 	/** Default constructor. */
@@ -62,262 +63,152 @@ public Vector<Image> run(final Image image, final double scale, final boolean ab
 		if (asps.y <= 0) throw new IllegalStateException("Aspect-ratio value in y-dimension less than or equal to 0");
 		if (asps.z <= 0) throw new IllegalStateException("Aspect-ratio value in z-dimension less than or equal to 0");
 		
-		final Image smoothImage = (image instanceof FloatImage) ? image : new FloatImage(image);
 		Vector<Image> eigenimages = null;
 		final String name = image.name();
 		
 		differentiator.messenger.log(messenger.log());
-		differentiator.progressor.parent(progressor);
+		differentiator.parallelizer.threads(parallelizer.threads());
 		
-		// Compute Hessian matrix and eigenimages:
+		final double xscale = scale/asps.x;
+		final double yscale = scale/asps.y;
+		messenger.log("Operating at scale "+scale+"/"+asps.x+" = "+xscale+" pixels in x-dimension");
+		messenger.log("Operating at scale "+scale+"/"+asps.y+" = "+yscale+" pixels in y-dimension");
+		final double[][] kx = kernels(xscale,dims.x);
+		final double[][] ky = kernels(yscale,dims.y);
+		if (absolute) messenger.log("Comparing and storing absolute eigenvalues");
+		else messenger.log("Comparing and storing actual eigenvalues");
+		
+		// Compute Hessian matrix and eigenimages. The Hessian components are
+		// computed for one x-y image (2D) or one slab of slices (3D) at a
+		// time and only the eigenimages are stored in full. If the input image
+		// is of type FloatImage, it is reused for the smallest eigenvalues:
 		if (dims.z == 1) { // 2D case
 			
-			final double[] pls = {0, 0.32, 0.64, 0.96, 1}; int pl = 0;
-			
-			// Compute Hessian components:
-			logstatus("Computing Hxx"); progressor.range(pls[pl],pls[++pl]);
-			final Image Hxx = differentiator.run(smoothImage.duplicate(),scale,2,0,0);
-			logstatus("Computing Hxy"); progressor.range(pls[pl],pls[++pl]);
-			final Image Hxy = differentiator.run(smoothImage.duplicate(),scale,1,1,0);
-			logstatus("Computing Hyy"); progressor.range(pls[pl],pls[++pl]);
-			final Image Hyy = differentiator.run(smoothImage,scale,0,2,0);
-			
-			// Compute eigenimages (Hxx and Hyy are reused to save memory):
-			logstatus("Computing eigenimages");
-			progressor.steps(dims.c*dims.t*dims.y);
-			progressor.range(pls[pl],pls[++pl]);
-			Hxx.axes(Axes.X); Hxy.axes(Axes.X); Hyy.axes(Axes.X);
-			final double[] ahxx = new double[dims.x];
-			final double[] ahxy = new double[dims.x];
-			final double[] ahyy = new double[dims.x];
-			final Coordinates coords = new Coordinates();
+			final Image H1 = new FloatImage(dims);
+			final Image H2 = (image instanceof FloatImage) ? image : new FloatImage(dims);
+			final Dimensions sdims = new Dimensions(dims.x,dims.y);
+			final Coordinates origin = new Coordinates();
+			final Coordinates zero = new Coordinates();
 			
+			logstatus("Computing Hessian and eigenimages");
+			progressor.steps(dims.c*dims.t);
 			progressor.start();
-			if (absolute) {
-				messenger.log("Comparing and storing absolute eigenvalues");
-				for (coords.c=0; coords.c<dims.c; ++coords.c)
-					for (coords.t=0; coords.t<dims.t; ++coords.t)
-						for (coords.y=0; coords.y<dims.y; ++coords.y) {
-							Hxx.get(coords,ahxx);
-							Hxy.get(coords,ahxy);
-							Hyy.get(coords,ahyy);
-							for (int x=0; x<dims.x; ++x) {
-								final double b = -(ahxx[x] + ahyy[x]);
-								final double c = ahxx[x]*ahyy[x] - ahxy[x]*ahxy[x];
-								final double q = -0.5*(b + (b < 0 ? -1 : 1)*Math.sqrt(b*b - 4*c));
-								double absh1, absh2;
-								if (q == 0) {
-									absh1 = 0;
-									absh2 = 0;
-								} else {
-									absh1 = Math.abs(q);
-									absh2 = Math.abs(c/q);
-								}
-								if (absh1 > absh2) {
-									ahxx[x] = absh1;
-									ahyy[x] = absh2;
-								} else {
-									ahxx[x] = absh2;
-									ahyy[x] = absh1;
-								}
-							}
-							Hxx.set(coords,ahxx);
-							Hyy.set(coords,ahyy);
-							progressor.step();
-						}
-			} else {
-				messenger.log("Comparing and storing actual eigenvalues");
-				for (coords.c=0; coords.c<dims.c; ++coords.c)
-					for (coords.t=0; coords.t<dims.t; ++coords.t)
-						for (coords.y=0; coords.y<dims.y; ++coords.y) {
-							Hxx.get(coords,ahxx);
-							Hxy.get(coords,ahxy);
-							Hyy.get(coords,ahyy);
-							for (int x=0; x<dims.x; ++x) {
-								final double b = -(ahxx[x] + ahyy[x]);
-								final double c = ahxx[x]*ahyy[x] - ahxy[x]*ahxy[x];
-								final double q = -0.5*(b + (b < 0 ? -1 : 1)*Math.sqrt(b*b - 4*c));
-								double h1, h2;
-								if (q == 0) {
-									h1 = 0;
-									h2 = 0;
-								} else {
-									h1 = q;
-									h2 = c/q;
-								}
-								if (h1 > h2) {
-									ahxx[x] = h1;
-									ahyy[x] = h2;
-								} else {
-									ahxx[x] = h2;
-									ahyy[x] = h1;
-								}
-							}
-							Hxx.set(coords,ahxx);
-							Hyy.set(coords,ahyy);
-							progressor.step();
-						}
-			}
+			for (origin.c=0; origin.c<dims.c; ++origin.c)
+				for (origin.t=0; origin.t<dims.t; ++origin.t) {
+					
+					// Compute Hessian components:
+					final Image Hyy = new FloatImage(sdims);
+					copy(image,origin,Hyy,zero,1);
+					final Image Hxx = Hyy.duplicate();
+					final Image Hxy = Hyy.duplicate();
+					differentiator.filter(Hxx,Axes.X,kx[2],false);
+					differentiator.filter(Hxx,Axes.Y,ky[0],false);
+					differentiator.filter(Hxy,Axes.X,kx[1],false);
+					differentiator.filter(Hxy,Axes.Y,ky[1],false);
+					differentiator.filter(Hyy,Axes.X,kx[0],false);
+					differentiator.filter(Hyy,Axes.Y,ky[2],false);
+					
+					// Compute eigenvalues (Hxx and Hyy are reused to save memory):
+					eigenvalues(Hxx,Hxy,Hyy,absolute);
+					copy(Hxx,zero,H1,origin,1);
+					copy(Hyy,zero,H2,origin,1);
+					progressor.step();
+				}
 			progressor.stop();
 			
-			Hxx.name(name+" largest Hessian eigenvalues");
-			Hyy.name(name+" smallest Hessian eigenvalues");
+			H1.name(name+" largest Hessian eigenvalues");
+			H2.name(name+" smallest Hessian eigenvalues");
 			
-			Hxx.aspects(asps.duplicate());
-			Hyy.aspects(asps.duplicate());
+			H1.aspects(asps.duplicate());
+			H2.aspects(asps.duplicate());
 			
 			eigenimages = new Vector<Image>(2);
-			eigenimages.add(Hxx);
-			eigenimages.add(Hyy);
+			eigenimages.add(H1);
+			eigenimages.add(H2);
 			
 		} else { // 3D case
 			
-			final double[] pls = {0, 0.1, 0.2, 0.3, 0.4, 0.5, 0.6, 1}; int pl = 0;
-			
-			// Compute Hessian components:
-			logstatus("Computing Hxx"); progressor.range(pls[pl],pls[++pl]);
-			final Image Hxx = differentiator.run(smoothImage.duplicate(),scale,2,0,0);
-			logstatus("Computing Hxy"); progressor.range(pls[pl],pls[++pl]);
-			final Image Hxy = differentiator.run(smoothImage.duplicate(),scale,1,1,0);
-			logstatus("Computing Hxz"); progressor.range(pls[pl],pls[++pl]);
-			final Image Hxz = differentiator.run(smoothImage.duplicate(),scale,1,0,1);
-			logstatus("Computing Hyy"); progressor.range(pls[pl],pls[++pl]);
-			final Image Hyy = differentiator.run(smoothImage.duplicate(),scale,0,2,0);
-			logstatus("Computing Hyz"); progressor.range(pls[pl],pls[++pl]);
-			final Image Hyz = differentiator.run(smoothImage.duplicate(),scale,0,1,1);
-			logstatus("Computing Hzz"); progressor.range(pls[pl],pls[++pl]);
-			final Image Hzz = differentiator.run(smoothImage,scale,0,0,2);
+			final double zscale = scale/asps.z;
+			messenger.log("Operating at scale "+scale+"/"+asps.z+" = "+zscale+" slices in z-dimension");
+			final double[][] kz = kernels(zscale,dims.z);
+			int klenm1 = 0;
+			for (int d=0; d<3; ++d) klenm1 = Math.max(klenm1,kz[d].length - 1);
+			final int thickness = Math.min(dims.z,Math.max(SLAB,2*klenm1));
+			messenger.log("Processing slabs of "+thickness+" slices");
 			
-			// Compute eigenimages (Hxx, Hyy, Hzz are reused to save memory):
-			logstatus("Computing eigenimages");
-			progressor.steps(dims.c*dims.t*dims.z*dims.y);
-			progressor.range(pls[pl],pls[++pl]);
-			Hxx.axes(Axes.X); Hxy.axes(Axes.X); Hxz.axes(Axes.X);
-			Hyy.axes(Axes.X); Hyz.axes(Axes.X); Hzz.axes(Axes.X);
-			final double[] ahxx = new double[dims.x];
-			final double[] ahxy = new double[dims.x];
-			final double[] ahxz = new double[dims.x];
-			final double[] ahyy = new double[dims.x];
-			final double[] ahyz = new double[dims.x];
-			final double[] ahzz = new double[dims.x];
-			final Coordinates coords = new Coordinates();
+			final Image H1 = new FloatImage(dims);
+			final Image H2 = new FloatImage(dims);
+			final Image H3 = (image instanceof FloatImage) ? image : new FloatImage(dims);
+			final Coordinates origin = new Coordinates();
+			final Coordinates zero = new Coordinates();
 			
+			logstatus("Computing Hessian and eigenimages");
+			progressor.steps(dims.c*dims.t*dims.z);
 			progressor.start();
-			if (absolute) {
-				messenger.log("Comparing and storing absolute eigenvalues");
-				for (coords.c=0; coords.c<dims.c; ++coords.c)
-					for (coords.t=0; coords.t<dims.t; ++coords.t)
-						for (coords.z=0; coords.z<dims.z; ++coords.z)
-							for (coords.y=0; coords.y<dims.y; ++coords.y) {
-								Hxx.get(coords,ahxx);
-								Hxy.get(coords,ahxy);
-								Hxz.get(coords,ahxz);
-								Hyy.get(coords,ahyy);
-								Hyz.get(coords,ahyz);
-								Hzz.get(coords,ahzz);
-								for (int x=0; x<dims.x; ++x) {
-									final double fhxx = ahxx[x];
-									final double fhxy = ahxy[x];
-									final double fhxz = ahxz[x];
-									final double fhyy = ahyy[x];
-									final double fhyz = ahyz[x];
-									final double fhzz = ahzz[x];
-									final double a = -(fhxx + fhyy + fhzz);
-									final double b = fhxx*fhyy + fhxx*fhzz + fhyy*fhzz - fhxy*fhxy - fhxz*fhxz - fhyz*fhyz;
-									final double c = fhxx*(fhyz*fhyz - fhyy*fhzz) + fhyy*fhxz*fhxz + fhzz*fhxy*fhxy - 2*fhxy*fhxz*fhyz;
-									final double q = (a*a - 3*b)/9;
-									final double r = (a*a*a - 4.5*a*b + 13.5*c)/27;
-									final double sqrtq = (q > 0) ? Math.sqrt(q) : 0;
-									final double sqrtq3 = sqrtq*sqrtq*sqrtq;
-									double absh1, absh2, absh3;
-									if (sqrtq3 == 0) {
-										absh1 = 0;
-										absh2 = 0;
-										absh3 = 0;
-									} else {
-										final double rsqq3 = r/sqrtq3;
-										final double angle = (rsqq3*rsqq3 <= 1) ? Math.acos(rsqq3) : Math.acos(rsqq3 < 0 ? -1 : 1);
-										absh1 = Math.abs(-2*sqrtq*Math.cos(angle/3) - a/3);
-										absh2 = Math.abs(-2*sqrtq*Math.cos((angle + TWOPI)/3) - a/3);
-										absh3 = Math.abs(-2*sqrtq*Math.cos((angle - TWOPI)/3) - a/3);
-									}
-									if (absh2 < absh3) { final double tmp = absh2; absh2 = absh3; absh3 = tmp; }
-									if (absh1 < absh2) { final double tmp1 = absh1; absh1 = absh2; absh2 = tmp1;
-									if (absh2 < absh3) { final double tmp2 = absh2; absh2 = absh3; absh3 = tmp2; }}
-									ahxx[x] = absh1;
-									ahyy[x] = absh2;
-									ahzz[x] = absh3;
-								}
-								Hxx.set(coords,ahxx);
-								Hyy.set(coords,ahyy);
-								Hzz.set(coords,ahzz);
-								progressor.step();
-							}
-			} else {
-				messenger.log("Comparing and storing actual eigenvalues");
-				for (coords.c=0; coords.c<dims.c; ++coords.c)
-					for (coords.t=0; coords.t<dims.t; ++coords.t)
-						for (coords.z=0; coords.z<dims.z; ++coords.z)
-							for (coords.y=0; coords.y<dims.y; ++coords.y) {
-								Hxx.get(coords,ahxx);
-								Hxy.get(coords,ahxy);
-								Hxz.get(coords,ahxz);
-								Hyy.get(coords,ahyy);
-								Hyz.get(coords,ahyz);
-								Hzz.get(coords,ahzz);
-								for (int x=0; x<dims.x; ++x) {
-									final double fhxx = ahxx[x];
-									final double fhxy = ahxy[x];
-									final double fhxz = ahxz[x];
-									final double fhyy = ahyy[x];
-									final double fhyz = ahyz[x];
-									final double fhzz = ahzz[x];
-									final double a = -(fhxx + fhyy + fhzz);
-									final double b = fhxx*fhyy + fhxx*fhzz + fhyy*fhzz - fhxy*fhxy - fhxz*fhxz - fhyz*fhyz;
-									final double c = fhxx*(fhyz*fhyz - fhyy*fhzz) + fhyy*fhxz*fhxz + fhzz*fhxy*fhxy - 2*fhxy*fhxz*fhyz;
-									final double q = (a*a - 3*b)/9;
-									final double r = (a*a*a - 4.5*a*b + 13.5*c)/27;
-									final double sqrtq = (q > 0) ? Math.sqrt(q) : 0;
-									final double sqrtq3 = sqrtq*sqrtq*sqrtq;
-									double h1, h2, h3;
-									if (sqrtq3 == 0) {
-										h1 = 0;
-										h2 = 0;
-										h3 = 0;
-									} else {
-										final double rsqq3 = r/sqrtq3;
-										final double angle = (rsqq3*rsqq3 <= 1) ? Math.acos(rsqq3) : Math.acos(rsqq3 < 0 ? -1 : 1);
-										h1 = -2*sqrtq*Math.cos(angle/3) - a/3;
-										h2 = -2*sqrtq*Math.cos((angle + TWOPI)/3) - a/3;
-										h3 = -2*sqrtq*Math.cos((angle - TWOPI)/3) - a/3;
-									}
-									if (h2 < h3) { final double tmp = h2; h2 = h3; h3 = tmp; }
-									if (h1 < h2) { final double tmp1 = h1; h1 = h2; h2 = tmp1;
-									if (h2 < h3) { final double tmp2 = h2; h2 = h3; h3 = tmp2; }}
-									ahxx[x] = h1;
-									ahyy[x] = h2;
-									ahzz[x] = h3;
-								}
-								Hxx.set(coords,ahxx);
-								Hyy.set(coords,ahyy);
-								Hzz.set(coords,ahzz);
-								progressor.step();
-							}
-			}
+			for (origin.c=0; origin.c<dims.c; ++origin.c)
+				for (origin.t=0; origin.t<dims.t; ++origin.t) {
+					Image pending = null;
+					int pendingz = 0;
+					for (origin.z=0; origin.z<dims.z; origin.z+=thickness) {
+						final int slices = Math.min(thickness,dims.z - origin.z);
+						final Dimensions sdims = new Dimensions(dims.x,dims.y,slices);
+						
+						// Differentiation in z-dimension first, directly from the input,
+						// so that the other dimensions need no slices beyond the slab:
+						final Image[] Z = zderivatives(image,origin,sdims,kz);
+						
+						// The eigenvalues of the previous slab can be stored only now if
+						// H3 is the input image, as its slices were needed above:
+						if (pending != null) {
+							final Coordinates to = origin.duplicate(); to.z = pendingz;
+							copy(pending,zero,H3,to,pending.dimensions().z);
+						}
+						
+						// Compute Hessian components, sharing the z-derivatives:
+						final Image Hxx = Z[0].duplicate();
+						final Image Hxy = Z[0].duplicate();
+						final Image Hyy = Z[0];
+						final Image Hxz = Z[1].duplicate();
+						final Image Hyz = Z[1];
+						final Image Hzz = Z[2];
+						differentiator.filter(Hxx,Axes.X,kx[2],false);
+						differentiator.filter(Hxx,Axes.Y,ky[0],false);
+						differentiator.filter(Hxy,Axes.X,kx[1],false);
+						differentiator.filter(Hxy,Axes.Y,ky[1],false);
+						differentiator.filter(Hyy,Axes.X,kx[0],false);
+						differentiator.filter(Hyy,Axes.Y,ky[2],false);
+						differentiator.filter(Hxz,Axes.X,kx[1],false);
+						differentiator.filter(Hxz,Axes.Y,ky[0],false);
+						differentiator.filter(Hyz,Axes.X,kx[0],false);
+						differentiator.filter(Hyz,Axes.Y,ky[1],false);
+						differentiator.filter(Hzz,Axes.X,kx[0],false);
+						differentiator.filter(Hzz,Axes.Y,ky[0],false);
+						
+						// Compute eigenvalues (Hxx, Hyy, Hzz are reused to save memory):
+						eigenvalues(Hxx,Hxy,Hxz,Hyy,Hyz,Hzz,absolute);
+						copy(Hxx,zero,H1,origin,slices);
+						copy(Hyy,zero,H2,origin,slices);
+						pending = Hzz;
+						pendingz = origin.z;
+						progressor.step(slices);
+					}
+					final Coordinates to = origin.duplicate(); to.z = pendingz;
+					copy(pending,zero,H3,to,pending.dimensions().z);
+				}
 			progressor.stop();
 			
-			Hxx.name(name+" largest Hessian eigenvalues");
-			Hyy.name(name+" middle Hessian eigenvalues");
-			Hzz.name(name+" smallest Hessian eigenvalues");
+			H1.name(name+" largest Hessian eigenvalues");
+			H2.name(name+" middle Hessian eigenvalues");
+			H3.name(name+" smallest Hessian eigenvalues");
 			
-			Hxx.aspects(asps.duplicate());
-			Hyy.aspects(asps.duplicate());
-			Hzz.aspects(asps.duplicate());
+			H1.aspects(asps.duplicate());
+			H2.aspects(asps.duplicate());
+			H3.aspects(asps.duplicate());
 			
 			eigenimages = new Vector<Image>(3);
-			eigenimages.add(Hxx);
-			eigenimages.add(Hyy);
-			eigenimages.add(Hzz);
+			eigenimages.add(H1);
+			eigenimages.add(H2);
+			eigenimages.add(H3);
 		}
 		
 		messenger.status("");
@@ -333,15 +224,241 @@ private void logstatus(final String s) {
 		messenger.status(s+"...");
 	}
 	
+	// Returns the Gaussian kernels of order 0, 1, and 2:
+	private double[][] kernels(final double s, final int m) {
+		
+		return new double[][] {
+			differentiator.kernel(s,0,m),
+			differentiator.kernel(s,1,m),
+			differentiator.kernel(s,2,m)
+		};
+	}
+	
+	// Copies the given number of x-y images from one image to the other:
+	private void copy(final Image src, final Coordinates from, final Image dst, final Coordinates to, final int slices) {
+		
+		final int nx = src.dimensions().x;
+		final int ny = src.dimensions().y;
+		src.axes(Axes.X);
+		dst.axes(Axes.X);
+		parallelizer.run(slices*ny,new Parallelizer.Block() {
+			public void run(final int first, final int last) {
+				final double[] a = new double[nx];
+				final Coordinates cs = from.duplicate();
+				final Coordinates cd = to.duplicate();
+				for (int i=first; i<last; ++i) {
+					cs.y = cd.y = i % ny;
+					cs.z = from.z + i/ny;
+					cd.z = to.z + i/ny;
+					src.get(cs,a);
+					dst.set(cd,a);
+				}
+			}
+		});
+	}
+	
+	// Computes the zeroth-, first-, and second-order z-derivatives of the
+	// slab of the given size starting at the given origin. The required
+	// slices beyond the slab are read from the image, and the image is
+	// mirrored at its borders, in the same way as by the Differentiator:
+	private Image[] zderivatives(final Image image, final Coordinates origin, final Dimensions sdims, final double[][] kz) {
+		
+		final int nz = image.dimensions().z;
+		final int z0 = origin.z;
+		int klenm1 = 0;
+		for (int d=0; d<3; ++d) klenm1 = Math.max(klenm1,kz[d].length - 1);
+		final int lo = Math.max(0,z0 - klenm1);
+		final int hi = Math.min(nz,z0 + sdims.z + klenm1);
+		final Image[] Z = new Image[3];
+		for (int d=0; d<3; ++d) {
+			Z[d] = new FloatImage(sdims);
+			Z[d].axes(Axes.Z);
+		}
+		image.axes(Axes.Z);
+		parallelizer.run(sdims.x*sdims.y,new Parallelizer.Block() {
+			public void run(final int first, final int last) {
+				final double[] ain = new double[hi - lo];
+				final double[] aout = new double[sdims.z];
+				final Coordinates ci = origin.duplicate(); ci.z = lo;
+				final Coordinates co = new Coordinates();
+				for (int i=first; i<last; ++i) {
+					ci.x = co.x = i % sdims.x;
+					ci.y = co.y = i/sdims.x;
+					image.get(ci,ain);
+					for (int d=0; d<3; ++d) {
+						final double[] kernel = kz[d];
+						final int khlenm1 = kernel.length - 1;
+						final double sign = (kernel[0] == 0) ? -1 : 1;
+						for (int io=0, z=z0; io<sdims.z; ++io, ++z) {
+							double convres = ain[z - lo]*kernel[0];
+							for (int k=1; k<=khlenm1; ++k) {
+								int zm = z - k; if (zm < 0) zm = -zm;
+								int zp = z + k; if (zp >= nz) zp = 2*nz - 2 - zp;
+								convres += (ain[zm - lo] + sign*ain[zp - lo])*kernel[k];
+							}
+							aout[io] = convres;
+						}
+						Z[d].set(co,aout);
+					}
+				}
+			}
+		});
+		
+		return Z;
+	}
+	
+	// Computes the eigenvalues of the 2D Hessian and stores the largest in
+	// Hxx and the smallest in Hyy:
+	private void eigenvalues(final Image Hxx, final Image Hxy, final Image Hyy, final boolean absolute) {
+		
+		final Dimensions dims = Hxx.dimensions();
+		Hxx.axes(Axes.X); Hxy.axes(Axes.X); Hyy.axes(Axes.X);
+		parallelizer.run(dims.y,new Parallelizer.Block() {
+			public void run(final int first, final int last) {
+				final double[] ahxx = new double[dims.x];
+				final double[] ahxy = new double[dims.x];
+				final double[] ahyy = new double[dims.x];
+				final Coordinates coords = new Coordinates();
+				for (coords.y=first; coords.y<last; ++coords.y) {
+					Hxx.get(coords,ahxx);
+					Hxy.get(coords,ahxy);
+					Hyy.get(coords,ahyy);
+					if (absolute) {
+						for (int x=0; x<dims.x; ++x) {
+							final double b = -(ahxx[x] + ahyy[x]);
+							final double c = ahxx[x]*ahyy[x] - ahxy[x]*ahxy[x];
+							final double q = -0.5*(b + (b < 0 ? -1 : 1)*Math.sqrt(b*b - 4*c));
+							double absh1, absh2;
+							if (q == 0) {
+								absh1 = 0;
+								absh2 = 0;
+							} else {
+								absh1 = Math.abs(q);
+								absh2 = Math.abs(c/q);
+							}
+							if (absh1 > absh2) {
+								ahxx[x] = absh1;
+								ahyy[x] = absh2;
+							} else {
+								ahxx[x] = absh2;
+								ahyy[x] = absh1;
+							}
+						}
+					} else {
+						for (int x=0; x<dims.x; ++x) {
+							final double b = -(ahxx[x] + ahyy[x]);
+							final double c = ahxx[x]*ahyy[x] - ahxy[x]*ahxy[x];
+							final double q = -0.5*(b + (b < 0 ? -1 : 1)*Math.sqrt(b*b - 4*c));
+							double h1, h2;
+							if (q == 0) {
+								h1 = 0;
+								h2 = 0;
+							} else {
+								h1 = q;
+								h2 = c/q;
+							}
+							if (h1 > h2) {
+								ahxx[x] = h1;
+								ahyy[x] = h2;
+							} else {
+								ahxx[x] = h2;
+								ahyy[x] = h1;
+							}
+						}
+					}
+					Hxx.set(coords,ahxx);
+					Hyy.set(coords,ahyy);
+				}
+			}
+		});
+	}
+	
+	// Computes the eigenvalues of the 3D Hessian and stores the largest in
+	// Hxx, the middle in Hyy, and the smallest in Hzz:
+	private void eigenvalues(final Image Hxx, final Image Hxy, final Image Hxz, final Image Hyy, final Image Hyz, final Image Hzz, final boolean absolute) {
+		
+		final Dimensions dims = Hxx.dimensions();
+		Hxx.axes(Axes.X); Hxy.axes(Axes.X); Hxz.axes(Axes.X);
+		Hyy.axes(Axes.X); Hyz.axes(Axes.X); Hzz.axes(Axes.X);
+		parallelizer.run(dims.z*dims.y,new Parallelizer.Block() {
+			public void run(final int first, final int last) {
+				final double[] ahxx = new double[dims.x];
+				final double[] ahxy = new double[dims.x];
+				final double[] ahxz = new double[dims.x];
+				final double[] ahyy = new double[dims.x];
+				final double[] ahyz = new double[dims.x];
+				final double[] ahzz = new double[dims.x];
+				final Coordinates coords = new Coordinates();
+				for (int i=first; i<last; ++i) {
+					coords.y = i % dims.y;
+					coords.z = i/dims.y;
+					Hxx.get(coords,ahxx);
+					Hxy.get(coords,ahxy);
+					Hxz.get(coords,ahxz);
+					Hyy.get(coords,ahyy);
+					Hyz.get(coords,ahyz);
+					Hzz.get(coords,ahzz);
+					for (int x=0; x<dims.x; ++x) {
+						final double fhxx = ahxx[x];
+						final double fhxy = ahxy[x];
+						final double fhxz = ahxz[x];
+						final double fhyy = ahyy[x];
+						final double fhyz = ahyz[x];
+						final double fhzz = ahzz[x];
+						final double a = -(fhxx + fhyy + fhzz);
+						final double b = fhxx*fhyy + fhxx*fhzz + fhyy*fhzz - fhxy*fhxy - fhxz*fhxz - fhyz*fhyz;
+						final double c = fhxx*(fhyz*fhyz - fhyy*fhzz) + fhyy*fhxz*fhxz + fhzz*fhxy*fhxy - 2*fhxy*fhxz*fhyz;
+						final double q = (a*a - 3*b)/9;
+						final double r = (a*a*a - 4.5*a*b + 13.5*c)/27;
+						final double sqrtq = (q > 0) ? Math.sqrt(q) : 0;
+						final double sqrtq3 = sqrtq*sqrtq*sqrtq;
+						double h1, h2, h3;
+						if (sqrtq3 == 0) {
+							h1 = 0;
+							h2 = 0;
+							h3 = 0;
+						} else {
+							final double rsqq3 = r/sqrtq3;
+							final double angle = (rsqq3*rsqq3 <= 1) ? Math.acos(rsqq3) : Math.acos(rsqq3 < 0 ? -1 : 1);
+							h1 = -2*sqrtq*Math.cos(angle/3) - a/3;
+							h2 = -2*sqrtq*Math.cos((angle + TWOPI)/3) - a/3;
+							h3 = -2*sqrtq*Math.cos((angle - TWOPI)/3) - a/3;
+						}
+						if (absolute) {
+							h1 = Math.abs(h1);
+							h2 = Math.abs(h2);
+							h3 = Math.abs(h3);
+						}
+						if (h2 < h3) { final double tmp = h2; h2 = h3; h3 = tmp; }
+						if (h1 < h2) { final double tmp1 = h1; h1 = h2; h2 = tmp1;
+						if (h2 < h3) { final double tmp2 = h2; h2 = h3; h3 = tmp2; }}
+						ahxx[x] = h1;
+						ahyy[x] = h2;
+						ahzz[x] = h3;
+					}
+					Hxx.set(coords,ahxx);
+					Hyy.set(coords,ahyy);
+					Hzz.set(coords,ahzz);
+				}
+			}
+		});
+	}
+	
 	/** The object used for message displaying. */
 	public final Messenger messenger = new Messenger();
 	
 	/** The object used for progress displaying. */
 	public final Progressor progressor = new Progressor();
 	
-	/** The object used for image differentiation. */
+	/** The object used for image differentiation. Its kernels and line convolutions are used to compute the Hessian components. */
 	public final Differentiator differentiator = new Differentiator();
 	
+	/** The object used for distributing the computations over multiple threads. Its number of threads is also used for the {@link #differentiator}. */
+	public final Parallelizer parallelizer = new Parallelizer();
+	
+	// Minimum number of slices processed at a time in the 3D case:
+	private static final int SLAB = 16;
+	
 	private static final double TWOPI = 2*Math.PI;
 	
 }
@@ -4,6 +4,7 @@
 import imagescience.image.Image;
 import imagescience.utility.ImageScience;
 import imagescience.utility.Messenger;
+import imagescience.utility.Parallelizer;
 import imagescience.utility.Progressor;
 
 /** Smoothes images. */
@@ -33,6 +34,7 @@ public Image gauss(final Image image, final double scale) {
 		final Differentiator d = new Differentiator();
 		d.messenger.log(messenger.log());
 		d.progressor.parent(progressor);
+		d.parallelizer.threads(parallelizer.threads());
 		return d.run(image,scale,0,0,0);
 	}
 	
@@ -42,4 +44,7 @@ public Image gauss(final Image image, final double scale) {
 	/** The object used for progress displaying. */
 	public final Progressor progressor = new Progressor();
 	
+	/** The object used for distributing the computations over multiple threads. */
+	public final Parallelizer parallelizer = new Parallelizer();
+	
 }
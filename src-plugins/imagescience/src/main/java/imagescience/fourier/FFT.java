@@ -5,13 +5,13 @@
 import imagescience.image.Dimensions;
 import imagescience.image.FloatImage;
 import imagescience.image.Image;
-import imagescience.utility.FMath;
 import imagescience.utility.ImageScience;
 import imagescience.utility.Messenger;
+import imagescience.utility.Parallelizer;
 import imagescience.utility.Progressor;
 import imagescience.utility.Timer;
 
-/** Computes forward and inverse Fourier transforms of images. The methods are based on the fast Fourier transform (FFT) and therefore accept only images whose size is an integer power of 2 in each direction in which the transformation is applied. Based on the algorithm described by W. H. Press, S. A. Teukolsky, W. T. Vetterling, B. P. Flannery, <a href="http://www.nr.com/" target="_new">Numerical Recipes in C: The Art of Scientific Computing</a> (2nd edition), Cambridge University Press, Cambridge, 1992, pp. 507-508. */
+/** Computes forward and inverse Fourier transforms of images. The methods are based on the fast Fourier transform (FFT) and accept images of any size. Sizes whose prime factors are all small are transformed using a self-sorting mixed-radix algorithm, other sizes using Bluestein's algorithm, which reduces the transform to a power-of-2 transform of at least twice the size. The lines in each dimension are transformed in parallel, using the number of threads specified by {@link #parallelizer}. Real-valued input is detected and transformed two lines at a time, and the methods {@link #forward(Image,Axes)} and {@link #inverse(Image,Image,Axes,int)} compute only the non-redundant half of the spectrum of real-valued images, which halves the memory needed for the result. */
 public class FFT {
 	
 	/** Default constructor. */
@@ -25,7 +25,7 @@ public FFT() { }
 		
 		@param axes the axes along which the transform is to be applied. The transform is applied to each dimension for which the corresponding boolean field of this parameter is {@code true}.
 		
-		@exception IllegalStateException if the images do not have the same size in each dimension or if their size is not an integer power of 2 in any of the directions in which the transform is to be applied.
+		@exception IllegalStateException if the images do not have the same size in each dimension.
 		
 		@exception NullPointerException if any of the parameters is {@code null}.
 	*/
@@ -43,7 +43,7 @@ public void forward(final Image real, final Image imag, final Axes axes) {
 		
 		@param axes the axes along which the transform is to be applied. The transform is applied to each dimension for which the corresponding boolean field of this parameter is {@code true}.
 		
-		@exception IllegalStateException if the images do not have the same size in each dimension or if their size is not an integer power of 2 in any of the directions in which the transform is to be applied.
+		@exception IllegalStateException if the images do not have the same size in each dimension.
 		
 		@exception NullPointerException if any of the parameters is {@code null}.
 	*/
@@ -53,6 +53,119 @@ public void inverse(final Image real, final Image imag, final Axes axes) {
 		fft(real,imag,axes,+1);
 	}
 	
+	/** Applies the forward Fourier transform to a real-valued image along the specified axes. Since the Fourier transform of a real-valued image is conjugate symmetric, only the elements with non-negative x-frequency are computed. The remaining elements follow from F(-kx,-ky,...) = F*(kx,ky,...).
+		
+		@param image the real-valued input image. The image is not modified.
+		
+		@param axes the axes along which the transform is to be applied. The transform is applied to each dimension for which the corresponding boolean field of this parameter is {@code true}. The x-axis must be active.
+		
+		@return a new array containing two new {@link FloatImage} objects: {@code [0]} = the real component and {@code [1]} = the imaginary component of the forward Fourier transform. The x-size of the images is the x-size of {@code image} divided by 2 (rounded down) plus 1, the other sizes are those of {@code image}.
+		
+		@exception IllegalArgumentException if the x-axis is not active.
+		
+		@exception NullPointerException if any of the parameters is {@code null}.
+	*/
+	public Image[] forward(final Image image, final Axes axes) {
+		
+		messenger.log(ImageScience.prelude()+"Forward real-valued FFT");
+		
+		final Timer timer = new Timer();
+		timer.messenger.log(messenger.log());
+		timer.start();
+		
+		// Initialize:
+		messenger.log("Input image of type "+image.type());
+		if (!axes.x) throw new IllegalArgumentException("Real-valued transform requires active x-axis");
+		final Dimensions dims = image.dimensions();
+		final Dimensions hdims = new Dimensions(dims.x/2 + 1,dims.y,dims.z,dims.t,dims.c);
+		final Image real = new FloatImage(hdims);
+		final Image imag = new FloatImage(hdims);
+		real.aspects(image.aspects().duplicate());
+		imag.aspects(image.aspects().duplicate());
+		messenger.status("Forward FFT...");
+		progressor.steps(steps(hdims,axes) - lines(hdims,Axes.X) + (lines(dims,Axes.X) + 1)/2);
+		progressor.start();
+		
+		// Transform in x-dimension, two real lines at a time:
+		messenger.log("   FFT in x-dimension...");
+		forward(image,real,imag);
+		
+		// Transform in other dimensions if active:
+		if (axes.y) transform(real,imag,Axes.Y,-1,false);
+		if (axes.z) transform(real,imag,Axes.Z,-1,false);
+		if (axes.t) transform(real,imag,Axes.T,-1,false);
+		if (axes.c) transform(real,imag,Axes.C,-1,false);
+		
+		messenger.log("Done");
+		messenger.status("");
+		progressor.stop();
+		timer.stop();
+		
+		return new Image[] {real,imag};
+	}
+	
+	/** Applies the inverse Fourier transform to the non-redundant half of the Fourier transform of a real-valued image along the specified axes.
+		
+		@param real the real component of the half transform, as computed by {@link #forward(Image,Axes)}. The image is overwritten with intermediate results.
+		
+		@param imag the imaginary component of the half transform, as computed by {@link #forward(Image,Axes)}. The image is overwritten with intermediate results.
+		
+		@param axes the axes along which the transform is to be applied. The transform is applied to each dimension for which the corresponding boolean field of this parameter is {@code true}. The x-axis must be active.
+		
+		@param xsize the x-size of the real-valued output image. Since the x-size of the half transform is {@code xsize/2+1}, this determines whether the original x-size was even or odd.
+		
+		@return a new {@link FloatImage} object containing the real-valued inverse Fourier transform.
+		
+		@exception IllegalArgumentException if the x-axis is not active or if {@code xsize/2+1} is not equal to the x-size of the input images.
+		
+		@exception IllegalStateException if the images do not have the same size in each dimension.
+		
+		@exception NullPointerException if any of the parameters is {@code null}.
+	*/
+	public Image inverse(final Image real, final Image imag, final Axes axes, final int xsize) {
+		
+		messenger.log(ImageScience.prelude()+"Inverse real-valued FFT");
+		
+		final Timer timer = new Timer();
+		timer.messenger.log(messenger.log());
+		timer.start();
+		
+		// Initialize:
+		messenger.log("Real input image of type "+real.type());
+		messenger.log("Imaginary input image of type "+imag.type());
+		final Dimensions hdims = real.dimensions();
+		if (!hdims.equals(imag.dimensions())) throw new IllegalStateException("Real and imaginary images have different dimensions");
+		if (!axes.x) throw new IllegalArgumentException("Real-valued transform requires active x-axis");
+		if (xsize < 1 || xsize/2 + 1 != hdims.x) throw new IllegalArgumentException("Output x-size does not match input x-size");
+		final Dimensions dims = new Dimensions(xsize,hdims.y,hdims.z,hdims.t,hdims.c);
+		final Image image = new FloatImage(dims);
+		image.aspects(real.aspects().duplicate());
+		messenger.status("Inverse FFT...");
+		progressor.steps(steps(hdims,axes) - lines(hdims,Axes.X) + (lines(dims,Axes.X) + 1)/2);
+		progressor.start();
+		
+		// Transform in dimensions other than x if active:
+		double scale = xsize;
+		if (axes.y) { transform(real,imag,Axes.Y,+1,false); scale *= dims.y; }
+		if (axes.z) { transform(real,imag,Axes.Z,+1,false); scale *= dims.z; }
+		if (axes.t) { transform(real,imag,Axes.T,+1,false); scale *= dims.t; }
+		if (axes.c) { transform(real,imag,Axes.C,+1,false); scale *= dims.c; }
+		
+		// Transform in x-dimension, two real lines at a time:
+		messenger.log("   FFT in x-dimension...");
+		inverse(real,imag,image);
+		
+		messenger.log("   Scale correction...");
+		image.divide(scale);
+		
+		messenger.log("Done");
+		messenger.status("");
+		progressor.stop();
+		timer.stop();
+		
+		return image;
+	}
+	
 	private void fft(final Image real, final Image imag, final Axes axes, final int sign) {
 		
 		final Timer timer = new Timer();
@@ -61,133 +174,28 @@ private void fft(final Image real, final Image imag, final Axes axes, final int
 		
 		// Initialize:
 		check(real,imag,axes);
-		final Coordinates c = new Coordinates();
 		final Dimensions dims = real.dimensions();
 		if (sign == -1) messenger.status("Forward FFT...");
 		else messenger.status("Inverse FFT...");
-		double[] re = null, im = null;
 		double scale = 1;
-		progressor.steps(
-			(axes.x ? dims.c*dims.t*dims.z*dims.y : 0) +
-			(axes.y ? dims.c*dims.t*dims.z*dims.x : 0) +
-			(axes.z ? dims.c*dims.t*dims.z*dims.y : 0) +
-			(axes.t ? dims.c*dims.t*dims.z*dims.y : 0) +
-			(axes.c ? dims.c*dims.t*dims.z*dims.y : 0)
-		);
+		progressor.steps(steps(dims,axes));
 		progressor.start();
 		
-		// Transform in x-dimension if active:
-		if (axes.x) {
-			messenger.log("   FFT in x-dimension...");
-			scale *= dims.x;
-			c.reset();
-			real.axes(Axes.X);
-			imag.axes(Axes.X);
-			re = new double[dims.x];
-			im = new double[dims.x];
-			for (c.c=0; c.c<dims.c; ++c.c)
-				for (c.t=0; c.t<dims.t; ++c.t)
-					for (c.z=0; c.z<dims.z; ++c.z)
-						for (c.y=0; c.y<dims.y; ++c.y) {
-							real.get(c,re);
-							imag.get(c,im);
-							fft(re,im,sign);
-							real.set(c,re);
-							imag.set(c,im);
-							progressor.step();
-						}
-		}
-		
-		// Transform in y-dimension if active:
-		if (axes.y) {
-			messenger.log("   FFT in y-dimension...");
-			scale *= dims.y;
-			c.reset();
-			real.axes(Axes.Y);
-			imag.axes(Axes.Y);
-			re = new double[dims.y];
-			im = new double[dims.y];
-			for (c.c=0; c.c<dims.c; ++c.c)
-				for (c.t=0; c.t<dims.t; ++c.t)
-					for (c.z=0; c.z<dims.z; ++c.z)
-						for (c.x=0; c.x<dims.x; ++c.x) {
-							real.get(c,re);
-							imag.get(c,im);
-							fft(re,im,sign);
-							real.set(c,re);
-							imag.set(c,im);
-							progressor.step();
-						}
-		}
-		
-		// Transform in z-dimension if active:
-		if (axes.z) {
-			messenger.log("   FFT in z-dimension...");
-			scale *= dims.z;
-			c.reset();
-			real.axes(Axes.Z);
-			imag.axes(Axes.Z);
-			re = new double[dims.z];
-			im = new double[dims.z];
-			for (c.c=0; c.c<dims.c; ++c.c)
-				for (c.t=0; c.t<dims.t; ++c.t)
-					for (c.y=0; c.y<dims.y; ++c.y) {
-						for (c.x=0; c.x<dims.x; ++c.x) {
-							real.get(c,re);
-							imag.get(c,im);
-							fft(re,im,sign);
-							real.set(c,re);
-							imag.set(c,im);
-						}
-						progressor.step(dims.z);
-					}
-		}
-		
-		// Transform in t-dimension if active:
-		if (axes.t) {
-			messenger.log("   FFT in t-dimension...");
-			scale *= dims.t;
-			c.reset();
-			real.axes(Axes.T);
-			imag.axes(Axes.T);
-			re = new double[dims.t];
-			im = new double[dims.t];
-			for (c.c=0; c.c<dims.c; ++c.c)
-				for (c.z=0; c.z<dims.z; ++c.z)
-					for (c.y=0; c.y<dims.y; ++c.y) {
-						for (c.x=0; c.x<dims.x; ++c.x) {
-							real.get(c,re);
-							imag.get(c,im);
-							fft(re,im,sign);
-							real.set(c,re);
-							imag.set(c,im);
-						}
-						progressor.step(dims.t);
-					}
+		// Real-valued input is transformed two lines at a time in the first dimension:
+		final boolean any = axes.x || axes.y || axes.z || axes.t || axes.c;
+		boolean pairs = false;
+		if (any) {
+			final double[] extrema = imag.extrema();
+			pairs = (extrema[0] == 0 && extrema[1] == 0);
+			if (pairs) messenger.log("   Imaginary input image is zero");
 		}
 		
-		// Transform in c-dimension if active:
-		if (axes.c) {
-			messenger.log("   FFT in c-dimension...");
-			scale *= dims.c;
-			c.reset();
-			real.axes(Axes.C);
-			imag.axes(Axes.C);
-			re = new double[dims.c];
-			im = new double[dims.c];
-			for (c.t=0; c.t<dims.t; ++c.t)
-				for (c.z=0; c.z<dims.z; ++c.z)
-					for (c.y=0; c.y<dims.y; ++c.y) {
-						for (c.x=0; c.x<dims.x; ++c.x) {
-							real.get(c,re);
-							imag.get(c,im);
-							fft(re,im,sign);
-							real.set(c,re);
-							imag.set(c,im);
-						}
-						progressor.step(dims.c);
-					}
-		}
+		// Transform in each active dimension:
+		if (axes.x) { transform(real,imag,Axes.X,sign,pairs); pairs = false; scale *= dims.x; }
+		if (axes.y) { transform(real,imag,Axes.Y,sign,pairs); pairs = false; scale *= dims.y; }
+		if (axes.z) { transform(real,imag,Axes.Z,sign,pairs); pairs = false; scale *= dims.z; }
+		if (axes.t) { transform(real,imag,Axes.T,sign,pairs); pairs = false; scale *= dims.t; }
+		if (axes.c) { transform(real,imag,Axes.C,sign,pairs); pairs = false; scale *= dims.c; }
 		
 		// Scale correction in case of inverse transform:
 		if (sign == 1) {
@@ -211,62 +219,246 @@ private void check(final Image real, final Image imag, final Axes axes) {
 		final Dimensions idims = imag.dimensions();
 		
 		if (!rdims.equals(idims)) throw new IllegalStateException("Real and imaginary images have different dimensions");
-		if (axes.x && !FMath.power2(rdims.x)) throw new IllegalStateException("Real and imaginary x-size not a power of 2");
-		if (axes.y && !FMath.power2(rdims.y)) throw new IllegalStateException("Real and imaginary y-size not a power of 2");
-		if (axes.z && !FMath.power2(rdims.z)) throw new IllegalStateException("Real and imaginary z-size not a power of 2");
-		if (axes.t && !FMath.power2(rdims.t)) throw new IllegalStateException("Real and imaginary t-size not a power of 2");
-		if (axes.c && !FMath.power2(rdims.c)) throw new IllegalStateException("Real and imaginary c-size not a power of 2");
 	}
 	
-	// Modified version of the algorithm described in Numerical Recipes
-	// in C: The Art of Scientific Computing, second edition, Cambridge
-	// University Press, Cambridge, 1992, pp. 507-508.
-	private void fft(final double[] real, final double[] imag, final int sign) {
-		
-		// Bit reversal:
-		final int len = real.length;
-		final int hlen = len/2;
-		for (int i=0, j=0; i<len; ++i) {
-			if (j > i) {
-				final double rt = real[j]; real[j] = real[i]; real[i] = rt;
-				final double it = imag[j]; imag[j] = imag[i]; imag[i] = it;
+	// Transforms all lines in the given dimension. If pairs is true,
+	// the imaginary image is assumed to be zero and two real lines are
+	// transformed at once, as the real and imaginary part of one
+	// complex line, whose transform is then split using the conjugate
+	// symmetry of the transforms of real-valued lines.
+	private void transform(final Image real, final Image imag, final int axis, final int sign, final boolean pairs) {
+		
+		messenger.log("   FFT in "+name(axis)+"-dimension...");
+		final Dimensions dims = real.dimensions();
+		final int len = size(dims,axis);
+		final int lines = lines(dims,axis);
+		final FFTPlan plan = new FFTPlan(len);
+		real.axes(axis);
+		imag.axes(axis);
+		
+		if (!pairs) parallelizer.run(lines,new Parallelizer.Block() {
+			public void run(final int first, final int last) {
+				final Coordinates c = new Coordinates();
+				final double[] re = new double[len];
+				final double[] im = new double[len];
+				final double[][] work = plan.work();
+				for (int i=first; i<last; ++i) {
+					coordinates(i,dims,axis,c);
+					real.get(c,re);
+					imag.get(c,im);
+					plan.transform(re,im,sign,work);
+					real.set(c,re);
+					imag.set(c,im);
+				}
+				step(last - first);
 			}
-			int m = hlen;
-			while (m >= 2 && j >= m) { j -= m; m >>= 1; }
-			j += m;
-		}
+		});
+		
+		else parallelizer.run((lines + 1)/2,new Parallelizer.Block() {
+			public void run(final int first, final int last) {
+				final Coordinates c1 = new Coordinates();
+				final Coordinates c2 = new Coordinates();
+				final double[] zr = new double[len], zi = new double[len];
+				final double[] ar = new double[len], ai = new double[len];
+				final double[] br = new double[len], bi = new double[len];
+				final double[][] work = plan.work();
+				int done = 0;
+				for (int i=first; i<last; ++i) {
+					final boolean two = (2*i + 1 < lines);
+					coordinates(2*i,dims,axis,c1);
+					real.get(c1,zr);
+					if (two) {
+						coordinates(2*i + 1,dims,axis,c2);
+						real.get(c2,zi);
+					} else for (int k=0; k<len; ++k) zi[k] = 0;
+					plan.transform(zr,zi,sign,work);
+					split(zr,zi,ar,ai,br,bi,len);
+					real.set(c1,ar);
+					imag.set(c1,ai);
+					if (two) {
+						real.set(c2,br);
+						imag.set(c2,bi);
+					}
+					done += two ? 2 : 1;
+				}
+				step(done);
+			}
+		});
+	}
+	
+	// Transforms the lines of the real-valued image in the x-dimension
+	// two at a time and stores the non-redundant half of the results.
+	private void forward(final Image image, final Image real, final Image imag) {
+		
+		final Dimensions dims = image.dimensions();
+		final int len = dims.x;
+		final int half = len/2 + 1;
+		final int lines = lines(dims,Axes.X);
+		final FFTPlan plan = new FFTPlan(len);
+		image.axes(Axes.X);
+		real.axes(Axes.X);
+		imag.axes(Axes.X);
 		
-		// Danielson-Lanczos algorithm:
-		int N = 2, hN = 1;
-		while (N <= len) {
-			final double theta = sign*TWOPI/N;
-			double tmp = Math.sin(0.5*theta);
-			final double alpha = -2.0*tmp*tmp;
-			final double beta = Math.sin(theta);
-			double wr = 1.0;
-			double wi = 0.0;
-			for (int k=0; k<hN; ++k) {
-				for (int i=k, j=k+hN; i<len; i+=N, j+=N) {
-					final double tmpr = wr*real[j] - wi*imag[j];
-					final double tmpi = wr*imag[j] + wi*real[j];
-					real[j] = real[i] - tmpr;
-					imag[j] = imag[i] - tmpi;
-					real[i] += tmpr;
-					imag[i] += tmpi;
+		parallelizer.run((lines + 1)/2,new Parallelizer.Block() {
+			public void run(final int first, final int last) {
+				final Coordinates c1 = new Coordinates();
+				final Coordinates c2 = new Coordinates();
+				final double[] zr = new double[len], zi = new double[len];
+				final double[] ar = new double[half], ai = new double[half];
+				final double[] br = new double[half], bi = new double[half];
+				final double[][] work = plan.work();
+				for (int i=first; i<last; ++i) {
+					final boolean two = (2*i + 1 < lines);
+					coordinates(2*i,dims,Axes.X,c1);
+					image.get(c1,zr);
+					if (two) {
+						coordinates(2*i + 1,dims,Axes.X,c2);
+						image.get(c2,zi);
+					} else for (int k=0; k<len; ++k) zi[k] = 0;
+					plan.transform(zr,zi,-1,work);
+					split(zr,zi,ar,ai,br,bi,half);
+					real.set(c1,ar);
+					imag.set(c1,ai);
+					if (two) {
+						real.set(c2,br);
+						imag.set(c2,bi);
+					}
 				}
-				wr += (tmp=wr)*alpha - wi*beta;
-				wi += wi*alpha + tmp*beta;
+				step(last - first);
 			}
-			hN = N; N <<= 1;
+		});
+	}
+	
+	// Inverse of the above: the conjugate symmetric transforms of two
+	// real-valued lines are combined into one complex line, whose
+	// inverse transform contains the two lines as real and imaginary
+	// part.
+	private void inverse(final Image real, final Image imag, final Image image) {
+		
+		final Dimensions dims = image.dimensions();
+		final int len = dims.x;
+		final int half = len/2 + 1;
+		final int lines = lines(dims,Axes.X);
+		final FFTPlan plan = new FFTPlan(len);
+		image.axes(Axes.X);
+		real.axes(Axes.X);
+		imag.axes(Axes.X);
+		
+		parallelizer.run((lines + 1)/2,new Parallelizer.Block() {
+			public void run(final int first, final int last) {
+				final Coordinates c1 = new Coordinates();
+				final Coordinates c2 = new Coordinates();
+				final double[] zr = new double[len], zi = new double[len];
+				final double[] ar = new double[half], ai = new double[half];
+				final double[] br = new double[half], bi = new double[half];
+				final double[][] work = plan.work();
+				for (int i=first; i<last; ++i) {
+					final boolean two = (2*i + 1 < lines);
+					coordinates(2*i,dims,Axes.X,c1);
+					real.get(c1,ar);
+					imag.get(c1,ai);
+					if (two) {
+						coordinates(2*i + 1,dims,Axes.X,c2);
+						real.get(c2,br);
+						imag.get(c2,bi);
+					} else for (int k=0; k<half; ++k) br[k] = bi[k] = 0;
+					for (int k=0; k<half; ++k) {
+						zr[k] = ar[k] - bi[k];
+						zi[k] = ai[k] + br[k];
+					}
+					for (int k=half; k<len; ++k) {
+						final int nk = len - k;
+						zr[k] = ar[nk] + bi[nk];
+						zi[k] = br[nk] - ai[nk];
+					}
+					plan.transform(zr,zi,+1,work);
+					image.set(c1,zr);
+					if (two) image.set(c2,zi);
+				}
+				step(last - first);
+			}
+		});
+	}
+	
+	// Splits the transform z of the complex line a + i*b, with a and b
+	// real-valued, into the transforms of a and b.
+	private static void split(
+		final double[] zr, final double[] zi,
+		final double[] ar, final double[] ai,
+		final double[] br, final double[] bi,
+		final int count
+	) {
+		
+		final int len = zr.length;
+		for (int k=0; k<count; ++k) {
+			final int nk = (k == 0) ? 0 : len - k;
+			ar[k] = 0.5*(zr[k] + zr[nk]);
+			ai[k] = 0.5*(zi[k] - zi[nk]);
+			br[k] = 0.5*(zi[k] + zi[nk]);
+			bi[k] = 0.5*(zr[nk] - zr[k]);
 		}
 	}
 	
+	private void step(final int n) {
+		
+		synchronized (progressor) { progressor.step(n); }
+	}
+	
+	// Sets the coordinates of the start of the given line in the given
+	// dimension, with the other coordinates running x fastest.
+	private static void coordinates(int line, final Dimensions dims, final int axis, final Coordinates c) {
+		
+		if (axis == Axes.X) c.x = 0; else { c.x = line % dims.x; line /= dims.x; }
+		if (axis == Axes.Y) c.y = 0; else { c.y = line % dims.y; line /= dims.y; }
+		if (axis == Axes.Z) c.z = 0; else { c.z = line % dims.z; line /= dims.z; }
+		if (axis == Axes.T) c.t = 0; else { c.t = line % dims.t; line /= dims.t; }
+		if (axis == Axes.C) c.c = 0; else { c.c = line; }
+	}
+	
+	private static int size(final Dimensions dims, final int axis) {
+		
+		switch (axis) {
+			case Axes.X: return dims.x;
+			case Axes.Y: return dims.y;
+			case Axes.Z: return dims.z;
+			case Axes.T: return dims.t;
+			default: return dims.c;
+		}
+	}
+	
+	private static String name(final int axis) {
+		
+		switch (axis) {
+			case Axes.X: return "x";
+			case Axes.Y: return "y";
+			case Axes.Z: return "z";
+			case Axes.T: return "t";
+			default: return "c";
+		}
+	}
+	
+	private static int lines(final Dimensions dims, final int axis) {
+		
+		return dims.x*dims.y*dims.z*dims.t*dims.c/size(dims,axis);
+	}
+	
+	private static int steps(final Dimensions dims, final Axes axes) {
+		
+		return
+			(axes.x ? lines(dims,Axes.X) : 0) +
+			(axes.y ? lines(dims,Axes.Y) : 0) +
+			(axes.z ? lines(dims,Axes.Z) : 0) +
+			(axes.t ? lines(dims,Axes.T) : 0) +
+			(axes.c ? lines(dims,Axes.C) : 0);
+	}
+	
 	/** The object used for message displaying. */
 	public final Messenger messenger = new Messenger();
 	
 	/** The object used for progress displaying. */
 	public final Progressor progressor = new Progressor();
 	
-	private static final double TWOPI = 2*Math.PI;
+	/** The object used for distributing the computations over multiple threads. */
+	public final Parallelizer parallelizer = new Parallelizer();
 	
 }
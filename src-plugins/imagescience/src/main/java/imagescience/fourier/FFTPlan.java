@@ -0,0 +1,287 @@
+package imagescience.fourier;
+
+/** Precomputed data for the fast Fourier transform of one-dimensional complex-valued sequences of a given length. Lengths whose prime factors are all small are transformed using a self-sorting mixed-radix (Stockham) algorithm with dedicated butterflies for radix 2, 3 and 4. Other lengths are transformed using Bluestein's algorithm, which expresses the transform as a convolution that is computed using a power-of-2 transform. A plan does not change after construction and can therefore be used by multiple threads concurrently, provided that each thread uses its own work arrays obtained from {@link #work()}. */
+final class FFTPlan {
+	
+	// Largest prime factor handled by the mixed-radix algorithm:
+	private static final int MAXRADIX = 31;
+	
+	private final int n;
+	
+	// Mixed-radix data (null for Bluestein):
+	private final int[] factors;
+	private final int maxfactor;
+	private final double[] cos, sin;
+	
+	// Bluestein data (null for mixed-radix):
+	private final FFTPlan conv;
+	private final double[] chirpr, chirpi;
+	private final double[][] kernelr, kerneli;
+	
+	FFTPlan(final int n) {
+		
+		if (n < 1) throw new IllegalArgumentException("Length less than 1");
+		this.n = n;
+		final int[] f = factorize(n);
+		int max = 1;
+		for (int i=0; i<f.length; ++i) if (f[i] > max) max = f[i];
+		
+		if (max <= MAXRADIX) {
+			factors = f;
+			maxfactor = max;
+			cos = new double[n];
+			sin = new double[n];
+			for (int k=0; k<n; ++k) {
+				final double a = TWOPI*k/n;
+				cos[k] = Math.cos(a);
+				sin[k] = Math.sin(a);
+			}
+			conv = null;
+			chirpr = chirpi = null;
+			kernelr = kerneli = null;
+			
+		} else {
+			factors = null;
+			maxfactor = 0;
+			cos = sin = null;
+			int m = 1; while (m < 2*n - 1) m <<= 1;
+			conv = new FFTPlan(m);
+			
+			// Chirp exp(i*pi*k^2/n), with the exponent reduced modulo 2n for accuracy:
+			chirpr = new double[n];
+			chirpi = new double[n];
+			final long n2 = 2L*n;
+			for (int k=0; k<n; ++k) {
+				final double a = Math.PI*(((long)k*k) % n2)/n;
+				chirpr[k] = Math.cos(a);
+				chirpi[k] = Math.sin(a);
+			}
+			
+			// Spectra of the convolution kernels for both transform directions:
+			kernelr = new double[2][];
+			kerneli = new double[2][];
+			final double[][] work = conv.work();
+			for (int d=0; d<2; ++d) {
+				final int sign = (d == 0) ? -1 : 1;
+				final double[] kr = new double[m];
+				final double[] ki = new double[m];
+				kr[0] = chirpr[0]; ki[0] = -sign*chirpi[0];
+				for (int k=1; k<n; ++k) {
+					kr[k] = kr[m-k] = chirpr[k];
+					ki[k] = ki[m-k] = -sign*chirpi[k];
+				}
+				conv.transform(kr,ki,-1,work,0);
+				kernelr[d] = kr;
+				kerneli[d] = ki;
+			}
+		}
+	}
+	
+	/** Returns the length of the sequences transformed by this plan. */
+	int length() { return n; }
+	
+	/** Returns a new set of work arrays for use with {@link #transform(double[],double[],int,double[][])}. */
+	double[][] work() {
+		
+		if (factors != null) {
+			return new double[][] {
+				new double[n], new double[n],
+				new double[maxfactor], new double[maxfactor],
+				new double[maxfactor], new double[maxfactor]
+			};
+		}
+		final int m = conv.length();
+		final double[][] cw = conv.work();
+		final double[][] work = new double[2 + cw.length][];
+		work[0] = new double[m];
+		work[1] = new double[m];
+		System.arraycopy(cw,0,work,2,cw.length);
+		return work;
+	}
+	
+	/** Transforms the given complex-valued sequence in place. The transform is not normalized.
+		
+		@param real the real part of the sequence.
+		
+		@param imag the imaginary part of the sequence.
+		
+		@param sign the sign of the exponent: {@code -1} for the forward and {@code +1} for the inverse transform.
+		
+		@param work work arrays obtained from {@link #work()}.
+	*/
+	void transform(final double[] real, final double[] imag, final int sign, final double[][] work) {
+		
+		transform(real,imag,sign,work,0);
+	}
+	
+	private void transform(final double[] real, final double[] imag, final int sign, final double[][] work, final int offset) {
+		
+		if (n == 1) return;
+		if (factors != null) stockham(real,imag,sign,work,offset);
+		else bluestein(real,imag,sign,work,offset);
+	}
+	
+	private void stockham(final double[] real, final double[] imag, final int sign, final double[][] work, final int offset) {
+		
+		double[] xr = real, xi = imag;
+		double[] yr = work[offset], yi = work[offset+1];
+		final double[] ar = work[offset+2], ai = work[offset+3];
+		final double[] br = work[offset+4], bi = work[offset+5];
+		
+		// Each stage splits sequences of length len into p interleaved
+		// subsequences of length m, which are stored with stride s:
+		int s = 1, len = n;
+		for (int f=0; f<factors.length; ++f) {
+			final int p = factors[f];
+			final int m = len/p;
+			switch (p) {
+				case 2: {
+					for (int j=0; j<m; ++j) {
+						final double w1r = cos[j*s], w1i = sign*sin[j*s];
+						for (int k=0; k<s; ++k) {
+							final int i0 = k + s*j, i1 = i0 + s*m;
+							final int o0 = k + s*2*j, o1 = o0 + s;
+							final double a0r = xr[i0], a0i = xi[i0];
+							final double a1r = xr[i1], a1i = xi[i1];
+							yr[o0] = a0r + a1r; yi[o0] = a0i + a1i;
+							final double dr = a0r - a1r, di = a0i - a1i;
+							yr[o1] = dr*w1r - di*w1i; yi[o1] = dr*w1i + di*w1r;
+						}
+					}
+					break;
+				}
+				case 3: {
+					final double h = sign*SQRT3H;
+					for (int j=0; j<m; ++j) {
+						final double w1r = cos[j*s], w1i = sign*sin[j*s];
+						final double w2r = cos[2*j*s], w2i = sign*sin[2*j*s];
+						for (int k=0; k<s; ++k) {
+							final int i0 = k + s*j, i1 = i0 + s*m, i2 = i1 + s*m;
+							final int o0 = k + s*3*j, o1 = o0 + s, o2 = o1 + s;
+							final double a0r = xr[i0], a0i = xi[i0];
+							final double tr = xr[i1] + xr[i2], ti = xi[i1] + xi[i2];
+							final double dr = xr[i1] - xr[i2], di = xi[i1] - xi[i2];
+							yr[o0] = a0r + tr; yi[o0] = a0i + ti;
+							final double cr = a0r - 0.5*tr, ci = a0i - 0.5*ti;
+							final double b1r = cr - h*di, b1i = ci + h*dr;
+							final double b2r = cr + h*di, b2i = ci - h*dr;
+							yr[o1] = b1r*w1r - b1i*w1i; yi[o1] = b1r*w1i + b1i*w1r;
+							yr[o2] = b2r*w2r - b2i*w2i; yi[o2] = b2r*w2i + b2i*w2r;
+						}
+					}
+					break;
+				}
+				case 4: {
+					for (int j=0; j<m; ++j) {
+						final double w1r = cos[j*s], w1i = sign*sin[j*s];
+						final double w2r = cos[2*j*s], w2i = sign*sin[2*j*s];
+						final double w3r = cos[3*j*s], w3i = sign*sin[3*j*s];
+						for (int k=0; k<s; ++k) {
+							final int i0 = k + s*j, i1 = i0 + s*m, i2 = i1 + s*m, i3 = i2 + s*m;
+							final int o0 = k + s*4*j, o1 = o0 + s, o2 = o1 + s, o3 = o2 + s;
+							final double t0r = xr[i0] + xr[i2], t0i = xi[i0] + xi[i2];
+							final double t1r = xr[i0] - xr[i2], t1i = xi[i0] - xi[i2];
+							final double t2r = xr[i1] + xr[i3], t2i = xi[i1] + xi[i3];
+							final double t3r = xr[i1] - xr[i3], t3i = xi[i1] - xi[i3];
+							yr[o0] = t0r + t2r; yi[o0] = t0i + t2i;
+							final double b1r = t1r - sign*t3i, b1i = t1i + sign*t3r;
+							final double b2r = t0r - t2r, b2i = t0i - t2i;
+							final double b3r = t1r + sign*t3i, b3i = t1i - sign*t3r;
+							yr[o1] = b1r*w1r - b1i*w1i; yi[o1] = b1r*w1i + b1i*w1r;
+							yr[o2] = b2r*w2r - b2i*w2i; yi[o2] = b2r*w2i + b2i*w2r;
+							yr[o3] = b3r*w3r - b3i*w3i; yi[o3] = b3r*w3i + b3i*w3r;
+						}
+					}
+					break;
+				}
+				default: {
+					final int np = n/p;
+					for (int j=0; j<m; ++j) {
+						for (int k=0; k<s; ++k) {
+							for (int u=0, i=k+s*j; u<p; ++u, i+=s*m) { ar[u] = xr[i]; ai[u] = xi[i]; }
+							for (int v=0; v<p; ++v) {
+								double sr = 0, si = 0;
+								for (int u=0, e=0; u<p; ++u, e+=v) {
+									if (e >= p) e -= p;
+									final double wr = cos[e*np], wi = sign*sin[e*np];
+									sr += ar[u]*wr - ai[u]*wi;
+									si += ar[u]*wi + ai[u]*wr;
+								}
+								br[v] = sr; bi[v] = si;
+							}
+							final int o = k + s*p*j;
+							yr[o] = br[0]; yi[o] = bi[0];
+							for (int v=1; v<p; ++v) {
+								final int t = j*v*s;
+								final double wr = cos[t], wi = sign*sin[t];
+								yr[o+v*s] = br[v]*wr - bi[v]*wi;
+								yi[o+v*s] = br[v]*wi + bi[v]*wr;
+							}
+						}
+					}
+					break;
+				}
+			}
+			double[] tmp = xr; xr = yr; yr = tmp;
+			tmp = xi; xi = yi; yi = tmp;
+			s *= p; len = m;
+		}
+		
+		if (xr != real) {
+			System.arraycopy(xr,0,real,0,n);
+			System.arraycopy(xi,0,imag,0,n);
+		}
+	}
+	
+	private void bluestein(final double[] real, final double[] imag, final int sign, final double[][] work, final int offset) {
+		
+		final int m = conv.length();
+		final double[] ar = work[offset], ai = work[offset+1];
+		
+		// Multiply with the chirp and zero-pad:
+		for (int k=0; k<n; ++k) {
+			final double cr = chirpr[k], ci = sign*chirpi[k];
+			ar[k] = real[k]*cr - imag[k]*ci;
+			ai[k] = real[k]*ci + imag[k]*cr;
+		}
+		for (int k=n; k<m; ++k) ar[k] = ai[k] = 0;
+		
+		// Convolve with the conjugate chirp:
+		conv.transform(ar,ai,-1,work,offset+2);
+		final double[] kr = kernelr[(sign < 0) ? 0 : 1];
+		final double[] ki = kerneli[(sign < 0) ? 0 : 1];
+		for (int k=0; k<m; ++k) {
+			final double r = ar[k]*kr[k] - ai[k]*ki[k];
+			ai[k] = ar[k]*ki[k] + ai[k]*kr[k];
+			ar[k] = r;
+		}
+		conv.transform(ar,ai,1,work,offset+2);
+		
+		// Multiply with the chirp and normalize the convolution:
+		for (int k=0; k<n; ++k) {
+			final double cr = chirpr[k]/m, ci = sign*chirpi[k]/m;
+			real[k] = ar[k]*cr - ai[k]*ci;
+			imag[k] = ar[k]*ci + ai[k]*cr;
+		}
+	}
+	
+	// Factors 4 first, then the remaining primes in increasing order:
+	private static int[] factorize(int n) {
+		
+		final int[] f = new int[32];
+		int count = 0;
+		while (n % 4 == 0) { f[count++] = 4; n /= 4; }
+		if (n % 2 == 0) { f[count++] = 2; n /= 2; }
+		for (int p=3; p*p<=n; p+=2)
+			while (n % p == 0) { f[count++] = p; n /= p; }
+		if (n > 1) f[count++] = n;
+		final int[] factors = new int[count];
+		System.arraycopy(f,0,factors,0,count);
+		return factors;
+	}
+	
+	private static final double TWOPI = 2*Math.PI;
+	
+	private static final double SQRT3H = Math.sqrt(3)/2;
+	
+}
@@ -22,6 +22,13 @@ public FloatImage(final Dimensions dims) {
 		elements = new float[dims.c][dims.t][dims.z][dims.y*dims.x];
 	}
 	
+	// For subclasses that store the image elements elsewhere and override all methods accessing them:
+	FloatImage(final Dimensions dims, final boolean allocate) {
+		
+		super(dims.duplicate());
+		elements = allocate ? new float[dims.c][dims.t][dims.z][dims.y*dims.x] : null;
+	}
+	
 	/** Wrapper constructor.
 		
 		@param imageplus the {@code ImagePlus} object whose image data is to be wrapped. The actual image data is not copied but shared.
@@ -0,0 +1,1834 @@
+package imagescience.image;
+
+import ij.ImagePlus;
+import ij.VirtualStack;
+import ij.measure.Calibration;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+
+/** An image containing up to 5D elements of type {@code float} that are stored outside the Java heap. Each x-y slice is kept in a separate buffer, which is a view of either a memory-mapped region of a file or a direct buffer, each region holding many slices. Images backed by a file can be much larger than the available physical memory, since the operating system pages the data in and out as needed. Because this class extends {@link FloatImage}, its instances are accepted wherever a {@code FloatImage} is expected, and images created by {@link Image#create(Dimensions,String)} with the {@link #type()} of an instance are again memory-mapped images. Hence transforms such as {@link imagescience.transform.Affine} and {@link imagescience.transform.Rotate} stream their output to disk when given a memory-mapped input image. The elements can be accessed concurrently by multiple threads, provided that the threads access disjoint elements. Conversion of double-precision floating-point numbers in the {@code set} methods is done simply by casting. */
+public class MappedFloatImage extends FloatImage {
+	
+	final FloatBuffer[][][] buffers;
+	
+	/** Dimensions constructor. The image elements are stored in a temporary file, which is deleted as soon as it has been mapped into memory. On systems that do not allow deleting mapped files, the file is deleted when the virtual machine terminates.
+		
+		@param dims the dimensions of the new image.
+		
+		@exception NullPointerException if {@code dims} is {@code null}.
+		
+		@exception UnknownError if the temporary file could not be created or mapped into memory.
+	*/
+	public MappedFloatImage(final Dimensions dims) {
+		
+		super(dims,false);
+		File file = null;
+		try {
+			file = File.createTempFile("imagescience",".raw");
+			buffers = buffers(dims,file);
+		} catch (IOException e) {
+			throw new UnknownError("Could not create new image");
+		} finally {
+			if (file != null && !file.delete()) file.deleteOnExit();
+		}
+	}
+	
+	/** File constructor.
+		
+		@param dims the dimensions of the new image.
+		
+		@param file the file in which the image elements are to be stored. The elements are stored as consecutive x-y slices of {@code float} values in native byte order, with the slices ordered as in an ImageJ hyperstack (channels varying fastest, then slices, then frames). If the file already exists, its contents are used as the initial element values, so that existing raw data can be processed without reading it into the Java heap. The file is extended if necessary, and is not deleted by this class. If {@code null}, the elements are stored in direct buffers rather than in a file.
+		
+		@exception IllegalArgumentException if {@code file} could not be opened or mapped into memory.
+		
+		@exception NullPointerException if {@code dims} is {@code null}.
+	*/
+	public MappedFloatImage(final Dimensions dims, final File file) {
+		
+		super(dims,false);
+		try { buffers = buffers(dims,file); }
+		catch (IOException e) { throw new IllegalArgumentException("Could not map file"); }
+	}
+	
+	/** Copy constructor. The image elements of the new image are stored in a temporary file, as with the dimensions constructor.
+		
+		@param image the image to copy from. Image element values are copied using a {@code get} method of the given image and the corresponding {@code set} method of this image. This enables copying from images that are of different type than this image. Be aware, however, of the value conversion rules of the respective methods when copying from images that are not of the same type as this image.
+		
+		@exception NullPointerException if {@code image} is {@code null}.
+		
+		@exception UnknownError if the temporary file could not be created or mapped into memory.
+	*/
+	public MappedFloatImage(final Image image) {
+		
+		this(image,new Borders());
+	}
+	
+	/** Copy constructor that allows adding borders. Creates a new image whose size in each dimension is equal to that of the given image plus twice the given border size in that dimension. The image elements of the new image are stored in a temporary file, as with the dimensions constructor.
+		
+		@param image the image to copy from. Image element values are copied using a {@code get} method of the given image and the corresponding {@code set} method of this image, taking into account the new border sizes. This enables copying from images that are of a different type than this image. Be aware, however, of the value conversion rules of the respective methods when copying from images that are not of the same type as this image.
+		
+		@param borders specifies the border size in each dimension of the new image.
+		
+		@exception NullPointerException if any of the parameters is {@code null}.
+		
+		@exception UnknownError if the temporary file could not be created or mapped into memory.
+	*/
+	public MappedFloatImage(final Image image, final Borders borders) {
+		
+		this(
+			new Dimensions(
+				image.dimensions().x + 2*borders.x,
+				image.dimensions().y + 2*borders.y,
+				image.dimensions().z + 2*borders.z,
+				image.dimensions().t + 2*borders.t,
+				image.dimensions().c + 2*borders.c
+			)
+		);
+		aspects = image.aspects().duplicate();
+		name = new String(image.name);
+		
+		final Dimensions idims = image.dimensions();
+		final Coordinates ic = new Coordinates();
+		final Coordinates c = new Coordinates();
+		final double[] v = new double[idims.x];
+		final int iorgaxes = image.axes;
+		image.axes = axes = Axes.X;
+		c.x = borders.x;
+		for (ic.c=0, c.c=borders.c; ic.c<idims.c; ++ic.c, ++c.c)
+			for (ic.t=0, c.t=borders.t; ic.t<idims.t; ++ic.t, ++c.t)
+				for (ic.z=0, c.z=borders.z; ic.z<idims.z; ++ic.z, ++c.z)
+					for (ic.y=0, c.y=borders.y; ic.y<idims.y; ++ic.y, ++c.y) {
+						image.get(ic,v);
+						set(c,v);
+					}
+		image.axes = axes = iorgaxes;
+	}
+	
+	/** The maximum size in bytes of a single mapped region or direct buffer. Each region holds as many whole x-y slices as fit, so that large images do not need one memory mapping per slice. */
+	private static final int REGION_BYTES = 1 << 30;
+	
+	/** The approximate number of heap bytes taken by the buffer object of one x-y slice. */
+	private static final int SLICE_OVERHEAD = 64;
+	
+	private static FloatBuffer[][][] buffers(final Dimensions dims, final File file) throws IOException {
+		
+		final FloatBuffer[][][] buffers = new FloatBuffer[dims.c][dims.t][dims.z];
+		final int bytes = 4*dims.x*dims.y;
+		final int perregion = Math.max(1,REGION_BYTES/Math.max(1,bytes));
+		final int slices = dims.c*dims.t*dims.z;
+		// The mapped regions remain valid after the file has been closed:
+		final RandomAccessFile raf = (file == null) ? null : new RandomAccessFile(file,"rw");
+		try {
+			final FileChannel channel = (raf == null) ? null : raf.getChannel();
+			ByteBuffer region = null;
+			int index = 0;
+			for (int t=0; t<dims.t; ++t)
+				for (int z=0; z<dims.z; ++z)
+					for (int c=0; c<dims.c; ++c, ++index) {
+						final int offset = index % perregion;
+						if (offset == 0) {
+							final int size = bytes*Math.min(perregion,slices-index);
+							if (channel == null) region = ByteBuffer.allocateDirect(size);
+							else region = channel.map(FileChannel.MapMode.READ_WRITE,(long)index*bytes,size);
+						}
+						final ByteBuffer slice = region.duplicate();
+						slice.limit((offset+1)*bytes).position(offset*bytes);
+						buffers[c][t][z] = slice.slice().order(ByteOrder.nativeOrder()).asFloatBuffer();
+					}
+		} finally {
+			if (raf != null) raf.close();
+		}
+		return buffers;
+	}
+	
+	/** Returns the amount of Java heap memory occupied by the image. Since the image elements are stored outside the Java heap, this is only an estimate of the size of the buffer objects referring to them.
+		
+		@return the approximate amount of heap memory occupied by the image, in bytes.
+	*/
+	public int memory() { return SLICE_OVERHEAD*dims.c*dims.t*dims.z; }
+	
+	public Image border(final Borders borders) {
+		
+		return new MappedFloatImage(this,borders);
+	}
+	
+	/** Returns this image in the form of an {@code ImagePlus} object.
+		
+		@return a new {@code ImagePlus} object whose stack is a virtual stack backed by this image. The image data is not copied: each slice requested from the stack is read from this image on demand, and pixel arrays passed to the {@code setPixels} method of the stack are written back into this image. Since the stack does not provide an array of all slices, the returned object cannot be wrapped again by {@link Image#wrap(ImagePlus)}.
+	*/
+	public ImagePlus imageplus() {
+		
+		final Calibration cal = new Calibration();
+		cal.pixelWidth = aspects.x;
+		cal.pixelHeight = aspects.y;
+		cal.pixelDepth = aspects.z;
+		cal.frameInterval = aspects.t;
+		
+		ImagePlus imageplus = new ImagePlus(name,new MappedStack(this));
+		imageplus.setDimensions(dims.c,dims.z,dims.t);
+		imageplus.setCalibration(cal);
+		final double[] evals = extrema();
+		imageplus.setDisplayRange(evals[0],evals[1]);
+		
+		return imageplus;
+	}
+	
+	private static class MappedStack extends VirtualStack {
+		
+		private final MappedFloatImage image;
+		
+		MappedStack(final MappedFloatImage image) {
+			
+			super(image.dims.x,image.dims.y,null,null);
+			this.image = image;
+		}
+		
+		public int getSize() { return image.dims.c*image.dims.z*image.dims.t; }
+		
+		public String getSliceLabel(final int n) { return null; }
+		
+		public Object getPixels(final int n) {
+			
+			final float[] pixels = new float[image.dims.x*image.dims.y];
+			buffer(n).get(pixels);
+			return pixels;
+		}
+		
+		public void setPixels(final Object pixels, final int n) {
+			
+			buffer(n).put((float[])pixels);
+		}
+		
+		public ImageProcessor getProcessor(final int n) {
+			
+			return new FloatProcessor(image.dims.x,image.dims.y,(float[])getPixels(n),null);
+		}
+		
+		// A duplicate, so that concurrent requests do not interfere through the buffer position:
+		private FloatBuffer buffer(final int n) {
+			
+			if (n < 1 || n > getSize()) throw new IllegalArgumentException("Argument out of range: "+n);
+			final int i = n - 1;
+			final int c = i % image.dims.c;
+			final int z = (i/image.dims.c) % image.dims.z;
+			final int t = i/(image.dims.c*image.dims.z);
+			return image.buffers[c][t][z].duplicate();
+		}
+	}
+	
+	public String type() { return "imagescience.image.MappedFloatImage"; }
+	
+	public Image duplicate() {
+		
+		final MappedFloatImage dupimg = new MappedFloatImage(dims);
+		dupimg.aspects = aspects.duplicate();
+		dupimg.name = new String(name);
+		dupimg.axes = axes;
+		
+		for (int c=0; c<dims.c; ++c)
+			for (int t=0; t<dims.t; ++t)
+				for (int z=0; z<dims.z; ++z)
+					dupimg.buffers[c][t][z].duplicate().put(buffers[c][t][z].duplicate());
+		
+		return dupimg;
+	}
+	
+	public double get(final Coordinates coords) {
+		
+		return buffers[coords.c][coords.t][coords.z].get(dims.x*coords.y + coords.x);
+	}
+	
+	public void get(final Coordinates coords, final double[] values) {
+		
+		switch (axes) {
+			case Axes.X: {
+				int vxstart = 0;
+				int exstart = coords.x;
+				if (exstart < 0) { exstart = 0; vxstart = -coords.x; }
+				int exstop = coords.x + values.length;
+				if (exstop > dims.x) exstop = dims.x;
+				final FloatBuffer elms = buffers[coords.c][coords.t][coords.z];
+				for (int x=exstart, ex=coords.y*dims.x+exstart, vx=vxstart; x<exstop; ++x, ++ex, ++vx)
+					values[vx] = elms.get(ex);
+				break;
+			}
+			case Axes.Y: {
+				int vystart = 0;
+				int eystart = coords.y;
+				if (eystart < 0) { eystart = 0; vystart = -coords.y; }
+				int eystop = coords.y + values.length;
+				if (eystop > dims.y) eystop = dims.y;
+				final FloatBuffer elms = buffers[coords.c][coords.t][coords.z];
+				for (int y=eystart, ey=eystart*dims.x+coords.x, vy=vystart; y<eystop; ++y, ey+=dims.x, ++vy)
+					values[vy] = elms.get(ey);
+				break;
+			}
+			case Axes.Z: {
+				int vzstart = 0;
+				int ezstart = coords.z;
+				if (ezstart < 0) { ezstart = 0; vzstart = -coords.z; }
+				int ezstop = coords.z + values.length;
+				if (ezstop > dims.z) ezstop = dims.z;
+				final int exy = coords.y*dims.x + coords.x;
+				final FloatBuffer[] elms = buffers[coords.c][coords.t];
+				for (int ez=ezstart, vz=vzstart; ez<ezstop; ++ez, ++vz)
+					values[vz] = elms[ez].get(exy);
+				break;
+			}
+			case Axes.T: {
+				int vtstart = 0;
+				int etstart = coords.t;
+				if (etstart < 0) { etstart = 0; vtstart = -coords.t; }
+				int etstop = coords.t + values.length;
+				if (etstop > dims.t) etstop = dims.t;
+				final int exy = coords.y*dims.x + coords.x;
+				for (int et=etstart, vt=vtstart; et<etstop; ++et, ++vt)
+					values[vt] = buffers[coords.c][et][coords.z].get(exy);
+				break;
+			}
+			case Axes.C: {
+				int vcstart = 0;
+				int ecstart = coords.c;
+				if (ecstart < 0) { ecstart = 0; vcstart = -coords.c; }
+				int ecstop = coords.c + values.length;
+				if (ecstop > dims.c) ecstop = dims.c;
+				final int exy = coords.y*dims.x + coords.x;
+				for (int ec=ecstart, vc=vcstart; ec<ecstop; ++ec, ++vc)
+					values[vc] = buffers[ec][coords.t][coords.z].get(exy);
+				break;
+			}
+			default:
+				throw new IllegalStateException("Wrong number of active axes");
+		}
+	}
+	
+	public void get(final Coordinates coords, final double[][] values) {
+		
+		switch (axes) {
+			case Axes.YX: {
+				int vxstart = 0;
+				int vystart = 0;
+				int exstart = coords.x;
+				int eystart = coords.y;
+				if (exstart < 0) { exstart = 0; vxstart = -coords.x; }
+				if (eystart < 0) { eystart = 0; vystart = -coords.y; }
+				int exstop = coords.x + values[0].length;
+				int eystop = coords.y + values.length;
+				if (exstop > dims.x) exstop = dims.x;
+				if (eystop > dims.y) eystop = dims.y;
+				final FloatBuffer elms = buffers[coords.c][coords.t][coords.z];
+				for (int y=eystart, ey=eystart*dims.x+exstart, vy=vystart; y<eystop; ++y, ey+=dims.x, ++vy)
+					for (int x=exstart, ex=ey, vx=vxstart; x<exstop; ++x, ++ex, ++vx)
+						values[vy][vx] = elms.get(ex);
+				break;
+			}
+			case Axes.ZX: {
+				int vxstart = 0;
+				int vzstart = 0;
+				int exstart = coords.x;
+				int ezstart = coords.z;
+				if (exstart < 0) { exstart = 0; vxstart = -coords.x; }
+				if (ezstart < 0) { ezstart = 0; vzstart = -coords.z; }
+				int exstop = coords.x + values[0].length;
+				int ezstop = coords.z + values.length;
+				if (exstop > dims.x) exstop = dims.x;
+				if (ezstop > dims.z) ezstop = dims.z;
+				final int exy = coords.y*dims.x + exstart;
+				final FloatBuffer[] elms = buffers[coords.c][coords.t];
+				for (int ez=ezstart, vz=vzstart; ez<ezstop; ++ez, ++vz)
+					for (int x=exstart, ex=exy, vx=vxstart; x<exstop; ++x, ++ex, ++vx)
+						values[vz][vx] = elms[ez].get(ex);
+				break;
+			}
+			case Axes.ZY: {
+				int vystart = 0;
+				int vzstart = 0;
+				int eystart = coords.y;
+				int ezstart = coords.z;
+				if (eystart < 0) { eystart = 0; vystart = -coords.y; }
+				if (ezstart < 0) { ezstart = 0; vzstart = -coords.z; }
+				int eystop = coords.y + values[0].length;
+				int ezstop = coords.z + values.length;
+				if (eystop > dims.y) eystop = dims.y;
+				if (ezstop > dims.z) ezstop = dims.z;
+				final int exy = eystart*dims.x + coords.x;
+				final FloatBuffer[] elms = buffers[coords.c][coords.t];
+				for (int ez=ezstart, vz=vzstart; ez<ezstop; ++ez, ++vz)
+					for (int y=eystart, ey=exy, vy=vystart; y<eystop; ++y, ey+=dims.x, ++vy)
+						values[vz][vy] = elms[ez].get(ey);
+				break;
+			}
+			case Axes.TX: {
+				int vxstart = 0;
+				int vtstart = 0;
+				int exstart = coords.x;
+				int etstart = coords.t;
+				if (exstart < 0) { exstart = 0; vxstart = -coords.x; }
+				if (etstart < 0) { etstart = 0; vtstart = -coords.t; }
+				int exstop = coords.x + values[0].length;
+				int etstop = coords.t + values.length;
+				if (exstop > dims.x) exstop = dims.x;
+				if (etstop > dims.t) etstop = dims.t;
+				final int exy = coords.y*dims.x + exstart;
+				for (int et=etstart, vt=vtstart; et<etstop; ++et, ++vt)
+					for (int x=exstart, ex=exy, vx=vxstart; x<exstop; ++x, ++ex, ++vx)
+						values[vt][vx] = buffers[coords.c][et][coords.z].get(ex);
+				break;
+			}
+			case Axes.TY: {
+				int vystart = 0;
+				int vtstart = 0;
+				int eystart = coords.y;
+				int etstart = coords.t;
+				if (eystart < 0) { eystart = 0; vystart = -coords.y; }
+				if (etstart < 0) { etstart = 0; vtstart = -coords.t; }
+				int eystop = coords.y + values[0].length;
+				int etstop = coords.t + values.length;
+				if (eystop > dims.y) eystop = dims.y;
+				if (etstop > dims.t) etstop = dims.t;
+				final int exy = eystart*dims.x + coords.x;
+				for (int et=etstart, vt=vtstart; et<etstop; ++et, ++vt)
+					for (int y=eystart, ey=exy, vy=vystart; y<eystop; ++y, ey+=dims.x, ++vy)
+						values[vt][vy] = buffers[coords.c][et][coords.z].get(ey);
+				break;
+			}
+			case Axes.TZ: {
+				int vzstart = 0;
+				int vtstart = 0;
+				int ezstart = coords.z;
+				int etstart = coords.t;
+				if (ezstart < 0) { ezstart = 0; vzstart = -coords.z; }
+				if (etstart < 0) { etstart = 0; vtstart = -coords.t; }
+				int ezstop = coords.z + values[0].length;
+				int etstop = coords.t + values.length;
+				if (ezstop > dims.z) ezstop = dims.z;
+				if (etstop > dims.t) etstop = dims.t;
+				final int exy = coords.y*dims.x + coords.x;
+				for (int et=etstart, vt=vtstart; et<etstop; ++et, ++vt)
+					for (int ez=ezstart, vz=vzstart; ez<ezstop; ++ez, ++vz)
+						values[vt][vz] = buffers[coords.c][et][ez].get(exy);
+				break;
+			}
+			case Axes.CX: {
+				int vxstart = 0;
+				int vcstart = 0;
+				int exstart = coords.x;
+				int ecstart = coords.c;
+				if (exstart < 0) { exstart = 0; vxstart = -coords.x; }
+				if (ecstart < 0) { ecstart = 0; vcstart = -coords.c; }
+				int exstop = coords.x + values[0].length;
+				int ecstop = coords.c + values.length;
+				if (exstop > dims.x) exstop = dims.x;
+				if (ecstop > dims.c) ecstop = dims.c;
+				final int exy = coords.y*dims.x + exstart;
+				for (int ec=ecstart, vc=vcstart; ec<ecstop; ++ec, ++vc)
+					for (int x=exstart, ex=exy, vx=vxstart; x<exstop; ++x, ++ex, ++vx)
+						values[vc][vx] = buffers[ec][coords.t][coords.z].get(ex);
+				break;
+			}
+			case Axes.CY: {
+				int vystart = 0;
+				int vcstart = 0;
+				int eystart = coords.y;
+				int ecstart = coords.c;
+				if (eystart < 0) { eystart = 0; vystart = -coords.y; }
+				if (ecstart < 0) { ecstart = 0; vcstart = -coords.c; }
+				int eystop = coords.y + values[0].length;
+				int ecstop = coords.c + values.length;
+				if (eystop > dims.y) eystop = dims.y;
+				if (ecstop > dims.c) ecstop = dims.c;
+				final int exy = eystart*dims.x + coords.x;
+				for (int ec=ecstart, vc=vcstart; ec<ecstop; ++ec, ++vc)
+					for (int y=eystart, ey=exy, vy=vystart; y<eystop; ++y, ey+=dims.x, ++vy)
+						values[vc][vy] = buffers[ec][coords.t][coords.z].get(ey);
+				break;
+			}
+			case Axes.CZ: {
+				int vzstart = 0;
+				int vcstart = 0;
+				int ezstart = coords.z;
+				int ecstart = coords.c;
+				if (ezstart < 0) { ezstart = 0; vzstart = -coords.z; }
+				if (ecstart < 0) { ecstart = 0; vcstart = -coords.c; }
+				int ezstop = coords.z + values[0].length;
+				int ecstop = coords.c + values.length;
+				if (ezstop > dims.z) ezstop = dims.z;
+				if (ecstop > dims.c) ecstop = dims.c;
+				final int exy = coords.y*dims.x + coords.x;
+				for (int ec=ecstart, vc=vcstart; ec<ecstop; ++ec, ++vc)
+					for (int ez=ezstart, vz=vzstart; ez<ezstop; ++ez, ++vz)
+						values[vc][vz] = buffers[ec][coords.t][ez].get(exy);
+				break;
+			}
+			case Axes.CT: {
+				int vtstart = 0;
+				int vcstart = 0;
+				int etstart = coords.t;
+				int ecstart = coords.c;
+				if (etstart < 0) { etstart = 0; vtstart = -coords.t; }
+				if (ecstart < 0) { ecstart = 0; vcstart = -coords.c; }
+				int etstop = coords.t + values[0].length;
+				int ecstop = coords.c + values.length;
+				if (etstop > dims.t) etstop = dims.t;
+				if (ecstop > dims.c) ecstop = dims.c;
+				final int exy = coords.y*dims.x + coords.x;
+				for (int ec=ecstart, vc=vcstart; ec<ecstop; ++ec, ++vc)
+					for (int et=etstart, vt=vtstart; et<etstop; ++et, ++vt)
+						values[vc][vt] = buffers[ec][et][coords.z].get(exy);
+				break;
+			}
+			default:
+				throw new IllegalStateException("Wrong number of active axes");
+		}
+	}
+	
+	public void get(final Coordinates coords, final double[][][] values) {
+		
+		switch (axes) {
+			case Axes.ZYX: {
+				int vxstart = 0;
+				int vystart = 0;
+				int vzstart = 0;
+				int exstart = coords.x;
+				int eystart = coords.y;
+				int ezstart = coords.z;
+				if (exstart < 0) { exstart = 0; vxstart = -coords.x; }
+				if (eystart < 0) { eystart = 0; vystart = -coords.y; }
+				if (ezstart < 0) { ezstart = 0; vzstart = -coords.z; }
+				int exstop = coords.x + values[0][0].length;
+				int eystop = coords.y + values[0].length;
+				int ezstop = coords.z + values.length;
+				if (exstop > dims.x) exstop = dims.x;
+				if (eystop > dims.y) eystop = dims.y;
+				if (ezstop > dims.z) ezstop = dims.z;
+				final int exy = eystart*dims.x + exstart;
+				for (int ez=ezstart, vz=vzstart; ez<ezstop; ++ez, ++vz)
+					for (int y=eystart, ey=exy, vy=vystart; y<eystop; ++y, ey+=dims.x, ++vy)
+						for (int x=exstart, ex=ey, vx=vxstart; x<exstop; ++x, ++ex, ++vx)
+							values[vz][vy][vx] = buffers[coords.c][coords.t][ez].get(ex);
+				break;
+			}
+			case Axes.TYX: {
+				int vxstart = 0;
+				int vystart = 0;
+				int vtstart = 0;
+				int exstart = coords.x;
+				int eystart = coords.y;
+				int etstart = coords.t;
+				if (exstart < 0) { exstart = 0; vxstart = -coords.x; }
+				if (eystart < 0) { eystart = 0; vystart = -coords.y; }
+				if (etstart < 0) { etstart = 0; vtstart = -coords.t; }
+				int exstop = coords.x + values[0][0].length;
+				int eystop = coords.y + values[0].length;
+				int etstop = coords.t + values.length;
+				if (exstop > dims.x) exstop = dims.x;
+				if (eystop > dims.y) eystop = dims.y;
+				if (etstop > dims.t) etstop = dims.t;
+				final int exy = eystart*dims.x + exstart;
+				for (int et=etstart, vt=vtstart; et<etstop; ++et, ++vt)
+					for (int y=eystart, ey=exy, vy=vystart; y<eystop; ++y, ey+=dims.x, ++vy)
+						for (int x=exstart, ex=ey, vx=vxstart; x<exstop; ++x, ++ex, ++vx)
+							values[vt][vy][vx] = buffers[coords.c][et][coords.z].get(ex);
+				break;
+			}
+			case Axes.CYX: {
+				int vxstart = 0;
+				int vystart = 0;
+				int vcstart = 0;
+				int exstart = coords.x;
+				int eystart = coords.y;
+				int ecstart = coords.c;
+				if (exstart < 0) { exstart = 0; vxstart = -coords.x; }
+				if (eystart < 0) { eystart = 0; vystart = -coords.y; }
+				if (ecstart < 0) { ecstart = 0; vcstart = -coords.c; }
+				int exstop = coords.x + values[0][0].length;
+				int eystop = coords.y + values[0].length;
+				int ecstop = coords.c + values.length;
+				if (exstop > dims.x) exstop = dims.x;
+				if (eystop > dims.y) eystop = dims.y;
+				if (ecstop > dims.c) ecstop = dims.c;
+				final int exy = eystart*dims.x + exstart;
+				for (int ec=ecstart, vc=vcstart; ec<ecstop; ++ec, ++vc)
+					for (int y=eystart, ey=exy, vy=vystart; y<eystop; ++y, ey+=dims.x, ++vy)
+						for (int x=exstart, ex=ey, vx=vxstart; x<exstop; ++x, ++ex, ++vx)
+							values[vc][vy][vx] = buffers[ec][coords.t][coords.z].get(ex);
+				break;
+			}
+			case Axes.TZX: {
+				int vxstart = 0;
+				int vzstart = 0;
+				int vtstart = 0;
+				int exstart = coords.x;
+				int ezstart = coords.z;
+				int etstart = coords.t;
+				if (exstart < 0) { exstart = 0; vxstart = -coords.x; }
+				if (ezstart < 0) { ezstart = 0; vzstart = -coords.z; }
+				if (etstart < 0) { etstart = 0; vtstart = -coords.t; }
+				int exstop = coords.x + values[0][0].length;
+				int ezstop = coords.z + values[0].length;
+				int etstop = coords.t + values.length;
+				if (exstop > dims.x) exstop = dims.x;
+				if (ezstop > dims.z) ezstop = dims.z;
+				if (etstop > dims.t) etstop = dims.t;
+				final int exy = coords.y*dims.x + exstart;
+				for (int et=etstart, vt=vtstart; et<etstop; ++et, ++vt)
+					for (int ez=ezstart, vz=vzstart; ez<ezstop; ++ez, ++vz)
+						for (int x=exstart, ex=exy, vx=vxstart; x<exstop; ++x, ++ex, ++vx)
+							values[vt][vz][vx] = buffers[coords.c][et][ez].get(ex);
+				break;
+			}
+			case Axes.CZX: {
+				int vxstart = 0;
+				int vzstart = 0;
+				int vcstart = 0;
+				int exstart = coords.x;
+				int ezstart = coords.z;
+				int ecstart = coords.c;
+				if (exstart < 0) { exstart = 0; vxstart = -coords.x; }
+				if (ezstart < 0) { ezstart = 0; vzstart = -coords.z; }
+				if (ecstart < 0) { ecstart = 0; vcstart = -coords.c; }
+				int exstop = coords.x + values[0][0].length;
+				int ezstop = coords.z + values[0].length;
+				int ecstop = coords.c + values.length;
+				if (exstop > dims.x) exstop = dims.x;
+				if (ezstop > dims.z) ezstop = dims.z;
+				if (ecstop > dims.c) ecstop = dims.c;
+				final int exy = coords.y*dims.x + exstart;
+				for (int ec=ecstart, vc=vcstart; ec<ecstop; ++ec, ++vc)
+					for (int ez=ezstart, vz=vzstart; ez<ezstop; ++ez, ++vz)
+						for (int x=exstart, ex=exy, vx=vxstart; x<exstop; ++x, ++ex, ++vx)
+							values[vc][vz][vx] = buffers[ec][coords.t][ez].get(ex);
+				break;
+			}
+			case Axes.CTX: {
+				int vxstart = 0;
+				int vtstart = 0;
+				int vcstart = 0;
+				int exstart = coords.x;
+				int etstart = coords.t;
+				int ecstart = coords.c;
+				if (exstart < 0) { exstart = 0; vxstart = -coords.x; }
+				if (etstart < 0) { etstart = 0; vtstart = -coords.t; }
+				if (ecstart < 0) { ecstart = 0; vcstart = -coords.c; }
+				int exstop = coords.x + values[0][0].length;
+				int etstop = coords.t + values[0].length;
+				int ecstop = coords.c + values.length;
+				if (exstop > dims.x) exstop = dims.x;
+				if (etstop > dims.t) etstop = dims.t;
+				if (ecstop > dims.c) ecstop = dims.c;
+				final int exy = coords.y*dims.x + exstart;
+				for (int ec=ecstart, vc=vcstart; ec<ecstop; ++ec, ++vc)
+					for (int et=etstart, vt=vtstart; et<etstop; ++et, ++vt)
+						for (int x=exstart, ex=exy, vx=vxstart; x<exstop; ++x, ++ex, ++vx)
+							values[vc][vt][vx] = buffers[ec][et][coords.z].get(ex);
+				break;
+			}
+			case Axes.TZY: {
+				int vystart = 0;
+				int vzstart = 0;
+				int vtstart = 0;
+				int eystart = coords.y;
+				int ezstart = coords.z;
+				int etstart = coords.t;
+				if (eystart < 0) { eystart = 0; vystart = -coords.y; }
+				if (ezstart < 0) { ezstart = 0; vzstart = -coords.z; }
+				if (etstart < 0) { etstart = 0; vtstart = -coords.t; }
+				int eystop = coords.y + values[0][0].length;
+				int ezstop = coords.z + values[0].length;
+				int etstop = coords.t + values.length;
+				if (eystop > dims.y) eystop = dims.y;
+				if (ezstop > dims.z) ezstop = dims.z;
+				if (etstop > dims.t) etstop = dims.t;
+				final int exy = eystart*dims.x + coords.x;
+				for (int et=etstart, vt=vtstart; et<etstop; ++et, ++vt)
+					for (int ez=ezstart, vz=vzstart; ez<ezstop; ++ez, ++vz)
+						for (int y=eystart, ey=exy, vy=vystart; y<eystop; ++y, ey+=dims.x, ++vy)
+							values[vt][vz][vy] = buffers[coords.c][et][ez].get(ey);
+				break;
+			}
+			case Axes.CZY: {
+				int vystart = 0;
+				int vzstart = 0;
+				int vcstart = 0;
+				int eystart = coords.y;
+				int ezstart = coords.z;
+				int ecstart = coords.c;
+				if (eystart < 0) { eystart = 0; vystart = -coords.y; }
+				if (ezstart < 0) { ezstart = 0; vzstart = -coords.z; }
+				if (ecstart < 0) { ecstart = 0; vcstart = -coords.c; }
+				int eystop = coords.y + values[0][0].length;
+				int ezstop = coords.z + values[0].length;
+				int ecstop = coords.c + values.length;
+				if (eystop > dims.y) eystop = dims.y;
+				if (ezstop > dims.z) ezstop = dims.z;
+				if (ecstop > dims.c) ecstop = dims.c;
+				final int exy = eystart*dims.x + coords.x;
+				for (int ec=ecstart, vc=vcstart; ec<ecstop; ++ec, ++vc)
+					for (int ez=ezstart, vz=vzstart; ez<ezstop; ++ez, ++vz)
+						for (int y=eystart, ey=exy, vy=vystart; y<eystop; ++y, ey+=dims.x, ++vy)
+							values[vc][vz][vy] = buffers[ec][coords.t][ez].get(ey);
+				break;
+			}
+			case Axes.CTY: {
+				int vystart = 0;
+				int vtstart = 0;
+				int vcstart = 0;
+				int eystart = coords.y;
+				int etstart = coords.t;
+				int ecstart = coords.c;
+				if (eystart < 0) { eystart = 0; vystart = -coords.y; }
+				if (etstart < 0) { etstart = 0; vtstart = -coords.t; }
+				if (ecstart < 0) { ecstart = 0; vcstart = -coords.c; }
+				int eystop = coords.y + values[0][0].length;
+				int etstop = coords.t + values[0].length;
+				int ecstop = coords.c + values.length;
+				if (eystop > dims.y) eystop = dims.y;
+				if (etstop > dims.t) etstop = dims.t;
+				if (ecstop > dims.c) ecstop = dims.c;
+				final int exy = eystart*dims.x + coords.x;
+				for (int ec=ecstart, vc=vcstart; ec<ecstop; ++ec, ++vc)
+					for (int et=etstart, vt=vtstart; et<etstop; ++et, ++vt)
+						for (int y=eystart, ey=exy, vy=vystart; y<eystop; ++y, ey+=dims.x, ++vy)
+							values[vc][vt][vy] = buffers[ec][et][coords.z].get(ey);
+				break;
+			}
+			case Axes.CTZ: {
+				int vzstart = 0;
+				int vtstart = 0;
+				int vcstart = 0;
+				int ezstart = coords.z;
+				int etstart = coords.t;
+				int ecstart = coords.c;
+				if (ezstart < 0) { ezstart = 0; vzstart = -coords.z; }
+				if (etstart < 0) { etstart = 0; vtstart = -coords.t; }
+				if (ecstart < 0) { ecstart = 0; vcstart = -coords.c; }
+				int ezstop = coords.z + values[0][0].length;
+				int etstop = coords.t + values[0].length;
+				int ecstop = coords.c + values.length;
+				if (ezstop > dims.z) ezstop = dims.z;
+				if (etstop > dims.t) etstop = dims.t;
+				if (ecstop > dims.c) ecstop = dims.c;
+				final int exy = coords.y*dims.x + coords.x;
+				for (int ec=ecstart, vc=vcstart; ec<ecstop; ++ec, ++vc)
+					for (int et=etstart, vt=vtstart; et<etstop; ++et, ++vt)
+						for (int ez=ezstart, vz=vzstart; ez<ezstop; ++ez, ++vz)
+							values[vc][vt][vz] = buffers[ec][et][ez].get(exy);
+				break;
+			}
+			default:
+				throw new IllegalStateException("Wrong number of active axes");
+		}
+	}
+	
+	public void get(final Coordinates coords, final double[][][][] values) {
+		
+		switch (axes) {
+			case Axes.TZYX: {
+				int vxstart = 0;
+				int vystart = 0;
+				int vzstart = 0;
+				int vtstart = 0;
+				int exstart = coords.x;
+				int eystart = coords.y;
+				int ezstart = coords.z;
+				int etstart = coords.t;
+				if (exstart < 0) { exstart = 0; vxstart = -coords.x; }
+				if (eystart < 0) { eystart = 0; vystart = -coords.y; }
+				if (ezstart < 0) { ezstart = 0; vzstart = -coords.z; }
+				if (etstart < 0) { etstart = 0; vtstart = -coords.t; }
+				int exstop = coords.x + values[0][0][0].length;
+				int eystop = coords.y + values[0][0].length;
+				int ezstop = coords.z + values[0].length;
+				int etstop = coords.t + values.length;
+				if (exstop > dims.x) exstop = dims.x;
+				if (eystop > dims.y) eystop = dims.y;
+				if (ezstop > dims.z) ezstop = dims.z;
+				if (etstop > dims.t) etstop = dims.t;
+				final int exy = eystart*dims.x + exstart;
+				for (int et=etstart, vt=vtstart; et<etstop; ++et, ++vt)
+					for (int ez=ezstart, vz=vzstart; ez<ezstop; ++ez, ++vz)
+						for (int y=eystart, ey=exy, vy=vystart; y<eystop; ++y, ey+=dims.x, ++vy)
+							for (int x=exstart, ex=ey, vx=vxstart; x<exstop; ++x, ++ex, ++vx)
+								values[vt][vz][vy][vx] = buffers[coords.c][et][ez].get(ex);
+				break;
+			}
+			case Axes.CZYX: {
+				int vxstart = 0;
+				int vystart = 0;
+				int vzstart = 0;
+				int vcstart = 0;
+				int exstart = coords.x;
+				int eystart = coords.y;
+				int ezstart = coords.z;
+				int ecstart = coords.c;
+				if (exstart < 0) { exstart = 0; vxstart = -coords.x; }
+				if (eystart < 0) { eystart = 0; vystart = -coords.y; }
+				if (ezstart < 0) { ezstart = 0; vzstart = -coords.z; }
+				if (ecstart < 0) { ecstart = 0; vcstart = -coords.c; }
+				int exstop = coords.x + values[0][0][0].length;
+				int eystop = coords.y + values[0][0].length;
+				int ezstop = coords.z + values[0].length;
+				int ecstop = coords.c + values.length;
+				if (exstop > dims.x) exstop = dims.x;
+				if (eystop > dims.y) eystop = dims.y;
+				if (ezstop > dims.z) ezstop = dims.z;
+				if (ecstop > dims.c) ecstop = dims.c;
+				final int exy = eystart*dims.x + exstart;
+				for (int ec=ecstart, vc=vcstart; ec<ecstop; ++ec, ++vc)
+					for (int ez=ezstart, vz=vzstart; ez<ezstop; ++ez, ++vz)
+						for (int y=eystart, ey=exy, vy=vystart; y<eystop; ++y, ey+=dims.x, ++vy)
+							for (int x=exstart, ex=ey, vx=vxstart; x<exstop; ++x, ++ex, ++vx)
+								values[vc][vz][vy][vx] = buffers[ec][coords.t][ez].get(ex);
+				break;
+			}
+			case Axes.CTYX: {
+				int vxstart = 0;
+				int vystart = 0;
+				int vtstart = 0;
+				int vcstart = 0;
+				int exstart = coords.x;
+				int eystart = coords.y;
+				int etstart = coords.t;
+				int ecstart = coords.c;
+				if (exstart < 0) { exstart = 0; vxstart = -coords.x; }
+				if (eystart < 0) { eystart = 0; vystart = -coords.y; }
+				if (etstart < 0) { etstart = 0; vtstart = -coords.t; }
+				if (ecstart < 0) { ecstart = 0; vcstart = -coords.c; }
+				int exstop = coords.x + values[0][0][0].length;
+				int eystop = coords.y + values[0][0].length;
+				int etstop = coords.t + values[0].length;
+				int ecstop = coords.c + values.length;
+				if (exstop > dims.x) exstop = dims.x;
+				if (eystop > dims.y) eystop = dims.y;
+				if (etstop > dims.t) etstop = dims.t;
+				if (ecstop > dims.c) ecstop = dims.c;
+				final int exy = eystart*dims.x + exstart;
+				for (int ec=ecstart, vc=vcstart; ec<ecstop; ++ec, ++vc)
+					for (int et=etstart, vt=vtstart; et<etstop; ++et, ++vt)
+						for (int y=eystart, ey=exy, vy=vystart; y<eystop; ++y, ey+=dims.x, ++vy)
+							for (int x=exstart, ex=ey, vx=vxstart; x<exstop; ++x, ++ex, ++vx)
+								values[vc][vt][vy][vx] = buffers[ec][et][coords.z].get(ex);
+				break;
+			}
+			case Axes.CTZX: {
+				int vxstart = 0;
+				int vzstart = 0;
+				int vtstart = 0;
+				int vcstart = 0;
+				int exstart = coords.x;
+				int ezstart = coords.z;
+				int etstart = coords.t;
+				int ecstart = coords.c;
+				if (exstart < 0) { exstart = 0; vxstart = -coords.x; }
+				if (ezstart < 0) { ezstart = 0; vzstart = -coords.z; }
+				if (etstart < 0) { etstart = 0; vtstart = -coords.t; }
+				if (ecstart < 0) { ecstart = 0; vcstart = -coords.c; }
+				int exstop = coords.x + values[0][0][0].length;
+				int ezstop = coords.z + values[0][0].length;
+				int etstop = coords.t + values[0].length;
+				int ecstop = coords.c + values.length;
+				if (exstop > dims.x) exstop = dims.x;
+				if (ezstop > dims.z) ezstop = dims.z;
+				if (etstop > dims.t) etstop = dims.t;
+				if (ecstop > dims.c) ecstop = dims.c;
+				final int exy = coords.y*dims.x + exstart;
+				for (int ec=ecstart, vc=vcstart; ec<ecstop; ++ec, ++vc)
+					for (int et=etstart, vt=vtstart; et<etstop; ++et, ++vt)
+						for (int ez=ezstart, vz=vzstart; ez<ezstop; ++ez, ++vz)
+							for (int x=exstart, ex=exy, vx=vxstart; x<exstop; ++x, ++ex, ++vx)
+								values[vc][vt][vz][vx] = buffers[ec][et][ez].get(ex);
+				break;
+			}
+			case Axes.CTZY: {
+				int vystart = 0;
+				int vzstart = 0;
+				int vtstart = 0;
+				int vcstart = 0;
+				int eystart = coords.y;
+				int ezstart = coords.z;
+				int etstart = coords.t;
+				int ecstart = coords.c;
+				if (eystart < 0) { eystart = 0; vystart = -coords.y; }
+				if (ezstart < 0) { ezstart = 0; vzstart = -coords.z; }
+				if (etstart < 0) { etstart = 0; vtstart = -coords.t; }
+				if (ecstart < 0) { ecstart = 0; vcstart = -coords.c; }
+				int eystop = coords.y + values[0][0][0].length;
+				int ezstop = coords.z + values[0][0].length;
+				int etstop = coords.t + values[0].length;
+				int ecstop = coords.c + values.length;
+				if (eystop > dims.y) eystop = dims.y;
+				if (ezstop > dims.z) ezstop = dims.z;
+				if (etstop > dims.t) etstop = dims.t;
+				if (ecstop > dims.c) ecstop = dims.c;
+				final int exy = eystart*dims.x + coords.x;
+				for (int ec=ecstart, vc=vcstart; ec<ecstop; ++ec, ++vc)
+					for (int et=etstart, vt=vtstart; et<etstop; ++et, ++vt)
+						for (int ez=ezstart, vz=vzstart; ez<ezstop; ++ez, ++vz)
+							for (int y=eystart, ey=exy, vy=vystart; y<eystop; ++y, ey+=dims.x, ++vy)
+								values[vc][vt][vz][vy] = buffers[ec][et][ez].get(ey);
+				break;
+			}
+			default:
+				throw new IllegalStateException("Wrong number of active axes");
+		}
+	}
+	
+	public void get(final Coordinates coords, final double[][][][][] values) {
+		
+		switch (axes) {
+			case Axes.CTZYX: {
+				int vxstart = 0;
+				int vystart = 0;
+				int vzstart = 0;
+				int vtstart = 0;
+				int vcstart = 0;
+				int exstart = coords.x;
+				int eystart = coords.y;
+				int ezstart = coords.z;
+				int etstart = coords.t;
+				int ecstart = coords.c;
+				if (exstart < 0) { exstart = 0; vxstart = -coords.x; }
+				if (eystart < 0) { eystart = 0; vystart = -coords.y; }
+				if (ezstart < 0) { ezstart = 0; vzstart = -coords.z; }
+				if (etstart < 0) { etstart = 0; vtstart = -coords.t; }
+				if (ecstart < 0) { ecstart = 0; vcstart = -coords.c; }
+				int exstop = coords.x + values[0][0][0][0].length;
+				int eystop = coords.y + values[0][0][0].length;
+				int ezstop = coords.z + values[0][0].length;
+				int etstop = coords.t + values[0].length;
+				int ecstop = coords.c + values.length;
+				if (exstop > dims.x) exstop = dims.x;
+				if (eystop > dims.y) eystop = dims.y;
+				if (ezstop > dims.z) ezstop = dims.z;
+				if (etstop > dims.t) etstop = dims.t;
+				if (ecstop > dims.c) ecstop = dims.c;
+				final int exy = eystart*dims.x + exstart;
+				for (int ec=ecstart, vc=vcstart; ec<ecstop; ++ec, ++vc)
+					for (int et=etstart, vt=vtstart; et<etstop; ++et, ++vt)
+						for (int ez=ezstart, vz=vzstart; ez<ezstop; ++ez, ++vz)
+							for (int y=eystart, ey=exy, vy=vystart; y<eystop; ++y, ey+=dims.x, ++vy)
+								for (int x=exstart, ex=ey, vx=vxstart; x<exstop; ++x, ++ex, ++vx)
+									values[vc][vt][vz][vy][vx] = buffers[ec][et][ez].get(ex);
+				break;
+			}
+			default:
+				throw new IllegalStateException("Wrong number of active axes");
+		}
+	}
+	
+	public void set(final double value) {
+		
+		final int dimsxy = dims.x*dims.y;
+		for (int c=0; c<dims.c; ++c)
+			for (int t=0; t<dims.t; ++t)
+				for (int z=0; z<dims.z; ++z)
+					for (int xy=0; xy<dimsxy; ++xy)
+						buffers[c][t][z].put(xy,(float)value);
+	}
+	
+	public void mirror(final Borders borders) {
+		
+		if (borders.x > (dims.x-1)/2 ||
+			borders.y > (dims.y-1)/2 ||
+			borders.z > (dims.z-1)/2 ||
+			borders.t > (dims.t-1)/2 ||
+			borders.c > (dims.c-1)/2)
+			throw new IllegalArgumentException("Border(s) too large");
+		
+		// Initialize:
+		final int dimsxb = dims.x - borders.x;
+		final int dimsyb = dims.y - borders.y;
+		final int dimszb = dims.z - borders.z;
+		final int dimstb = dims.t - borders.t;
+		final int dimscb = dims.c - borders.c;
+		
+		final int dimsx2b = dims.x - 2*borders.x;
+		final int dimsy2b = dims.y - 2*borders.y;
+		final int dimsz2b = dims.z - 2*borders.z;
+		final int dimst2b = dims.t - 2*borders.t;
+		final int dimsc2b = dims.c - 2*borders.c;
+		
+		final int dimsx2b1 = (dimsx2b == 1) ? dimsx2b : (dimsx2b - 1);
+		final int dimsy2b1 = (dimsy2b == 1) ? dimsy2b : (dimsy2b - 1);
+		final int dimsz2b1 = (dimsz2b == 1) ? dimsz2b : (dimsz2b - 1);
+		final int dimst2b1 = (dimst2b == 1) ? dimst2b : (dimst2b - 1);
+		final int dimsc2b1 = (dimsc2b == 1) ? dimsc2b : (dimsc2b - 1);
+		
+		final int ix = (dimsx2b == 1) ? 1 : 2;
+		final int iy = (dimsy2b == 1) ? 1 : 2;
+		final int iz = (dimsz2b == 1) ? 1 : 2;
+		final int it = (dimst2b == 1) ? 1 : 2;
+		final int ic = (dimsc2b == 1) ? 1 : 2;
+		
+		final int dimsxy = dims.x*dims.y;
+		
+		// Mirror borders in x-dimension:
+		final int dimsxby = borders.y*dims.x;
+		for (int c=borders.c; c<dimscb; ++c)
+			for (int t=borders.t; t<dimstb; ++t)
+				for (int z=borders.z; z<dimszb; ++z) {
+					for (int x=0; x<borders.x; ++x) {
+						final int xdiff = x - borders.x;
+						int x0 = xdiff/dimsx2b1; x0 += x0%ix;
+						final int xmap = borders.x + Math.abs(xdiff - x0*dimsx2b1);
+						for (int y=borders.y, xy=dimsxby+x, xymap=dimsxby+xmap; y<dimsyb; ++y, xy+=dims.x, xymap+=dims.x)
+							buffers[c][t][z].put(xy,buffers[c][t][z].get(xymap));
+					}
+					for (int x=dimsxb; x<dims.x; ++x) {
+						final int xdiff = x - borders.x;
+						int x0 = xdiff/dimsx2b1; x0 += x0%ix;
+						final int xmap = borders.x + Math.abs(xdiff - x0*dimsx2b1);
+						for (int y=borders.y, xy=dimsxby+x, xymap=dimsxby+xmap; y<dimsyb; ++y, xy+=dims.x, xymap+=dims.x)
+							buffers[c][t][z].put(xy,buffers[c][t][z].get(xymap));
+					}
+				}
+		
+		// Mirror borders in y-dimension:
+		for (int c=borders.c; c<dimscb; ++c)
+			for (int t=borders.t; t<dimstb; ++t)
+				for (int z=borders.z; z<dimszb; ++z) {
+					for (int y=0; y<borders.y; ++y) {
+						final int ydiff = y - borders.y;
+						int y0 = ydiff/dimsy2b1; y0 += y0%iy;
+						final int ymap = borders.y + Math.abs(ydiff - y0*dimsy2b1);
+						for (int x=0, xy=y*dims.x, xymap=ymap*dims.x; x<dims.x; ++x, ++xy, ++xymap)
+							buffers[c][t][z].put(xy,buffers[c][t][z].get(xymap));
+					}
+					for (int y=dimsyb; y<dims.y; ++y) {
+						final int ydiff = y - borders.y;
+						int y0 = ydiff/dimsy2b1; y0 += y0%iy;
+						final int ymap = borders.y + Math.abs(ydiff - y0*dimsy2b1);
+						for (int x=0, xy=y*dims.x, xymap=ymap*dims.x; x<dims.x; ++x, ++xy, ++xymap)
+							buffers[c][t][z].put(xy,buffers[c][t][z].get(xymap));
+					}
+				}
+		
+		// Mirror borders in z-dimension:
+		for (int c=borders.c; c<dimscb; ++c)
+			for (int t=borders.t; t<dimstb; ++t) {
+				for (int z=0; z<borders.z; ++z) {
+					final int zdiff = z - borders.z;
+					int z0 = zdiff/dimsz2b1; z0 += z0%iz;
+					final int zmap = borders.z + Math.abs(zdiff - z0*dimsz2b1);
+					for (int xy=0; xy<dimsxy; ++xy)
+						buffers[c][t][z].put(xy,buffers[c][t][zmap].get(xy));
+				}
+				for (int z=dimszb; z<dims.z; ++z) {
+					final int zdiff = z - borders.z;
+					int z0 = zdiff/dimsz2b1; z0 += z0%iz;
+					final int zmap = borders.z + Math.abs(zdiff - z0*dimsz2b1);
+					for (int xy=0; xy<dimsxy; ++xy)
+						buffers[c][t][z].put(xy,buffers[c][t][zmap].get(xy));
+				}
+			}
+		
+		// Mirror borders in t-dimension:
+		for (int c=borders.c; c<dimscb; ++c) {
+			for (int t=0; t<borders.t; ++t) {
+				final int tdiff = t - borders.t;
+				int t0 = tdiff/dimst2b1; t0 += t0%it;
+				final int tmap = borders.t + Math.abs(tdiff - t0*dimst2b1);
+				for (int z=0; z<dims.z; ++z)
+					for (int xy=0; xy<dimsxy; ++xy)
+						buffers[c][t][z].put(xy,buffers[c][tmap][z].get(xy));
+			}
+			for (int t=dimstb; t<dims.t; ++t) {
+				final int tdiff = t - borders.t;
+				int t0 = tdiff/dimst2b1; t0 += t0%it;
+				final int tmap = borders.t + Math.abs(tdiff - t0*dimst2b1);
+				for (int z=0; z<dims.z; ++z)
+					for (int xy=0; xy<dimsxy; ++xy)
+						buffers[c][t][z].put(xy,buffers[c][tmap][z].get(xy));
+			}
+		}
+		
+		// Mirror borders in c-dimension:
+		for (int c=0; c<borders.c; ++c) {
+			final int cdiff = c - borders.c;
+			int c0 = cdiff/dimsc2b1; c0 += c0%ic;
+			final int cmap = borders.c + Math.abs(cdiff - c0*dimsc2b1);
+			for (int t=0; t<dims.t; ++t)
+				for (int z=0; z<dims.z; ++z)
+					for (int xy=0; xy<dimsxy; ++xy)
+						buffers[c][t][z].put(xy,buffers[cmap][t][z].get(xy));
+		}
+		for (int c=dimscb; c<dims.c; ++c) {
+			final int cdiff = c - borders.c;
+			int c0 = cdiff/dimsc2b1; c0 += c0%ic;
+			final int cmap = borders.c + Math.abs(cdiff - c0*dimsc2b1);
+			for (int t=0; t<dims.t; ++t)
+				for (int z=0; z<dims.z; ++z)
+					for (int xy=0; xy<dimsxy; ++xy)
+						buffers[c][t][z].put(xy,buffers[cmap][t][z].get(xy));
+		}
+	}
+	
+	public void set(final Borders borders, final double value) {
+		
+		if (borders.x > dims.x/2 ||
+			borders.y > dims.y/2 ||
+			borders.z > dims.z/2 ||
+			borders.t > dims.t/2 ||
+			borders.c > dims.c/2)
+			throw new IllegalArgumentException("Border(s) too large");
+		
+		// Initialize:
+		final int dimscb = dims.c - borders.c;
+		final int dimstb = dims.t - borders.t;
+		final int dimszb = dims.z - borders.z;
+		final int dimsyb = dims.y - borders.y;
+		final int dimsxb = dims.x - borders.x;
+		
+		final int dimsxy = dims.x*dims.y;
+		
+		// Fill borders in c-dimension:
+		for (int c=0; c<borders.c; ++c)
+			for (int t=0; t<dims.t; ++t)
+				for (int z=0; z<dims.z; ++z)
+					for (int xy=0; xy<dimsxy; ++xy)
+						buffers[c][t][z].put(xy,(float)value);
+		for (int c=dimscb; c<dims.c; ++c)
+			for (int t=0; t<dims.t; ++t)
+				for (int z=0; z<dims.z; ++z)
+					for (int xy=0; xy<dimsxy; ++xy)
+						buffers[c][t][z].put(xy,(float)value);
+		
+		// Fill borders in t-dimension:
+		for (int c=borders.c; c<dimscb; ++c) {
+			for (int t=0; t<borders.t; ++t)
+				for (int z=0; z<dims.z; ++z)
+					for (int xy=0; xy<dimsxy; ++xy)
+						buffers[c][t][z].put(xy,(float)value);
+			for (int t=dimstb; t<dims.t; ++t)
+				for (int z=0; z<dims.z; ++z)
+					for (int xy=0; xy<dimsxy; ++xy)
+						buffers[c][t][z].put(xy,(float)value);
+		}
+		
+		// Fill borders in z-dimension:
+		for (int c=borders.c; c<dimscb; ++c)
+			for (int t=borders.t; t<dimstb; ++t) {
+				for (int z=0; z<borders.z; ++z)
+					for (int xy=0; xy<dimsxy; ++xy)
+						buffers[c][t][z].put(xy,(float)value);
+				for (int z=dimszb; z<dims.z; ++z)
+					for (int xy=0; xy<dimsxy; ++xy)
+						buffers[c][t][z].put(xy,(float)value);
+			}
+		
+		// Fill borders in y-dimension:
+		for (int c=borders.c; c<dimscb; ++c)
+			for (int t=borders.t; t<dimstb; ++t)
+				for (int z=borders.z; z<dimszb; ++z) {
+					for (int y=0, xy=0; y<borders.y; ++y)
+						for (int x=0; x<dims.x; ++x, ++xy)
+							buffers[c][t][z].put(xy,(float)value);
+					for (int y=dimsyb, xy=dimsyb*dims.x; y<dims.y; ++y)
+						for (int x=0; x<dims.x; ++x, ++xy)
+							buffers[c][t][z].put(xy,(float)value);
+				}
+		
+		// Fill borders in x-dimension:
+		for (int c=borders.c; c<dimscb; ++c)
+			for (int t=borders.t; t<dimstb; ++t)
+				for (int z=borders.z; z<dimszb; ++z)
+					for (int y=borders.y; y<dimsyb; ++y) {
+						for (int x=0, xy=y*dims.x; x<borders.x; ++x, ++xy)
+							buffers[c][t][z].put(xy,(float)value);
+						for (int x=dimsxb, xy=y*dims.x+dimsxb; x<dims.x; ++x, ++xy)
+							buffers[c][t][z].put(xy,(float)value);
+					}
+	}
+	
+	public void set(final Coordinates coords, final double value) {
+		
+		buffers[coords.c][coords.t][coords.z].put(coords.y*dims.x + coords.x,(float)value);
+	}
+	
+	public void set(final Coordinates coords, final double[] values) {
+		
+		switch (axes) {
+			case Axes.X: {
+				int vxstart = 0;
+				int exstart = coords.x;
+				if (exstart < 0) { exstart = 0; vxstart = -coords.x; }
+				int exstop = coords.x + values.length;
+				if (exstop > dims.x) exstop = dims.x;
+				final FloatBuffer elms = buffers[coords.c][coords.t][coords.z];
+				for (int x=exstart, ex=coords.y*dims.x+exstart, vx=vxstart; x<exstop; ++x, ++ex, ++vx)
+					elms.put(ex,(float)values[vx]);
+				break;
+			}
+			case Axes.Y: {
+				int vystart = 0;
+				int eystart = coords.y;
+				if (eystart < 0) { eystart = 0; vystart = -coords.y; }
+				int eystop = coords.y + values.length;
+				if (eystop > dims.y) eystop = dims.y;
+				final FloatBuffer elms = buffers[coords.c][coords.t][coords.z];
+				for (int y=eystart, ey=eystart*dims.x+coords.x, vy=vystart; y<eystop; ++y, ey+=dims.x, ++vy)
+					elms.put(ey,(float)values[vy]);
+				break;
+			}
+			case Axes.Z: {
+				int vzstart = 0;
+				int ezstart = coords.z;
+				if (ezstart < 0) { ezstart = 0; vzstart = -coords.z; }
+				int ezstop = coords.z + values.length;
+				if (ezstop > dims.z) ezstop = dims.z;
+				final int exy = coords.y*dims.x + coords.x;
+				final FloatBuffer[] elms = buffers[coords.c][coords.t];
+				for (int ez=ezstart, vz=vzstart; ez<ezstop; ++ez, ++vz)
+					elms[ez].put(exy,(float)values[vz]);
+				break;
+			}
+			case Axes.T: {
+				int vtstart = 0;
+				int etstart = coords.t;
+				if (etstart < 0) { etstart = 0; vtstart = -coords.t; }
+				int etstop = coords.t + values.length;
+				if (etstop > dims.t) etstop = dims.t;
+				final int exy = coords.y*dims.x + coords.x;
+				for (int et=etstart, vt=vtstart; et<etstop; ++et, ++vt)
+					buffers[coords.c][et][coords.z].put(exy,(float)values[vt]);
+				break;
+			}
+			case Axes.C: {
+				int vcstart = 0;
+				int ecstart = coords.c;
+				if (ecstart < 0) { ecstart = 0; vcstart = -coords.c; }
+				int ecstop = coords.c + values.length;
+				if (ecstop > dims.c) ecstop = dims.c;
+				final int exy = coords.y*dims.x + coords.x;
+				for (int ec=ecstart, vc=vcstart; ec<ecstop; ++ec, ++vc)
+					buffers[ec][coords.t][coords.z].put(exy,(float)values[vc]);
+				break;
+			}
+			default:
+				throw new IllegalStateException("Wrong number of active axes");
+		}
+	}
+	
+	public void set(final Coordinates coords, final double[][] values) {
+		
+		switch (axes) {
+			case Axes.YX: {
+				int vxstart = 0;
+				int vystart = 0;
+				int exstart = coords.x;
+				int eystart = coords.y;
+				if (exstart < 0) { exstart = 0; vxstart = -coords.x; }
+				if (eystart < 0) { eystart = 0; vystart = -coords.y; }
+				int exstop = coords.x + values[0].length;
+				int eystop = coords.y + values.length;
+				if (exstop > dims.x) exstop = dims.x;
+				if (eystop > dims.y) eystop = dims.y;
+				final FloatBuffer elms = buffers[coords.c][coords.t][coords.z];
+				for (int y=eystart, ey=eystart*dims.x+exstart, vy=vystart; y<eystop; ++y, ey+=dims.x, ++vy)
+					for (int x=exstart, ex=ey, vx=vxstart; x<exstop; ++x, ++ex, ++vx)
+						elms.put(ex,(float)values[vy][vx]);
+				break;
+			}
+			case Axes.ZX: {
+				int vxstart = 0;
+				int vzstart = 0;
+				int exstart = coords.x;
+				int ezstart = coords.z;
+				if (exstart < 0) { exstart = 0; vxstart = -coords.x; }
+				if (ezstart < 0) { ezstart = 0; vzstart = -coords.z; }
+				int exstop = coords.x + values[0].length;
+				int ezstop = coords.z + values.length;
+				if (exstop > dims.x) exstop = dims.x;
+				if (ezstop > dims.z) ezstop = dims.z;
+				final int exy = coords.y*dims.x + exstart;
+				final FloatBuffer[] elms = buffers[coords.c][coords.t];
+				for (int ez=ezstart, vz=vzstart; ez<ezstop; ++ez, ++vz)
+					for (int x=exstart, ex=exy, vx=vxstart; x<exstop; ++x, ++ex, ++vx)
+						elms[ez].put(ex,(float)values[vz][vx]);
+				break;
+			}
+			case Axes.TX: {
+				int vxstart = 0;
+				int vtstart = 0;
+				int exstart = coords.x;
+				int etstart = coords.t;
+				if (exstart < 0) { exstart = 0; vxstart = -coords.x; }
+				if (etstart < 0) { etstart = 0; vtstart = -coords.t; }
+				int exstop = coords.x + values[0].length;
+				int etstop = coords.t + values.length;
+				if (exstop > dims.x) exstop = dims.x;
+				if (etstop > dims.t) etstop = dims.t;
+				final int exy = coords.y*dims.x + exstart;
+				for (int et=etstart, vt=vtstart; et<etstop; ++et, ++vt)
+					for (int x=exstart, ex=exy, vx=vxstart; x<exstop; ++x, ++ex, ++vx)
+						buffers[coords.c][et][coords.z].put(ex,(float)values[vt][vx]);
+				break;
+			}
+			case Axes.ZY: {
+				int vystart = 0;
+				int vzstart = 0;
+				int eystart = coords.y;
+				int ezstart = coords.z;
+				if (eystart < 0) { eystart = 0; vystart = -coords.y; }
+				if (ezstart < 0) { ezstart = 0; vzstart = -coords.z; }
+				int eystop = coords.y + values[0].length;
+				int ezstop = coords.z + values.length;
+				if (eystop > dims.y) eystop = dims.y;
+				if (ezstop > dims.z) ezstop = dims.z;
+				final int exy = eystart*dims.x + coords.x;
+				final FloatBuffer[] elms = buffers[coords.c][coords.t];
+				for (int ez=ezstart, vz=vzstart; ez<ezstop; ++ez, ++vz)
+					for (int y=eystart, ey=exy, vy=vystart; y<eystop; ++y, ey+=dims.x, ++vy)
+						elms[ez].put(ey,(float)values[vz][vy]);
+				break;
+			}
+			case Axes.TY: {
+				int vystart = 0;
+				int vtstart = 0;
+				int eystart = coords.y;
+				int etstart = coords.t;
+				if (eystart < 0) { eystart = 0; vystart = -coords.y; }
+				if (etstart < 0) { etstart = 0; vtstart = -coords.t; }
+				int eystop = coords.y + values[0].length;
+				int etstop = coords.t + values.length;
+				if (eystop > dims.y) eystop = dims.y;
+				if (etstop > dims.t) etstop = dims.t;
+				final int exy = eystart*dims.x + coords.x;
+				for (int et=etstart, vt=vtstart; et<etstop; ++et, ++vt)
+					for (int y=eystart, ey=exy, vy=vystart; y<eystop; ++y, ey+=dims.x, ++vy)
+						buffers[coords.c][et][coords.z].put(ey,(float)values[vt][vy]);
+				break;
+			}
+			case Axes.TZ: {
+				int vzstart = 0;
+				int vtstart = 0;
+				int ezstart = coords.z;
+				int etstart = coords.t;
+				if (ezstart < 0) { ezstart = 0; vzstart = -coords.z; }
+				if (etstart < 0) { etstart = 0; vtstart = -coords.t; }
+				int ezstop = coords.z + values[0].length;
+				int etstop = coords.t + values.length;
+				if (ezstop > dims.z) ezstop = dims.z;
+				if (etstop > dims.t) etstop = dims.t;
+				final int exy = coords.y*dims.x + coords.x;
+				for (int et=etstart, vt=vtstart; et<etstop; ++et, ++vt)
+					for (int ez=ezstart, vz=vzstart; ez<ezstop; ++ez, ++vz)
+						buffers[coords.c][et][ez].put(exy,(float)values[vt][vz]);
+				break;
+			}
+			case Axes.CX: {
+				int vxstart = 0;
+				int vcstart = 0;
+				int exstart = coords.x;
+				int ecstart = coords.c;
+				if (exstart < 0) { exstart = 0; vxstart = -coords.x; }
+				if (ecstart < 0) { ecstart = 0; vcstart = -coords.c; }
+				int exstop = coords.x + values[0].length;
+				int ecstop = coords.c + values.length;
+				if (exstop > dims.x) exstop = dims.x;
+				if (ecstop > dims.c) ecstop = dims.c;
+				final int exy = coords.y*dims.x + exstart;
+				for (int ec=ecstart, vc=vcstart; ec<ecstop; ++ec, ++vc)
+					for (int x=exstart, ex=exy, vx=vxstart; x<exstop; ++x, ++ex, ++vx)
+						buffers[ec][coords.t][coords.z].put(ex,(float)values[vc][vx]);
+				break;
+			}
+			case Axes.CY: {
+				int vystart = 0;
+				int vcstart = 0;
+				int eystart = coords.y;
+				int ecstart = coords.c;
+				if (eystart < 0) { eystart = 0; vystart = -coords.y; }
+				if (ecstart < 0) { ecstart = 0; vcstart = -coords.c; }
+				int eystop = coords.y + values[0].length;
+				int ecstop = coords.c + values.length;
+				if (eystop > dims.y) eystop = dims.y;
+				if (ecstop > dims.c) ecstop = dims.c;
+				final int exy = eystart*dims.x + coords.x;
+				for (int ec=ecstart, vc=vcstart; ec<ecstop; ++ec, ++vc)
+					for (int y=eystart, ey=exy, vy=vystart; y<eystop; ++y, ey+=dims.x, ++vy)
+						buffers[ec][coords.t][coords.z].put(ey,(float)values[vc][vy]);
+				break;
+			}
+			case Axes.CZ: {
+				int vzstart = 0;
+				int vcstart = 0;
+				int ezstart = coords.z;
+				int ecstart = coords.c;
+				if (ezstart < 0) { ezstart = 0; vzstart = -coords.z; }
+				if (ecstart < 0) { ecstart = 0; vcstart = -coords.c; }
+				int ezstop = coords.z + values[0].length;
+				int ecstop = coords.c + values.length;
+				if (ezstop > dims.z) ezstop = dims.z;
+				if (ecstop > dims.c) ecstop = dims.c;
+				final int exy = coords.y*dims.x + coords.x;
+				for (int ec=ecstart, vc=vcstart; ec<ecstop; ++ec, ++vc)
+					for (int ez=ezstart, vz=vzstart; ez<ezstop; ++ez, ++vz)
+						buffers[ec][coords.t][ez].put(exy,(float)values[vc][vz]);
+				break;
+			}
+			case Axes.CT: {
+				int vtstart = 0;
+				int vcstart = 0;
+				int etstart = coords.t;
+				int ecstart = coords.c;
+				if (etstart < 0) { etstart = 0; vtstart = -coords.t; }
+				if (ecstart < 0) { ecstart = 0; vcstart = -coords.c; }
+				int etstop = coords.t + values[0].length;
+				int ecstop = coords.c + values.length;
+				if (etstop > dims.t) etstop = dims.t;
+				if (ecstop > dims.c) ecstop = dims.c;
+				final int exy = coords.y*dims.x + coords.x;
+				for (int ec=ecstart, vc=vcstart; ec<ecstop; ++ec, ++vc)
+					for (int et=etstart, vt=vtstart; et<etstop; ++et, ++vt)
+						buffers[ec][et][coords.z].put(exy,(float)values[vc][vt]);
+				break;
+			}
+			default:
+				throw new IllegalStateException("Wrong number of active axes");
+		}
+	}
+	
+	public void set(final Coordinates coords, final double[][][] values) {
+		
+		switch (axes) {
+			case Axes.ZYX: {
+				int vxstart = 0;
+				int vystart = 0;
+				int vzstart = 0;
+				int exstart = coords.x;
+				int eystart = coords.y;
+				int ezstart = coords.z;
+				if (exstart < 0) { exstart = 0; vxstart = -coords.x; }
+				if (eystart < 0) { eystart = 0; vystart = -coords.y; }
+				if (ezstart < 0) { ezstart = 0; vzstart = -coords.z; }
+				int exstop = coords.x + values[0][0].length;
+				int eystop = coords.y + values[0].length;
+				int ezstop = coords.z + values.length;
+				if (exstop > dims.x) exstop = dims.x;
+				if (eystop > dims.y) eystop = dims.y;
+				if (ezstop > dims.z) ezstop = dims.z;
+				final int exy = eystart*dims.x + exstart;
+				final FloatBuffer[] elms = buffers[coords.c][coords.t];
+				for (int ez=ezstart, vz=vzstart; ez<ezstop; ++ez, ++vz)
+					for (int y=eystart, ey=exy, vy=vystart; y<eystop; ++y, ey+=dims.x, ++vy)
+						for (int x=exstart, ex=ey, vx=vxstart; x<exstop; ++x, ++ex, ++vx)
+							elms[ez].put(ex,(float)values[vz][vy][vx]);
+				break;
+			}
+			case Axes.TYX: {
+				int vxstart = 0;
+				int vystart = 0;
+				int vtstart = 0;
+				int exstart = coords.x;
+				int eystart = coords.y;
+				int etstart = coords.t;
+				if (exstart < 0) { exstart = 0; vxstart = -coords.x; }
+				if (eystart < 0) { eystart = 0; vystart = -coords.y; }
+				if (etstart < 0) { etstart = 0; vtstart = -coords.t; }
+				int exstop = coords.x + values[0][0].length;
+				int eystop = coords.y + values[0].length;
+				int etstop = coords.t + values.length;
+				if (exstop > dims.x) exstop = dims.x;
+				if (eystop > dims.y) eystop = dims.y;
+				if (etstop > dims.t) etstop = dims.t;
+				final int exy = eystart*dims.x + exstart;
+				for (int et=etstart, vt=vtstart; et<etstop; ++et, ++vt)
+					for (int y=eystart, ey=exy, vy=vystart; y<eystop; ++y, ey+=dims.x, ++vy)
+						for (int x=exstart, ex=ey, vx=vxstart; x<exstop; ++x, ++ex, ++vx)
+							buffers[coords.c][et][coords.z].put(ex,(float)values[vt][vy][vx]);
+				break;
+			}
+			case Axes.CYX: {
+				int vxstart = 0;
+				int vystart = 0;
+				int vcstart = 0;
+				int exstart = coords.x;
+				int eystart = coords.y;
+				int ecstart = coords.c;
+				if (exstart < 0) { exstart = 0; vxstart = -coords.x; }
+				if (eystart < 0) { eystart = 0; vystart = -coords.y; }
+				if (ecstart < 0) { ecstart = 0; vcstart = -coords.c; }
+				int exstop = coords.x + values[0][0].length;
+				int eystop = coords.y + values[0].length;
+				int ecstop = coords.c + values.length;
+				if (exstop > dims.x) exstop = dims.x;
+				if (eystop > dims.y) eystop = dims.y;
+				if (ecstop > dims.c) ecstop = dims.c;
+				final int exy = eystart*dims.x + exstart;
+				for (int ec=ecstart, vc=vcstart; ec<ecstop; ++ec, ++vc)
+					for (int y=eystart, ey=exy, vy=vystart; y<eystop; ++y, ey+=dims.x, ++vy)
+						for (int x=exstart, ex=ey, vx=vxstart; x<exstop; ++x, ++ex, ++vx)
+							buffers[ec][coords.t][coords.z].put(ex,(float)values[vc][vy][vx]);
+				break;
+			}
+			case Axes.TZX: {
+				int vxstart = 0;
+				int vzstart = 0;
+				int vtstart = 0;
+				int exstart = coords.x;
+				int ezstart = coords.z;
+				int etstart = coords.t;
+				if (exstart < 0) { exstart = 0; vxstart = -coords.x; }
+				if (ezstart < 0) { ezstart = 0; vzstart = -coords.z; }
+				if (etstart < 0) { etstart = 0; vtstart = -coords.t; }
+				int exstop = coords.x + values[0][0].length;
+				int ezstop = coords.z + values[0].length;
+				int etstop = coords.t + values.length;
+				if (exstop > dims.x) exstop = dims.x;
+				if (ezstop > dims.z) ezstop = dims.z;
+				if (etstop > dims.t) etstop = dims.t;
+				final int exy = coords.y*dims.x + exstart;
+				for (int et=etstart, vt=vtstart; et<etstop; ++et, ++vt)
+					for (int ez=ezstart, vz=vzstart; ez<ezstop; ++ez, ++vz)
+						for (int x=exstart, ex=exy, vx=vxstart; x<exstop; ++x, ++ex, ++vx)
+							buffers[coords.c][et][ez].put(ex,(float)values[vt][vz][vx]);
+				break;
+			}
+			case Axes.CZX: {
+				int vxstart = 0;
+				int vzstart = 0;
+				int vcstart = 0;
+				int exstart = coords.x;
+				int ezstart = coords.z;
+				int ecstart = coords.c;
+				if (exstart < 0) { exstart = 0; vxstart = -coords.x; }
+				if (ezstart < 0) { ezstart = 0; vzstart = -coords.z; }
+				if (ecstart < 0) { ecstart = 0; vcstart = -coords.c; }
+				int exstop = coords.x + values[0][0].length;
+				int ezstop = coords.z + values[0].length;
+				int ecstop = coords.c + values.length;
+				if (exstop > dims.x) exstop = dims.x;
+				if (ezstop > dims.z) ezstop = dims.z;
+				if (ecstop > dims.c) ecstop = dims.c;
+				final int exy = coords.y*dims.x + exstart;
+				for (int ec=ecstart, vc=vcstart; ec<ecstop; ++ec, ++vc)
+					for (int ez=ezstart, vz=vzstart; ez<ezstop; ++ez, ++vz)
+						for (int x=exstart, ex=exy, vx=vxstart; x<exstop; ++x, ++ex, ++vx)
+							buffers[ec][coords.t][ez].put(ex,(float)values[vc][vz][vx]);
+				break;
+			}
+			case Axes.CTX: {
+				int vxstart = 0;
+				int vtstart = 0;
+				int vcstart = 0;
+				int exstart = coords.x;
+				int etstart = coords.t;
+				int ecstart = coords.c;
+				if (exstart < 0) { exstart = 0; vxstart = -coords.x; }
+				if (etstart < 0) { etstart = 0; vtstart = -coords.t; }
+				if (ecstart < 0) { ecstart = 0; vcstart = -coords.c; }
+				int exstop = coords.x + values[0][0].length;
+				int etstop = coords.t + values[0].length;
+				int ecstop = coords.c + values.length;
+				if (exstop > dims.x) exstop = dims.x;
+				if (etstop > dims.t) etstop = dims.t;
+				if (ecstop > dims.c) ecstop = dims.c;
+				final int exy = coords.y*dims.x + exstart;
+				for (int ec=ecstart, vc=vcstart; ec<ecstop; ++ec, ++vc)
+					for (int et=etstart, vt=vtstart; et<etstop; ++et, ++vt)
+						for (int x=exstart, ex=exy, vx=vxstart; x<exstop; ++x, ++ex, ++vx)
+							buffers[ec][et][coords.z].put(ex,(float)values[vc][vt][vx]);
+				break;
+			}
+			case Axes.TZY: {
+				int vystart = 0;
+				int vzstart = 0;
+				int vtstart = 0;
+				int eystart = coords.y;
+				int ezstart = coords.z;
+				int etstart = coords.t;
+				if (eystart < 0) { eystart = 0; vystart = -coords.y; }
+				if (ezstart < 0) { ezstart = 0; vzstart = -coords.z; }
+				if (etstart < 0) { etstart = 0; vtstart = -coords.t; }
+				int eystop = coords.y + values[0][0].length;
+				int ezstop = coords.z + values[0].length;
+				int etstop = coords.t + values.length;
+				if (eystop > dims.y) eystop = dims.y;
+				if (ezstop > dims.z) ezstop = dims.z;
+				if (etstop > dims.t) etstop = dims.t;
+				final int exy = eystart*dims.x + coords.x;
+				for (int et=etstart, vt=vtstart; et<etstop; ++et, ++vt)
+					for (int ez=ezstart, vz=vzstart; ez<ezstop; ++ez, ++vz)
+						for (int y=eystart, ey=exy, vy=vystart; y<eystop; ++y, ey+=dims.x, ++vy)
+							buffers[coords.c][et][ez].put(ey,(float)values[vt][vz][vy]);
+				break;
+			}
+			case Axes.CZY: {
+				int vystart = 0;
+				int vzstart = 0;
+				int vcstart = 0;
+				int eystart = coords.y;
+				int ezstart = coords.z;
+				int ecstart = coords.c;
+				if (eystart < 0) { eystart = 0; vystart = -coords.y; }
+				if (ezstart < 0) { ezstart = 0; vzstart = -coords.z; }
+				if (ecstart < 0) { ecstart = 0; vcstart = -coords.c; }
+				int eystop = coords.y + values[0][0].length;
+				int ezstop = coords.z + values[0].length;
+				int ecstop = coords.c + values.length;
+				if (eystop > dims.y) eystop = dims.y;
+				if (ezstop > dims.z) ezstop = dims.z;
+				if (ecstop > dims.c) ecstop = dims.c;
+				final int exy = eystart*dims.x + coords.x;
+				for (int ec=ecstart, vc=vcstart; ec<ecstop; ++ec, ++vc)
+					for (int ez=ezstart, vz=vzstart; ez<ezstop; ++ez, ++vz)
+						for (int y=eystart, ey=exy, vy=vystart; y<eystop; ++y, ey+=dims.x, ++vy)
+							buffers[ec][coords.t][ez].put(ey,(float)values[vc][vz][vy]);
+				break;
+			}
+			case Axes.CTY: {
+				int vystart = 0;
+				int vtstart = 0;
+				int vcstart = 0;
+				int eystart = coords.y;
+				int etstart = coords.t;
+				int ecstart = coords.c;
+				if (eystart < 0) { eystart = 0; vystart = -coords.y; }
+				if (etstart < 0) { etstart = 0; vtstart = -coords.t; }
+				if (ecstart < 0) { ecstart = 0; vcstart = -coords.c; }
+				int eystop = coords.y + values[0][0].length;
+				int etstop = coords.t + values[0].length;
+				int ecstop = coords.c + values.length;
+				if (eystop > dims.y) eystop = dims.y;
+				if (etstop > dims.t) etstop = dims.t;
+				if (ecstop > dims.c) ecstop = dims.c;
+				final int exy = eystart*dims.x + coords.x;
+				for (int ec=ecstart, vc=vcstart; ec<ecstop; ++ec, ++vc)
+					for (int et=etstart, vt=vtstart; et<etstop; ++et, ++vt)
+						for (int y=eystart, ey=exy, vy=vystart; y<eystop; ++y, ey+=dims.x, ++vy)
+							buffers[ec][et][coords.z].put(ey,(float)values[vc][vt][vy]);
+				break;
+			}
+			case Axes.CTZ: {
+				int vzstart = 0;
+				int vtstart = 0;
+				int vcstart = 0;
+				int ezstart = coords.z;
+				int etstart = coords.t;
+				int ecstart = coords.c;
+				if (ezstart < 0) { ezstart = 0; vzstart = -coords.z; }
+				if (etstart < 0) { etstart = 0; vtstart = -coords.t; }
+				if (ecstart < 0) { ecstart = 0; vcstart = -coords.c; }
+				int ezstop = coords.z + values[0][0].length;
+				int etstop = coords.t + values[0].length;
+				int ecstop = coords.c + values.length;
+				if (ezstop > dims.z) ezstop = dims.z;
+				if (etstop > dims.t) etstop = dims.t;
+				if (ecstop > dims.c) ecstop = dims.c;
+				final int exy = coords.y*dims.x + coords.x;
+				for (int ec=ecstart, vc=vcstart; ec<ecstop; ++ec, ++vc)
+					for (int et=etstart, vt=vtstart; et<etstop; ++et, ++vt)
+						for (int ez=ezstart, vz=vzstart; ez<ezstop; ++ez, ++vz)
+							buffers[ec][et][ez].put(exy,(float)values[vc][vt][vz]);
+				break;
+			}
+			default:
+				throw new IllegalStateException("Wrong number of active axes");
+		}
+	}
+	
+	public void set(final Coordinates coords, final double[][][][] values) {
+		
+		switch (axes) {
+			case Axes.TZYX: {
+				int vxstart = 0;
+				int vystart = 0;
+				int vzstart = 0;
+				int vtstart = 0;
+				int exstart = coords.x;
+				int eystart = coords.y;
+				int ezstart = coords.z;
+				int etstart = coords.t;
+				if (exstart < 0) { exstart = 0; vxstart = -coords.x; }
+				if (eystart < 0) { eystart = 0; vystart = -coords.y; }
+				if (ezstart < 0) { ezstart = 0; vzstart = -coords.z; }
+				if (etstart < 0) { etstart = 0; vtstart = -coords.t; }
+				int exstop = coords.x + values[0][0][0].length;
+				int eystop = coords.y + values[0][0].length;
+				int ezstop = coords.z + values[0].length;
+				int etstop = coords.t + values.length;
+				if (exstop > dims.x) exstop = dims.x;
+				if (eystop > dims.y) eystop = dims.y;
+				if (ezstop > dims.z) ezstop = dims.z;
+				if (etstop > dims.t) etstop = dims.t;
+				final int exy = eystart*dims.x + exstart;
+				for (int et=etstart, vt=vtstart; et<etstop; ++et, ++vt)
+					for (int ez=ezstart, vz=vzstart; ez<ezstop; ++ez, ++vz)
+						for (int y=eystart, ey=exy, vy=vystart; y<eystop; ++y, ey+=dims.x, ++vy)
+							for (int x=exstart, ex=ey, vx=vxstart; x<exstop; ++x, ++ex, ++vx)
+								buffers[coords.c][et][ez].put(ex,(float)values[vt][vz][vy][vx]);
+				break;
+			}
+			case Axes.CZYX: {
+				int vxstart = 0;
+				int vystart = 0;
+				int vzstart = 0;
+				int vcstart = 0;
+				int exstart = coords.x;
+				int eystart = coords.y;
+				int ezstart = coords.z;
+				int ecstart = coords.c;
+				if (exstart < 0) { exstart = 0; vxstart = -coords.x; }
+				if (eystart < 0) { eystart = 0; vystart = -coords.y; }
+				if (ezstart < 0) { ezstart = 0; vzstart = -coords.z; }
+				if (ecstart < 0) { ecstart = 0; vcstart = -coords.c; }
+				int exstop = coords.x + values[0][0][0].length;
+				int eystop = coords.y + values[0][0].length;
+				int ezstop = coords.z + values[0].length;
+				int ecstop = coords.c + values.length;
+				if (exstop > dims.x) exstop = dims.x;
+				if (eystop > dims.y) eystop = dims.y;
+				if (ezstop > dims.z) ezstop = dims.z;
+				if (ecstop > dims.c) ecstop = dims.c;
+				final int exy = eystart*dims.x + exstart;
+				for (int ec=ecstart, vc=vcstart; ec<ecstop; ++ec, ++vc)
+					for (int ez=ezstart, vz=vzstart; ez<ezstop; ++ez, ++vz)
+						for (int y=eystart, ey=exy, vy=vystart; y<eystop; ++y, ey+=dims.x, ++vy)
+							for (int x=exstart, ex=ey, vx=vxstart; x<exstop; ++x, ++ex, ++vx)
+								buffers[ec][coords.t][ez].put(ex,(float)values[vc][vz][vy][vx]);
+				break;
+			}
+			case Axes.CTYX: {
+				int vxstart = 0;
+				int vystart = 0;
+				int vtstart = 0;
+				int vcstart = 0;
+				int exstart = coords.x;
+				int eystart = coords.y;
+				int etstart = coords.t;
+				int ecstart = coords.c;
+				if (exstart < 0) { exstart = 0; vxstart = -coords.x; }
+				if (eystart < 0) { eystart = 0; vystart = -coords.y; }
+				if (etstart < 0) { etstart = 0; vtstart = -coords.t; }
+				if (ecstart < 0) { ecstart = 0; vcstart = -coords.c; }
+				int exstop = coords.x + values[0][0][0].length;
+				int eystop = coords.y + values[0][0].length;
+				int etstop = coords.t + values[0].length;
+				int ecstop = coords.c + values.length;
+				if (exstop > dims.x) exstop = dims.x;
+				if (eystop > dims.y) eystop = dims.y;
+				if (etstop > dims.t) etstop = dims.t;
+				if (ecstop > dims.c) ecstop = dims.c;
+				final int exy = eystart*dims.x + exstart;
+				for (int ec=ecstart, vc=vcstart; ec<ecstop; ++ec, ++vc)
+					for (int et=etstart, vt=vtstart; et<etstop; ++et, ++vt)
+						for (int y=eystart, ey=exy, vy=vystart; y<eystop; ++y, ey+=dims.x, ++vy)
+							for (int x=exstart, ex=ey, vx=vxstart; x<exstop; ++x, ++ex, ++vx)
+								buffers[ec][et][coords.z].put(ex,(float)values[vc][vt][vy][vx]);
+				break;
+			}
+			case Axes.CTZX: {
+				int vxstart = 0;
+				int vzstart = 0;
+				int vtstart = 0;
+				int vcstart = 0;
+				int exstart = coords.x;
+				int ezstart = coords.z;
+				int etstart = coords.t;
+				int ecstart = coords.c;
+				if (exstart < 0) { exstart = 0; vxstart = -coords.x; }
+				if (ezstart < 0) { ezstart = 0; vzstart = -coords.z; }
+				if (etstart < 0) { etstart = 0; vtstart = -coords.t; }
+				if (ecstart < 0) { ecstart = 0; vcstart = -coords.c; }
+				int exstop = coords.x + values[0][0][0].length;
+				int ezstop = coords.z + values[0][0].length;
+				int etstop = coords.t + values[0].length;
+				int ecstop = coords.c + values.length;
+				if (exstop > dims.x) exstop = dims.x;
+				if (ezstop > dims.z) ezstop = dims.z;
+				if (etstop > dims.t) etstop = dims.t;
+				if (ecstop > dims.c) ecstop = dims.c;
+				final int exy = coords.y*dims.x + exstart;
+				for (int ec=ecstart, vc=vcstart; ec<ecstop; ++ec, ++vc)
+					for (int et=etstart, vt=vtstart; et<etstop; ++et, ++vt)
+						for (int ez=ezstart, vz=vzstart; ez<ezstop; ++ez, ++vz)
+							for (int x=exstart, ex=exy, vx=vxstart; x<exstop; ++x, ++ex, ++vx)
+								buffers[ec][et][ez].put(ex,(float)values[vc][vt][vz][vx]);
+				break;
+			}
+			case Axes.CTZY: {
+				int vystart = 0;
+				int vzstart = 0;
+				int vtstart = 0;
+				int vcstart = 0;
+				int eystart = coords.y;
+				int ezstart = coords.z;
+				int etstart = coords.t;
+				int ecstart = coords.c;
+				if (eystart < 0) { eystart = 0; vystart = -coords.y; }
+				if (ezstart < 0) { ezstart = 0; vzstart = -coords.z; }
+				if (etstart < 0) { etstart = 0; vtstart = -coords.t; }
+				if (ecstart < 0) { ecstart = 0; vcstart = -coords.c; }
+				int eystop = coords.y + values[0][0][0].length;
+				int ezstop = coords.z + values[0][0].length;
+				int etstop = coords.t + values[0].length;
+				int ecstop = coords.c + values.length;
+				if (eystop > dims.y) eystop = dims.y;
+				if (ezstop > dims.z) ezstop = dims.z;
+				if (etstop > dims.t) etstop = dims.t;
+				if (ecstop > dims.c) ecstop = dims.c;
+				final int exy = eystart*dims.x + coords.x;
+				for (int ec=ecstart, vc=vcstart; ec<ecstop; ++ec, ++vc)
+					for (int et=etstart, vt=vtstart; et<etstop; ++et, ++vt)
+						for (int ez=ezstart, vz=vzstart; ez<ezstop; ++ez, ++vz)
+							for (int y=eystart, ey=exy, vy=vystart; y<eystop; ++y, ey+=dims.x, ++vy)
+								buffers[ec][et][ez].put(ey,(float)values[vc][vt][vz][vy]);
+				break;
+			}
+			default:
+				throw new IllegalStateException("Wrong number of active axes");
+		}
+	}
+	
+	public void set(final Coordinates coords, final double[][][][][] values) {
+		
+		switch (axes) {
+			case Axes.CTZYX: {
+				int vxstart = 0;
+				int vystart = 0;
+				int vzstart = 0;
+				int vtstart = 0;
+				int vcstart = 0;
+				int exstart = coords.x;
+				int eystart = coords.y;
+				int ezstart = coords.z;
+				int etstart = coords.t;
+				int ecstart = coords.c;
+				if (exstart < 0) { exstart = 0; vxstart = -coords.x; }
+				if (eystart < 0) { eystart = 0; vystart = -coords.y; }
+				if (ezstart < 0) { ezstart = 0; vzstart = -coords.z; }
+				if (etstart < 0) { etstart = 0; vtstart = -coords.t; }
+				if (ecstart < 0) { ecstart = 0; vcstart = -coords.c; }
+				int exstop = coords.x + values[0][0][0][0].length;
+				int eystop = coords.y + values[0][0][0].length;
+				int ezstop = coords.z + values[0][0].length;
+				int etstop = coords.t + values[0].length;
+				int ecstop = coords.c + values.length;
+				if (exstop > dims.x) exstop = dims.x;
+				if (eystop > dims.y) eystop = dims.y;
+				if (ezstop > dims.z) ezstop = dims.z;
+				if (etstop > dims.t) etstop = dims.t;
+				if (ecstop > dims.c) ecstop = dims.c;
+				final int exy = eystart*dims.x + exstart;
+				for (int ec=ecstart, vc=vcstart; ec<ecstop; ++ec, ++vc)
+					for (int et=etstart, vt=vtstart; et<etstop; ++et, ++vt)
+						for (int ez=ezstart, vz=vzstart; ez<ezstop; ++ez, ++vz)
+							for (int y=eystart, ey=exy, vy=vystart; y<eystop; ++y, ey+=dims.x, ++vy)
+								for (int x=exstart, ex=ey, vx=vxstart; x<exstop; ++x, ++ex, ++vx)
+									buffers[ec][et][ez].put(ex,(float)values[vc][vt][vz][vy][vx]);
+				break;
+			}
+			default:
+				throw new IllegalStateException("Wrong number of active axes");
+		}
+	}
+	
+}
@@ -7,12 +7,15 @@
 import imagescience.image.Dimensions;
 import imagescience.image.FloatImage;
 import imagescience.image.Image;
+import imagescience.image.MappedFloatImage;
 import imagescience.shape.Point;
 import imagescience.utility.FMath;
 import imagescience.utility.ImageScience;
 import imagescience.utility.Messenger;
+import imagescience.utility.Parallelizer;
 import imagescience.utility.Progressor;
 import imagescience.utility.Timer;
+import java.util.HashMap;
 
 /** Affine transforms images using different interpolation schemes.
 	
@@ -87,6 +90,11 @@ public synchronized Image run(final Image image, final Transform transform, fina
 		
 		// Check and initialize parameters:
 		checkup(image.dimensions(),transform,scheme,fit,antialias);
+		prefilter.parallelizer.threads(parallelizer.threads());
+		
+		// Keep only the spline coefficients of the current input image:
+		if (!cache || image.id() != source) coefficients.clear();
+		source = image.id();
 		
 		// Affine transform:
 		messenger.log("Affine transforming "+image.type());
@@ -160,36 +168,38 @@ private Image affine(final Image image) {
 			case LINEAR: {
 				messenger.log("Creating bordered copy of input");
 				final Image bordered = image.border(borders);
-				if (xytrans) affine_linear_xy(bordered,affined);
+				if (separable) affine_separable(bordered,affined);
+				else if (xytrans) affine_linear_xy(bordered,affined);
 				else affine_linear_xyz(bordered,affined);
 				break;
 			}
 			case CUBIC: {
 				messenger.log("Creating bordered copy of input");
 				final Image bordered = image.border(borders);
-				if (xytrans) affine_cubic_xy(bordered,affined);
+				if (separable) affine_separable(bordered,affined);
+				else if (xytrans) affine_cubic_xy(bordered,affined);
 				else affine_cubic_xyz(bordered,affined);
 				break;
 			}
 			case BSPLINE3: {
-				messenger.log("Creating bordered copy of input");
-				final Image bordered = new FloatImage(image,borders);
-				if (xytrans) affine_bspline3_xy(bordered,affined);
-				else affine_bspline3_xyz(bordered,affined);
+				final Image coefs = coefficients(image,new Axes(true,true,!xytrans));
+				if (separable) affine_separable(coefs,affined);
+				else if (xytrans) affine_bspline3_xy(coefs,affined);
+				else affine_bspline3_xyz(coefs,affined);
 				break;
 			}
 			case OMOMS3: {
-				messenger.log("Creating bordered copy of input");
-				final Image bordered = new FloatImage(image,borders);
-				if (xytrans) affine_omoms3_xy(bordered,affined);
-				else affine_omoms3_xyz(bordered,affined);
+				final Image coefs = coefficients(image,new Axes(true,true,!xytrans));
+				if (separable) affine_separable(coefs,affined);
+				else if (xytrans) affine_omoms3_xy(coefs,affined);
+				else affine_omoms3_xyz(coefs,affined);
 				break;
 			}
 			case BSPLINE5: {
-				messenger.log("Creating bordered copy of input");
-				final Image bordered = new FloatImage(image,borders);
-				if (xytrans) affine_bspline5_xy(bordered,affined);
-				else affine_bspline5_xyz(bordered,affined);
+				final Image coefs = coefficients(image,new Axes(true,true,!xytrans));
+				if (separable) affine_separable(coefs,affined);
+				else if (xytrans) affine_bspline5_xy(coefs,affined);
+				else affine_bspline5_xyz(coefs,affined);
 				break;
 			}
 		}
@@ -197,6 +207,221 @@ private Image affine(final Image image) {
 		return affined;
 	}
 	
+	private Image coefficients(final Image image, final Axes axes) {
+		
+		// Reuse the coefficients computed in an earlier call if allowed:
+		final String key = component+" "+scheme+" "+axes.x+" "+axes.y+" "+axes.z+" "+antialias+" "+background;
+		if (cache) {
+			final Image coefs = coefficients.get(key);
+			if (coefs != null) {
+				messenger.log("Reusing spline coefficients computed earlier");
+				return coefs;
+			}
+		}
+		
+		messenger.log("Creating bordered copy of input");
+		final Image coefs = (image instanceof MappedFloatImage) ? image.border(borders) : new FloatImage(image,borders);
+		
+		messenger.log("Applying "+schemes(scheme)+" prefilter");
+		double x0 = 1;
+		switch (scheme) {
+			case BSPLINE3: prefilter.bspline3(coefs,axes,borders); x0 = BSPLINE3X0; break;
+			case OMOMS3: prefilter.omoms3(coefs,axes,borders); x0 = OMOMS3X0; break;
+			case BSPLINE5: prefilter.bspline5(coefs,axes,borders); x0 = BSPLINE5X0; break;
+		}
+		
+		if (antialias) {
+			// If any of the dimensions equals 1, the prefiltering operation
+			// will not have been carried out in that dimension. Subsequent
+			// application of the spline kernel in that dimension will result
+			// in an overall down-scaling of the grey-values, which should be
+			// corrected for:
+			double scale = 1;
+			if (axes.x && indims.x == 1) scale /= x0;
+			if (axes.y && indims.y == 1) scale /= x0;
+			if (axes.z && indims.z == 1) scale /= x0;
+			if (scale != 1) {
+				messenger.log("Correction scaling with factor "+scale);
+				coefs.multiply(scale);
+			}
+			coefs.set(borders,background);
+		}
+		else coefs.mirror(borders);
+		
+		if (cache) coefficients.put(key,coefs);
+		
+		return coefs;
+	}
+	
+	private void affine_separable(final Image image, final Image affined) {
+		
+		// Initialization:
+		messenger.log("Affine transforming separately in each dimension");
+		messenger.log("Using "+schemes(scheme)+" with precomputed weights");
+		messenger.status("Affine transforming"+component+"...");
+		progressor.steps(newdims.c*newdims.t*newdims.z*newdims.y);
+		if (scheme == LINEAR || scheme == CUBIC) {
+			if (antialias) image.set(borders,background);
+			else image.mirror(borders);
+		}
+		
+		// Since the backward transformation matrix has no cross terms, the
+		// sampling positions and weights in x depend only on the column and
+		// need to be computed only once (a negative start index indicates
+		// that the column falls outside the input image):
+		final int taps = (scheme == LINEAR) ? 2 : (scheme == BSPLINE5) ? 6 : 4;
+		final int offset = (taps - 1)/2;
+		final int[] xstart = new int[newdims.x];
+		final double[] xweights = new double[newdims.x*taps];
+		for (int x=0; x<newdims.x; ++x) {
+			final double dx = x - pcoff.x;
+			final double tx = pc.x + dx*bwd.axx + bwd.axt;
+			final int ix = FMath.floor(tx);
+			if (tx <= -1 || ix > pmax.x) xstart[x] = -1;
+			else {
+				xstart[x] = borders.x + ix - offset;
+				weights(tx - ix,xweights,x*taps);
+			}
+		}
+		
+		// Affine transform row by row. The input rows resampled in x are kept
+		// in a small cache, since consecutive output rows mostly need the
+		// same input rows:
+		final int ztaps = xytrans ? 1 : taps;
+		final int slots = 2*taps*ztaps;
+		final Dimensions bdims = image.dimensions();
+		image.axes(Axes.X);
+		affined.axes(Axes.X);
+		
+		progressor.start();
+		parallelizer.run(newdims.c*newdims.t*newdims.z*newdims.y,new Parallelizer.Block() {
+			public void run(final int first, final int last) {
+				final Coordinates cin = new Coordinates();
+				final Coordinates cnew = new Coordinates();
+				final double[] ain = new double[bdims.x];
+				final double[] asum = new double[newdims.x];
+				final double[] anew = new double[newdims.x];
+				final double[] wy = new double[taps];
+				final double[] wz = new double[taps];
+				final double[][] rows = new double[slots][newdims.x];
+				final long[] keys = new long[slots];
+				for (int r=0; r<slots; ++r) keys[r] = -1;
+				int slot = 0;
+				for (int row=first; row<last; ++row) {
+					row(row,cnew);
+					cin.c = cnew.c; cin.t = cnew.t;
+					final double dy = cnew.y - pcoff.y;
+					final double ty = pc.y + dy*bwd.ayy + bwd.ayt;
+					final int iy = FMath.floor(ty);
+					boolean inside = !(ty <= -1 || iy > pmax.y);
+					int zstart = cnew.z;
+					if (!xytrans) {
+						final double dz = cnew.z - pcoff.z;
+						final double tz = pc.z + dz*bwd.azz + bwd.azt;
+						final int iz = FMath.floor(tz);
+						if (tz <= -1 || iz > pmax.z) inside = false;
+						else {
+							zstart = borders.z + iz - offset;
+							weights(tz - iz,wz,0);
+						}
+					}
+					if (!inside) for (int x=0; x<newdims.x; ++x) anew[x] = background;
+					else {
+						weights(ty - iy,wy,0);
+						for (int x=0; x<newdims.x; ++x) anew[x] = 0;
+						for (int z=0; z<ztaps; ++z) {
+							for (int x=0; x<newdims.x; ++x) asum[x] = 0;
+							cin.z = zstart + z;
+							cin.x = 0;
+							for (int y=0; y<taps; ++y) {
+								cin.y = borders.y + iy - offset + y;
+								final long key = (((long)cin.c*bdims.t + cin.t)*bdims.z + cin.z)*bdims.y + cin.y;
+								int r = 0; while (r < slots && keys[r] != key) ++r;
+								if (r == slots) {
+									r = slot; slot = (slot + 1) % slots;
+									keys[r] = key;
+									image.get(cin,ain);
+									final double[] arow = rows[r];
+									for (int x=0, i=0; x<newdims.x; ++x, i+=taps) {
+										final int s = xstart[x];
+										double sum = 0;
+										if (s >= 0) for (int k=0; k<taps; ++k) sum += xweights[i+k]*ain[s+k];
+										arow[x] = sum;
+									}
+								}
+								final double[] arow = rows[r];
+								final double w = wy[y];
+								for (int x=0; x<newdims.x; ++x) asum[x] += w*arow[x];
+							}
+							if (xytrans) for (int x=0; x<newdims.x; ++x) anew[x] = asum[x];
+							else for (int x=0; x<newdims.x; ++x) anew[x] += wz[z]*asum[x];
+						}
+						for (int x=0; x<newdims.x; ++x) if (xstart[x] < 0) anew[x] = background;
+					}
+					affined.set(cnew,anew);
+					synchronized (progressor) { progressor.step(); }
+				}
+			}
+		});
+		progressor.stop();
+	}
+	
+	// Computes the weights of the sampling function of the current scheme
+	// for the given distance to the nearest sample at the lower side:
+	private void weights(final double diff, final double[] w, final int i) {
+		
+		final double mdiff = 1 - diff;
+		switch (scheme) {
+			case LINEAR: {
+				w[i] = mdiff;
+				w[i+1] = diff;
+				break;
+			}
+			case CUBIC: {
+				w[i] = fm1o2*diff*mdiff*mdiff;
+				w[i+1] = 1 + (f3o2*diff - f5o2)*diff*diff;
+				w[i+2] = 1 + (f3o2*mdiff - f5o2)*mdiff*mdiff;
+				w[i+3] = fm1o2*mdiff*diff*diff;
+				break;
+			}
+			case BSPLINE3: {
+				w[i] = f1o6*mdiff*mdiff*mdiff;
+				w[i+1] = f2o3 + (f1o2*diff - 1)*diff*diff;
+				w[i+2] = f2o3 + (f1o2*mdiff - 1)*mdiff*mdiff;
+				w[i+3] = f1o6*diff*diff*diff;
+				break;
+			}
+			case OMOMS3: {
+				w[i] = mdiff*(f1o42 + f1o6*mdiff*mdiff);
+				w[i+1] = f13o21 + diff*(f1o14 + diff*(f1o2*diff - 1));
+				w[i+2] = f13o21 + mdiff*(f1o14 + mdiff*(f1o2*mdiff - 1));
+				w[i+3] = diff*(f1o42 + f1o6*diff*diff);
+				break;
+			}
+			case BSPLINE5: {
+				final double diff2 = diff*diff;
+				final double mdiff2 = mdiff*mdiff;
+				w[i] = f1o120*mdiff2*mdiff2*mdiff;
+				w[i+1] = f1o120 + f1o24*mdiff*(1 + mdiff*(2 + mdiff*(2 + mdiff - mdiff2)));
+				w[i+2] = f11o20 + diff2*((f1o4 - f1o12*diff)*diff2 - f1o2);
+				w[i+3] = f11o20 + mdiff2*((f1o4 - f1o12*mdiff)*mdiff2 - f1o2);
+				w[i+4] = f1o120 + f1o24*diff*(1 + diff*(2 + diff*(2 + diff - diff2)));
+				w[i+5] = f1o120*diff2*diff2*diff;
+				break;
+			}
+		}
+	}
+	
+	// Sets the c-, t-, z-, and y-coordinates of the given row of the output
+	// image, with the rows numbered in the order of the original loops:
+	private void row(int row, final Coordinates cnew) {
+		
+		cnew.y = row % newdims.y; row /= newdims.y;
+		cnew.z = row % newdims.z; row /= newdims.z;
+		cnew.t = row % newdims.t;
+		cnew.c = row/newdims.t;
+	}
+	
 	private void checkup(final Dimensions indims, final Transform transform, final int scheme, final boolean fit, final boolean antialias) {
 		
 		messenger.log("Checking parameters");
@@ -301,6 +526,11 @@ private void checkup(final Dimensions indims, final Transform transform, final i
 			borders = new Borders(bsize,bsize,bsize);
 		}
 		
+		// If the backward matrix has no cross terms, as for scaling and
+		// translation along the axes, the transformation is separable and the
+		// sampling weights can be computed once per column and row:
+		separable = (scheme != NEAREST && bwd.axy == 0 && bwd.axz == 0 && bwd.ayx == 0 && bwd.ayz == 0 && (xytrans || (bwd.azx == 0 && bwd.azy == 0)));
+		
 		// Store anti-alias choice:
 		this.antialias = antialias;
 		if (antialias) messenger.log("Anti-aliasing image-background transitions");
@@ -316,31 +546,31 @@ private void affine_nearest_xy(final Image image, final Image affined) {
 		
 		// Affine transform using the backward transformation matrix: (note that
 		// when this method is called, the border size of image is 0)
-		final Coordinates cin = new Coordinates();
-		final Coordinates cnew = new Coordinates();
-		final double[] anew = new double[newdims.x];
 		affined.axes(Axes.X);
 		
 		progressor.start();
-		for (cnew.c=cin.c=0; cnew.c<newdims.c; ++cnew.c, ++cin.c) {
-			for (cnew.t=cin.t=0; cnew.t<newdims.t; ++cnew.t, ++cin.t) {
-				for (cnew.z=cin.z=0; cnew.z<newdims.z; ++cnew.z, ++cin.z) {
+		parallelizer.run(newdims.c*newdims.t*newdims.z*newdims.y,new Parallelizer.Block() {
+			public void run(final int first, final int last) {
+				final Coordinates cin = new Coordinates();
+				final Coordinates cnew = new Coordinates();
+				final double[] anew = new double[newdims.x];
+				for (int row=first; row<last; ++row) {
+					row(row,cnew);
+					cin.c = cnew.c; cin.t = cnew.t; cin.z = cnew.z;
 					final double dz = cnew.z - pcoff.z;
-					for (cnew.y=0; cnew.y<newdims.y; ++cnew.y) {
-						final double dy = cnew.y - pcoff.y;
-						for (int x=0; x<newdims.x; ++x) {
-							final double dx = x - pcoff.x;
-							cin.x = FMath.round(pc.x + dx*bwd.axx + dy*bwd.axy + dz*bwd.axz + bwd.axt);
-							cin.y = FMath.round(pc.y + dx*bwd.ayx + dy*bwd.ayy + dz*bwd.ayz + bwd.ayt);
-							if (cin.x < 0 || cin.x > pmax.x || cin.y < 0 || cin.y > pmax.y) anew[x] = background;
-							else anew[x] = image.get(cin);
-						}
-						affined.set(cnew,anew);
-						progressor.step();
+					final double dy = cnew.y - pcoff.y;
+					for (int x=0; x<newdims.x; ++x) {
+						final double dx = x - pcoff.x;
+						cin.x = FMath.round(pc.x + dx*bwd.axx + dy*bwd.axy + dz*bwd.axz + bwd.axt);
+						cin.y = FMath.round(pc.y + dx*bwd.ayx + dy*bwd.ayy + dz*bwd.ayz + bwd.ayt);
+						if (cin.x < 0 || cin.x > pmax.x || cin.y < 0 || cin.y > pmax.y) anew[x] = background;
+						else anew[x] = image.get(cin);
 					}
+					affined.set(cnew,anew);
+					synchronized (progressor) { progressor.step(); }
 				}
 			}
-		}
+		});
 		progressor.stop();
 	}
 	
@@ -354,32 +584,32 @@ private void affine_nearest_xyz(final Image image, final Image affined) {
 		
 		// Affine transform using the backward transformation matrix: (note that
 		// when this method is called, the border size of image is 0)
-		final Coordinates cin = new Coordinates();
-		final Coordinates cnew = new Coordinates();
-		final double[] anew = new double[newdims.x];
 		affined.axes(Axes.X);
 		
 		progressor.start();
-		for (cnew.c=cin.c=0; cnew.c<newdims.c; ++cnew.c, ++cin.c) {
-			for (cnew.t=cin.t=0; cnew.t<newdims.t; ++cnew.t, ++cin.t) {
-				for (cnew.z=0; cnew.z<newdims.z; ++cnew.z) {
+		parallelizer.run(newdims.c*newdims.t*newdims.z*newdims.y,new Parallelizer.Block() {
+			public void run(final int first, final int last) {
+				final Coordinates cin = new Coordinates();
+				final Coordinates cnew = new Coordinates();
+				final double[] anew = new double[newdims.x];
+				for (int row=first; row<last; ++row) {
+					row(row,cnew);
+					cin.c = cnew.c; cin.t = cnew.t;
 					final double dz = cnew.z - pcoff.z;
-					for (cnew.y=0; cnew.y<newdims.y; ++cnew.y) {
-						final double dy = cnew.y - pcoff.y;
-						for (int x=0; x<newdims.x; ++x) {
-							final double dx = x - pcoff.x;
-							cin.x = FMath.round(pc.x + dx*bwd.axx + dy*bwd.axy + dz*bwd.axz + bwd.axt);
-							cin.y = FMath.round(pc.y + dx*bwd.ayx + dy*bwd.ayy + dz*bwd.ayz + bwd.ayt);
-							cin.z = FMath.round(pc.z + dx*bwd.azx + dy*bwd.azy + dz*bwd.azz + bwd.azt);
-							if (cin.x < 0 || cin.x > pmax.x || cin.y < 0 || cin.y > pmax.y || cin.z < 0 || cin.z > pmax.z) anew[x] = background;
-							else anew[x] = image.get(cin);
-						}
-						affined.set(cnew,anew);
-						progressor.step();
+					final double dy = cnew.y - pcoff.y;
+					for (int x=0; x<newdims.x; ++x) {
+						final double dx = x - pcoff.x;
+						cin.x = FMath.round(pc.x + dx*bwd.axx + dy*bwd.axy + dz*bwd.axz + bwd.axt);
+						cin.y = FMath.round(pc.y + dx*bwd.ayx + dy*bwd.ayy + dz*bwd.ayz + bwd.ayt);
+						cin.z = FMath.round(pc.z + dx*bwd.azx + dy*bwd.azy + dz*bwd.azz + bwd.azt);
+						if (cin.x < 0 || cin.x > pmax.x || cin.y < 0 || cin.y > pmax.y || cin.z < 0 || cin.z > pmax.z) anew[x] = background;
+						else anew[x] = image.get(cin);
 					}
+					affined.set(cnew,anew);
+					synchronized (progressor) { progressor.step(); }
 				}
 			}
-		}
+		});
 		progressor.stop();
 	}
 	
@@ -394,45 +624,45 @@ private void affine_linear_xy(final Image image, final Image affined) {
 		else image.mirror(borders);
 		
 		// Affine transform using the backward transformation matrix:
-		final Coordinates cin = new Coordinates();
-		final Coordinates cnew = new Coordinates();
-		final double[] anew = new double[newdims.x];
 		affined.axes(Axes.X);
 		
 		progressor.start();
-		for (cnew.c=cin.c=0; cnew.c<newdims.c; ++cnew.c, ++cin.c) {
-			for (cnew.t=cin.t=0; cnew.t<newdims.t; ++cnew.t, ++cin.t) {
-				for (cnew.z=cin.z=0; cnew.z<newdims.z; ++cnew.z, ++cin.z) {
+		parallelizer.run(newdims.c*newdims.t*newdims.z*newdims.y,new Parallelizer.Block() {
+			public void run(final int first, final int last) {
+				final Coordinates cin = new Coordinates();
+				final Coordinates cnew = new Coordinates();
+				final double[] anew = new double[newdims.x];
+				for (int row=first; row<last; ++row) {
+					row(row,cnew);
+					cin.c = cnew.c; cin.t = cnew.t; cin.z = cnew.z;
 					final double dz = cnew.z - pcoff.z;
-					for (cnew.y=0; cnew.y<newdims.y; ++cnew.y) {
-						final double dy = cnew.y - pcoff.y;
-						for (int x=0; x<newdims.x; ++x) {
-							final double dx = x - pcoff.x;
-							final double tx = pc.x + dx*bwd.axx + dy*bwd.axy + dz*bwd.axz + bwd.axt;
-							final double ty = pc.y + dx*bwd.ayx + dy*bwd.ayy + dz*bwd.ayz + bwd.ayt;
-							final int ix = FMath.floor(tx);
-							final int iy = FMath.floor(ty);
-							if (tx <= -1 || ix > pmax.x || ty <= -1 || iy > pmax.y) anew[x] = background;
-							else {
-								final double xdiff = tx - ix;
-								final double ydiff = ty - iy;
-								final double xmdiff = 1 - xdiff;
-								final double ymdiff = 1 - ydiff;
-								cin.x = borders.x + ix;
-								cin.y = borders.y + iy;
-								final double in00 = image.get(cin); ++cin.x;
-								final double in01 = image.get(cin); ++cin.y;
-								final double in11 = image.get(cin); --cin.x;
-								final double in10 = image.get(cin);
-								anew[x] = ymdiff*xmdiff*in00 + ymdiff*xdiff*in01 + ydiff*xmdiff*in10 + ydiff*xdiff*in11;
-							}
+					final double dy = cnew.y - pcoff.y;
+					for (int x=0; x<newdims.x; ++x) {
+						final double dx = x - pcoff.x;
+						final double tx = pc.x + dx*bwd.axx + dy*bwd.axy + dz*bwd.axz + bwd.axt;
+						final double ty = pc.y + dx*bwd.ayx + dy*bwd.ayy + dz*bwd.ayz + bwd.ayt;
+						final int ix = FMath.floor(tx);
+						final int iy = FMath.floor(ty);
+						if (tx <= -1 || ix > pmax.x || ty <= -1 || iy > pmax.y) anew[x] = background;
+						else {
+							final double xdiff = tx - ix;
+							final double ydiff = ty - iy;
+							final double xmdiff = 1 - xdiff;
+							final double ymdiff = 1 - ydiff;
+							cin.x = borders.x + ix;
+							cin.y = borders.y + iy;
+							final double in00 = image.get(cin); ++cin.x;
+							final double in01 = image.get(cin); ++cin.y;
+							final double in11 = image.get(cin); --cin.x;
+							final double in10 = image.get(cin);
+							anew[x] = ymdiff*xmdiff*in00 + ymdiff*xdiff*in01 + ydiff*xmdiff*in10 + ydiff*xdiff*in11;
 						}
-						affined.set(cnew,anew);
-						progressor.step();
 					}
+					affined.set(cnew,anew);
+					synchronized (progressor) { progressor.step(); }
 				}
 			}
-		}
+		});
 		progressor.stop();
 	}
 	
@@ -447,63 +677,63 @@ private void affine_linear_xyz(final Image image, final Image affined) {
 		else image.mirror(borders);
 		
 		// Affine transform using the backward transformation matrix:
-		final Coordinates cin = new Coordinates();
-		final Coordinates cnew = new Coordinates();
-		final double[] anew = new double[newdims.x];
 		affined.axes(Axes.X);
 		
 		progressor.start();
-		for (cnew.c=cin.c=0; cnew.c<newdims.c; ++cnew.c, ++cin.c) {
-			for (cnew.t=cin.t=0; cnew.t<newdims.t; ++cnew.t, ++cin.t) {
-				for (cnew.z=0; cnew.z<newdims.z; ++cnew.z) {
+		parallelizer.run(newdims.c*newdims.t*newdims.z*newdims.y,new Parallelizer.Block() {
+			public void run(final int first, final int last) {
+				final Coordinates cin = new Coordinates();
+				final Coordinates cnew = new Coordinates();
+				final double[] anew = new double[newdims.x];
+				for (int row=first; row<last; ++row) {
+					row(row,cnew);
+					cin.c = cnew.c; cin.t = cnew.t;
 					final double dz = cnew.z - pcoff.z;
-					for (cnew.y=0; cnew.y<newdims.y; ++cnew.y) {
-						final double dy = cnew.y - pcoff.y;
-						for (int x=0; x<newdims.x; ++x) {
-							final double dx = x - pcoff.x;
-							final double tx = pc.x + dx*bwd.axx + dy*bwd.axy + dz*bwd.axz + bwd.axt;
-							final double ty = pc.y + dx*bwd.ayx + dy*bwd.ayy + dz*bwd.ayz + bwd.ayt;
-							final double tz = pc.z + dx*bwd.azx + dy*bwd.azy + dz*bwd.azz + bwd.azt;
-							final int ix = FMath.floor(tx);
-							final int iy = FMath.floor(ty);
-							final int iz = FMath.floor(tz);
-							if (tx <= -1 || ix > pmax.x || ty <= -1 || iy > pmax.y || tz <= -1 || iz > pmax.z) anew[x] = background;
-							else {
-								final double xdiff = tx - ix;
-								final double ydiff = ty - iy;
-								final double zdiff = tz - iz;
-								final double xmdiff = 1 - xdiff;
-								final double ymdiff = 1 - ydiff;
-								final double zmdiff = 1 - zdiff;
-								cin.x = borders.x + ix;
-								cin.y = borders.y + iy;
-								cin.z = borders.z + iz;
-								final double in000 = image.get(cin); ++cin.x;
-								final double in001 = image.get(cin); ++cin.y;
-								final double in011 = image.get(cin); --cin.x;
-								final double in010 = image.get(cin); ++cin.z;
-								final double in110 = image.get(cin); ++cin.x;
-								final double in111 = image.get(cin); --cin.y;
-								final double in101 = image.get(cin); --cin.x;
-								final double in100 = image.get(cin);
-								anew[x] = (
-									zmdiff*ymdiff*xmdiff*in000 +
-									zmdiff*ymdiff*xdiff*in001 +
-									zmdiff*ydiff*xmdiff*in010 +
-									zmdiff*ydiff*xdiff*in011 +
-									zdiff*ymdiff*xmdiff*in100 +
-									zdiff*ymdiff*xdiff*in101 +
-									zdiff*ydiff*xmdiff*in110 +
-									zdiff*ydiff*xdiff*in111
-								);
-							}
+					final double dy = cnew.y - pcoff.y;
+					for (int x=0; x<newdims.x; ++x) {
+						final double dx = x - pcoff.x;
+						final double tx = pc.x + dx*bwd.axx + dy*bwd.axy + dz*bwd.axz + bwd.axt;
+						final double ty = pc.y + dx*bwd.ayx + dy*bwd.ayy + dz*bwd.ayz + bwd.ayt;
+						final double tz = pc.z + dx*bwd.azx + dy*bwd.azy + dz*bwd.azz + bwd.azt;
+						final int ix = FMath.floor(tx);
+						final int iy = FMath.floor(ty);
+						final int iz = FMath.floor(tz);
+						if (tx <= -1 || ix > pmax.x || ty <= -1 || iy > pmax.y || tz <= -1 || iz > pmax.z) anew[x] = background;
+						else {
+							final double xdiff = tx - ix;
+							final double ydiff = ty - iy;
+							final double zdiff = tz - iz;
+							final double xmdiff = 1 - xdiff;
+							final double ymdiff = 1 - ydiff;
+							final double zmdiff = 1 - zdiff;
+							cin.x = borders.x + ix;
+							cin.y = borders.y + iy;
+							cin.z = borders.z + iz;
+							final double in000 = image.get(cin); ++cin.x;
+							final double in001 = image.get(cin); ++cin.y;
+							final double in011 = image.get(cin); --cin.x;
+							final double in010 = image.get(cin); ++cin.z;
+							final double in110 = image.get(cin); ++cin.x;
+							final double in111 = image.get(cin); --cin.y;
+							final double in101 = image.get(cin); --cin.x;
+							final double in100 = image.get(cin);
+							anew[x] = (
+								zmdiff*ymdiff*xmdiff*in000 +
+								zmdiff*ymdiff*xdiff*in001 +
+								zmdiff*ydiff*xmdiff*in010 +
+								zmdiff*ydiff*xdiff*in011 +
+								zdiff*ymdiff*xmdiff*in100 +
+								zdiff*ymdiff*xdiff*in101 +
+								zdiff*ydiff*xmdiff*in110 +
+								zdiff*ydiff*xdiff*in111
+							);
 						}
-						affined.set(cnew,anew);
-						progressor.step();
 					}
+					affined.set(cnew,anew);
+					synchronized (progressor) { progressor.step(); }
 				}
 			}
-		}
+		});
 		progressor.stop();
 	}
 	
@@ -518,70 +748,70 @@ private void affine_cubic_xy(final Image image, final Image affined) {
 		else image.mirror(borders);
 		
 		// Affine transform using the backward transformation matrix:
-		final Coordinates cin = new Coordinates();
-		final Coordinates cnew = new Coordinates();
-		final double[] anew = new double[newdims.x];
 		affined.axes(Axes.X);
 		
 		progressor.start();
-		for (cnew.c=cin.c=0; cnew.c<newdims.c; ++cnew.c, ++cin.c) {
-			for (cnew.t=cin.t=0; cnew.t<newdims.t; ++cnew.t, ++cin.t) {
-				for (cnew.z=cin.z=0; cnew.z<newdims.z; ++cnew.z, ++cin.z) {
+		parallelizer.run(newdims.c*newdims.t*newdims.z*newdims.y,new Parallelizer.Block() {
+			public void run(final int first, final int last) {
+				final Coordinates cin = new Coordinates();
+				final Coordinates cnew = new Coordinates();
+				final double[] anew = new double[newdims.x];
+				for (int row=first; row<last; ++row) {
+					row(row,cnew);
+					cin.c = cnew.c; cin.t = cnew.t; cin.z = cnew.z;
 					final double dz = cnew.z - pcoff.z;
-					for (cnew.y=0; cnew.y<newdims.y; ++cnew.y) {
-						final double dy = cnew.y - pcoff.y;
-						for (int x=0; x<newdims.x; ++x) {
-							final double dx = x - pcoff.x;
-							final double tx = pc.x + dx*bwd.axx + dy*bwd.axy + dz*bwd.axz + bwd.axt;
-							final double ty = pc.y + dx*bwd.ayx + dy*bwd.ayy + dz*bwd.ayz + bwd.ayt;
-							final int ix = FMath.floor(tx);
-							final int iy = FMath.floor(ty);
-							if (tx <= -1 || ix > pmax.x || ty <= -1 || iy > pmax.y) anew[x] = background;
-							else {
-								final double xdiff = tx - ix;
-								final double xmdiff = 1 - xdiff;
-								final double wxm1 = fm1o2*xdiff*xmdiff*xmdiff;
-								final double wx00 = 1 + (f3o2*xdiff - f5o2)*xdiff*xdiff;
-								final double wxp1 = 1 + (f3o2*xmdiff - f5o2)*xmdiff*xmdiff;
-								final double wxp2 = fm1o2*xmdiff*xdiff*xdiff;
-								final double ydiff = ty - iy;
-								final double ymdiff = 1 - ydiff;
-								final double wym1 = fm1o2*ydiff*ymdiff*ymdiff;
-								final double wy00 = 1 + (f3o2*ydiff - f5o2)*ydiff*ydiff;
-								final double wyp1 = 1 + (f3o2*ymdiff - f5o2)*ymdiff*ymdiff;
-								final double wyp2 = fm1o2*ymdiff*ydiff*ydiff;
-								cin.x = borders.x + ix - 1;
-								cin.y = borders.y + iy - 1;
-								final double in00 = image.get(cin); ++cin.x;
-								final double in01 = image.get(cin); ++cin.x;
-								final double in02 = image.get(cin); ++cin.x;
-								final double in03 = image.get(cin); ++cin.y;
-								final double in13 = image.get(cin); --cin.x;
-								final double in12 = image.get(cin); --cin.x;
-								final double in11 = image.get(cin); --cin.x;
-								final double in10 = image.get(cin); ++cin.y;
-								final double in20 = image.get(cin); ++cin.x;
-								final double in21 = image.get(cin); ++cin.x;
-								final double in22 = image.get(cin); ++cin.x;
-								final double in23 = image.get(cin); ++cin.y;
-								final double in33 = image.get(cin); --cin.x;
-								final double in32 = image.get(cin); --cin.x;
-								final double in31 = image.get(cin); --cin.x;
-								final double in30 = image.get(cin);
-								anew[x] = (
-									wym1*(wxm1*in00 + wx00*in01 + wxp1*in02 + wxp2*in03) +
-									wy00*(wxm1*in10 + wx00*in11 + wxp1*in12 + wxp2*in13) +
-									wyp1*(wxm1*in20 + wx00*in21 + wxp1*in22 + wxp2*in23) +
-									wyp2*(wxm1*in30 + wx00*in31 + wxp1*in32 + wxp2*in33)
-								);
-							}
+					final double dy = cnew.y - pcoff.y;
+					for (int x=0; x<newdims.x; ++x) {
+						final double dx = x - pcoff.x;
+						final double tx = pc.x + dx*bwd.axx + dy*bwd.axy + dz*bwd.axz + bwd.axt;
+						final double ty = pc.y + dx*bwd.ayx + dy*bwd.ayy + dz*bwd.ayz + bwd.ayt;
+						final int ix = FMath.floor(tx);
+						final int iy = FMath.floor(ty);
+						if (tx <= -1 || ix > pmax.x || ty <= -1 || iy > pmax.y) anew[x] = background;
+						else {
+							final double xdiff = tx - ix;
+							final double xmdiff = 1 - xdiff;
+							final double wxm1 = fm1o2*xdiff*xmdiff*xmdiff;
+							final double wx00 = 1 + (f3o2*xdiff - f5o2)*xdiff*xdiff;
+							final double wxp1 = 1 + (f3o2*xmdiff - f5o2)*xmdiff*xmdiff;
+							final double wxp2 = fm1o2*xmdiff*xdiff*xdiff;
+							final double ydiff = ty - iy;
+							final double ymdiff = 1 - ydiff;
+							final double wym1 = fm1o2*ydiff*ymdiff*ymdiff;
+							final double wy00 = 1 + (f3o2*ydiff - f5o2)*ydiff*ydiff;
+							final double wyp1 = 1 + (f3o2*ymdiff - f5o2)*ymdiff*ymdiff;
+							final double wyp2 = fm1o2*ymdiff*ydiff*ydiff;
+							cin.x = borders.x + ix - 1;
+							cin.y = borders.y + iy - 1;
+							final double in00 = image.get(cin); ++cin.x;
+							final double in01 = image.get(cin); ++cin.x;
+							final double in02 = image.get(cin); ++cin.x;
+							final double in03 = image.get(cin); ++cin.y;
+							final double in13 = image.get(cin); --cin.x;
+							final double in12 = image.get(cin); --cin.x;
+							final double in11 = image.get(cin); --cin.x;
+							final double in10 = image.get(cin); ++cin.y;
+							final double in20 = image.get(cin); ++cin.x;
+							final double in21 = image.get(cin); ++cin.x;
+							final double in22 = image.get(cin); ++cin.x;
+							final double in23 = image.get(cin); ++cin.y;
+							final double in33 = image.get(cin); --cin.x;
+							final double in32 = image.get(cin); --cin.x;
+							final double in31 = image.get(cin); --cin.x;
+							final double in30 = image.get(cin);
+							anew[x] = (
+								wym1*(wxm1*in00 + wx00*in01 + wxp1*in02 + wxp2*in03) +
+								wy00*(wxm1*in10 + wx00*in11 + wxp1*in12 + wxp2*in13) +
+								wyp1*(wxm1*in20 + wx00*in21 + wxp1*in22 + wxp2*in23) +
+								wyp2*(wxm1*in30 + wx00*in31 + wxp1*in32 + wxp2*in33)
+							);
 						}
-						affined.set(cnew,anew);
-						progressor.step();
 					}
+					affined.set(cnew,anew);
+					synchronized (progressor) { progressor.step(); }
 				}
 			}
-		}
+		});
 		progressor.stop();
 	}
 	
@@ -596,147 +826,147 @@ private void affine_cubic_xyz(final Image image, final Image affined) {
 		else image.mirror(borders);
 		
 		// Affine transform using the backward transformation matrix:
-		final Coordinates cin = new Coordinates();
-		final Coordinates cnew = new Coordinates();
-		final double[] anew = new double[newdims.x];
 		affined.axes(Axes.X);
 		
 		progressor.start();
-		for (cnew.c=cin.c=0; cnew.c<newdims.c; ++cnew.c, ++cin.c) {
-			for (cnew.t=cin.t=0; cnew.t<newdims.t; ++cnew.t, ++cin.t) {
-				for (cnew.z=0; cnew.z<newdims.z; ++cnew.z) {
+		parallelizer.run(newdims.c*newdims.t*newdims.z*newdims.y,new Parallelizer.Block() {
+			public void run(final int first, final int last) {
+				final Coordinates cin = new Coordinates();
+				final Coordinates cnew = new Coordinates();
+				final double[] anew = new double[newdims.x];
+				for (int row=first; row<last; ++row) {
+					row(row,cnew);
+					cin.c = cnew.c; cin.t = cnew.t;
 					final double dz = cnew.z - pcoff.z;
-					for (cnew.y=0; cnew.y<newdims.y; ++cnew.y) {
-						final double dy = cnew.y - pcoff.y;
-						for (int x=0; x<newdims.x; ++x) {
-							final double dx = x - pcoff.x;
-							final double tx = pc.x + dx*bwd.axx + dy*bwd.axy + dz*bwd.axz + bwd.axt;
-							final double ty = pc.y + dx*bwd.ayx + dy*bwd.ayy + dz*bwd.ayz + bwd.ayt;
-							final double tz = pc.z + dx*bwd.azx + dy*bwd.azy + dz*bwd.azz + bwd.azt;
-							final int ix = FMath.floor(tx);
-							final int iy = FMath.floor(ty);
-							final int iz = FMath.floor(tz);
-							if (tx <= -1 || ix > pmax.x || ty <= -1 || iy > pmax.y || tz <= -1 || iz > pmax.z) anew[x] = background;
-							else {
-								final double xdiff = tx - ix;
-								final double xmdiff = 1 - xdiff;
-								final double wxm1 = fm1o2*xdiff*xmdiff*xmdiff;
-								final double wx00 = 1 + (f3o2*xdiff - f5o2)*xdiff*xdiff;
-								final double wxp1 = 1 + (f3o2*xmdiff - f5o2)*xmdiff*xmdiff;
-								final double wxp2 = fm1o2*xmdiff*xdiff*xdiff;
-								final double ydiff = ty - iy;
-								final double ymdiff = 1 - ydiff;
-								final double wym1 = fm1o2*ydiff*ymdiff*ymdiff;
-								final double wy00 = 1 + (f3o2*ydiff - f5o2)*ydiff*ydiff;
-								final double wyp1 = 1 + (f3o2*ymdiff - f5o2)*ymdiff*ymdiff;
-								final double wyp2 = fm1o2*ymdiff*ydiff*ydiff;
-								final double zdiff = tz - iz;
-								final double zmdiff = 1 - zdiff;
-								final double wzm1 = fm1o2*zdiff*zmdiff*zmdiff;
-								final double wz00 = 1 + (f3o2*zdiff - f5o2)*zdiff*zdiff;
-								final double wzp1 = 1 + (f3o2*zmdiff - f5o2)*zmdiff*zmdiff;
-								final double wzp2 = fm1o2*zmdiff*zdiff*zdiff;
-								cin.x = borders.x + ix - 1;
-								cin.y = borders.y + iy - 1;
-								cin.z = borders.z + iz - 1;
-								final double in000 = image.get(cin); ++cin.x;
-								final double in001 = image.get(cin); ++cin.x;
-								final double in002 = image.get(cin); ++cin.x;
-								final double in003 = image.get(cin); ++cin.y;
-								final double in013 = image.get(cin); --cin.x;
-								final double in012 = image.get(cin); --cin.x;
-								final double in011 = image.get(cin); --cin.x;
-								final double in010 = image.get(cin); ++cin.y;
-								final double in020 = image.get(cin); ++cin.x;
-								final double in021 = image.get(cin); ++cin.x;
-								final double in022 = image.get(cin); ++cin.x;
-								final double in023 = image.get(cin); ++cin.y;
-								final double in033 = image.get(cin); --cin.x;
-								final double in032 = image.get(cin); --cin.x;
-								final double in031 = image.get(cin); --cin.x;
-								final double in030 = image.get(cin); ++cin.z;
-								final double in130 = image.get(cin); ++cin.x;
-								final double in131 = image.get(cin); ++cin.x;
-								final double in132 = image.get(cin); ++cin.x;
-								final double in133 = image.get(cin); --cin.y;
-								final double in123 = image.get(cin); --cin.x;
-								final double in122 = image.get(cin); --cin.x;
-								final double in121 = image.get(cin); --cin.x;
-								final double in120 = image.get(cin); --cin.y;
-								final double in110 = image.get(cin); ++cin.x;
-								final double in111 = image.get(cin); ++cin.x;
-								final double in112 = image.get(cin); ++cin.x;
-								final double in113 = image.get(cin); --cin.y;
-								final double in103 = image.get(cin); --cin.x;
-								final double in102 = image.get(cin); --cin.x;
-								final double in101 = image.get(cin); --cin.x;
-								final double in100 = image.get(cin); ++cin.z;
-								final double in200 = image.get(cin); ++cin.x;
-								final double in201 = image.get(cin); ++cin.x;
-								final double in202 = image.get(cin); ++cin.x;
-								final double in203 = image.get(cin); ++cin.y;
-								final double in213 = image.get(cin); --cin.x;
-								final double in212 = image.get(cin); --cin.x;
-								final double in211 = image.get(cin); --cin.x;
-								final double in220 = image.get(cin); ++cin.x;
-								final double in210 = image.get(cin); ++cin.y;
-								final double in221 = image.get(cin); ++cin.x;
-								final double in222 = image.get(cin); ++cin.x;
-								final double in223 = image.get(cin); ++cin.y;
-								final double in233 = image.get(cin); --cin.x;
-								final double in232 = image.get(cin); --cin.x;
-								final double in231 = image.get(cin); --cin.x;
-								final double in230 = image.get(cin); ++cin.z;
-								final double in330 = image.get(cin); ++cin.x;
-								final double in331 = image.get(cin); ++cin.x;
-								final double in332 = image.get(cin); ++cin.x;
-								final double in333 = image.get(cin); --cin.y;
-								final double in323 = image.get(cin); --cin.x;
-								final double in322 = image.get(cin); --cin.x;
-								final double in321 = image.get(cin); --cin.x;
-								final double in320 = image.get(cin); --cin.y;
-								final double in310 = image.get(cin); ++cin.x;
-								final double in311 = image.get(cin); ++cin.x;
-								final double in312 = image.get(cin); ++cin.x;
-								final double in313 = image.get(cin); --cin.y;
-								final double in303 = image.get(cin); --cin.x;
-								final double in302 = image.get(cin); --cin.x;
-								final double in301 = image.get(cin); --cin.x;
-								final double in300 = image.get(cin);
-								anew[x] = (
-									wzm1*(
-										wym1*(wxm1*in000 + wx00*in001 + wxp1*in002 + wxp2*in003) +
-										wy00*(wxm1*in010 + wx00*in011 + wxp1*in012 + wxp2*in013) +
-										wyp1*(wxm1*in020 + wx00*in021 + wxp1*in022 + wxp2*in023) +
-										wyp2*(wxm1*in030 + wx00*in031 + wxp1*in032 + wxp2*in033)
-									) +
-									wz00*(
-										wym1*(wxm1*in100 + wx00*in101 + wxp1*in102 + wxp2*in103) +
-										wy00*(wxm1*in110 + wx00*in111 + wxp1*in112 + wxp2*in113) +
-										wyp1*(wxm1*in120 + wx00*in121 + wxp1*in122 + wxp2*in123) +
-										wyp2*(wxm1*in130 + wx00*in131 + wxp1*in132 + wxp2*in133)
-									) +
-									wzp1*(
-										wym1*(wxm1*in200 + wx00*in201 + wxp1*in202 + wxp2*in203) +
-										wy00*(wxm1*in210 + wx00*in211 + wxp1*in212 + wxp2*in213) +
-										wyp1*(wxm1*in220 + wx00*in221 + wxp1*in222 + wxp2*in223) +
-										wyp2*(wxm1*in230 + wx00*in231 + wxp1*in232 + wxp2*in233)
-									) +
-									wzp2*(
-										wym1*(wxm1*in300 + wx00*in301 + wxp1*in302 + wxp2*in303) +
-										wy00*(wxm1*in310 + wx00*in311 + wxp1*in312 + wxp2*in313) +
-										wyp1*(wxm1*in320 + wx00*in321 + wxp1*in322 + wxp2*in323) +
-										wyp2*(wxm1*in330 + wx00*in331 + wxp1*in332 + wxp2*in333)
-									)
-								);
-							}
+					final double dy = cnew.y - pcoff.y;
+					for (int x=0; x<newdims.x; ++x) {
+						final double dx = x - pcoff.x;
+						final double tx = pc.x + dx*bwd.axx + dy*bwd.axy + dz*bwd.axz + bwd.axt;
+						final double ty = pc.y + dx*bwd.ayx + dy*bwd.ayy + dz*bwd.ayz + bwd.ayt;
+						final double tz = pc.z + dx*bwd.azx + dy*bwd.azy + dz*bwd.azz + bwd.azt;
+						final int ix = FMath.floor(tx);
+						final int iy = FMath.floor(ty);
+						final int iz = FMath.floor(tz);
+						if (tx <= -1 || ix > pmax.x || ty <= -1 || iy > pmax.y || tz <= -1 || iz > pmax.z) anew[x] = background;
+						else {
+							final double xdiff = tx - ix;
+							final double xmdiff = 1 - xdiff;
+							final double wxm1 = fm1o2*xdiff*xmdiff*xmdiff;
+							final double wx00 = 1 + (f3o2*xdiff - f5o2)*xdiff*xdiff;
+							final double wxp1 = 1 + (f3o2*xmdiff - f5o2)*xmdiff*xmdiff;
+							final double wxp2 = fm1o2*xmdiff*xdiff*xdiff;
+							final double ydiff = ty - iy;
+							final double ymdiff = 1 - ydiff;
+							final double wym1 = fm1o2*ydiff*ymdiff*ymdiff;
+							final double wy00 = 1 + (f3o2*ydiff - f5o2)*ydiff*ydiff;
+							final double wyp1 = 1 + (f3o2*ymdiff - f5o2)*ymdiff*ymdiff;
+							final double wyp2 = fm1o2*ymdiff*ydiff*ydiff;
+							final double zdiff = tz - iz;
+							final double zmdiff = 1 - zdiff;
+							final double wzm1 = fm1o2*zdiff*zmdiff*zmdiff;
+							final double wz00 = 1 + (f3o2*zdiff - f5o2)*zdiff*zdiff;
+							final double wzp1 = 1 + (f3o2*zmdiff - f5o2)*zmdiff*zmdiff;
+							final double wzp2 = fm1o2*zmdiff*zdiff*zdiff;
+							cin.x = borders.x + ix - 1;
+							cin.y = borders.y + iy - 1;
+							cin.z = borders.z + iz - 1;
+							final double in000 = image.get(cin); ++cin.x;
+							final double in001 = image.get(cin); ++cin.x;
+							final double in002 = image.get(cin); ++cin.x;
+							final double in003 = image.get(cin); ++cin.y;
+							final double in013 = image.get(cin); --cin.x;
+							final double in012 = image.get(cin); --cin.x;
+							final double in011 = image.get(cin); --cin.x;
+							final double in010 = image.get(cin); ++cin.y;
+							final double in020 = image.get(cin); ++cin.x;
+							final double in021 = image.get(cin); ++cin.x;
+							final double in022 = image.get(cin); ++cin.x;
+							final double in023 = image.get(cin); ++cin.y;
+							final double in033 = image.get(cin); --cin.x;
+							final double in032 = image.get(cin); --cin.x;
+							final double in031 = image.get(cin); --cin.x;
+							final double in030 = image.get(cin); ++cin.z;
+							final double in130 = image.get(cin); ++cin.x;
+							final double in131 = image.get(cin); ++cin.x;
+							final double in132 = image.get(cin); ++cin.x;
+							final double in133 = image.get(cin); --cin.y;
+							final double in123 = image.get(cin); --cin.x;
+							final double in122 = image.get(cin); --cin.x;
+							final double in121 = image.get(cin); --cin.x;
+							final double in120 = image.get(cin); --cin.y;
+							final double in110 = image.get(cin); ++cin.x;
+							final double in111 = image.get(cin); ++cin.x;
+							final double in112 = image.get(cin); ++cin.x;
+							final double in113 = image.get(cin); --cin.y;
+							final double in103 = image.get(cin); --cin.x;
+							final double in102 = image.get(cin); --cin.x;
+							final double in101 = image.get(cin); --cin.x;
+							final double in100 = image.get(cin); ++cin.z;
+							final double in200 = image.get(cin); ++cin.x;
+							final double in201 = image.get(cin); ++cin.x;
+							final double in202 = image.get(cin); ++cin.x;
+							final double in203 = image.get(cin); ++cin.y;
+							final double in213 = image.get(cin); --cin.x;
+							final double in212 = image.get(cin); --cin.x;
+							final double in211 = image.get(cin); --cin.x;
+							final double in210 = image.get(cin); ++cin.y;
+							final double in220 = image.get(cin); ++cin.x;
+							final double in221 = image.get(cin); ++cin.x;
+							final double in222 = image.get(cin); ++cin.x;
+							final double in223 = image.get(cin); ++cin.y;
+							final double in233 = image.get(cin); --cin.x;
+							final double in232 = image.get(cin); --cin.x;
+							final double in231 = image.get(cin); --cin.x;
+							final double in230 = image.get(cin); ++cin.z;
+							final double in330 = image.get(cin); ++cin.x;
+							final double in331 = image.get(cin); ++cin.x;
+							final double in332 = image.get(cin); ++cin.x;
+							final double in333 = image.get(cin); --cin.y;
+							final double in323 = image.get(cin); --cin.x;
+							final double in322 = image.get(cin); --cin.x;
+							final double in321 = image.get(cin); --cin.x;
+							final double in320 = image.get(cin); --cin.y;
+							final double in310 = image.get(cin); ++cin.x;
+							final double in311 = image.get(cin); ++cin.x;
+							final double in312 = image.get(cin); ++cin.x;
+							final double in313 = image.get(cin); --cin.y;
+							final double in303 = image.get(cin); --cin.x;
+							final double in302 = image.get(cin); --cin.x;
+							final double in301 = image.get(cin); --cin.x;
+							final double in300 = image.get(cin);
+							anew[x] = (
+								wzm1*(
+									wym1*(wxm1*in000 + wx00*in001 + wxp1*in002 + wxp2*in003) +
+									wy00*(wxm1*in010 + wx00*in011 + wxp1*in012 + wxp2*in013) +
+									wyp1*(wxm1*in020 + wx00*in021 + wxp1*in022 + wxp2*in023) +
+									wyp2*(wxm1*in030 + wx00*in031 + wxp1*in032 + wxp2*in033)
+								) +
+								wz00*(
+									wym1*(wxm1*in100 + wx00*in101 + wxp1*in102 + wxp2*in103) +
+									wy00*(wxm1*in110 + wx00*in111 + wxp1*in112 + wxp2*in113) +
+									wyp1*(wxm1*in120 + wx00*in121 + wxp1*in122 + wxp2*in123) +
+									wyp2*(wxm1*in130 + wx00*in131 + wxp1*in132 + wxp2*in133)
+								) +
+								wzp1*(
+									wym1*(wxm1*in200 + wx00*in201 + wxp1*in202 + wxp2*in203) +
+									wy00*(wxm1*in210 + wx00*in211 + wxp1*in212 + wxp2*in213) +
+									wyp1*(wxm1*in220 + wx00*in221 + wxp1*in222 + wxp2*in223) +
+									wyp2*(wxm1*in230 + wx00*in231 + wxp1*in232 + wxp2*in233)
+								) +
+								wzp2*(
+									wym1*(wxm1*in300 + wx00*in301 + wxp1*in302 + wxp2*in303) +
+									wy00*(wxm1*in310 + wx00*in311 + wxp1*in312 + wxp2*in313) +
+									wyp1*(wxm1*in320 + wx00*in321 + wxp1*in322 + wxp2*in323) +
+									wyp2*(wxm1*in330 + wx00*in331 + wxp1*in332 + wxp2*in333)
+								)
+							);
 						}
-						affined.set(cnew,anew);
-						progressor.step();
 					}
+					affined.set(cnew,anew);
+					synchronized (progressor) { progressor.step(); }
 				}
 			}
-		}
+		});
 		progressor.stop();
 	}
 	
@@ -747,90 +977,72 @@ private void affine_bspline3_xy(final Image image, final Image affined) {
 		messenger.log("Applying cubic B-spline prefilter and sampling function");
 		messenger.status("Affine transforming"+component+"...");
 		progressor.steps(newdims.c*newdims.t*newdims.z*newdims.y);
-		prefilter.bspline3(image,new Axes(true,true,false),borders);
-		
-		if (antialias) {
-			// If any of the dimensions equals 1, the prefiltering operation
-			// will not have been carried out in that dimension. Subsequent
-			// application of the cubic B-spline kernel in that dimension will
-			// result in an overall down-scaling of the grey-values, which
-			// should be corrected for:
-			double scale = 1;
-			if (indims.x == 1) scale /= BSPLINE3X0;
-			if (indims.y == 1) scale /= BSPLINE3X0;
-			if (scale != 1) {
-				messenger.log("Correction scaling with factor "+scale);
-				image.multiply(scale);
-			}
-			image.set(borders,background);
-		}
-		else image.mirror(borders);
 		
 		// Affine transform using the backward transformation matrix:
-		final Coordinates cin = new Coordinates();
-		final Coordinates cnew = new Coordinates();
-		final double[] anew = new double[newdims.x];
 		affined.axes(Axes.X);
 		
 		progressor.start();
-		for (cnew.c=cin.c=0; cnew.c<newdims.c; ++cnew.c, ++cin.c) {
-			for (cnew.t=cin.t=0; cnew.t<newdims.t; ++cnew.t, ++cin.t) {
-				for (cnew.z=cin.z=0; cnew.z<newdims.z; ++cnew.z, ++cin.z) {
+		parallelizer.run(newdims.c*newdims.t*newdims.z*newdims.y,new Parallelizer.Block() {
+			public void run(final int first, final int last) {
+				final Coordinates cin = new Coordinates();
+				final Coordinates cnew = new Coordinates();
+				final double[] anew = new double[newdims.x];
+				for (int row=first; row<last; ++row) {
+					row(row,cnew);
+					cin.c = cnew.c; cin.t = cnew.t; cin.z = cnew.z;
 					final double dz = cnew.z - pcoff.z;
-					for (cnew.y=0; cnew.y<newdims.y; ++cnew.y) {
-						final double dy = cnew.y - pcoff.y;
-						for (int x=0; x<newdims.x; ++x) {
-							final double dx = x - pcoff.x;
-							final double tx = pc.x + dx*bwd.axx + dy*bwd.axy + dz*bwd.axz + bwd.axt;
-							final double ty = pc.y + dx*bwd.ayx + dy*bwd.ayy + dz*bwd.ayz + bwd.ayt;
-							final int ix = FMath.floor(tx);
-							final int iy = FMath.floor(ty);
-							if (tx <= -1 || ix > pmax.x || ty <= -1 || iy > pmax.y) anew[x] = background;
-							else {
-								final double xdiff = tx - ix;
-								final double xmdiff = 1 - xdiff;
-								final double wxm1 = f1o6*xmdiff*xmdiff*xmdiff;
-								final double wx00 = f2o3 + (f1o2*xdiff - 1)*xdiff*xdiff;
-								final double wxp1 = f2o3 + (f1o2*xmdiff - 1)*xmdiff*xmdiff;
-								final double wxp2 = f1o6*xdiff*xdiff*xdiff;
-								final double ydiff = ty - iy;
-								final double ymdiff = 1 - ydiff;
-								final double wym1 = f1o6*ymdiff*ymdiff*ymdiff;
-								final double wy00 = f2o3 + (f1o2*ydiff - 1)*ydiff*ydiff;
-								final double wyp1 = f2o3 + (f1o2*ymdiff - 1)*ymdiff*ymdiff;
-								final double wyp2 = f1o6*ydiff*ydiff*ydiff;
-								cin.x = borders.x + ix - 1;
-								cin.y = borders.y + iy - 1;
-								final double in00 = image.get(cin); ++cin.x;
-								final double in01 = image.get(cin); ++cin.x;
-								final double in02 = image.get(cin); ++cin.x;
-								final double in03 = image.get(cin); ++cin.y;
-								final double in13 = image.get(cin); --cin.x;
-								final double in12 = image.get(cin); --cin.x;
-								final double in11 = image.get(cin); --cin.x;
-								final double in10 = image.get(cin); ++cin.y;
-								final double in20 = image.get(cin); ++cin.x;
-								final double in21 = image.get(cin); ++cin.x;
-								final double in22 = image.get(cin); ++cin.x;
-								final double in23 = image.get(cin); ++cin.y;
-								final double in33 = image.get(cin); --cin.x;
-								final double in32 = image.get(cin); --cin.x;
-								final double in31 = image.get(cin); --cin.x;
-								final double in30 = image.get(cin);
-								anew[x] = (
-									wym1*(wxm1*in00 + wx00*in01 + wxp1*in02 + wxp2*in03) +
-									wy00*(wxm1*in10 + wx00*in11 + wxp1*in12 + wxp2*in13) +
-									wyp1*(wxm1*in20 + wx00*in21 + wxp1*in22 + wxp2*in23) +
-									wyp2*(wxm1*in30 + wx00*in31 + wxp1*in32 + wxp2*in33)
-								);
-							}
+					final double dy = cnew.y - pcoff.y;
+					for (int x=0; x<newdims.x; ++x) {
+						final double dx = x - pcoff.x;
+						final double tx = pc.x + dx*bwd.axx + dy*bwd.axy + dz*bwd.axz + bwd.axt;
+						final double ty = pc.y + dx*bwd.ayx + dy*bwd.ayy + dz*bwd.ayz + bwd.ayt;
+						final int ix = FMath.floor(tx);
+						final int iy = FMath.floor(ty);
+						if (tx <= -1 || ix > pmax.x || ty <= -1 || iy > pmax.y) anew[x] = background;
+						else {
+							final double xdiff = tx - ix;
+							final double xmdiff = 1 - xdiff;
+							final double wxm1 = f1o6*xmdiff*xmdiff*xmdiff;
+							final double wx00 = f2o3 + (f1o2*xdiff - 1)*xdiff*xdiff;
+							final double wxp1 = f2o3 + (f1o2*xmdiff - 1)*xmdiff*xmdiff;
+							final double wxp2 = f1o6*xdiff*xdiff*xdiff;
+							final double ydiff = ty - iy;
+							final double ymdiff = 1 - ydiff;
+							final double wym1 = f1o6*ymdiff*ymdiff*ymdiff;
+							final double wy00 = f2o3 + (f1o2*ydiff - 1)*ydiff*ydiff;
+							final double wyp1 = f2o3 + (f1o2*ymdiff - 1)*ymdiff*ymdiff;
+							final double wyp2 = f1o6*ydiff*ydiff*ydiff;
+							cin.x = borders.x + ix - 1;
+							cin.y = borders.y + iy - 1;
+							final double in00 = image.get(cin); ++cin.x;
+							final double in01 = image.get(cin); ++cin.x;
+							final double in02 = image.get(cin); ++cin.x;
+							final double in03 = image.get(cin); ++cin.y;
+							final double in13 = image.get(cin); --cin.x;
+							final double in12 = image.get(cin); --cin.x;
+							final double in11 = image.get(cin); --cin.x;
+							final double in10 = image.get(cin); ++cin.y;
+							final double in20 = image.get(cin); ++cin.x;
+							final double in21 = image.get(cin); ++cin.x;
+							final double in22 = image.get(cin); ++cin.x;
+							final double in23 = image.get(cin); ++cin.y;
+							final double in33 = image.get(cin); --cin.x;
+							final double in32 = image.get(cin); --cin.x;
+							final double in31 = image.get(cin); --cin.x;
+							final double in30 = image.get(cin);
+							anew[x] = (
+								wym1*(wxm1*in00 + wx00*in01 + wxp1*in02 + wxp2*in03) +
+								wy00*(wxm1*in10 + wx00*in11 + wxp1*in12 + wxp2*in13) +
+								wyp1*(wxm1*in20 + wx00*in21 + wxp1*in22 + wxp2*in23) +
+								wyp2*(wxm1*in30 + wx00*in31 + wxp1*in32 + wxp2*in33)
+							);
 						}
-						affined.set(cnew,anew);
-						progressor.step();
 					}
+					affined.set(cnew,anew);
+					synchronized (progressor) { progressor.step(); }
 				}
 			}
-		}
+		});
 		progressor.stop();
 	}
 	
@@ -841,168 +1053,149 @@ private void affine_bspline3_xyz(final Image image, final Image affined) {
 		messenger.log("Applying cubic B-spline prefilter and sampling function");
 		messenger.status("Affine transforming"+component+"...");
 		progressor.steps(newdims.c*newdims.t*newdims.z*newdims.y);
-		prefilter.bspline3(image,new Axes(true,true,true),borders);
-		
-		if (antialias) {
-			// If any of the dimensions equals 1, the prefiltering operation
-			// will not have been carried out in that dimension.  Subsequent
-			// application of the cubic B-spline kernel in that dimension will
-			// result in an overall down-scaling of the grey-values, which
-			// should be corrected for:
-			double scale = 1;
-			if (indims.x == 1) scale /= BSPLINE3X0;
-			if (indims.y == 1) scale /= BSPLINE3X0;
-			if (indims.z == 1) scale /= BSPLINE3X0;
-			if (scale != 1) {
-				messenger.log("Correction scaling with factor "+scale);
-				image.multiply(scale);
-			}
-			image.set(borders,background);
-		}
-		else image.mirror(borders);
 		
 		// Affine transform using the backward transformation matrix:
-		final Coordinates cin = new Coordinates();
-		final Coordinates cnew = new Coordinates();
-		final double[] anew = new double[newdims.x];
 		affined.axes(Axes.X);
 		
 		progressor.start();
-		for (cnew.c=cin.c=0; cnew.c<newdims.c; ++cnew.c, ++cin.c) {
-			for (cnew.t=cin.t=0; cnew.t<newdims.t; ++cnew.t, ++cin.t) {
-				for (cnew.z=0; cnew.z<newdims.z; ++cnew.z) {
+		parallelizer.run(newdims.c*newdims.t*newdims.z*newdims.y,new Parallelizer.Block() {
+			public void run(final int first, final int last) {
+				final Coordinates cin = new Coordinates();
+				final Coordinates cnew = new Coordinates();
+				final double[] anew = new double[newdims.x];
+				for (int row=first; row<last; ++row) {
+					row(row,cnew);
+					cin.c = cnew.c; cin.t = cnew.t;
 					final double dz = cnew.z - pcoff.z;
-					for (cnew.y=0; cnew.y<newdims.y; ++cnew.y) {
-						final double dy = cnew.y - pcoff.y;
-						for (int x=0; x<newdims.x; ++x) {
-							final double dx = x - pcoff.x;
-							final double tx = pc.x + dx*bwd.axx + dy*bwd.axy + dz*bwd.axz + bwd.axt;
-							final double ty = pc.y + dx*bwd.ayx + dy*bwd.ayy + dz*bwd.ayz + bwd.ayt;
-							final double tz = pc.z + dx*bwd.azx + dy*bwd.azy + dz*bwd.azz + bwd.azt;
-							final int ix = FMath.floor(tx);
-							final int iy = FMath.floor(ty);
-							final int iz = FMath.floor(tz);
-							if (tx <= -1 || ix > pmax.x || ty <= -1 || iy > pmax.y || tz <= -1 || iz > pmax.z) anew[x] = background;
-							else {
-								final double xdiff = tx - ix;
-								final double xmdiff = 1 - xdiff;
-								final double wxm1 = f1o6*xmdiff*xmdiff*xmdiff;
-								final double wx00 = f2o3 + (f1o2*xdiff - 1)*xdiff*xdiff;
-								final double wxp1 = f2o3 + (f1o2*xmdiff - 1)*xmdiff*xmdiff;
-								final double wxp2 = f1o6*xdiff*xdiff*xdiff;
-								final double ydiff = ty - iy;
-								final double ymdiff = 1 - ydiff;
-								final double wym1 = f1o6*ymdiff*ymdiff*ymdiff;
-								final double wy00 = f2o3 + (f1o2*ydiff - 1)*ydiff*ydiff;
-								final double wyp1 = f2o3 + (f1o2*ymdiff - 1)*ymdiff*ymdiff;
-								final double wyp2 = f1o6*ydiff*ydiff*ydiff;
-								final double zdiff = tz - iz;
-								final double zmdiff = 1 - zdiff;
-								final double wzm1 = f1o6*zmdiff*zmdiff*zmdiff;
-								final double wz00 = f2o3 + (f1o2*zdiff - 1)*zdiff*zdiff;
-								final double wzp1 = f2o3 + (f1o2*zmdiff - 1)*zmdiff*zmdiff;
-								final double wzp2 = f1o6*zdiff*zdiff*zdiff;
-								cin.x = borders.x + ix - 1;
-								cin.y = borders.y + iy - 1;
-								cin.z = borders.z + iz - 1;
-								final double in000 = image.get(cin); ++cin.x;
-								final double in001 = image.get(cin); ++cin.x;
-								final double in002 = image.get(cin); ++cin.x;
-								final double in003 = image.get(cin); ++cin.y;
-								final double in013 = image.get(cin); --cin.x;
-								final double in012 = image.get(cin); --cin.x;
-								final double in011 = image.get(cin); --cin.x;
-								final double in010 = image.get(cin); ++cin.y;
-								final double in020 = image.get(cin); ++cin.x;
-								final double in021 = image.get(cin); ++cin.x;
-								final double in022 = image.get(cin); ++cin.x;
-								final double in023 = image.get(cin); ++cin.y;
-								final double in033 = image.get(cin); --cin.x;
-								final double in032 = image.get(cin); --cin.x;
-								final double in031 = image.get(cin); --cin.x;
-								final double in030 = image.get(cin); ++cin.z;
-								final double in130 = image.get(cin); ++cin.x;
-								final double in131 = image.get(cin); ++cin.x;
-								final double in132 = image.get(cin); ++cin.x;
-								final double in133 = image.get(cin); --cin.y;
-								final double in123 = image.get(cin); --cin.x;
-								final double in122 = image.get(cin); --cin.x;
-								final double in121 = image.get(cin); --cin.x;
-								final double in120 = image.get(cin); --cin.y;
-								final double in110 = image.get(cin); ++cin.x;
-								final double in111 = image.get(cin); ++cin.x;
-								final double in112 = image.get(cin); ++cin.x;
-								final double in113 = image.get(cin); --cin.y;
-								final double in103 = image.get(cin); --cin.x;
-								final double in102 = image.get(cin); --cin.x;
-								final double in101 = image.get(cin); --cin.x;
-								final double in100 = image.get(cin); ++cin.z;
-								final double in200 = image.get(cin); ++cin.x;
-								final double in201 = image.get(cin); ++cin.x;
-								final double in202 = image.get(cin); ++cin.x;
-								final double in203 = image.get(cin); ++cin.y;
-								final double in213 = image.get(cin); --cin.x;
-								final double in212 = image.get(cin); --cin.x;
-								final double in211 = image.get(cin); --cin.x;
-								final double in210 = image.get(cin); ++cin.y;
-								final double in220 = image.get(cin); ++cin.x;
-								final double in221 = image.get(cin); ++cin.x;
-								final double in222 = image.get(cin); ++cin.x;
-								final double in223 = image.get(cin); ++cin.y;
-								final double in233 = image.get(cin); --cin.x;
-								final double in232 = image.get(cin); --cin.x;
-								final double in231 = image.get(cin); --cin.x;
-								final double in230 = image.get(cin); ++cin.z;
-								final double in330 = image.get(cin); ++cin.x;
-								final double in331 = image.get(cin); ++cin.x;
-								final double in332 = image.get(cin); ++cin.x;
-								final double in333 = image.get(cin); --cin.y;
-								final double in323 = image.get(cin); --cin.x;
-								final double in322 = image.get(cin); --cin.x;
-								final double in321 = image.get(cin); --cin.x;
-								final double in320 = image.get(cin); --cin.y;
-								final double in310 = image.get(cin); ++cin.x;
-								final double in311 = image.get(cin); ++cin.x;
-								final double in312 = image.get(cin); ++cin.x;
-								final double in313 = image.get(cin); --cin.y;
-								final double in303 = image.get(cin); --cin.x;
-								final double in302 = image.get(cin); --cin.x;
-								final double in301 = image.get(cin); --cin.x;
-								final double in300 = image.get(cin);
-								anew[x] = (
-									wzm1*(
-										wym1*(wxm1*in000 + wx00*in001 + wxp1*in002 + wxp2*in003) +
-										wy00*(wxm1*in010 + wx00*in011 + wxp1*in012 + wxp2*in013) +
-										wyp1*(wxm1*in020 + wx00*in021 + wxp1*in022 + wxp2*in023) +
-										wyp2*(wxm1*in030 + wx00*in031 + wxp1*in032 + wxp2*in033)
-									) +
-									wz00*(
-										wym1*(wxm1*in100 + wx00*in101 + wxp1*in102 + wxp2*in103) +
-										wy00*(wxm1*in110 + wx00*in111 + wxp1*in112 + wxp2*in113) +
-										wyp1*(wxm1*in120 + wx00*in121 + wxp1*in122 + wxp2*in123) +
-										wyp2*(wxm1*in130 + wx00*in131 + wxp1*in132 + wxp2*in133)
-									) +
-									wzp1*(
-										wym1*(wxm1*in200 + wx00*in201 + wxp1*in202 + wxp2*in203) +
-										wy00*(wxm1*in210 + wx00*in211 + wxp1*in212 + wxp2*in213) +
-										wyp1*(wxm1*in220 + wx00*in221 + wxp1*in222 + wxp2*in223) +
-										wyp2*(wxm1*in230 + wx00*in231 + wxp1*in232 + wxp2*in233)
-									) +
-									wzp2*(
-										wym1*(wxm1*in300 + wx00*in301 + wxp1*in302 + wxp2*in303) +
-										wy00*(wxm1*in310 + wx00*in311 + wxp1*in312 + wxp2*in313) +
-										wyp1*(wxm1*in320 + wx00*in321 + wxp1*in322 + wxp2*in323) +
-										wyp2*(wxm1*in330 + wx00*in331 + wxp1*in332 + wxp2*in333)
-									)
-								);
-							}
+					final double dy = cnew.y - pcoff.y;
+					for (int x=0; x<newdims.x; ++x) {
+						final double dx = x - pcoff.x;
+						final double tx = pc.x + dx*bwd.axx + dy*bwd.axy + dz*bwd.axz + bwd.axt;
+						final double ty = pc.y + dx*bwd.ayx + dy*bwd.ayy + dz*bwd.ayz + bwd.ayt;
+						final double tz = pc.z + dx*bwd.azx + dy*bwd.azy + dz*bwd.azz + bwd.azt;
+						final int ix = FMath.floor(tx);
+						final int iy = FMath.floor(ty);
+						final int iz = FMath.floor(tz);
+						if (tx <= -1 || ix > pmax.x || ty <= -1 || iy > pmax.y || tz <= -1 || iz > pmax.z) anew[x] = background;
+						else {
+							final double xdiff = tx - ix;
+							final double xmdiff = 1 - xdiff;
+							final double wxm1 = f1o6*xmdiff*xmdiff*xmdiff;
+							final double wx00 = f2o3 + (f1o2*xdiff - 1)*xdiff*xdiff;
+							final double wxp1 = f2o3 + (f1o2*xmdiff - 1)*xmdiff*xmdiff;
+							final double wxp2 = f1o6*xdiff*xdiff*xdiff;
+							final double ydiff = ty - iy;
+							final double ymdiff = 1 - ydiff;
+							final double wym1 = f1o6*ymdiff*ymdiff*ymdiff;
+							final double wy00 = f2o3 + (f1o2*ydiff - 1)*ydiff*ydiff;
+							final double wyp1 = f2o3 + (f1o2*ymdiff - 1)*ymdiff*ymdiff;
+							final double wyp2 = f1o6*ydiff*ydiff*ydiff;
+							final double zdiff = tz - iz;
+							final double zmdiff = 1 - zdiff;
+							final double wzm1 = f1o6*zmdiff*zmdiff*zmdiff;
+							final double wz00 = f2o3 + (f1o2*zdiff - 1)*zdiff*zdiff;
+							final double wzp1 = f2o3 + (f1o2*zmdiff - 1)*zmdiff*zmdiff;
+							final double wzp2 = f1o6*zdiff*zdiff*zdiff;
+							cin.x = borders.x + ix - 1;
+							cin.y = borders.y + iy - 1;
+							cin.z = borders.z + iz - 1;
+							final double in000 = image.get(cin); ++cin.x;
+							final double in001 = image.get(cin); ++cin.x;
+							final double in002 = image.get(cin); ++cin.x;
+							final double in003 = image.get(cin); ++cin.y;
+							final double in013 = image.get(cin); --cin.x;
+							final double in012 = image.get(cin); --cin.x;
+							final double in011 = image.get(cin); --cin.x;
+							final double in010 = image.get(cin); ++cin.y;
+							final double in020 = image.get(cin); ++cin.x;
+							final double in021 = image.get(cin); ++cin.x;
+							final double in022 = image.get(cin); ++cin.x;
+							final double in023 = image.get(cin); ++cin.y;
+							final double in033 = image.get(cin); --cin.x;
+							final double in032 = image.get(cin); --cin.x;
+							final double in031 = image.get(cin); --cin.x;
+							final double in030 = image.get(cin); ++cin.z;
+							final double in130 = image.get(cin); ++cin.x;
+							final double in131 = image.get(cin); ++cin.x;
+							final double in132 = image.get(cin); ++cin.x;
+							final double in133 = image.get(cin); --cin.y;
+							final double in123 = image.get(cin); --cin.x;
+							final double in122 = image.get(cin); --cin.x;
+							final double in121 = image.get(cin); --cin.x;
+							final double in120 = image.get(cin); --cin.y;
+							final double in110 = image.get(cin); ++cin.x;
+							final double in111 = image.get(cin); ++cin.x;
+							final double in112 = image.get(cin); ++cin.x;
+							final double in113 = image.get(cin); --cin.y;
+							final double in103 = image.get(cin); --cin.x;
+							final double in102 = image.get(cin); --cin.x;
+							final double in101 = image.get(cin); --cin.x;
+							final double in100 = image.get(cin); ++cin.z;
+							final double in200 = image.get(cin); ++cin.x;
+							final double in201 = image.get(cin); ++cin.x;
+							final double in202 = image.get(cin); ++cin.x;
+							final double in203 = image.get(cin); ++cin.y;
+							final double in213 = image.get(cin); --cin.x;
+							final double in212 = image.get(cin); --cin.x;
+							final double in211 = image.get(cin); --cin.x;
+							final double in210 = image.get(cin); ++cin.y;
+							final double in220 = image.get(cin); ++cin.x;
+							final double in221 = image.get(cin); ++cin.x;
+							final double in222 = image.get(cin); ++cin.x;
+							final double in223 = image.get(cin); ++cin.y;
+							final double in233 = image.get(cin); --cin.x;
+							final double in232 = image.get(cin); --cin.x;
+							final double in231 = image.get(cin); --cin.x;
+							final double in230 = image.get(cin); ++cin.z;
+							final double in330 = image.get(cin); ++cin.x;
+							final double in331 = image.get(cin); ++cin.x;
+							final double in332 = image.get(cin); ++cin.x;
+							final double in333 = image.get(cin); --cin.y;
+							final double in323 = image.get(cin); --cin.x;
+							final double in322 = image.get(cin); --cin.x;
+							final double in321 = image.get(cin); --cin.x;
+							final double in320 = image.get(cin); --cin.y;
+							final double in310 = image.get(cin); ++cin.x;
+							final double in311 = image.get(cin); ++cin.x;
+							final double in312 = image.get(cin); ++cin.x;
+							final double in313 = image.get(cin); --cin.y;
+							final double in303 = image.get(cin); --cin.x;
+							final double in302 = image.get(cin); --cin.x;
+							final double in301 = image.get(cin); --cin.x;
+							final double in300 = image.get(cin);
+							anew[x] = (
+								wzm1*(
+									wym1*(wxm1*in000 + wx00*in001 + wxp1*in002 + wxp2*in003) +
+									wy00*(wxm1*in010 + wx00*in011 + wxp1*in012 + wxp2*in013) +
+									wyp1*(wxm1*in020 + wx00*in021 + wxp1*in022 + wxp2*in023) +
+									wyp2*(wxm1*in030 + wx00*in031 + wxp1*in032 + wxp2*in033)
+								) +
+								wz00*(
+									wym1*(wxm1*in100 + wx00*in101 + wxp1*in102 + wxp2*in103) +
+									wy00*(wxm1*in110 + wx00*in111 + wxp1*in112 + wxp2*in113) +
+									wyp1*(wxm1*in120 + wx00*in121 + wxp1*in122 + wxp2*in123) +
+									wyp2*(wxm1*in130 + wx00*in131 + wxp1*in132 + wxp2*in133)
+								) +
+								wzp1*(
+									wym1*(wxm1*in200 + wx00*in201 + wxp1*in202 + wxp2*in203) +
+									wy00*(wxm1*in210 + wx00*in211 + wxp1*in212 + wxp2*in213) +
+									wyp1*(wxm1*in220 + wx00*in221 + wxp1*in222 + wxp2*in223) +
+									wyp2*(wxm1*in230 + wx00*in231 + wxp1*in232 + wxp2*in233)
+								) +
+								wzp2*(
+									wym1*(wxm1*in300 + wx00*in301 + wxp1*in302 + wxp2*in303) +
+									wy00*(wxm1*in310 + wx00*in311 + wxp1*in312 + wxp2*in313) +
+									wyp1*(wxm1*in320 + wx00*in321 + wxp1*in322 + wxp2*in323) +
+									wyp2*(wxm1*in330 + wx00*in331 + wxp1*in332 + wxp2*in333)
+								)
+							);
 						}
-						affined.set(cnew,anew);
-						progressor.step();
 					}
+					affined.set(cnew,anew);
+					synchronized (progressor) { progressor.step(); }
 				}
 			}
-		}
+		});
 		progressor.stop();
 	}
 	
@@ -1013,90 +1206,72 @@ private void affine_omoms3_xy(final Image image, final Image affined) {
 		messenger.log("Applying cubic O-MOMS prefilter and sampling function");
 		messenger.status("Affine transforming"+component+"...");
 		progressor.steps(newdims.c*newdims.t*newdims.z*newdims.y);
-		prefilter.omoms3(image,new Axes(true,true,false),borders);
-		
-		if (antialias) {
-			// If any of the dimensions equals 1, the prefiltering operation
-			// will not have been carried out in that dimension. Subsequent
-			// application of the cubic O-MOMS kernel in that dimension will
-			// result in an overall down-scaling of the grey-values, which
-			// should be corrected for:
-			double scale = 1;
-			if (indims.x == 1) scale /= OMOMS3X0;
-			if (indims.y == 1) scale /= OMOMS3X0;
-			if (scale != 1) {
-				messenger.log("Correction scaling with factor "+scale);
-				image.multiply(scale);
-			}
-			image.set(borders,background);
-		}
-		else image.mirror(borders);
 		
 		// Affine transform using the backward transformation matrix:
-		final Coordinates cin = new Coordinates();
-		final Coordinates cnew = new Coordinates();
-		final double[] anew = new double[newdims.x];
 		affined.axes(Axes.X);
 		
 		progressor.start();
-		for (cnew.c=cin.c=0; cnew.c<newdims.c; ++cnew.c, ++cin.c) {
-			for (cnew.t=cin.t=0; cnew.t<newdims.t; ++cnew.t, ++cin.t) {
-				for (cnew.z=cin.z=0; cnew.z<newdims.z; ++cnew.z, ++cin.z) {
+		parallelizer.run(newdims.c*newdims.t*newdims.z*newdims.y,new Parallelizer.Block() {
+			public void run(final int first, final int last) {
+				final Coordinates cin = new Coordinates();
+				final Coordinates cnew = new Coordinates();
+				final double[] anew = new double[newdims.x];
+				for (int row=first; row<last; ++row) {
+					row(row,cnew);
+					cin.c = cnew.c; cin.t = cnew.t; cin.z = cnew.z;
 					final double dz = cnew.z - pcoff.z;
-					for (cnew.y=0; cnew.y<newdims.y; ++cnew.y) {
-						final double dy = cnew.y - pcoff.y;
-						for (int x=0; x<newdims.x; ++x) {
-							final double dx = x - pcoff.x;
-							final double tx = pc.x + dx*bwd.axx + dy*bwd.axy + dz*bwd.axz + bwd.axt;
-							final double ty = pc.y + dx*bwd.ayx + dy*bwd.ayy + dz*bwd.ayz + bwd.ayt;
-							final int ix = FMath.floor(tx);
-							final int iy = FMath.floor(ty);
-							if (tx <= -1 || ix > pmax.x || ty <= -1 || iy > pmax.y) anew[x] = background;
-							else {
-								final double xdiff = tx - ix;
-								final double xmdiff = 1 - xdiff;
-								final double wxm1 = xmdiff*(f1o42 + f1o6*xmdiff*xmdiff);
-								final double wx00 = f13o21 + xdiff*(f1o14 + xdiff*(f1o2*xdiff - 1));
-								final double wxp1 = f13o21 + xmdiff*(f1o14 + xmdiff*(f1o2*xmdiff - 1));
-								final double wxp2 = xdiff*(f1o42 + f1o6*xdiff*xdiff);
-								final double ydiff = ty - iy;
-								final double ymdiff = 1 - ydiff;
-								final double wym1 = ymdiff*(f1o42 + f1o6*ymdiff*ymdiff);
-								final double wy00 = f13o21 + ydiff*(f1o14 + ydiff*(f1o2*ydiff - 1));
-								final double wyp1 = f13o21 + ymdiff*(f1o14 + ymdiff*(f1o2*ymdiff - 1));
-								final double wyp2 = ydiff*(f1o42 + f1o6*ydiff*ydiff);
-								cin.x = borders.x + ix - 1;
-								cin.y = borders.y + iy - 1;
-								final double in00 = image.get(cin); ++cin.x;
-								final double in01 = image.get(cin); ++cin.x;
-								final double in02 = image.get(cin); ++cin.x;
-								final double in03 = image.get(cin); ++cin.y;
-								final double in13 = image.get(cin); --cin.x;
-								final double in12 = image.get(cin); --cin.x;
-								final double in11 = image.get(cin); --cin.x;
-								final double in10 = image.get(cin); ++cin.y;
-								final double in20 = image.get(cin); ++cin.x;
-								final double in21 = image.get(cin); ++cin.x;
-								final double in22 = image.get(cin); ++cin.x;
-								final double in23 = image.get(cin); ++cin.y;
-								final double in33 = image.get(cin); --cin.x;
-								final double in32 = image.get(cin); --cin.x;
-								final double in31 = image.get(cin); --cin.x;
-								final double in30 = image.get(cin);
-								anew[x] = (
-									wym1*(wxm1*in00 + wx00*in01 + wxp1*in02 + wxp2*in03) +
-									wy00*(wxm1*in10 + wx00*in11 + wxp1*in12 + wxp2*in13) +
-									wyp1*(wxm1*in20 + wx00*in21 + wxp1*in22 + wxp2*in23) +
-									wyp2*(wxm1*in30 + wx00*in31 + wxp1*in32 + wxp2*in33)
-								);
-							}
+					final double dy = cnew.y - pcoff.y;
+					for (int x=0; x<newdims.x; ++x) {
+						final double dx = x - pcoff.x;
+						final double tx = pc.x + dx*bwd.axx + dy*bwd.axy + dz*bwd.axz + bwd.axt;
+						final double ty = pc.y + dx*bwd.ayx + dy*bwd.ayy + dz*bwd.ayz + bwd.ayt;
+						final int ix = FMath.floor(tx);
+						final int iy = FMath.floor(ty);
+						if (tx <= -1 || ix > pmax.x || ty <= -1 || iy > pmax.y) anew[x] = background;
+						else {
+							final double xdiff = tx - ix;
+							final double xmdiff = 1 - xdiff;
+							final double wxm1 = xmdiff*(f1o42 + f1o6*xmdiff*xmdiff);
+							final double wx00 = f13o21 + xdiff*(f1o14 + xdiff*(f1o2*xdiff - 1));
+							final double wxp1 = f13o21 + xmdiff*(f1o14 + xmdiff*(f1o2*xmdiff - 1));
+							final double wxp2 = xdiff*(f1o42 + f1o6*xdiff*xdiff);
+							final double ydiff = ty - iy;
+							final double ymdiff = 1 - ydiff;
+							final double wym1 = ymdiff*(f1o42 + f1o6*ymdiff*ymdiff);
+							final double wy00 = f13o21 + ydiff*(f1o14 + ydiff*(f1o2*ydiff - 1));
+							final double wyp1 = f13o21 + ymdiff*(f1o14 + ymdiff*(f1o2*ymdiff - 1));
+							final double wyp2 = ydiff*(f1o42 + f1o6*ydiff*ydiff);
+							cin.x = borders.x + ix - 1;
+							cin.y = borders.y + iy - 1;
+							final double in00 = image.get(cin); ++cin.x;
+							final double in01 = image.get(cin); ++cin.x;
+							final double in02 = image.get(cin); ++cin.x;
+							final double in03 = image.get(cin); ++cin.y;
+							final double in13 = image.get(cin); --cin.x;
+							final double in12 = image.get(cin); --cin.x;
+							final double in11 = image.get(cin); --cin.x;
+							final double in10 = image.get(cin); ++cin.y;
+							final double in20 = image.get(cin); ++cin.x;
+							final double in21 = image.get(cin); ++cin.x;
+							final double in22 = image.get(cin); ++cin.x;
+							final double in23 = image.get(cin); ++cin.y;
+							final double in33 = image.get(cin); --cin.x;
+							final double in32 = image.get(cin); --cin.x;
+							final double in31 = image.get(cin); --cin.x;
+							final double in30 = image.get(cin);
+							anew[x] = (
+								wym1*(wxm1*in00 + wx00*in01 + wxp1*in02 + wxp2*in03) +
+								wy00*(wxm1*in10 + wx00*in11 + wxp1*in12 + wxp2*in13) +
+								wyp1*(wxm1*in20 + wx00*in21 + wxp1*in22 + wxp2*in23) +
+								wyp2*(wxm1*in30 + wx00*in31 + wxp1*in32 + wxp2*in33)
+							);
 						}
-						affined.set(cnew,anew);
-						progressor.step();
 					}
+					affined.set(cnew,anew);
+					synchronized (progressor) { progressor.step(); }
 				}
 			}
-		}
+		});
 		progressor.stop();
 	}
 	
@@ -1107,168 +1282,149 @@ private void affine_omoms3_xyz(final Image image, final Image affined) {
 		messenger.log("Applying cubic O-MOMS prefilter and sampling function");
 		messenger.status("Affine transforming"+component+"...");
 		progressor.steps(newdims.c*newdims.t*newdims.z*newdims.y);
-		prefilter.omoms3(image,new Axes(true,true,true),borders);
-		
-		if (antialias) {
-			// If any of the dimensions equals 1, the prefiltering operation
-			// will not have been carried out in that dimension. Subsequent
-			// application of the cubic O-MOMS kernel in that dimension will
-			// result in an overall down-scaling of the grey-values, which
-			// should be corrected for:
-			double scale = 1;
-			if (indims.x == 1) scale /= OMOMS3X0;
-			if (indims.y == 1) scale /= OMOMS3X0;
-			if (indims.z == 1) scale /= OMOMS3X0;
-			if (scale != 1) {
-				messenger.log("Correction scaling with factor "+scale);
-				image.multiply(scale);
-			}
-			image.set(borders,background);
-		}
-		else image.mirror(borders);
 		
 		// Affine transform using the backward transformation matrix:
-		final Coordinates cin = new Coordinates();
-		final Coordinates cnew = new Coordinates();
-		final double[] anew = new double[newdims.x];
 		affined.axes(Axes.X);
 		
 		progressor.start();
-		for (cnew.c=cin.c=0; cnew.c<newdims.c; ++cnew.c, ++cin.c) {
-			for (cnew.t=cin.t=0; cnew.t<newdims.t; ++cnew.t, ++cin.t) {
-				for (cnew.z=0; cnew.z<newdims.z; ++cnew.z) {
+		parallelizer.run(newdims.c*newdims.t*newdims.z*newdims.y,new Parallelizer.Block() {
+			public void run(final int first, final int last) {
+				final Coordinates cin = new Coordinates();
+				final Coordinates cnew = new Coordinates();
+				final double[] anew = new double[newdims.x];
+				for (int row=first; row<last; ++row) {
+					row(row,cnew);
+					cin.c = cnew.c; cin.t = cnew.t;
 					final double dz = cnew.z - pcoff.z;
-					for (cnew.y=0; cnew.y<newdims.y; ++cnew.y) {
-						final double dy = cnew.y - pcoff.y;
-						for (int x=0; x<newdims.x; ++x) {
-							final double dx = x - pcoff.x;
-							final double tx = pc.x + dx*bwd.axx + dy*bwd.axy + dz*bwd.axz + bwd.axt;
-							final double ty = pc.y + dx*bwd.ayx + dy*bwd.ayy + dz*bwd.ayz + bwd.ayt;
-							final double tz = pc.z + dx*bwd.azx + dy*bwd.azy + dz*bwd.azz + bwd.azt;
-							final int ix = FMath.floor(tx);
-							final int iy = FMath.floor(ty);
-							final int iz = FMath.floor(tz);
-							if (tx <= -1 || ix > pmax.x || ty <= -1 || iy > pmax.y || tz <= -1 || iz > pmax.z) anew[x] = background;
-							else {
-								final double xdiff = tx - ix;
-								final double xmdiff = 1 - xdiff;
-								final double wxm1 = xmdiff*(f1o42 + f1o6*xmdiff*xmdiff);
-								final double wx00 = f13o21 + xdiff*(f1o14 + xdiff*(f1o2*xdiff - 1));
-								final double wxp1 = f13o21 + xmdiff*(f1o14 + xmdiff*(f1o2*xmdiff - 1));
-								final double wxp2 = xdiff*(f1o42 + f1o6*xdiff*xdiff);
-								final double ydiff = ty - iy;
-								final double ymdiff = 1 - ydiff;
-								final double wym1 = ymdiff*(f1o42 + f1o6*ymdiff*ymdiff);
-								final double wy00 = f13o21 + ydiff*(f1o14 + ydiff*(f1o2*ydiff - 1));
-								final double wyp1 = f13o21 + ymdiff*(f1o14 + ymdiff*(f1o2*ymdiff - 1));
-								final double wyp2 = ydiff*(f1o42 + f1o6*ydiff*ydiff);
-								final double zdiff = tz - iz;
-								final double zmdiff = 1 - zdiff;
-								final double wzm1 = zmdiff*(f1o42 + f1o6*zmdiff*zmdiff);
-								final double wz00 = f13o21 + zdiff*(f1o14 + zdiff*(f1o2*zdiff - 1));
-								final double wzp1 = f13o21 + zmdiff*(f1o14 + zmdiff*(f1o2*zmdiff - 1));
-								final double wzp2 = zdiff*(f1o42 + f1o6*zdiff*zdiff);
-								cin.x = borders.x + ix - 1;
-								cin.y = borders.y + iy - 1;
-								cin.z = borders.z + iz - 1;
-								final double in000 = image.get(cin); ++cin.x;
-								final double in001 = image.get(cin); ++cin.x;
-								final double in002 = image.get(cin); ++cin.x;
-								final double in003 = image.get(cin); ++cin.y;
-								final double in013 = image.get(cin); --cin.x;
-								final double in012 = image.get(cin); --cin.x;
-								final double in011 = image.get(cin); --cin.x;
-								final double in010 = image.get(cin); ++cin.y;
-								final double in020 = image.get(cin); ++cin.x;
-								final double in021 = image.get(cin); ++cin.x;
-								final double in022 = image.get(cin); ++cin.x;
-								final double in023 = image.get(cin); ++cin.y;
-								final double in033 = image.get(cin); --cin.x;
-								final double in032 = image.get(cin); --cin.x;
-								final double in031 = image.get(cin); --cin.x;
-								final double in030 = image.get(cin); ++cin.z;
-								final double in130 = image.get(cin); ++cin.x;
-								final double in131 = image.get(cin); ++cin.x;
-								final double in132 = image.get(cin); ++cin.x;
-								final double in133 = image.get(cin); --cin.y;
-								final double in123 = image.get(cin); --cin.x;
-								final double in122 = image.get(cin); --cin.x;
-								final double in121 = image.get(cin); --cin.x;
-								final double in120 = image.get(cin); --cin.y;
-								final double in110 = image.get(cin); ++cin.x;
-								final double in111 = image.get(cin); ++cin.x;
-								final double in112 = image.get(cin); ++cin.x;
-								final double in113 = image.get(cin); --cin.y;
-								final double in103 = image.get(cin); --cin.x;
-								final double in102 = image.get(cin); --cin.x;
-								final double in101 = image.get(cin); --cin.x;
-								final double in100 = image.get(cin); ++cin.z;
-								final double in200 = image.get(cin); ++cin.x;
-								final double in201 = image.get(cin); ++cin.x;
-								final double in202 = image.get(cin); ++cin.x;
-								final double in203 = image.get(cin); ++cin.y;
-								final double in213 = image.get(cin); --cin.x;
-								final double in212 = image.get(cin); --cin.x;
-								final double in211 = image.get(cin); --cin.x;
-								final double in210 = image.get(cin); ++cin.y;
-								final double in220 = image.get(cin); ++cin.x;
-								final double in221 = image.get(cin); ++cin.x;
-								final double in222 = image.get(cin); ++cin.x;
-								final double in223 = image.get(cin); ++cin.y;
-								final double in233 = image.get(cin); --cin.x;
-								final double in232 = image.get(cin); --cin.x;
-								final double in231 = image.get(cin); --cin.x;
-								final double in230 = image.get(cin); ++cin.z;
-								final double in330 = image.get(cin); ++cin.x;
-								final double in331 = image.get(cin); ++cin.x;
-								final double in332 = image.get(cin); ++cin.x;
-								final double in333 = image.get(cin); --cin.y;
-								final double in323 = image.get(cin); --cin.x;
-								final double in322 = image.get(cin); --cin.x;
-								final double in321 = image.get(cin); --cin.x;
-								final double in320 = image.get(cin); --cin.y;
-								final double in310 = image.get(cin); ++cin.x;
-								final double in311 = image.get(cin); ++cin.x;
-								final double in312 = image.get(cin); ++cin.x;
-								final double in313 = image.get(cin); --cin.y;
-								final double in303 = image.get(cin); --cin.x;
-								final double in302 = image.get(cin); --cin.x;
-								final double in301 = image.get(cin); --cin.x;
-								final double in300 = image.get(cin);
-								anew[x] = (
-									wzm1*(
-										wym1*(wxm1*in000 + wx00*in001 + wxp1*in002 + wxp2*in003) +
-										wy00*(wxm1*in010 + wx00*in011 + wxp1*in012 + wxp2*in013) +
-										wyp1*(wxm1*in020 + wx00*in021 + wxp1*in022 + wxp2*in023) +
-										wyp2*(wxm1*in030 + wx00*in031 + wxp1*in032 + wxp2*in033)
-									) +
-									wz00*(
-										wym1*(wxm1*in100 + wx00*in101 + wxp1*in102 + wxp2*in103) +
-										wy00*(wxm1*in110 + wx00*in111 + wxp1*in112 + wxp2*in113) +
-										wyp1*(wxm1*in120 + wx00*in121 + wxp1*in122 + wxp2*in123) +
-										wyp2*(wxm1*in130 + wx00*in131 + wxp1*in132 + wxp2*in133)
-									) +
-									wzp1*(
-										wym1*(wxm1*in200 + wx00*in201 + wxp1*in202 + wxp2*in203) +
-										wy00*(wxm1*in210 + wx00*in211 + wxp1*in212 + wxp2*in213) +
-										wyp1*(wxm1*in220 + wx00*in221 + wxp1*in222 + wxp2*in223) +
-										wyp2*(wxm1*in230 + wx00*in231 + wxp1*in232 + wxp2*in233)
-									) +
-									wzp2*(
-										wym1*(wxm1*in300 + wx00*in301 + wxp1*in302 + wxp2*in303) +
-										wy00*(wxm1*in310 + wx00*in311 + wxp1*in312 + wxp2*in313) +
-										wyp1*(wxm1*in320 + wx00*in321 + wxp1*in322 + wxp2*in323) +
-										wyp2*(wxm1*in330 + wx00*in331 + wxp1*in332 + wxp2*in333)
-									)
-								);
-							}
+					final double dy = cnew.y - pcoff.y;
+					for (int x=0; x<newdims.x; ++x) {
+						final double dx = x - pcoff.x;
+						final double tx = pc.x + dx*bwd.axx + dy*bwd.axy + dz*bwd.axz + bwd.axt;
+						final double ty = pc.y + dx*bwd.ayx + dy*bwd.ayy + dz*bwd.ayz + bwd.ayt;
+						final double tz = pc.z + dx*bwd.azx + dy*bwd.azy + dz*bwd.azz + bwd.azt;
+						final int ix = FMath.floor(tx);
+						final int iy = FMath.floor(ty);
+						final int iz = FMath.floor(tz);
+						if (tx <= -1 || ix > pmax.x || ty <= -1 || iy > pmax.y || tz <= -1 || iz > pmax.z) anew[x] = background;
+						else {
+							final double xdiff = tx - ix;
+							final double xmdiff = 1 - xdiff;
+							final double wxm1 = xmdiff*(f1o42 + f1o6*xmdiff*xmdiff);
+							final double wx00 = f13o21 + xdiff*(f1o14 + xdiff*(f1o2*xdiff - 1));
+							final double wxp1 = f13o21 + xmdiff*(f1o14 + xmdiff*(f1o2*xmdiff - 1));
+							final double wxp2 = xdiff*(f1o42 + f1o6*xdiff*xdiff);
+							final double ydiff = ty - iy;
+							final double ymdiff = 1 - ydiff;
+							final double wym1 = ymdiff*(f1o42 + f1o6*ymdiff*ymdiff);
+							final double wy00 = f13o21 + ydiff*(f1o14 + ydiff*(f1o2*ydiff - 1));
+							final double wyp1 = f13o21 + ymdiff*(f1o14 + ymdiff*(f1o2*ymdiff - 1));
+							final double wyp2 = ydiff*(f1o42 + f1o6*ydiff*ydiff);
+							final double zdiff = tz - iz;
+							final double zmdiff = 1 - zdiff;
+							final double wzm1 = zmdiff*(f1o42 + f1o6*zmdiff*zmdiff);
+							final double wz00 = f13o21 + zdiff*(f1o14 + zdiff*(f1o2*zdiff - 1));
+							final double wzp1 = f13o21 + zmdiff*(f1o14 + zmdiff*(f1o2*zmdiff - 1));
+							final double wzp2 = zdiff*(f1o42 + f1o6*zdiff*zdiff);
+							cin.x = borders.x + ix - 1;
+							cin.y = borders.y + iy - 1;
+							cin.z = borders.z + iz - 1;
+							final double in000 = image.get(cin); ++cin.x;
+							final double in001 = image.get(cin); ++cin.x;
+							final double in002 = image.get(cin); ++cin.x;
+							final double in003 = image.get(cin); ++cin.y;
+							final double in013 = image.get(cin); --cin.x;
+							final double in012 = image.get(cin); --cin.x;
+							final double in011 = image.get(cin); --cin.x;
+							final double in010 = image.get(cin); ++cin.y;
+							final double in020 = image.get(cin); ++cin.x;
+							final double in021 = image.get(cin); ++cin.x;
+							final double in022 = image.get(cin); ++cin.x;
+							final double in023 = image.get(cin); ++cin.y;
+							final double in033 = image.get(cin); --cin.x;
+							final double in032 = image.get(cin); --cin.x;
+							final double in031 = image.get(cin); --cin.x;
+							final double in030 = image.get(cin); ++cin.z;
+							final double in130 = image.get(cin); ++cin.x;
+							final double in131 = image.get(cin); ++cin.x;
+							final double in132 = image.get(cin); ++cin.x;
+							final double in133 = image.get(cin); --cin.y;
+							final double in123 = image.get(cin); --cin.x;
+							final double in122 = image.get(cin); --cin.x;
+							final double in121 = image.get(cin); --cin.x;
+							final double in120 = image.get(cin); --cin.y;
+							final double in110 = image.get(cin); ++cin.x;
+							final double in111 = image.get(cin); ++cin.x;
+							final double in112 = image.get(cin); ++cin.x;
+							final double in113 = image.get(cin); --cin.y;
+							final double in103 = image.get(cin); --cin.x;
+							final double in102 = image.get(cin); --cin.x;
+							final double in101 = image.get(cin); --cin.x;
+							final double in100 = image.get(cin); ++cin.z;
+							final double in200 = image.get(cin); ++cin.x;
+							final double in201 = image.get(cin); ++cin.x;
+							final double in202 = image.get(cin); ++cin.x;
+							final double in203 = image.get(cin); ++cin.y;
+							final double in213 = image.get(cin); --cin.x;
+							final double in212 = image.get(cin); --cin.x;
+							final double in211 = image.get(cin); --cin.x;
+							final double in210 = image.get(cin); ++cin.y;
+							final double in220 = image.get(cin); ++cin.x;
+							final double in221 = image.get(cin); ++cin.x;
+							final double in222 = image.get(cin); ++cin.x;
+							final double in223 = image.get(cin); ++cin.y;
+							final double in233 = image.get(cin); --cin.x;
+							final double in232 = image.get(cin); --cin.x;
+							final double in231 = image.get(cin); --cin.x;
+							final double in230 = image.get(cin); ++cin.z;
+							final double in330 = image.get(cin); ++cin.x;
+							final double in331 = image.get(cin); ++cin.x;
+							final double in332 = image.get(cin); ++cin.x;
+							final double in333 = image.get(cin); --cin.y;
+							final double in323 = image.get(cin); --cin.x;
+							final double in322 = image.get(cin); --cin.x;
+							final double in321 = image.get(cin); --cin.x;
+							final double in320 = image.get(cin); --cin.y;
+							final double in310 = image.get(cin); ++cin.x;
+							final double in311 = image.get(cin); ++cin.x;
+							final double in312 = image.get(cin); ++cin.x;
+							final double in313 = image.get(cin); --cin.y;
+							final double in303 = image.get(cin); --cin.x;
+							final double in302 = image.get(cin); --cin.x;
+							final double in301 = image.get(cin); --cin.x;
+							final double in300 = image.get(cin);
+							anew[x] = (
+								wzm1*(
+									wym1*(wxm1*in000 + wx00*in001 + wxp1*in002 + wxp2*in003) +
+									wy00*(wxm1*in010 + wx00*in011 + wxp1*in012 + wxp2*in013) +
+									wyp1*(wxm1*in020 + wx00*in021 + wxp1*in022 + wxp2*in023) +
+									wyp2*(wxm1*in030 + wx00*in031 + wxp1*in032 + wxp2*in033)
+								) +
+								wz00*(
+									wym1*(wxm1*in100 + wx00*in101 + wxp1*in102 + wxp2*in103) +
+									wy00*(wxm1*in110 + wx00*in111 + wxp1*in112 + wxp2*in113) +
+									wyp1*(wxm1*in120 + wx00*in121 + wxp1*in122 + wxp2*in123) +
+									wyp2*(wxm1*in130 + wx00*in131 + wxp1*in132 + wxp2*in133)
+								) +
+								wzp1*(
+									wym1*(wxm1*in200 + wx00*in201 + wxp1*in202 + wxp2*in203) +
+									wy00*(wxm1*in210 + wx00*in211 + wxp1*in212 + wxp2*in213) +
+									wyp1*(wxm1*in220 + wx00*in221 + wxp1*in222 + wxp2*in223) +
+									wyp2*(wxm1*in230 + wx00*in231 + wxp1*in232 + wxp2*in233)
+								) +
+								wzp2*(
+									wym1*(wxm1*in300 + wx00*in301 + wxp1*in302 + wxp2*in303) +
+									wy00*(wxm1*in310 + wx00*in311 + wxp1*in312 + wxp2*in313) +
+									wyp1*(wxm1*in320 + wx00*in321 + wxp1*in322 + wxp2*in323) +
+									wyp2*(wxm1*in330 + wx00*in331 + wxp1*in332 + wxp2*in333)
+								)
+							);
 						}
-						affined.set(cnew,anew);
-						progressor.step();
 					}
+					affined.set(cnew,anew);
+					synchronized (progressor) { progressor.step(); }
 				}
 			}
-		}
+		});
 		progressor.stop();
 	}
 	
@@ -1279,120 +1435,102 @@ private void affine_bspline5_xy(final Image image, final Image affined) {
 		messenger.log("Applying quintic B-spline prefilter and sampling function");
 		messenger.status("Affine transforming"+component+"...");
 		progressor.steps(newdims.c*newdims.t*newdims.z*newdims.y);
-		prefilter.bspline5(image,new Axes(true,true,false),borders);
-		
-		if (antialias) {
-			// If any of the dimensions equals 1, the prefiltering operation
-			// will not have been carried out in that dimension. Subsequent
-			// application of the quintic B-spline kernel in that dimension will
-			// result in an overall down-scaling of the grey-values, which
-			// should be corrected for:
-			double scale = 1;
-			if (indims.x == 1) scale /= BSPLINE5X0;
-			if (indims.y == 1) scale /= BSPLINE5X0;
-			if (scale != 1) {
-				messenger.log("Correction scaling with factor "+scale);
-				image.multiply(scale);
-			}
-			image.set(borders,background);
-		}
-		else image.mirror(borders);
 		
 		// Affine transform using the backward transformation matrix:
-		final Coordinates cin = new Coordinates();
-		final Coordinates cnew = new Coordinates();
-		final double[] anew = new double[newdims.x];
 		affined.axes(Axes.X);
 		
 		progressor.start();
-		for (cnew.c=cin.c=0; cnew.c<newdims.c; ++cnew.c, ++cin.c) {
-			for (cnew.t=cin.t=0; cnew.t<newdims.t; ++cnew.t, ++cin.t) {
-				for (cnew.z=cin.z=0; cnew.z<newdims.z; ++cnew.z, ++cin.z) {
+		parallelizer.run(newdims.c*newdims.t*newdims.z*newdims.y,new Parallelizer.Block() {
+			public void run(final int first, final int last) {
+				final Coordinates cin = new Coordinates();
+				final Coordinates cnew = new Coordinates();
+				final double[] anew = new double[newdims.x];
+				for (int row=first; row<last; ++row) {
+					row(row,cnew);
+					cin.c = cnew.c; cin.t = cnew.t; cin.z = cnew.z;
 					final double dz = cnew.z - pcoff.z;
-					for (cnew.y=0; cnew.y<newdims.y; ++cnew.y) {
-						final double dy = cnew.y - pcoff.y;
-						for (int x=0; x<newdims.x; ++x) {
-							final double dx = x - pcoff.x;
-							final double tx = pc.x + dx*bwd.axx + dy*bwd.axy + dz*bwd.axz + bwd.axt;
-							final double ty = pc.y + dx*bwd.ayx + dy*bwd.ayy + dz*bwd.ayz + bwd.ayt;
-							final int ix = FMath.floor(tx);
-							final int iy = FMath.floor(ty);
-							if (tx <= -1 || ix > pmax.x || ty <= -1 || iy > pmax.y) anew[x] = background;
-							else {
-								final double xdiff = tx - ix;
-								final double xdiff2 = xdiff*xdiff;
-								final double xmdiff = 1 - xdiff;
-								final double xmdiff2 = xmdiff*xmdiff;
-								final double wxm2 = f1o120*xmdiff2*xmdiff2*xmdiff;
-								final double wxm1 = f1o120 + f1o24*xmdiff*(1 + xmdiff*(2 + xmdiff*(2 + xmdiff - xmdiff2)));
-								final double wx00 = f11o20 + xdiff2*((f1o4 - f1o12*xdiff)*xdiff2 - f1o2);
-								final double wxp1 = f11o20 + xmdiff2*((f1o4 - f1o12*xmdiff)*xmdiff2 - f1o2);
-								final double wxp2 = f1o120 + f1o24*xdiff*(1 + xdiff*(2 + xdiff*(2 + xdiff - xdiff2)));
-								final double wxp3 = f1o120*xdiff2*xdiff2*xdiff;
-								final double ydiff = ty - iy;
-								final double ydiff2 = ydiff*ydiff;
-								final double ymdiff = 1 - ydiff;
-								final double ymdiff2 = ymdiff*ymdiff;
-								final double wym2 = f1o120*ymdiff2*ymdiff2*ymdiff;
-								final double wym1 = f1o120 + f1o24*ymdiff*(1 + ymdiff*(2 + ymdiff*(2 + ymdiff - ymdiff2)));
-								final double wy00 = f11o20 + ydiff2*((f1o4 - f1o12*ydiff)*ydiff2 - f1o2);
-								final double wyp1 = f11o20 + ymdiff2*((f1o4 - f1o12*ymdiff)*ymdiff2 - f1o2);
-								final double wyp2 = f1o120 + f1o24*ydiff*(1 + ydiff*(2 + ydiff*(2 + ydiff - ydiff2)));
-								final double wyp3 = f1o120*ydiff2*ydiff2*ydiff;
-								cin.x = borders.x + ix - 2;
-								cin.y = borders.y + iy - 2;
-								final double in00 = image.get(cin); ++cin.x;
-								final double in01 = image.get(cin); ++cin.x;
-								final double in02 = image.get(cin); ++cin.x;
-								final double in03 = image.get(cin); ++cin.x;
-								final double in04 = image.get(cin); ++cin.x;
-								final double in05 = image.get(cin); ++cin.y;
-								final double in15 = image.get(cin); --cin.x;
-								final double in14 = image.get(cin); --cin.x;
-								final double in13 = image.get(cin); --cin.x;
-								final double in12 = image.get(cin); --cin.x;
-								final double in11 = image.get(cin); --cin.x;
-								final double in10 = image.get(cin); ++cin.y;
-								final double in20 = image.get(cin); ++cin.x;
-								final double in21 = image.get(cin); ++cin.x;
-								final double in22 = image.get(cin); ++cin.x;
-								final double in23 = image.get(cin); ++cin.x;
-								final double in24 = image.get(cin); ++cin.x;
-								final double in25 = image.get(cin); ++cin.y;
-								final double in35 = image.get(cin); --cin.x;
-								final double in34 = image.get(cin); --cin.x;
-								final double in33 = image.get(cin); --cin.x;
-								final double in32 = image.get(cin); --cin.x;
-								final double in31 = image.get(cin); --cin.x;
-								final double in30 = image.get(cin); ++cin.y;
-								final double in40 = image.get(cin); ++cin.x;
-								final double in41 = image.get(cin); ++cin.x;
-								final double in42 = image.get(cin); ++cin.x;
-								final double in43 = image.get(cin); ++cin.x;
-								final double in44 = image.get(cin); ++cin.x;
-								final double in45 = image.get(cin); ++cin.y;
-								final double in55 = image.get(cin); --cin.x;
-								final double in54 = image.get(cin); --cin.x;
-								final double in53 = image.get(cin); --cin.x;
-								final double in52 = image.get(cin); --cin.x;
-								final double in51 = image.get(cin); --cin.x;
-								final double in50 = image.get(cin);
-								anew[x] = (
-									wym2*(wxm2*in00 + wxm1*in01 + wx00*in02 + wxp1*in03 + wxp2*in04 + wxp3*in05) +
-									wym1*(wxm2*in10 + wxm1*in11 + wx00*in12 + wxp1*in13 + wxp2*in14 + wxp3*in15) +
-									wy00*(wxm2*in20 + wxm1*in21 + wx00*in22 + wxp1*in23 + wxp2*in24 + wxp3*in25) +
-									wyp1*(wxm2*in30 + wxm1*in31 + wx00*in32 + wxp1*in33 + wxp2*in34 + wxp3*in35) +
-									wyp2*(wxm2*in40 + wxm1*in41 + wx00*in42 + wxp1*in43 + wxp2*in44 + wxp3*in45) +
-									wyp3*(wxm2*in50 + wxm1*in51 + wx00*in52 + wxp1*in53 + wxp2*in54 + wxp3*in55)
-								);
-							}
+					final double dy = cnew.y - pcoff.y;
+					for (int x=0; x<newdims.x; ++x) {
+						final double dx = x - pcoff.x;
+						final double tx = pc.x + dx*bwd.axx + dy*bwd.axy + dz*bwd.axz + bwd.axt;
+						final double ty = pc.y + dx*bwd.ayx + dy*bwd.ayy + dz*bwd.ayz + bwd.ayt;
+						final int ix = FMath.floor(tx);
+						final int iy = FMath.floor(ty);
+						if (tx <= -1 || ix > pmax.x || ty <= -1 || iy > pmax.y) anew[x] = background;
+						else {
+							final double xdiff = tx - ix;
+							final double xdiff2 = xdiff*xdiff;
+							final double xmdiff = 1 - xdiff;
+							final double xmdiff2 = xmdiff*xmdiff;
+							final double wxm2 = f1o120*xmdiff2*xmdiff2*xmdiff;
+							final double wxm1 = f1o120 + f1o24*xmdiff*(1 + xmdiff*(2 + xmdiff*(2 + xmdiff - xmdiff2)));
+							final double wx00 = f11o20 + xdiff2*((f1o4 - f1o12*xdiff)*xdiff2 - f1o2);
+							final double wxp1 = f11o20 + xmdiff2*((f1o4 - f1o12*xmdiff)*xmdiff2 - f1o2);
+							final double wxp2 = f1o120 + f1o24*xdiff*(1 + xdiff*(2 + xdiff*(2 + xdiff - xdiff2)));
+							final double wxp3 = f1o120*xdiff2*xdiff2*xdiff;
+							final double ydiff = ty - iy;
+							final double ydiff2 = ydiff*ydiff;
+							final double ymdiff = 1 - ydiff;
+							final double ymdiff2 = ymdiff*ymdiff;
+							final double wym2 = f1o120*ymdiff2*ymdiff2*ymdiff;
+							final double wym1 = f1o120 + f1o24*ymdiff*(1 + ymdiff*(2 + ymdiff*(2 + ymdiff - ymdiff2)));
+							final double wy00 = f11o20 + ydiff2*((f1o4 - f1o12*ydiff)*ydiff2 - f1o2);
+							final double wyp1 = f11o20 + ymdiff2*((f1o4 - f1o12*ymdiff)*ymdiff2 - f1o2);
+							final double wyp2 = f1o120 + f1o24*ydiff*(1 + ydiff*(2 + ydiff*(2 + ydiff - ydiff2)));
+							final double wyp3 = f1o120*ydiff2*ydiff2*ydiff;
+							cin.x = borders.x + ix - 2;
+							cin.y = borders.y + iy - 2;
+							final double in00 = image.get(cin); ++cin.x;
+							final double in01 = image.get(cin); ++cin.x;
+							final double in02 = image.get(cin); ++cin.x;
+							final double in03 = image.get(cin); ++cin.x;
+							final double in04 = image.get(cin); ++cin.x;
+							final double in05 = image.get(cin); ++cin.y;
+							final double in15 = image.get(cin); --cin.x;
+							final double in14 = image.get(cin); --cin.x;
+							final double in13 = image.get(cin); --cin.x;
+							final double in12 = image.get(cin); --cin.x;
+							final double in11 = image.get(cin); --cin.x;
+							final double in10 = image.get(cin); ++cin.y;
+							final double in20 = image.get(cin); ++cin.x;
+							final double in21 = image.get(cin); ++cin.x;
+							final double in22 = image.get(cin); ++cin.x;
+							final double in23 = image.get(cin); ++cin.x;
+							final double in24 = image.get(cin); ++cin.x;
+							final double in25 = image.get(cin); ++cin.y;
+							final double in35 = image.get(cin); --cin.x;
+							final double in34 = image.get(cin); --cin.x;
+							final double in33 = image.get(cin); --cin.x;
+							final double in32 = image.get(cin); --cin.x;
+							final double in31 = image.get(cin); --cin.x;
+							final double in30 = image.get(cin); ++cin.y;
+							final double in40 = image.get(cin); ++cin.x;
+							final double in41 = image.get(cin); ++cin.x;
+							final double in42 = image.get(cin); ++cin.x;
+							final double in43 = image.get(cin); ++cin.x;
+							final double in44 = image.get(cin); ++cin.x;
+							final double in45 = image.get(cin); ++cin.y;
+							final double in55 = image.get(cin); --cin.x;
+							final double in54 = image.get(cin); --cin.x;
+							final double in53 = image.get(cin); --cin.x;
+							final double in52 = image.get(cin); --cin.x;
+							final double in51 = image.get(cin); --cin.x;
+							final double in50 = image.get(cin);
+							anew[x] = (
+								wym2*(wxm2*in00 + wxm1*in01 + wx00*in02 + wxp1*in03 + wxp2*in04 + wxp3*in05) +
+								wym1*(wxm2*in10 + wxm1*in11 + wx00*in12 + wxp1*in13 + wxp2*in14 + wxp3*in15) +
+								wy00*(wxm2*in20 + wxm1*in21 + wx00*in22 + wxp1*in23 + wxp2*in24 + wxp3*in25) +
+								wyp1*(wxm2*in30 + wxm1*in31 + wx00*in32 + wxp1*in33 + wxp2*in34 + wxp3*in35) +
+								wyp2*(wxm2*in40 + wxm1*in41 + wx00*in42 + wxp1*in43 + wxp2*in44 + wxp3*in45) +
+								wyp3*(wxm2*in50 + wxm1*in51 + wx00*in52 + wxp1*in53 + wxp2*in54 + wxp3*in55)
+							);
 						}
-						affined.set(cnew,anew);
-						progressor.step();
 					}
+					affined.set(cnew,anew);
+					synchronized (progressor) { progressor.step(); }
 				}
 			}
-		}
+		});
 		progressor.stop();
 	}
 	
@@ -1403,143 +1541,124 @@ private void affine_bspline5_xyz(final Image image, final Image affined) {
 		messenger.log("Applying quintic B-spline prefilter and sampling function");
 		messenger.status("Affine transforming"+component+"...");
 		progressor.steps(newdims.c*newdims.t*newdims.z*newdims.y);
-		prefilter.bspline5(image,new Axes(true,true,true),borders);
-		
-		if (antialias) {
-			// If any of the dimensions equals 1, the prefiltering operation
-			// will not have been carried out in that dimension. Subsequent
-			// application of the quintic B-spline kernel in that dimension will
-			// result in an overall down-scaling of the grey-values, which
-			// should be corrected for:
-			double scale = 1;
-			if (indims.x == 1) scale /= BSPLINE5X0;
-			if (indims.y == 1) scale /= BSPLINE5X0;
-			if (indims.z == 1) scale /= BSPLINE5X0;
-			if (scale != 1) {
-				messenger.log("Correction scaling with factor "+scale);
-				image.multiply(scale);
-			}
-			image.set(borders,background);
-		}
-		else image.mirror(borders);
 		
 		// Affine transform using the backward transformation matrix:
-		final Coordinates cin = new Coordinates();
-		final Coordinates cnew = new Coordinates();
-		final double[][][] ain = new double[6][6][6];
-		final double[] anew = new double[newdims.x];
 		image.axes(Axes.X+Axes.Y+Axes.Z);
 		affined.axes(Axes.X);
 		
 		progressor.start();
-		for (cnew.c=cin.c=0; cnew.c<newdims.c; ++cnew.c, ++cin.c) {
-			for (cnew.t=cin.t=0; cnew.t<newdims.t; ++cnew.t, ++cin.t) {
-				for (cnew.z=0; cnew.z<newdims.z; ++cnew.z) {
+		parallelizer.run(newdims.c*newdims.t*newdims.z*newdims.y,new Parallelizer.Block() {
+			public void run(final int first, final int last) {
+				final Coordinates cin = new Coordinates();
+				final Coordinates cnew = new Coordinates();
+				final double[][][] ain = new double[6][6][6];
+				final double[] anew = new double[newdims.x];
+				for (int row=first; row<last; ++row) {
+					row(row,cnew);
+					cin.c = cnew.c; cin.t = cnew.t;
 					final double dz = cnew.z - pcoff.z;
-					for (cnew.y=0; cnew.y<newdims.y; ++cnew.y) {
-						final double dy = cnew.y - pcoff.y;
-						for (int x=0; x<newdims.x; ++x) {
-							final double dx = x - pcoff.x;
-							final double tx = pc.x + dx*bwd.axx + dy*bwd.axy + dz*bwd.axz + bwd.axt;
-							final double ty = pc.y + dx*bwd.ayx + dy*bwd.ayy + dz*bwd.ayz + bwd.ayt;
-							final double tz = pc.z + dx*bwd.azx + dy*bwd.azy + dz*bwd.azz + bwd.azt;
-							final int ix = FMath.floor(tx);
-							final int iy = FMath.floor(ty);
-							final int iz = FMath.floor(tz);
-							if (tx <= -1 || ix > pmax.x || ty <= -1 || iy > pmax.y || tz <= -1 || iz > pmax.z) anew[x] = background;
-							else {
-								final double xdiff = tx - ix;
-								final double xdiff2 = xdiff*xdiff;
-								final double xmdiff = 1 - xdiff;
-								final double xmdiff2 = xmdiff*xmdiff;
-								final double wxm2 = f1o120*xmdiff2*xmdiff2*xmdiff;
-								final double wxm1 = f1o120 + f1o24*xmdiff*(1 + xmdiff*(2 + xmdiff*(2 + xmdiff - xmdiff2)));
-								final double wx00 = f11o20 + xdiff2*((f1o4 - f1o12*xdiff)*xdiff2 - f1o2);
-								final double wxp1 = f11o20 + xmdiff2*((f1o4 - f1o12*xmdiff)*xmdiff2 - f1o2);
-								final double wxp2 = f1o120 + f1o24*xdiff*(1 + xdiff*(2 + xdiff*(2 + xdiff - xdiff2)));
-								final double wxp3 = f1o120*xdiff2*xdiff2*xdiff;
-								final double ydiff = ty - iy;
-								final double ydiff2 = ydiff*ydiff;
-								final double ymdiff = 1 - ydiff;
-								final double ymdiff2 = ymdiff*ymdiff;
-								final double wym2 = f1o120*ymdiff2*ymdiff2*ymdiff;
-								final double wym1 = f1o120 + f1o24*ymdiff*(1 + ymdiff*(2 + ymdiff*(2 + ymdiff - ymdiff2)));
-								final double wy00 = f11o20 + ydiff2*((f1o4 - f1o12*ydiff)*ydiff2 - f1o2);
-								final double wyp1 = f11o20 + ymdiff2*((f1o4 - f1o12*ymdiff)*ymdiff2 - f1o2);
-								final double wyp2 = f1o120 + f1o24*ydiff*(1 + ydiff*(2 + ydiff*(2 + ydiff - ydiff2)));
-								final double wyp3 = f1o120*ydiff2*ydiff2*ydiff;
-								final double zdiff = tz - iz;
-								final double zdiff2 = zdiff*zdiff;
-								final double zmdiff = 1 - zdiff;
-								final double zmdiff2 = zmdiff*zmdiff;
-								final double wzm2 = f1o120*zmdiff2*zmdiff2*zmdiff;
-								final double wzm1 = f1o120 + f1o24*zmdiff*(1 + zmdiff*(2 + zmdiff*(2 + zmdiff - zmdiff2)));
-								final double wz00 = f11o20 + zdiff2*((f1o4 - f1o12*zdiff)*zdiff2 - f1o2);
-								final double wzp1 = f11o20 + zmdiff2*((f1o4 - f1o12*zmdiff)*zmdiff2 - f1o2);
-								final double wzp2 = f1o120 + f1o24*zdiff*(1 + zdiff*(2 + zdiff*(2 + zdiff - zdiff2)));
-								final double wzp3 = f1o120*zdiff2*zdiff2*zdiff;
-								cin.x = borders.x + ix - 2;
-								cin.y = borders.y + iy - 2;
-								cin.z = borders.z + iz - 2;
-								image.get(cin,ain);
-								anew[x] = (
-									wzm2*(
-										wym2*(wxm2*ain[0][0][0] + wxm1*ain[0][0][1] + wx00*ain[0][0][2] + wxp1*ain[0][0][3] + wxp2*ain[0][0][4] + wxp3*ain[0][0][5]) +
-										wym1*(wxm2*ain[0][1][0] + wxm1*ain[0][1][1] + wx00*ain[0][1][2] + wxp1*ain[0][1][3] + wxp2*ain[0][1][4] + wxp3*ain[0][1][5]) +
-										wy00*(wxm2*ain[0][2][0] + wxm1*ain[0][2][1] + wx00*ain[0][2][2] + wxp1*ain[0][2][3] + wxp2*ain[0][2][4] + wxp3*ain[0][2][5]) +
-										wyp1*(wxm2*ain[0][3][0] + wxm1*ain[0][3][1] + wx00*ain[0][3][2] + wxp1*ain[0][3][3] + wxp2*ain[0][3][4] + wxp3*ain[0][3][5]) +
-										wyp2*(wxm2*ain[0][4][0] + wxm1*ain[0][4][1] + wx00*ain[0][4][2] + wxp1*ain[0][4][3] + wxp2*ain[0][4][4] + wxp3*ain[0][4][5]) +
-										wyp3*(wxm2*ain[0][5][0] + wxm1*ain[0][5][1] + wx00*ain[0][5][2] + wxp1*ain[0][5][3] + wxp2*ain[0][5][4] + wxp3*ain[0][5][5])
-									) +
-									wzm1*(
-										wym2*(wxm2*ain[1][0][0] + wxm1*ain[1][0][1] + wx00*ain[1][0][2] + wxp1*ain[1][0][3] + wxp2*ain[1][0][4] + wxp3*ain[1][0][5]) +
-										wym1*(wxm2*ain[1][1][0] + wxm1*ain[1][1][1] + wx00*ain[1][1][2] + wxp1*ain[1][1][3] + wxp2*ain[1][1][4] + wxp3*ain[1][1][5]) +
-										wy00*(wxm2*ain[1][2][0] + wxm1*ain[1][2][1] + wx00*ain[1][2][2] + wxp1*ain[1][2][3] + wxp2*ain[1][2][4] + wxp3*ain[1][2][5]) +
-										wyp1*(wxm2*ain[1][3][0] + wxm1*ain[1][3][1] + wx00*ain[1][3][2] + wxp1*ain[1][3][3] + wxp2*ain[1][3][4] + wxp3*ain[1][3][5]) +
-										wyp2*(wxm2*ain[1][4][0] + wxm1*ain[1][4][1] + wx00*ain[1][4][2] + wxp1*ain[1][4][3] + wxp2*ain[1][4][4] + wxp3*ain[1][4][5]) +
-										wyp3*(wxm2*ain[1][5][0] + wxm1*ain[1][5][1] + wx00*ain[1][5][2] + wxp1*ain[1][5][3] + wxp2*ain[1][5][4] + wxp3*ain[1][5][5])
-									) +
-									wz00*(
-										wym2*(wxm2*ain[2][0][0] + wxm1*ain[2][0][1] + wx00*ain[2][0][2] + wxp1*ain[2][0][3] + wxp2*ain[2][0][4] + wxp3*ain[2][0][5]) +
-										wym1*(wxm2*ain[2][1][0] + wxm1*ain[2][1][1] + wx00*ain[2][1][2] + wxp1*ain[2][1][3] + wxp2*ain[2][1][4] + wxp3*ain[2][1][5]) +
-										wy00*(wxm2*ain[2][2][0] + wxm1*ain[2][2][1] + wx00*ain[2][2][2] + wxp1*ain[2][2][3] + wxp2*ain[2][2][4] + wxp3*ain[2][2][5]) +
-										wyp1*(wxm2*ain[2][3][0] + wxm1*ain[2][3][1] + wx00*ain[2][3][2] + wxp1*ain[2][3][3] + wxp2*ain[2][3][4] + wxp3*ain[2][3][5]) +
-										wyp2*(wxm2*ain[2][4][0] + wxm1*ain[2][4][1] + wx00*ain[2][4][2] + wxp1*ain[2][4][3] + wxp2*ain[2][4][4] + wxp3*ain[2][4][5]) +
-										wyp3*(wxm2*ain[2][5][0] + wxm1*ain[2][5][1] + wx00*ain[2][5][2] + wxp1*ain[2][5][3] + wxp2*ain[2][5][4] + wxp3*ain[2][5][5])
-									) +
-									wzp1*(
-										wym2*(wxm2*ain[3][0][0] + wxm1*ain[3][0][1] + wx00*ain[3][0][2] + wxp1*ain[3][0][3] + wxp2*ain[3][0][4] + wxp3*ain[3][0][5]) +
-										wym1*(wxm2*ain[3][1][0] + wxm1*ain[3][1][1] + wx00*ain[3][1][2] + wxp1*ain[3][1][3] + wxp2*ain[3][1][4] + wxp3*ain[3][1][5]) +
-										wy00*(wxm2*ain[3][2][0] + wxm1*ain[3][2][1] + wx00*ain[3][2][2] + wxp1*ain[3][2][3] + wxp2*ain[3][2][4] + wxp3*ain[3][2][5]) +
-										wyp1*(wxm2*ain[3][3][0] + wxm1*ain[3][3][1] + wx00*ain[3][3][2] + wxp1*ain[3][3][3] + wxp2*ain[3][3][4] + wxp3*ain[3][3][5]) +
-										wyp2*(wxm2*ain[3][4][0] + wxm1*ain[3][4][1] + wx00*ain[3][4][2] + wxp1*ain[3][4][3] + wxp2*ain[3][4][4] + wxp3*ain[3][4][5]) +
-										wyp3*(wxm2*ain[3][5][0] + wxm1*ain[3][5][1] + wx00*ain[3][5][2] + wxp1*ain[3][5][3] + wxp2*ain[3][5][4] + wxp3*ain[3][5][5])
-									) +
-									wzp2*(
-										wym2*(wxm2*ain[4][0][0] + wxm1*ain[4][0][1] + wx00*ain[4][0][2] + wxp1*ain[4][0][3] + wxp2*ain[4][0][4] + wxp3*ain[4][0][5]) +
-										wym1*(wxm2*ain[4][1][0] + wxm1*ain[4][1][1] + wx00*ain[4][1][2] + wxp1*ain[4][1][3] + wxp2*ain[4][1][4] + wxp3*ain[4][1][5]) +
-										wy00*(wxm2*ain[4][2][0] + wxm1*ain[4][2][1] + wx00*ain[4][2][2] + wxp1*ain[4][2][3] + wxp2*ain[4][2][4] + wxp3*ain[4][2][5]) +
-										wyp1*(wxm2*ain[4][3][0] + wxm1*ain[4][3][1] + wx00*ain[4][3][2] + wxp1*ain[4][3][3] + wxp2*ain[4][3][4] + wxp3*ain[4][3][5]) +
-										wyp2*(wxm2*ain[4][4][0] + wxm1*ain[4][4][1] + wx00*ain[4][4][2] + wxp1*ain[4][4][3] + wxp2*ain[4][4][4] + wxp3*ain[4][4][5]) +
-										wyp3*(wxm2*ain[4][5][0] + wxm1*ain[4][5][1] + wx00*ain[4][5][2] + wxp1*ain[4][5][3] + wxp2*ain[4][5][4] + wxp3*ain[4][5][5])
-									) +
-									wzp3*(
-										wym2*(wxm2*ain[5][0][0] + wxm1*ain[5][0][1] + wx00*ain[5][0][2] + wxp1*ain[5][0][3] + wxp2*ain[5][0][4] + wxp3*ain[5][0][5]) +
-										wym1*(wxm2*ain[5][1][0] + wxm1*ain[5][1][1] + wx00*ain[5][1][2] + wxp1*ain[5][1][3] + wxp2*ain[5][1][4] + wxp3*ain[5][1][5]) +
-										wy00*(wxm2*ain[5][2][0] + wxm1*ain[5][2][1] + wx00*ain[5][2][2] + wxp1*ain[5][2][3] + wxp2*ain[5][2][4] + wxp3*ain[5][2][5]) +
-										wyp1*(wxm2*ain[5][3][0] + wxm1*ain[5][3][1] + wx00*ain[5][3][2] + wxp1*ain[5][3][3] + wxp2*ain[5][3][4] + wxp3*ain[5][3][5]) +
-										wyp2*(wxm2*ain[5][4][0] + wxm1*ain[5][4][1] + wx00*ain[5][4][2] + wxp1*ain[5][4][3] + wxp2*ain[5][4][4] + wxp3*ain[5][4][5]) +
-										wyp3*(wxm2*ain[5][5][0] + wxm1*ain[5][5][1] + wx00*ain[5][5][2] + wxp1*ain[5][5][3] + wxp2*ain[5][5][4] + wxp3*ain[5][5][5])
-									)
-								);
-							}
+					final double dy = cnew.y - pcoff.y;
+					for (int x=0; x<newdims.x; ++x) {
+						final double dx = x - pcoff.x;
+						final double tx = pc.x + dx*bwd.axx + dy*bwd.axy + dz*bwd.axz + bwd.axt;
+						final double ty = pc.y + dx*bwd.ayx + dy*bwd.ayy + dz*bwd.ayz + bwd.ayt;
+						final double tz = pc.z + dx*bwd.azx + dy*bwd.azy + dz*bwd.azz + bwd.azt;
+						final int ix = FMath.floor(tx);
+						final int iy = FMath.floor(ty);
+						final int iz = FMath.floor(tz);
+						if (tx <= -1 || ix > pmax.x || ty <= -1 || iy > pmax.y || tz <= -1 || iz > pmax.z) anew[x] = background;
+						else {
+							final double xdiff = tx - ix;
+							final double xdiff2 = xdiff*xdiff;
+							final double xmdiff = 1 - xdiff;
+							final double xmdiff2 = xmdiff*xmdiff;
+							final double wxm2 = f1o120*xmdiff2*xmdiff2*xmdiff;
+							final double wxm1 = f1o120 + f1o24*xmdiff*(1 + xmdiff*(2 + xmdiff*(2 + xmdiff - xmdiff2)));
+							final double wx00 = f11o20 + xdiff2*((f1o4 - f1o12*xdiff)*xdiff2 - f1o2);
+							final double wxp1 = f11o20 + xmdiff2*((f1o4 - f1o12*xmdiff)*xmdiff2 - f1o2);
+							final double wxp2 = f1o120 + f1o24*xdiff*(1 + xdiff*(2 + xdiff*(2 + xdiff - xdiff2)));
+							final double wxp3 = f1o120*xdiff2*xdiff2*xdiff;
+							final double ydiff = ty - iy;
+							final double ydiff2 = ydiff*ydiff;
+							final double ymdiff = 1 - ydiff;
+							final double ymdiff2 = ymdiff*ymdiff;
+							final double wym2 = f1o120*ymdiff2*ymdiff2*ymdiff;
+							final double wym1 = f1o120 + f1o24*ymdiff*(1 + ymdiff*(2 + ymdiff*(2 + ymdiff - ymdiff2)));
+							final double wy00 = f11o20 + ydiff2*((f1o4 - f1o12*ydiff)*ydiff2 - f1o2);
+							final double wyp1 = f11o20 + ymdiff2*((f1o4 - f1o12*ymdiff)*ymdiff2 - f1o2);
+							final double wyp2 = f1o120 + f1o24*ydiff*(1 + ydiff*(2 + ydiff*(2 + ydiff - ydiff2)));
+							final double wyp3 = f1o120*ydiff2*ydiff2*ydiff;
+							final double zdiff = tz - iz;
+							final double zdiff2 = zdiff*zdiff;
+							final double zmdiff = 1 - zdiff;
+							final double zmdiff2 = zmdiff*zmdiff;
+							final double wzm2 = f1o120*zmdiff2*zmdiff2*zmdiff;
+							final double wzm1 = f1o120 + f1o24*zmdiff*(1 + zmdiff*(2 + zmdiff*(2 + zmdiff - zmdiff2)));
+							final double wz00 = f11o20 + zdiff2*((f1o4 - f1o12*zdiff)*zdiff2 - f1o2);
+							final double wzp1 = f11o20 + zmdiff2*((f1o4 - f1o12*zmdiff)*zmdiff2 - f1o2);
+							final double wzp2 = f1o120 + f1o24*zdiff*(1 + zdiff*(2 + zdiff*(2 + zdiff - zdiff2)));
+							final double wzp3 = f1o120*zdiff2*zdiff2*zdiff;
+							cin.x = borders.x + ix - 2;
+							cin.y = borders.y + iy - 2;
+							cin.z = borders.z + iz - 2;
+							image.get(cin,ain);
+							anew[x] = (
+								wzm2*(
+									wym2*(wxm2*ain[0][0][0] + wxm1*ain[0][0][1] + wx00*ain[0][0][2] + wxp1*ain[0][0][3] + wxp2*ain[0][0][4] + wxp3*ain[0][0][5]) +
+									wym1*(wxm2*ain[0][1][0] + wxm1*ain[0][1][1] + wx00*ain[0][1][2] + wxp1*ain[0][1][3] + wxp2*ain[0][1][4] + wxp3*ain[0][1][5]) +
+									wy00*(wxm2*ain[0][2][0] + wxm1*ain[0][2][1] + wx00*ain[0][2][2] + wxp1*ain[0][2][3] + wxp2*ain[0][2][4] + wxp3*ain[0][2][5]) +
+									wyp1*(wxm2*ain[0][3][0] + wxm1*ain[0][3][1] + wx00*ain[0][3][2] + wxp1*ain[0][3][3] + wxp2*ain[0][3][4] + wxp3*ain[0][3][5]) +
+									wyp2*(wxm2*ain[0][4][0] + wxm1*ain[0][4][1] + wx00*ain[0][4][2] + wxp1*ain[0][4][3] + wxp2*ain[0][4][4] + wxp3*ain[0][4][5]) +
+									wyp3*(wxm2*ain[0][5][0] + wxm1*ain[0][5][1] + wx00*ain[0][5][2] + wxp1*ain[0][5][3] + wxp2*ain[0][5][4] + wxp3*ain[0][5][5])
+								) +
+								wzm1*(
+									wym2*(wxm2*ain[1][0][0] + wxm1*ain[1][0][1] + wx00*ain[1][0][2] + wxp1*ain[1][0][3] + wxp2*ain[1][0][4] + wxp3*ain[1][0][5]) +
+									wym1*(wxm2*ain[1][1][0] + wxm1*ain[1][1][1] + wx00*ain[1][1][2] + wxp1*ain[1][1][3] + wxp2*ain[1][1][4] + wxp3*ain[1][1][5]) +
+									wy00*(wxm2*ain[1][2][0] + wxm1*ain[1][2][1] + wx00*ain[1][2][2] + wxp1*ain[1][2][3] + wxp2*ain[1][2][4] + wxp3*ain[1][2][5]) +
+									wyp1*(wxm2*ain[1][3][0] + wxm1*ain[1][3][1] + wx00*ain[1][3][2] + wxp1*ain[1][3][3] + wxp2*ain[1][3][4] + wxp3*ain[1][3][5]) +
+									wyp2*(wxm2*ain[1][4][0] + wxm1*ain[1][4][1] + wx00*ain[1][4][2] + wxp1*ain[1][4][3] + wxp2*ain[1][4][4] + wxp3*ain[1][4][5]) +
+									wyp3*(wxm2*ain[1][5][0] + wxm1*ain[1][5][1] + wx00*ain[1][5][2] + wxp1*ain[1][5][3] + wxp2*ain[1][5][4] + wxp3*ain[1][5][5])
+								) +
+								wz00*(
+									wym2*(wxm2*ain[2][0][0] + wxm1*ain[2][0][1] + wx00*ain[2][0][2] + wxp1*ain[2][0][3] + wxp2*ain[2][0][4] + wxp3*ain[2][0][5]) +
+									wym1*(wxm2*ain[2][1][0] + wxm1*ain[2][1][1] + wx00*ain[2][1][2] + wxp1*ain[2][1][3] + wxp2*ain[2][1][4] + wxp3*ain[2][1][5]) +
+									wy00*(wxm2*ain[2][2][0] + wxm1*ain[2][2][1] + wx00*ain[2][2][2] + wxp1*ain[2][2][3] + wxp2*ain[2][2][4] + wxp3*ain[2][2][5]) +
+									wyp1*(wxm2*ain[2][3][0] + wxm1*ain[2][3][1] + wx00*ain[2][3][2] + wxp1*ain[2][3][3] + wxp2*ain[2][3][4] + wxp3*ain[2][3][5]) +
+									wyp2*(wxm2*ain[2][4][0] + wxm1*ain[2][4][1] + wx00*ain[2][4][2] + wxp1*ain[2][4][3] + wxp2*ain[2][4][4] + wxp3*ain[2][4][5]) +
+									wyp3*(wxm2*ain[2][5][0] + wxm1*ain[2][5][1] + wx00*ain[2][5][2] + wxp1*ain[2][5][3] + wxp2*ain[2][5][4] + wxp3*ain[2][5][5])
+								) +
+								wzp1*(
+									wym2*(wxm2*ain[3][0][0] + wxm1*ain[3][0][1] + wx00*ain[3][0][2] + wxp1*ain[3][0][3] + wxp2*ain[3][0][4] + wxp3*ain[3][0][5]) +
+									wym1*(wxm2*ain[3][1][0] + wxm1*ain[3][1][1] + wx00*ain[3][1][2] + wxp1*ain[3][1][3] + wxp2*ain[3][1][4] + wxp3*ain[3][1][5]) +
+									wy00*(wxm2*ain[3][2][0] + wxm1*ain[3][2][1] + wx00*ain[3][2][2] + wxp1*ain[3][2][3] + wxp2*ain[3][2][4] + wxp3*ain[3][2][5]) +
+									wyp1*(wxm2*ain[3][3][0] + wxm1*ain[3][3][1] + wx00*ain[3][3][2] + wxp1*ain[3][3][3] + wxp2*ain[3][3][4] + wxp3*ain[3][3][5]) +
+									wyp2*(wxm2*ain[3][4][0] + wxm1*ain[3][4][1] + wx00*ain[3][4][2] + wxp1*ain[3][4][3] + wxp2*ain[3][4][4] + wxp3*ain[3][4][5]) +
+									wyp3*(wxm2*ain[3][5][0] + wxm1*ain[3][5][1] + wx00*ain[3][5][2] + wxp1*ain[3][5][3] + wxp2*ain[3][5][4] + wxp3*ain[3][5][5])
+								) +
+								wzp2*(
+									wym2*(wxm2*ain[4][0][0] + wxm1*ain[4][0][1] + wx00*ain[4][0][2] + wxp1*ain[4][0][3] + wxp2*ain[4][0][4] + wxp3*ain[4][0][5]) +
+									wym1*(wxm2*ain[4][1][0] + wxm1*ain[4][1][1] + wx00*ain[4][1][2] + wxp1*ain[4][1][3] + wxp2*ain[4][1][4] + wxp3*ain[4][1][5]) +
+									wy00*(wxm2*ain[4][2][0] + wxm1*ain[4][2][1] + wx00*ain[4][2][2] + wxp1*ain[4][2][3] + wxp2*ain[4][2][4] + wxp3*ain[4][2][5]) +
+									wyp1*(wxm2*ain[4][3][0] + wxm1*ain[4][3][1] + wx00*ain[4][3][2] + wxp1*ain[4][3][3] + wxp2*ain[4][3][4] + wxp3*ain[4][3][5]) +
+									wyp2*(wxm2*ain[4][4][0] + wxm1*ain[4][4][1] + wx00*ain[4][4][2] + wxp1*ain[4][4][3] + wxp2*ain[4][4][4] + wxp3*ain[4][4][5]) +
+									wyp3*(wxm2*ain[4][5][0] + wxm1*ain[4][5][1] + wx00*ain[4][5][2] + wxp1*ain[4][5][3] + wxp2*ain[4][5][4] + wxp3*ain[4][5][5])
+								) +
+								wzp3*(
+									wym2*(wxm2*ain[5][0][0] + wxm1*ain[5][0][1] + wx00*ain[5][0][2] + wxp1*ain[5][0][3] + wxp2*ain[5][0][4] + wxp3*ain[5][0][5]) +
+									wym1*(wxm2*ain[5][1][0] + wxm1*ain[5][1][1] + wx00*ain[5][1][2] + wxp1*ain[5][1][3] + wxp2*ain[5][1][4] + wxp3*ain[5][1][5]) +
+									wy00*(wxm2*ain[5][2][0] + wxm1*ain[5][2][1] + wx00*ain[5][2][2] + wxp1*ain[5][2][3] + wxp2*ain[5][2][4] + wxp3*ain[5][2][5]) +
+									wyp1*(wxm2*ain[5][3][0] + wxm1*ain[5][3][1] + wx00*ain[5][3][2] + wxp1*ain[5][3][3] + wxp2*ain[5][3][4] + wxp3*ain[5][3][5]) +
+									wyp2*(wxm2*ain[5][4][0] + wxm1*ain[5][4][1] + wx00*ain[5][4][2] + wxp1*ain[5][4][3] + wxp2*ain[5][4][4] + wxp3*ain[5][4][5]) +
+									wyp3*(wxm2*ain[5][5][0] + wxm1*ain[5][5][1] + wx00*ain[5][5][2] + wxp1*ain[5][5][3] + wxp2*ain[5][5][4] + wxp3*ain[5][5][5])
+								)
+							);
 						}
-						affined.set(cnew,anew);
-						progressor.step();
 					}
+					affined.set(cnew,anew);
+					synchronized (progressor) { progressor.step(); }
 				}
 			}
-		}
+		});
 		progressor.stop();
 	}
 	
@@ -1566,15 +1685,24 @@ private String schemes(final int scheme) {
 	/** The object used for progress displaying. */
 	public final Progressor progressor = new Progressor();
 	
+	/** Determines whether the spline coefficients computed for the input image are kept for reuse. If {@code true}, subsequent calls with the same input image, interpolation scheme, anti-aliasing choice, and background value reuse the coefficients computed in the first call, which saves the time of prefiltering. The coefficients are not recomputed if the input image was modified in between calls, so the input image should be left unaltered as long as this field is {@code true}. The coefficients of at most one input image are kept. The default value is {@code false}. */
+	public boolean cache = false;
+	
+	/** The object used for multi-threaded processing. The threads are used for the resampling of the rows of the output image and for the prefiltering. */
+	public final Parallelizer parallelizer = new Parallelizer();
+	
 	private final Prefilter prefilter = new Prefilter();
 	
+	private final HashMap<String,Image> coefficients = new HashMap<String,Image>();
+	private int source;
+	
 	private String component = "";
 	private Dimensions indims, newdims;
 	private Borders borders;
 	private int scheme;
 	private Transform fwd, bwd;
 	private Point pc, pmax, pcoff;
-	private boolean xytrans, antialias;
+	private boolean xytrans, separable, antialias;
 	
 	private final double f1o2 = 1.0/2.0;
 	private final double f1o4 = 1.0/4.0;
@@ -6,6 +6,7 @@
 import imagescience.image.Dimensions;
 import imagescience.image.FloatImage;
 import imagescience.image.Image;
+import imagescience.utility.Parallelizer;
 
 /** Prefilters images for different interpolation schemes. */
 public class Prefilter {
@@ -22,6 +23,8 @@ public class Prefilter {
 	
 	private static final int HORIZON = 25;
 	
+	private static final int BSPLINE3 = 0, OMOMS3 = 1, BSPLINE5 = 2;
+	
 	/** Default constructor. */
 	public Prefilter() { }
 	
@@ -57,90 +60,14 @@ public void bspline3(final double[] array, final int border) {
 	*/
 	public Image bspline3(final Image image, final Axes axes, final Borders borders) {
 		
-		final Dimensions dims = image.dimensions();
-		final Coordinates min = new Coordinates(borders.x,borders.y,borders.z,borders.t,borders.c);
-		final Coordinates max = new Coordinates(dims.x-borders.x-1,dims.y-borders.y-1,dims.z-borders.z-1,dims.t-borders.t-1,dims.c-borders.c-1);
 		final Image prefimg = (image instanceof FloatImage) ? image : new FloatImage(image);
 		
-		// Prefilter in the x-dimension if requested:
-		if (axes.x && (dims.x - 2*borders.x > 1)) {
-			prefimg.axes(Axes.X);
-			final double[] array = new double[dims.x];
-			final Coordinates coords = new Coordinates();
-			for (coords.c=min.c; coords.c<=max.c; ++coords.c)
-				for (coords.t=min.t; coords.t<=max.t; ++coords.t)
-					for (coords.z=min.z; coords.z<=max.z; ++coords.z)
-						for (coords.y=min.y; coords.y<=max.y; ++coords.y) {
-							prefimg.get(coords,array);
-							causalanticausal(array,borders.x,BSPLINE3POLE1);
-							scale(array,borders.x,BSPLINE3SCALE);
-							prefimg.set(coords,array);
-						}
-		}
-		
-		// Prefilter in the y-dimension if requested:
-		if (axes.y && (dims.y - 2*borders.y > 1)) {
-			prefimg.axes(Axes.Y);
-			final double[] array = new double[dims.y];
-			final Coordinates coords = new Coordinates();
-			for (coords.c=min.c; coords.c<=max.c; ++coords.c)
-				for (coords.t=min.t; coords.t<=max.t; ++coords.t)
-					for (coords.z=min.z; coords.z<=max.z; ++coords.z)
-						for (coords.x=min.x; coords.x<=max.x; ++coords.x) {
-							prefimg.get(coords,array);
-							causalanticausal(array,borders.y,BSPLINE3POLE1);
-							scale(array,borders.y,BSPLINE3SCALE);
-							prefimg.set(coords,array);
-						}
-		}
-		
-		// Prefilter in the z-dimension if requested:
-		if (axes.z && (dims.z - 2*borders.z > 1)) {
-			prefimg.axes(Axes.Z);
-			final double[] array = new double[dims.z];
-			final Coordinates coords = new Coordinates();
-			for (coords.c=min.c; coords.c<=max.c; ++coords.c)
-				for (coords.t=min.t; coords.t<=max.t; ++coords.t)
-					for (coords.y=min.y; coords.y<=max.y; ++coords.y)
-						for (coords.x=min.x; coords.x<=max.x; ++coords.x) {
-							prefimg.get(coords,array);
-							causalanticausal(array,borders.z,BSPLINE3POLE1);
-							scale(array,borders.z,BSPLINE3SCALE);
-							prefimg.set(coords,array);
-						}
-		}
-		
-		// Prefilter in the t-dimension if requested:
-		if (axes.t && (dims.t - 2*borders.t > 1)) {
-			prefimg.axes(Axes.T);
-			final double[] array = new double[dims.t];
-			final Coordinates coords = new Coordinates();
-			for (coords.c=min.c; coords.c<=max.c; ++coords.c)
-				for (coords.z=min.z; coords.z<=max.z; ++coords.z)
-					for (coords.y=min.y; coords.y<=max.y; ++coords.y)
-						for (coords.x=min.x; coords.x<=max.x; ++coords.x) {
-							prefimg.get(coords,array);
-							causalanticausal(array,borders.t,BSPLINE3POLE1);
-							scale(array,borders.t,BSPLINE3SCALE);
-							prefimg.set(coords,array);
-						}
-		}
-		
-		// Prefilter in the c-dimension if requested:
-		if (axes.c && (dims.c - 2*borders.c > 1)) {
-			prefimg.axes(Axes.C);
-			final double[] array = new double[dims.c];
-			final Coordinates coords = new Coordinates();
-			for (coords.t=min.t; coords.t<=max.t; ++coords.t)
-				for (coords.z=min.z; coords.z<=max.z; ++coords.z)
-					for (coords.y=min.y; coords.y<=max.y; ++coords.y)
-						for (coords.x=min.x; coords.x<=max.x; ++coords.x) {
-							prefimg.get(coords,array);
-							causalanticausal(array,borders.c,BSPLINE3POLE1);
-							scale(array,borders.c,BSPLINE3SCALE);
-							prefimg.set(coords,array);
-						}
-		}
+		// Prefilter in the requested dimensions:
+		if (axes.x) prefilter(prefimg,Axes.X,borders,BSPLINE3);
+		if (axes.y) prefilter(prefimg,Axes.Y,borders,BSPLINE3);
+		if (axes.z) prefilter(prefimg,Axes.Z,borders,BSPLINE3);
+		if (axes.t) prefilter(prefimg,Axes.T,borders,BSPLINE3);
+		if (axes.c) prefilter(prefimg,Axes.C,borders,BSPLINE3);
 		
 		return prefimg;
 	}
@@ -177,90 +104,14 @@ public void omoms3(final double[] array, final int border) {
 	*/
 	public Image omoms3(final Image image, final Axes axes, final Borders borders) {
 		
-		final Dimensions dims = image.dimensions();
-		final Coordinates min = new Coordinates(borders.x,borders.y,borders.z,borders.t,borders.c);
-		final Coordinates max = new Coordinates(dims.x-borders.x-1,dims.y-borders.y-1,dims.z-borders.z-1,dims.t-borders.t-1,dims.c-borders.c-1);
 		final Image prefimg = (image instanceof FloatImage) ? image : new FloatImage(image);
 		
-		// Prefilter in the x-dimension if requested:
-		if (axes.x && (dims.x - 2*borders.x > 1)) {
-			prefimg.axes(Axes.X);
-			final double[] array = new double[dims.x];
-			final Coordinates coords = new Coordinates();
-			for (coords.c=min.c; coords.c<=max.c; ++coords.c)
-				for (coords.t=min.t; coords.t<=max.t; ++coords.t)
-					for (coords.z=min.z; coords.z<=max.z; ++coords.z)
-						for (coords.y=min.y; coords.y<=max.y; ++coords.y) {
-							prefimg.get(coords,array);
-							causalanticausal(array,borders.x,OMOMS3POLE1);
-							scale(array,borders.x,OMOMS3SCALE);
-							prefimg.set(coords,array);
-						}
-		}
-		
-		// Prefilter in the y-dimension if requested:
-		if (axes.y && (dims.y - 2*borders.y > 1)) {
-			prefimg.axes(Axes.Y);
-			final double[] array = new double[dims.y];
-			final Coordinates coords = new Coordinates();
-			for (coords.c=min.c; coords.c<=max.c; ++coords.c)
-				for (coords.t=min.t; coords.t<=max.t; ++coords.t)
-					for (coords.z=min.z; coords.z<=max.z; ++coords.z)
-						for (coords.x=min.x; coords.x<=max.x; ++coords.x) {
-							prefimg.get(coords,array);
-							causalanticausal(array,borders.y,OMOMS3POLE1);
-							scale(array,borders.y,OMOMS3SCALE);
-							prefimg.set(coords,array);
-						}
-		}
-		
-		// Prefilter in the z-dimension if requested:
-		if (axes.z && (dims.z - 2*borders.z > 1)) {
-			prefimg.axes(Axes.Z);
-			final double[] array = new double[dims.z];
-			final Coordinates coords = new Coordinates();
-			for (coords.c=min.c; coords.c<=max.c; ++coords.c)
-				for (coords.t=min.t; coords.t<=max.t; ++coords.t)
-					for (coords.y=min.y; coords.y<=max.y; ++coords.y)
-						for (coords.x=min.x; coords.x<=max.x; ++coords.x) {
-							prefimg.get(coords,array);
-							causalanticausal(array,borders.z,OMOMS3POLE1);
-							scale(array,borders.z,OMOMS3SCALE);
-							prefimg.set(coords,array);
-						}
-		}
-		
-		// Prefilter in the t-dimension if requested:
-		if (axes.t && (dims.t - 2*borders.t > 1)) {
-			prefimg.axes(Axes.T);
-			final double[] array = new double[dims.t];
-			final Coordinates coords = new Coordinates();
-			for (coords.c=min.c; coords.c<=max.c; ++coords.c)
-				for (coords.z=min.z; coords.z<=max.z; ++coords.z)
-					for (coords.y=min.y; coords.y<=max.y; ++coords.y)
-						for (coords.x=min.x; coords.x<=max.x; ++coords.x) {
-							prefimg.get(coords,array);
-							causalanticausal(array,borders.t,OMOMS3POLE1);
-							scale(array,borders.t,OMOMS3SCALE);
-							prefimg.set(coords,array);
-						}
-		}
-		
-		// Prefilter in the c-dimension if requested:
-		if (axes.c && (dims.c - 2*borders.c > 1)) {
-			prefimg.axes(Axes.C);
-			final double[] array = new double[dims.c];
-			final Coordinates coords = new Coordinates();
-			for (coords.t=min.t; coords.t<=max.t; ++coords.t)
-				for (coords.z=min.z; coords.z<=max.z; ++coords.z)
-					for (coords.y=min.y; coords.y<=max.y; ++coords.y)
-						for (coords.x=min.x; coords.x<=max.x; ++coords.x) {
-							prefimg.get(coords,array);
-							causalanticausal(array,borders.c,OMOMS3POLE1);
-							scale(array,borders.c,OMOMS3SCALE);
-							prefimg.set(coords,array);
-						}
-		}
+		// Prefilter in the requested dimensions:
+		if (axes.x) prefilter(prefimg,Axes.X,borders,OMOMS3);
+		if (axes.y) prefilter(prefimg,Axes.Y,borders,OMOMS3);
+		if (axes.z) prefilter(prefimg,Axes.Z,borders,OMOMS3);
+		if (axes.t) prefilter(prefimg,Axes.T,borders,OMOMS3);
+		if (axes.c) prefilter(prefimg,Axes.C,borders,OMOMS3);
 		
 		return prefimg;
 	}
@@ -298,99 +149,55 @@ public void bspline5(final double[] array, final int border) {
 	*/
 	public Image bspline5(final Image image, final Axes axes, final Borders borders) {
 		
-		final Dimensions dims = image.dimensions();
-		final Coordinates min = new Coordinates(borders.x,borders.y,borders.z,borders.t,borders.c);
-		final Coordinates max = new Coordinates(dims.x-borders.x-1,dims.y-borders.y-1,dims.z-borders.z-1,dims.t-borders.t-1,dims.c-borders.c-1);
 		final Image prefimg = (image instanceof FloatImage) ? image : new FloatImage(image);
 		
-		// Prefilter in the x-dimension if requested:
-		if (axes.x && (dims.x - 2*borders.x > 1)) {
-			prefimg.axes(Axes.X);
-			final double[] array = new double[dims.x];
-			final Coordinates coords = new Coordinates();
-			for (coords.c=min.c; coords.c<=max.c; ++coords.c)
-				for (coords.t=min.t; coords.t<=max.t; ++coords.t)
-					for (coords.z=min.z; coords.z<=max.z; ++coords.z)
-						for (coords.y=min.y; coords.y<=max.y; ++coords.y) {
-							prefimg.get(coords,array);
-							causalanticausal(array,borders.x,BSPLINE5POLE1);
-							causalanticausal(array,borders.x,BSPLINE5POLE2);
-							scale(array,borders.x,BSPLINE5SCALE);
-							prefimg.set(coords,array);
-						}
-		}
-		
-		// Prefilter in the y-dimension if requested:
-		if (axes.y && (dims.y - 2*borders.y > 1)) {
-			prefimg.axes(Axes.Y);
-			final double[] array = new double[dims.y];
-			final Coordinates coords = new Coordinates();
-			for (coords.c=min.c; coords.c<=max.c; ++coords.c)
-				for (coords.t=min.t; coords.t<=max.t; ++coords.t)
-					for (coords.z=min.z; coords.z<=max.z; ++coords.z)
-						for (coords.x=min.x; coords.x<=max.x; ++coords.x) {
-							prefimg.get(coords,array);
-							causalanticausal(array,borders.y,BSPLINE5POLE1);
-							causalanticausal(array,borders.y,BSPLINE5POLE2);
-							scale(array,borders.y,BSPLINE5SCALE);
-							prefimg.set(coords,array);
-						}
-		}
-		
-		// Prefilter in the z-dimension if requested:
-		if (axes.z && (dims.z - 2*borders.z > 1)) {
-			prefimg.axes(Axes.Z);
-			final double[] array = new double[dims.z];
-			final Coordinates coords = new Coordinates();
-			for (coords.c=min.c; coords.c<=max.c; ++coords.c)
-				for (coords.t=min.t; coords.t<=max.t; ++coords.t)
-					for (coords.y=min.y; coords.y<=max.y; ++coords.y)
-						for (coords.x=min.x; coords.x<=max.x; ++coords.x) {
-							prefimg.get(coords,array);
-							causalanticausal(array,borders.z,BSPLINE5POLE1);
-							causalanticausal(array,borders.z,BSPLINE5POLE2);
-							scale(array,borders.z,BSPLINE5SCALE);
-							prefimg.set(coords,array);
-						}
-		}
-		
-		// Prefilter in the t-dimension if requested:
-		if (axes.t && (dims.t - 2*borders.t > 1)) {
-			prefimg.axes(Axes.T);
-			final double[] array = new double[dims.t];
-			final Coordinates coords = new Coordinates();
-			for (coords.c=min.c; coords.c<=max.c; ++coords.c)
-				for (coords.z=min.z; coords.z<=max.z; ++coords.z)
-					for (coords.y=min.y; coords.y<=max.y; ++coords.y)
-						for (coords.x=min.x; coords.x<=max.x; ++coords.x) {
-							prefimg.get(coords,array);
-							causalanticausal(array,borders.t,BSPLINE5POLE1);
-							causalanticausal(array,borders.t,BSPLINE5POLE2);
-							scale(array,borders.t,BSPLINE5SCALE);
-							prefimg.set(coords,array);
-						}
-		}
-		
-		// Prefilter in the c-dimension if requested:
-		if (axes.c && (dims.c - 2*borders.c > 1)) {
-			prefimg.axes(Axes.C);
-			final double[] array = new double[dims.c];
-			final Coordinates coords = new Coordinates();
-			for (coords.t=min.t; coords.t<=max.t; ++coords.t)
-				for (coords.z=min.z; coords.z<=max.z; ++coords.z)
-					for (coords.y=min.y; coords.y<=max.y; ++coords.y)
-						for (coords.x=min.x; coords.x<=max.x; ++coords.x) {
-							prefimg.get(coords,array);
-							causalanticausal(array,borders.c,BSPLINE5POLE1);
-							causalanticausal(array,borders.c,BSPLINE5POLE2);
-							scale(array,borders.c,BSPLINE5SCALE);
-							prefimg.set(coords,array);
-						}
-		}
+		// Prefilter in the requested dimensions:
+		if (axes.x) prefilter(prefimg,Axes.X,borders,BSPLINE5);
+		if (axes.y) prefilter(prefimg,Axes.Y,borders,BSPLINE5);
+		if (axes.z) prefilter(prefimg,Axes.Z,borders,BSPLINE5);
+		if (axes.t) prefilter(prefimg,Axes.T,borders,BSPLINE5);
+		if (axes.c) prefilter(prefimg,Axes.C,borders,BSPLINE5);
 		
 		return prefimg;
 	}
 	
+	// Prefilters all lines of the image along the given axis, except for the
+	// lines in the borders. The lines are distributed over the threads:
+	private void prefilter(final Image image, final int axis, final Borders borders, final int kind) {
+		
+		final Dimensions dims = image.dimensions();
+		final int[] sizes = { dims.x, dims.y, dims.z, dims.t, dims.c };
+		final int[] bords = { borders.x, borders.y, borders.z, borders.t, borders.c };
+		final int a = (axis == Axes.X) ? 0 : (axis == Axes.Y) ? 1 : (axis == Axes.Z) ? 2 : (axis == Axes.T) ? 3 : 4;
+		if (sizes[a] - 2*bords[a] <= 1) return;
+		int lines = 1;
+		for (int d=0; d<5; ++d) if (d != a) lines *= Math.max(0,sizes[d] - 2*bords[d]);
+		image.axes(axis);
+		
+		parallelizer.run(lines,new Parallelizer.Block() {
+			public void run(final int first, final int last) {
+				final double[] array = new double[sizes[a]];
+				final int[] c = new int[5];
+				final Coordinates coords = new Coordinates();
+				for (int line=first; line<last; ++line) {
+					// The dimensions other than the axis vary in the order x, y, z, t, c:
+					for (int d=0, l=line; d<5; ++d) if (d != a) {
+						final int n = sizes[d] - 2*bords[d];
+						c[d] = bords[d] + l%n; l /= n;
+					}
+					coords.x = c[0]; coords.y = c[1]; coords.z = c[2]; coords.t = c[3]; coords.c = c[4];
+					image.get(coords,array);
+					switch (kind) {
+						case BSPLINE3: bspline3(array,bords[a]); break;
+						case OMOMS3: omoms3(array,bords[a]); break;
+						case BSPLINE5: bspline5(array,bords[a]); break;
+					}
+					image.set(coords,array);
+				}
+			}
+		});
+	}
+	
 	private void causalanticausal(final double[] array, final int border, final double pole) {
 		
 		final int iTotSize = array.length;
@@ -471,4 +278,7 @@ private void scale(final double[] array, final int border, final double factor)
 		for (int i=iMin; i<=iMax; ++i) array[i] *= factor;
 	}
 	
+	/** The object used for distributing the prefiltering of the lines of an image over multiple threads. */
+	public final Parallelizer parallelizer = new Parallelizer();
+	
 }
@@ -0,0 +1,90 @@
+package imagescience.utility;
+
+import ij.Prefs;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/** Distributes the processing of a number of independent items over multiple threads. The items are handed out to the threads in blocks of consecutive items, so that each thread can allocate its buffers once per block rather than once per item. If only one thread is to be used, the items are processed in the calling thread. */
+public class Parallelizer {
+	
+	private int threads = 0;
+	
+	/** Default constructor. */
+	public Parallelizer() { }
+	
+	/** Specifies the number of threads to be used. The default value is {@code 0}, meaning that the number of threads specified in the ImageJ preferences is used.
+		
+		@param n the number of threads. If {@code 0} or less, the number of threads specified in the ImageJ preferences is used.
+	*/
+	public void threads(final int n) { threads = n; }
+	
+	/** Returns the number of threads to be used. */
+	public int threads() { return (threads > 0) ? threads : Math.max(1,Prefs.getThreads()); }
+	
+	/** Interface for the processing of blocks of items. */
+	public interface Block {
+		
+		/** Processes a block of consecutive items. This method may be called concurrently from different threads for disjoint blocks and should therefore not modify any state shared between blocks without proper synchronization.
+			
+			@param first the index of the first item in the block.
+			
+			@param last the index one past the last item in the block.
+		*/
+		public void run(final int first, final int last);
+	}
+	
+	/** Processes the given number of items. The method returns when all items have been processed.
+		
+		@param items the number of items to be processed. The items are numbered from {@code 0} to {@code items-1}.
+		
+		@param block the object processing the items.
+		
+		@exception NullPointerException if {@code block} is {@code null}.
+		
+		@exception RuntimeException if the processing of any block threw an exception. In that case the first exception is rethrown (wrapped if it is a checked exception) after all threads have finished. Errors are rethrown as is.
+	*/
+	public void run(final int items, final Block block) {
+		
+		if (block == null) throw new NullPointerException();
+		final int nthreads = Math.min(threads(),items);
+		if (nthreads <= 1) {
+			if (items > 0) block.run(0,items);
+			return;
+		}
+		
+		// Several blocks per thread, to balance the load:
+		final int size = Math.max(1,items/(4*nthreads));
+		final AtomicInteger next = new AtomicInteger(0);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		final Thread[] workers = new Thread[nthreads];
+		for (int t=0; t<nthreads; ++t) {
+			workers[t] = new Thread("ImageScience worker "+t) {
+				public void run() {
+					try {
+						int first;
+						while (failure.get() == null && (first = next.getAndAdd(size)) < items)
+							block.run(first,Math.min(first + size,items));
+					} catch (Throwable e) {
+						failure.compareAndSet(null,e);
+					}
+				}
+			};
+			workers[t].start();
+		}
+		
+		boolean interrupted = false;
+		for (int t=0; t<nthreads; ++t) {
+			while (true) {
+				try { workers[t].join(); break; }
+				catch (InterruptedException e) { interrupted = true; }
+			}
+		}
+		if (interrupted) Thread.currentThread().interrupt();
+		
+		final Throwable e = failure.get();
+		if (e instanceof RuntimeException) throw (RuntimeException)e;
+		if (e instanceof Error) throw (Error)e;
+		if (e != null) throw new RuntimeException(e);
+	}
+	
+}